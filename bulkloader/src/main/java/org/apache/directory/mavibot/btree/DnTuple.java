@@ -20,30 +20,80 @@
 package org.apache.directory.mavibot.btree;
 
 
-import java.util.UUID;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.schema.comparators.DnComparator;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
- * TODO DnTuple.
+ * The position of an entry in the LDIF file, with its place in the DIT. The tuples
+ * are sorted on a key made of the normalized RDNs of the entry, from the root down
+ * to the entry itself, separated by a 0x00 byte. Sorting the tuples on this key
+ * puts every entry right after its parent, and all the descendants of an entry
+ * right after it.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DnTuple implements Comparable<DnTuple>
 {
-    /** The DN */
+    /** The separator used between two RDNs in the key */
+    private static final int SEPARATOR = 0x00;
+
+    /** Compares the keys as unsigned bytes */
+    static final Comparator<DnTuple> COMPARATOR = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt1, DnTuple dt2 )
+        {
+            return compareKeys( dt1.key, dt2.key );
+        }
+    };
+
+    /** Reads and writes the DnTuples in the sorted runs */
+    static final ExternalSorter.Codec<DnTuple> CODEC = new ExternalSorter.Codec<DnTuple>()
+    {
+        @Override
+        public void write( DataOutput out, DnTuple dt ) throws IOException
+        {
+            out.writeInt( dt.key.length );
+            out.write( dt.key );
+            out.writeLong( dt.offset );
+            out.writeInt( dt.len );
+        }
+
+
+        @Override
+        public DnTuple read( DataInput in ) throws IOException
+        {
+            byte[] key = new byte[in.readInt()];
+            in.readFully( key );
+
+            return new DnTuple( key, in.readLong(), in.readInt() );
+        }
+    };
+
+    /** The DN, only known once the entry has been read */
     private Dn dn;
 
-    /** The DN length */
+    /** The sort key */
+    private final byte[] key;
+
+    /** The entry length */
     private int len;
 
     /** The offset if the LDIF file */
     private long offset;
 
-    /** The DN ID */
+    /** The entry ID */
     private String id;
 
     private DnTuple parent;
@@ -52,16 +102,96 @@ public class DnTuple implements Comparable<DnTuple>
 
     private int nbDecendents = 0;
 
-    private static final DnComparator COMPARATOR = new DnComparator( null );
-
 
     public DnTuple( Dn dn, long offset, int len )
     {
+        this( createKey( dn ), offset, len );
         this.dn = dn;
+    }
+
+
+    private DnTuple( byte[] key, long offset, int len )
+    {
+        this.key = key;
         this.offset = offset;
         this.len = len;
+    }
+
+
+    /**
+     * Builds the sort key of a schema aware DN
+     */
+    private static byte[] createKey( Dn dn )
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        List<Rdn> rdns = dn.getRdns();
+
+        for ( int i = rdns.size() - 1; i >= 0; i-- )
+        {
+            byte[] rdn = Strings.getBytesUtf8( rdns.get( i ).getNormName() );
+            baos.write( rdn, 0, rdn.length );
+
+            if ( i > 0 )
+            {
+                baos.write( SEPARATOR );
+            }
+        }
 
-        this.id = UUID.randomUUID().toString();
+        return baos.toByteArray();
+    }
+
+
+    private static int compareKeys( byte[] key1, byte[] key2 )
+    {
+        int length = Math.min( key1.length, key2.length );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            int b1 = key1[i] & 0xFF;
+            int b2 = key2[i] & 0xFF;
+
+            if ( b1 != b2 )
+            {
+                return b1 - b2;
+            }
+        }
+
+        return key1.length - key2.length;
+    }
+
+
+    /**
+     * Tells if this tuple is the parent of the given tuple, comparing the keys.
+     *
+     * @param child The potential child
+     * @return <code>true</code> if this tuple's entry is the parent of the child's entry
+     */
+    public boolean isParentOf( DnTuple child )
+    {
+        byte[] childKey = child.key;
+
+        if ( ( childKey.length <= key.length ) || ( childKey[key.length] != SEPARATOR ) )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < key.length; i++ )
+        {
+            if ( key[i] != childKey[i] )
+            {
+                return false;
+            }
+        }
+
+        for ( int i = key.length + 1; i < childKey.length; i++ )
+        {
+            if ( childKey[i] == SEPARATOR )
+            {
+                return false;
+            }
+        }
+
+        return true;
     }
 
 
@@ -71,6 +201,12 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
+    public void setDn( Dn dn )
+    {
+        this.dn = dn;
+    }
+
+
     public int getLen()
     {
         return len;
@@ -115,14 +251,14 @@ public class DnTuple implements Comparable<DnTuple>
     @Override
     public int compareTo( DnTuple otherTuple )
     {
-        return COMPARATOR.compare( otherTuple.dn, dn );
+        return compareKeys( key, otherTuple.key );
     }
 
 
     @Override
     public int hashCode()
     {
-        return dn.hashCode();
+        return Arrays.hashCode( key );
     }
 
 
@@ -134,25 +270,12 @@ public class DnTuple implements Comparable<DnTuple>
             return true;
         }
 
-        if ( obj == null )
+        if ( !( obj instanceof DnTuple ) )
         {
             return false;
         }
 
-        DnTuple other = ( DnTuple ) obj;
-        if ( dn == null )
-        {
-            if ( other.dn != null )
-            {
-                return false;
-            }
-        }
-        else if ( !dn.equals( other.dn ) )
-        {
-            return false;
-        }
-
-        return true;
+        return Arrays.equals( key, ( ( DnTuple ) obj ).key );
     }
 
 
@@ -198,5 +321,4 @@ public class DnTuple implements Comparable<DnTuple>
             + getParentId()
             + ", nbChildren=" + nbChildren + ", nbDecendents=" + nbDecendents + "]";
     }
-
 }
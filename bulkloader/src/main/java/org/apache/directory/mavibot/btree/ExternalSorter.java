@@ -0,0 +1,657 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import org.apache.directory.mavibot.btree.serializer.ElementSerializer;
+
+
+/**
+ * An external merge sort. The elements are kept in memory until a given number of
+ * them has been added, then they are sorted and written in a run file. Once all the
+ * elements have been added, the runs are merged. The elements can be added
+ * concurrently.
+ * <br>
+ * When an executor is provided, the runs are sorted and written by the executor
+ * while the caller goes on adding elements, otherwise they are sorted by the thread
+ * which has filled the buffer.
+ *
+ * @param <T> The type of the sorted elements
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorter<T> implements Closeable
+{
+    /** The maximum number of runs merged at once */
+    private static final int MERGE_FACTOR = 64;
+
+    /** The size of the buffers used to read and write the runs */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The maximum number of runs being written at the same time by the executor */
+    private static final int MAX_PENDING_RUNS = 2;
+
+    /**
+     * Writes and reads the sorted elements in the run files.
+     *
+     * @param <T> The type of the sorted elements
+     */
+    public interface Codec<T>
+    {
+        /**
+         * Writes an element
+         *
+         * @param out The output
+         * @param element The element to write
+         * @throws IOException If the element can't be written
+         */
+        void write( DataOutput out, T element ) throws IOException;
+
+
+        /**
+         * Reads an element
+         *
+         * @param in The input
+         * @return The element
+         * @throws IOException If the element can't be read
+         */
+        T read( DataInput in ) throws IOException;
+    }
+
+    /** The elements comparator */
+    private final Comparator<T> comparator;
+
+    /** The elements codec */
+    private final Codec<T> codec;
+
+    /** The directory where the runs are written */
+    private final File tmpDir;
+
+    /** The maximum number of elements kept in memory before a run is written */
+    private final int maxInMemory;
+
+    /** The executor sorting and writing the runs, if any */
+    private final Executor executor;
+
+    /** Limits the number of runs being written by the executor */
+    private final Semaphore pending = new Semaphore( MAX_PENDING_RUNS );
+
+    /** The elements not yet written in a run */
+    private List<T> buffer;
+
+    /** The written runs */
+    private final List<File> runs = new ArrayList<>();
+
+    /** The number of added elements */
+    private long size;
+
+    /** The first error met by the executor while writing a run */
+    private volatile Throwable failure;
+
+    /** Tells if the sorter has been closed */
+    private boolean closed;
+
+
+    /**
+     * Creates a new instance of ExternalSorter.
+     *
+     * @param comparator The elements comparator
+     * @param codec The elements codec
+     * @param tmpDir The directory where the runs are written
+     * @param maxInMemory The maximum number of elements kept in memory before a run is written
+     * @param executor The executor sorting and writing the runs. May be null
+     */
+    public ExternalSorter( Comparator<T> comparator, Codec<T> codec, File tmpDir, int maxInMemory,
+        Executor executor )
+    {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.tmpDir = tmpDir;
+        this.maxInMemory = Math.max( 1, maxInMemory );
+        this.executor = executor;
+        buffer = new ArrayList<>();
+    }
+
+
+    /**
+     * Creates a codec for the elements of a B-tree, using its serializer.
+     *
+     * @param serializer The element serializer
+     * @return The element codec
+     */
+    public static <E> Codec<E> serializerCodec( final ElementSerializer<E> serializer )
+    {
+        return new Codec<E>()
+        {
+            @Override
+            public void write( DataOutput out, E element ) throws IOException
+            {
+                writeBytes( out, serializer.serialize( element ) );
+            }
+
+
+            @Override
+            public E read( DataInput in ) throws IOException
+            {
+                return serializer.fromBytes( readBytes( in ) );
+            }
+        };
+    }
+
+
+    /**
+     * Creates a codec for the tuples of a B-tree, using its key and value serializers.
+     *
+     * @param keySerializer The key serializer
+     * @param valueSerializer The value serializer
+     * @return The tuple codec
+     */
+    public static <K, V> Codec<Tuple<K, V>> tupleCodec( ElementSerializer<K> keySerializer,
+        ElementSerializer<V> valueSerializer )
+    {
+        return tupleCodec( serializerCodec( keySerializer ), serializerCodec( valueSerializer ) );
+    }
+
+
+    /**
+     * Creates a codec for the tuples of a B-tree, using a codec for the keys and one
+     * for the values.
+     *
+     * @param keyCodec The key codec
+     * @param valueCodec The value codec
+     * @return The tuple codec
+     */
+    public static <K, V> Codec<Tuple<K, V>> tupleCodec( final Codec<K> keyCodec, final Codec<V> valueCodec )
+    {
+        return new Codec<Tuple<K, V>>()
+        {
+            @Override
+            public void write( DataOutput out, Tuple<K, V> tuple ) throws IOException
+            {
+                keyCodec.write( out, tuple.getKey() );
+                valueCodec.write( out, tuple.getValue() );
+            }
+
+
+            @Override
+            public Tuple<K, V> read( DataInput in ) throws IOException
+            {
+                K key = keyCodec.read( in );
+                V value = valueCodec.read( in );
+
+                return new Tuple<>( key, value );
+            }
+        };
+    }
+
+
+    /**
+     * Creates a comparator ordering the tuples on their key, then on their value.
+     *
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @return The tuple comparator
+     */
+    public static <K, V> Comparator<Tuple<K, V>> tupleComparator( final Comparator<K> keyComparator,
+        final Comparator<V> valueComparator )
+    {
+        return new Comparator<Tuple<K, V>>()
+        {
+            @Override
+            public int compare( Tuple<K, V> t1, Tuple<K, V> t2 )
+            {
+                int result = keyComparator.compare( t1.getKey(), t2.getKey() );
+
+                if ( result != 0 )
+                {
+                    return result;
+                }
+
+                return valueComparator.compare( t1.getValue(), t2.getValue() );
+            }
+        };
+    }
+
+
+    private static void writeBytes( DataOutput out, byte[] bytes ) throws IOException
+    {
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static byte[] readBytes( DataInput in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+
+
+    /**
+     * Adds an element. When the buffer is full, it's sorted and written in a run.
+     *
+     * @param element The element to add
+     * @throws IOException If the run can't be written
+     */
+    public void add( T element ) throws IOException
+    {
+        List<T> full = null;
+
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                throw new IllegalStateException( "The sorter has been closed" );
+            }
+
+            buffer.add( element );
+            size++;
+
+            if ( buffer.size() >= maxInMemory )
+            {
+                full = buffer;
+                buffer = new ArrayList<>();
+            }
+        }
+
+        if ( full != null )
+        {
+            spill( full );
+        }
+    }
+
+
+    /**
+     * @return The number of added elements
+     */
+    public synchronized long size()
+    {
+        return size;
+    }
+
+
+    private void spill( final List<T> elements ) throws IOException
+    {
+        checkFailure();
+
+        if ( executor == null )
+        {
+            addRun( writeRun( elements ) );
+
+            return;
+        }
+
+        pending.acquireUninterruptibly();
+
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        addRun( writeRun( elements ) );
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure = t;
+                    }
+                    finally
+                    {
+                        pending.release();
+                    }
+                }
+            } );
+        }
+        catch ( RuntimeException re )
+        {
+            pending.release();
+            throw re;
+        }
+    }
+
+
+    private void checkFailure() throws IOException
+    {
+        Throwable t = failure;
+
+        if ( t != null )
+        {
+            throw new IOException( "Failed to write a sorted run", t );
+        }
+    }
+
+
+    private synchronized void addRun( File run )
+    {
+        runs.add( run );
+    }
+
+
+    /**
+     * Sorts the elements and writes them in a new run file.
+     */
+    private File writeRun( List<T> elements ) throws IOException
+    {
+        elements.sort( comparator );
+
+        File run = File.createTempFile( "run-", ".tmp", tmpDir );
+
+        try ( DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( run ), BUFFER_SIZE ) ) )
+        {
+            out.writeLong( elements.size() );
+
+            for ( T element : elements )
+            {
+                codec.write( out, element );
+            }
+        }
+
+        return run;
+    }
+
+
+    /**
+     * Merges some runs in a new run file.
+     */
+    private File mergeRuns( List<File> toMerge ) throws IOException
+    {
+        File run = File.createTempFile( "run-", ".tmp", tmpDir );
+        MergeIterator iterator = new MergeIterator( toMerge );
+
+        try ( DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( run ), BUFFER_SIZE ) ) )
+        {
+            out.writeLong( iterator.remaining );
+
+            while ( iterator.hasNext() )
+            {
+                codec.write( out, iterator.next() );
+            }
+        }
+        finally
+        {
+            iterator.close();
+        }
+
+        for ( File merged : toMerge )
+        {
+            merged.delete();
+        }
+
+        return run;
+    }
+
+
+    /**
+     * Waits for the runs being written by the executor.
+     *
+     * @throws IOException If a run can't be written
+     */
+    public void awaitRuns() throws IOException
+    {
+        pending.acquireUninterruptibly( MAX_PENDING_RUNS );
+        pending.release( MAX_PENDING_RUNS );
+        checkFailure();
+    }
+
+
+    /**
+     * Waits for the pending runs, then merges them until at most {@link #MERGE_FACTOR} runs
+     * remain. After this call, no element can be added anymore.
+     *
+     * @throws IOException If the runs can't be written or merged
+     */
+    public void sort() throws IOException
+    {
+        List<T> remaining;
+
+        synchronized ( this )
+        {
+            closed = true;
+            remaining = buffer;
+            buffer = new ArrayList<>();
+        }
+
+        awaitRuns();
+
+        synchronized ( this )
+        {
+            if ( runs.isEmpty() )
+            {
+                // Everything fits in memory
+                remaining.sort( comparator );
+                buffer = remaining;
+
+                return;
+            }
+        }
+
+        if ( !remaining.isEmpty() )
+        {
+            addRun( writeRun( remaining ) );
+        }
+
+        synchronized ( this )
+        {
+            while ( runs.size() > MERGE_FACTOR )
+            {
+                List<File> toMerge = new ArrayList<>( runs.subList( 0, MERGE_FACTOR ) );
+                runs.subList( 0, MERGE_FACTOR ).clear();
+                runs.add( mergeRuns( toMerge ) );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the sorted elements. {@link #sort()} must have been called before.
+     *
+     * @return An iterator over the sorted elements
+     * @throws IOException If the runs can't be read
+     */
+    public synchronized Iterator<T> iterator() throws IOException
+    {
+        if ( !closed )
+        {
+            throw new IllegalStateException( "The sorter has not been sorted" );
+        }
+
+        if ( runs.isEmpty() )
+        {
+            return buffer.iterator();
+        }
+
+        return new MergeIterator( runs );
+    }
+
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        buffer = new ArrayList<>();
+
+        for ( File run : runs )
+        {
+            run.delete();
+        }
+
+        runs.clear();
+    }
+
+
+    /**
+     * A run being read
+     */
+    private class RunReader
+    {
+        private final DataInputStream in;
+
+        private long remaining;
+
+        private T current;
+
+
+        RunReader( File run ) throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ), BUFFER_SIZE ) );
+            remaining = in.readLong();
+        }
+
+
+        boolean advance() throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                current = null;
+                in.close();
+
+                return false;
+            }
+
+            current = codec.read( in );
+            remaining--;
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Merges sorted runs, using a heap of the runs' current elements.
+     */
+    private class MergeIterator implements Iterator<T>, Closeable
+    {
+        private final PriorityQueue<RunReader> heap;
+
+        private final List<RunReader> readers = new ArrayList<>();
+
+        private long remaining;
+
+
+        MergeIterator( List<File> toMerge ) throws IOException
+        {
+            heap = new PriorityQueue<>( Math.max( 1, toMerge.size() ), new Comparator<RunReader>()
+            {
+                @Override
+                public int compare( RunReader r1, RunReader r2 )
+                {
+                    return comparator.compare( r1.current, r2.current );
+                }
+            } );
+
+            try
+            {
+                for ( File run : toMerge )
+                {
+                    RunReader reader = new RunReader( run );
+                    readers.add( reader );
+                    remaining += reader.remaining;
+
+                    if ( reader.advance() )
+                    {
+                        heap.add( reader );
+                    }
+                }
+            }
+            catch ( IOException ioe )
+            {
+                close();
+                throw ioe;
+            }
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return !heap.isEmpty();
+        }
+
+
+        @Override
+        public T next()
+        {
+            RunReader reader = heap.poll();
+
+            if ( reader == null )
+            {
+                throw new NoSuchElementException();
+            }
+
+            T element = reader.current;
+
+            try
+            {
+                if ( reader.advance() )
+                {
+                    heap.add( reader );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new UncheckedIOException( ioe );
+            }
+
+            return element;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            for ( RunReader reader : readers )
+            {
+                reader.in.close();
+            }
+
+            heap.clear();
+        }
+    }
+}
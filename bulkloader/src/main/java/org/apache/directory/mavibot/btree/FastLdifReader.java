@@ -20,11 +20,13 @@
 package org.apache.directory.mavibot.btree;
 
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
@@ -42,6 +44,11 @@ import org.slf4j.LoggerFactory;
 /**
  * An LDIF reader that gathers an entry's DN, length and offset.
  * This is a special parser implemented for use in bulk loader tool.
+ * <br>
+ * The reader can be limited to a range of the file, which must start at an entry
+ * boundary, so that many readers can parse a file concurrently. The file is read
+ * as ISO-8859-1, so that a char is a byte and the offsets are positions in the
+ * file. The DNs are decoded from UTF-8 afterward.
  * 
  * This class is not suitable for general purpose use.
  * 
@@ -67,13 +74,47 @@ import org.slf4j.LoggerFactory;
      * Creates a new instance of FastLdifReader.
      *
      * @param file the LDIF file
-     * @throws LdapException 
-     * @throws FileNotFoundException 
+     * @param dnFactory the DN factory
+     * @throws LdapException If the first entry can't be read
+     * @throws IOException If the file can't be opened
      */
-    public FastLdifReader( File file, DnFactory dnFactory ) throws LdapException, FileNotFoundException
+    FastLdifReader( File file, DnFactory dnFactory ) throws LdapException, IOException
+    {
+        this( file, 0L, file.length(), dnFactory );
+    }
+
+
+    /**
+     * 
+     * Creates a new instance of FastLdifReader, reading the entries stored in
+     * a range of the file.
+     *
+     * @param file the LDIF file
+     * @param start the position of the first entry to read
+     * @param end the position following the last entry to read
+     * @param dnFactory the DN factory
+     * @throws LdapException If the first entry can't be read
+     * @throws IOException If the file can't be opened
+     */
+    FastLdifReader( File file, long start, long end, DnFactory dnFactory ) throws LdapException, IOException
     {
         super();
-        reader = new PositionBufferedReader( new FileReader( file ) );
+
+        FileInputStream in = new FileInputStream( file );
+
+        try
+        {
+            in.getChannel().position( start );
+        }
+        catch ( IOException ioe )
+        {
+            in.close();
+            throw ioe;
+        }
+
+        reader = new PositionBufferedReader( new InputStreamReader( new RangeInputStream( in, end - start ),
+            StandardCharsets.ISO_8859_1 ), start );
+        offset = start;
         this.dnFactory = dnFactory;
         validateDn = false;
         
@@ -127,6 +168,12 @@ import org.slf4j.LoggerFactory;
 
             // We have found the version, just discard the line from the list
             lines.remove( 0 );
+
+            // The version may be followed by an empty line
+            if ( lines.isEmpty() )
+            {
+                fastReadLines();
+            }
         }
 
         return;
@@ -172,16 +219,15 @@ import org.slf4j.LoggerFactory;
                 throw new NoSuchElementException( le.getMessage() );
             }
 
-            //System.out.println( nextTuple );
             LOG.debug( "next(): -- saving DnTuple {}\n", nextTuple );
 
             return null;
         }
         catch ( LdapLdifException ne )
         {
-            ne.printStackTrace();
             LOG.error( I18n.err( I18n.ERR_13430_PREMATURE_LDIF_ITERATOR_TERMINATION ) );
             error = ne;
+            firstFetchedTuple = null;
             return null;
         }
     }
@@ -204,11 +250,12 @@ import org.slf4j.LoggerFactory;
 
         lineNumber -= ( lines.size() - 1 );
 
-        String name = parseDn( line );
+        // The line has been read as ISO-8859-1 : decode it
+        String name = parseDn( new String( line.getBytes( StandardCharsets.ISO_8859_1 ), StandardCharsets.UTF_8 ) );
 
         Dn dn = dnFactory.create( name );
 
-        DnTuple tuple = new DnTuple( dn, entryOffset, (int)(offset - entryOffset) );
+        DnTuple tuple = new DnTuple( dn, entryOffset, ( int ) ( offset - entryOffset ) );
 
         return tuple;
     }
@@ -254,7 +301,7 @@ import org.slf4j.LoggerFactory;
                     {
                         // The line is empty, we have read an entry
                         insideComment = false;
-                        offset = ((PositionBufferedReader)reader).getFilePos();
+                        offset = ( ( PositionBufferedReader ) reader ).getFilePos();
 
                         break;
                     }
@@ -302,7 +349,7 @@ import org.slf4j.LoggerFactory;
                         break;
                 }
 
-                offset = ((PositionBufferedReader)reader).getFilePos();
+                offset = ( ( PositionBufferedReader ) reader ).getFilePos();
             }
         }
         catch ( IOException ioe )
@@ -316,4 +363,76 @@ import org.slf4j.LoggerFactory;
             lines.add( sb.toString() );
         }
     }
+
+
+    /**
+     * An InputStream which stops after a given number of bytes.
+     */
+    private static class RangeInputStream extends FilterInputStream
+    {
+        /** The number of bytes left */
+        private long remaining;
+
+
+        RangeInputStream( InputStream in, long length )
+        {
+            super( in );
+            remaining = length;
+        }
+
+
+        @Override
+        public int read() throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+
+            int b = super.read();
+
+            if ( b >= 0 )
+            {
+                remaining--;
+            }
+
+            return b;
+        }
+
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+
+            int nbRead = super.read( b, off, ( int ) Math.min( len, remaining ) );
+
+            if ( nbRead > 0 )
+            {
+                remaining -= nbRead;
+            }
+
+            return nbRead;
+        }
+
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            long skipped = super.skip( Math.min( n, remaining ) );
+            remaining -= skipped;
+
+            return skipped;
+        }
+
+
+        @Override
+        public int available() throws IOException
+        {
+            return ( int ) Math.min( super.available(), remaining );
+        }
+    }
 }
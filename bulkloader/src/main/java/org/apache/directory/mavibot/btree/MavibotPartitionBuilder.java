@@ -25,41 +25,38 @@ import static org.apache.directory.mavibot.btree.BTreeFactory.createNode;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setKey;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setValue;
 
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
-import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
-import org.apache.directory.api.ldap.model.filter.ExprNode;
-import org.apache.directory.api.ldap.model.filter.PresenceNode;
-import org.apache.directory.api.ldap.model.ldif.LdifEntry;
-import org.apache.directory.api.ldap.model.ldif.LdifReader;
-import org.apache.directory.api.ldap.model.message.SearchRequest;
-import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -67,19 +64,16 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.DateUtils;
-import org.apache.directory.mavibot.btree.serializer.LongSerializer;
-import org.apache.directory.mavibot.btree.serializer.StringSerializer;
-import org.apache.directory.mavibot.btree.util.Strings;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.TimeProvider;
+import org.apache.directory.mavibot.btree.serializer.ElementSerializer;
 import org.apache.directory.server.config.ConfigPartitionReader;
 import org.apache.directory.server.config.LdifConfigExtractor;
 import org.apache.directory.server.config.beans.ConfigBean;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.constants.ServerDNConstants;
-import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.DnFactory;
-import org.apache.directory.server.core.api.InstanceLayout;
-import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
-import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPartition;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotRdnIndex;
@@ -87,19 +81,45 @@ import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
-import org.apache.directory.server.xdbm.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * A BTree builder that builds a tree from the bottom.
+ * A partition builder that builds the B-trees from the bottom.
+ * <br>
+ * The LDIF file is processed in a few steps, none of them holding all the entries in memory :
+ * <ul>
+ * <li>the DNs are read in parallel, each thread parsing a chunk of the file, and
+ * sorted with an external merge sort so that each entry comes right after its parent</li>
+ * <li>the entries are read in this order, and written in the master table. At the same
+ * time, the tuples of the RDN index and of the other indexes are added to their own
+ * external sorters</li>
+ * <li>the indexes are built concurrently on a fork-join pool : the sorted runs are merged
+ * in parallel, the B-trees being written one at a time</li>
+ * </ul>
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 @SuppressWarnings("all")
 public class MavibotPartitionBuilder
 {
+    /** The estimated memory used by a tuple waiting to be sorted */
+    private static final long ESTIMATED_TUPLE_SIZE = 256L;
+
+    /** The default size of the chunks parsed in parallel */
+    private static final long DEFAULT_CHUNK_SIZE = 64L * 1024L * 1024L;
+
+    /** The system indexes, which don't have their attribute in the presence index */
+    private static final Set<String> SYSTEM_INDEXES = new HashSet<>( Arrays.asList(
+        ApacheSchemaConstants.APACHE_RDN_AT_OID,
+        ApacheSchemaConstants.APACHE_PRESENCE_AT_OID,
+        ApacheSchemaConstants.APACHE_ALIAS_AT_OID,
+        ApacheSchemaConstants.APACHE_ONE_ALIAS_AT_OID,
+        ApacheSchemaConstants.APACHE_SUB_ALIAS_AT_OID,
+        SchemaConstants.OBJECT_CLASS_AT_OID,
+        SchemaConstants.ENTRY_CSN_AT_OID ) );
+
     private int numKeysInNode = BTree.DEFAULT_PAGE_SIZE; // default size
 
     private Dn suffixDn;
@@ -108,12 +128,10 @@ public class MavibotPartitionBuilder
 
     private RecordManager rm;
 
-    //private MavibotPartition partition;
+    /** Serializes the writes in the RecordManager */
+    private final Object rmLock = new Object();
 
     private SchemaManager schemaManager;
-    
-    /** The CacheService used internally by the partition */
-    private CacheService cacheService;
 
     private CsnFactory csnFactory;
 
@@ -129,11 +147,35 @@ public class MavibotPartitionBuilder
     
     private List<String> indexAttributes = new ArrayList<String>();
     
-    private int totalEntries = 0;
+    private long totalEntries = 0;
     
     /** The DN factory, used to check DN */ 
     private DnFactory dnFactory;
 
+    /** The number of threads parsing the LDIF file and building the indexes */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** The size of the chunks of the LDIF file parsed in parallel */
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /** The memory used by the tuples waiting to be sorted */
+    private long memoryLimit = Runtime.getRuntime().maxMemory() / 4;
+
+    /** The directory where the sorted runs are written */
+    private File tmpDir;
+
+    /** The first part of the entry IDs */
+    private final String idPrefix = UUID.randomUUID().toString().substring( 0, 19 );
+
+    /** The number of created IDs */
+    private long idCounter;
+
+    /** The number of indexes */
+    private int nbIndexes;
+
+    /** The attributes stored in the presence index */
+    private final List<AttributeType> presenceAttributes = new ArrayList<>();
+
     private static final Logger LOG = LoggerFactory.getLogger( MavibotPartitionBuilder.class );
 
 
@@ -169,6 +211,34 @@ public class MavibotPartitionBuilder
         this.csnFactory = new CsnFactory( rid );
     }
 
+
+    /**
+     * @param parallelism The number of threads parsing the LDIF file and building the indexes
+     */
+    public void setParallelism( int parallelism )
+    {
+        this.parallelism = Math.max( 1, parallelism );
+    }
+
+
+    /**
+     * @param chunkSize The size of the chunks of the LDIF file parsed in parallel
+     */
+    public void setChunkSize( long chunkSize )
+    {
+        this.chunkSize = Math.max( 1L, chunkSize );
+    }
+
+
+    /**
+     * @param memoryLimit The memory, in bytes, used by the tuples waiting to be sorted. When
+     * it's reached, the tuples are sorted and written in temporary files
+     */
+    public void setMemoryLimit( long memoryLimit )
+    {
+        this.memoryLimit = memoryLimit;
+    }
+
     
     /**
      * Load the configuration. This is a needed step, as we have to know which indexes
@@ -227,7 +297,7 @@ public class MavibotPartitionBuilder
             Object val = tuple.getValue();
             ValueHolder eh = null;
             
-            if( btree.allowDuplicates )
+            if ( btree.allowDuplicates )
             {
                 Set s = ( Set ) val;
                 val = s.toArray();
@@ -250,11 +320,10 @@ public class MavibotPartitionBuilder
                 
                 PageHolder pageHolder = ( PageHolder ) rm.writePage( btree, leaf1, newRevision );
 
-                if( ( totalLeaves % ( numKeysInNode + 1 ) ) == 0 )
+                if ( ( totalLeaves % ( numKeysInNode + 1 ) ) == 0 )
                 {
-                    //System.out.println( "Processed tuples " + totalTuples );
                     cleanLastLeaf( lstLeaves, btree, newRevision );
-                    if( !lstLeaves.isEmpty() )
+                    if ( !lstLeaves.isEmpty() )
                     {
                         Page node = attachNodes( lstLeaves, btree );
                         lstNodes.add( node );
@@ -270,10 +339,10 @@ public class MavibotPartitionBuilder
             }
         }
 
-        if( !lstLeaves.isEmpty() )
+        if ( !lstLeaves.isEmpty() )
         {
             cleanLastLeaf( lstLeaves, btree, newRevision );
-            if( !lstLeaves.isEmpty() )
+            if ( !lstLeaves.isEmpty() )
             {
                 Page node = attachNodes( lstLeaves, btree );
                 lstNodes.add( node );
@@ -293,12 +362,8 @@ public class MavibotPartitionBuilder
         
         Page oldRoot = btree.getRootPage();
         
-        //System.out.println("built rootpage : " + rootPage);
         btree.setNbElems( totalTuples );
 
-        long newRootPageOffset = ( ( AbstractPage ) rootPage ).getOffset();
-        System.out.println( "replacing old offset " + btree.getRootPageOffset() + " of the BTree " + name + " with " + newRootPageOffset );
-        
         BTreeHeader header = btree.getBtreeHeader();
         
         header.setRootPage( rootPage );
@@ -321,7 +386,7 @@ public class MavibotPartitionBuilder
     
     private void cleanLastLeaf( List<Page> lstLeaves, BTree btree, long newRevision ) throws IOException
     {
-        if( lstLeaves.isEmpty() )
+        if ( lstLeaves.isEmpty() )
         {
             return;
         }
@@ -332,7 +397,6 @@ public class MavibotPartitionBuilder
         if ( lastLeaf.keys[0] == null )
         {
             lstLeaves.remove( lastLeaf );
-            //System.out.println( "removed last leaf" );
             return;
         }
         
@@ -391,7 +455,7 @@ public class MavibotPartitionBuilder
             {
                 PageHolder pageHolder = ( PageHolder ) rm.writePage( btree, node, 1 );
 
-                if( children.size() == attachedChildren )
+                if ( children.size() == attachedChildren )
                 {
                     break;
                 }
@@ -409,7 +473,6 @@ public class MavibotPartitionBuilder
         if ( lastNode.keys[0] == null )
         {
             lstNodes.remove( lastNode );
-            //System.out.println( "removed last node" );
             return attachNodes( lstNodes, btree );
         }
 
@@ -434,372 +497,295 @@ public class MavibotPartitionBuilder
     }
 
 
-    private static void calcLevels( int totalKeys, int numKeysPerPage )
+    /**
+     * Splits the LDIF file in chunks of about {@link #chunkSize} bytes. Each chunk starts
+     * at an entry boundary, ie after an empty line.
+     *
+     * @param file The LDIF file
+     * @return The positions of the chunks, the last one being the file length
+     * @throws IOException If the file can't be read
+     */
+    /* no qualifier */ long[] getChunks( File file ) throws IOException
     {
-        int numLevels = 0;
+        long length = file.length();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add( 0L );
 
-        while ( totalKeys > 1 )
+        try ( RandomAccessFile chunkRaf = new RandomAccessFile( file, "r" ) )
         {
-            if ( numLevels > 0 )
+            for ( long nominal = chunkSize; nominal < length; nominal += chunkSize )
             {
-                // for nodes
-                numKeysPerPage += 1;
-            }
-
-            int rem = ( totalKeys % numKeysPerPage );
+                long boundary = findEntryBoundary( chunkRaf, nominal, length );
 
-            totalKeys = totalKeys / numKeysPerPage;
-
-            if ( rem != 0 )
-            {
-                totalKeys += 1;
-            }
+                if ( boundary > boundaries.get( boundaries.size() - 1 ) )
+                {
+                    boundaries.add( boundary );
+                }
 
-            if ( numLevels == 0 )
-            {
-                System.out.println( "Total Leaves " + totalKeys );
+                // Don't produce chunks smaller than the chunk size
+                nominal = Math.max( nominal, boundary );
             }
-            else
-            {
-                System.out.println( "Total Nodes " + totalKeys );
-            }
-
-            numLevels++;
         }
 
-        System.out.println( numLevels );
-    }
-
-
-    private Set<DnTuple> getDnTuples() throws Exception
-    {
-        File file = new File( ldifFile );
-
-        raf = new RandomAccessFile( file, "r" );
-
-        FastLdifReader reader = new FastLdifReader( file, dnFactory );
-
-        Set<DnTuple> sortedDnSet = new TreeSet<DnTuple>();
-
-        while ( reader.hasNext() )
+        if ( boundaries.get( boundaries.size() - 1 ) < length )
         {
-            // FastLdifReader will always return NULL LdifEntry
-            // call getDnTuple() after next() to get a DnTuple
-            reader.next();
-            
-            DnTuple dt = reader.getDnTuple();
-            
-            dt.getDn().apply( schemaManager );
-            sortedDnSet.add( dt );
-
-            if ( dt.getDn().toString().equals( "uid=user.29998,ou=People,dc=example,dc=com" ) )
-            {
-                System.out.println( dt );
-            }
+            boundaries.add( length );
         }
 
-        reader.close();
+        long[] chunks = new long[boundaries.size()];
 
-        if ( sortedDnSet.isEmpty() )
+        for ( int i = 0; i < chunks.length; i++ )
         {
-            return Collections.EMPTY_SET;
+            chunks[i] = boundaries.get( i );
         }
 
-        Iterator<DnTuple> itr = sortedDnSet.iterator();
-        /*
-        FileWriter fw = new FileWriter( "/tmp/dntuples.txt" );
-        while( itr.hasNext() )
-        {
-            fw.write( itr.next().getDn().getName() + "\n" );
-        }
-        
-        fw.close();
-        itr = sortedDnSet.iterator();
-        */
-        DnTuple root = itr.next();
-        root.setParent( null );
+        return chunks;
+    }
 
-        suffixDn = root.getDn();
-        
-        System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
-        
-        Map<String, DnTuple> parentDnIdMap = new HashMap<String, DnTuple>();
-        parentDnIdMap.put( root.getDn().getNormName(), root );
 
-        DnTuple prevTuple = root;
-        
-        while ( itr.hasNext() )
+    /**
+     * Finds the first position after the given one which follows an empty line.
+     */
+    private static long findEntryBoundary( RandomAccessFile file, long from, long length ) throws IOException
+    {
+        // Read the three bytes before the position, to know if it follows an empty line
+        long pos = Math.max( 0L, from - 3 );
+        file.seek( pos );
+        int b1 = -1;
+        int b2 = -1;
+        int b3 = -1;
+        byte[] buffer = new byte[8192];
+
+        while ( pos < length )
         {
-            DnTuple dt = itr.next();
-
-            String parentDn = dt.getDn().getParent().getNormName();
-            DnTuple parent = parentDnIdMap.get( parentDn );
+            int nbRead = file.read( buffer );
 
-            if ( parent == null )
+            if ( nbRead < 0 )
             {
-                if ( parentDn.equals( prevTuple.getDn().getNormName() ) )
-                {
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), prevTuple );
-                    parent = prevTuple;
-                }
-                else
-                {
-                    throw new IllegalStateException( "Parent entry's ID of the entry " + dt.getDn().getName()
-                        + " not found." );
-                }
+                break;
             }
-            else
+
+            for ( int i = 0; i < nbRead; i++, pos++ )
             {
-                // load certain siblings
-                if( !dt.getDn().isDescendantOf( prevTuple.getDn() ) )
+                if ( ( pos >= from ) && ( b1 == '\n' ) && ( ( b2 == '\n' ) || ( ( b2 == '\r' ) && ( b3 == '\n' ) ) ) )
                 {
-                    //System.out.println( "adding dn " + prevTuple.getDn().getName() + " to the map");
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), root );
+                    return pos;
                 }
+
+                b3 = b2;
+                b2 = b1;
+                b1 = buffer[i];
             }
-            
-            dt.setParent( parent );
-            parent.addChild();
-            parent.addDecendent();
-            
-            prevTuple = dt;
         }
 
-//        for ( DnTuple dt : sortedDnSet )
-//        {
-//            System.out.println( dt );
-//        }
-
-        return sortedDnSet;
+        return length;
     }
 
 
-    private void buildMasterTable( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Reads all the DNs of the LDIF file, in parallel chunks, and sorts them so that
+     * each entry comes right after its parent.
+     *
+     * @param pool The pool in which the chunks are parsed
+     * @return The sorter containing the DnTuples
+     */
+    private ExternalSorter<DnTuple> sortDnTuples( ForkJoinPool pool ) throws Exception
     {
-        final Set<DnTuple> idSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
-        {
-
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
-            {
-                return dt0.getId().compareTo( dt1.getId() );
-            }
-        } );
+        final File file = new File( ldifFile );
+        long[] chunks = getChunks( file );
 
-        idSortedSet.addAll( sortedDnSet );
+        // The chunk readers sort the full buffers themselves
+        int maxInMemory = ( int ) Math.min( Integer.MAX_VALUE, memoryLimit
+            / ( ESTIMATED_TUPLE_SIZE * ( parallelism + 1L ) ) );
+        final ExternalSorter<DnTuple> sorter = new ExternalSorter<>( DnTuple.COMPARATOR, DnTuple.CODEC, tmpDir,
+            maxInMemory, null );
 
-//        System.out.println( "Sorted on ID" );
-//        for ( DnTuple dt : idSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+        List<ForkJoinTask<DnTuple>> tasks = new ArrayList<>();
 
-        Iterator<Tuple> entryItr = new Iterator<Tuple>()
+        for ( int i = 0; i < chunks.length - 1; i++ )
         {
+            final long start = chunks[i];
+            final long end = chunks[i + 1];
 
-            private Iterator<DnTuple> itr = idSortedSet.iterator();
-
-            final SchemaAwareLdifReader lar = new SchemaAwareLdifReader( schemaManager );
-
-            final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
-            final AttributeType atEntryParentID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_PARENT_ID_AT );
-            final AttributeType atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
-            final AttributeType atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
-            final AttributeType atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
-            
-            final Attribute creatorsName = new DefaultAttribute( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
-            final Attribute createdTime = new DefaultAttribute( atCreatedTime, DateUtils.getGeneralizedTime() );
-            final Attribute entryCsn = new DefaultAttribute( atCsn, csnFactory.newInstance().toString() );
-            
-            final Tuple t = new Tuple();
-            
-            @Override
-            public boolean hasNext()
-            {
-                return itr.hasNext();
-            }
-
-
-            @Override
-            public Tuple<String, Entry> next()
+            tasks.add( pool.submit( new Callable<DnTuple>()
             {
-
-                DnTuple dt = itr.next();
-                t.setKey( dt.getId() );
-
-                try
+                @Override
+                public DnTuple call() throws Exception
                 {
-                    
-                    byte[] data = new byte[dt.getLen()];
-                    raf.seek( dt.getOffset() );
-                    raf.readFully( data, 0, data.length );
+                    return readChunk( file, start, end, sorter );
+                }
+            } ) );
+        }
 
-                    Entry entry = lar.parseLdifEntry( Strings.utf8ToString( data ) ).getEntry();
+        // The suffix is the smallest DN
+        DnTuple root = null;
 
-                    entry.add( atEntryUUID, dt.getId() );
-                    entry.add( atEntryParentID, dt.getParentId() );
-                    entry.add( entryCsn );
-                    entry.add( creatorsName );
-                    entry.add( createdTime );
+        try
+        {
+            for ( ForkJoinTask<DnTuple> task : tasks )
+            {
+                DnTuple first = task.get();
 
-                    t.setValue( entry );
-                }
-                catch ( Exception e )
+                if ( ( first != null ) && ( ( root == null ) || ( first.compareTo( root ) < 0 ) ) )
                 {
-                    LOG.warn( "Failed to parse the entry for the DnTuple " + dt );
-                    throw new RuntimeException( e );
+                    root = first;
                 }
-
-                return t;
             }
+        }
+        catch ( ExecutionException ee )
+        {
+            sorter.close();
 
-
-            @Override
-            public void remove()
+            for ( ForkJoinTask<DnTuple> task : tasks )
             {
-                throw new UnsupportedOperationException( "Not supported" );
+                task.cancel( true );
             }
 
-        };
+            throw ee;
+        }
+
+        if ( root != null )
+        {
+            suffixDn = root.getDn();
+        }
+
+        sorter.sort();
 
-        build( entryItr, masterTableName );
+        return sorter;
     }
 
 
-    private void buildRdnIndex( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Reads the DNs of a chunk of the LDIF file.
+     *
+     * @return The smallest DnTuple of the chunk
+     */
+    private DnTuple readChunk( File file, long start, long end, ExternalSorter<DnTuple> sorter ) throws Exception
     {
-        final Set<DnTuple> parentIdRdnSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
-        {
+        DnTuple first = null;
+        FastLdifReader reader = new FastLdifReader( file, start, end, dnFactory );
 
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
+        try
+        {
+            while ( reader.hasNext() )
             {
-                int val = dt0.getParentId().compareTo( dt1.getParentId() );
-                if ( val != 0 )
-                {
-                    return val;
-                }
-
-                Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
+                // FastLdifReader will always return NULL LdifEntry
+                // call getDnTuple() after next() to get a DnTuple
+                reader.next();
 
-                Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
+                DnTuple dt = reader.getDnTuple();
+                sorter.add( dt );
 
-                if ( dt0Rdns.length == 1 )
+                if ( ( first == null ) || ( dt.compareTo( first ) < 0 ) )
                 {
-                    // Special case : we only have one rdn.
-                    val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
-
-                    return val;
+                    first = dt;
                 }
-                else
-                {
-                    for ( int i = 0; i < dt0Rdns.length; i++ )
-                    {
-                        val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
-
-                        if ( val != 0 )
-                        {
-                            return val;
-                        }
-                    }
+            }
 
-                    return 0;
-                }
+            if ( reader.hasError() )
+            {
+                throw reader.getError();
             }
-        } );
+        }
+        finally
+        {
+            reader.close();
+        }
 
-        parentIdRdnSortedSet.addAll( sortedDnSet );
+        return first;
+    }
 
-//        System.out.println( "Sorted on ParentID and RDNs" );
-//        for ( DnTuple dt : parentIdRdnSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
 
-        Iterator<Tuple> parentIdAndRdnFwdItr = new Iterator<Tuple>()
-        {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
+    /**
+     * Creates the collectors of all the indexes, except the RDN index
+     */
+    private List<IndexCollector> createCollectors( MavibotPartition partition, Executor executor )
+        throws LdapException
+    {
+        List<IndexCollector> collectors = new ArrayList<>();
+        Set<Index<?, String>> indexes = partition.getAllIndices();
+        nbIndexes = indexes.size();
 
+        for ( Index<?, String> index : indexes )
+        {
+            String oid = index.getAttribute().getOid();
 
-            @Override
-            public void remove()
+            // The user indexes and the administrativeRole index have their attribute in the presence index
+            if ( !SYSTEM_INDEXES.contains( oid ) )
             {
+                presenceAttributes.add( index.getAttribute() );
             }
 
-
-            @Override
-            public Tuple next()
+            if ( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid )
+                || ApacheSchemaConstants.APACHE_ALIAS_AT_OID.equals( oid )
+                || ApacheSchemaConstants.APACHE_ONE_ALIAS_AT_OID.equals( oid )
+                || ApacheSchemaConstants.APACHE_SUB_ALIAS_AT_OID.equals( oid ) )
             {
-                DnTuple dt = itr.next();
-                Tuple t = new Tuple();
-
-                ParentIdAndRdn rdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
-                rdn.setNbChildren( dt.getNbChildren() );
-                rdn.setNbDescendants( dt.getNbDecendents() );
-                
-                t.setKey( rdn );
-                t.setValue( dt.getId() );
-
-                return t;
+                continue;
             }
 
+            BTree<Object, String> fwdTree = rm.getManagedTree( oid + MavibotIndex.FORWARD_BTREE );
+            BTree<String, Object> revTree = null;
 
-            @Override
-            public boolean hasNext()
+            if ( index.hasReverse() )
             {
-                return itr.hasNext();
+                revTree = rm.getManagedTree( oid + MavibotIndex.REVERSE_BTREE );
             }
-        };
-
-        String forwardRdnTree = ApacheSchemaConstants.APACHE_RDN_AT_OID + MavibotRdnIndex.FORWARD_BTREE;
-
-        build( parentIdAndRdnFwdItr, forwardRdnTree );
-
-        Iterator<Tuple> parentIdAndRdnRevItr = new Iterator<Tuple>()
-        {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
 
+            collectors.add( new IndexCollector( index.getAttribute(), fwdTree, revTree, executor ) );
+        }
 
-            @Override
-            public void remove()
-            {
-            }
+        return collectors;
+    }
 
 
-            @Override
-            public Tuple next()
-            {
-                DnTuple dt = itr.next();
-                Tuple t = new Tuple();
+    /**
+     * Builds the master table, walking the entries in the DN order. At the same time,
+     * the tuples of all the indexes are added to their sorters.
+     */
+    private void buildMasterTable( Iterator<DnTuple> sortedDnTuples, List<IndexCollector> collectors,
+        IndexCollector rdnCollector ) throws Exception
+    {
+        EntryWalker walker = new EntryWalker( sortedDnTuples, collectors, rdnCollector );
 
-                ParentIdAndRdn rdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
-                rdn.setNbChildren( dt.getNbChildren() );
-                rdn.setNbDescendants( dt.getNbDecendents() );
-                
-                t.setKey( dt.getId() );
-                t.setValue( rdn );
+        build( walker, masterTableName );
+    }
 
-                return t;
-            }
 
+    /**
+     * Builds the indexes concurrently. The runs of all the indexes are merged in parallel,
+     * but the B-trees are written one at a time, as the RecordManager is not thread safe.
+     */
+    private void buildIndexes( ForkJoinPool pool, List<IndexCollector> collectors ) throws Exception
+    {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
 
-            @Override
-            public boolean hasNext()
+        for ( final IndexCollector collector : collectors )
+        {
+            tasks.add( pool.submit( new Callable<Void>()
             {
-                return itr.hasNext();
-            }
-        };
+                @Override
+                public Void call() throws Exception
+                {
+                    long indexT0 = System.currentTimeMillis();
+                    collector.build();
+                    long indexT1 = System.currentTimeMillis();
+                    LOG.info( "Index {} built, time taken : {}ms", collector.getName(), indexT1 - indexT0 );
 
-        String revRdnTree = ApacheSchemaConstants.APACHE_RDN_AT_OID + MavibotRdnIndex.REVERSE_BTREE;
+                    return null;
+                }
+            } ) );
+        }
 
-        build( parentIdAndRdnRevItr, revRdnTree );
+        for ( ForkJoinTask<?> task : tasks )
+        {
+            task.get();
+        }
     }
 
 
     /**
      * Import a LDIF file and create a fully working Mavibot partition.
-     * TODO buildPartition.
-     *
      */
     public void buildPartition()
     {
@@ -811,419 +797,756 @@ public class MavibotPartitionBuilder
             JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
             schemaManager = new DefaultSchemaManager( loader );
             schemaManager.loadAllEnabled();
-            dnFactory = new DefaultDnFactory( schemaManager, null );
-            cacheService = new CacheService();
-            InstanceLayout instanceLayout = new InstanceLayout( outputDir );
-            cacheService.initialize( instanceLayout );
-
+            // The DNs are all different : don't cache them
+            dnFactory = new DefaultDnFactory( schemaManager, 0 );
         }
         catch ( Exception e )
         {
-            e.printStackTrace();
             LOG.warn( "Failed to initialize the schema manager", e );
             return;
         }
 
-        // Now, read all the DNs, and sort them
-        Set<DnTuple> sortedDnSet = null;
-        
-        try
-        {
-            long sortT0 = System.currentTimeMillis();
-            System.out.println( "Sorting the LDIF data..." );
-            
-            sortedDnSet = getDnTuples();
-            long sortT1 = System.currentTimeMillis();
+        tmpDir = new File( outputDir, "bulkload-tmp" );
+        tmpDir.mkdirs();
+
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        ExternalSorter<DnTuple> dnSorter = null;
+        List<IndexCollector> collectors = new ArrayList<>();
 
-            totalEntries = sortedDnSet.size();
-            
-            System.out.println( "Completed sorting, total number of entries " + totalEntries + 
-                ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
-        }
-        catch ( Exception e )
-        {
-            e.printStackTrace();
-            LOG.warn( "Failed to parse the given LDIF file ", e );
-            return;
-        }
-        
-        if ( ( sortedDnSet == null ) || ( sortedDnSet.isEmpty() ) )
-        {
-            String message = "No entries found in the given LDIF file, aborting bulk load";
-            System.out.println( message );
-            LOG.info( message );
-        }
-        
-        MavibotPartition partition = null;
-        
         try
         {
-            long partT0 = System.currentTimeMillis();
-            System.out.print( "Creating partition..." );
-            
-            partition = new MavibotPartition( schemaManager, dnFactory );
-            partition.setId( "builder" );
-            partition.setSuffixDn( suffixDn );
-
-            File dir = new File( outputDir );
-            partition.setPartitionPath( dir.toURI() );
-            partition.setCacheService( cacheService );
-
-            for( String atName : indexAttributes )
+            // Now, read all the DNs, and sort them
+            try
             {
-                schemaManager.lookupAttributeTypeRegistry( atName );
-                partition.addIndex( new MavibotIndex( atName, false ) );
-            }
-            
-            partition.initialize();
+                long sortT0 = System.currentTimeMillis();
+                System.out.println( "Sorting the LDIF data..." );
 
-            masterTableName = partition.getMasterTable().getName();
-            
-            rm = partition.getRecordMan();
+                dnSorter = sortDnTuples( pool );
+                long sortT1 = System.currentTimeMillis();
 
-            long partT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( partT1 - partT0 ) + "ms" );
-        }
-        catch ( Exception e )
-        {
-            e.printStackTrace();
-            LOG.warn( "Failed to initialize the partition", e );
-            return;
-        }
+                totalEntries = dnSorter.size();
 
-        try
-        {
-            long masterT0 = System.currentTimeMillis();
-            System.out.print( "Building master table..." );
-            buildMasterTable( sortedDnSet );
-            long masterT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( masterT1 - masterT0 ) + "ms" );
-        }
-        catch( Exception e )
-        {
-            e.printStackTrace();
-            LOG.warn( "Failed to build master table", e );
-            e.printStackTrace();
-            return;
-        }
-        
-        Iterator<String> userIndexItr = partition.getUserIndices();
-        
-        try
-        {
-            // the RecordManager must be re-initialized cause we are
-            // setting the "values" of leaves to null while building
-            // the tree to avoid OOM errors
-            partition.destroy();
-            
-            rm = new RecordManager( new File( partition.getPartitionPath() ).getAbsolutePath() );
-            
-            long rdnT0 = System.currentTimeMillis();
-            System.out.print( "Building RDN index." );
-            buildRdnIndex( sortedDnSet );
-            long rdnT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( rdnT1 - rdnT0 ) + "ms" );
-        }
-        catch( Exception e )
-        {
-            e.printStackTrace();
-            LOG.warn( "Failed to build the RDN index", e );
-            return;
-        }
-        
-        // not needed anymore
-        System.out.println( "Clearing the sorted DN set." );
-        sortedDnSet.clear();
-        
-        for( Index<?, String> id : partition.getAllIndices() )
-        {
-            // RDN and presence indices are built separately
-            String oid = id.getAttribute().getOid();
-            
-            if( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid ) 
-                || ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
-            {
-                continue;
-            }
-            
-            String ignoreVal = null;
-            
-            if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
-            {
-                // should be a normalized val
-                ignoreVal = "top";
+                System.out.println( "Completed sorting, total number of entries " + totalEntries
+                    + ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
             }
-            
-            try
+            catch ( Exception e )
             {
-                long indexT0 = System.currentTimeMillis();
-                System.out.print("Building index " + id.getAttribute().getName() );
-                buildIndex( id, ignoreVal );
-                long indexT1 = System.currentTimeMillis();
-                System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
+                LOG.warn( "Failed to parse the given LDIF file ", e );
+                return;
             }
-            catch( Exception e )
+
+            if ( totalEntries == 0 )
             {
-                e.printStackTrace();
-                LOG.warn( "Failed to build the index " + id.getAttribute().getName() );
-                LOG.warn( "", e );
+                String message = "No entries found in the given LDIF file, aborting bulk load";
+                System.out.println( message );
+                LOG.info( message );
+
                 return;
             }
+
+            System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
+
+            MavibotPartition partition = null;
+
+            try
+            {
+                long partT0 = System.currentTimeMillis();
+                System.out.print( "Creating partition..." );
+
+                partition = new MavibotPartition( schemaManager, dnFactory );
+                partition.setId( "builder" );
+                partition.setSuffixDn( suffixDn );
+
+                File dir = new File( outputDir );
+                partition.setPartitionPath( dir.toURI() );
+
+                for ( String atName : indexAttributes )
+                {
+                    schemaManager.lookupAttributeTypeRegistry( atName );
+                    partition.addIndex( new MavibotIndex( atName, false ) );
+                }
+
+                partition.initialize();
+
+                masterTableName = partition.getMasterTable().getName();
+
+                rm = partition.getRecordMan();
+
+                // The sorters of each index, plus one for the RDN index, share the memory
+                collectors = createCollectors( partition, pool );
+                IndexCollector rdnCollector = new IndexCollector( null,
+                    rm.<ParentIdAndRdn, String>getManagedTree( ApacheSchemaConstants.APACHE_RDN_AT_OID
+                        + MavibotRdnIndex.FORWARD_BTREE ),
+                    rm.<String, ParentIdAndRdn>getManagedTree( ApacheSchemaConstants.APACHE_RDN_AT_OID
+                        + MavibotRdnIndex.REVERSE_BTREE ),
+                    pool );
+                collectors.add( rdnCollector );
+
+                long partT1 = System.currentTimeMillis();
+                System.out.println( ", time taken : " + ( partT1 - partT0 ) + "ms" );
+
+                long masterT0 = System.currentTimeMillis();
+                System.out.print( "Building master table..." );
+                raf = new RandomAccessFile( new File( ldifFile ), "r" );
+                buildMasterTable( dnSorter.iterator(), collectors, rdnCollector );
+                long masterT1 = System.currentTimeMillis();
+                System.out.println( ", time taken : " + ( masterT1 - masterT0 ) + "ms" );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to build master table", e );
+                return;
+            }
+            finally
+            {
+                // not needed anymore
+                dnSorter.close();
+            }
+
+            try
+            {
+                // the RecordManager must be re-initialized cause we are
+                // setting the "values" of leaves to null while building
+                // the tree to avoid OOM errors
+                partition.destroy( partition.beginReadTransaction() );
+
+                rm = new RecordManager( new File( partition.getPartitionPath() ).getAbsolutePath() );
+
+                for ( IndexCollector collector : collectors )
+                {
+                    collector.awaitRuns();
+                }
+
+                long indexT0 = System.currentTimeMillis();
+                System.out.print( "Building the indexes..." );
+                buildIndexes( pool, collectors );
+                long indexT1 = System.currentTimeMillis();
+                System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to build the indexes", e );
+                return;
+            }
+
+            System.out.println( "Partition building complete." );
         }
-        
-        try
+        finally
         {
-            System.out.print( "Building presence index..." );
-            long presenceT0 = System.currentTimeMillis();
-            buildPresenceIndex( userIndexItr );
-            long presenceT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( presenceT1 - presenceT0 ) + "ms" );
+            pool.shutdownNow();
+
+            for ( IndexCollector collector : collectors )
+            {
+                collector.close();
+            }
+
+            if ( raf != null )
+            {
+                try
+                {
+                    raf.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Failed to close the LDIF file", ioe );
+                }
+            }
+
+            try
+            {
+                FileUtils.deleteDirectory( tmpDir );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to delete the temporary directory {}", tmpDir, ioe );
+            }
         }
-        catch( Exception e )
+    }
+
+
+    /**
+     * Creates an ID for an entry. The IDs are random UUIDs sharing the same first
+     * 64 bits, the last ones being a counter : they are created in increasing
+     * order, so that the entries can be added in the master table as they are read.
+     */
+    private String nextId()
+    {
+        long count = ++idCounter;
+
+        // The variant is 10xx, the remaining 62 bits are the counter
+        return String.format( Locale.ROOT, "%s%04x-%012x", idPrefix, 0x8000 | ( count >>> 48 ), count & 0xFFFFFFFFFFFFL );
+    }
+
+
+    /**
+     * Creates the codec used to spill the elements of a B-tree. The deserialized RDNs
+     * have no normalized name, they are parsed again from their user provided name so
+     * that the merged runs are compared like the in memory ones.
+     */
+    @SuppressWarnings("unchecked")
+    private <E> ExternalSorter.Codec<E> codec( ElementSerializer<E> serializer )
+    {
+        if ( serializer.getType() != ParentIdAndRdn.class )
         {
-            e.printStackTrace();
-            LOG.warn( "Failed to build the presence index." );
-            LOG.warn( "", e );
-            return;
+            return ExternalSorter.serializerCodec( serializer );
         }
-        
-        System.out.println( "Patition building complete." );
+
+        return ( ExternalSorter.Codec<E> ) new ExternalSorter.Codec<ParentIdAndRdn>()
+        {
+            @Override
+            public void write( DataOutput out, ParentIdAndRdn parentIdAndRdn ) throws IOException
+            {
+                out.writeUTF( parentIdAndRdn.getParentId() );
+                out.writeInt( parentIdAndRdn.getNbChildren() );
+                out.writeInt( parentIdAndRdn.getNbDescendants() );
+
+                Rdn[] rdns = parentIdAndRdn.getRdns();
+                out.writeInt( rdns.length );
+
+                for ( Rdn rdn : rdns )
+                {
+                    out.writeUTF( rdn.getName() );
+                }
+            }
+
+
+            @Override
+            public ParentIdAndRdn read( DataInput in ) throws IOException
+            {
+                ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+                parentIdAndRdn.setParentId( in.readUTF() );
+                parentIdAndRdn.setNbChildren( in.readInt() );
+                parentIdAndRdn.setNbDescendants( in.readInt() );
+
+                Rdn[] rdns = new Rdn[in.readInt()];
+
+                try
+                {
+                    for ( int i = 0; i < rdns.length; i++ )
+                    {
+                        rdns[i] = new Rdn( schemaManager, in.readUTF() );
+                    }
+                }
+                catch ( LdapException le )
+                {
+                    throw new IOException( le.getMessage(), le );
+                }
+
+                parentIdAndRdn.setRdns( rdns );
+
+                return parentIdAndRdn;
+            }
+        };
     }
 
-    
-    private void buildPresenceIndex( Iterator<String> itr ) throws Exception
+
+    /**
+     * Walks the entries in the DN order, returning the master table's tuples. The
+     * ancestors of the current entry are kept in a stack : once an entry is removed
+     * from the stack, its number of children and descendants is known and its RDN
+     * tuples are produced.
+     */
+    private class EntryWalker implements Iterator<Tuple>
     {
-        Set<String> idxOids = new HashSet<String>();
-        
-        while( itr.hasNext() )
+        private final Iterator<DnTuple> sortedDnTuples;
+
+        private final List<IndexCollector> collectors;
+
+        private final IndexCollector rdnCollector;
+
+        /** The current entry's ancestors */
+        private final Deque<DnTuple> ancestors = new ArrayDeque<>();
+
+        private final SchemaAwareLdifReader lar;
+
+        private final AttributeType atEntryUUID;
+        private final AttributeType atEntryParentID;
+        private final AttributeType atCsn;
+        private final AttributeType atCreator;
+        private final AttributeType atCreatedTime;
+        private final AttributeType atObjectClass;
+
+        private final String createdTime;
+
+        /** The next tuple */
+        private Tuple<String, Entry> next;
+
+        /** Tells if an alias has been found */
+        private boolean aliasFound;
+
+
+        EntryWalker( Iterator<DnTuple> sortedDnTuples, List<IndexCollector> collectors,
+            IndexCollector rdnCollector ) throws Exception
         {
-            idxOids.add( itr.next() );
+            this.sortedDnTuples = sortedDnTuples;
+            this.collectors = collectors;
+            this.rdnCollector = rdnCollector;
+
+            lar = new SchemaAwareLdifReader( schemaManager );
+            atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
+            atEntryParentID = schemaManager.lookupAttributeTypeRegistry( ApacheSchemaConstants.ENTRY_PARENT_ID_AT );
+            atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
+            atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
+            atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
+            atObjectClass = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OBJECT_CLASS_AT );
+            createdTime = DateUtils.getGeneralizedTime( TimeProvider.DEFAULT );
         }
 
-        BTree masterTree = rm.getManagedTree( masterTableName );
 
-        BTree fwdTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        final Map<String, Set> fwdMap = new TreeMap<String, Set>();
-
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+        @Override
+        public boolean hasNext()
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            
-            for( String oid : idxOids )
+            if ( next != null )
             {
-                Attribute at = e.get( oid );
-                if( at == null )
+                return true;
+            }
+
+            try
+            {
+                while ( sortedDnTuples.hasNext() )
                 {
-                    continue;
+                    next = walk( sortedDnTuples.next() );
+
+                    if ( next != null )
+                    {
+                        return true;
+                    }
                 }
-                
-                Set<String> idSet = fwdMap.get( oid );
-                
-                if( idSet == null )
-                {
-                    idSet = new TreeSet<String>();
-                    idSet.add( t.getKey() );
 
-                    fwdMap.put( oid, idSet );
+                // We are done : all the remaining ancestors are complete
+                while ( !ancestors.isEmpty() )
+                {
+                    complete( ancestors.pop() );
                 }
+
+                return false;
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e.getMessage(), e );
             }
         }
-        
-        cursor.close();
-        
-        Iterator<Tuple> tupleItr = new Iterator<Tuple>()
+
+
+        @Override
+        public Tuple next()
         {
-            Iterator<java.util.Map.Entry<String, Set>> itr = fwdMap.entrySet().iterator();
-            
-            @Override
-            public Tuple next()
+            if ( !hasNext() )
             {
-                java.util.Map.Entry<String, Set> e = itr.next();
-                
-                Tuple t = new Tuple();
-                t.setKey( e.getKey() );
-                t.setValue( e.getValue() );
-                
-                return t;
+                throw new NoSuchElementException();
             }
-            
-            
-            @Override
-            public boolean hasNext()
+
+            Tuple<String, Entry> tuple = next;
+            next = null;
+
+            return tuple;
+        }
+
+
+        /**
+         * Process an entry.
+         *
+         * @return The master table's tuple, or null if the entry has been skipped
+         */
+        private Tuple<String, Entry> walk( DnTuple dt ) throws Exception
+        {
+            // The entries which are not ancestors of the current one are complete
+            while ( !ancestors.isEmpty() && !ancestors.peek().isParentOf( dt ) )
             {
-                return itr.hasNext();
+                DnTuple ancestor = ancestors.pop();
+
+                if ( ancestor.equals( dt ) )
+                {
+                    LOG.warn( "Skipping the duplicated entry found at the offset {}", dt.getOffset() );
+                    ancestors.push( ancestor );
+
+                    return null;
+                }
+
+                complete( ancestor );
             }
-            
-            @Override
-            public void remove()
+
+            DnTuple parent = ancestors.peek();
+
+            if ( ( parent == null ) && ( idCounter > 0 ) )
             {
+                throw new IllegalStateException( "Parent entry's ID of the entry found at the offset "
+                    + dt.getOffset() + " not found." );
             }
-        };
-        
-        build( tupleItr, fwdTree.getName() );
+
+            byte[] data = new byte[dt.getLen()];
+            raf.seek( dt.getOffset() );
+            raf.readFully( data, 0, data.length );
+
+            Entry entry = lar.parseLdifEntry( Strings.utf8ToString( data ) ).getEntry();
+            Dn dn = entry.getDn();
+
+            if ( !dn.isSchemaAware() )
+            {
+                dn = dnFactory.create( dn.getName() );
+            }
+
+            dt.setDn( dn );
+            dt.setId( nextId() );
+
+            if ( parent != null )
+            {
+                dt.setParent( parent );
+                parent.addChild();
+                parent.addDecendent();
+            }
+
+            ancestors.push( dt );
+
+            entry.put( atEntryUUID, dt.getId() );
+            entry.put( atEntryParentID, dt.getParentId() );
+
+            if ( !entry.containsAttribute( atCsn ) )
+            {
+                entry.add( atCsn, csnFactory.newInstance().toString() );
+            }
+
+            if ( !entry.containsAttribute( atCreator ) )
+            {
+                entry.add( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
+            }
+
+            if ( !entry.containsAttribute( atCreatedTime ) )
+            {
+                entry.add( atCreatedTime, createdTime );
+            }
+
+            if ( !aliasFound && entry.contains( atObjectClass, SchemaConstants.ALIAS_OC ) )
+            {
+                LOG.warn( "The alias indexes are not built by the bulk loader, the aliases won't be dereferenced" );
+                aliasFound = true;
+            }
+
+            for ( IndexCollector collector : collectors )
+            {
+                collector.collect( dt.getId(), entry );
+            }
+
+            return new Tuple<>( dt.getId(), entry );
+        }
+
+
+        /**
+         * Produces the RDN tuples of an entry, once all its descendants have been seen
+         */
+        private void complete( DnTuple dt ) throws IOException
+        {
+            ParentIdAndRdn parentIdAndRdn;
+
+            if ( dt.getParent() == null )
+            {
+                parentIdAndRdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
+            }
+            else
+            {
+                parentIdAndRdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdn() );
+            }
+
+            parentIdAndRdn.setNbChildren( dt.getNbChildren() );
+            parentIdAndRdn.setNbDescendants( dt.getNbDecendents() );
+
+            rdnCollector.add( parentIdAndRdn, dt.getId() );
+        }
     }
-    
-    
-    private void buildIndex( Index<?, String> idx, String ignoreVal ) throws Exception
+
+
+    /**
+     * Collects the tuples of an index, and builds its forward and reverse B-trees.
+     */
+    private class IndexCollector implements Closeable
     {
-        BTree masterTree = rm.getManagedTree( masterTableName );
-        
-        AttributeType type = idx.getAttribute();
-        boolean isBinary = type.getSyntax().isHumanReadable();
-        boolean singleValued = type.isSingleValued();
-        
-        BTree fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        Set<Tuple> fwdSet = new TreeSet<Tuple>( new IndexTupleComparator( fwdKeyComparator ) );
-        
-        Map fwdMap = new TreeMap( fwdKeyComparator );
-        
-        BTree revTree = null;
-        boolean revDupsAllowed;
-        Set<Tuple> revSet = null;
-        Map<String,Tuple> revMap = null;
-        Comparator revValComparator = null;
-        
-        if( idx.hasReverse() )
+        /** The indexed attribute, null for the RDN index */
+        private final AttributeType attributeType;
+
+        private final String fwdTreeName;
+
+        private final String revTreeName;
+
+        private final boolean fwdDups;
+
+        private final boolean revDups;
+
+        private final boolean binary;
+
+        private final Comparator<Object> keyComparator;
+
+        private final Comparator<String> revKeyComparator;
+
+        private final ExternalSorter<Tuple<Object, String>> fwdSorter;
+
+        private final ExternalSorter<Tuple<String, Object>> revSorter;
+
+
+        @SuppressWarnings("unchecked")
+        IndexCollector( AttributeType attributeType, BTree<?, String> fwdTree, BTree<String, ?> revTree,
+            Executor executor )
+        {
+            this.attributeType = attributeType;
+            BTree<Object, String> fwd = ( BTree<Object, String> ) fwdTree;
+            BTree<String, Object> rev = ( BTree<String, Object> ) revTree;
+
+            fwdTreeName = fwd.getName();
+            fwdDups = fwd.isAllowDuplicates();
+            keyComparator = fwd.getKeySerializer().getComparator();
+            binary = fwd.getKeySerializer().getType() == byte[].class;
+
+            // The memory is shared by all the sorters, each of them may have two runs being written
+            int nbSorters = ( nbIndexes + 1 ) * 2;
+            int maxInMemory = ( int ) Math.min( Integer.MAX_VALUE, memoryLimit
+                / ( ESTIMATED_TUPLE_SIZE * ( 1 + 2 ) * nbSorters ) );
+
+            fwdSorter = new ExternalSorter<>(
+                ExternalSorter.tupleComparator( keyComparator, fwd.getValueSerializer().getComparator() ),
+                ExternalSorter.tupleCodec( codec( fwd.getKeySerializer() ), codec( fwd.getValueSerializer() ) ),
+                tmpDir, maxInMemory, executor );
+
+            if ( rev != null )
+            {
+                revTreeName = rev.getName();
+                revDups = rev.isAllowDuplicates();
+                revKeyComparator = rev.getKeySerializer().getComparator();
+                revSorter = new ExternalSorter<>(
+                    ExternalSorter.tupleComparator( rev.getKeySerializer().getComparator(),
+                        rev.getValueSerializer().getComparator() ),
+                    ExternalSorter.tupleCodec( codec( rev.getKeySerializer() ), codec( rev.getValueSerializer() ) ),
+                    tmpDir, maxInMemory, executor );
+            }
+            else
+            {
+                revTreeName = null;
+                revDups = false;
+                revKeyComparator = null;
+                revSorter = null;
+            }
+        }
+
+
+        String getName()
         {
-            revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
-            revDupsAllowed = revTree.isAllowDuplicates();
-            Comparator revKeyComparator = revTree.getKeySerializer().getComparator();
-            revValComparator = revTree.getValueSerializer().getComparator();
-            revSet = new TreeSet<Tuple>( new IndexTupleComparator( revKeyComparator ) );
-            revMap = new TreeMap( revKeyComparator );
+            return fwdTreeName;
         }
-        
-        
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+
+
+        /**
+         * Adds the index tuples of an entry
+         */
+        void collect( String id, Entry entry ) throws IOException
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            Attribute at = e.get( type );
-            if( at == null )
+            if ( attributeType == null )
             {
-                continue;
+                // The RDN tuples are added when the entry is complete
+                return;
             }
-            
-            if( singleValued )
+
+            String oid = attributeType.getOid();
+
+            if ( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
             {
-                Value v = at.get();
-                Object normVal = v.getNormValue();
-                
-                if( ignoreVal != null )
+                // The presence index contains the indexed attributes
+                for ( AttributeType presenceAttribute : presenceAttributes )
+                {
+                    if ( entry.containsAttribute( presenceAttribute ) )
+                    {
+                        add( presenceAttribute.getOid(), id );
+                    }
+                }
+
+                return;
+            }
+
+            Attribute attribute = entry.get( attributeType );
+
+            if ( attribute == null )
+            {
+                return;
+            }
+
+            for ( Value value : attribute )
+            {
+                Object key;
+
+                if ( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
                 {
-                    if( normVal.equals( ignoreVal ) )
+                    key = value.getNormalized();
+
+                    if ( SchemaConstants.TOP_OC_OID.equals( key ) || SchemaConstants.TOP_OC.equals( key ) )
                     {
                         continue;
                     }
                 }
-                
-                Tuple fwdTuple = new Tuple( normVal, t.getKey() );
-                fwdSet.add( fwdTuple );
-                
-                if( revTree != null )
+                else if ( SchemaConstants.ENTRY_CSN_AT_OID.equals( oid )
+                    || SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID.equals( oid ) )
+                {
+                    key = value.getString();
+                }
+                else if ( binary )
+                {
+                    key = value.getBytes();
+                }
+                else
                 {
-                    Tuple revTuple = new Tuple( t.getKey(), v.getNormValue() );
-                    revSet.add( revTuple );
+                    key = value.getNormalized();
                 }
+
+                add( key, id );
             }
-            else
+        }
+
+
+        void add( Object key, String id ) throws IOException
+        {
+            fwdSorter.add( new Tuple<Object, String>( key, id ) );
+
+            if ( revSorter != null )
+            {
+                revSorter.add( new Tuple<String, Object>( id, key ) );
+            }
+        }
+
+
+        /**
+         * Waits for the runs being written
+         */
+        void awaitRuns() throws IOException
+        {
+            fwdSorter.awaitRuns();
+
+            if ( revSorter != null )
             {
-                for( Value v : at )
+                revSorter.awaitRuns();
+            }
+        }
+
+
+        /**
+         * Sorts the tuples and builds the B-trees
+         */
+        void build() throws Exception
+        {
+            fwdSorter.sort();
+
+            if ( revSorter != null )
+            {
+                revSorter.sort();
+            }
+
+            synchronized ( rmLock )
+            {
+                buildTree( fwdSorter, fwdTreeName, fwdDups, keyComparator );
+
+                if ( revSorter != null )
                 {
-                    Object val = v.getNormValue();
-                    
-                    if( ignoreVal != null )
-                    {
-                        if( val.equals( ignoreVal ) )
-                        {
-                            continue;
-                        }
-                    }
-                    
-                    Tuple fwdTuple = ( Tuple ) fwdMap.get( val );
-                    
-                    if( fwdTuple == null )
-                    {
-                        Set<String> idSet = new TreeSet<String>();
-                        idSet.add( t.getKey() );
-                        
-                        fwdTuple = new Tuple( val, idSet );
-                        fwdMap.put( val, fwdTuple );
-                    }
-                    else
-                    {
-                        Set<String> idSet = ( Set<String> ) fwdTuple.getValue();
-                        idSet.add( t.getKey() );
-                    }
-                    
-                    if( revTree != null )
-                    {
-                        Tuple revTuple = revMap.get( t.getKey() );
-                        
-                        if( revTuple == null )
-                        {
-                            Set valSet = new TreeSet( revValComparator );
-                            valSet.add( val );
-                            revTuple = new Tuple( t.getKey(), valSet );
-                        }
-                        else
-                        {
-                            Set valSet = ( Set ) revTuple.getValue();
-                            valSet.add( val );
-                        }
-                    }
+                    buildTree( revSorter, revTreeName, revDups, revKeyComparator );
                 }
             }
+
+            close();
         }
-        
-        cursor.close();
-        
-        if( singleValued )
+
+
+        private <K, V> void buildTree( ExternalSorter<Tuple<K, V>> sorter, String name, boolean dups,
+            Comparator<K> comparator ) throws Exception
         {
-            if( fwdSet.isEmpty() )
+            if ( sorter.size() == 0 )
             {
                 return;
             }
-            
-            build( fwdSet.iterator(), fwdTree.getName() );
-            
-            if( revTree != null )
+
+            MavibotPartitionBuilder.this.build( new GroupingIterator<K, V>( sorter.iterator(), comparator, dups ), name );
+        }
+
+
+        @Override
+        public void close()
+        {
+            fwdSorter.close();
+
+            if ( revSorter != null )
             {
-                build( revSet.iterator(), revTree.getName() );
+                revSorter.close();
             }
         }
-        else
+    }
+
+
+    /**
+     * Groups the values of the sorted tuples having the same key in a set, for the
+     * B-trees allowing duplicate values. Otherwise, only the first value of a key is kept.
+     */
+    private static class GroupingIterator<K, V> implements Iterator<Tuple>
+    {
+        private final Iterator<Tuple<K, V>> sorted;
+
+        private final Comparator<K> comparator;
+
+        private final boolean dups;
+
+        private Tuple<K, V> pending;
+
+
+        GroupingIterator( Iterator<Tuple<K, V>> sorted, Comparator<K> comparator, boolean dups )
+        {
+            this.sorted = sorted;
+            this.comparator = comparator;
+            this.dups = dups;
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return ( pending != null ) || sorted.hasNext();
+        }
+
+
+        @Override
+        public Tuple next()
         {
-            if( fwdMap.isEmpty() )
+            Tuple<K, V> first = ( pending != null ) ? pending : sorted.next();
+            pending = null;
+            Set<V> values = null;
+
+            if ( dups )
             {
-                return;
+                values = new LinkedHashSet<>();
+                values.add( first.getValue() );
             }
-            
-            build( fwdMap.values().iterator(), fwdTree.getName() );
 
-            if( revTree != null )
+            while ( sorted.hasNext() )
+            {
+                Tuple<K, V> tuple = sorted.next();
+
+                if ( comparator.compare( first.getKey(), tuple.getKey() ) != 0 )
+                {
+                    pending = tuple;
+                    break;
+                }
+
+                if ( dups )
+                {
+                    values.add( tuple.getValue() );
+                }
+                else
+                {
+                    LOG.warn( "Ignoring the duplicated key {} of the value {}", tuple.getKey(), tuple.getValue() );
+                }
+            }
+
+            if ( dups )
             {
-                build( revMap.values().iterator(), revTree.getName() );
+                return new Tuple<K, Set<V>>( first.getKey(), values );
             }
+
+            return first;
         }
     }
-    
-    
+
+
     public void testBTree( String name )
     {
         try
@@ -1239,7 +1562,7 @@ public class MavibotPartitionBuilder
             }
             cursor.close();
             
-            if( fetched != tree.getNbElems() )
+            if ( fetched != tree.getNbElems() )
             {
                 System.err.println( "The number of elements fetched from the btree did not match with the stored count " + name + " ( fetched = " + fetched + ", stored count = " + tree.getNbElems() + " )" );
             }
@@ -1249,21 +1572,21 @@ public class MavibotPartitionBuilder
             }
 //            Index idx = partition.getRdnIndex();
 //            org.apache.directory.api.ldap.model.cursor.Cursor idxCur = idx.forwardCursor();
-//            while( idxCur.next() )
+//            while ( idxCur.next() )
 //            {
 //                System.out.println( idxCur.get() );
 //            }
 //            
 //            idxCur.close();
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             e.printStackTrace();
         }
     }
 
     
-    /** no qualifier */ int getTotalEntries()
+    /** no qualifier */ long getTotalEntries()
     {
         return totalEntries;
     }
@@ -1301,9 +1624,9 @@ public class MavibotPartitionBuilder
         
         Option[] options = Option.values();
         
-        for( Option o : options )
+        for ( Option o : options )
         {
-            if( o == Option.UNKNOWN )
+            if ( o == Option.UNKNOWN )
             {
                 continue;
             }
@@ -1314,7 +1637,7 @@ public class MavibotPartitionBuilder
     
     private static String getArgAt( int position, Option opt, String[] args )
     {
-        if( position >= args.length )
+        if ( position >= args.length )
         {
             System.out.println( "No value was provided for the option " + opt.getText() );
             System.exit( 1 );
@@ -1331,6 +1654,8 @@ public class MavibotPartitionBuilder
         String outDirPath = null;
         int numKeysInNode = 16;
         int rid = 1;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long memoryLimit = Runtime.getRuntime().maxMemory() / 4;
         boolean cleanOutDir = false;
         boolean verifyMasterTable = false;
 
@@ -1340,11 +1665,11 @@ public class MavibotPartitionBuilder
            System.exit( 0 );
         }
         
-        for( int i =0; i < args.length; i++ )
+        for ( int i = 0; i < args.length; i++ )
         {
             Option opt = Option.getOpt( args[i] );
             
-            switch( opt )
+            switch ( opt )
             {
                 case HELP :
                     help();
@@ -1379,31 +1704,38 @@ public class MavibotPartitionBuilder
                     configDir = getArgAt( ++i, opt, args );
                     break;
 
+                case PARALLELISM :
+                    parallelism = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
+                case MEMORY_LIMIT :
+                    memoryLimit = Long.parseLong( getArgAt( ++i, opt, args ) ) * 1024L * 1024L;
+                    break;
+
                 case UNKNOWN :
+                default :
                     System.out.println( "Unknown option " + args[i] );
-                    continue;
+                    break;
             }
         }
         
-        if( ( inFile == null ) || ( inFile.trim().length() == 0 ) )
+        if ( ( inFile == null ) || ( inFile.trim().length() == 0 ) )
         {
             System.out.println( "Invalid input file" );
             return;
         }
         
-        if( !new File( inFile ).exists() )
+        if ( !new File( inFile ).exists() )
         {
             System.out.println( "The input file " + inFile + " doesn't exist" );
             return;
         }
         
-        //calcLevels( 502, 16 );
-        
         File outDir = new File( outDirPath );
         
-        if( outDir.exists() )
+        if ( outDir.exists() )
         {
-            if( !cleanOutDir )
+            if ( !cleanOutDir )
             {
                 System.out.println( "The output directory is not empty, pass " + Option.CLEAN_OUT_DIR.getText() + " to force delete the contents or specify a different directory"  );
                 return;
@@ -1413,6 +1745,8 @@ public class MavibotPartitionBuilder
         }
         
         MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configDir, inFile, outDirPath, numKeysInNode, rid );
+        builder.setParallelism( parallelism );
+        builder.setMemoryLimit( memoryLimit );
         
         long start = System.currentTimeMillis();
         
@@ -32,6 +32,8 @@ package org.apache.directory.mavibot.btree;
  * <li>-n : the number of keys stored in each node</li>
  * <li>-o : the directory where the resulting partition will be stored</li>
  * <li>-rid : the replica ID</li>
+ * <li>-t : the number of threads</li>
+ * <li>-m : the memory used to sort the tuples, in MB</li>
  * <li>-verify : check that we have loaded all the entries in the MAsterTable</li>
  * </ul>
  * 
@@ -54,6 +56,10 @@ public enum Option
     CONFIG_DIR("-c", "The configuration partition directory"),
 
     VERIFY_MASTER_TABLE("-verify", "(optional) Verifies the master table by just browsing (entries are not verified)"),
+
+    PARALLELISM("-t", "(optional) The number of threads parsing the LDIF file and building the indexes, default is the number of processors"),
+
+    MEMORY_LIMIT("-m", "(optional) The memory used to sort the tuples, in MB, default is a quarter of the maximum heap size"),
     
     UNKNOWN(null, "Unknown Option");
 
@@ -61,7 +67,7 @@ public enum Option
     private String desc;
 
 
-    private Option( String text, String desc )
+    Option( String text, String desc )
     {
         this.text = text;
         this.desc = desc;
@@ -124,6 +130,21 @@ public enum Option
             return CONFIG_DIR;
         }
 
+        if ( opt.equalsIgnoreCase( DS_RID.text ) )
+        {
+            return DS_RID;
+        }
+
+        if ( opt.equalsIgnoreCase( PARALLELISM.text ) )
+        {
+            return PARALLELISM;
+        }
+
+        if ( opt.equalsIgnoreCase( MEMORY_LIMIT.text ) )
+        {
+            return MEMORY_LIMIT;
+        }
+
         return UNKNOWN;
     }
 }
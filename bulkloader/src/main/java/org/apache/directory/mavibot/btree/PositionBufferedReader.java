@@ -94,9 +94,23 @@ public class PositionBufferedReader extends Reader
      *            the Reader that is buffered.
      */
     public PositionBufferedReader( Reader in )
+    {
+        this( in, 0L );
+    }
+
+
+    /**
+     * Constructs a new BufferedReader on the Reader {@code in}, which has already
+     * been positioned at {@code filePos} in the file.
+     *
+     * @param in the Reader that is buffered.
+     * @param filePos the position of the first character of the Reader in the file
+     */
+    public PositionBufferedReader( Reader in, long filePos )
     {
         super( in );
         this.in = in;
+        this.filePos = filePos;
         buf = new char[8192];
     }
 
@@ -310,39 +324,42 @@ public class PositionBufferedReader extends Reader
             {
                 throw new IOException( "File closed, cannot read from it" );
             }
-            
+
             /* has the underlying stream been exhausted? */
             if ( pos == end && fillBuf() == -1 )
             {
                 return null;
             }
-            
-            for ( int charPos = pos; charPos < end; charPos++ )
+
+            StringBuilder result = null;
+
+            while ( true )
             {
-                char ch = buf[charPos];
-                
-                if ( ch > '\r' )
+                for ( int charPos = pos; charPos < end; charPos++ )
                 {
-                    filePos++;
-                    continue;
-                }
+                    char ch = buf[charPos];
 
-                if ( ch == '\n' )
-                {
-                    String res = new String( buf, pos, charPos - pos );
-                    pos = charPos + 1;
-                    filePos++;
+                    if ( ( ch != '\n' ) && ( ch != '\r' ) )
+                    {
+                        continue;
+                    }
 
-                    return res;
-                }
-                else if ( ch == '\r' )
-                {
-                    String res = new String( buf, pos, charPos - pos );
-                    filePos++;
+                    String res;
+
+                    if ( result == null )
+                    {
+                        res = new String( buf, pos, charPos - pos );
+                    }
+                    else
+                    {
+                        res = result.append( buf, pos, charPos - pos ).toString();
+                    }
+
+                    // The position is moved past the EOL
+                    filePos += charPos + 1 - pos;
                     pos = charPos + 1;
 
-                    if ( ( ( pos < end ) || ( fillBuf() != -1 ) )
-                        && ( buf[pos] == '\n' ) )
+                    if ( ( ch == '\r' ) && ( ( pos < end ) || ( fillBuf() != -1 ) ) && ( buf[pos] == '\n' ) )
                     {
                         filePos++;
                         pos++;
@@ -350,78 +367,20 @@ public class PositionBufferedReader extends Reader
 
                     return res;
                 }
-            }
-
-            char eol = '\0';
-            StringBuilder result = new StringBuilder( 80 );
-            /* Typical Line Length */
-
-            result.append( buf, pos, end - pos );
-
-            while ( true )
-            {
-                pos = end;
 
-                /* Are there buffered characters available? */
-                if ( eol == '\n' )
+                // No EOL in the buffer : keep what we have and read some more chars
+                if ( result == null )
                 {
-                    return result.toString();
-                }
-                
-                // attempt to fill buffer
-                if ( fillBuf() == -1 )
-                {
-                    // characters or null.
-                    return result.length() > 0 || eol != '\0'
-                        ? result.toString()
-                        : null;
+                    result = new StringBuilder( 80 + end - pos );
                 }
 
-                filePos--;
+                result.append( buf, pos, end - pos );
+                filePos += end - pos;
+                pos = end;
 
-                for ( int charPos = pos; charPos < end; charPos++ )
-                {
-                    char c = buf[charPos];
-                    filePos++;
-                    
-                    if ( eol == '\0' )
-                    {
-                        if ( ( c == '\n' || c == '\r' ) )
-                        {
-                            eol = c;
-                        }
-                    }
-                    else if ( eol == '\r' && c == '\n' )
-                    {
-                        if ( charPos > pos )
-                        {
-                            result.append( buf, pos, charPos - pos - 1 );
-                        }
-
-                        pos = charPos + 1;
-                        
-                        return result.toString();
-                    }
-                    else
-                    {
-                        if ( charPos > pos )
-                        {
-                            result.append( buf, pos, charPos - pos - 1 );
-                        }
-
-                        pos = charPos;
-                        
-                        return result.toString();
-                    }
-                }
-                
-                if ( eol == '\0' )
-                {
-                    result.append( buf, pos, end - pos );
-                }
-                else
+                if ( fillBuf() == -1 )
                 {
-                    result.append( buf, pos, end - pos - 1 );
+                    return result.toString();
                 }
             }
         }
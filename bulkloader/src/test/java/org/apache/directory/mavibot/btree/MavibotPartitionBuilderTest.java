@@ -20,17 +20,29 @@
 package org.apache.directory.mavibot.btree;
 
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import java.io.File;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
-import org.apache.directory.api.util.FileUtils;
-import org.apache.directory.server.config.LdifConfigExtractor;
-import org.junit.Before;
-import org.junit.Rule;
-import org.junit.Test;
-import org.junit.rules.TemporaryFolder;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotRdnIndex;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
-import static org.junit.Assert.*;
 
 /**
  * Tests for MavibotPartitionBuilder.
@@ -39,45 +51,141 @@ import static org.junit.Assert.*;
  */
 public class MavibotPartitionBuilderTest
 {
-    @Rule
-    public TemporaryFolder folder = new TemporaryFolder();
-    
-    /** The configuration file */
-    String configFile;
-    
+    @TempDir
+    public Path folder;
+
     private File outDir;
 
-    private static File workDir = new File( System.getProperty( "java.io.tmpdir" ) + "/server-work" );
 
-    @Before
+    @BeforeEach
     public void init() throws Exception
     {
-        outDir = folder.newFolder( "MavibotPartitionBuilderTest" );
-        workDir.mkdir();
-        File configDir = new File( workDir, "config" ); // could be any directory, cause the config is now in a single file
-
-        configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "config.ldif", true );
+        outDir = Files.createDirectory( folder.resolve( "MavibotPartitionBuilderTest" ) ).toFile();
     }
-    
+
+
     @Test
     public void testBulkLoad() throws Exception
     {
-        //File file = new File( outDir, "builder-test.ldif" );
-        File file = new File( outDir, "30k.ldif" );
-        //InputStream in = MavibotPartitionBuilder.class.getClassLoader().getResourceAsStream( "builder-test.ldif" );
-        try ( InputStream in = MavibotPartitionBuilder.class.getClassLoader().getResourceAsStream( "30k.ldif" ) )
+        File file = new File( folder.toFile(), "builder-test.ldif" );
+
+        try ( InputStream in = MavibotPartitionBuilder.class.getClassLoader().getResourceAsStream( "builder-test.ldif" ) )
         {
-            FileUtils.copyInputStreamToFile( in, file );
+            Files.copy( in, file.toPath() );
         }
 
-        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configFile, file.getAbsolutePath(), outDir.getAbsolutePath() );
-        
+        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( null, file.getAbsolutePath(), outDir.getAbsolutePath() );
+
         builder.buildPartition();
-        
+
         //test the trees
-        
         RecordManager rm = builder.getRm();
         BTree masterTree = rm.getManagedTree( builder.getMasterTableName() );
+        assertEquals( 7, builder.getTotalEntries() );
         assertEquals( builder.getTotalEntries(), masterTree.getNbElems() );
+        rm.close();
+    }
+
+
+    @Test
+    public void testParallelBulkLoad() throws Exception
+    {
+        // A shuffled LDIF file, with some non ASCII DNs, parsed in many chunks
+        File file = new File( folder.toFile(), "parallel.ldif" );
+        List<String> entries = new ArrayList<>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            entries.add( "dn: ou=group" + i + ",ou=builder\nobjectClass: organizationalUnit\nou: group" + i + "\n" );
+
+            for ( int j = 0; j < 100; j++ )
+            {
+                entries.add( "dn: cn=Usér " + j + ",ou=group" + i + ",ou=builder\nobjectClass: person\ncn: Usér "
+                    + j + "\nsn: user" + j + "\n" );
+            }
+        }
+
+        Collections.shuffle( entries, new Random( 42 ) );
+
+        try ( Writer writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ) )
+        {
+            writer.write( "version: 1\n\ndn: ou=builder\nobjectClass: organizationalUnit\nou: builder\n" );
+
+            for ( String entry : entries )
+            {
+                writer.write( "\n" );
+                writer.write( entry );
+            }
+        }
+
+        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( null, file.getAbsolutePath(), outDir.getAbsolutePath() );
+        builder.setParallelism( 4 );
+        builder.setChunkSize( 4096L );
+        builder.setMemoryLimit( 256L * 1024L );
+
+        assertTrue( builder.getChunks( file ).length > 10 );
+
+        builder.buildPartition();
+
+        assertEquals( 1011, builder.getTotalEntries() );
+
+        // The leaves' values are released while building, read the trees back from the disk
+        builder.getRm().close();
+        RecordManager rm = new RecordManager( outDir.getAbsolutePath() );
+        assertEquals( 1011, rm.getManagedTree( builder.getMasterTableName() ).getNbElems() );
+
+        BTree<ParentIdAndRdn, String> rdnFwd = rm.getManagedTree( ApacheSchemaConstants.APACHE_RDN_AT_OID
+            + MavibotRdnIndex.FORWARD_BTREE );
+        BTree<String, ParentIdAndRdn> rdnRev = rm.getManagedTree( ApacheSchemaConstants.APACHE_RDN_AT_OID
+            + MavibotRdnIndex.REVERSE_BTREE );
+        assertEquals( 1011, rdnFwd.getNbElems() );
+        assertEquals( 1011, rdnRev.getNbElems() );
+
+        // The suffix has 10 children, each group has 100 children
+        int groups = 0;
+        TupleCursor<String, ParentIdAndRdn> cursor = rdnRev.browse();
+
+        while ( cursor.hasNext() )
+        {
+            ParentIdAndRdn parentIdAndRdn = cursor.next().getValue();
+
+            if ( parentIdAndRdn.getRdns()[0].getName().equals( "ou=builder" ) )
+            {
+                assertEquals( 10, parentIdAndRdn.getNbChildren() );
+            }
+            else if ( parentIdAndRdn.getRdns()[0].getName().startsWith( "ou=group" ) )
+            {
+                assertEquals( 100, parentIdAndRdn.getNbChildren() );
+                assertEquals( 100, parentIdAndRdn.getNbDescendants() );
+                groups++;
+            }
+            else
+            {
+                assertEquals( 0, parentIdAndRdn.getNbChildren() );
+            }
+        }
+
+        cursor.close();
+        assertEquals( 10, groups );
+
+        // The objectClass index has one key per objectClass, top excepted
+        BTree<String, String> ocFwd = rm.getManagedTree( SchemaConstants.OBJECT_CLASS_AT_OID + MavibotIndex.FORWARD_BTREE );
+        assertEquals( 2, ocFwd.getNbElems() );
+        ValueCursor<String> personIds = ocFwd.getValues( SchemaConstants.PERSON_OC_OID );
+        int persons = 0;
+
+        while ( personIds.hasNext() )
+        {
+            personIds.next();
+            persons++;
+        }
+
+        personIds.close();
+        assertEquals( 1000, persons );
+
+        // Each entry has its own entryCSN
+        assertEquals( 1011, rm.getManagedTree( SchemaConstants.ENTRY_CSN_AT_OID + MavibotIndex.FORWARD_BTREE )
+            .getNbElems() );
+        rm.close();
     }
 }
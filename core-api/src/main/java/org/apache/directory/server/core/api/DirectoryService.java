@@ -31,22 +31,24 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.api.util.TimeProvider;
 import org.apache.directory.server.core.api.administrative.AccessControlAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.authn.PasswordHashExecutor;
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
 import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 
 
 /**
@@ -146,6 +148,24 @@ public interface DirectoryService extends ServerEntryFactory
     void setEventService( EventService eventService );
 
 
+    /**
+     * @return The executor hashing and verifying the passwords
+     */
+    PasswordHashExecutor getPasswordHashExecutor();
+
+
+    /**
+     * @param passwordHashExecutor The executor hashing and verifying the passwords
+     */
+    void setPasswordHashExecutor( PasswordHashExecutor passwordHashExecutor );
+
+
+    /**
+     * @return The registry gathering the latencies, counters and gauges of this service
+     */
+    MetricsRegistry getMetricsRegistry();
+
+
     /**
      * Starts up this service.
      * 
@@ -582,25 +602,25 @@ public interface DirectoryService extends ServerEntryFactory
     /**
      * @return The AccessControl AdministrativePoint cache
      */
-    DnNode<AccessControlAdministrativePoint> getAccessControlAPCache();
+    CopyOnWriteDnTree<AccessControlAdministrativePoint> getAccessControlAPCache();
 
 
     /**
      * @return The CollectiveAttribute AdministrativePoint cache
      */
-    DnNode<CollectiveAttributeAdministrativePoint> getCollectiveAttributeAPCache();
+    CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> getCollectiveAttributeAPCache();
 
 
     /**
      * @return The Subschema AdministrativePoint cache
      */
-    DnNode<SubschemaAdministrativePoint> getSubschemaAPCache();
+    CopyOnWriteDnTree<SubschemaAdministrativePoint> getSubschemaAPCache();
 
 
     /**
      * @return The TriggerExecution AdministrativePoint cache
      */
-    DnNode<TriggerExecutionAdministrativePoint> getTriggerExecutionAPCache();
+    CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> getTriggerExecutionAPCache();
 
 
     /**
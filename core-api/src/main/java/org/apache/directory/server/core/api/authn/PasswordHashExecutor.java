@@ -0,0 +1,362 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.authn;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Runs the password hashing and verification on a pool sized after the number of CPUs,
+ * so that a burst of binds or password changes against costly hashes (PKCS5S2, crypt,
+ * salted SHA-2...) can't take all the CPU from the threads processing the other requests :
+ * the calling thread just waits for the result.
+ * <p>
+ * The pool queue is bounded. When it's full, the operation is refused with a BUSY error
+ * instead of being run by the calling thread, which would defeat the bound. The work is
+ * done in the calling thread when the executor has not been initialized or is being
+ * stopped, or when it has been configured with no thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordHashExecutor
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PasswordHashExecutor.class );
+
+    /** The default number of hashes waiting for a thread, per thread */
+    public static final int DEFAULT_QUEUE_SIZE_PER_THREAD = 64;
+
+    /** The number of threads hashing the passwords, 0 to hash them in the calling thread */
+    private int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The maximum number of hashes waiting for a thread, 0 for the default */
+    private int queueSize;
+
+    /** The pool, null when the hashes are done in the calling thread */
+    private volatile ThreadPoolExecutor pool;
+
+    /** The number of tasks run by the pool */
+    private final LongAdder submittedCount = new LongAdder();
+
+    /** The number of tasks refused because the queue was full */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /** The time the tasks run by the pool have waited for a thread, in nanoseconds */
+    private final LongAdder waitTime = new LongAdder();
+
+
+    /**
+     * Starts the pool.
+     */
+    public synchronized void init()
+    {
+        if ( ( pool != null ) || ( nbThreads <= 0 ) )
+        {
+            return;
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setName( "PasswordHash-" + newThread.getName() );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        int capacity = queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE_PER_THREAD * nbThreads;
+
+        ThreadPoolExecutor newPool = new ThreadPoolExecutor( nbThreads, nbThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>( capacity ), threadFactory );
+        newPool.allowCoreThreadTimeOut( true );
+        pool = newPool;
+
+        LOG.debug( "Password hash executor started with {} threads", nbThreads );
+    }
+
+
+    /**
+     * Stops the pool. The hashes are then done in the calling thread.
+     */
+    public synchronized void destroy()
+    {
+        if ( pool != null )
+        {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+
+    /**
+     * Runs a task on the pool, and waits for its result.
+     *
+     * @param task the task to run
+     * @param <T> the type of the result
+     * @return the task result
+     * @throws LdapException if the task failed, or if the calling thread has been interrupted
+     * @throws LdapServiceUnavailableException if the queue is full
+     */
+    public <T> T execute( Callable<T> task ) throws LdapException
+    {
+        ThreadPoolExecutor currentPool = pool;
+
+        if ( currentPool == null )
+        {
+            return call( task );
+        }
+
+        long submitTime = System.nanoTime();
+        Future<T> future;
+
+        try
+        {
+            future = currentPool.submit( () ->
+            {
+                waitTime.add( System.nanoTime() - submitTime );
+
+                return task.call();
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            if ( currentPool.isShutdown() )
+            {
+                // The pool is being stopped
+                return call( task );
+            }
+
+            // The queue is full : the server is overloaded
+            rejectedCount.increment();
+            String message = I18n.err( I18n.ERR_02129_PASSWORD_HASH_QUEUE_FULL, currentPool.getQueue().size() );
+            LOG.warn( message );
+
+            throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, message );
+        }
+
+        submittedCount.increment();
+
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            future.cancel( true );
+
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+
+            if ( cause instanceof LdapException )
+            {
+                throw ( LdapException ) cause;
+            }
+
+            if ( cause instanceof RuntimeException )
+            {
+                throw ( RuntimeException ) cause;
+            }
+
+            throw new LdapOtherException( cause.getMessage(), cause );
+        }
+    }
+
+
+    /**
+     * Finds the stored password the given credentials match.
+     *
+     * @param credentials the credentials to check
+     * @param storedPasswords the stored passwords, hashed or not
+     * @return the position of the first matching stored password, -1 if none matches
+     * @throws LdapException if the comparison could not be done
+     */
+    public int findMatchingPassword( byte[] credentials, byte[]... storedPasswords ) throws LdapException
+    {
+        if ( ( storedPasswords == null ) || ( storedPasswords.length == 0 ) )
+        {
+            return -1;
+        }
+
+        return execute( () ->
+        {
+            for ( int i = 0; i < storedPasswords.length; i++ )
+            {
+                if ( PasswordUtil.compareCredentials( credentials, storedPasswords[i] ) )
+                {
+                    return i;
+                }
+            }
+
+            return -1;
+        } );
+    }
+
+
+    /**
+     * Hashes a password.
+     *
+     * @param credentials the password to hash
+     * @param algorithm the algorithm to use
+     * @return the hashed password, as it has to be stored
+     * @throws LdapException if the hash could not be done
+     */
+    public byte[] createStoragePassword( byte[] credentials, LdapSecurityConstants algorithm ) throws LdapException
+    {
+        return execute( () -> PasswordUtil.createStoragePassword( credentials, algorithm ) );
+    }
+
+
+    private static <T> T call( Callable<T> task ) throws LdapException
+    {
+        try
+        {
+            return task.call();
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * @return The number of threads hashing the passwords
+     */
+    public int getNbThreads()
+    {
+        return nbThreads;
+    }
+
+
+    /**
+     * Sets the number of threads hashing the passwords. It has to be set before the executor
+     * is initialized. It defaults to the number of available processors.
+     *
+     * @param nbThreads The number of threads, 0 to hash the passwords in the calling thread
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = nbThreads;
+    }
+
+
+    /**
+     * @return The maximum number of hashes waiting for a thread, 0 for the default
+     */
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+
+    /**
+     * Sets the maximum number of hashes waiting for a thread. It has to be set before the
+     * executor is initialized. It defaults to {@link #DEFAULT_QUEUE_SIZE_PER_THREAD} per thread.
+     *
+     * @param queueSize The maximum number of waiting hashes, 0 for the default
+     */
+    public void setQueueSize( int queueSize )
+    {
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * @return The number of hashes run by the pool
+     */
+    public long getSubmittedCount()
+    {
+        return submittedCount.sum();
+    }
+
+
+    /**
+     * @return The number of hashes refused because the queue was full
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount.sum();
+    }
+
+
+    /**
+     * @return The number of hashes currently waiting for a thread
+     */
+    public int getQueuedCount()
+    {
+        ThreadPoolExecutor currentPool = pool;
+
+        return currentPool == null ? 0 : currentPool.getQueue().size();
+    }
+
+
+    /**
+     * @return The number of threads currently hashing a password
+     */
+    public int getActiveCount()
+    {
+        ThreadPoolExecutor currentPool = pool;
+
+        return currentPool == null ? 0 : currentPool.getActiveCount();
+    }
+
+
+    /**
+     * @return The mean time a hash has waited for a thread, in microseconds
+     */
+    public long getMeanWaitTime()
+    {
+        long submitted = submittedCount.sum();
+
+        return submitted == 0L ? 0L : TimeUnit.NANOSECONDS.toMicros( waitTime.sum() / submitted );
+    }
+}
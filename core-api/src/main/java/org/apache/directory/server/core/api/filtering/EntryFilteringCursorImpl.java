@@ -35,9 +35,11 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,6 +78,15 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
     /** the first accepted search result that is pre fetched */
     private Entry prefetched;
 
+    /** the number of candidates read from the wrapped cursor */
+    private long candidateCount;
+
+    /** the number of entries accepted by the filters */
+    private long entryCount;
+
+    /** tells if the counts have been recorded in the metrics */
+    private boolean countsRecorded;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -272,6 +283,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
 
         wrapped.close();
         prefetched = null;
+        recordCounts();
     }
 
 
@@ -287,6 +299,31 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
 
         wrapped.close( reason );
         prefetched = null;
+        recordCounts();
+    }
+
+
+    /**
+     * Records the number of candidates read and entries returned by this cursor in the
+     * metrics of the DirectoryService, once.
+     */
+    private void recordCounts()
+    {
+        if ( countsRecorded || ( operationContext == null ) || ( operationContext.getSession() == null ) )
+        {
+            return;
+        }
+
+        countsRecorded = true;
+
+        DirectoryService directoryService = operationContext.getSession().getDirectoryService();
+
+        if ( directoryService != null )
+        {
+            MetricsRegistry metrics = directoryService.getMetricsRegistry();
+            metrics.record( MetricsRegistry.SEARCH_CANDIDATES, candidateCount );
+            metrics.record( MetricsRegistry.SEARCH_ENTRIES, entryCount );
+        }
     }
 
 
@@ -402,6 +439,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
         outer: while ( wrapped.next() )
         {
             Entry tempEntry = wrapped.get();
+            candidateCount++;
 
             if ( tempEntry == null )
             {
@@ -433,6 +471,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                     schemaManager,
                     operationContext, prefetched );
 
+                entryCount++;
+
                 return true;
             }
 
@@ -443,6 +483,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                     schemaManager,
                     operationContext, prefetched );
 
+                entryCount++;
+
                 return true;
             }
 
@@ -461,6 +503,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
              */
             prefetched = tempResult;
 
+            entryCount++;
+
             return true;
         }
 
@@ -496,6 +540,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
         outer: while ( wrapped.previous() )
         {
             Entry entry = wrapped.get();
+            candidateCount++;
 
             if ( entry == null )
             {
@@ -519,6 +564,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                     schemaManager,
                     operationContext, prefetched );
 
+                entryCount++;
+
                 return true;
             }
 
@@ -529,6 +576,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                     schemaManager,
                     operationContext, prefetched );
 
+                entryCount++;
+
                 return true;
             }
 
@@ -551,6 +600,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                 schemaManager,
                 operationContext, prefetched );
 
+            entryCount++;
+
             return true;
         }
 
@@ -31,6 +31,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -46,6 +47,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 
 
@@ -337,8 +339,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( AddOperationContext addContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( addContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.add( addContext );
+        try
+        {
+            interceptor.add( addContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.ADD, start );
+        }
     }
 
 
@@ -360,8 +371,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( BindOperationContext bindContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( bindContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.bind( bindContext );
+        try
+        {
+            interceptor.bind( bindContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.BIND, start );
+        }
     }
 
 
@@ -382,8 +402,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final boolean next( CompareOperationContext compareContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( compareContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return interceptor.compare( compareContext );
+        try
+        {
+            return interceptor.compare( compareContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.COMPARE, start );
+        }
     }
 
 
@@ -405,8 +434,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( DeleteOperationContext deleteContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( deleteContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.delete( deleteContext );
+        try
+        {
+            interceptor.delete( deleteContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.DELETE, start );
+        }
     }
 
 
@@ -430,8 +468,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final Entry next( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( getRootDseContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return interceptor.getRootDse( getRootDseContext );
+        try
+        {
+            return interceptor.getRootDse( getRootDseContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.GET_ROOT_DSE, start );
+        }
     }
 
 
@@ -455,8 +502,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final boolean next( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( hasEntryContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return interceptor.hasEntry( hasEntryContext );
+        try
+        {
+            return interceptor.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -479,8 +535,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final Entry next( LookupOperationContext lookupContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( lookupContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return interceptor.lookup( lookupContext );
+        try
+        {
+            return interceptor.lookup( lookupContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.LOOKUP, start );
+        }
     }
 
 
@@ -502,8 +567,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( ModifyOperationContext modifyContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( modifyContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.modify( modifyContext );
+        try
+        {
+            interceptor.modify( modifyContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.MODIFY, start );
+        }
     }
 
 
@@ -525,8 +599,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( MoveOperationContext moveContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( moveContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.move( moveContext );
+        try
+        {
+            interceptor.move( moveContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.MOVE, start );
+        }
     }
 
 
@@ -545,8 +628,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( moveAndRenameContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.moveAndRename( moveAndRenameContext );
+        try
+        {
+            interceptor.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.MOVE_AND_RENAME, start );
+        }
     }
 
 
@@ -568,8 +660,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( RenameOperationContext renameContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( renameContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.rename( renameContext );
+        try
+        {
+            interceptor.rename( renameContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.RENAME, start );
+        }
     }
 
 
@@ -592,8 +693,17 @@ public abstract class BaseInterceptor implements Interceptor
     protected final EntryFilteringCursor next( SearchOperationContext searchContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( searchContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return interceptor.search( searchContext );
+        try
+        {
+            return interceptor.search( searchContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.SEARCH, start );
+        }
     }
 
 
@@ -615,7 +725,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( UnbindOperationContext unbindContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( unbindContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        interceptor.unbind( unbindContext );
+        try
+        {
+            interceptor.unbind( unbindContext );
+        }
+        finally
+        {
+            metrics.recordInterceptor( interceptor.getName(), OperationEnum.UNBIND, start );
+        }
     }
 }
@@ -83,6 +83,9 @@ public abstract class AbstractOperationContext implements OperationContext
     /** The partition this operation will be applied on */
     protected Partition partition;
 
+    /** The entries read from the partitions during this operation */
+    protected EntryReadSet readSet;
+
 
     /**
      * Creates a new instance of AbstractOperationContext.
@@ -395,6 +398,7 @@ public abstract class AbstractOperationContext implements OperationContext
     {
         LookupOperationContext lookupContext = new LookupOperationContext( session, dn, attributes );
         setup( lookupContext );
+        lookupContext.setReadSet( readSet );
 
         return lookupContext;
     }
@@ -516,4 +520,24 @@ public abstract class AbstractOperationContext implements OperationContext
     {
         this.partition = partition;
     }
+    
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryReadSet getReadSet()
+    {
+        return readSet;
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setReadSet( EntryReadSet readSet )
+    {
+        this.readSet = readSet;
+    }
 }
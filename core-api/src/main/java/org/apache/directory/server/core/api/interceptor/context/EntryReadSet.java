@@ -0,0 +1,159 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.interceptor.context;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+
+
+/**
+ * The entries read from the partitions during one operation. The target, its parent or the
+ * principal entry are typically fetched by many interceptors while an operation is processed :
+ * the nexus stores them here the first time they are read, and serves the following lookups
+ * from this set.<br>
+ * Each entry is associated with the number of writes the nexus had applied when it was read :
+ * as soon as any write is applied, the whole set is discarded.<br>
+ * An instance is used by a single operation, and is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryReadSet
+{
+    /** The entries, by normalized Dn */
+    private final Map<String, Entry> entries = new HashMap<>( 4 );
+
+    /** The number of writes the nexus had applied when the entries were read */
+    private long generation;
+
+
+    /**
+     * Creates a new instance of EntryReadSet.
+     */
+    public EntryReadSet()
+    {
+    }
+
+
+    /**
+     * Discard the entries if they have been read before the given write generation
+     *
+     * @param generation The current write generation
+     * @return <tt>true</tt> if the entries are still valid
+     */
+    private boolean validate( long generation )
+    {
+        if ( generation == this.generation )
+        {
+            return true;
+        }
+
+        if ( generation > this.generation )
+        {
+            entries.clear();
+            this.generation = generation;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Get a copy of an entry read during the operation.
+     *
+     * @param dn The entry's Dn
+     * @param generation The current write generation
+     * @return A copy of the entry, or null if it has not been read, or has been read before a write
+     */
+    public Entry get( Dn dn, long generation )
+    {
+        if ( !validate( generation ) )
+        {
+            return null;
+        }
+
+        Entry entry = entries.get( dn.getNormName() );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        Entry copy = new ClonedServerEntry( entry );
+        copy.setDn( dn );
+
+        return copy;
+    }
+
+
+    /**
+     * Tells if an entry has been read during the operation.
+     *
+     * @param dn The entry's Dn
+     * @param generation The current write generation
+     * @return <tt>true</tt> if the entry has been read, and no write has been applied since
+     */
+    public boolean contains( Dn dn, long generation )
+    {
+        return validate( generation ) && entries.containsKey( dn.getNormName() );
+    }
+
+
+    /**
+     * Store an entry read during the operation. The entry is copied, so that the caller can
+     * modify the instance it has been given.
+     *
+     * @param dn The entry's Dn
+     * @param entry The read entry
+     * @param generation The write generation when the read started
+     */
+    public void put( Dn dn, Entry entry, long generation )
+    {
+        validate( generation );
+
+        // An entry read before a write which has already discarded the set is not stored
+        if ( generation == this.generation )
+        {
+            entries.put( dn.getNormName(), entry.clone() );
+        }
+    }
+
+
+    /**
+     * @return The number of entries read during the operation
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     * Discard all the entries.
+     */
+    public void clear()
+    {
+        entries.clear();
+    }
+}
@@ -309,4 +309,20 @@ public interface OperationContext
      */
     void setPartition( Partition partition );
 
+
+    /**
+     * @return The entries read from the partitions during this operation, or null
+     * if they are not kept
+     */
+    EntryReadSet getReadSet();
+
+
+    /**
+     * Set the entries read from the partitions during this operation. The nested
+     * contexts created by the interceptors share the read set of the operation.
+     *
+     * @param readSet The entries read during this operation
+     */
+    void setReadSet( EntryReadSet readSet );
+
 }
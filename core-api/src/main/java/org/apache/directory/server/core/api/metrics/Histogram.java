@@ -0,0 +1,250 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A lock-free histogram of positive values, typically latencies in nanoseconds.
+ * <p>
+ * The values are counted in log-linear buckets, the same way HdrHistogram does : each
+ * power of two is split in 8 buckets, so that a value is known with a relative error
+ * lower than 12.5%, whatever its magnitude. The values above 2^40 (a bit more than 18
+ * minutes, in nanoseconds) are all counted in the last bucket.
+ * <p>
+ * Recording a value is a couple of bit operations, an atomic increment, and an addition
+ * to a {@link LongAdder} : it does not allocate and never locks, so it can be done in
+ * the hot path of the server.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class Histogram
+{
+    /** The number of bits used to select a sub-bucket in a power of two */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** The number of sub-buckets in a power of two */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The highest power of two recorded precisely */
+    private static final int MAX_MAGNITUDE = 40;
+
+    /** The number of buckets */
+    static final int BUCKET_COUNT = ( MAX_MAGNITUDE - SUB_BUCKET_BITS + 2 ) * SUB_BUCKET_COUNT;
+
+    /** The histogram name */
+    private final String name;
+
+    /** The number of values in each bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+
+    /** The sum of the recorded values */
+    private final LongAdder total = new LongAdder();
+
+    /** The highest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Creates a new Histogram
+     *
+     * @param name The histogram name
+     */
+    public Histogram( String name )
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * @return The histogram name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Records a value. The negative values are recorded as 0.
+     *
+     * @param value The value to record
+     */
+    public void record( long value )
+    {
+        if ( value < 0L )
+        {
+            value = 0L;
+        }
+
+        buckets.incrementAndGet( bucketIndex( value ) );
+        total.add( value );
+
+        long currentMax = max.get();
+
+        while ( ( value > currentMax ) && !max.compareAndSet( currentMax, value ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * Computes the bucket a value is counted in.
+     *
+     * @param value The value, positive
+     * @return The bucket index
+     */
+    static int bucketIndex( long value )
+    {
+        if ( value < SUB_BUCKET_COUNT )
+        {
+            return ( int ) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros( value );
+
+        if ( magnitude > MAX_MAGNITUDE )
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = ( int ) ( value >>> ( magnitude - SUB_BUCKET_BITS ) ) & ( SUB_BUCKET_COUNT - 1 );
+
+        return ( magnitude - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+
+    /**
+     * Computes the highest value counted in a bucket.
+     *
+     * @param index The bucket index
+     * @return The highest value of this bucket
+     */
+    static long bucketUpperBound( int index )
+    {
+        if ( index < SUB_BUCKET_COUNT )
+        {
+            return index;
+        }
+
+        int magnitude = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+
+        return ( ( long ) ( SUB_BUCKET_COUNT + subBucket + 1 ) << ( magnitude - SUB_BUCKET_BITS ) ) - 1L;
+    }
+
+
+    /**
+     * @return The number of recorded values
+     */
+    public long getCount()
+    {
+        long count = 0L;
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            count += buckets.get( i );
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @return The sum of the recorded values
+     */
+    public long getTotal()
+    {
+        return total.sum();
+    }
+
+
+    /**
+     * @return The highest recorded value
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * Computes the value under which a given percentage of the recorded values are. The
+     * result is the upper bound of the bucket containing this value, so it's never lower
+     * than the exact percentile, and never higher than the maximum value.
+     *
+     * @param percentile The percentage, between 0 and 100
+     * @return The value at this percentile, or 0 if no value has been recorded
+     */
+    public long getPercentile( double percentile )
+    {
+        return snapshot().getPercentile( percentile );
+    }
+
+
+    /**
+     * Takes a consistent enough copy of the histogram, to compute all its statistics
+     * from the same values. As the values are being recorded concurrently, the count,
+     * the total and the maximum may be off by a few values.
+     *
+     * @return A snapshot of this histogram
+     */
+    public HistogramSnapshot snapshot()
+    {
+        long[] counts = new long[BUCKET_COUNT];
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts[i] = buckets.get( i );
+        }
+
+        return new HistogramSnapshot( name, counts, total.sum(), max.get() );
+    }
+
+
+    /**
+     * Forgets all the recorded values
+     */
+    public void reset()
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            buckets.set( i, 0L );
+        }
+
+        total.reset();
+        max.set( 0L );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return snapshot().toString();
+    }
+}
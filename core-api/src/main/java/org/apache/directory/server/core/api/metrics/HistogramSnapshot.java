@@ -0,0 +1,194 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+/**
+ * An immutable copy of a {@link Histogram}, from which its statistics are computed.
+ * It's exposed as a composite type by the {@link MetricsMXBean}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class HistogramSnapshot
+{
+    /** The histogram name */
+    private final String name;
+
+    /** The number of values in each bucket */
+    private final long[] counts;
+
+    /** The number of recorded values */
+    private final long count;
+
+    /** The sum of the recorded values */
+    private final long total;
+
+    /** The highest recorded value */
+    private final long max;
+
+
+    /**
+     * Creates a new HistogramSnapshot
+     *
+     * @param name The histogram name
+     * @param counts The number of values in each bucket
+     * @param total The sum of the recorded values
+     * @param max The highest recorded value
+     */
+    HistogramSnapshot( String name, long[] counts, long total, long max )
+    {
+        this.name = name;
+        this.counts = counts;
+        this.total = total;
+        this.max = max;
+
+        long sum = 0L;
+
+        for ( long bucketCount : counts )
+        {
+            sum += bucketCount;
+        }
+
+        count = sum;
+    }
+
+
+    /**
+     * @return The histogram name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * @return The number of recorded values
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The sum of the recorded values
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+
+    /**
+     * @return The mean of the recorded values, 0 if there is none
+     */
+    public double getMean()
+    {
+        return count == 0L ? 0d : ( double ) total / count;
+    }
+
+
+    /**
+     * @return The highest recorded value
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+
+    /**
+     * @return The median of the recorded values
+     */
+    public long getMedian()
+    {
+        return getPercentile( 50d );
+    }
+
+
+    /**
+     * @return The 90th percentile of the recorded values
+     */
+    public long getPercentile90()
+    {
+        return getPercentile( 90d );
+    }
+
+
+    /**
+     * @return The 99th percentile of the recorded values
+     */
+    public long getPercentile99()
+    {
+        return getPercentile( 99d );
+    }
+
+
+    /**
+     * @return The 99.9th percentile of the recorded values
+     */
+    public long getPercentile999()
+    {
+        return getPercentile( 99.9d );
+    }
+
+
+    /**
+     * Computes the value under which a given percentage of the recorded values are.
+     *
+     * @param percentile The percentage, between 0 and 100
+     * @return The upper bound of the bucket containing this percentile, capped by the
+     * highest recorded value, or 0 if no value has been recorded
+     */
+    public long getPercentile( double percentile )
+    {
+        if ( count == 0L )
+        {
+            return 0L;
+        }
+
+        long rank = Math.max( 1L, ( long ) Math.ceil( Math.min( percentile, 100d ) * count / 100d ) );
+        long seen = 0L;
+
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            seen += counts[i];
+
+            if ( seen >= rank )
+            {
+                return Math.min( Histogram.bucketUpperBound( i ), max );
+            }
+        }
+
+        return max;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return name + " : count=" + count + ", mean=" + ( long ) getMean() + ", p50=" + getMedian()
+            + ", p99=" + getPercentile99() + ", max=" + max;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The management interface of the {@link MetricsRegistry}, registered in the platform
+ * MBean server by the DirectoryService. The latencies are in nanoseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface MetricsMXBean
+{
+    /**
+     * @return <code>true</code> if the metrics are recorded
+     */
+    boolean isEnabled();
+
+
+    /**
+     * Starts or stops recording the metrics.
+     *
+     * @param enabled <code>true</code> to record the metrics
+     */
+    void setEnabled( boolean enabled );
+
+
+    /**
+     * @return The latency of each interceptor, per operation. An interceptor latency includes
+     * the time spent in the interceptors and the partition it calls.
+     */
+    List<HistogramSnapshot> getInterceptorLatencies();
+
+
+    /**
+     * @return The latency of each partition, per operation
+     */
+    List<HistogramSnapshot> getPartitionLatencies();
+
+
+    /**
+     * @return The other histograms : lock waits, candidates and entries per search cursor...
+     */
+    List<HistogramSnapshot> getHistograms();
+
+
+    /**
+     * @return The value of each counter
+     */
+    Map<String, Long> getCounters();
+
+
+    /**
+     * @return The current value of each gauge, such as the cache hit rates
+     */
+    Map<String, Double> getGauges();
+
+
+    /**
+     * Forgets all the recorded histograms and counters. The gauges are not modified.
+     */
+    void reset();
+}
@@ -0,0 +1,428 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.directory.server.core.api.OperationEnum;
+
+
+/**
+ * Gathers the metrics of a DirectoryService : the latency histograms per interceptor and
+ * per partition, for each operation, the lock waits, the number of candidates and entries
+ * read by each search cursor, a set of counters and a set of gauges, like the cache hit
+ * rates.
+ * <p>
+ * The timed code gets a start time from {@link #start()}, and gives it back when done :
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.recordPartition( partitionId, OperationEnum.SEARCH, start );
+ * </pre>
+ * The start time is 0 when the metrics are disabled, in which case nothing is recorded. The
+ * histograms are created on their first use, then recording a value is a lookup in a
+ * concurrent map, and an update of a lock-free {@link Histogram}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistry implements MetricsMXBean
+{
+    /** The time spent waiting for the operation manager read lock */
+    public static final String LOCK_READ_WAIT = "lock.read.wait";
+
+    /** The time spent waiting for the operation manager write lock */
+    public static final String LOCK_WRITE_WAIT = "lock.write.wait";
+
+    /** The number of candidates read by each search cursor */
+    public static final String SEARCH_CANDIDATES = "search.candidates";
+
+    /** The number of entries returned by each search cursor */
+    public static final String SEARCH_ENTRIES = "search.entries";
+
+    /** The key used for the interceptors and partitions without a name */
+    private static final String UNKNOWN = "unknown";
+
+    /** Tells if the metrics are recorded */
+    private volatile boolean enabled = true;
+
+    /** The interceptors latencies, per interceptor, indexed by operation */
+    private final ConcurrentMap<String, AtomicReferenceArray<Histogram>> interceptorLatencies = new ConcurrentHashMap<>();
+
+    /** The partitions latencies, per partition, indexed by operation */
+    private final ConcurrentMap<String, AtomicReferenceArray<Histogram>> partitionLatencies = new ConcurrentHashMap<>();
+
+    /** The other histograms */
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /** The counters */
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /** The gauges */
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * @return The current time in nanoseconds, or 0 if the metrics are disabled
+     */
+    public long start()
+    {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+
+    /**
+     * Records the time elapsed since a start time in an interceptor histogram.
+     *
+     * @param interceptor The interceptor name
+     * @param operation The operation
+     * @param start The value returned by {@link #start()}
+     */
+    public void recordInterceptor( String interceptor, OperationEnum operation, long start )
+    {
+        if ( start != 0L )
+        {
+            getHistogram( interceptorLatencies, "interceptor.", interceptor, operation ).record(
+                System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * Records the time elapsed since a start time in a partition histogram.
+     *
+     * @param partitionId The partition ID
+     * @param operation The operation
+     * @param start The value returned by {@link #start()}
+     */
+    public void recordPartition( String partitionId, OperationEnum operation, long start )
+    {
+        if ( start != 0L )
+        {
+            getHistogram( partitionLatencies, "partition.", partitionId, operation ).record(
+                System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * Records the time elapsed since a start time in a histogram.
+     *
+     * @param name The histogram name
+     * @param start The value returned by {@link #start()}
+     */
+    public void recordLatency( String name, long start )
+    {
+        if ( start != 0L )
+        {
+            getHistogram( name ).record( System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * Records a value in a histogram, if the metrics are enabled.
+     *
+     * @param name The histogram name
+     * @param value The value to record
+     */
+    public void record( String name, long value )
+    {
+        if ( enabled )
+        {
+            getHistogram( name ).record( value );
+        }
+    }
+
+
+    /**
+     * Gets a histogram, creating it if needed.
+     *
+     * @param name The histogram name
+     * @return The histogram
+     */
+    public Histogram getHistogram( String name )
+    {
+        Histogram histogram = histograms.get( name );
+
+        if ( histogram == null )
+        {
+            histogram = histograms.computeIfAbsent( name, Histogram::new );
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Gets the latency histogram of an interceptor for an operation, creating it if needed.
+     *
+     * @param interceptor The interceptor name
+     * @param operation The operation
+     * @return The histogram
+     */
+    public Histogram getInterceptorHistogram( String interceptor, OperationEnum operation )
+    {
+        return getHistogram( interceptorLatencies, "interceptor.", interceptor, operation );
+    }
+
+
+    /**
+     * Gets the latency histogram of a partition for an operation, creating it if needed.
+     *
+     * @param partitionId The partition ID
+     * @param operation The operation
+     * @return The histogram
+     */
+    public Histogram getPartitionHistogram( String partitionId, OperationEnum operation )
+    {
+        return getHistogram( partitionLatencies, "partition.", partitionId, operation );
+    }
+
+
+    private Histogram getHistogram( ConcurrentMap<String, AtomicReferenceArray<Histogram>> latencies, String prefix,
+        String name, OperationEnum operation )
+    {
+        String key = name == null ? UNKNOWN : name;
+        AtomicReferenceArray<Histogram> perOperation = latencies.get( key );
+
+        if ( perOperation == null )
+        {
+            perOperation = latencies.computeIfAbsent( key,
+                k -> new AtomicReferenceArray<>( OperationEnum.values().length ) );
+        }
+
+        Histogram histogram = perOperation.get( operation.ordinal() );
+
+        if ( histogram == null )
+        {
+            perOperation.compareAndSet( operation.ordinal(), null,
+                new Histogram( prefix + key + '.' + operation.getMethodName() ) );
+            histogram = perOperation.get( operation.ordinal() );
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Gets a counter, creating it if needed.
+     *
+     * @param name The counter name
+     * @return The counter
+     */
+    public LongAdder getCounter( String name )
+    {
+        LongAdder counter = counters.get( name );
+
+        if ( counter == null )
+        {
+            counter = counters.computeIfAbsent( name, k -> new LongAdder() );
+        }
+
+        return counter;
+    }
+
+
+    /**
+     * Registers a gauge, replacing the one registered with the same name, if any.
+     *
+     * @param name The gauge name
+     * @param gauge The function computing the gauge value
+     */
+    public void registerGauge( String name, Supplier<? extends Number> gauge )
+    {
+        gauges.put( name, gauge );
+    }
+
+
+    /**
+     * Removes a gauge.
+     *
+     * @param name The gauge name
+     */
+    public void unregisterGauge( String name )
+    {
+        gauges.remove( name );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<HistogramSnapshot> getInterceptorLatencies()
+    {
+        return snapshot( interceptorLatencies );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<HistogramSnapshot> getPartitionLatencies()
+    {
+        return snapshot( partitionLatencies );
+    }
+
+
+    private List<HistogramSnapshot> snapshot( Map<String, AtomicReferenceArray<Histogram>> latencies )
+    {
+        List<HistogramSnapshot> snapshots = new ArrayList<>();
+
+        for ( AtomicReferenceArray<Histogram> perOperation : new TreeMap<>( latencies ).values() )
+        {
+            for ( int i = 0; i < perOperation.length(); i++ )
+            {
+                Histogram histogram = perOperation.get( i );
+
+                if ( histogram != null )
+                {
+                    snapshots.add( histogram.snapshot() );
+                }
+            }
+        }
+
+        return snapshots;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<HistogramSnapshot> getHistograms()
+    {
+        List<HistogramSnapshot> snapshots = new ArrayList<>();
+
+        for ( Histogram histogram : new TreeMap<>( histograms ).values() )
+        {
+            snapshots.add( histogram.snapshot() );
+        }
+
+        return snapshots;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCounters()
+    {
+        Map<String, Long> values = new TreeMap<>();
+
+        for ( Map.Entry<String, LongAdder> counter : counters.entrySet() )
+        {
+            values.put( counter.getKey(), counter.getValue().sum() );
+        }
+
+        return values;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getGauges()
+    {
+        Map<String, Double> values = new TreeMap<>();
+
+        for ( Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet() )
+        {
+            Number value = gauge.getValue().get();
+
+            if ( value != null )
+            {
+                values.put( gauge.getKey(), value.doubleValue() );
+            }
+        }
+
+        return values;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset()
+    {
+        reset( interceptorLatencies );
+        reset( partitionLatencies );
+
+        for ( Histogram histogram : histograms.values() )
+        {
+            histogram.reset();
+        }
+
+        for ( LongAdder counter : counters.values() )
+        {
+            counter.reset();
+        }
+    }
+
+
+    private void reset( Map<String, AtomicReferenceArray<Histogram>> latencies )
+    {
+        for ( AtomicReferenceArray<Histogram> perOperation : latencies.values() )
+        {
+            for ( int i = 0; i < perOperation.length(); i++ )
+            {
+                Histogram histogram = perOperation.get( i );
+
+                if ( histogram != null )
+                {
+                    histogram.reset();
+                }
+            }
+        }
+    }
+}
@@ -21,15 +21,12 @@
 package org.apache.directory.server.core.api.sp.java;
 
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.util.MethodUtils;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.sp.StoredProcEngine;
 import org.apache.directory.server.core.api.sp.StoredProcUtils;
@@ -49,47 +46,38 @@ public class JavaStoredProcEngine implements StoredProcEngine
 
     private static final Class<?>[] EMPTY_CLASS_ARRAY = new Class[0];
 
+    /** The registry of already loaded stored procedure units, shared by all the engines */
+    private static final JavaStoredProcRegistry REGISTRY = new JavaStoredProcRegistry();
+
     /* (non-Javadoc)
      * @see org.apache.directory.server.core.sp.StoredProcEngine#invokeProcedure(OperationContext, String, Object[])
      */
     @Override
     public Object invokeProcedure( CoreSession session, String fullSPName, Object[] spArgs ) throws LdapException
     {
-        Attribute javaByteCode = spUnit.get( "javaByteCode" );
         String spName = StoredProcUtils.extractStoredProcName( fullSPName );
         String className = StoredProcUtils.extractStoredProcUnitName( fullSPName );
+        Class<?>[] types = getTypesFromValues( spArgs );
 
-        ClassLoader loader = new LdapJavaStoredProcClassLoader( javaByteCode );
-        Class<?> clazz;
+        MethodHandle proc = REGISTRY.getProcedure( spUnit, className, spName, types );
 
         try
         {
-            clazz = loader.loadClass( className );
+            return ( Object ) proc.invokeExact( spArgs );
         }
-        catch ( ClassNotFoundException e )
+        catch ( Throwable t )
         {
-            throw new LdapException( e );
+            throw new LdapException( t );
         }
+    }
 
-        Class<?>[] types = getTypesFromValues( spArgs );
 
-        Method proc;
-        try
-        {
-            proc = MethodUtils.getAssignmentCompatibleMethod( clazz, spName, types );
-        }
-        catch ( NoSuchMethodException e )
-        {
-            throw new LdapException( e );
-        }
-        try
-        {
-            return proc.invoke( null, spArgs );
-        }
-        catch ( IllegalArgumentException | IllegalAccessException | InvocationTargetException e )
-        {
-            throw new LdapException( e );
-        }
+    /**
+     * @return The registry shared by all the Java stored procedure engines
+     */
+    public static JavaStoredProcRegistry getRegistry()
+    {
+        return REGISTRY;
     }
 
 
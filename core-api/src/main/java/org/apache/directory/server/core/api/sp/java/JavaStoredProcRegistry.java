@@ -0,0 +1,337 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.core.api.sp.java;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.MethodUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A registry of the Java stored procedure units already loaded by the server. For each
+ * unit entry, we keep the class defined from its <em>javaByteCode</em> attribute, and a
+ * {@link MethodHandle} per procedure name and argument types, so that invoking a stored
+ * procedure does not require a new class definition nor a reflective method lookup.
+ * <br>
+ * A cached unit is considered stale as soon as the entry it has been built from changes
+ * (its <em>entryCSN</em> or its byte code differs), in which case it is redefined. Units
+ * can also be explicitly evicted using {@link #invalidate(Dn)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JavaStoredProcRegistry
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JavaStoredProcRegistry.class );
+
+    /** The default number of units kept in the registry */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** The generic type of the handles we store : ( Object[] ) -> Object */
+    private static final MethodType GENERIC_TYPE = MethodType.methodType( Object.class, Object[].class );
+
+    /** The loaded units, per normalized unit Dn */
+    private final Cache<String, CompiledUnit> units;
+
+
+    /**
+     * Creates a new instance of JavaStoredProcRegistry, with a default size
+     */
+    public JavaStoredProcRegistry()
+    {
+        this( DEFAULT_CACHE_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of JavaStoredProcRegistry.
+     *
+     * @param cacheSize The maximum number of stored procedure units to keep
+     */
+    public JavaStoredProcRegistry( int cacheSize )
+    {
+        units = Caffeine.newBuilder().maximumSize( cacheSize ).build();
+    }
+
+
+    /**
+     * Gets a handle on the stored procedure defined in the given unit. The returned handle
+     * takes the procedure arguments as an Object array, and returns an Object (or null if
+     * the procedure returns void).
+     *
+     * @param spUnit The entry containing the stored procedure unit
+     * @param className The name of the class defined by the unit
+     * @param spName The stored procedure name
+     * @param types The types of the arguments the procedure will be called with
+     * @return A handle on the stored procedure
+     * @throws LdapException If the class can't be defined, or if the procedure does not exist
+     */
+    public MethodHandle getProcedure( Entry spUnit, String className, String spName, Class<?>[] types )
+        throws LdapException
+    {
+        CompiledUnit unit = getUnit( spUnit, className );
+        MethodKey key = new MethodKey( spName, types );
+        MethodHandle handle = unit.procedures.get( key );
+
+        if ( handle == null )
+        {
+            handle = unit.resolve( spName, types );
+            MethodHandle previous = unit.procedures.putIfAbsent( key, handle );
+
+            if ( previous != null )
+            {
+                handle = previous;
+            }
+        }
+
+        return handle;
+    }
+
+
+    /**
+     * Removes a stored procedure unit from the registry.
+     *
+     * @param unitDn The stored procedure unit Dn
+     */
+    public void invalidate( Dn unitDn )
+    {
+        if ( unitDn != null )
+        {
+            units.invalidate( unitDn.getNormName() );
+        }
+    }
+
+
+    /**
+     * Removes all the stored procedure units from the registry.
+     */
+    public void clear()
+    {
+        units.invalidateAll();
+    }
+
+
+    /**
+     * @return The number of stored procedure units currently loaded
+     */
+    public long size()
+    {
+        units.cleanUp();
+
+        return units.estimatedSize();
+    }
+
+
+    /**
+     * Gets the unit from the cache, or (re)define it if it's absent or stale
+     */
+    private CompiledUnit getUnit( Entry spUnit, String className ) throws LdapException
+    {
+        String key = spUnit.getDn().getNormName();
+        String csn = getCsn( spUnit );
+        Attribute javaByteCode = spUnit.get( "javaByteCode" );
+
+        if ( javaByteCode == null )
+        {
+            throw new LdapException( new ClassNotFoundException( className ) );
+        }
+
+        byte[] byteCode = javaByteCode.getBytes();
+        CompiledUnit unit = units.getIfPresent( key );
+
+        if ( ( unit != null ) && unit.isValid( className, csn, byteCode ) )
+        {
+            return unit;
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Defining stored procedure class {} from unit {}", className, key );
+        }
+
+        ClassLoader loader = new LdapJavaStoredProcClassLoader( javaByteCode );
+        Class<?> clazz;
+
+        try
+        {
+            clazz = loader.loadClass( className );
+        }
+        catch ( ClassNotFoundException | LinkageError e )
+        {
+            throw new LdapException( e );
+        }
+
+        unit = new CompiledUnit( className, csn, byteCode, clazz );
+        units.put( key, unit );
+
+        return unit;
+    }
+
+
+    private String getCsn( Entry spUnit ) throws LdapException
+    {
+        Attribute entryCsn = spUnit.get( SchemaConstants.ENTRY_CSN_AT );
+
+        if ( entryCsn == null )
+        {
+            return null;
+        }
+
+        return entryCsn.getString();
+    }
+
+
+    /**
+     * A defined stored procedure unit, with the procedures already resolved
+     */
+    private static final class CompiledUnit
+    {
+        private final String className;
+        private final String csn;
+        private final byte[] byteCode;
+        private final Class<?> clazz;
+        private final ConcurrentMap<MethodKey, MethodHandle> procedures = new ConcurrentHashMap<>();
+
+
+        private CompiledUnit( String className, String csn, byte[] byteCode, Class<?> clazz )
+        {
+            this.className = className;
+            this.csn = csn;
+            this.byteCode = byteCode;
+            this.clazz = clazz;
+        }
+
+
+        /**
+         * Tells if this unit has been defined from the current version of the unit entry.
+         * The entryCSN is checked first, the byte code is only compared when we can't
+         * rely on the CSN.
+         */
+        private boolean isValid( String className, String csn, byte[] byteCode )
+        {
+            if ( !this.className.equals( className ) )
+            {
+                return false;
+            }
+
+            if ( ( csn != null ) && ( this.csn != null ) )
+            {
+                return csn.equals( this.csn );
+            }
+
+            return Arrays.equals( this.byteCode, byteCode );
+        }
+
+
+        private MethodHandle resolve( String spName, Class<?>[] types ) throws LdapException
+        {
+            Method proc;
+
+            try
+            {
+                proc = MethodUtils.getAssignmentCompatibleMethod( clazz, spName, types );
+            }
+            catch ( NoSuchMethodException e )
+            {
+                throw new LdapException( e );
+            }
+
+            if ( !Modifier.isStatic( proc.getModifiers() ) )
+            {
+                throw new LdapException( new NoSuchMethodException( clazz.getName() + "." + spName ) );
+            }
+
+            try
+            {
+                return MethodHandles.lookup().unreflect( proc )
+                    .asSpreader( Object[].class, proc.getParameterCount() )
+                    .asType( GENERIC_TYPE );
+            }
+            catch ( IllegalAccessException e )
+            {
+                throw new LdapException( e );
+            }
+        }
+    }
+
+
+    /**
+     * The key used to store a procedure handle : its name and its arguments types
+     */
+    private static final class MethodKey
+    {
+        private final String name;
+        private final Class<?>[] types;
+        private final int hash;
+
+
+        private MethodKey( String name, Class<?>[] types )
+        {
+            this.name = name;
+            this.types = types;
+            this.hash = name.hashCode() * 31 + Arrays.hashCode( types );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof MethodKey ) )
+            {
+                return false;
+            }
+
+            MethodKey that = ( MethodKey ) obj;
+
+            return name.equals( that.name ) && Arrays.equals( types, that.types );
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.tree;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * A tree of elements stored by Dn, for read-mostly structures like the referrals, the
+ * partitions or the administrative points.<br>
+ * The tree is persistent : the nodes are never modified once they have been published.
+ * A writer copies the nodes on the path from the root to the modified node, and replaces
+ * the root at once, so that the readers never lock, and always see a consistent version of
+ * the tree. The writers are serialized.
+ *
+ * @param <N> The type of the stored elements
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CopyOnWriteDnTree<N>
+{
+    /** The current version of the tree */
+    private volatile Node<N> root = new Node<>( null, Collections.<String, Node<N>> emptyMap() );
+
+
+    /**
+     * A node of the tree. It's immutable.
+     */
+    private static final class Node<N>
+    {
+        /** The element stored on this node, if any */
+        private final N element;
+
+        /** The children, by normalized Rdn */
+        private final Map<String, Node<N>> children;
+
+
+        private Node( N element, Map<String, Node<N>> children )
+        {
+            this.element = element;
+            this.children = children;
+        }
+
+
+        private boolean isEmpty()
+        {
+            return ( element == null ) && children.isEmpty();
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CopyOnWriteDnTree.
+     */
+    public CopyOnWriteDnTree()
+    {
+    }
+
+
+    /**
+     * Get the node associated with a Dn in a given version of the tree.
+     *
+     * @param node The root of the tree
+     * @param dn The Dn
+     * @return The node, or null if the tree has no such node
+     */
+    private static <N> Node<N> getNode( Node<N> node, Dn dn )
+    {
+        Node<N> current = node;
+
+        for ( int i = dn.size() - 1; i >= 0; i-- )
+        {
+            current = current.children.get( dn.getRdn( i ).getNormName() );
+
+            if ( current == null )
+            {
+                return null;
+            }
+        }
+
+        return current;
+    }
+
+
+    /**
+     * Get the element stored with the given Dn.
+     *
+     * @param dn The element's Dn
+     * @return The element, or null if there is no element for this Dn
+     */
+    public N getElement( Dn dn )
+    {
+        Node<N> node = getNode( root, dn );
+
+        if ( node == null )
+        {
+            return null;
+        }
+
+        return node.element;
+    }
+
+
+    /**
+     * Get the element stored with the given Dn, or the closest of its ancestors.
+     *
+     * @param dn The Dn
+     * @return The element of the Dn or of its closest ancestor having one, or null if there is none
+     */
+    public N getParentElement( Dn dn )
+    {
+        Node<N> current = root;
+        N parent = current.element;
+
+        for ( int i = dn.size() - 1; i >= 0; i-- )
+        {
+            current = current.children.get( dn.getRdn( i ).getNormName() );
+
+            if ( current == null )
+            {
+                break;
+            }
+
+            if ( current.element != null )
+            {
+                parent = current.element;
+            }
+        }
+
+        return parent;
+    }
+
+
+    /**
+     * Tells if an element is stored with the given Dn, or with one of its ancestors.
+     *
+     * @param dn The Dn
+     * @return <tt>true</tt> if the Dn or one of its ancestors has an element
+     */
+    public boolean hasParentElement( Dn dn )
+    {
+        return getParentElement( dn ) != null;
+    }
+
+
+    /**
+     * Get the closest elements stored below the given Dn : the elements
+     * stored below another element are not returned.
+     *
+     * @param dn The Dn
+     * @return The closest descendant elements, or an empty list
+     */
+    public List<N> getDescendantElements( Dn dn )
+    {
+        List<N> descendants = new ArrayList<>();
+        Node<N> node = getNode( root, dn );
+
+        if ( node != null )
+        {
+            for ( Node<N> child : node.children.values() )
+            {
+                getDescendantElements( child, descendants );
+            }
+        }
+
+        return descendants;
+    }
+
+
+    private static <N> void getDescendantElements( Node<N> node, List<N> descendants )
+    {
+        if ( node.element != null )
+        {
+            descendants.add( node.element );
+
+            return;
+        }
+
+        for ( Node<N> child : node.children.values() )
+        {
+            getDescendantElements( child, descendants );
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the tree has no element
+     */
+    public boolean isEmpty()
+    {
+        return root.isEmpty();
+    }
+
+
+    /**
+     * Store an element with the given Dn. There must not be any element already
+     * stored with this Dn.
+     *
+     * @param dn The element's Dn
+     * @param element The element to store
+     * @throws LdapUnwillingToPerformException If there is already an element for this Dn
+     */
+    public synchronized void add( Dn dn, N element ) throws LdapUnwillingToPerformException
+    {
+        if ( element == null )
+        {
+            throw new IllegalArgumentException( "Cannot store a null element for " + dn );
+        }
+
+        if ( getElement( dn ) != null )
+        {
+            throw new LdapUnwillingToPerformException( I18n.err( I18n.ERR_02128_ELEMENT_ALREADY_STORED, dn ) );
+        }
+
+        root = add( root, dn, dn.size() - 1, element );
+    }
+
+
+    /**
+     * Copy the nodes on the path to the added element.
+     */
+    private static <N> Node<N> add( Node<N> node, Dn dn, int pos, N element )
+    {
+        if ( pos < 0 )
+        {
+            return new Node<>( element, node.children );
+        }
+
+        String rdn = dn.getRdn( pos ).getNormName();
+        Node<N> child = node.children.get( rdn );
+
+        if ( child == null )
+        {
+            child = new Node<>( null, Collections.<String, Node<N>> emptyMap() );
+        }
+
+        Map<String, Node<N>> children = new HashMap<>( node.children );
+        children.put( rdn, add( child, dn, pos - 1, element ) );
+
+        return new Node<>( node.element, children );
+    }
+
+
+    /**
+     * Remove the element stored with the given Dn. The nodes left with no element
+     * and no children are removed too.
+     *
+     * @param dn The element's Dn
+     * @return The removed element, or null if there is no element for this Dn
+     */
+    public synchronized N remove( Dn dn )
+    {
+        N previous = getElement( dn );
+
+        if ( previous != null )
+        {
+            Node<N> newRoot = remove( root, dn, dn.size() - 1 );
+
+            if ( newRoot == null )
+            {
+                newRoot = new Node<>( null, Collections.<String, Node<N>> emptyMap() );
+            }
+
+            root = newRoot;
+        }
+
+        return previous;
+    }
+
+
+    /**
+     * Copy the nodes on the path to the removed element.
+     *
+     * @return The new node, or null if it's empty
+     */
+    private static <N> Node<N> remove( Node<N> node, Dn dn, int pos )
+    {
+        Node<N> newNode;
+
+        if ( pos < 0 )
+        {
+            newNode = new Node<>( null, node.children );
+        }
+        else
+        {
+            String rdn = dn.getRdn( pos ).getNormName();
+            Node<N> newChild = remove( node.children.get( rdn ), dn, pos - 1 );
+            Map<String, Node<N>> children = new HashMap<>( node.children );
+
+            if ( newChild == null )
+            {
+                children.remove( rdn );
+            }
+            else
+            {
+                children.put( rdn, newChild );
+            }
+
+            newNode = new Node<>( node.element, children );
+        }
+
+        if ( newNode.isEmpty() )
+        {
+            return null;
+        }
+
+        return newNode;
+    }
+
+
+    /**
+     * Remove all the elements.
+     */
+    public synchronized void clear()
+    {
+        root = new Node<>( null, Collections.<String, Node<N>> emptyMap() );
+    }
+}
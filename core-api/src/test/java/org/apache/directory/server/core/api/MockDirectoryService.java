@@ -35,21 +35,23 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.api.util.TimeProvider;
 import org.apache.directory.server.core.api.administrative.AccessControlAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.authn.PasswordHashExecutor;
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
 import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 
 
 /**
@@ -415,6 +417,24 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public PasswordHashExecutor getPasswordHashExecutor()
+    {
+        // Not initialized : the passwords are hashed in the calling thread
+        return new PasswordHashExecutor();
+    }
+
+
+    public void setPasswordHashExecutor( PasswordHashExecutor passwordHashExecutor )
+    {
+    }
+
+
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return new MetricsRegistry();
+    }
+
+
     public boolean isPasswordHidden()
     {
         return false;
@@ -480,7 +500,7 @@ public class MockDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<AccessControlAdministrativePoint> getAccessControlAPCache()
+    public CopyOnWriteDnTree<AccessControlAdministrativePoint> getAccessControlAPCache()
     {
         return null;
     }
@@ -489,7 +509,7 @@ public class MockDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<CollectiveAttributeAdministrativePoint> getCollectiveAttributeAPCache()
+    public CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> getCollectiveAttributeAPCache()
     {
         return null;
     }
@@ -498,7 +518,7 @@ public class MockDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<SubschemaAdministrativePoint> getSubschemaAPCache()
+    public CopyOnWriteDnTree<SubschemaAdministrativePoint> getSubschemaAPCache()
     {
         return null;
     }
@@ -507,7 +527,7 @@ public class MockDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<TriggerExecutionAdministrativePoint> getTriggerExecutionAPCache()
+    public CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> getTriggerExecutionAPCache()
     {
         return null;
     }
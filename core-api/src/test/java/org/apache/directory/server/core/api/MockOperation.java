@@ -33,6 +33,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ReferralHandlingMode;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.EntryReadSet;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -271,4 +272,18 @@ public class MockOperation implements OperationContext
     {
         this.partition = partition;
     }
+
+
+    @Override
+    public EntryReadSet getReadSet()
+    {
+        return null;
+    }
+
+
+    @Override
+    public void setReadSet( EntryReadSet readSet )
+    {
+        // Nothing to do
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.authn;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.util.Strings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the PasswordHashExecutor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class PasswordHashExecutorTest
+{
+    @Test
+    public void testFindMatchingPassword() throws Exception
+    {
+        PasswordHashExecutor executor = new PasswordHashExecutor();
+        executor.init();
+
+        try
+        {
+            byte[] secret = Strings.getBytesUtf8( "secret" );
+            byte[] hashed = executor.createStoragePassword( secret, LdapSecurityConstants.HASH_METHOD_SSHA256 );
+
+            assertNotEquals( "secret", Strings.utf8ToString( hashed ) );
+            assertEquals( 1, executor.findMatchingPassword( secret, Strings.getBytesUtf8( "other" ), hashed ) );
+            assertEquals( -1, executor.findMatchingPassword( Strings.getBytesUtf8( "wrong" ), hashed ) );
+            assertEquals( -1, executor.findMatchingPassword( secret ) );
+            assertEquals( 3, executor.getSubmittedCount() );
+        }
+        finally
+        {
+            executor.destroy();
+        }
+    }
+
+
+    @Test
+    public void testInlineWhenNotStarted() throws Exception
+    {
+        PasswordHashExecutor executor = new PasswordHashExecutor();
+
+        assertSame( Thread.currentThread(), executor.execute( Thread::currentThread ) );
+        assertEquals( 0, executor.getSubmittedCount() );
+    }
+
+
+    @Test
+    public void testBusyWhenQueueIsFull() throws Exception
+    {
+        PasswordHashExecutor executor = new PasswordHashExecutor();
+        executor.setNbThreads( 1 );
+        executor.setQueueSize( 1 );
+        executor.init();
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        try
+        {
+            // Occupy the single thread, then fill the queue
+            Thread first = new Thread( () ->
+            {
+                try
+                {
+                    executor.execute( () ->
+                    {
+                        started.countDown();
+                        return release.await( 10, TimeUnit.SECONDS );
+                    } );
+                }
+                catch ( LdapException le )
+                {
+                    // Nothing to do
+                }
+            } );
+            first.start();
+            assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+
+            Thread second = new Thread( () ->
+            {
+                try
+                {
+                    executor.execute( () -> Boolean.TRUE );
+                }
+                catch ( LdapException le )
+                {
+                    // Nothing to do
+                }
+            } );
+            second.start();
+
+            while ( executor.getQueuedCount() == 0 )
+            {
+                Thread.sleep( 10 );
+            }
+
+            // No room left : the task is refused, it's not run by the caller
+            LdapServiceUnavailableException busy = assertThrows( LdapServiceUnavailableException.class,
+                () -> executor.execute( Thread::currentThread ) );
+            assertEquals( ResultCodeEnum.BUSY, busy.getResultCode() );
+            assertEquals( 1, executor.getRejectedCount() );
+
+            release.countDown();
+            first.join();
+            second.join();
+        }
+        finally
+        {
+            release.countDown();
+            executor.destroy();
+        }
+    }
+
+
+    @Test
+    public void testLdapExceptionIsPropagated()
+    {
+        PasswordHashExecutor executor = new PasswordHashExecutor();
+        executor.init();
+
+        try
+        {
+            assertThrows( LdapNoSuchObjectException.class, () -> executor.execute( () ->
+            {
+                throw new LdapNoSuchObjectException( "missing" );
+            } ) );
+        }
+        finally
+        {
+            executor.destroy();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.interceptor.context;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Unit tests class EntryReadSet.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class EntryReadSetTest
+{
+    @Test
+    public void testGetReturnsACopy() throws Exception
+    {
+        EntryReadSet readSet = new EntryReadSet();
+        Dn dn = new Dn( "dc=example,dc=com" );
+        Entry entry = new DefaultEntry( dn, "dc: example" );
+
+        readSet.put( dn, entry, 0L );
+
+        // Modifying the stored entry or a returned copy has no effect on the set
+        entry.add( "description", "modified" );
+        Entry copy = readSet.get( dn, 0L );
+        assertNotNull( copy );
+        assertNotSame( entry, copy );
+        assertFalse( copy.containsAttribute( "description" ) );
+
+        copy.add( "description", "modified" );
+        assertFalse( readSet.get( dn, 0L ).containsAttribute( "description" ) );
+        assertTrue( readSet.contains( dn, 0L ) );
+    }
+
+
+    @Test
+    public void testWriteDiscardsTheEntries() throws Exception
+    {
+        EntryReadSet readSet = new EntryReadSet();
+        Dn dn = new Dn( "dc=example,dc=com" );
+
+        readSet.put( dn, new DefaultEntry( dn, "dc: example" ), 0L );
+        assertEquals( 1, readSet.size() );
+
+        // A write has been applied since the entry was read
+        assertNull( readSet.get( dn, 2L ) );
+        assertFalse( readSet.contains( dn, 2L ) );
+        assertEquals( 0, readSet.size() );
+
+        // An entry read before the last write is not stored
+        readSet.put( dn, new DefaultEntry( dn, "dc: example" ), 0L );
+        assertEquals( 0, readSet.size() );
+
+        readSet.put( dn, new DefaultEntry( dn, "dc: example" ), 2L );
+        assertNotNull( readSet.get( dn, 2L ) );
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Unit tests class Histogram.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class HistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        // The small values have their own bucket
+        for ( long value = 0L; value < 8L; value++ )
+        {
+            assertEquals( value, Histogram.bucketIndex( value ) );
+            assertEquals( value, Histogram.bucketUpperBound( ( int ) value ) );
+        }
+
+        // A value is never above the upper bound of its bucket, and always above the previous one
+        for ( long value = 8L; value < 1L << 20; value += 7L )
+        {
+            int index = Histogram.bucketIndex( value );
+
+            assertTrue( value <= Histogram.bucketUpperBound( index ) );
+            assertTrue( value > Histogram.bucketUpperBound( index - 1 ) );
+        }
+
+        // The buckets are at most 1/8th wide
+        int index = Histogram.bucketIndex( 1_000_000L );
+        assertTrue( Histogram.bucketUpperBound( index ) - Histogram.bucketUpperBound( index - 1 ) <= 1_000_000L / 8L );
+
+        // The huge values are counted in the last bucket
+        assertEquals( Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex( Long.MAX_VALUE ) );
+    }
+
+
+    @Test
+    public void testSnapshot()
+    {
+        Histogram histogram = new Histogram( "test" );
+
+        for ( long value = 1L; value <= 1000L; value++ )
+        {
+            histogram.record( value );
+        }
+
+        histogram.record( -5L );
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals( "test", snapshot.getName() );
+        assertEquals( 1001L, snapshot.getCount() );
+        assertEquals( 500500L, snapshot.getTotal() );
+        assertEquals( 1000L, snapshot.getMax() );
+        assertEquals( 500L, snapshot.getMean(), 1.0d );
+
+        // The percentiles are rounded up to the bucket bound, at most 1/8th above
+        assertTrue( snapshot.getMedian() >= 500L && snapshot.getMedian() <= 500L + 500L / 8L );
+        assertTrue( snapshot.getPercentile90() >= 900L && snapshot.getPercentile90() <= 900L + 900L / 8L );
+        assertTrue( snapshot.getPercentile99() >= 990L && snapshot.getPercentile99() <= 1000L );
+        assertEquals( 1000L, snapshot.getPercentile( 100.0d ) );
+    }
+
+
+    @Test
+    public void testReset()
+    {
+        Histogram histogram = new Histogram( "test" );
+        histogram.record( 42L );
+        histogram.reset();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getTotal() );
+        assertEquals( 0L, histogram.getMax() );
+        assertEquals( 0L, histogram.getPercentile( 50.0d ) );
+    }
+}
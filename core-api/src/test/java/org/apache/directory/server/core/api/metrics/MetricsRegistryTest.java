@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Unit tests class MetricsRegistry.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class MetricsRegistryTest
+{
+    @Test
+    public void testLatencies()
+    {
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        metrics.recordInterceptor( "normalizationInterceptor", OperationEnum.SEARCH, metrics.start() );
+        metrics.recordInterceptor( "normalizationInterceptor", OperationEnum.SEARCH, metrics.start() );
+        metrics.recordInterceptor( null, OperationEnum.ADD, metrics.start() );
+        metrics.recordPartition( "example", OperationEnum.LOOKUP, metrics.start() );
+
+        Histogram search = metrics.getInterceptorHistogram( "normalizationInterceptor", OperationEnum.SEARCH );
+        assertSame( search, metrics.getInterceptorHistogram( "normalizationInterceptor", OperationEnum.SEARCH ) );
+        assertEquals( "interceptor.normalizationInterceptor.search", search.getName() );
+        assertEquals( 2L, search.getCount() );
+        assertEquals( 1L, metrics.getInterceptorHistogram( null, OperationEnum.ADD ).getCount() );
+
+        List<HistogramSnapshot> interceptors = metrics.getInterceptorLatencies();
+        assertEquals( 2, interceptors.size() );
+
+        List<HistogramSnapshot> partitions = metrics.getPartitionLatencies();
+        assertEquals( 1, partitions.size() );
+        assertEquals( "partition.example.lookup", partitions.get( 0 ).getName() );
+        assertEquals( 1L, partitions.get( 0 ).getCount() );
+    }
+
+
+    @Test
+    public void testDisabled()
+    {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.setEnabled( false );
+
+        long start = metrics.start();
+        assertEquals( 0L, start );
+
+        metrics.recordInterceptor( "normalizationInterceptor", OperationEnum.SEARCH, start );
+        metrics.recordLatency( MetricsRegistry.LOCK_READ_WAIT, start );
+        metrics.record( MetricsRegistry.SEARCH_ENTRIES, 10L );
+
+        assertTrue( metrics.getInterceptorLatencies().isEmpty() );
+        assertTrue( metrics.getHistograms().isEmpty() );
+    }
+
+
+    @Test
+    public void testCountersAndGauges()
+    {
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        metrics.getCounter( "binds" ).increment();
+        metrics.getCounter( "binds" ).add( 2L );
+        metrics.registerGauge( "rate", () -> 0.5d );
+
+        assertEquals( Long.valueOf( 3L ), metrics.getCounters().get( "binds" ) );
+        assertEquals( Double.valueOf( 0.5d ), metrics.getGauges().get( "rate" ) );
+
+        metrics.unregisterGauge( "rate" );
+        assertNull( metrics.getGauges().get( "rate" ) );
+
+        metrics.record( MetricsRegistry.SEARCH_ENTRIES, 10L );
+        metrics.reset();
+
+        assertEquals( Long.valueOf( 0L ), metrics.getCounters().get( "binds" ) );
+        assertEquals( 0L, metrics.getHistogram( MetricsRegistry.SEARCH_ENTRIES ).getCount() );
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.core.api.sp.java;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests for the {@link JavaStoredProcRegistry} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JavaStoredProcRegistryTest
+{
+    private static final String UNIT_DN = "storedProcUnitName=HelloWorldProcedure,ou=Stored Procedures,ou=system";
+    private static final Class<?>[] STRING_TYPE = new Class<?>[]
+        { String.class };
+
+    private JavaStoredProcRegistry registry;
+    private byte[] byteCode;
+
+
+    /**
+     * A stored procedure unit
+     */
+    public static class HelloWorldProcedure
+    {
+        public static String sayHello( String name )
+        {
+            return "Hello, " + name + "!";
+        }
+    }
+
+
+    @BeforeEach
+    public void init() throws IOException
+    {
+        registry = new JavaStoredProcRegistry();
+
+        String resource = "/" + HelloWorldProcedure.class.getName().replace( '.', '/' ) + ".class";
+
+        try ( InputStream in = HelloWorldProcedure.class.getResourceAsStream( resource );
+            ByteArrayOutputStream out = new ByteArrayOutputStream() )
+        {
+            byte[] buffer = new byte[4096];
+            int nbRead;
+
+            while ( ( nbRead = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, nbRead );
+            }
+
+            byteCode = out.toByteArray();
+        }
+    }
+
+
+    private Entry createUnit( String csn ) throws LdapException
+    {
+        Entry spUnit = new DefaultEntry( UNIT_DN );
+        spUnit.add( "javaByteCode", byteCode );
+        spUnit.add( "entryCSN", csn );
+
+        return spUnit;
+    }
+
+
+    @Test
+    public void testProcedureIsCached() throws Throwable
+    {
+        Entry spUnit = createUnit( "20260101000000.000000Z#000000#000#000000" );
+        String className = HelloWorldProcedure.class.getName();
+
+        MethodHandle handle = registry.getProcedure( spUnit, className, "sayHello", STRING_TYPE );
+
+        assertEquals( "Hello, world!", ( Object ) handle.invokeExact( new Object[]
+            { "world" } ) );
+        assertSame( handle, registry.getProcedure( spUnit, className, "sayHello", STRING_TYPE ) );
+        assertEquals( 1L, registry.size() );
+    }
+
+
+    @Test
+    public void testModifiedUnitIsReloaded() throws Throwable
+    {
+        String className = HelloWorldProcedure.class.getName();
+
+        MethodHandle handle = registry.getProcedure( createUnit( "20260101000000.000000Z#000000#000#000000" ),
+            className, "sayHello", STRING_TYPE );
+        MethodHandle newHandle = registry.getProcedure( createUnit( "20260101000001.000000Z#000000#000#000000" ),
+            className, "sayHello", STRING_TYPE );
+
+        assertNotSame( handle, newHandle );
+        assertEquals( 1L, registry.size() );
+    }
+
+
+    @Test
+    public void testInvalidate() throws Throwable
+    {
+        Entry spUnit = createUnit( "20260101000000.000000Z#000000#000#000000" );
+        String className = HelloWorldProcedure.class.getName();
+
+        MethodHandle handle = registry.getProcedure( spUnit, className, "sayHello", STRING_TYPE );
+        registry.invalidate( new Dn( UNIT_DN ) );
+
+        assertEquals( 0L, registry.size() );
+        assertNotSame( handle, registry.getProcedure( spUnit, className, "sayHello", STRING_TYPE ) );
+    }
+
+
+    @Test
+    public void testUnknownProcedure() throws Throwable
+    {
+        Entry spUnit = createUnit( "20260101000000.000000Z#000000#000#000000" );
+
+        assertThrows( LdapException.class, () -> registry.getProcedure( spUnit, HelloWorldProcedure.class.getName(),
+            "sayGoodbye", STRING_TYPE ) );
+    }
+}
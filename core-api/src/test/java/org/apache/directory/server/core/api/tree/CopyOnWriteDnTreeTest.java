@@ -0,0 +1,170 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.tree;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Unit tests class CopyOnWriteDnTree.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class CopyOnWriteDnTreeTest
+{
+    @Test
+    public void testAddAndGet() throws Exception
+    {
+        CopyOnWriteDnTree<String> tree = new CopyOnWriteDnTree<>();
+        assertTrue( tree.isEmpty() );
+
+        tree.add( new Dn( "dc=example,dc=com" ), "example" );
+        tree.add( new Dn( "ou=people,dc=example,dc=com" ), "people" );
+
+        assertFalse( tree.isEmpty() );
+        assertEquals( "example", tree.getElement( new Dn( "dc=example,dc=com" ) ) );
+        assertEquals( "people", tree.getElement( new Dn( "ou=people,dc=example,dc=com" ) ) );
+
+        // No element on the intermediate nodes, nor below the elements
+        assertNull( tree.getElement( new Dn( "dc=com" ) ) );
+        assertNull( tree.getElement( new Dn( "cn=test,ou=people,dc=example,dc=com" ) ) );
+
+        // The closest ancestor having an element
+        assertEquals( "people", tree.getParentElement( new Dn( "cn=test,ou=people,dc=example,dc=com" ) ) );
+        assertEquals( "example", tree.getParentElement( new Dn( "ou=groups,dc=example,dc=com" ) ) );
+        assertEquals( "example", tree.getParentElement( new Dn( "dc=example,dc=com" ) ) );
+        assertNull( tree.getParentElement( new Dn( "dc=com" ) ) );
+        assertNull( tree.getParentElement( new Dn( "dc=test,dc=org" ) ) );
+        assertTrue( tree.hasParentElement( new Dn( "cn=test,ou=people,dc=example,dc=com" ) ) );
+        assertFalse( tree.hasParentElement( new Dn( "dc=test,dc=org" ) ) );
+
+        // An element can't be replaced
+        assertThrows( LdapUnwillingToPerformException.class,
+            () -> tree.add( new Dn( "dc=example,dc=com" ), "example2" ) );
+        assertEquals( "example", tree.getElement( new Dn( "dc=example,dc=com" ) ) );
+        assertEquals( "people", tree.getElement( new Dn( "ou=people,dc=example,dc=com" ) ) );
+    }
+
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        CopyOnWriteDnTree<String> tree = new CopyOnWriteDnTree<>();
+        tree.add( new Dn( "dc=example,dc=com" ), "example" );
+        tree.add( new Dn( "ou=people,dc=example,dc=com" ), "people" );
+
+        assertNull( tree.remove( new Dn( "ou=groups,dc=example,dc=com" ) ) );
+        assertEquals( "example", tree.remove( new Dn( "dc=example,dc=com" ) ) );
+        assertNull( tree.getElement( new Dn( "dc=example,dc=com" ) ) );
+        assertEquals( "people", tree.getParentElement( new Dn( "cn=test,ou=people,dc=example,dc=com" ) ) );
+        assertNull( tree.getParentElement( new Dn( "ou=groups,dc=example,dc=com" ) ) );
+
+        assertEquals( "people", tree.remove( new Dn( "ou=people,dc=example,dc=com" ) ) );
+        assertTrue( tree.isEmpty() );
+    }
+
+
+    @Test
+    public void testGetDescendantElements() throws Exception
+    {
+        CopyOnWriteDnTree<String> tree = new CopyOnWriteDnTree<>();
+        tree.add( new Dn( "dc=example,dc=com" ), "example" );
+        tree.add( new Dn( "ou=people,dc=example,dc=com" ), "people" );
+        tree.add( new Dn( "cn=test,ou=people,dc=example,dc=com" ), "test" );
+        tree.add( new Dn( "cn=admins,ou=a,ou=groups,dc=example,dc=com" ), "admins" );
+
+        List<String> descendants = new ArrayList<>( tree.getDescendantElements( new Dn( "dc=example,dc=com" ) ) );
+        Collections.sort( descendants );
+
+        // The elements below another element are not returned
+        assertEquals( 2, descendants.size() );
+        assertEquals( "admins", descendants.get( 0 ) );
+        assertEquals( "people", descendants.get( 1 ) );
+
+        assertTrue( tree.getDescendantElements( new Dn( "dc=test,dc=org" ) ).isEmpty() );
+    }
+
+
+    @Test
+    public void testReadersSeeConsistentVersions() throws Exception
+    {
+        CopyOnWriteDnTree<String> tree = new CopyOnWriteDnTree<>();
+        Dn parentDn = new Dn( "dc=example,dc=com" );
+        tree.add( parentDn, "example" );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        List<Future<Boolean>> readers = new ArrayList<>();
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            readers.add( executor.submit( () ->
+            {
+                Dn dn = new Dn( "cn=test,ou=people,dc=example,dc=com" );
+
+                for ( int j = 0; j < 100000; j++ )
+                {
+                    String element = tree.getParentElement( dn );
+
+                    if ( !"example".equals( element ) && !"people".equals( element ) )
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+            } ) );
+        }
+
+        Dn peopleDn = new Dn( "ou=people,dc=example,dc=com" );
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            tree.add( peopleDn, "people" );
+            tree.remove( peopleDn );
+        }
+
+        for ( Future<Boolean> reader : readers )
+        {
+            assertTrue( reader.get() );
+        }
+
+        executor.shutdown();
+        assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+    }
+}
@@ -229,7 +229,7 @@ public class AvlTreeCursor<E> extends AbstractCursor<E>
 
             case ON_NODE:
             case AFTER_NODE:
-                node = node.next;
+                node = node.getNext();
                 if ( node == null )
                 {
                     afterLast();
@@ -264,7 +264,7 @@ public class AvlTreeCursor<E> extends AbstractCursor<E>
 
             case BEFORE_NODE:
             case ON_NODE:
-                node = node.previous;
+                node = node.getPrevious();
                 if ( node == null )
                 {
                     beforeFirst();
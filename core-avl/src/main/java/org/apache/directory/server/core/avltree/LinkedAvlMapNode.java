@@ -63,6 +63,19 @@ public class LinkedAvlMapNode<K, V>
     }
 
 
+    /**
+     * Creates a new instance of LinkedAvlNode, containing the given values.
+     *
+     * @param theKey the stored key
+     * @param theValue The stored values
+     */
+    LinkedAvlMapNode( K theKey, SingletonOrOrderedSet<V> theValue )
+    {
+        key = theKey;
+        value = theValue;
+    }
+
+
     public void setLeft( LinkedAvlMapNode<K, V> left )
     {
         this.left = left;
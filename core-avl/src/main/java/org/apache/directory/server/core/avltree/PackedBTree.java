@@ -0,0 +1,843 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.avltree;
+
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * The in-memory B+tree shared by {@link PackedTree} and {@link PackedTreeMap}. The keys, and
+ * the values if any, are packed in arrays : a leaf stores up to {@link #DEFAULT_PAGE_SIZE} of
+ * them, instead of allocating a node with four references per key like the AVL trees do.
+ * <p>
+ * The leaves are linked, so that the elements can be browsed in both directions. The nodes
+ * returned to the callers are views on a position in a leaf, created on demand : they are
+ * never stored in the tree.
+ * <p>
+ * The pages are not merged when elements are removed : a leaf is dropped when it becomes
+ * empty, and the separators of its parent remain valid bounds for the remaining leaves.
+ *
+ * @param <K> The key type
+ * @param <N> The type of the nodes returned to the callers
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+abstract class PackedBTree<K, N>
+{
+    /** The default maximum number of elements in a page */
+    static final int DEFAULT_PAGE_SIZE = 64;
+
+    /** The key comparator */
+    protected final Comparator<K> comparator;
+
+    /** Tells if the leaves store a value along with each key */
+    private final boolean withValues;
+
+    /** The maximum number of keys in a page */
+    private final int pageSize;
+
+    /** The root page */
+    private Page root;
+
+    /** The first leaf */
+    private Leaf first;
+
+    /** The last leaf */
+    private Leaf last;
+
+    /** The number of keys */
+    private int size;
+
+    /** The separator pushed up by the last split */
+    private Object splitKey;
+
+
+    /**
+     * A page : a leaf, or an internal node
+     */
+    abstract static class Page
+    {
+        /** The keys, with one extra slot for the split */
+        final Object[] keys;
+
+        /** The number of keys */
+        int nbKeys;
+
+
+        Page( int pageSize )
+        {
+            keys = new Object[pageSize + 1];
+        }
+    }
+
+
+    /**
+     * A leaf, storing the keys and their values
+     */
+    static final class Leaf extends Page
+    {
+        /** The values, if any */
+        final Object[] values;
+
+        /** The next leaf */
+        Leaf next;
+
+        /** The previous leaf */
+        Leaf previous;
+
+
+        Leaf( int pageSize, boolean withValues )
+        {
+            super( pageSize );
+            values = withValues ? new Object[pageSize + 1] : null;
+        }
+    }
+
+
+    /**
+     * An internal node : the keys below children[i] are lower than keys[i], the keys
+     * below children[i + 1] are greater or equal.
+     */
+    static final class Node extends Page
+    {
+        /** The children, with one extra slot for the split */
+        final Page[] children;
+
+
+        Node( int pageSize )
+        {
+            super( pageSize );
+            children = new Page[pageSize + 2];
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PackedBTree.
+     *
+     * @param comparator The key comparator
+     * @param withValues Tells if each key has a value
+     * @param pageSize The maximum number of keys in a page
+     */
+    PackedBTree( Comparator<K> comparator, boolean withValues, int pageSize )
+    {
+        if ( pageSize < 4 )
+        {
+            throw new IllegalArgumentException( "The page size must be at least 4" );
+        }
+
+        this.comparator = comparator;
+        this.withValues = withValues;
+        this.pageSize = pageSize;
+    }
+
+
+    /**
+     * Creates the view on a position
+     *
+     * @param leaf The leaf
+     * @param index The position in the leaf
+     * @return The node
+     */
+    protected abstract N node( Leaf leaf, int index );
+
+
+    /**
+     * @return the number of keys
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of array slots allocated by the pages, which is the bulk of the
+     * tree footprint
+     */
+    long getNbSlots()
+    {
+        return root == null ? 0L : getNbSlots( root );
+    }
+
+
+    private static long getNbSlots( Page page )
+    {
+        if ( page instanceof Leaf )
+        {
+            Leaf leaf = ( Leaf ) page;
+
+            return leaf.keys.length + ( leaf.values == null ? 0 : leaf.values.length );
+        }
+
+        Node node = ( Node ) page;
+        long nbSlots = node.keys.length + node.children.length;
+
+        for ( int i = 0; i <= node.nbKeys; i++ )
+        {
+            nbSlots += getNbSlots( node.children[i] );
+        }
+
+        return nbSlots;
+    }
+
+
+    /**
+     * @return true if there is no key
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+
+    /**
+     * @return The sorted keys
+     */
+    @SuppressWarnings("unchecked")
+    public List<K> getKeys()
+    {
+        List<K> keys = new ArrayList<>( size );
+
+        for ( Leaf leaf = first; leaf != null; leaf = leaf.next )
+        {
+            for ( int i = 0; i < leaf.nbKeys; i++ )
+            {
+                keys.add( ( K ) leaf.keys[i] );
+            }
+        }
+
+        return keys;
+    }
+
+
+    /**
+     * Prints the pages, one per line
+     */
+    public void printTree()
+    {
+        if ( isEmpty() )
+        {
+            System.out.println( "Tree is empty" );
+            return;
+        }
+
+        print( root, 0 );
+    }
+
+
+    private void print( Page page, int depth )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < depth; i++ )
+        {
+            sb.append( "|  " );
+        }
+
+        sb.append( "|--[" );
+
+        for ( int i = 0; i < page.nbKeys; i++ )
+        {
+            if ( i > 0 )
+            {
+                sb.append( ", " );
+            }
+
+            sb.append( page.keys[i] );
+        }
+
+        System.out.println( sb.append( ']' ) );
+
+        if ( page instanceof Node )
+        {
+            for ( int i = 0; i <= page.nbKeys; i++ )
+            {
+                print( ( ( Node ) page ).children[i], depth + 1 );
+            }
+        }
+    }
+
+
+    /**
+     * @return The first element
+     */
+    public N getFirst()
+    {
+        return first == null ? null : node( first, 0 );
+    }
+
+
+    /**
+     * @return The last element
+     */
+    public N getLast()
+    {
+        return last == null ? null : node( last, last.nbKeys - 1 );
+    }
+
+
+    /**
+     * @return The element in the middle of the root page : this tree has no topmost element
+     */
+    public N getRoot()
+    {
+        if ( root == null )
+        {
+            return null;
+        }
+
+        Page page = root;
+
+        while ( page instanceof Node )
+        {
+            page = ( ( Node ) page ).children[( page.nbKeys + 1 ) / 2];
+        }
+
+        return node( ( Leaf ) page, 0 );
+    }
+
+
+    /**
+     * Finds the key
+     *
+     * @param key The key
+     * @return The element, or null if it does not exist
+     */
+    public N find( K key )
+    {
+        if ( ( key == null ) || ( root == null ) )
+        {
+            return null;
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = search( leaf, key );
+
+        return pos < 0 ? null : node( leaf, pos );
+    }
+
+
+    /**
+     * Finds the first key greater than the given key
+     *
+     * @param key The key
+     * @return The element, or null if there is none
+     */
+    public N findGreater( K key )
+    {
+        return ceiling( key, false );
+    }
+
+
+    /**
+     * Finds the first key greater than or equal to the given key
+     *
+     * @param key The key
+     * @return The element, or null if there is none
+     */
+    public N findGreaterOrEqual( K key )
+    {
+        return ceiling( key, true );
+    }
+
+
+    /**
+     * Finds the last key lower than the given key
+     *
+     * @param key The key
+     * @return The element, or null if there is none
+     */
+    public N findLess( K key )
+    {
+        return floor( key, false );
+    }
+
+
+    /**
+     * Finds the last key lower than or equal to the given key
+     *
+     * @param key The key
+     * @return The element, or null if there is none
+     */
+    public N findLessOrEqual( K key )
+    {
+        return floor( key, true );
+    }
+
+
+    private N ceiling( K key, boolean inclusive )
+    {
+        if ( ( key == null ) || ( root == null ) )
+        {
+            return null;
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = search( leaf, key );
+
+        if ( pos >= 0 )
+        {
+            if ( inclusive )
+            {
+                return node( leaf, pos );
+            }
+
+            pos++;
+        }
+        else
+        {
+            pos = -( pos + 1 );
+        }
+
+        if ( pos < leaf.nbKeys )
+        {
+            return node( leaf, pos );
+        }
+
+        // The leaves are never empty
+        return leaf.next == null ? null : node( leaf.next, 0 );
+    }
+
+
+    private N floor( K key, boolean inclusive )
+    {
+        if ( ( key == null ) || ( root == null ) )
+        {
+            return null;
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = search( leaf, key );
+
+        if ( pos >= 0 )
+        {
+            if ( inclusive )
+            {
+                return node( leaf, pos );
+            }
+        }
+        else
+        {
+            pos = -( pos + 1 );
+        }
+
+        pos--;
+
+        if ( pos >= 0 )
+        {
+            return node( leaf, pos );
+        }
+
+        return leaf.previous == null ? null : node( leaf.previous, leaf.previous.nbKeys - 1 );
+    }
+
+
+    /**
+     * Gets the element following a position. The position is checked against its key, as the
+     * tree may have been modified since the view has been created.
+     *
+     * @param leaf The leaf
+     * @param index The position in the leaf
+     * @param key The key at this position
+     * @return The next element, or null
+     */
+    N next( Leaf leaf, int index, K key )
+    {
+        if ( ( index < leaf.nbKeys ) && ( leaf.keys[index] == key ) )
+        {
+            if ( index + 1 < leaf.nbKeys )
+            {
+                return node( leaf, index + 1 );
+            }
+
+            return leaf.next == null ? null : node( leaf.next, 0 );
+        }
+
+        return ceiling( key, false );
+    }
+
+
+    /**
+     * Gets the element preceding a position. The position is checked against its key, as the
+     * tree may have been modified since the view has been created.
+     *
+     * @param leaf The leaf
+     * @param index The position in the leaf
+     * @param key The key at this position
+     * @return The previous element, or null
+     */
+    N previous( Leaf leaf, int index, K key )
+    {
+        if ( ( index < leaf.nbKeys ) && ( leaf.keys[index] == key ) )
+        {
+            if ( index > 0 )
+            {
+                return node( leaf, index - 1 );
+            }
+
+            return leaf.previous == null ? null : node( leaf.previous, leaf.previous.nbKeys - 1 );
+        }
+
+        return floor( key, false );
+    }
+
+
+    /**
+     * Gets the leaf which may contain a key
+     *
+     * @param key The key
+     * @return The leaf, or null if the tree is empty
+     */
+    protected final Leaf leafFor( K key )
+    {
+        Page page = root;
+
+        if ( page == null )
+        {
+            return null;
+        }
+
+        while ( page instanceof Node )
+        {
+            page = ( ( Node ) page ).children[childIndex( page, key )];
+        }
+
+        return ( Leaf ) page;
+    }
+
+
+    /**
+     * Searches a key in a page.
+     *
+     * @param page The page
+     * @param key The key
+     * @return The key position, or (-(insertion point) - 1) if it's not present
+     */
+    @SuppressWarnings("unchecked")
+    protected final int search( Page page, K key )
+    {
+        int low = 0;
+        int high = page.nbKeys - 1;
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+            int cmp = comparator.compare( ( K ) page.keys[middle], key );
+
+            if ( cmp < 0 )
+            {
+                low = middle + 1;
+            }
+            else if ( cmp > 0 )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+
+        return -( low + 1 );
+    }
+
+
+    private int childIndex( Page page, K key )
+    {
+        int pos = search( page, key );
+
+        return pos >= 0 ? pos + 1 : -( pos + 1 );
+    }
+
+
+    /**
+     * Adds a key which is not present in the tree
+     *
+     * @param key The key
+     * @param value The value, if the tree has values
+     */
+    protected final void add( K key, Object value )
+    {
+        if ( root == null )
+        {
+            Leaf leaf = new Leaf( pageSize, withValues );
+            root = leaf;
+            first = leaf;
+            last = leaf;
+        }
+
+        Page split = add( root, key, value );
+
+        if ( split != null )
+        {
+            Node newRoot = new Node( pageSize );
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            newRoot.nbKeys = 1;
+            root = newRoot;
+        }
+
+        splitKey = null;
+        size++;
+    }
+
+
+    /**
+     * Adds a key below a page.
+     *
+     * @return The new right sibling of the page if it has been split, null otherwise
+     */
+    @SuppressWarnings("unchecked")
+    private Page add( Page page, K key, Object value )
+    {
+        if ( page instanceof Leaf )
+        {
+            Leaf leaf = ( Leaf ) page;
+            int pos = -( search( leaf, key ) + 1 );
+
+            System.arraycopy( leaf.keys, pos, leaf.keys, pos + 1, leaf.nbKeys - pos );
+            leaf.keys[pos] = key;
+
+            if ( withValues )
+            {
+                System.arraycopy( leaf.values, pos, leaf.values, pos + 1, leaf.nbKeys - pos );
+                leaf.values[pos] = value;
+            }
+
+            leaf.nbKeys++;
+
+            if ( leaf.nbKeys <= pageSize )
+            {
+                return null;
+            }
+
+            // Keys appended in order fill the leaves instead of leaving them half empty
+            boolean appended = ( leaf == last ) && ( pos == pageSize );
+
+            return splitLeaf( leaf, appended ? pageSize : leaf.nbKeys / 2 );
+        }
+
+        Node node = ( Node ) page;
+        int index = childIndex( node, key );
+        Page newChild = add( node.children[index], key, value );
+
+        if ( newChild == null )
+        {
+            return null;
+        }
+
+        System.arraycopy( node.keys, index, node.keys, index + 1, node.nbKeys - index );
+        System.arraycopy( node.children, index + 1, node.children, index + 2, node.nbKeys - index );
+        node.keys[index] = splitKey;
+        node.children[index + 1] = newChild;
+        node.nbKeys++;
+
+        if ( node.nbKeys <= pageSize )
+        {
+            return null;
+        }
+
+        return splitNode( node );
+    }
+
+
+    private Leaf splitLeaf( Leaf leaf, int middle )
+    {
+        Leaf right = new Leaf( pageSize, withValues );
+        int moved = leaf.nbKeys - middle;
+
+        System.arraycopy( leaf.keys, middle, right.keys, 0, moved );
+        clear( leaf.keys, middle, leaf.nbKeys );
+
+        if ( withValues )
+        {
+            System.arraycopy( leaf.values, middle, right.values, 0, moved );
+            clear( leaf.values, middle, leaf.nbKeys );
+        }
+
+        right.nbKeys = moved;
+        leaf.nbKeys = middle;
+
+        right.next = leaf.next;
+        right.previous = leaf;
+
+        if ( leaf.next != null )
+        {
+            leaf.next.previous = right;
+        }
+        else
+        {
+            last = right;
+        }
+
+        leaf.next = right;
+        splitKey = right.keys[0];
+
+        return right;
+    }
+
+
+    private Node splitNode( Node node )
+    {
+        Node right = new Node( pageSize );
+        int middle = node.nbKeys / 2;
+        int moved = node.nbKeys - middle - 1;
+
+        splitKey = node.keys[middle];
+        System.arraycopy( node.keys, middle + 1, right.keys, 0, moved );
+        System.arraycopy( node.children, middle + 1, right.children, 0, moved + 1 );
+        clear( node.keys, middle, node.nbKeys );
+        clear( node.children, middle + 1, node.nbKeys + 1 );
+
+        right.nbKeys = moved;
+        node.nbKeys = middle;
+
+        return right;
+    }
+
+
+    /**
+     * Removes a key which is present in the tree
+     *
+     * @param key The key
+     */
+    protected final void delete( K key )
+    {
+        if ( delete( root, key ) )
+        {
+            root = null;
+            first = null;
+            last = null;
+        }
+        else
+        {
+            while ( ( root instanceof Node ) && ( root.nbKeys == 0 ) )
+            {
+                root = ( ( Node ) root ).children[0];
+            }
+        }
+
+        size--;
+    }
+
+
+    /**
+     * Removes a key below a page.
+     *
+     * @return true if the page is now empty
+     */
+    private boolean delete( Page page, K key )
+    {
+        if ( page instanceof Leaf )
+        {
+            Leaf leaf = ( Leaf ) page;
+            int pos = search( leaf, key );
+
+            System.arraycopy( leaf.keys, pos + 1, leaf.keys, pos, leaf.nbKeys - pos - 1 );
+
+            if ( withValues )
+            {
+                System.arraycopy( leaf.values, pos + 1, leaf.values, pos, leaf.nbKeys - pos - 1 );
+                leaf.values[leaf.nbKeys - 1] = null;
+            }
+
+            leaf.nbKeys--;
+            leaf.keys[leaf.nbKeys] = null;
+
+            if ( leaf.nbKeys > 0 )
+            {
+                return false;
+            }
+
+            // Drop the leaf
+            if ( leaf.previous != null )
+            {
+                leaf.previous.next = leaf.next;
+            }
+            else
+            {
+                first = leaf.next;
+            }
+
+            if ( leaf.next != null )
+            {
+                leaf.next.previous = leaf.previous;
+            }
+            else
+            {
+                last = leaf.previous;
+            }
+
+            return true;
+        }
+
+        Node node = ( Node ) page;
+        int index = childIndex( node, key );
+
+        if ( !delete( node.children[index], key ) )
+        {
+            return false;
+        }
+
+        if ( node.nbKeys == 0 )
+        {
+            // The only child is gone
+            node.children[0] = null;
+
+            return true;
+        }
+
+        // Remove the child, and the separator on its left, or on its right for the first child
+        int separator = index > 0 ? index - 1 : 0;
+        System.arraycopy( node.keys, separator + 1, node.keys, separator, node.nbKeys - separator - 1 );
+        System.arraycopy( node.children, index + 1, node.children, index, node.nbKeys - index );
+        node.nbKeys--;
+        node.keys[node.nbKeys] = null;
+        node.children[node.nbKeys + 1] = null;
+
+        return false;
+    }
+
+
+    /**
+     * Removes all the keys
+     */
+    public void removeAll()
+    {
+        root = null;
+        first = null;
+        last = null;
+        size = 0;
+    }
+
+
+    private static void clear( Object[] array, int from, int to )
+    {
+        for ( int i = from; i < to; i++ )
+        {
+            array[i] = null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.avltree;
+
+
+import java.util.Comparator;
+
+
+/**
+ * An {@link AvlTree} storing its keys in the array-packed leaves of a B+tree. It uses
+ * a fraction of the memory used by {@link AvlTreeImpl}, which allocates a node per key.
+ * <p>
+ * The returned {@link LinkedAvlNode}s are views on the tree, created on demand : their
+ * next and previous elements must be read using {@link LinkedAvlNode#getNext()} and
+ * {@link LinkedAvlNode#getPrevious()}, and they have no left nor right children.
+ *
+ * @param <K> The key type
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PackedTree<K> extends PackedBTree<K, LinkedAvlNode<K>> implements AvlTree<K>
+{
+    /**
+     * Creates a new instance of PackedTree.
+     *
+     * @param comparator The key comparator
+     */
+    public PackedTree( Comparator<K> comparator )
+    {
+        this( comparator, DEFAULT_PAGE_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of PackedTree.
+     *
+     * @param comparator The key comparator
+     * @param pageSize The maximum number of keys in a page
+     */
+    public PackedTree( Comparator<K> comparator, int pageSize )
+    {
+        super( comparator, false, pageSize );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected LinkedAvlNode<K> node( Leaf leaf, int index )
+    {
+        return new PackedTreeNode<>( this, leaf, index );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<K> getComparator()
+    {
+        return comparator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public K insert( K key )
+    {
+        Leaf leaf = leafFor( key );
+
+        if ( leaf != null )
+        {
+            int pos = search( leaf, key );
+
+            if ( pos >= 0 )
+            {
+                return ( K ) leaf.keys[pos];
+            }
+        }
+
+        add( key, null );
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public K remove( K key )
+    {
+        Leaf leaf = leafFor( key );
+
+        if ( leaf == null )
+        {
+            return null;
+        }
+
+        int pos = search( leaf, key );
+
+        if ( pos < 0 )
+        {
+            return null;
+        }
+
+        K removed = ( K ) leaf.keys[pos];
+        delete( key );
+
+        return removed;
+    }
+
+
+    /**
+     * A view on a position in a PackedTree
+     */
+    private static final class PackedTreeNode<K> extends LinkedAvlNode<K>
+    {
+        /** The tree */
+        private final PackedTree<K> tree;
+
+        /** The leaf containing the key */
+        private final Leaf leaf;
+
+        /** The key position in the leaf */
+        private final int position;
+
+
+        @SuppressWarnings("unchecked")
+        PackedTreeNode( PackedTree<K> tree, Leaf leaf, int position )
+        {
+            super( ( K ) leaf.keys[position] );
+            this.tree = tree;
+            this.leaf = leaf;
+            this.position = position;
+        }
+
+
+        @Override
+        public LinkedAvlNode<K> getNext()
+        {
+            return tree.next( leaf, position, key );
+        }
+
+
+        @Override
+        public LinkedAvlNode<K> getPrevious()
+        {
+            return tree.previous( leaf, position, key );
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.avltree;
+
+
+import java.util.Comparator;
+
+
+/**
+ * An {@link AvlTreeMap} storing its keys and values in the array-packed leaves of a B+tree.
+ * A single value is stored as is, without any {@link SingletonOrOrderedSet} wrapper, and the
+ * duplicate values of a key are stored in a {@link PackedTree}. It uses a fraction of the
+ * memory used by {@link AvlTreeMapImpl}, which allocates a node and a wrapper per key.
+ * <p>
+ * The returned {@link LinkedAvlMapNode}s are views on the map, created on demand : their
+ * next and previous elements must be read using {@link LinkedAvlMapNode#getNext()} and
+ * {@link LinkedAvlMapNode#getPrevious()}, and they have no left nor right children. Their
+ * {@link SingletonOrOrderedSet} is a copy : it can be read, and the ordered set it contains
+ * is the one stored in the map, but changing the singleton has no effect on the map.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PackedTreeMap<K, V> extends PackedBTree<K, LinkedAvlMapNode<K, V>> implements AvlTreeMap<K, V>
+{
+    /** The value comparator */
+    private final Comparator<V> valueComparator;
+
+    /** Tells if duplicate keys are allowed */
+    private final boolean allowDuplicates;
+
+
+    /**
+     * Creates a new instance of PackedTreeMap, not allowing duplicate keys.
+     *
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     */
+    public PackedTreeMap( Comparator<K> keyComparator, Comparator<V> valueComparator )
+    {
+        this( keyComparator, valueComparator, false );
+    }
+
+
+    /**
+     * Creates a new instance of PackedTreeMap.
+     *
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param allowDuplicates Tells if duplicate keys are allowed
+     */
+    public PackedTreeMap( Comparator<K> keyComparator, Comparator<V> valueComparator, boolean allowDuplicates )
+    {
+        this( keyComparator, valueComparator, allowDuplicates, DEFAULT_PAGE_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of PackedTreeMap.
+     *
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param allowDuplicates Tells if duplicate keys are allowed
+     * @param pageSize The maximum number of keys in a page
+     */
+    public PackedTreeMap( Comparator<K> keyComparator, Comparator<V> valueComparator, boolean allowDuplicates,
+        int pageSize )
+    {
+        super( keyComparator, true, pageSize );
+        this.valueComparator = valueComparator;
+        this.allowDuplicates = allowDuplicates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected LinkedAvlMapNode<K, V> node( Leaf leaf, int index )
+    {
+        Object value = leaf.values[index];
+        SingletonOrOrderedSet<V> values;
+
+        if ( value instanceof PackedTree )
+        {
+            values = new SingletonOrOrderedSet<>( ( AvlTree<V> ) value );
+        }
+        else
+        {
+            values = new SingletonOrOrderedSet<>( ( V ) value );
+        }
+
+        return new PackedTreeMapNode<>( this, leaf, index, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<K> getKeyComparator()
+    {
+        return comparator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<V> getValueComparator()
+    {
+        return valueComparator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDupsAllowed()
+    {
+        return allowDuplicates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V insert( K key, V value )
+    {
+        if ( key == null || value == null )
+        {
+            throw new IllegalArgumentException( "key or value cannot be null" );
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = leaf == null ? -1 : search( leaf, key );
+
+        if ( pos < 0 )
+        {
+            add( key, value );
+
+            return null;
+        }
+
+        Object existing = leaf.values[pos];
+
+        if ( !allowDuplicates )
+        {
+            // replace the existing value with the new value
+            leaf.values[pos] = value;
+
+            return ( V ) existing;
+        }
+
+        PackedTree<V> dups;
+
+        if ( existing instanceof PackedTree )
+        {
+            dups = ( PackedTree<V> ) existing;
+        }
+        else
+        {
+            // switch to an ordered set, as the AvlTreeMapImpl does
+            dups = new PackedTree<>( valueComparator );
+            dups.insert( ( V ) existing );
+            leaf.values[pos] = dups;
+        }
+
+        return dups.insert( value ) == null ? null : value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public SingletonOrOrderedSet<V> remove( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "key cannot be null" );
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = leaf == null ? -1 : search( leaf, key );
+
+        if ( pos < 0 )
+        {
+            return null;
+        }
+
+        Object existing = leaf.values[pos];
+        delete( key );
+
+        if ( existing instanceof PackedTree )
+        {
+            return new SingletonOrOrderedSet<>( ( AvlTree<V> ) existing );
+        }
+
+        return new SingletonOrOrderedSet<>( ( V ) existing );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove( K key, V value )
+    {
+        if ( key == null || value == null )
+        {
+            throw new IllegalArgumentException( "key or value cannot be null" );
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = leaf == null ? -1 : search( leaf, key );
+
+        if ( pos < 0 )
+        {
+            return null;
+        }
+
+        Object existing = leaf.values[pos];
+
+        if ( existing instanceof PackedTree )
+        {
+            PackedTree<V> dups = ( PackedTree<V> ) existing;
+            V removed = dups.remove( value );
+
+            if ( ( removed != null ) && dups.isEmpty() )
+            {
+                delete( key );
+            }
+
+            return removed;
+        }
+
+        if ( valueComparator.compare( ( V ) existing, value ) != 0 )
+        {
+            return null;
+        }
+
+        delete( key );
+
+        return ( V ) existing;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public LinkedAvlMapNode<K, V> find( K key, V value )
+    {
+        if ( key == null || value == null )
+        {
+            return null;
+        }
+
+        Leaf leaf = leafFor( key );
+        int pos = leaf == null ? -1 : search( leaf, key );
+
+        if ( pos < 0 )
+        {
+            return null;
+        }
+
+        Object existing = leaf.values[pos];
+
+        if ( existing instanceof PackedTree )
+        {
+            if ( ( ( PackedTree<V> ) existing ).find( value ) == null )
+            {
+                return null;
+            }
+        }
+        else if ( valueComparator.compare( ( V ) existing, value ) != 0 )
+        {
+            return null;
+        }
+
+        return node( leaf, pos );
+    }
+
+
+    /**
+     * A view on a position in a PackedTreeMap
+     */
+    private static final class PackedTreeMapNode<K, V> extends LinkedAvlMapNode<K, V>
+    {
+        /** The map */
+        private final PackedTreeMap<K, V> map;
+
+        /** The leaf containing the key */
+        private final Leaf leaf;
+
+        /** The key position in the leaf */
+        private final int position;
+
+
+        @SuppressWarnings("unchecked")
+        PackedTreeMapNode( PackedTreeMap<K, V> map, Leaf leaf, int position, SingletonOrOrderedSet<V> values )
+        {
+            super( ( K ) leaf.keys[position], values );
+            this.map = map;
+            this.leaf = leaf;
+            this.position = position;
+        }
+
+
+        @Override
+        public LinkedAvlMapNode<K, V> getNext()
+        {
+            return map.next( leaf, position, key );
+        }
+
+
+        @Override
+        public LinkedAvlMapNode<K, V> getPrevious()
+        {
+            return map.previous( leaf, position, key );
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.avltree;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Checks the footprint of the PackedTreeMap : the keys and values are stored in arrays, so
+ * the tree costs a few references per key, where the AvlTreeMapImpl allocates a node with
+ * six references, and a value holder, per key.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class PackedTreeMapFootprintTest
+{
+    private static final int NB_KEYS = 100000;
+
+    private static final Comparator<Long> COMPARATOR = new Comparator<Long>()
+    {
+        public int compare( Long l1, Long l2 )
+        {
+            return l1.compareTo( l2 );
+        }
+    };
+
+
+    private static long nbSlots( List<Long> keys )
+    {
+        PackedTreeMap<Long, Long> packed = new PackedTreeMap<>( COMPARATOR, COMPARATOR, false );
+
+        for ( Long key : keys )
+        {
+            packed.insert( key, key );
+        }
+
+        assertEquals( NB_KEYS, packed.getSize() );
+
+        return packed.getNbSlots();
+    }
+
+
+    @Test
+    public void testAscendingKeysFootprint()
+    {
+        List<Long> keys = new ArrayList<>( NB_KEYS );
+
+        for ( long i = 0; i < NB_KEYS; i++ )
+        {
+            keys.add( i );
+        }
+
+        // The leaves are at least half full : a key and its value cost at most 4 slots
+        assertTrue( nbSlots( keys ) <= 4L * NB_KEYS );
+    }
+
+
+    @Test
+    public void testRandomKeysFootprint()
+    {
+        List<Long> keys = new ArrayList<>( NB_KEYS );
+
+        for ( long i = 0; i < NB_KEYS; i++ )
+        {
+            keys.add( i );
+        }
+
+        Collections.shuffle( keys, new Random( 42L ) );
+
+        assertTrue( nbSlots( keys ) <= 4L * NB_KEYS );
+    }
+}
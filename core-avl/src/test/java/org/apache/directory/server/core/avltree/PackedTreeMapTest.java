@@ -0,0 +1,291 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.avltree;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the PackedTreeMap and PackedTree, comparing them with the AVL tree implementations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class PackedTreeMapTest
+{
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>()
+    {
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+
+    private static String toString( LinkedAvlMapNode<Integer, Integer> node )
+    {
+        if ( node == null )
+        {
+            return null;
+        }
+
+        SingletonOrOrderedSet<Integer> values = node.getValue();
+
+        return node.getKey() + "=" + ( values.isSingleton() ? values.getSingleton() : values.getOrderedSet()
+            .getKeys() );
+    }
+
+
+    private static String toString( LinkedAvlNode<Integer> node )
+    {
+        return node == null ? null : String.valueOf( node.getKey() );
+    }
+
+
+    private static List<String> browse( AvlTreeMap<Integer, Integer> map )
+    {
+        List<String> tuples = new ArrayList<>();
+
+        for ( LinkedAvlMapNode<Integer, Integer> node = map.getFirst(); node != null; node = node.getNext() )
+        {
+            tuples.add( toString( node ) );
+        }
+
+        return tuples;
+    }
+
+
+    private static List<String> browseBackward( AvlTreeMap<Integer, Integer> map )
+    {
+        List<String> tuples = new ArrayList<>();
+
+        for ( LinkedAvlMapNode<Integer, Integer> node = map.getLast(); node != null; node = node.getPrevious() )
+        {
+            tuples.add( toString( node ) );
+        }
+
+        return tuples;
+    }
+
+
+    private void checkSameContent( AvlTreeMap<Integer, Integer> expected, AvlTreeMap<Integer, Integer> map,
+        int maxKey )
+    {
+        assertEquals( expected.getSize(), map.getSize() );
+        assertEquals( expected.isEmpty(), map.isEmpty() );
+        assertEquals( expected.getKeys(), map.getKeys() );
+        assertEquals( browse( expected ), browse( map ) );
+        assertEquals( browseBackward( expected ), browseBackward( map ) );
+
+        for ( int key = -1; key <= maxKey + 1; key++ )
+        {
+            assertEquals( toString( expected.find( key ) ), toString( map.find( key ) ) );
+            assertEquals( toString( expected.findGreater( key ) ), toString( map.findGreater( key ) ) );
+            assertEquals( toString( expected.findGreaterOrEqual( key ) ), toString( map.findGreaterOrEqual( key ) ) );
+            assertEquals( toString( expected.findLess( key ) ), toString( map.findLess( key ) ) );
+            assertEquals( toString( expected.findLessOrEqual( key ) ), toString( map.findLessOrEqual( key ) ) );
+        }
+    }
+
+
+    @Test
+    public void testRandomOperations()
+    {
+        for ( boolean dups : new boolean[]
+            { false, true } )
+        {
+            Random random = new Random( 42L );
+            AvlTreeMap<Integer, Integer> expected = new AvlTreeMapImpl<>( COMPARATOR, COMPARATOR, dups );
+            AvlTreeMap<Integer, Integer> map = new PackedTreeMap<>( COMPARATOR, COMPARATOR, dups, 4 );
+
+            for ( int i = 0; i < 5000; i++ )
+            {
+                int key = random.nextInt( 300 );
+                int value = random.nextInt( 4 );
+
+                switch ( random.nextInt( 4 ) )
+                {
+                    case 0:
+                    case 1:
+                        assertEquals( expected.insert( key, value ), map.insert( key, value ) );
+                        break;
+
+                    case 2:
+                        assertEquals( expected.remove( key, value ), map.remove( key, value ) );
+                        break;
+
+                    default:
+                        SingletonOrOrderedSet<Integer> removed = expected.remove( key );
+                        SingletonOrOrderedSet<Integer> packedRemoved = map.remove( key );
+
+                        if ( removed == null )
+                        {
+                            assertNull( packedRemoved );
+                        }
+                        else if ( removed.isSingleton() && packedRemoved.isSingleton() )
+                        {
+                            assertEquals( removed.getSingleton(), packedRemoved.getSingleton() );
+                        }
+                        else
+                        {
+                            assertEquals( removed.getOrderedSet().getKeys(), packedRemoved.getOrderedSet().getKeys() );
+                        }
+                }
+
+                if ( i % 500 == 0 )
+                {
+                    checkSameContent( expected, map, 300 );
+                }
+            }
+
+            checkSameContent( expected, map, 300 );
+        }
+    }
+
+
+    @Test
+    public void testPackedTree()
+    {
+        Random random = new Random( 24L );
+        AvlTree<Integer> expected = new AvlTreeImpl<>( COMPARATOR );
+        AvlTree<Integer> tree = new PackedTree<>( COMPARATOR, 4 );
+
+        for ( int i = 0; i < 5000; i++ )
+        {
+            int key = random.nextInt( 500 );
+
+            if ( random.nextInt( 3 ) < 2 )
+            {
+                assertEquals( expected.insert( key ), tree.insert( key ) );
+            }
+            else
+            {
+                assertEquals( expected.remove( key ), tree.remove( key ) );
+            }
+        }
+
+        assertEquals( expected.getSize(), tree.getSize() );
+        assertEquals( expected.getKeys(), tree.getKeys() );
+
+        for ( int key = -1; key <= 501; key++ )
+        {
+            assertEquals( toString( expected.find( key ) ), toString( tree.find( key ) ) );
+            assertEquals( toString( expected.findGreater( key ) ), toString( tree.findGreater( key ) ) );
+            assertEquals( toString( expected.findLessOrEqual( key ) ), toString( tree.findLessOrEqual( key ) ) );
+        }
+
+        // Empty the tree
+        for ( Integer key : expected.getKeys() )
+        {
+            assertEquals( key, tree.remove( key ) );
+        }
+
+        assertTrue( tree.isEmpty() );
+        assertNull( tree.getFirst() );
+        assertNull( tree.getLast() );
+        assertNull( tree.getRoot() );
+    }
+
+
+    @Test
+    public void testCursors() throws Exception
+    {
+        PackedTree<Integer> tree = new PackedTree<>( COMPARATOR, 4 );
+
+        for ( int i = 0; i < 100; i += 2 )
+        {
+            tree.insert( i );
+        }
+
+        try ( AvlTreeCursor<Integer> cursor = new AvlTreeCursor<>( tree ) )
+        {
+            cursor.before( 51 );
+            assertTrue( cursor.next() );
+            assertEquals( 52, cursor.get() );
+
+            // A modification while browsing
+            tree.insert( 53 );
+            tree.remove( 54 );
+
+            assertTrue( cursor.next() );
+            assertEquals( 53, cursor.get() );
+            assertTrue( cursor.next() );
+            assertEquals( 56, cursor.get() );
+            assertTrue( cursor.previous() );
+            assertEquals( 53, cursor.get() );
+
+            cursor.afterLast();
+            assertTrue( cursor.previous() );
+            assertEquals( 98, cursor.get() );
+        }
+
+        try ( KeyTupleAvlCursor<String, Integer> cursor = new KeyTupleAvlCursor<>( tree, "key" ) )
+        {
+            int count = 0;
+
+            while ( cursor.next() )
+            {
+                Tuple<String, Integer> tuple = cursor.get();
+                assertEquals( "key", tuple.getKey() );
+                count++;
+            }
+
+            assertEquals( tree.getSize(), count );
+        }
+
+        PackedTreeMap<Integer, Integer> map = new PackedTreeMap<>( COMPARATOR, COMPARATOR, true, 4 );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            map.insert( i / 2, i );
+        }
+
+        try ( AvlSingletonOrOrderedSetCursor<Integer, Integer> cursor = new AvlSingletonOrOrderedSetCursor<>( map ) )
+        {
+            int count = 0;
+
+            while ( cursor.next() )
+            {
+                Tuple<Integer, SingletonOrOrderedSet<Integer>> tuple = cursor.get();
+                assertEquals( count, tuple.getKey() );
+                assertTrue( tuple.getValue().isOrderedSet() );
+                assertEquals( 2, tuple.getValue().getOrderedSet().getSize() );
+                count++;
+            }
+
+            assertEquals( 10, count );
+            assertFalse( cursor.next() );
+        }
+    }
+}
@@ -23,6 +23,7 @@ package org.apache.directory.server.core.authn;
 import static org.apache.directory.server.core.integ.IntegrationUtils.apply;
 import static org.apache.directory.server.core.integ.IntegrationUtils.getConnectionAs;
 import static org.apache.directory.server.core.integ.IntegrationUtils.getUserAddLdif;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -38,6 +39,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.ApacheDSTestExtension;
 import org.apache.directory.server.core.integ.IntegrationUtils;
@@ -610,4 +612,53 @@ public class SimpleAuthenticationIT extends AbstractLdapTestUnit
             assertTrue( true );
         }
     }
+
+
+    @Test
+    public void testVerifiedCredentialsCache() throws Exception
+    {
+        apply( getService(), getUserAddLdif() );
+        String userDn = "uid=akarasulu,ou=users,ou=system";
+
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+        SimpleAuthenticator authenticator = null;
+
+        for ( Authenticator candidate : authenticationInterceptor.getAuthenticators() )
+        {
+            if ( candidate instanceof SimpleAuthenticator )
+            {
+                authenticator = ( SimpleAuthenticator ) candidate;
+            }
+        }
+
+        assertNotNull( authenticator );
+
+        // The first bind verifies the credentials, the second one finds them verified
+        LdapConnection connection = getConnectionAs( getService(), userDn, "test" );
+        connection.close();
+        long hits = authenticator.getCacheHitCount();
+
+        connection.bind( userDn, "test" );
+        assertTrue( connection.isAuthenticated() );
+        connection.close();
+        assertEquals( hits + 1, authenticator.getCacheHitCount() );
+
+        // A bad password is never accepted, and it drops the verified credentials
+        try
+        {
+            connection.bind( userDn, "bad" );
+            fail();
+        }
+        catch ( LdapAuthenticationException lae )
+        {
+            assertTrue( true );
+        }
+
+        long misses = authenticator.getCacheMissCount();
+        connection.bind( userDn, "test" );
+        assertTrue( connection.isAuthenticated() );
+        connection.close();
+        assertEquals( misses + 1, authenticator.getCacheMissCount() );
+    }
 }
@@ -0,0 +1,400 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifRevertor;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the FileChangeLogStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogStoreTest
+{
+    private static DirectoryService directoryService;
+
+    private static SchemaManager schemaManager;
+
+    private static File storeDirectory;
+
+    private FileChangeLogStore store;
+
+
+    @BeforeAll
+    public static void setUpService() throws Exception
+    {
+        // setup working directory
+        directoryService = new DefaultDirectoryService();
+        String tmpDirPath = System.getProperty( "workingDirectory", System.getProperty( "java.io.tmpdir" ) );
+        File workingDirectory = new File( tmpDirPath + "/server-work-"
+            + FileChangeLogStoreTest.class.getSimpleName() );
+        InstanceLayout instanceLayout = new InstanceLayout( workingDirectory );
+        directoryService.setInstanceLayout( instanceLayout );
+
+        if ( !workingDirectory.exists() )
+        {
+            workingDirectory.mkdirs();
+        }
+
+        // --------------------------------------------------------------------
+        // Load the bootstrap schemas
+        // --------------------------------------------------------------------
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( workingDirectory );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        directoryService.setSchemaManager( schemaManager );
+        storeDirectory = new File( workingDirectory, "changelog" );
+    }
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        FileUtils.deleteDirectory( storeDirectory );
+        store = createStore();
+    }
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+    }
+
+
+    private FileChangeLogStore createStore() throws Exception
+    {
+        FileChangeLogStore fileStore = new FileChangeLogStore();
+        fileStore.setDirectory( storeDirectory );
+        fileStore.setMaxSegmentSize( 4096L );
+        fileStore.init( directoryService );
+
+        return fileStore;
+    }
+
+
+    private ChangeLogEvent add( String dn ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( new Dn( schemaManager, dn ) );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "organizationalUnit" );
+        forward.putAttribute( "ou", forward.getDn().getRdn().getValue() );
+
+        LdifEntry reverse = LdifRevertor.reverseAdd( forward.getDn() );
+
+        return store.log( new LdapPrincipal( schemaManager ), forward, reverse );
+    }
+
+
+    private static List<Long> revisions( Cursor<ChangeLogEvent> cursor ) throws Exception
+    {
+        List<Long> revisions = new ArrayList<>();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                revisions.add( cursor.get().getRevision() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return revisions;
+    }
+
+
+    @Test
+    public void testLogAndLookup() throws Exception
+    {
+        assertEquals( 0, store.getCurrentRevision(), "first revision is always 0" );
+
+        assertEquals( 1, add( "ou=test1,ou=system" ).getRevision() );
+        assertEquals( 2, add( "ou=test2,ou=system" ).getRevision() );
+        assertEquals( 2, store.getCurrentRevision() );
+
+        ChangeLogEvent event = store.lookup( 2 );
+        assertEquals( 2, event.getRevision() );
+        assertEquals( new Dn( schemaManager, "ou=test2,ou=system" ), event.getForwardLdif().getDn() );
+        assertEquals( ChangeType.Delete, event.getReverseLdifs().get( 0 ).getChangeType() );
+
+        assertThrows( IllegalArgumentException.class, () -> store.lookup( 3 ) );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        for ( int i = 0; i < 50; i++ )
+        {
+            add( "ou=test" + i + ",ou=system" );
+        }
+
+        store.tag( 10, "ten" );
+        store.destroy();
+
+        store = createStore();
+
+        assertEquals( 50, store.getCurrentRevision() );
+        assertEquals( 51, add( "ou=test50,ou=system" ).getRevision() );
+        assertEquals( new Dn( schemaManager, "ou=test25,ou=system" ), store.lookup( 26 ).getForwardLdif().getDn() );
+        assertEquals( "ten", store.getTagSearchEngine().lookup( 10 ).getDescription() );
+        assertEquals( 51, revisions( store.find() ).size() );
+    }
+
+
+    @Test
+    public void testFindRanges() throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            add( "ou=test" + i + ",ou=system" );
+        }
+
+        assertEquals( 9, revisions( store.findBefore( 10 ) ).size() );
+        assertEquals( 90, revisions( store.findAfter( 10 ) ).size() );
+        assertEquals( 11, revisions( store.find( 20, 30 ) ).size() );
+
+        List<Long> descending = revisions( store.getChangeLogSearchEngine().find( 20, 30, RevisionOrder.DescendingOrder ) );
+        assertEquals( Long.valueOf( 30 ), descending.get( 0 ) );
+        assertEquals( Long.valueOf( 20 ), descending.get( 10 ) );
+
+        // Going backward from the end of the cursor
+        Cursor<ChangeLogEvent> cursor = store.findAfter( 95 );
+        cursor.afterLast();
+        assertTrue( cursor.previous() );
+        assertEquals( 100, cursor.get().getRevision() );
+        cursor.close();
+    }
+
+
+    @Test
+    public void testFindUnderSubtree() throws Exception
+    {
+        add( "ou=groups,ou=system" );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            add( "ou=test" + i + ",ou=system" );
+
+            if ( i % 10 == 0 )
+            {
+                add( "ou=group" + i + ",ou=groups,ou=system" );
+            }
+        }
+
+        FileChangeLogSearchEngine engine = ( FileChangeLogSearchEngine ) store.getChangeLogSearchEngine();
+        Dn groups = new Dn( schemaManager, "ou=groups,ou=system" );
+
+        assertEquals( 11, revisions( engine.find( groups, SearchScope.SUBTREE, RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 10, revisions( engine.find( groups, SearchScope.ONELEVEL, RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 1, revisions( engine.find( groups, RevisionOrder.AscendingOrder ) ).size() );
+
+        // The changes since revision 50 under the groups subtree
+        List<Long> since = revisions( engine.findAfter( 50, groups, SearchScope.SUBTREE, RevisionOrder.AscendingOrder ) );
+        assertEquals( 5, since.size() );
+
+        for ( long revision : since )
+        {
+            assertTrue( revision >= 50 );
+            assertTrue( store.lookup( revision ).getForwardLdif().getDn().isDescendantOf( groups ) );
+        }
+    }
+
+
+    @Test
+    public void testRetention() throws Exception
+    {
+        store.setMaxSegments( 2 );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            add( "ou=test" + i + ",ou=system" );
+        }
+
+        long oldest = store.getOldestRevision();
+        assertTrue( oldest > 1 );
+        assertEquals( 200, store.getCurrentRevision() );
+
+        // The purged revisions are skipped
+        List<Long> all = revisions( store.find() );
+        assertEquals( Long.valueOf( oldest ), all.get( 0 ) );
+        assertEquals( 200 - oldest + 1, all.size() );
+        assertThrows( IllegalArgumentException.class, () -> store.lookup( 1 ) );
+
+        store.truncate( 200 );
+        assertFalse( store.getOldestRevision() < oldest );
+        assertNotNull( store.lookup( 200 ) );
+    }
+
+
+    @Test
+    public void testTags() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            add( "ou=test" + i + ",ou=system" );
+        }
+
+        store.tag( 2 );
+        store.tag( 5, "five" );
+        Tag latest = store.tag( "latest" );
+
+        assertEquals( latest, store.getLatest() );
+        assertTrue( store.getTagSearchEngine().has( 5 ) );
+        assertFalse( store.getTagSearchEngine().has( 6 ) );
+
+        Cursor<Tag> cursor = store.getTagSearchEngine().findAfter( 3, RevisionOrder.DescendingOrder );
+        assertTrue( cursor.next() );
+        assertEquals( 10, cursor.get().getRevision() );
+        assertTrue( cursor.next() );
+        assertEquals( 5, cursor.get().getRevision() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        store.removeTag( 10 );
+        assertEquals( 5, store.getLatest().getRevision() );
+    }
+
+
+    @Test
+    public void testFindWithFilter() throws Exception
+    {
+        add( "ou=groups,ou=system" );
+
+        for ( int i = 0; i < 30; i++ )
+        {
+            add( "ou=test" + i + ",ou=system" );
+
+            if ( i % 10 == 0 )
+            {
+                add( "ou=group" + i + ",ou=groups,ou=system" );
+            }
+        }
+
+        ChangeLogSearchEngine engine = store.getChangeLogSearchEngine();
+
+        assertEquals( 20, revisions( engine.find( FilterParser.parse( "(&(revision>=5)(revision<=24))" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 4, revisions( engine.find( FilterParser.parse( "(|(revision<=2)(revision>=33))" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 33, revisions( engine.find( FilterParser.parse( "(!(ndn=ou=test5,ou=system))" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 34, revisions( engine.find( FilterParser.parse( "(changeType=add)" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 34, revisions( engine.find( FilterParser.parse( "(objectClass=2.5.6.5)" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 34, revisions( engine.find( FilterParser.parse( "(attributeType=2.5.4.11)" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+        assertEquals( 0, revisions( engine.find( FilterParser.parse( "(changeType=delete)" ),
+            RevisionOrder.AscendingOrder ) ).size() );
+
+        // The changes after revision 10 under the groups subtree
+        Dn groups = new Dn( schemaManager, "ou=groups,ou=system" );
+        AndNode filter = new AndNode();
+        filter.addNode( new ScopeNode( AliasDerefMode.NEVER_DEREF_ALIASES, groups, null, SearchScope.ONELEVEL ) );
+        filter.addNode( FilterParser.parse( "(revision>=10)" ) );
+
+        List<Long> since = revisions( engine.find( filter, RevisionOrder.AscendingOrder ) );
+        assertEquals( 2, since.size() );
+
+        for ( long revision : since )
+        {
+            assertTrue( store.lookup( revision ).getForwardLdif().getDn().isDescendantOf( groups ) );
+        }
+    }
+
+
+    @Test
+    public void testUnsupportedFilter() throws Exception
+    {
+        ChangeLogSearchEngine engine = store.getChangeLogSearchEngine();
+
+        assertThrows( LdapUnwillingToPerformException.class,
+            () -> engine.find( FilterParser.parse( "(ou=test*)" ), RevisionOrder.AscendingOrder ) );
+        assertThrows( LdapUnwillingToPerformException.class,
+            () -> engine.find( FilterParser.parse( "(cn=test)" ), RevisionOrder.AscendingOrder ) );
+        assertThrows( LdapUnwillingToPerformException.class,
+            () -> engine.find( FilterParser.parse( "(ndn>=ou=system)" ), RevisionOrder.AscendingOrder ) );
+    }
+
+
+    @Test
+    public void testCannotBeExposed() throws Exception
+    {
+        assertThrows( UnsupportedOperationException.class,
+            () -> store.createPartition( "ou=changelog", "ou=revisions", "ou=tags" ) );
+    }
+}
@@ -572,4 +572,36 @@ public class CollectiveAttributeServiceIT extends AbstractLdapTestUnit
 
         connection.close();
     }
+
+
+    @Test
+    public void testSubentryChangesAreApplied() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        addAdministrativeRole( connection, "collectiveAttributeSpecificArea" );
+        connection.add( getTestSubentry( "cn=testsubentry,ou=system" ) );
+
+        Entry entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertEquals( "configuration", entry.get( "c-ou" ).getString() );
+
+        // The collective attributes read before must not be reused
+        connection.modify( "cn=testsubentry,ou=system", new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute( "c-ou", "services" ) ) );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        Attribute c_ou = entry.get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "services", c_ou.getString() );
+
+        entry = connection.lookup( "ou=interceptors,ou=configuration,ou=system" );
+        assertEquals( "services", entry.get( "c-ou" ).getString() );
+
+        connection.delete( "cn=testsubentry,ou=system" );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertNull( entry.get( "c-ou" ), "the c-ou collective attribute should not be present" );
+
+        connection.close();
+    }
 }
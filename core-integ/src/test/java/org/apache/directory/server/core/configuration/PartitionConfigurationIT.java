@@ -22,6 +22,8 @@ package org.apache.directory.server.core.configuration;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.IOException;
 import java.util.UUID;
@@ -29,6 +31,7 @@ import java.util.UUID;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.core.annotations.CreateDS;
@@ -104,4 +107,36 @@ public class PartitionConfigurationIT extends AbstractLdapTestUnit
 
         assertNull( connection.lookup( "ou=removable" ) );
     }
+
+
+    @Test
+    public void testAddDuplicateSuffix() throws Exception
+    {
+        DirectoryServiceFactory dsFactory = DefaultDirectoryServiceFactory.class.newInstance();
+        PartitionFactory partitionFactory = dsFactory.getPartitionFactory();
+        Partition partition = partitionFactory.createPartition( getService().getSchemaManager(),
+            getService().getDnFactory(), "duplicate1",
+            "ou=duplicate", 100, getService().getInstanceLayout().getPartitionsDirectory() );
+        Partition duplicate = partitionFactory.createPartition( getService().getSchemaManager(),
+            getService().getDnFactory(), "duplicate2",
+            "OU=Duplicate", 100, getService().getInstanceLayout().getPartitionsDirectory() );
+
+        getService().addPartition( partition );
+
+        try
+        {
+            // A second partition can't use the same suffix
+            assertThrows( LdapException.class, () -> getService().addPartition( duplicate ) );
+
+            // The first partition is still the one handling the suffix
+            Dn suffixDn = new Dn( getService().getSchemaManager(), "ou=duplicate" );
+            assertSame( partition, getService().getPartitionNexus().getPartition( suffixDn ) );
+            assertSame( partition, getService().getPartitionNexus().getPartition(
+                new Dn( getService().getSchemaManager(), "cn=test,ou=duplicate" ) ) );
+        }
+        finally
+        {
+            getService().removePartition( partition );
+        }
+    }
 }
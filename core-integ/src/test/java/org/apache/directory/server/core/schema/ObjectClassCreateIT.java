@@ -28,6 +28,7 @@ import org.apache.directory.api.ldap.model.cursor.EntryCursor;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.core.annotations.CreateDS;
@@ -249,4 +250,67 @@ public class ObjectClassCreateIT extends AbstractLdapTestUnit
             }
         }
     }
+
+
+    /**
+     * Test that the attributes allowed for an objectClass combination are
+     * recomputed when one of its ObjectClasses is replaced
+     */
+    @Test
+    public void testReplacedOCIsApplied() throws Exception
+    {
+        try ( LdapConnection conn = IntegrationUtils.getAdminConnection( getService() ) )
+        {
+            String ocDn = MetaSchemaConstants.M_OID_AT + "=" + testOID + ",ou=objectClasses,cn=apachemeta,ou=schema";
+
+            conn.add( new DefaultEntry(
+                ocDn,
+                "objectClass", "top",
+                "objectClass", "metaTop",
+                "objectClass", "metaObjectClass",
+                "m-oid", testOID,
+                "m-name", "testOC",
+                "m-typeObjectClass", "AUXILIARY",
+                "m-may", "ou"
+                ) );
+
+            // The c AT is not allowed by the person and testOC ObjectClasses
+            Assertions.assertThrows( LdapSchemaViolationException.class, () -> 
+                conn.add( new DefaultEntry(
+                    "cn=test,ou=system",
+                    "objectClass", "top",
+                    "objectClass", "person",
+                    "objectClass", "testOC",
+                    "sn", "test",
+                    "cn", "test",
+                    "c", "FR"
+                    ) ) );
+
+            // Now, replace testOC by an ObjectClass allowing the c AT
+            conn.delete( ocDn );
+            conn.add( new DefaultEntry(
+                ocDn,
+                "objectClass", "top",
+                "objectClass", "metaTop",
+                "objectClass", "metaObjectClass",
+                "m-oid", testOID,
+                "m-name", "testOC",
+                "m-typeObjectClass", "AUXILIARY",
+                "m-may", "ou",
+                "m-may", "c"
+                ) );
+
+            conn.add( new DefaultEntry(
+                "cn=test,ou=system",
+                "objectClass", "top",
+                "objectClass", "person",
+                "objectClass", "testOC",
+                "sn", "test",
+                "cn", "test",
+                "c", "FR"
+                ) );
+
+            assertTrue( conn.exists( "cn=test,ou=system" ) );
+        }
+    }
 }
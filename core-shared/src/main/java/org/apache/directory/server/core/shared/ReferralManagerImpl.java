@@ -22,7 +22,7 @@ package org.apache.directory.server.core.shared;
 
 import java.io.IOException;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.naming.directory.SearchControls;
 
@@ -37,7 +37,6 @@ import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.ReferralManager;
@@ -46,23 +45,25 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 
 
 /**
  * Implement a referral Manager, handling the requests from the LDAP protocol.
  * <br>
  * Referrals are stored in a tree, where leaves are the referrals. We are using
- * the very same structure than for the partition manager.
+ * the very same structure than for the partition manager. The tree is copied on
+ * write, so the readers don't have to lock it : only the writers are serialized.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class ReferralManagerImpl implements ReferralManager
 {
     /** The referrals tree */
-    private DnNode<Entry> referrals;
+    private CopyOnWriteDnTree<Entry> referrals;
 
-    /** A lock to guarantee the manager consistency */
-    private ReentrantReadWriteLock mutex = new ReentrantReadWriteLock();
+    /** A lock serializing the writers, to guarantee the manager consistency */
+    private ReentrantLock mutex = new ReentrantLock();
 
     /** A storage for the ObjectClass attributeType */
     private AttributeType objectClassAT;
@@ -81,7 +82,7 @@ public class ReferralManagerImpl implements ReferralManager
 
         try
         {
-            referrals = new DnNode<>();
+            referrals = new CopyOnWriteDnTree<>();
             PartitionNexus nexus = directoryService.getPartitionNexus();
     
             Set<String> suffixes = nexus.listSuffixes();
@@ -98,14 +99,13 @@ public class ReferralManagerImpl implements ReferralManager
 
 
     /**
-     * Get a read-lock on the referralManager.
-     * No read operation can be done on the referralManager if this
-     * method is not called before.
+     * Get a read-lock on the referralManager. The readers see a consistent
+     * version of the referrals tree without locking it, so there is nothing to do.
      */
     @Override
     public void lockRead()
     {
-        mutex.readLock().lock();
+        // Nothing to do
     }
 
 
@@ -117,7 +117,7 @@ public class ReferralManagerImpl implements ReferralManager
     @Override
     public void lockWrite()
     {
-        mutex.writeLock().lock();
+        mutex.lock();
     }
 
 
@@ -129,13 +129,9 @@ public class ReferralManagerImpl implements ReferralManager
     @Override
     public void unlock()
     {
-        if ( mutex.isWriteLockedByCurrentThread() )
-        {
-            mutex.writeLock().unlock();
-        }
-        else
+        if ( mutex.isHeldByCurrentThread() )
         {
-            mutex.readLock().unlock();
+            mutex.unlock();
         }
     }
 
@@ -279,9 +275,7 @@ public class ReferralManagerImpl implements ReferralManager
     @Override
     public boolean hasParentReferral( Dn dn )
     {
-        DnNode<Entry> referral = referrals.getNode( dn );
-
-        return ( referral != null ) && referral.isLeaf();
+        return referrals.hasParentElement( dn );
     }
 
 
@@ -291,12 +285,7 @@ public class ReferralManagerImpl implements ReferralManager
     @Override
     public Entry getParentReferral( Dn dn )
     {
-        if ( !hasParentReferral( dn ) )
-        {
-            return null;
-        }
-
-        return referrals.getElement( dn );
+        return referrals.getParentElement( dn );
     }
 
 
@@ -306,16 +295,7 @@ public class ReferralManagerImpl implements ReferralManager
     @Override
     public boolean isReferral( Dn dn )
     {
-        Entry parent = referrals.getElement( dn );
-
-        if ( parent != null )
-        {
-            return dn.equals( parent.getDn() );
-        }
-        else
-        {
-            return false;
-        }
+        return referrals.getElement( dn ) != null;
     }
 
 
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -57,11 +58,11 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
 import org.apache.directory.api.ldap.model.schema.UsageEnum;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -69,6 +70,7 @@ import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.EntryReadSet;
 import org.apache.directory.server.core.api.interceptor.context.GetRootDseOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
@@ -78,6 +80,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -85,6 +88,7 @@ import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -121,14 +125,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** the partitions keyed by normalized suffix strings */
     private Map<String, Partition> partitions = new HashMap<>();
 
-    /** A structure to hold all the partitions */
-    private DnNode<Partition> partitionLookupTree = new DnNode<>();
+    /** A structure to hold all the partitions. It's read without locking */
+    private CopyOnWriteDnTree<Partition> partitionLookupTree = new CopyOnWriteDnTree<>();
 
     private final List<Modification> mods = new ArrayList<>( 2 );
 
     /** The cn=schema Dn */
     private Dn subschemaSubentryDn;
 
+    /** The number of writes applied, used to discard the entries read by the running operations */
+    private final AtomicLong writeGeneration = new AtomicLong();
+
 
     /**
      * Creates the root nexus singleton of the entire system.  The root DSE has
@@ -373,7 +380,19 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = addContext.getPartition();
-        partition.add( addContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        writeGeneration.incrementAndGet();
+
+        try
+        {
+            partition.add( addContext );
+        }
+        finally
+        {
+            writeGeneration.incrementAndGet();
+            metrics.recordPartition( partition.getId(), OperationEnum.ADD, start );
+        }
     }
 
 
@@ -425,7 +444,19 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
-        return partition.delete( deleteContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        writeGeneration.incrementAndGet();
+
+        try
+        {
+            return partition.delete( deleteContext );
+        }
+        finally
+        {
+            writeGeneration.incrementAndGet();
+            metrics.recordPartition( partition.getId(), OperationEnum.DELETE, start );
+        }
     }
 
 
@@ -447,9 +478,26 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             return true;
         }
 
+        // The entry may have already been read by this operation
+        EntryReadSet readSet = hasEntryContext.getReadSet();
+
+        if ( ( readSet != null ) && readSet.contains( dn, writeGeneration.get() ) )
+        {
+            return true;
+        }
+
         Partition partition = getPartition( dn );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return partition.hasEntry( hasEntryContext );
+        try
+        {
+            return partition.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            metrics.recordPartition( partition.getId(), OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -472,8 +520,33 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             return new ClonedServerEntry( rootDse );
         }
 
+        // The entry may have already been read by this operation
+        EntryReadSet readSet = lookupContext.getReadSet();
+        long generation = writeGeneration.get();
+
+        if ( readSet != null )
+        {
+            Entry entry = readSet.get( dn, generation );
+
+            if ( entry != null )
+            {
+                return entry;
+            }
+        }
+
         Partition partition = getPartition( dn );
-        Entry entry = partition.lookup( lookupContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        Entry entry;
+
+        try
+        {
+            entry = partition.lookup( lookupContext );
+        }
+        finally
+        {
+            metrics.recordPartition( partition.getId(), OperationEnum.LOOKUP, start );
+        }
 
         if ( entry == null )
         {
@@ -481,6 +554,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
                 + dn.getName() );
         }
 
+        if ( readSet != null )
+        {
+            readSet.put( dn, entry, generation );
+        }
+
         return entry;
     }
 
@@ -498,8 +576,19 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        writeGeneration.incrementAndGet();
 
-        partition.modify( modifyContext );
+        try
+        {
+            partition.modify( modifyContext );
+        }
+        finally
+        {
+            writeGeneration.incrementAndGet();
+            metrics.recordPartition( partition.getId(), OperationEnum.MODIFY, start );
+        }
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -516,8 +605,19 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        writeGeneration.incrementAndGet();
 
-        partition.move( moveContext );
+        try
+        {
+            partition.move( moveContext );
+        }
+        finally
+        {
+            writeGeneration.incrementAndGet();
+            metrics.recordPartition( partition.getId(), OperationEnum.MOVE, start );
+        }
     }
 
 
@@ -528,7 +628,19 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
-        partition.moveAndRename( moveAndRenameContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        writeGeneration.incrementAndGet();
+
+        try
+        {
+            partition.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            writeGeneration.incrementAndGet();
+            metrics.recordPartition( partition.getId(), OperationEnum.MOVE_AND_RENAME, start );
+        }
     }
 
 
@@ -539,7 +651,19 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
-        partition.rename( renameContext );
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+        writeGeneration.incrementAndGet();
+
+        try
+        {
+            partition.rename( renameContext );
+        }
+        finally
+        {
+            writeGeneration.incrementAndGet();
+            metrics.recordPartition( partition.getId(), OperationEnum.RENAME, start );
+        }
     }
 
 
@@ -643,8 +767,18 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         // Normal case : do a search on the specific partition
         Partition backend = searchContext.getPartition();
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
 
-        return backend.search( searchContext );
+        try
+        {
+            return backend.search( searchContext );
+        }
+        finally
+        {
+            // Only the cursor creation : the entries are read when the cursor is walked
+            metrics.recordPartition( backend.getId(), OperationEnum.SEARCH, start );
+        }
     }
 
 
@@ -843,8 +977,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
                 throw new LdapOtherException( I18n.err( I18n.ERR_07007_PARTITION_HAS_NO_SUFFIX, partition.getId() ) );
             }
 
-            partitions.put( partitionSuffix.getNormName(), partition );
+            // The tree rejects a suffix already used by another partition
             partitionLookupTree.add( partition.getSuffixDn(), partition );
+            partitions.put( partitionSuffix.getNormName(), partition );
 
             Attribute namingContexts = rootDse.get( SchemaConstants.NAMING_CONTEXTS_AT );
 
@@ -954,10 +1089,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             return new RootPartition( schemaManager );
         }
 
-        synchronized ( partitionLookupTree )
-        {
-            parent = partitionLookupTree.getElement( dn );
-        }
+        parent = partitionLookupTree.getParentElement( dn );
 
         if ( parent == null )
         {
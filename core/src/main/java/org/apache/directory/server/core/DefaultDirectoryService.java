@@ -26,6 +26,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
@@ -41,6 +42,11 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.apache.directory.api.ldap.codec.api.LdapApiService;
 import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -64,7 +70,6 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.DnUtils;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.api.util.TimeProvider;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.api.util.Strings;
@@ -87,6 +92,7 @@ import org.apache.directory.server.core.api.administrative.AccessControlAdminist
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.authn.PasswordHashExecutor;
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
 import org.apache.directory.server.core.api.changelog.Tag;
@@ -100,12 +106,14 @@ import org.apache.directory.server.core.api.interceptor.context.HasEntryOperatio
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
 import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 import org.apache.directory.server.core.authn.AuthenticationInterceptor;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.authz.AciAuthorizationInterceptor;
@@ -258,6 +266,15 @@ public class DefaultDirectoryService implements DirectoryService
     /** The event service */
     private EventService eventService;
 
+    /** The executor hashing and verifying the passwords */
+    private PasswordHashExecutor passwordHashExecutor = new PasswordHashExecutor();
+
+    /** The latencies, counters and gauges of this service */
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    /** The name of the registered metrics MXBean, null if it's not registered */
+    private ObjectName metricsName;
+
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
@@ -267,16 +284,16 @@ public class DefaultDirectoryService implements DirectoryService
     private static final String LOCK_FILE_NAME = ".dirservice.lock";
 
     /** The AccessControl AdministrativePoint cache */
-    private DnNode<AccessControlAdministrativePoint> accessControlAPCache;
+    private CopyOnWriteDnTree<AccessControlAdministrativePoint> accessControlAPCache;
 
     /** The CollectiveAttribute AdministrativePoint cache */
-    private DnNode<CollectiveAttributeAdministrativePoint> collectiveAttributeAPCache;
+    private CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> collectiveAttributeAPCache;
 
     /** The Subschema AdministrativePoint cache */
-    private DnNode<SubschemaAdministrativePoint> subschemaAPCache;
+    private CopyOnWriteDnTree<SubschemaAdministrativePoint> subschemaAPCache;
 
     /** The TriggerExecution AdministrativePoint cache */
-    private DnNode<TriggerExecutionAdministrativePoint> triggerExecutionAPCache;
+    private CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> triggerExecutionAPCache;
 
     /** The Dn factory */
     private DnFactory dnFactory;
@@ -1243,6 +1260,7 @@ public class DefaultDirectoryService implements DirectoryService
 
         initialize();
         showSecurityWarnings();
+        registerMetrics();
 
         started = true;
 
@@ -1253,6 +1271,55 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * Registers the metrics MXBean in the platform MBean server. If another service with
+     * the same instance ID has already registered its own, this one is not registered.
+     */
+    private void registerMetrics()
+    {
+        try
+        {
+            ObjectName name = new ObjectName( "org.apache.directory.server:type=Metrics,instance="
+                + ObjectName.quote( instanceId == null ? "default" : instanceId ) );
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+            mbeanServer.registerMBean( metricsRegistry, name );
+            metricsName = name;
+        }
+        catch ( InstanceAlreadyExistsException iaee )
+        {
+            LOG.info( "The metrics of the {} directory service are already registered", instanceId );
+        }
+        catch ( JMException | SecurityException e )
+        {
+            LOG.warn( "Cannot register the metrics of the {} directory service", instanceId, e );
+        }
+    }
+
+
+    /**
+     * Unregisters the metrics MXBean, if it has been registered by this service.
+     */
+    private void unregisterMetrics()
+    {
+        if ( metricsName == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( metricsName );
+        }
+        catch ( JMException | SecurityException e )
+        {
+            LOG.warn( "Cannot unregister the metrics of the {} directory service", instanceId, e );
+        }
+
+        metricsName = null;
+    }
+
+
     public synchronized void sync() throws LdapException
     {
         if ( !started )
@@ -1317,6 +1384,9 @@ public class DefaultDirectoryService implements DirectoryService
             interceptor.destroy();
         }
 
+        passwordHashExecutor.destroy();
+        unregisterMetrics();
+
         // --------------------------------------------------------------------
         // And shutdown the server
         // --------------------------------------------------------------------
@@ -1950,6 +2020,8 @@ public class DefaultDirectoryService implements DirectoryService
 
         csnFactory.setReplicaId( replicaId );
 
+        passwordHashExecutor.init();
+
         // If no interceptor list is defined, setup a default list
         if ( interceptors == null )
         {
@@ -1957,10 +2029,10 @@ public class DefaultDirectoryService implements DirectoryService
         }
 
         // Initialize the AP caches
-        accessControlAPCache = new DnNode<>();
-        collectiveAttributeAPCache = new DnNode<>();
-        subschemaAPCache = new DnNode<>();
-        triggerExecutionAPCache = new DnNode<>();
+        accessControlAPCache = new CopyOnWriteDnTree<>();
+        collectiveAttributeAPCache = new CopyOnWriteDnTree<>();
+        subschemaAPCache = new CopyOnWriteDnTree<>();
+        triggerExecutionAPCache = new CopyOnWriteDnTree<>();
 
         if ( dnFactory == null )
         {
@@ -2150,6 +2222,36 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PasswordHashExecutor getPasswordHashExecutor()
+    {
+        return passwordHashExecutor;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPasswordHashExecutor( PasswordHashExecutor passwordHashExecutor )
+    {
+        this.passwordHashExecutor = passwordHashExecutor;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -2366,7 +2468,7 @@ public class DefaultDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<AccessControlAdministrativePoint> getAccessControlAPCache()
+    public CopyOnWriteDnTree<AccessControlAdministrativePoint> getAccessControlAPCache()
     {
         return accessControlAPCache;
     }
@@ -2375,7 +2477,7 @@ public class DefaultDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<CollectiveAttributeAdministrativePoint> getCollectiveAttributeAPCache()
+    public CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> getCollectiveAttributeAPCache()
     {
         return collectiveAttributeAPCache;
     }
@@ -2384,7 +2486,7 @@ public class DefaultDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<SubschemaAdministrativePoint> getSubschemaAPCache()
+    public CopyOnWriteDnTree<SubschemaAdministrativePoint> getSubschemaAPCache()
     {
         return subschemaAPCache;
     }
@@ -2393,7 +2495,7 @@ public class DefaultDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public DnNode<TriggerExecutionAdministrativePoint> getTriggerExecutionAPCache()
+    public CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> getTriggerExecutionAPCache()
     {
         return triggerExecutionAPCache;
     }
@@ -52,6 +52,7 @@ import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -60,6 +61,7 @@ import org.apache.directory.server.core.api.interceptor.context.AddOperationCont
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.EntryReadSet;
 import org.apache.directory.server.core.api.interceptor.context.GetRootDseOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
@@ -70,6 +72,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
@@ -87,15 +90,11 @@ public class DefaultOperationManager implements OperationManager
     /** A logger specifically for operations */
     private static final Logger OPERATION_LOG = LoggerFactory.getLogger( Loggers.OPERATION_LOG.getName() );
 
-    /** A logger specifically for operations time */
-    private static final Logger OPERATION_TIME = LoggerFactory.getLogger( Loggers.OPERATION_TIME.getName() );
-
     /** A logger specifically for operations statistics */
     private static final Logger OPERATION_STAT = LoggerFactory.getLogger( Loggers.OPERATION_STAT.getName() );
 
     /** Speedup for logs */
     private static final boolean IS_DEBUG = OPERATION_LOG.isDebugEnabled();
-    private static final boolean IS_TIME = OPERATION_TIME.isDebugEnabled();
     private static final boolean IS_STAT = OPERATION_STAT.isDebugEnabled();
 
     /** The directory service instance */
@@ -126,20 +125,30 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Acquires a ReadLock
+     * Acquires a ReadLock. The time spent waiting for it is recorded in the metrics.
      */
     public void lockRead()
     {
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+
         rwLock.readLock().lock();
+
+        metrics.recordLatency( MetricsRegistry.LOCK_READ_WAIT, start );
     }
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires a WriteLock. The time spent waiting for it is recorded in the metrics.
      */
     public void lockWrite()
     {
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long start = metrics.start();
+
         rwLock.writeLock().lock();
+
+        metrics.recordLatency( MetricsRegistry.LOCK_WRITE_WAIT, start );
     }
 
 
@@ -184,6 +193,7 @@ public class DefaultOperationManager implements OperationManager
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( opContext.getPartition() );
             lookupContext.setTransaction( opContext.getTransaction() );
+            lookupContext.setReadSet( opContext.getReadSet() );
             Entry foundEntry = opContext.getSession().getDirectoryService().getPartitionNexus().lookup( lookupContext );
 
             if ( foundEntry != null )
@@ -199,14 +209,31 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Keeps the entries read while a write operation is processed, so that the
+     * interceptors don't fetch the same entries from the partition again.
+     *
+     * @param opContext the operation context
+     */
+    private void initReadSet( OperationContext opContext )
+    {
+        if ( opContext.getReadSet() == null )
+        {
+            opContext.setReadSet( new EntryReadSet() );
+        }
+    }
+
+
     private Entry getOriginalEntry( OperationContext opContext ) throws LdapException
     {
         // We have to use the admin session here, otherwise we may have
         // trouble reading the entry due to insufficient access rights
         CoreSession adminSession = opContext.getSession().getDirectoryService().getAdminSession();
 
-        Entry foundEntry = adminSession.lookup( opContext.getDn(), SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES,
-            SchemaConstants.ALL_USER_ATTRIBUTES );
+        LookupOperationContext lookupContext = new LookupOperationContext( adminSession, opContext.getDn(),
+            SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES );
+        lookupContext.setReadSet( opContext.getReadSet() );
+        Entry foundEntry = lookup( lookupContext );
 
         if ( foundEntry != null )
         {
@@ -356,14 +383,10 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> AddOperation : {}", addContext );
         }
 
-        long addStart = 0L;
-
-        if ( IS_TIME )
-        {
-            addStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
+        initReadSet( addContext );
 
         // Normalize the addContext Dn
         Dn dn = addContext.getDn();
@@ -428,7 +451,7 @@ public class DefaultOperationManager implements OperationManager
             
             addContext.setTransaction( transaction );
 
-            head.add( addContext );
+            OperationTimings.run( directoryService, head, OperationEnum.ADD, () -> head.add( addContext ) );
             
             if ( !addContext.getSession().hasSessionTransaction() )
             {
@@ -474,10 +497,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< AddOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Add operation took {} ns", ( System.nanoTime() - addStart ) );
-        }
+        OperationTimings.logTime( "Add", opStart );
     }
 
 
@@ -491,12 +511,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> BindOperation : {}", bindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
 
@@ -523,7 +538,7 @@ public class DefaultOperationManager implements OperationManager
                 bindContext.setPartition( partition );
                 bindContext.setTransaction( partitionTxn );
                 
-                head.bind( bindContext );
+                OperationTimings.run( directoryService, head, OperationEnum.BIND, () -> head.bind( bindContext ) );
             }
             catch ( IOException ioe )
             {
@@ -540,10 +555,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< BindOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Bind operation took {} ns", ( System.nanoTime() - opStart )  );
-        }
+        OperationTimings.logTime( "Bind", opStart );
     }
 
 
@@ -557,12 +569,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> CompareOperation : {}", compareContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
         
@@ -638,7 +645,8 @@ public class DefaultOperationManager implements OperationManager
                 compareContext.setPartition( partition );
                 compareContext.setTransaction( partitionTxn );
                 
-                result = head.compare( compareContext );
+                result = OperationTimings.call( directoryService, head, OperationEnum.COMPARE,
+                    () -> head.compare( compareContext ) );
             }
             catch ( IOException ioe )
             {
@@ -655,10 +663,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< CompareOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Compare operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Compare", opStart );
 
         return result;
     }
@@ -669,13 +674,14 @@ public class DefaultOperationManager implements OperationManager
         DeleteOperationContext entryDeleteContext = 
             new DeleteOperationContext( deleteContext.getSession(), dn );
         entryDeleteContext.setTransaction( deleteContext.getTransaction() );
+        entryDeleteContext.setReadSet( deleteContext.getReadSet() );
 
         eagerlyPopulateFields( entryDeleteContext );
         
         // Call the Delete method
         Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
 
-        head.delete( entryDeleteContext );
+        OperationTimings.run( directoryService, head, OperationEnum.DELETE, () -> head.delete( entryDeleteContext ) );
     }
     
     
@@ -729,14 +735,10 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> DeleteOperation : {}", deleteContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
+        initReadSet( deleteContext );
 
         // Normalize the deleteContext Dn
         Dn dn = deleteContext.getDn();
@@ -850,7 +852,7 @@ public class DefaultOperationManager implements OperationManager
                 // Call the Delete method
                 Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
     
-                head.delete( deleteContext );
+                OperationTimings.run( directoryService, head, OperationEnum.DELETE, () -> head.delete( deleteContext ) );
     
                 if ( !deleteContext.getSession().hasSessionTransaction() )
                 {
@@ -897,10 +899,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Delete operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Delete", opStart );
     }
 
 
@@ -914,12 +913,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> GetRootDseOperation : {}", getRootDseContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
 
@@ -937,7 +931,8 @@ public class DefaultOperationManager implements OperationManager
                 getRootDseContext.setPartition( partition );
                 getRootDseContext.setTransaction( partitionTxn );
                 
-                root = head.getRootDse( getRootDseContext );
+                root = OperationTimings.call( directoryService, head, OperationEnum.GET_ROOT_DSE,
+                    () -> head.getRootDse( getRootDseContext ) );
             }
             catch ( IOException ioe )
             {
@@ -954,10 +949,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< getRootDseOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "GetRootDSE operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "GetRootDSE", opStart );
 
         return root;
     }
@@ -973,12 +965,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> hasEntryOperation : {}", hasEntryContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
 
@@ -1006,7 +993,8 @@ public class DefaultOperationManager implements OperationManager
                 hasEntryContext.setPartition( partition );
                 hasEntryContext.setTransaction( partitionTxn );
 
-                result = head.hasEntry( hasEntryContext );
+                result = OperationTimings.call( directoryService, head, OperationEnum.HAS_ENTRY,
+                    () -> head.hasEntry( hasEntryContext ) );
             }
             catch ( IOException ioe )
             {
@@ -1023,10 +1011,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< HasEntryOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "HasEntry operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "HasEntry", opStart );
 
         return result;
     }
@@ -1042,12 +1027,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> LookupOperation : {}", lookupContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
 
@@ -1076,7 +1056,8 @@ public class DefaultOperationManager implements OperationManager
     
             try
             {
-                entry = head.lookup( lookupContext );
+                entry = OperationTimings.call( directoryService, head, OperationEnum.LOOKUP,
+                    () -> head.lookup( lookupContext ) );
             }
             finally
             {
@@ -1093,10 +1074,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< LookupOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Lookup operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Lookup", opStart );
 
         return entry;
     }
@@ -1112,14 +1090,10 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> ModifyOperation : {}", modifyContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
+        initReadSet( modifyContext );
 
         // Normalize the modifyContext Dn
         Dn dn = modifyContext.getDn();
@@ -1212,7 +1186,7 @@ public class DefaultOperationManager implements OperationManager
             // Call the Modify method
             Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
 
-            head.modify( modifyContext );
+            OperationTimings.run( directoryService, head, OperationEnum.MODIFY, () -> head.modify( modifyContext ) );
             
             if ( !modifyContext.getSession().hasSessionTransaction() )
             {
@@ -1258,10 +1232,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Modify operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Modify", opStart );
     }
 
 
@@ -1275,14 +1246,10 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveOperation : {}", moveContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
+        initReadSet( moveContext );
 
         // Normalize the moveContext Dn
         Dn dn = moveContext.getDn();
@@ -1387,7 +1354,7 @@ public class DefaultOperationManager implements OperationManager
             // Call the Move method
             Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
 
-            head.move( moveContext );
+            OperationTimings.run( directoryService, head, OperationEnum.MOVE, () -> head.move( moveContext ) );
             
             if ( !moveContext.getSession().hasSessionTransaction() )
             {
@@ -1436,10 +1403,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Move operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Move", opStart );
     }
 
 
@@ -1453,14 +1417,10 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveAndRenameOperation : {}", moveAndRenameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
+        initReadSet( moveAndRenameContext );
 
         // Normalize the moveAndRenameContext Dn
         Dn dn = moveAndRenameContext.getDn();
@@ -1565,7 +1525,7 @@ public class DefaultOperationManager implements OperationManager
             // Call the MoveAndRename method
             Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
 
-            head.moveAndRename( moveAndRenameContext );
+            OperationTimings.run( directoryService, head, OperationEnum.MOVE_AND_RENAME, () -> head.moveAndRename( moveAndRenameContext ) );
 
             if ( !moveAndRenameContext.getSession().hasSessionTransaction() )
             {
@@ -1611,10 +1571,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "MoveAndRename operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "MoveAndRename", opStart );
     }
 
 
@@ -1628,14 +1585,10 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> RenameOperation : {}", renameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
+        initReadSet( renameContext );
 
         // Normalize the renameContext Dn
         Dn dn = renameContext.getDn();
@@ -1781,7 +1734,7 @@ public class DefaultOperationManager implements OperationManager
 
                 renameContext.setTransaction( transaction );
 
-                head.rename( renameContext );
+                OperationTimings.run( directoryService, head, OperationEnum.RENAME, () -> head.rename( renameContext ) );
                 
                 if ( !renameContext.getSession().hasSessionTransaction() )
                 {
@@ -1831,10 +1784,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< RenameOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Rename operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Rename", opStart );
     }
 
 
@@ -1848,12 +1798,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> SearchOperation : {}", searchContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
 
@@ -1926,7 +1871,8 @@ public class DefaultOperationManager implements OperationManager
     
             try
             {
-                cursor = head.search( searchContext );
+                cursor = OperationTimings.call( directoryService, head, OperationEnum.SEARCH,
+                    () -> head.search( searchContext ) );
             }
             finally
             {
@@ -1943,10 +1889,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< SearchOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Search operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Search", opStart );
 
         return cursor;
     }
@@ -1962,29 +1905,21 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> UnbindOperation : {}", unbindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = OperationTimings.start();
 
         ensureStarted();
 
         // Call the Unbind method
         Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
 
-        head.unbind( unbindContext );
+        OperationTimings.run( directoryService, head, OperationEnum.UNBIND, () -> head.unbind( unbindContext ) );
 
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< UnbindOperation successful" );
         }
 
-        if ( IS_TIME )
-        {
-            OPERATION_TIME.debug( "Unbind operation took {} ns", ( System.nanoTime() - opStart ) );
-        }
+        OperationTimings.logTime( "Unbind", opStart );
     }
 
 
@@ -0,0 +1,152 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core;
+
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Measures the operations run by the {@link DefaultOperationManager} : the time spent in
+ * the interceptor chain is recorded in the metrics of the DirectoryService, and the whole
+ * operation time is logged when the operation time logger is enabled.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class OperationTimings
+{
+    /** A logger specifically for operations time */
+    private static final Logger OPERATION_TIME = LoggerFactory.getLogger( Loggers.OPERATION_TIME.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_TIME = OPERATION_TIME.isDebugEnabled();
+
+
+    /**
+     * A call to the interceptor chain returning a result
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    interface InterceptorCall<T>
+    {
+        T call() throws LdapException;
+    }
+
+
+    /**
+     * A call to the interceptor chain returning nothing
+     */
+    @FunctionalInterface
+    interface InterceptorRun
+    {
+        void run() throws LdapException;
+    }
+
+
+    private OperationTimings()
+    {
+    }
+
+
+    /**
+     * @return the time the operation starts at, 0 if the operation time is not logged
+     */
+    static long start()
+    {
+        return IS_TIME ? System.nanoTime() : 0L;
+    }
+
+
+    /**
+     * Logs the time an operation took, if the operation time logger is enabled.
+     *
+     * @param operation the operation name
+     * @param start the time the operation has started at, as returned by {@link #start()}
+     */
+    static void logTime( String operation, long start )
+    {
+        if ( IS_TIME )
+        {
+            OPERATION_TIME.debug( "{} operation took {} ns", operation, System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * Calls the interceptor chain, recording the time spent in it.
+     *
+     * @param directoryService the DirectoryService holding the metrics
+     * @param head the first interceptor called
+     * @param operation the operation
+     * @param call the call to the interceptor chain
+     * @param <T> the type of the result
+     * @return the result of the call
+     * @throws LdapException if the call failed
+     */
+    static <T> T call( DirectoryService directoryService, Interceptor head, OperationEnum operation,
+        InterceptorCall<T> call ) throws LdapException
+    {
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long metricsStart = metrics.start();
+
+        try
+        {
+            return call.call();
+        }
+        finally
+        {
+            metrics.recordInterceptor( head.getName(), operation, metricsStart );
+        }
+    }
+
+
+    /**
+     * Calls the interceptor chain, recording the time spent in it.
+     *
+     * @param directoryService the DirectoryService holding the metrics
+     * @param head the first interceptor called
+     * @param operation the operation
+     * @param run the call to the interceptor chain
+     * @throws LdapException if the call failed
+     */
+    static void run( DirectoryService directoryService, Interceptor head, OperationEnum operation,
+        InterceptorRun run ) throws LdapException
+    {
+        MetricsRegistry metrics = directoryService.getMetricsRegistry();
+        long metricsStart = metrics.start();
+
+        try
+        {
+            run.run();
+        }
+        finally
+        {
+            metrics.recordInterceptor( head.getName(), operation, metricsStart );
+        }
+    }
+}
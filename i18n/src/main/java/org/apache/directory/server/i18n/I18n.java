@@ -64,6 +64,8 @@ public enum I18n
     ERR_01000_SCHEMA_LOAD_FAILED("ERR_01000_SCHEMA_LOAD_FAILED"),
     ERR_01001_CANNOT_CREATE_DIRECTORY_SERVICE("ERR_01001_CANNOT_CREATE_DIRECTORY_SERVICE"),
     ERR_01002_UNSUPPORTED_CHANGE_TYPE("ERR_01002_UNSUPPORTED_CHANGE_TYPE"),
+    ERR_01003_INVALID_SCHEMA_SNAPSHOT("ERR_01003_INVALID_SCHEMA_SNAPSHOT"),
+    ERR_01004_STALE_SCHEMA_SNAPSHOT("ERR_01004_STALE_SCHEMA_SNAPSHOT"),
 
     // apacheds-core-api errors              2000 - 2999
     ERR_02000_CANNOT_USE_SERIALIZATION_FOR_SERVER_ATTRIBUTE("ERR_02000_CANNOT_USE_SERIALIZATION_FOR_SERVER_ATTRIBUTE"),
@@ -194,6 +196,8 @@ public enum I18n
     ERR_02125_SYNTAX_DELETION_WITH_DEPENDENCIES("ERR_02125_SYNTAX_DELETION_WITH_DEPENDENCIES"),
     ERR_02126_SYNTAX_PARENT_DN_MUST_HAVE_3_NC("ERR_02126_SYNTAX_PARENT_DN_MUST_HAVE_3_NC"),
     ERR_02127_SYNTAX_PARENT_ENTRY_NOT_ORGANIZATIONAL_UNIT("ERR_02127_SYNTAX_PARENT_ENTRY_NOT_ORGANIZATIONAL_UNIT"),
+    ERR_02128_ELEMENT_ALREADY_STORED("ERR_02128_ELEMENT_ALREADY_STORED"),
+    ERR_02129_PASSWORD_HASH_QUEUE_FULL("ERR_02129_PASSWORD_HASH_QUEUE_FULL"),
 
     // apacheds-core-avl errors                      3000 - 3999
     ERR_03000_NEGATIVE_AVL_NODE_COUNT("ERR_03000_NEGATIVE_AVL_NODE_COUNT"),
@@ -322,6 +326,10 @@ public enum I18n
     ERR_16002_CHANGLE_LOG_STORE_CANNOT_BE_SEARCHED("ERR_16002_CHANGLE_LOG_STORE_CANNOT_BE_SEARCHED"),
     ERR_16003_REVISION_TOO_HIGH("ERR_16003_REVISION_TOO_HIGH"),
     ERR_16004_FILE_CANNOT_BE_DELETED("ERR_16004_FILE_CANNOT_BE_DELETED"),
+    ERR_16005_CORRUPTED_CHANGELOG_SEGMENT("ERR_16005_CORRUPTED_CHANGELOG_SEGMENT"),
+    ERR_16006_REVISION_PURGED("ERR_16006_REVISION_PURGED"),
+    ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED("ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED"),
+    ERR_16008_CHANGELOG_PARTITION_NOT_SUPPORTED("ERR_16008_CHANGELOG_PARTITION_NOT_SUPPORTED"),
 
 
     // apacheds-interceptors-collective errors       17000 - 17999
@@ -438,6 +446,7 @@ public enum I18n
     ERR_34005_MISSING_VALUE_COMPARATOR("ERR_34005_MISSING_VALUE_COMPARATOR"),
     ERR_34006_NULL_KEY_VALUE_FORBIDDEN("ERR_34006_NULL_KEY_VALUE_FORBIDDEN"),
     ERR_34007_DUPLICATE_KEYS_FORBIDDEN("ERR_34007_DUPLICATE_KEYS_FORBIDDEN"),
+    ERR_34008_BITMAP_INDEX_ON_BINARY_ATTRIBUTE("ERR_34008_BITMAP_INDEX_ON_BINARY_ATTRIBUTE"),
 
     // apacheds-osgi-integ errors                    35000 - 35999
     // No error
@@ -453,6 +462,9 @@ public enum I18n
     ERR_36007_ASCII_ENCODING_UNAVAILABLE("ERR_36007_ASCII_ENCODING_UNAVAILABLE"),
     ERR_36008_NOT_ENOUGH_DATA_IN_BUFFER( "ERR_36008_NOT_ENOUGH_DATA_IN_BUFFER" ),
     ERR_36009_NEGATIVE_INDEX_IN_BUFFER("ERR_36009_NEGATIVE_INDEX_IN_BUFFER"),
+    ERR_36010_NO_ADDRESS_POOL("ERR_36010_NO_ADDRESS_POOL"),
+    ERR_36011_CANNOT_READ_LEASE_JOURNAL("ERR_36011_CANNOT_READ_LEASE_JOURNAL"),
+    ERR_36012_CANNOT_WRITE_LEASE_JOURNAL("ERR_36012_CANNOT_WRITE_LEASE_JOURNAL"),
 
     // apacheds-protocol-dns errors                  37000 - 37999
     ERR_37000_ERROR_IN_REQUEST_MONITOR("ERR_37000_ERROR_IN_REQUEST_MONITOR"),
@@ -593,7 +605,9 @@ public enum I18n
     ERR_49042_MUST_HAVE_2_SUB_EXPRESSIONS("ERR_49042_MUST_HAVE_2_SUB_EXPRESSIONS"),
     ERR_49043_PRESENCE_CURSOR_ONLY_SUPPORT_POSITIONING_WHEN_INDEX_EXISTS("ERR_49043_PRESENCE_CURSOR_ONLY_SUPPORT_POSITIONING_WHEN_INDEX_EXISTS"),
     ERR_49044_SUBSTRING_CURSOR_NOT_ORDERED("ERR_49044_SUBSTRING_CURSOR_NOT_ORDERED"),
-    ERR_49045_SCOPE_NODE_NOT_IN_SUBTREE_SCOPE("ERR_49045_SCOPE_NODE_NOT_IN_SUBTREE_SCOPE");
+    ERR_49045_SCOPE_NODE_NOT_IN_SUBTREE_SCOPE("ERR_49045_SCOPE_NODE_NOT_IN_SUBTREE_SCOPE"),
+    ERR_49046_CANNOT_READ_AVL_JOURNAL("ERR_49046_CANNOT_READ_AVL_JOURNAL"),
+    ERR_49047_CANNOT_WRITE_AVL_JOURNAL("ERR_49047_CANNOT_WRITE_AVL_JOURNAL");
 
     private static final ResourceBundle ERR_BUNDLE = ResourceBundle
         .getBundle( "org.apache.directory.server.i18n.errors", Locale.ROOT );
@@ -22,8 +22,18 @@ package org.apache.directory.server.core.kerberos;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.asn1.EncoderException;
 import org.apache.directory.api.ldap.model.constants.Loggers;
@@ -87,6 +97,15 @@ public class KeyDerivationInterceptor extends BaseInterceptor
     /** The userPassword attribute tType */
     private AttributeType userPasswordAT;
 
+    /** The encryption types we derive keys for */
+    private Set<EncryptionType> encryptionTypes = KerberosKeyFactory.DEFAULT_CIPHERS.keySet();
+
+    /** The maximum number of threads deriving keys. 0 derives them in the caller's thread */
+    private int keyDerivationThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The bounded pool the keys are derived in */
+    private ExecutorService cryptoPool;
+
 
     /**
      * Creates an instance of a KeyDerivationInterceptor.
@@ -112,10 +131,90 @@ public class KeyDerivationInterceptor extends BaseInterceptor
         userPasswordAT = schemaManager
             .lookupAttributeTypeRegistry( SchemaConstants.USER_PASSWORD_AT );
 
+        if ( keyDerivationThreads > 0 )
+        {
+            ThreadFactory threadFactory = new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                    newThread.setName( "KeyDerivation-" + newThread.getName() );
+                    newThread.setDaemon( true );
+
+                    return newThread;
+                }
+            };
+
+            // When the queue is full, the derivation is done in the caller's thread
+            ThreadPoolExecutor pool = new ThreadPoolExecutor( keyDerivationThreads, keyDerivationThreads, 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( 16 * keyDerivationThreads ), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy() );
+            pool.allowCoreThreadTimeOut( true );
+            cryptoPool = pool;
+        }
+
         LOG_KRB.info( "KeyDerivation Interceptor initialized" );
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if ( cryptoPool != null )
+        {
+            cryptoPool.shutdown();
+            cryptoPool = null;
+        }
+    }
+
+
+    /**
+     * @return The encryption types we derive keys for
+     */
+    public Set<EncryptionType> getEncryptionTypes()
+    {
+        return encryptionTypes;
+    }
+
+
+    /**
+     * Sets the encryption types we derive keys for. It defaults to all the
+     * {@link KerberosKeyFactory#DEFAULT_CIPHERS}.
+     *
+     * @param encryptionTypes The encryption types
+     */
+    public void setEncryptionTypes( Set<EncryptionType> encryptionTypes )
+    {
+        this.encryptionTypes = Collections.unmodifiableSet( EnumSet.copyOf( encryptionTypes ) );
+    }
+
+
+    /**
+     * @return The maximum number of threads deriving keys
+     */
+    public int getKeyDerivationThreads()
+    {
+        return keyDerivationThreads;
+    }
+
+
+    /**
+     * Sets the maximum number of threads deriving keys, before the interceptor
+     * is initialized. With 0, the keys are derived one after the other in the
+     * thread processing the operation.
+     *
+     * @param keyDerivationThreads The number of threads
+     */
+    public void setKeyDerivationThreads( int keyDerivationThreads )
+    {
+        this.keyDerivationThreads = keyDerivationThreads;
+    }
+
+
     /**
      * Intercepts the addition of the 'userPassword' and 'krb5PrincipalName' attributes.
      * Uses the 'userPassword' and 'krb5PrincipalName' attributes to derive Kerberos keys 
@@ -292,7 +391,9 @@ public class KeyDerivationInterceptor extends BaseInterceptor
 
 
     /**
-     * Lookup the principal's attributes that are relevant to executing key derivation.
+     * Get the principal's attributes that are relevant to executing key derivation. They
+     * are read from the entry the operation manager has already fetched, and looked up
+     * only if there is none.
      *
      * @param modContext The original ModifyContext
      * @param subContext The modification container
@@ -303,21 +404,31 @@ public class KeyDerivationInterceptor extends BaseInterceptor
     {
         Dn principalDn = modContext.getDn();
 
-        LookupOperationContext lookupContext = modContext.newLookupContext( principalDn,
-            SchemaConstants.OBJECT_CLASS_AT,
-            KerberosAttribute.KRB5_PRINCIPAL_NAME_AT,
-            KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT );
-        lookupContext.setPartition( modContext.getPartition() );
-        lookupContext.setTransaction( modContext.getTransaction() );
+        Entry userEntry = modContext.getEntry();
 
-        Entry userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+        if ( userEntry == null )
+        {
+            LookupOperationContext lookupContext = modContext.newLookupContext( principalDn,
+                SchemaConstants.OBJECT_CLASS_AT,
+                KerberosAttribute.KRB5_PRINCIPAL_NAME_AT,
+                KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT );
+            lookupContext.setPartition( modContext.getPartition() );
+            lookupContext.setTransaction( modContext.getTransaction() );
+
+            userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+        }
 
         if ( userEntry == null )
         {
             throw new LdapAuthenticationException( I18n.err( I18n.ERR_12001_FAILED_TO_AUTHENTICATE_USER, principalDn ) );
         }
 
-        if ( !( ( ClonedServerEntry ) userEntry ).getOriginalEntry().contains(
+        if ( userEntry instanceof ClonedServerEntry )
+        {
+            userEntry = ( ( ClonedServerEntry ) userEntry ).getOriginalEntry();
+        }
+
+        if ( !userEntry.contains(
             directoryService.getAtProvider().getObjectClass(), SchemaConstants.KRB5_PRINCIPAL_OC ) )
         {
             return;
@@ -331,16 +442,14 @@ public class KeyDerivationInterceptor extends BaseInterceptor
 
         if ( subContext.getPrincipalName() == null )
         {
-            Attribute principalAttribute = ( ( ClonedServerEntry ) userEntry ).getOriginalEntry().get(
-                krb5PrincipalNameAT );
+            Attribute principalAttribute = userEntry.get( krb5PrincipalNameAT );
             String principalName = principalAttribute.getString();
             subContext.setPrincipalName( principalName );
             LOG.debug( "Found principal '{}' from lookup.", principalName );
             LOG_KRB.debug( "Found principal '{}' from lookup.", principalName );
         }
 
-        Attribute keyVersionNumberAttr = ( ( ClonedServerEntry ) userEntry ).getOriginalEntry().get(
-            krb5KeyVersionNumberAT );
+        Attribute keyVersionNumberAttr = userEntry.get( krb5KeyVersionNumberAT );
 
         // Set the KVNO to 0 if it's a password creation,
         // otherwise increment it.
@@ -477,11 +586,42 @@ public class KeyDerivationInterceptor extends BaseInterceptor
         }
         else
         {
-            // Derive key based on password and principal name.
-            return KerberosKeyFactory.getKerberosKeys( principalName, userPassword );
+            // Derive key based on password and principal name, one cipher per thread
+            return KerberosKeyFactory.getKerberosKeys( principalName, userPassword, encryptionTypes, cryptoPool );
         }
     }
 
+
+    /**
+     * Generate the keys of a batch of principals, typically for a bulk password reset.
+     * All the derivations share the interceptor's pool, so the batch takes about as
+     * long as its slowest derivation when there are enough threads.
+     * 
+     * @param userPasswords The passwords, indexed by principal name
+     * @return The maps of keys, indexed by principal name
+     */
+    public Map<String, Map<EncryptionType, EncryptionKey>> generateKeys( Map<String, String> userPasswords )
+    {
+        Map<String, String> derivedPasswords = new LinkedHashMap<>();
+        Map<String, Map<EncryptionType, EncryptionKey>> keys = new LinkedHashMap<>();
+
+        for ( Map.Entry<String, String> userPassword : userPasswords.entrySet() )
+        {
+            if ( userPassword.getValue().equalsIgnoreCase( "randomKey" ) )
+            {
+                keys.put( userPassword.getKey(), generateKeys( userPassword.getKey(), userPassword.getValue() ) );
+            }
+            else
+            {
+                derivedPasswords.put( userPassword.getKey(), userPassword.getValue() );
+            }
+        }
+
+        keys.putAll( KerberosKeyFactory.getKerberosKeys( derivedPasswords, encryptionTypes, cryptoPool ) );
+
+        return keys;
+    }
+
     /**
      * A ModifyContext used to store the changes made to the original context. This
      * is used while processing a ModifyOperation and will be injected in the
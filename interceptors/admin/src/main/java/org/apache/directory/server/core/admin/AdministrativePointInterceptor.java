@@ -82,6 +82,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -227,6 +228,36 @@ public class AdministrativePointInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Store an AP in one of the AP caches. We can't have two APs for the same role
+     * on the same entry.
+     */
+    private static <N> void addAP( CopyOnWriteDnTree<N> apCache, Dn dn, N ap ) throws LdapException
+    {
+        if ( apCache.getElement( dn ) != null )
+        {
+            String message = "There is already an AdministrativePoint for " + dn;
+            LOG.error( message );
+            throw new LdapUnwillingToPerformException( message );
+        }
+
+        apCache.add( dn, ap );
+    }
+
+
+    /**
+     * Remove an AP from one of the AP caches. The AP is kept as long as some
+     * APs depend on it.
+     */
+    private static <N> void removeAP( CopyOnWriteDnTree<N> apCache, Dn dn )
+    {
+        if ( apCache.getDescendantElements( dn ).isEmpty() )
+        {
+            apCache.remove( dn );
+        }
+    }
+
+
     /**
      * Create the list of AP for a given entry
      */
@@ -236,19 +267,19 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         {
             // The AC AAP
             AccessControlAdministrativePoint acAap = new AccessControlAAP( dn, uuid );
-            directoryService.getAccessControlAPCache().add( dn, acAap );
+            addAP( directoryService.getAccessControlAPCache(), dn, acAap );
 
             // The CA AAP
             CollectiveAttributeAdministrativePoint caAap = new CollectiveAttributeAAP( dn, uuid );
-            directoryService.getCollectiveAttributeAPCache().add( dn, caAap );
+            addAP( directoryService.getCollectiveAttributeAPCache(), dn, caAap );
 
             // The TE AAP
             TriggerExecutionAdministrativePoint teAap = new TriggerExecutionAAP( dn, uuid );
-            directoryService.getTriggerExecutionAPCache().add( dn, teAap );
+            addAP( directoryService.getTriggerExecutionAPCache(), dn, teAap );
 
             // The SS AAP
             SubschemaAdministrativePoint ssAap = new SubschemaAAP( dn, uuid );
-            directoryService.getSubschemaAPCache().add( dn, ssAap );
+            addAP( directoryService.getSubschemaAPCache(), dn, ssAap );
 
             // TODO : Here, we have to update the children, removing any
             // reference to any other underlying AP
@@ -265,7 +296,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isAccessControlSpecificRole( role ) )
             {
                 AccessControlAdministrativePoint sap = new AccessControlSAP( dn, uuid );
-                directoryService.getAccessControlAPCache().add( dn, sap );
+                addAP( directoryService.getAccessControlAPCache(), dn, sap );
 
                 // TODO : Here, we have to update the children, removing any
                 // reference to any other underlying AccessControl IAP or SAP
@@ -276,7 +307,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isAccessControlInnerRole( role ) )
             {
                 AccessControlAdministrativePoint iap = new AccessControlIAP( dn, uuid );
-                directoryService.getAccessControlAPCache().add( dn, iap );
+                addAP( directoryService.getAccessControlAPCache(), dn, iap );
 
                 continue;
             }
@@ -285,7 +316,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isCollectiveAttributeSpecificRole( role ) )
             {
                 CollectiveAttributeAdministrativePoint sap = new CollectiveAttributeSAP( dn, uuid );
-                directoryService.getCollectiveAttributeAPCache().add( dn, sap );
+                addAP( directoryService.getCollectiveAttributeAPCache(), dn, sap );
 
                 // TODO : Here, we have to update the children, removing any
                 // reference to any other underlying CollectiveAttribute IAP or SAP
@@ -296,7 +327,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isCollectiveAttributeInnerRole( role ) )
             {
                 CollectiveAttributeAdministrativePoint iap = new CollectiveAttributeIAP( dn, uuid );
-                directoryService.getCollectiveAttributeAPCache().add( dn, iap );
+                addAP( directoryService.getCollectiveAttributeAPCache(), dn, iap );
 
                 continue;
             }
@@ -305,7 +336,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isSubschemaSpecficRole( role ) )
             {
                 SubschemaAdministrativePoint sap = new SubschemaSAP( dn, uuid );
-                directoryService.getSubschemaAPCache().add( dn, sap );
+                addAP( directoryService.getSubschemaAPCache(), dn, sap );
 
                 // TODO : Here, we have to update the children, removing any
                 // reference to any other underlying Subschema IAP or SAP
@@ -317,7 +348,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isTriggerExecutionSpecificRole( role ) )
             {
                 TriggerExecutionAdministrativePoint sap = new TriggerExecutionSAP( dn, uuid );
-                directoryService.getTriggerExecutionAPCache().add( dn, sap );
+                addAP( directoryService.getTriggerExecutionAPCache(), dn, sap );
 
                 // TODO : Here, we have to update the children, removing any
                 // reference to any other underlying TriggerExecution IAP or SAP
@@ -328,7 +359,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             if ( isTriggerExecutionInnerRole( role ) )
             {
                 TriggerExecutionAdministrativePoint iap = new TriggerExecutionIAP( dn, uuid );
-                directoryService.getTriggerExecutionAPCache().add( dn, iap );
+                addAP( directoryService.getTriggerExecutionAPCache(), dn, iap );
             }
         }
     }
@@ -337,29 +368,29 @@ public class AdministrativePointInterceptor extends BaseInterceptor
     /**
      * Update the cache clones with the added roles
      */
-    private void addRole( String role, Dn dn, String uuid, DnNode<AccessControlAdministrativePoint> acapCache,
-        DnNode<CollectiveAttributeAdministrativePoint> caapCache,
-        DnNode<TriggerExecutionAdministrativePoint> teapCache,
-        DnNode<SubschemaAdministrativePoint> ssapCache ) throws LdapException
+    private void addRole( String role, Dn dn, String uuid, CopyOnWriteDnTree<AccessControlAdministrativePoint> acapCache,
+        CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> caapCache,
+        CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> teapCache,
+        CopyOnWriteDnTree<SubschemaAdministrativePoint> ssapCache ) throws LdapException
     {
         // Deal with Autonomous AP : create the 4 associated SAP/AAP
         if ( isAutonomousAreaRole( role ) )
         {
             // The AC AAP
             AccessControlAdministrativePoint acAap = new AccessControlAAP( dn, uuid );
-            acapCache.add( dn, acAap );
+            addAP( acapCache, dn, acAap );
 
             // The CA AAP
             CollectiveAttributeAdministrativePoint caAap = new CollectiveAttributeAAP( dn, uuid );
-            caapCache.add( dn, caAap );
+            addAP( caapCache, dn, caAap );
 
             // The TE AAP
             TriggerExecutionAdministrativePoint teAap = new TriggerExecutionAAP( dn, uuid );
-            teapCache.add( dn, teAap );
+            addAP( teapCache, dn, teAap );
 
             // The SS AAP
             SubschemaAdministrativePoint ssAap = new SubschemaAAP( dn, uuid );
-            ssapCache.add( dn, ssAap );
+            addAP( ssapCache, dn, ssAap );
 
             // If it's an AAP, we can get out immediately
             return;
@@ -369,7 +400,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isAccessControlSpecificRole( role ) )
         {
             AccessControlAdministrativePoint sap = new AccessControlSAP( dn, uuid );
-            acapCache.add( dn, sap );
+            addAP( acapCache, dn, sap );
 
             return;
         }
@@ -377,7 +408,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isAccessControlInnerRole( role ) )
         {
             AccessControlAdministrativePoint iap = new AccessControlIAP( dn, uuid );
-            acapCache.add( dn, iap );
+            addAP( acapCache, dn, iap );
 
             return;
         }
@@ -386,7 +417,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isCollectiveAttributeSpecificRole( role ) )
         {
             CollectiveAttributeAdministrativePoint sap = new CollectiveAttributeSAP( dn, uuid );
-            caapCache.add( dn, sap );
+            addAP( caapCache, dn, sap );
 
             return;
         }
@@ -394,7 +425,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isCollectiveAttributeInnerRole( role ) )
         {
             CollectiveAttributeAdministrativePoint iap = new CollectiveAttributeIAP( dn, uuid );
-            caapCache.add( dn, iap );
+            addAP( caapCache, dn, iap );
 
             return;
         }
@@ -403,7 +434,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isSubschemaSpecficRole( role ) )
         {
             SubschemaAdministrativePoint sap = new SubschemaSAP( dn, uuid );
-            ssapCache.add( dn, sap );
+            addAP( ssapCache, dn, sap );
 
             return;
         }
@@ -412,7 +443,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isTriggerExecutionSpecificRole( role ) )
         {
             TriggerExecutionAdministrativePoint sap = new TriggerExecutionSAP( dn, uuid );
-            teapCache.add( dn, sap );
+            addAP( teapCache, dn, sap );
 
             return;
         }
@@ -420,7 +451,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         if ( isTriggerExecutionInnerRole( role ) )
         {
             TriggerExecutionAdministrativePoint iap = new TriggerExecutionIAP( dn, uuid );
-            teapCache.add( dn, iap );
+            addAP( teapCache, dn, iap );
         }
     }
 
@@ -428,25 +459,25 @@ public class AdministrativePointInterceptor extends BaseInterceptor
     /**
      * Update the cache clones with the added roles
      */
-    private void delRole( String role, Dn dn, String uuid, DnNode<AccessControlAdministrativePoint> acapCache,
-        DnNode<CollectiveAttributeAdministrativePoint> caapCache,
-        DnNode<TriggerExecutionAdministrativePoint> teapCache,
-        DnNode<SubschemaAdministrativePoint> ssapCache ) throws LdapException
+    private void delRole( String role, Dn dn, String uuid, CopyOnWriteDnTree<AccessControlAdministrativePoint> acapCache,
+        CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> caapCache,
+        CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> teapCache,
+        CopyOnWriteDnTree<SubschemaAdministrativePoint> ssapCache ) throws LdapException
     {
         // Deal with Autonomous AP : remove the 4 associated SAP/AAP
         if ( isAutonomousAreaRole( role ) )
         {
             // The AC AAP
-            acapCache.remove( dn );
+            removeAP( acapCache, dn );
 
             // The CA AAP
-            caapCache.remove( dn );
+            removeAP( caapCache, dn );
 
             // The TE AAP
-            teapCache.remove( dn );
+            removeAP( teapCache, dn );
 
             // The SS AAP
-            ssapCache.remove( dn );
+            removeAP( ssapCache, dn );
 
             return;
         }
@@ -454,7 +485,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         // Deal with AccessControl AP
         if ( isAccessControlSpecificRole( role ) || isAccessControlInnerRole( role ) )
         {
-            acapCache.remove( dn );
+            removeAP( acapCache, dn );
 
             return;
         }
@@ -462,7 +493,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         // Deal with CollectiveAttribute AP
         if ( isCollectiveAttributeSpecificRole( role ) || isCollectiveAttributeInnerRole( role ) )
         {
-            caapCache.remove( dn );
+            removeAP( caapCache, dn );
 
             return;
         }
@@ -470,7 +501,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         // Deal with SubSchema AP
         if ( isSubschemaSpecficRole( role ) )
         {
-            ssapCache.remove( dn );
+            removeAP( ssapCache, dn );
 
             return;
         }
@@ -478,7 +509,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         // Deal with TriggerExecution AP
         if ( isTriggerExecutionSpecificRole( role ) || isTriggerExecutionInnerRole( role ) )
         {
-            teapCache.remove( dn );
+            removeAP( teapCache, dn );
         }
     }
 
@@ -673,9 +704,9 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             // the children IAPs will depend on this parent.
 
             // Process the ACs
-            DnNode<AccessControlAdministrativePoint> acAps = directoryService.getAccessControlAPCache();
+            CopyOnWriteDnTree<AccessControlAdministrativePoint> acAps = directoryService.getAccessControlAPCache();
 
-            if ( !acAps.hasParent( dn ) )
+            if ( !acAps.hasParentElement( dn ) )
             {
                 // No parent, check for any IAP
                 List<AccessControlAdministrativePoint> children = acAps.getDescendantElements( dn );
@@ -694,9 +725,9 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             }
 
             // Process the CAs
-            DnNode<CollectiveAttributeAdministrativePoint> caAps = directoryService.getCollectiveAttributeAPCache();
+            CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> caAps = directoryService.getCollectiveAttributeAPCache();
 
-            if ( !acAps.hasParent( dn ) )
+            if ( !acAps.hasParentElement( dn ) )
             {
                 // No parent, check for any IAP
                 List<CollectiveAttributeAdministrativePoint> children = caAps.getDescendantElements( dn );
@@ -715,9 +746,9 @@ public class AdministrativePointInterceptor extends BaseInterceptor
             }
 
             // Process the TEs
-            DnNode<TriggerExecutionAdministrativePoint> teAps = directoryService.getTriggerExecutionAPCache();
+            CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> teAps = directoryService.getTriggerExecutionAPCache();
 
-            if ( !acAps.hasParent( dn ) )
+            if ( !acAps.hasParentElement( dn ) )
             {
                 // No parent, check for any IAP
                 List<TriggerExecutionAdministrativePoint> children = teAps.getDescendantElements( dn );
@@ -1061,11 +1092,11 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         // Check for the AC role
         if ( isAccessControlInnerRole( role ) )
         {
-            DnNode<AccessControlAdministrativePoint> acCache = directoryService.getAccessControlAPCache();
+            CopyOnWriteDnTree<AccessControlAdministrativePoint> acCache = directoryService.getAccessControlAPCache();
 
-            DnNode<AccessControlAdministrativePoint> parent = acCache.getNode( dn );
+            boolean hasAP = acCache.hasParentElement( dn );
 
-            if ( parent == null )
+            if ( !hasAP )
             {
                 // We don't have any AC administrativePoint in the tree, this is an error
                 String message = "Cannot add an IAP with no parent : " + adminPoint;
@@ -1075,7 +1106,7 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         }
         else if ( isCollectiveAttributeInnerRole( role ) )
         {
-            DnNode<CollectiveAttributeAdministrativePoint> caCache = directoryService.getCollectiveAttributeAPCache();
+            CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> caCache = directoryService.getCollectiveAttributeAPCache();
 
             boolean hasAP = caCache.hasParentElement( dn );
 
@@ -1089,11 +1120,11 @@ public class AdministrativePointInterceptor extends BaseInterceptor
         }
         else if ( isTriggerExecutionInnerRole( role ) )
         {
-            DnNode<TriggerExecutionAdministrativePoint> caCache = directoryService.getTriggerExecutionAPCache();
+            CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> caCache = directoryService.getTriggerExecutionAPCache();
 
-            DnNode<TriggerExecutionAdministrativePoint> parent = caCache.getNode( dn );
+            boolean hasAP = caCache.hasParentElement( dn );
 
-            if ( parent == null )
+            if ( !hasAP )
             {
                 // We don't have any AC administrativePoint in the tree, this is an error
                 String message = "Cannot add an IAP with no parent : " + adminPoint;
@@ -1342,11 +1373,11 @@ public class AdministrativePointInterceptor extends BaseInterceptor
                 lockWrite();
 
                 // Get the AP caches as we will apply modifications to them
-                DnNode<AccessControlAdministrativePoint> acapCache = directoryService.getAccessControlAPCache();
-                DnNode<CollectiveAttributeAdministrativePoint> caapCache = directoryService
+                CopyOnWriteDnTree<AccessControlAdministrativePoint> acapCache = directoryService.getAccessControlAPCache();
+                CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> caapCache = directoryService
                     .getCollectiveAttributeAPCache();
-                DnNode<TriggerExecutionAdministrativePoint> teapCache = directoryService.getTriggerExecutionAPCache();
-                DnNode<SubschemaAdministrativePoint> ssapCache = directoryService.getSubschemaAPCache();
+                CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> teapCache = directoryService.getTriggerExecutionAPCache();
+                CopyOnWriteDnTree<SubschemaAdministrativePoint> ssapCache = directoryService.getSubschemaAPCache();
 
                 // Loop on the modification to select the AdministrativeRole and process it :
                 // we will create a new AT containing all the roles after having applied the modifications
@@ -182,6 +182,15 @@ public abstract class AbstractAuthenticator implements Authenticator
     }
 
 
+    /**
+     * Does nothing leaving it so subclasses can override.
+     */
+    @Override
+    public void invalidateCaches()
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
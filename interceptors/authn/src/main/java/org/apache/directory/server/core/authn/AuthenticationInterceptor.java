@@ -66,6 +66,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoPermissionException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -595,6 +596,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
             // authentication failed, try the next authenticator
             LOG.info( "Authenticator {} failed to authenticate: {}", authenticator, bindContext.getDn() );
         }
+        catch ( LdapServiceUnavailableException e )
+        {
+            // The server is overloaded : this is not an authentication failure, which
+            // could lock the account
+            throw e;
+        }
         catch ( Exception e )
         {
             // Log other exceptions than LdapAuthenticationException
@@ -603,6 +610,9 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         if ( ppe != null )
         {
+            // The account is locked, or its password has expired
+            invalidateAuthenticatorCaches( bindDn );
+
             if ( isPPolicyReqCtrlPresent )
             {
                 pwdRespCtrl.setPasswordPolicyError( PasswordPolicyErrorEnum.get( ppe.getErrorCode() ) );
@@ -623,6 +633,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( bindContext.getPartition() );
             lookupContext.setTransaction( bindContext.getTransaction() );
+            lookupContext.setReadSet( bindContext.getReadSet() );
             
             userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
         }
@@ -641,6 +652,9 @@ public class AuthenticationInterceptor extends BaseInterceptor
                 LOG.info( "Cannot bind to the server " );
             }
 
+            // The failure may lock the account : forget the credentials verified for it
+            invalidateAuthenticatorCaches( bindDn );
+
             if ( ( policyConfig != null ) && ( userEntry != null ) )
             {
                 Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
@@ -933,6 +947,22 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
     }
 
+
+    /**
+     * Invalidates the caches of all the authenticators. This has to be called when the
+     * password policies are changed.
+     */
+    public void invalidateAuthenticatorCaches()
+    {
+        for ( AuthenticationLevel authMech : authenticatorsMapByType.keySet() )
+        {
+            for ( Authenticator authenticator : getAuthenticators( authMech ) )
+            {
+                authenticator.invalidateCaches();
+            }
+        }
+    }
+
     
     /**
      * {@inheritDoc}
@@ -1082,6 +1112,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
                     SchemaConstants.ALL_ATTRIBUTES_ARRAY );
                 lookupContext.setPartition( modifyContext.getPartition() );
                 lookupContext.setTransaction( modifyContext.getTransaction() );
+                lookupContext.setReadSet( modifyContext.getReadSet() );
                 
                 entry = directoryService.getPartitionNexus().lookup( lookupContext );
 
@@ -1871,6 +1902,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
     public void setPwdPolicies( PpolicyConfigContainer policyContainer )
     {
         this.pwdPolicyContainer = policyContainer;
+        invalidateAuthenticatorCaches();
     }
 
 
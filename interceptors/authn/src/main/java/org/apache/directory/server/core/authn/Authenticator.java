@@ -86,6 +86,13 @@ public interface Authenticator
     void invalidateCache( Dn bindDn );
 
 
+    /**
+     * Callback used to respond to password policy changes by invalidating all the
+     * entries of a password cache if implemented. An empty implementation is sufficient.
+     */
+    void invalidateCaches();
+
+
     /**
      * Performs authentication and returns the principal if succeeded.
      * 
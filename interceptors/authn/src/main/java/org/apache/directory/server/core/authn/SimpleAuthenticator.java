@@ -20,9 +20,16 @@
 package org.apache.directory.server.core.authn;
 
 
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.naming.Context;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -31,7 +38,6 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
@@ -40,8 +46,12 @@ import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyExceptio
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 
 /**
  * A simple {@link Authenticator} that authenticates clear text passwords
@@ -49,7 +59,10 @@ import org.apache.directory.server.i18n.I18n;
  * password is stored with a one-way encryption applied (e.g. SHA), the password
  * is hashed the same way before comparison.
  *
- * We use a cache to speedup authentication, where the Dn/password are stored.
+ * We use a cache to speedup authentication : it keeps, per Dn, a keyed digest of
+ * the last credentials which have been successfully verified, so that hashing them
+ * again can be avoided when the user binds again with the same password. The entry
+ * is always read, so that the password it is compared to is the current one.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -59,25 +72,52 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
     /**
-     * A cache to store passwords. It's a speedup, we will be able to avoid backend lookups.
-     *
-     * Note that the backend also use a cache mechanism, but for performance gain, it's good
-     * to manage a cache here. The main problem is that when a user modify his password, we will
-     * have to update it at three different places :
-     * - in the backend,
-     * - in the partition cache,
-     * - in this cache.
-     *
-     * The update of the backend and partition cache is already correctly handled, so we will
-     * just have to offer an access to refresh the local cache.
-     *
-     * We need to be sure that frequently used passwords be always in cache, and not discarded.
-     * We will use a LRU cache for this purpose.
+     * The credentials which have been successfully verified, per Dn. Comparing the credentials
+     * against a stored password hashed with PKCS5S2, a salted SHA-2 or crypt is costly, comparing
+     * them against a HMAC of the credentials of the last successful bind is not.
      */
-    private final LRUMap credentialCache;
+    private final Cache<String, VerifiedCredentials> verifiedCache;
+
+    /** The number of binds which have found their credentials already verified */
+    private final LongAdder cacheHits = new LongAdder();
+
+    /** The number of binds which had to compare their credentials with the stored passwords */
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /** The key used to digest the verified credentials. It never leaves this instance */
+    private final SecretKeySpec digestKey;
+
+    /** The registry the cache hit rate gauge has been registered in, null if it's not registered */
+    private MetricsRegistry metricsRegistry;
+
+    /** Declare a default for this cache */
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The algorithm used to digest the verified credentials */
+    private static final String DIGEST_ALGORITHM = "HmacSHA256";
 
-    /** Declare a default for this cache. 100 entries seems to be enough */
-    private static final int DEFAULT_CACHE_SIZE = 100;
+    /** The name of the gauge exposing the cache hit rate */
+    public static final String CACHE_HIT_RATE_GAUGE = "authn.simple.cacheHitRate";
+
+
+    /**
+     * The credentials which have been verified against one of the stored passwords.
+     */
+    private static final class VerifiedCredentials
+    {
+        /** The keyed digest of the credentials */
+        private final byte[] credentialsDigest;
+
+        /** The stored password the credentials match */
+        private final byte[] storedPassword;
+
+
+        private VerifiedCredentials( byte[] credentialsDigest, byte[] storedPassword )
+        {
+            this.credentialsDigest = credentialsDigest;
+            this.storedPassword = storedPassword;
+        }
+    }
 
 
     /**
@@ -85,8 +125,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     public SimpleAuthenticator()
     {
-        super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        this( DEFAULT_CACHE_SIZE, Dn.ROOT_DSE );
     }
 
 
@@ -98,8 +137,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     public SimpleAuthenticator( Dn baseDn )
     {
-        super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        this( DEFAULT_CACHE_SIZE, baseDn );
     }
 
 
@@ -109,9 +147,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     public SimpleAuthenticator( int cacheSize )
     {
-        super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
-
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        this( cacheSize, Dn.ROOT_DSE );
     }
 
 
@@ -125,62 +161,124 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        int size = cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE;
+        verifiedCache = Caffeine.newBuilder().maximumSize( size ).build();
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes( key );
+        digestKey = new SecretKeySpec( key, DIGEST_ALGORITHM );
     }
 
 
     /**
-     * Get the password either from cache or from backend.
-     * @param principalDN The Dn from which we want the password
-     * @return A byte array which can be empty if the password was not found
-     * @throws Exception If we have a problem during the lookup operation
+     * Changes the maximum number of verified credentials kept in the cache.
+     *
+     * @param cacheSize the size of the credential cache
      */
-    private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
+    public void setCacheSize( int cacheSize )
     {
-        LdapPrincipal principal = null;
+        long size = cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE;
+        verifiedCache.policy().eviction().ifPresent( eviction -> eviction.setMaximum( size ) );
+    }
+
 
-        // use cache only if pwdpolicy is not enabled
-        if ( !getDirectoryService().isPwdPolicyEnabled() )
+    /**
+     * Exposes the cache hit rate in the metrics. The authenticator may be initialized without
+     * a DirectoryService, when it's configured : the gauge is then registered when it's
+     * initialized again by the AuthenticationInterceptor.
+     */
+    @Override
+    protected void doInit()
+    {
+        unregisterGauge();
+
+        DirectoryService directoryService = getDirectoryService();
+
+        if ( ( directoryService != null ) && ( directoryService.getMetricsRegistry() != null ) )
         {
-            synchronized ( credentialCache )
-            {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn() );
-            }
+            metricsRegistry = directoryService.getMetricsRegistry();
+            metricsRegistry.registerGauge( CACHE_HIT_RATE_GAUGE, this::getCacheHitRate );
         }
+    }
+
 
-        byte[][] storedPasswords;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy()
+    {
+        unregisterGauge();
+    }
 
-        if ( principal == null )
+
+    private void unregisterGauge()
+    {
+        if ( metricsRegistry != null )
         {
-            // Not found in the cache
-            // Get the user password from the backend
-            storedPasswords = lookupUserPassword( bindContext );
-
-            // Deal with the special case where the user didn't enter a password
-            // We will compare the empty array with the credentials. Sometime,
-            // a user does not set a password. This is bad, but there is nothing
-            // we can do against that, except education ...
-            if ( storedPasswords == null )
-            {
-                storedPasswords = new byte[][]
-                    {};
-            }
+            metricsRegistry.unregisterGauge( CACHE_HIT_RATE_GAUGE );
+            metricsRegistry = null;
+        }
+    }
 
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
 
-            // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
-            {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
-            }
+    /**
+     * @return the number of binds which have found their credentials already verified
+     */
+    public long getCacheHitCount()
+    {
+        return cacheHits.sum();
+    }
+
+
+    /**
+     * @return the number of binds which had to compare their credentials with the stored passwords
+     */
+    public long getCacheMissCount()
+    {
+        return cacheMisses.sum();
+    }
+
+
+    /**
+     * @return the ratio of binds which have found their credentials already verified, 1.0 if
+     * there was no bind yet
+     */
+    public double getCacheHitRate()
+    {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+
+        return total == 0L ? 1.0d : ( double ) hits / total;
+    }
+
+
+    /**
+     * Get the password from the backend. The entry is read on each bind, as the
+     * following interceptors expect it in the bind context.
+     * @param principalDN The Dn from which we want the password
+     * @return A byte array which can be empty if the password was not found
+     * @throws Exception If we have a problem during the lookup operation
+     */
+    private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
+    {
+        byte[][] storedPasswords = lookupUserPassword( bindContext );
+
+        // Deal with the special case where the user didn't enter a password
+        // We will compare the empty array with the credentials. Sometime,
+        // a user does not set a password. This is bad, but there is nothing
+        // we can do against that, except education ...
+        if ( storedPasswords == null )
+        {
+            storedPasswords = new byte[][]
+                {};
         }
 
+        // Each bind gets its own principal, as the addresses are set on it
+        LdapPrincipal principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
+
         return principal;
     }
 
@@ -220,24 +318,33 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             ppe = e;
         }
 
-        // Now, compare the passwords.
-        for ( byte[] storedPassword : storedPasswords )
+        // Now, compare the passwords, starting with the ones we have already verified
+        String normName = bindContext.getDn().getNormName();
+        byte[] credentialsDigest = digest( credentials );
+
+        if ( isVerified( normName, credentialsDigest, storedPasswords ) )
+        {
+            cacheHits.increment();
+
+            return authenticated( bindContext, principal, ppe );
+        }
+
+        cacheMisses.increment();
+
+        // The hash comparison is done on the password hash executor, to bound the number of
+        // threads hashing at the same time
+        int matching = getDirectoryService().getPasswordHashExecutor().findMatchingPassword( credentials,
+            storedPasswords );
+
+        if ( matching >= 0 )
         {
-            if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+            if ( credentialsDigest != null )
             {
-                if ( ppe != null )
-                {
-                    LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
-                    throw ppe;
-                }
-
-                if ( IS_DEBUG )
-                {
-                    LOG.debug( "{} Authenticated", bindContext.getDn() );
-                }
-
-                return principal;
+                verifiedCache.put( normName, new VerifiedCredentials( credentialsDigest,
+                    storedPasswords[matching] ) );
             }
+
+            return authenticated( bindContext, principal, ppe );
         }
 
         // Bad password ...
@@ -247,6 +354,79 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     }
 
 
+    private LdapPrincipal authenticated( BindOperationContext bindContext, LdapPrincipal principal,
+        PasswordPolicyException ppe ) throws PasswordPolicyException
+    {
+        if ( ppe != null )
+        {
+            LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
+            throw ppe;
+        }
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "{} Authenticated", bindContext.getDn() );
+        }
+
+        return principal;
+    }
+
+
+    /**
+     * Tells if the given credentials are the ones we have already verified for this Dn, and if
+     * the stored password they have been verified against is still one of the user passwords.
+     */
+    private boolean isVerified( String normName, byte[] credentialsDigest, byte[][] storedPasswords )
+    {
+        VerifiedCredentials verified = verifiedCache.getIfPresent( normName );
+
+        if ( ( verified == null ) || ( credentialsDigest == null )
+            || !MessageDigest.isEqual( verified.credentialsDigest, credentialsDigest ) )
+        {
+            return false;
+        }
+
+        for ( byte[] storedPassword : storedPasswords )
+        {
+            if ( Arrays.equals( verified.storedPassword, storedPassword ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Computes the keyed digest of the given credentials
+     *
+     * @param credentials the credentials to digest
+     * @return the digest, or null if it can't be computed, in which case the cache is not used
+     */
+    private byte[] digest( byte[] credentials )
+    {
+        if ( credentials == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            Mac mac = Mac.getInstance( DIGEST_ALGORITHM );
+            mac.init( digestKey );
+
+            return mac.doFinal( credentials );
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            LOG.warn( "Cannot digest the credentials, the verified credentials cache is not used", gse );
+
+            return null;
+        }
+    }
+
+
     /**
      * Local function which request the password from the backend
      * @param bindContext the Bind operation context
@@ -277,6 +457,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     
                 lookupContext.setPartition( bindContext.getPartition() );
                 lookupContext.setTransaction( bindContext.getTransaction() );
+                lookupContext.setReadSet( bindContext.getReadSet() );
     
                 userEntry = getDirectoryService().getPartitionNexus().lookup( lookupContext );
             }
@@ -337,15 +518,23 @@ public class SimpleAuthenticator extends AbstractAuthenticator
 
 
     /**
-     * Remove the principal form the cache. This is used when the user changes
-     * his password.
+     * Remove the verified credentials of a principal from the cache. This is used
+     * when the user changes his password, or fails to bind.
      */
     @Override
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
-        {
-            credentialCache.remove( bindDn.getNormName() );
-        }
+        verifiedCache.invalidate( bindDn.getNormName() );
+    }
+
+
+    /**
+     * Remove all the verified credentials from the cache. This is used
+     * when the password policies change.
+     */
+    @Override
+    public void invalidateCaches()
+    {
+        verifiedCache.invalidateAll();
     }
 }
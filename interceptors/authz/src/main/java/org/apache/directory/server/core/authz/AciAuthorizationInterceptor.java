@@ -382,6 +382,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( opContext.getPartition() );
             lookupContext.setTransaction( opContext.getTransaction() );
+            lookupContext.setReadSet( opContext.getReadSet() );
 
             originalEntry = directoryService.getPartitionNexus().lookup( lookupContext );
         }
@@ -468,6 +469,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( opContext.getPartition() );
         lookupContext.setTransaction( opContext.getTransaction() );
+        lookupContext.setReadSet( opContext.getReadSet() );
 
         Entry administrativeEntry = ( ( ClonedServerEntry ) directoryService.getPartitionNexus().lookup( lookupContext ) )
             .getOriginalEntry();
@@ -765,6 +767,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( hasEntryContext.getPartition() );
         lookupContext.setTransaction( hasEntryContext.getTransaction() );
+        lookupContext.setReadSet( hasEntryContext.getReadSet() );
 
         Entry entry = directoryService.getPartitionNexus().lookup( lookupContext );
 
@@ -1036,6 +1039,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( moveContext.getPartition() );
         lookupContext.setTransaction( moveContext.getTransaction() );
+        lookupContext.setReadSet( moveContext.getReadSet() );
 
         Entry importedEntry = directoryService.getPartitionNexus().lookup( lookupContext );
 
@@ -1136,6 +1140,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( moveAndRenameContext.getPartition() );
         lookupContext.setTransaction( moveAndRenameContext.getTransaction() );
+        lookupContext.setReadSet( moveAndRenameContext.getReadSet() );
 
         Entry importedEntry = directoryService.getPartitionNexus().lookup( lookupContext );
 
@@ -128,6 +128,7 @@ public class ACDFEngine
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( aciContext.getOperationContext().getPartition() );
         lookupContext.setTransaction( aciContext.getOperationContext().getTransaction() );
+        lookupContext.setReadSet( aciContext.getOperationContext().getReadSet() );
         
         Entry userEntry = session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
 
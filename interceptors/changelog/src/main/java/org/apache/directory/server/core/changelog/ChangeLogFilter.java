@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+
+
+/**
+ * A filter applied by a {@link FileChangeLogCursor} on the revisions it reads. The
+ * filter is applied at three levels, from the cheapest to the most expensive : a whole
+ * segment can be skipped, then a record can be rejected using its header, and last,
+ * the deserialized event can be checked.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+interface ChangeLogFilter
+{
+    /** A filter accepting all the revisions */
+    ChangeLogFilter ALL = new ChangeLogFilter()
+    {
+    };
+
+
+    /**
+     * Tells if a segment may contain some accepted revisions.
+     *
+     * @param segment The segment
+     * @return <code>false</code> if the segment can be skipped
+     */
+    default boolean accept( ChangeLogSegment segment )
+    {
+        return true;
+    }
+
+
+    /**
+     * Tells if a record may be accepted, using only its header.
+     *
+     * @param record The record
+     * @return <code>false</code> if the record is rejected
+     * @throws LdapException If the record can't be checked
+     */
+    default boolean accept( ChangeLogRecord record ) throws LdapException
+    {
+        return true;
+    }
+
+
+    /**
+     * Tells if an event is accepted.
+     *
+     * @param event The event
+     * @return <code>true</code> if the event is accepted
+     */
+    default boolean accept( ChangeLogEvent event )
+    {
+        return true;
+    }
+
+
+    /**
+     * Tells if an event is accepted, knowing the header of the record it has been read from.
+     *
+     * @param record The record
+     * @param event The event
+     * @return <code>true</code> if the event is accepted
+     * @throws LdapException If the event can't be checked
+     */
+    default boolean accept( ChangeLogRecord record, ChangeLogEvent event ) throws LdapException
+    {
+        return accept( event );
+    }
+}
@@ -399,6 +399,7 @@ public class ChangeLogInterceptor extends BaseInterceptor
             LookupOperationContext lookupContext = new LookupOperationContext( session, dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( opContext.getPartition() );
             lookupContext.setTransaction( opContext.getTransaction() );
+            lookupContext.setReadSet( opContext.getReadSet() );
             
             serverEntry = directoryService.getPartitionNexus().lookup( lookupContext );
         }
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogEventSerializer;
+
+
+/**
+ * A record stored in a {@link ChangeLogSegment}. It contains a small header, which
+ * can be checked without having to deserialize the full {@link ChangeLogEvent}, and the
+ * serialized event :
+ * <pre>
+ * [revision][time][changeType][normalized DN][normalized principal DN][event length][event]
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class ChangeLogRecord
+{
+    /** The record revision */
+    private final long revision;
+
+    /** The time the change has been logged, in milliseconds */
+    private final long time;
+
+    /** The change type */
+    private final ChangeType changeType;
+
+    /** The normalized DN of the modified entry */
+    private final String dn;
+
+    /** The normalized DN of the principal who did the change */
+    private final String principal;
+
+    /** The serialized ChangeLogEvent */
+    private final byte[] event;
+
+
+    private ChangeLogRecord( long revision, long time, ChangeType changeType, String dn, String principal,
+        byte[] event )
+    {
+        this.revision = revision;
+        this.time = time;
+        this.changeType = changeType;
+        this.dn = dn;
+        this.principal = principal;
+        this.event = event;
+    }
+
+
+    /**
+     * Creates a record for a ChangeLogEvent
+     *
+     * @param changeLogEvent The event to store
+     * @param time The time the event has been logged
+     * @return The record
+     * @throws IOException If the event can't be serialized
+     */
+    static ChangeLogRecord create( ChangeLogEvent changeLogEvent, long time ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            ChangeLogEventSerializer.serialize( changeLogEvent, out );
+        }
+
+        Dn entryDn = changeLogEvent.getForwardLdif().getDn();
+        LdapPrincipal committer = changeLogEvent.getCommitterPrincipal();
+        String principalDn = "";
+
+        if ( ( committer != null ) && ( committer.getDn() != null ) )
+        {
+            principalDn = committer.getDn().getNormName();
+        }
+
+        return new ChangeLogRecord( changeLogEvent.getRevision(), time,
+            changeLogEvent.getForwardLdif().getChangeType(), entryDn == null ? "" : entryDn.getNormName(),
+            principalDn, baos.toByteArray() );
+    }
+
+
+    /**
+     * Serializes this record
+     *
+     * @return The serialized record
+     * @throws IOException If the record can't be serialized
+     */
+    byte[] encode() throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( event.length + 128 );
+
+        try ( DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            out.writeLong( revision );
+            out.writeLong( time );
+            out.writeInt( changeType.getChangeType() );
+            out.writeUTF( dn );
+            out.writeUTF( principal );
+            out.writeInt( event.length );
+            out.write( event );
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserializes a record
+     *
+     * @param data The serialized record
+     * @return The record
+     * @throws IOException If the record can't be deserialized
+     */
+    static ChangeLogRecord decode( byte[] data ) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) ) )
+        {
+            long revision = in.readLong();
+            long time = in.readLong();
+            ChangeType changeType = ChangeType.getChangeType( in.readInt() );
+            String dn = in.readUTF();
+            String principal = in.readUTF();
+            byte[] event = new byte[in.readInt()];
+            in.readFully( event );
+
+            return new ChangeLogRecord( revision, time, changeType, dn, principal, event );
+        }
+    }
+
+
+    /**
+     * Deserializes the stored ChangeLogEvent
+     *
+     * @param schemaManager The SchemaManager
+     * @return The ChangeLogEvent
+     * @throws IOException If the event can't be deserialized
+     */
+    ChangeLogEvent toEvent( SchemaManager schemaManager ) throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( event ) ) )
+        {
+            ChangeLogEvent changeLogEvent = ChangeLogEventSerializer.deserialize( schemaManager, in );
+
+            if ( changeLogEvent.getCommitterPrincipal() != null )
+            {
+                changeLogEvent.getCommitterPrincipal().setSchemaManager( schemaManager );
+            }
+
+            return changeLogEvent;
+        }
+    }
+
+
+    /**
+     * Gets the position of the comma separating the RDN from the parent DN in a
+     * normalized DN, or -1 if the DN has no parent.
+     *
+     * @param normDn The normalized DN
+     * @return The separator position
+     */
+    static int parentSeparator( String normDn )
+    {
+        for ( int i = 0; i < normDn.length(); i++ )
+        {
+            char c = normDn.charAt( i );
+
+            if ( c == '\\' )
+            {
+                i++;
+            }
+            else if ( c == ',' )
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * @return The record revision
+     */
+    long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * @return The time the change has been logged
+     */
+    long getTime()
+    {
+        return time;
+    }
+
+
+    /**
+     * @return The change type
+     */
+    ChangeType getChangeType()
+    {
+        return changeType;
+    }
+
+
+    /**
+     * @return The normalized DN of the modified entry
+     */
+    String getDn()
+    {
+        return dn;
+    }
+
+
+    /**
+     * @return The normalized DN of the principal who did the change
+     */
+    String getPrincipal()
+    {
+        return principal;
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A segment of the {@link FileChangeLogStore}. A segment holds a contiguous range of
+ * revisions, and is made of three files :
+ * <ul>
+ *   <li>a <em>.log</em> file, where the records are appended. Each record is stored as
+ *   its length, a CRC32 checksum and the record itself</li>
+ *   <li>a <em>.idx</em> file, containing for each revision the offset of its record in
+ *   the log file and the time it has been logged. As revisions are contiguous, the
+ *   position of a revision in this index is given by <code>revision - firstRevision</code></li>
+ *   <li>a <em>.dnf</em> file, a bloom filter of all the DNs (and their ancestors) that
+ *   have been modified in this segment. It's written when the segment is sealed, and
+ *   allows a search on a subtree to skip all the segments that don't contain any
+ *   change under this subtree.</li>
+ * </ul>
+ *
+ * Only the last segment is writable. Reads are positional, so a segment can be read
+ * concurrently by many cursors while the store is appending into it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class ChangeLogSegment
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ChangeLogSegment.class );
+
+    /** The files extensions */
+    static final String LOG_EXTENSION = ".log";
+    static final String INDEX_EXTENSION = ".idx";
+    static final String DN_FILTER_EXTENSION = ".dnf";
+
+    /** The size of an index element : the record offset and the record time */
+    private static final int INDEX_ELEMENT_SIZE = 16;
+
+    /** The size of a record header : its length and its checksum */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /** The number of longs in the DN bloom filter (64K bits) */
+    private static final int DN_FILTER_SIZE = 1024;
+
+    /** The mask used to get a bit position in the DN bloom filter */
+    private static final int DN_FILTER_MASK = ( DN_FILTER_SIZE * 64 ) - 1;
+
+    /** The first revision stored in this segment */
+    private final long firstRevision;
+
+    /** The segment files */
+    private final File logFile;
+    private final File indexFile;
+    private final File dnFilterFile;
+
+    /** The channels on the log and index files */
+    private FileChannel logChannel;
+    private FileChannel indexChannel;
+
+    /** The number of revisions stored in this segment */
+    private volatile int count;
+
+    /** The current size of the log file */
+    private volatile long logSize;
+
+    /** The time of the first and last revisions */
+    private volatile long firstTime;
+    private volatile long lastTime;
+
+    /** The DN bloom filter */
+    private final long[] dnFilter = new long[DN_FILTER_SIZE];
+
+    /** Tells if the segment has been sealed */
+    private volatile boolean sealed;
+
+
+    private ChangeLogSegment( File directory, long firstRevision )
+    {
+        this.firstRevision = firstRevision;
+        String name = String.format( Locale.ROOT, "%020d", firstRevision );
+        logFile = new File( directory, name + LOG_EXTENSION );
+        indexFile = new File( directory, name + INDEX_EXTENSION );
+        dnFilterFile = new File( directory, name + DN_FILTER_EXTENSION );
+    }
+
+
+    /**
+     * Creates a new empty segment, starting at the given revision
+     *
+     * @param directory The directory containing the segments
+     * @param firstRevision The first revision this segment will contain
+     * @return The created segment
+     * @throws IOException If the segment files can't be created
+     */
+    static ChangeLogSegment create( File directory, long firstRevision ) throws IOException
+    {
+        ChangeLogSegment segment = new ChangeLogSegment( directory, firstRevision );
+        segment.openChannels();
+
+        return segment;
+    }
+
+
+    /**
+     * Opens an existing segment, and recovers it if the last records have not been
+     * completely written.
+     *
+     * @param directory The directory containing the segments
+     * @param firstRevision The first revision this segment contains
+     * @return The opened segment
+     * @throws IOException If the segment can't be read
+     */
+    static ChangeLogSegment open( File directory, long firstRevision ) throws IOException
+    {
+        ChangeLogSegment segment = new ChangeLogSegment( directory, firstRevision );
+        segment.openChannels();
+        segment.recover();
+
+        if ( segment.dnFilterFile.exists() )
+        {
+            segment.loadDnFilter();
+            segment.sealed = true;
+        }
+
+        return segment;
+    }
+
+
+    private void openChannels() throws IOException
+    {
+        logChannel = FileChannel.open( logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE );
+        indexChannel = FileChannel.open( indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE );
+    }
+
+
+    /**
+     * Drops the trailing records which have not been fully written : index elements
+     * pointing to an incomplete or corrupted record, and records which have not been
+     * indexed.
+     */
+    private void recover() throws IOException
+    {
+        long fileSize = logChannel.size();
+        int nbElements = ( int ) ( indexChannel.size() / INDEX_ELEMENT_SIZE );
+
+        while ( nbElements > 0 )
+        {
+            long offset = readIndex( nbElements - 1, 0 );
+
+            if ( isValidRecord( offset, fileSize ) )
+            {
+                break;
+            }
+
+            LOG.warn( I18n.err( I18n.ERR_16005_CORRUPTED_CHANGELOG_SEGMENT, logFile, offset ) );
+            nbElements--;
+        }
+
+        count = nbElements;
+
+        if ( nbElements == 0 )
+        {
+            logSize = 0L;
+        }
+        else
+        {
+            long lastOffset = readIndex( nbElements - 1, 0 );
+            logSize = lastOffset + RECORD_HEADER_SIZE + readInt( lastOffset );
+            firstTime = readIndex( 0, 8 );
+            lastTime = readIndex( nbElements - 1, 8 );
+        }
+
+        indexChannel.truncate( ( long ) nbElements * INDEX_ELEMENT_SIZE );
+        logChannel.truncate( logSize );
+
+        if ( !dnFilterFile.exists() && ( nbElements > 0 ) )
+        {
+            rebuildDnFilter();
+        }
+    }
+
+
+    private boolean isValidRecord( long offset, long fileSize ) throws IOException
+    {
+        if ( ( offset < 0 ) || ( offset + RECORD_HEADER_SIZE > fileSize ) )
+        {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate( RECORD_HEADER_SIZE );
+        readFully( logChannel, header, offset );
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+
+        if ( ( length < 0 ) || ( offset + RECORD_HEADER_SIZE + length > fileSize ) )
+        {
+            return false;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate( length );
+        readFully( logChannel, data, offset + RECORD_HEADER_SIZE );
+
+        return checksum( data.array() ) == crc;
+    }
+
+
+    /**
+     * Appends a record in this segment. This method is not thread safe, only
+     * one thread at a time is allowed to write into the store.
+     *
+     * @param record The record to append
+     * @param data The serialized record
+     * @throws IOException If the record can't be written
+     */
+    void append( ChangeLogRecord record, byte[] data ) throws IOException
+    {
+        long offset = logSize;
+
+        ByteBuffer buffer = ByteBuffer.allocate( RECORD_HEADER_SIZE + data.length );
+        buffer.putInt( data.length );
+        buffer.putInt( checksum( data ) );
+        buffer.put( data );
+        buffer.flip();
+        writeFully( logChannel, buffer, offset );
+
+        ByteBuffer element = ByteBuffer.allocate( INDEX_ELEMENT_SIZE );
+        element.putLong( offset );
+        element.putLong( record.getTime() );
+        element.flip();
+        writeFully( indexChannel, element, ( long ) count * INDEX_ELEMENT_SIZE );
+
+        addToDnFilter( record.getDn() );
+
+        if ( count == 0 )
+        {
+            firstTime = record.getTime();
+        }
+
+        lastTime = record.getTime();
+        logSize = offset + buffer.limit();
+
+        // Last, make the record visible to the readers
+        count++;
+    }
+
+
+    /**
+     * Reads the record stored for a revision
+     *
+     * @param revision The revision to read
+     * @return The record
+     * @throws IOException If the record can't be read
+     */
+    ChangeLogRecord read( long revision ) throws IOException
+    {
+        int position = ( int ) ( revision - firstRevision );
+
+        if ( ( position < 0 ) || ( position >= count ) )
+        {
+            return null;
+        }
+
+        long offset = readIndex( position, 0 );
+        ByteBuffer header = ByteBuffer.allocate( RECORD_HEADER_SIZE );
+        readFully( logChannel, header, offset );
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+
+        ByteBuffer data = ByteBuffer.allocate( length );
+        readFully( logChannel, data, offset + RECORD_HEADER_SIZE );
+
+        if ( checksum( data.array() ) != crc )
+        {
+            throw new IOException( I18n.err( I18n.ERR_16005_CORRUPTED_CHANGELOG_SEGMENT, logFile, offset ) );
+        }
+
+        return ChangeLogRecord.decode( data.array() );
+    }
+
+
+    /**
+     * Finds the last revision in this segment which has been logged at or before
+     * the given time.
+     *
+     * @param time The time we are looking for
+     * @return The revision, or <code>firstRevision - 1</code> if all the revisions are younger
+     * @throws IOException If the index can't be read
+     */
+    long findRevision( long time ) throws IOException
+    {
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+
+            if ( readIndex( middle, 8 ) <= time )
+            {
+                found = middle;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return firstRevision + found;
+    }
+
+
+    /**
+     * Tells if a change may have been done on the given DN, or on one of its
+     * descendants, in this segment. A <code>false</code> value is definitive.
+     *
+     * @param normDn The normalized DN
+     * @return <code>false</code> if no change has been done on this DN or its descendants
+     */
+    boolean mightContain( String normDn )
+    {
+        int hash = normDn.hashCode();
+        int hash2 = mix( hash );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            int bit = ( hash + i * hash2 ) & DN_FILTER_MASK;
+
+            if ( ( dnFilter[bit >>> 6] & ( 1L << bit ) ) == 0L )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Adds a DN and all its ancestors into the DN filter
+     */
+    private void addToDnFilter( String normDn )
+    {
+        if ( normDn == null )
+        {
+            return;
+        }
+
+        String dn = normDn;
+
+        while ( true )
+        {
+            int hash = dn.hashCode();
+            int hash2 = mix( hash );
+
+            for ( int i = 0; i < 3; i++ )
+            {
+                int bit = ( hash + i * hash2 ) & DN_FILTER_MASK;
+                dnFilter[bit >>> 6] |= 1L << bit;
+            }
+
+            int comma = ChangeLogRecord.parentSeparator( dn );
+
+            if ( comma < 0 )
+            {
+                break;
+            }
+
+            dn = dn.substring( comma + 1 );
+        }
+    }
+
+
+    private static int mix( int hash )
+    {
+        int h = hash * 0x9E3779B1;
+
+        return ( h ^ ( h >>> 15 ) ) | 1;
+    }
+
+
+    private void rebuildDnFilter() throws IOException
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            ChangeLogRecord record = read( firstRevision + i );
+            addToDnFilter( record.getDn() );
+        }
+    }
+
+
+    private void loadDnFilter() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap( Files.readAllBytes( dnFilterFile.toPath() ) );
+
+        if ( buffer.remaining() != DN_FILTER_SIZE * 8 )
+        {
+            // Can't trust this file, rebuild the filter
+            rebuildDnFilter();
+            return;
+        }
+
+        for ( int i = 0; i < DN_FILTER_SIZE; i++ )
+        {
+            dnFilter[i] = buffer.getLong();
+        }
+    }
+
+
+    /**
+     * Seals this segment : no more records will be added to it. The files are flushed
+     * on disk, and the DN filter is stored.
+     *
+     * @throws IOException If the segment can't be flushed
+     */
+    void seal() throws IOException
+    {
+        force();
+
+        ByteBuffer buffer = ByteBuffer.allocate( DN_FILTER_SIZE * 8 );
+
+        for ( long bits : dnFilter )
+        {
+            buffer.putLong( bits );
+        }
+
+        Files.write( dnFilterFile.toPath(), buffer.array() );
+        sealed = true;
+    }
+
+
+    /**
+     * Flushes the segment on disk
+     *
+     * @throws IOException If the segment can't be flushed
+     */
+    void force() throws IOException
+    {
+        logChannel.force( false );
+        indexChannel.force( false );
+    }
+
+
+    /**
+     * Closes the segment files
+     *
+     * @throws IOException If the files can't be closed
+     */
+    void close() throws IOException
+    {
+        try
+        {
+            logChannel.close();
+        }
+        finally
+        {
+            indexChannel.close();
+        }
+    }
+
+
+    /**
+     * Closes and deletes the segment files
+     *
+     * @throws IOException If the files can't be deleted
+     */
+    void delete() throws IOException
+    {
+        close();
+
+        for ( File file : new File[]
+            { dnFilterFile, indexFile, logFile } )
+        {
+            if ( file.exists() && !file.delete() )
+            {
+                throw new IOException( I18n.err( I18n.ERR_16004_FILE_CANNOT_BE_DELETED, file.getAbsolutePath() ) );
+            }
+        }
+    }
+
+
+    private long readIndex( int position, int field ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( 8 );
+        readFully( indexChannel, buffer, ( long ) position * INDEX_ELEMENT_SIZE + field );
+        buffer.flip();
+
+        return buffer.getLong();
+    }
+
+
+    private int readInt( long offset ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( 4 );
+        readFully( logChannel, buffer, offset );
+        buffer.flip();
+
+        return buffer.getInt();
+    }
+
+
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        long pos = position;
+
+        while ( buffer.hasRemaining() )
+        {
+            int nbRead = channel.read( buffer, pos );
+
+            if ( nbRead < 0 )
+            {
+                throw new IOException( "Unexpected end of file at position " + pos );
+            }
+
+            pos += nbRead;
+        }
+    }
+
+
+    private static void writeFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        long pos = position;
+
+        while ( buffer.hasRemaining() )
+        {
+            pos += channel.write( buffer, pos );
+        }
+    }
+
+
+    private static int checksum( byte[] data )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( data, 0, data.length );
+
+        return ( int ) crc.getValue();
+    }
+
+
+    /**
+     * @return The first revision stored in this segment
+     */
+    long getFirstRevision()
+    {
+        return firstRevision;
+    }
+
+
+    /**
+     * @return The last revision stored in this segment, or <code>firstRevision - 1</code> if it's empty
+     */
+    long getLastRevision()
+    {
+        return firstRevision + count - 1;
+    }
+
+
+    /**
+     * @return The number of revisions stored in this segment
+     */
+    int getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The size of the log file
+     */
+    long getSize()
+    {
+        return logSize;
+    }
+
+
+    /**
+     * @return The time of the first revision in this segment
+     */
+    long getFirstTime()
+    {
+        return firstTime;
+    }
+
+
+    /**
+     * @return The time of the last revision in this segment
+     */
+    long getLastTime()
+    {
+        return lastTime;
+    }
+
+
+    /**
+     * @return <code>true</code> if this segment does not accept any new record
+     */
+    boolean isSealed()
+    {
+        return sealed;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "ChangeLogSegment[" + firstRevision + ".." + getLastRevision() + ", " + logSize + " bytes"
+            + ( sealed ? ", sealed]" : "]" );
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over a range of revisions stored in a {@link FileChangeLogStore}. The
+ * events are read from the segments as the cursor moves, nothing but the current
+ * event is kept in memory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogCursor extends AbstractCursor<ChangeLogEvent>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The cursor positions */
+    private enum State
+    {
+        BEFORE_FIRST,
+        ON_EVENT,
+        BETWEEN,
+        AFTER_LAST
+    }
+
+    /** The underlying store */
+    private final FileChangeLogStore store;
+
+    /** The lowest revision this cursor can return */
+    private final long startRevision;
+
+    /** The highest revision this cursor can return */
+    private final long endRevision;
+
+    /** The filter to apply on the revisions */
+    private final ChangeLogFilter filter;
+
+    /** Tells if the revisions are returned in ascending order */
+    private final boolean ascending;
+
+    /** The current position, in revision order */
+    private State state;
+
+    /**
+     * The current revision. When the cursor is between two revisions,
+     * it's the revision right before the gap.
+     */
+    private long current;
+
+    /** The current event */
+    private ChangeLogEvent event;
+
+    /** The last segment we have read */
+    private ChangeLogSegment segment;
+
+
+    /**
+     * Creates a new instance of FileChangeLogCursor.
+     *
+     * @param store The store to read
+     * @param startRevision The first revision, inclusive
+     * @param endRevision The last revision, inclusive
+     * @param filter The filter to apply on the revisions
+     * @param ascending Tells if the revisions are returned in ascending order
+     */
+    FileChangeLogCursor( FileChangeLogStore store, long startRevision, long endRevision, ChangeLogFilter filter,
+        boolean ascending )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating FileChangeLogCursor {}", this );
+        }
+
+        this.store = store;
+        this.startRevision = startRevision;
+        this.endRevision = endRevision;
+        this.filter = filter;
+        this.ascending = ascending;
+        this.state = ascending ? State.BEFORE_FIRST : State.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return state == State.ON_EVENT;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( ChangeLogEvent element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        moveBetween( ascending ? element.getRevision() - 1 : element.getRevision() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( ChangeLogEvent element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        moveBetween( ascending ? element.getRevision() : element.getRevision() - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        event = null;
+        state = ascending ? State.BEFORE_FIRST : State.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        event = null;
+        state = ascending ? State.AFTER_LAST : State.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        return ascending ? forward() : backward();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        return ascending ? backward() : forward();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( state == State.ON_EVENT )
+        {
+            return event;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing FileChangeLogCursor {}", this );
+        }
+
+        event = null;
+        segment = null;
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception reason ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing FileChangeLogCursor {}", this );
+        }
+
+        event = null;
+        segment = null;
+        super.close( reason );
+    }
+
+
+    private void moveBetween( long revision )
+    {
+        event = null;
+        current = revision;
+        state = State.BETWEEN;
+    }
+
+
+    /**
+     * Moves to the next accepted revision, in revision order
+     */
+    private boolean forward() throws LdapException, CursorException
+    {
+        long from;
+
+        switch ( state )
+        {
+            case BEFORE_FIRST:
+                from = startRevision;
+                break;
+
+            case ON_EVENT:
+            case BETWEEN:
+                from = current + 1;
+                break;
+
+            case AFTER_LAST:
+                return false;
+
+            default:
+                throw new IllegalStateException( "Unexpected state " + state );
+        }
+
+        long revision = Math.max( from, startRevision );
+
+        while ( revision <= endRevision )
+        {
+            ChangeLogSegment seg = getSegment( revision );
+
+            if ( seg == null )
+            {
+                long oldest = store.getOldestRevision();
+
+                if ( revision < oldest )
+                {
+                    // Purged revisions
+                    revision = oldest;
+                    continue;
+                }
+
+                break;
+            }
+
+            if ( !filter.accept( seg ) )
+            {
+                revision = seg.getLastRevision() + 1;
+                continue;
+            }
+
+            if ( read( seg, revision ) )
+            {
+                return true;
+            }
+
+            revision++;
+        }
+
+        event = null;
+        state = State.AFTER_LAST;
+
+        return false;
+    }
+
+
+    /**
+     * Moves to the previous accepted revision, in revision order
+     */
+    private boolean backward() throws LdapException, CursorException
+    {
+        long from;
+
+        switch ( state )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case ON_EVENT:
+                from = current - 1;
+                break;
+
+            case BETWEEN:
+                from = current;
+                break;
+
+            case AFTER_LAST:
+                from = endRevision;
+                break;
+
+            default:
+                throw new IllegalStateException( "Unexpected state " + state );
+        }
+
+        long revision = Math.min( from, endRevision );
+
+        while ( revision >= startRevision )
+        {
+            ChangeLogSegment seg = getSegment( revision );
+
+            if ( seg == null )
+            {
+                // All the older revisions have been purged
+                break;
+            }
+
+            if ( !filter.accept( seg ) )
+            {
+                revision = seg.getFirstRevision() - 1;
+                continue;
+            }
+
+            if ( read( seg, revision ) )
+            {
+                return true;
+            }
+
+            revision--;
+        }
+
+        event = null;
+        state = State.BEFORE_FIRST;
+
+        return false;
+    }
+
+
+    /**
+     * Reads a revision, and position the cursor on it if it's accepted
+     */
+    private boolean read( ChangeLogSegment seg, long revision ) throws LdapException, CursorException
+    {
+        try
+        {
+            ChangeLogRecord record = seg.read( revision );
+
+            if ( ( record == null ) || !filter.accept( record ) )
+            {
+                return false;
+            }
+
+            ChangeLogEvent candidate = record.toEvent( store.getSchemaManager() );
+
+            if ( !filter.accept( record, candidate ) )
+            {
+                return false;
+            }
+
+            event = candidate;
+            current = revision;
+            state = State.ON_EVENT;
+
+            return true;
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    private ChangeLogSegment getSegment( long revision )
+    {
+        if ( ( segment != null ) && ( revision >= segment.getFirstRevision() )
+            && ( revision <= segment.getLastRevision() ) )
+        {
+            return segment;
+        }
+
+        segment = store.getSegment( revision );
+
+        return segment;
+    }
+}
@@ -0,0 +1,763 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidSearchFilterException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.api.util.GeneralizedTime;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * The {@link ChangeLogSearchEngine} of a {@link FileChangeLogStore}. Revision and
+ * time based lookups use the segments indexes, DN based searches first skip the
+ * segments which don't contain any change under the searched DN, then check the
+ * records header. Only the searches on an AttributeType or an ObjectClass need to
+ * deserialize the events to check them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogSearchEngine implements ChangeLogSearchEngine
+{
+    /** The store we are searching into */
+    private final FileChangeLogStore store;
+
+
+    /**
+     * Creates a new instance of FileChangeLogSearchEngine.
+     *
+     * @param store The store we are searching into
+     */
+    public FileChangeLogSearchEngine( FileChangeLogStore store )
+    {
+        this.store = store;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lookup( String generalizedTime ) throws Exception
+    {
+        long time = new GeneralizedTime( generalizedTime ).getTime();
+
+        for ( ChangeLogSegment segment : store.getDescendingSegments() )
+        {
+            if ( ( segment.getCount() > 0 ) && ( segment.getFirstTime() <= time ) )
+            {
+                return segment.findRevision( time );
+            }
+        }
+
+        return 0L;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent lookup( long revision ) throws Exception
+    {
+        return store.lookup( revision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( RevisionOrder order ) throws Exception
+    {
+        return cursor( 0L, store.getCurrentRevision(), ChangeLogFilter.ALL, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findBefore( long revision, RevisionOrder order ) throws Exception
+    {
+        store.checkRevision( revision );
+
+        return cursor( 0L, revision, ChangeLogFilter.ALL, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findAfter( long revision, RevisionOrder order ) throws Exception
+    {
+        store.checkRevision( revision );
+
+        return cursor( revision, store.getCurrentRevision(), ChangeLogFilter.ALL, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision, RevisionOrder order )
+        throws Exception
+    {
+        store.checkRevision( startRevision );
+        store.checkRevision( endRevision );
+
+        if ( startRevision > endRevision )
+        {
+            throw new IllegalArgumentException( "start revision " + startRevision
+                + " is greater than end revision " + endRevision );
+        }
+
+        return cursor( startRevision, endRevision, ChangeLogFilter.ALL, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( Dn dn, RevisionOrder order ) throws Exception
+    {
+        return find( dn, SearchScope.OBJECT, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( Dn base, SearchScope scope, RevisionOrder order ) throws Exception
+    {
+        return cursor( 0L, store.getCurrentRevision(), new ScopeFilter( base, scope ), order );
+    }
+
+
+    /**
+     * Finds all the ChangeLogEvents done on an entry base and/or it's children/descendants,
+     * after a revision inclusive.
+     *
+     * @param revision the revision number to get the ChangeLogEvents after
+     * @param base the normalized Dn of the entry base to get ChangeLogEvents for
+     * @param scope the scope of the search under the base similar to LDAP search scope
+     * @param order the order in which to return ChangeLogEvents (ordered by revision number)
+     * @return the set of changes that occurred on an entry and/or it's descendants since a revision
+     * @throws Exception if there are failures accessing the store
+     */
+    public Cursor<ChangeLogEvent> findAfter( long revision, Dn base, SearchScope scope, RevisionOrder order )
+        throws Exception
+    {
+        store.checkRevision( revision );
+
+        return cursor( revision, store.getCurrentRevision(), new ScopeFilter( base, scope ), order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( LdapPrincipal principal, RevisionOrder order ) throws Exception
+    {
+        final String principalDn = principal.getDn() == null ? "" : principal.getDn().getNormName();
+
+        return cursor( 0L, store.getCurrentRevision(), new ChangeLogFilter()
+        {
+            @Override
+            public boolean accept( ChangeLogRecord record )
+            {
+                return principalDn.equals( record.getPrincipal() );
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( final ChangeType changeType, RevisionOrder order ) throws Exception
+    {
+        return cursor( 0L, store.getCurrentRevision(), new ChangeLogFilter()
+        {
+            @Override
+            public boolean accept( ChangeLogRecord record )
+            {
+                return record.getChangeType() == changeType;
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( final AttributeType attributeType, RevisionOrder order ) throws Exception
+    {
+        return cursor( 0L, store.getCurrentRevision(), new ChangeLogFilter()
+        {
+            @Override
+            public boolean accept( ChangeLogRecord record )
+            {
+                // Only adds and modifications carry attributes
+                return ( record.getChangeType() == ChangeType.Add )
+                    || ( record.getChangeType() == ChangeType.Modify );
+            }
+
+
+            @Override
+            public boolean accept( ChangeLogEvent event )
+            {
+                return changes( event.getForwardLdif(), attributeType );
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( final ObjectClass objectClass, RevisionOrder order ) throws Exception
+    {
+        return cursor( 0L, store.getCurrentRevision(), new ChangeLogFilter()
+        {
+            @Override
+            public boolean accept( ChangeLogEvent event )
+            {
+                return hasObjectClass( event, objectClass );
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * The ndn, date, revision, changeType and principal assertions are checked on the
+     * records header, so only the events which may match are deserialized.
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( ExprNode filter, RevisionOrder order ) throws Exception
+    {
+        return cursor( 0L, store.getCurrentRevision(), new ExprFilter( compile( filter ) ), order );
+    }
+
+
+    private Cursor<ChangeLogEvent> cursor( long startRevision, long endRevision, ChangeLogFilter filter,
+        RevisionOrder order )
+    {
+        return new FileChangeLogCursor( store, startRevision, endRevision, filter,
+            order.isAscending() );
+    }
+
+
+    /**
+     * Tells if an LDIF change modifies an attribute
+     */
+    private static boolean changes( LdifEntry ldif, AttributeType attributeType )
+    {
+        if ( ldif.isChangeAdd() )
+        {
+            Entry entry = ldif.getEntry();
+
+            if ( entry != null )
+            {
+                for ( Attribute attribute : entry )
+                {
+                    if ( isInstanceOf( attribute, attributeType ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        else if ( ldif.isChangeModify() )
+        {
+            for ( Modification modification : ldif.getModifications() )
+            {
+                if ( isInstanceOf( modification.getAttribute(), attributeType ) )
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Tells if an attribute, which may not be schema aware, is of the given AttributeType
+     */
+    private static boolean isInstanceOf( Attribute attribute, AttributeType attributeType )
+    {
+        if ( attribute == null )
+        {
+            return false;
+        }
+
+        if ( attributeType.equals( attribute.getAttributeType() )
+            || attributeType.getOid().equals( attribute.getId() ) )
+        {
+            return true;
+        }
+
+        for ( String name : attributeType.getNames() )
+        {
+            if ( name.equalsIgnoreCase( attribute.getId() ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Tells if an event has been done on an entry of the given ObjectClass
+     */
+    private static boolean hasObjectClass( ChangeLogEvent event, ObjectClass objectClass )
+    {
+        if ( hasObjectClass( event.getForwardLdif(), objectClass ) )
+        {
+            return true;
+        }
+
+        // The reverse of a delete or a modification may contain the entry's ObjectClasses
+        for ( LdifEntry reverse : event.getReverseLdifs() )
+        {
+            if ( hasObjectClass( reverse, objectClass ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Tells if an LDIF change carries an entry of the given ObjectClass
+     */
+    private static boolean hasObjectClass( LdifEntry ldif, ObjectClass objectClass )
+    {
+        Entry entry = ldif.getEntry();
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        Attribute objectClasses = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( objectClasses == null )
+        {
+            return false;
+        }
+
+        if ( objectClasses.contains( objectClass.getOid() ) )
+        {
+            return true;
+        }
+
+        for ( String name : objectClass.getNames() )
+        {
+            if ( objectClasses.contains( name ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * A filter accepting the changes done on a base DN and/or its descendants
+     */
+    private final class ScopeFilter implements ChangeLogFilter
+    {
+        private final Dn base;
+        private final String baseNormName;
+        private final SearchScope scope;
+
+
+        private ScopeFilter( Dn base, SearchScope scope )
+        {
+            this.base = base;
+            this.baseNormName = base.getNormName();
+            this.scope = scope;
+        }
+
+
+        @Override
+        public boolean accept( ChangeLogSegment segment )
+        {
+            // The filter contains the modified DNs and all their ancestors
+            return baseNormName.isEmpty() || segment.mightContain( baseNormName );
+        }
+
+
+        @Override
+        public boolean accept( ChangeLogRecord record ) throws LdapException
+        {
+            String dn = record.getDn();
+
+            if ( dn.equals( baseNormName ) )
+            {
+                return scope != SearchScope.ONELEVEL;
+            }
+
+            if ( scope == SearchScope.OBJECT )
+            {
+                return false;
+            }
+
+            // Quick check before parsing the DN
+            if ( !baseNormName.isEmpty() && !dn.endsWith( "," + baseNormName ) )
+            {
+                return false;
+            }
+
+            Dn recordDn = new Dn( store.getSchemaManager(), dn );
+
+            if ( scope == SearchScope.ONELEVEL )
+            {
+                return base.equals( recordDn.getParent() );
+            }
+
+            return recordDn.isDescendantOf( base );
+        }
+    }
+
+
+    /**
+     * Compiles a filter into a Condition. Only the filters described in
+     * {@link ChangeLogSearchEngine#find(ExprNode, RevisionOrder)} are accepted.
+     */
+    private Condition compile( ExprNode node ) throws LdapException
+    {
+        if ( node instanceof AndNode )
+        {
+            List<Condition> conditions = compile( ( ( AndNode ) node ).getChildren() );
+
+            return ( record, event ) -> and( conditions, record, event );
+        }
+
+        if ( node instanceof OrNode )
+        {
+            List<Condition> conditions = compile( ( ( OrNode ) node ).getChildren() );
+
+            return ( record, event ) -> or( conditions, record, event );
+        }
+
+        if ( node instanceof NotNode )
+        {
+            Condition condition = compile( ( ( NotNode ) node ).getFirstChild() );
+
+            return ( record, event ) ->
+            {
+                Boolean result = condition.evaluate( record, event );
+
+                return result == null ? null : !result;
+            };
+        }
+
+        if ( node instanceof ScopeNode )
+        {
+            ScopeNode scopeNode = ( ScopeNode ) node;
+            ScopeFilter scopeFilter = new ScopeFilter( scopeNode.getBaseDn(), scopeNode.getScope() );
+
+            return ( record, event ) -> scopeFilter.accept( record );
+        }
+
+        if ( ( node instanceof EqualityNode ) || ( node instanceof GreaterEqNode ) || ( node instanceof LessEqNode ) )
+        {
+            return compile( ( SimpleNode<?> ) node );
+        }
+
+        throw new LdapUnwillingToPerformException( I18n.err( I18n.ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED, node ) );
+    }
+
+
+    private List<Condition> compile( List<ExprNode> nodes ) throws LdapException
+    {
+        List<Condition> conditions = new ArrayList<>( nodes.size() );
+
+        for ( ExprNode child : nodes )
+        {
+            conditions.add( compile( child ) );
+        }
+
+        return conditions;
+    }
+
+
+    private Condition compile( SimpleNode<?> node ) throws LdapException
+    {
+        String attribute = Strings.toLowerCaseAscii( node.getAttribute() );
+        String value = node.getValue().getString();
+        boolean equality = node instanceof EqualityNode;
+        boolean greater = node instanceof GreaterEqNode;
+
+        switch ( attribute )
+        {
+            case "revision":
+                long revision = parseRevision( node, value );
+
+                return ( record, event ) -> compare( record.getRevision(), revision, equality, greater );
+
+            case "date":
+                long time = parseTime( node, value );
+
+                return ( record, event ) -> compare( record.getTime(), time, equality, greater );
+
+            case "ndn":
+                String dn = parseDn( node, value, equality );
+
+                return ( record, event ) -> dn.equals( record.getDn() );
+
+            case "principal":
+                String principal = parseDn( node, value, equality );
+
+                return ( record, event ) -> principal.equals( record.getPrincipal() );
+
+            case "changetype":
+                checkEquality( node, equality );
+
+                return ( record, event ) -> record.getChangeType().name().equalsIgnoreCase( value );
+
+            case "attributetype":
+                checkEquality( node, equality );
+                AttributeType attributeType = store.getSchemaManager().lookupAttributeTypeRegistry( value );
+
+                return ( record, event ) ->
+                {
+                    // Only adds and modifications carry attributes
+                    if ( ( record.getChangeType() != ChangeType.Add )
+                        && ( record.getChangeType() != ChangeType.Modify ) )
+                    {
+                        return false;
+                    }
+
+                    return event == null ? null : changes( event.getForwardLdif(), attributeType );
+                };
+
+            case "objectclass":
+                checkEquality( node, equality );
+                ObjectClass objectClass = store.getSchemaManager().lookupObjectClassRegistry( value );
+
+                return ( record, event ) -> event == null ? null : hasObjectClass( event, objectClass );
+
+            default:
+                throw new LdapUnwillingToPerformException( I18n.err( I18n.ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED,
+                    node ) );
+        }
+    }
+
+
+    private static long parseRevision( ExprNode node, String value ) throws LdapException
+    {
+        try
+        {
+            return Long.parseLong( value );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            throw new LdapInvalidSearchFilterException( I18n.err( I18n.ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED,
+                node ) );
+        }
+    }
+
+
+    private static long parseTime( ExprNode node, String value ) throws LdapException
+    {
+        try
+        {
+            return new GeneralizedTime( value ).getTime();
+        }
+        catch ( ParseException pe )
+        {
+            throw new LdapInvalidSearchFilterException( I18n.err( I18n.ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED,
+                node ) );
+        }
+    }
+
+
+    private String parseDn( ExprNode node, String value, boolean equality ) throws LdapException
+    {
+        checkEquality( node, equality );
+
+        return new Dn( store.getSchemaManager(), value ).getNormName();
+    }
+
+
+    private static void checkEquality( ExprNode node, boolean equality ) throws LdapException
+    {
+        if ( !equality )
+        {
+            throw new LdapUnwillingToPerformException( I18n.err( I18n.ERR_16007_CHANGELOG_FILTER_NOT_SUPPORTED,
+                node ) );
+        }
+    }
+
+
+    private static Boolean compare( long value, long asserted, boolean equality, boolean greater )
+    {
+        if ( equality )
+        {
+            return value == asserted;
+        }
+
+        return greater ? value >= asserted : value <= asserted;
+    }
+
+
+    private static Boolean and( List<Condition> conditions, ChangeLogRecord record, ChangeLogEvent event )
+        throws LdapException
+    {
+        Boolean result = Boolean.TRUE;
+
+        for ( Condition condition : conditions )
+        {
+            Boolean value = condition.evaluate( record, event );
+
+            if ( value == null )
+            {
+                result = null;
+            }
+            else if ( !value )
+            {
+                return Boolean.FALSE;
+            }
+        }
+
+        return result;
+    }
+
+
+    private static Boolean or( List<Condition> conditions, ChangeLogRecord record, ChangeLogEvent event )
+        throws LdapException
+    {
+        Boolean result = Boolean.FALSE;
+
+        for ( Condition condition : conditions )
+        {
+            Boolean value = condition.evaluate( record, event );
+
+            if ( value == null )
+            {
+                result = null;
+            }
+            else if ( value )
+            {
+                return Boolean.TRUE;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * A compiled filter assertion
+     */
+    @FunctionalInterface
+    private interface Condition
+    {
+        /**
+         * Evaluates the assertion on a revision.
+         *
+         * @param record The record header
+         * @param event The event, or null if it has not been read yet
+         * @return The result, or null if it can't be known without the event
+         * @throws LdapException If the revision can't be checked
+         */
+        Boolean evaluate( ChangeLogRecord record, ChangeLogEvent event ) throws LdapException;
+    }
+
+
+    /**
+     * A filter checking a compiled filter expression : the records are rejected
+     * when their header is enough to tell they don't match.
+     */
+    private static final class ExprFilter implements ChangeLogFilter
+    {
+        private final Condition condition;
+
+
+        private ExprFilter( Condition condition )
+        {
+            this.condition = condition;
+        }
+
+
+        @Override
+        public boolean accept( ChangeLogRecord record ) throws LdapException
+        {
+            return condition.evaluate( record, null ) != Boolean.FALSE;
+        }
+
+
+        @Override
+        public boolean accept( ChangeLogRecord record, ChangeLogEvent event ) throws LdapException
+        {
+            return condition.evaluate( record, event ) == Boolean.TRUE;
+        }
+    }
+}
@@ -0,0 +1,876 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.api.util.TimeProvider;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TagSearchEngine;
+import org.apache.directory.server.core.api.changelog.TaggableSearchableChangeLogStore;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A change log store that keeps its events on disk, in append-only segments. Each
+ * segment is indexed by revision and by time, and carries a filter of the DNs it
+ * contains, so that the events can be streamed from the disk without loading the
+ * whole history in memory. The segments older than the retention period, or in
+ * excess of the maximum number of segments, are purged when a new segment is
+ * started, or when the store is synced.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogStore implements TaggableSearchableChangeLogStore
+{
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( FileChangeLogStore.class );
+
+    private static final String REV_FILE = "revision";
+    private static final String TAG_FILE = "tags";
+
+    /** The default name of the directory containing the segments */
+    public static final String DEFAULT_DIRECTORY_NAME = "changelog";
+
+    /** The default maximum size of a segment, in bytes */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** An incremental number giving the current revision */
+    private volatile long currentRevision;
+
+    /** The latest tag */
+    private Tag latest;
+
+    /** A Map of tags and revisions */
+    private final NavigableMap<Long, Tag> tags = new TreeMap<>();
+
+    /** The segments, per first revision */
+    private final NavigableMap<Long, ChangeLogSegment> segments = new ConcurrentSkipListMap<>();
+
+    /** The segment we are appending into */
+    private ChangeLogSegment activeSegment;
+
+    /** The directory containing the segments */
+    private File directory;
+
+    /** The maximum size of a segment, in bytes */
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+
+    /** The time after which a segment can be purged, in milliseconds. 0 means forever */
+    private long retentionPeriod;
+
+    /** The maximum number of segments to keep. 0 means no limit */
+    private int maxSegments;
+
+    /** The DirectoryService */
+    private DirectoryService directoryService;
+
+    private TimeProvider timeProvider = TimeProvider.DEFAULT;
+
+    /** The search engines */
+    private FileChangeLogSearchEngine changeLogSearchEngine;
+    private FileTagSearchEngine tagSearchEngine;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init( DirectoryService service ) throws LdapException
+    {
+        this.directoryService = service;
+        this.timeProvider = service.getTimeProvider();
+
+        if ( directory == null )
+        {
+            directory = new File( service.getInstanceLayout().getLogDirectory(), DEFAULT_DIRECTORY_NAME );
+        }
+
+        try
+        {
+            if ( !directory.exists() && !directory.mkdirs() )
+            {
+                throw new IOException( I18n.err( I18n.ERR_00004_COULD_NOT_CREATE_DIRECTORY, directory ) );
+            }
+
+            loadRevision();
+            loadTags();
+            loadSegments();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+
+        changeLogSearchEngine = new FileChangeLogSearchEngine( this );
+        tagSearchEngine = new FileTagSearchEngine( this );
+    }
+
+
+    private void loadRevision() throws IOException
+    {
+        File revFile = new File( directory, REV_FILE );
+
+        if ( revFile.exists() )
+        {
+            try ( BufferedReader reader = Files.newBufferedReader( revFile.toPath(), StandardCharsets.UTF_8 ) )
+            {
+                String line = reader.readLine();
+                currentRevision = Long.parseLong( line );
+            }
+        }
+    }
+
+
+    private void saveRevision() throws IOException
+    {
+        File revFile = new File( directory, REV_FILE );
+
+        try ( PrintWriter out = new PrintWriter( Files.newBufferedWriter( revFile.toPath(), StandardCharsets.UTF_8 ) ) )
+        {
+            out.println( currentRevision );
+            out.flush();
+        }
+    }
+
+
+    private void loadTags() throws IOException
+    {
+        File tagFile = new File( directory, TAG_FILE );
+
+        if ( tagFile.exists() )
+        {
+            Properties props = new Properties();
+
+            try ( InputStream in = Files.newInputStream( tagFile.toPath() ) )
+            {
+                props.load( in );
+            }
+
+            synchronized ( tags )
+            {
+                tags.clear();
+
+                for ( String key : props.stringPropertyNames() )
+                {
+                    long revision = Long.parseLong( key );
+                    String desc = props.getProperty( key );
+
+                    if ( "null".equals( desc ) )
+                    {
+                        desc = null;
+                    }
+
+                    tags.put( revision, new Tag( revision, desc ) );
+                }
+
+                latest = tags.isEmpty() ? null : tags.lastEntry().getValue();
+            }
+        }
+    }
+
+
+    private void saveTags() throws IOException
+    {
+        File tagFile = new File( directory, TAG_FILE );
+        Properties props = new Properties();
+
+        synchronized ( tags )
+        {
+            for ( Tag tag : tags.values() )
+            {
+                String description = tag.getDescription();
+                props.setProperty( String.valueOf( tag.getRevision() ), description == null ? "null" : description );
+            }
+        }
+
+        try ( OutputStream out = Files.newOutputStream( tagFile.toPath() ) )
+        {
+            props.store( out, null );
+            out.flush();
+        }
+    }
+
+
+    /**
+     * Opens all the segments found in the directory. The last one will be
+     * used to append the new revisions, unless it has been sealed.
+     */
+    private void loadSegments() throws IOException
+    {
+        File[] files = directory.listFiles( ( dir, name ) -> name.endsWith( ChangeLogSegment.LOG_EXTENSION ) );
+
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+            long firstRevision = Long.parseLong( name.substring( 0,
+                name.length() - ChangeLogSegment.LOG_EXTENSION.length() ) );
+            segments.put( firstRevision, ChangeLogSegment.open( directory, firstRevision ) );
+        }
+
+        if ( !segments.isEmpty() )
+        {
+            ChangeLogSegment last = segments.lastEntry().getValue();
+            currentRevision = Math.max( currentRevision, last.getLastRevision() );
+
+            if ( !last.isSealed() )
+            {
+                activeSegment = last;
+            }
+        }
+
+        LOG.debug( "Opened {} changelog segments, current revision is {}", segments.size(), currentRevision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void sync() throws LdapException
+    {
+        try
+        {
+            if ( activeSegment != null )
+            {
+                activeSegment.force();
+            }
+
+            saveRevision();
+            saveTags();
+            purge();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Save the segments, tags and revision on disk, and close the segments
+     */
+    @Override
+    public synchronized void destroy() throws LdapException
+    {
+        try
+        {
+            if ( activeSegment != null )
+            {
+                activeSegment.force();
+            }
+
+            saveRevision();
+            saveTags();
+
+            for ( ChangeLogSegment segment : segments.values() )
+            {
+                segment.close();
+            }
+
+            segments.clear();
+            activeSegment = null;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCurrentRevision()
+    {
+        return currentRevision;
+    }
+
+
+    /**
+     * @return The oldest revision still available in the store
+     */
+    public long getOldestRevision()
+    {
+        Map.Entry<Long, ChangeLogSegment> first = segments.firstEntry();
+
+        if ( first == null )
+        {
+            return currentRevision + 1;
+        }
+
+        return first.getKey();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, LdifEntry reverse ) throws LdapException
+    {
+        List<LdifEntry> reverses = new ArrayList<>( 1 );
+        reverses.add( reverse );
+
+        return log( principal, forward, reverses );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses )
+        throws LdapException
+    {
+        long revision = currentRevision + 1;
+        long time = timeProvider.currentIimeMillis();
+        ChangeLogEvent event = new ChangeLogEvent( revision, DateUtils.getGeneralizedTime( time ), principal,
+            forward, reverses );
+
+        try
+        {
+            ChangeLogRecord record = ChangeLogRecord.create( event, time );
+            byte[] data = record.encode();
+
+            if ( ( activeSegment == null ) || ( activeSegment.getSize() + data.length > maxSegmentSize )
+                && ( activeSegment.getCount() > 0 ) )
+            {
+                roll( revision );
+            }
+
+            activeSegment.append( record, data );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        // Publish the revision once it has been written
+        currentRevision = revision;
+
+        return event;
+    }
+
+
+    /**
+     * Seals the active segment, and starts a new one
+     */
+    private void roll( long firstRevision ) throws IOException
+    {
+        if ( activeSegment != null )
+        {
+            activeSegment.seal();
+        }
+
+        activeSegment = ChangeLogSegment.create( directory, firstRevision );
+        segments.put( firstRevision, activeSegment );
+        purge();
+    }
+
+
+    /**
+     * Removes the segments which are older than the retention period, or
+     * in excess of the maximum number of segments. The active segment is
+     * never removed.
+     */
+    private void purge() throws IOException
+    {
+        long limit = retentionPeriod > 0L ? timeProvider.currentIimeMillis() - retentionPeriod : Long.MIN_VALUE;
+        Iterator<ChangeLogSegment> iterator = segments.values().iterator();
+        int nbSegments = segments.size();
+
+        while ( iterator.hasNext() )
+        {
+            ChangeLogSegment segment = iterator.next();
+
+            if ( segment == activeSegment )
+            {
+                break;
+            }
+
+            boolean tooMany = ( maxSegments > 0 ) && ( nbSegments > maxSegments );
+            boolean tooOld = ( segment.getCount() == 0 ) || ( segment.getLastTime() < limit );
+
+            if ( !tooMany && !tooOld )
+            {
+                break;
+            }
+
+            LOG.debug( "Purging the changelog segment {}", segment );
+            iterator.remove();
+            segment.delete();
+            nbSegments--;
+        }
+    }
+
+
+    /**
+     * Removes all the segments containing only revisions older than the given revision.
+     * The active segment is never removed.
+     *
+     * @param revision The oldest revision to keep
+     * @throws LdapException If the segments can't be removed
+     */
+    public synchronized void truncate( long revision ) throws LdapException
+    {
+        try
+        {
+            Iterator<ChangeLogSegment> iterator = segments.values().iterator();
+
+            while ( iterator.hasNext() )
+            {
+                ChangeLogSegment segment = iterator.next();
+
+                if ( ( segment == activeSegment ) || ( segment.getLastRevision() >= revision ) )
+                {
+                    break;
+                }
+
+                iterator.remove();
+                segment.delete();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent lookup( long revision )
+    {
+        checkRevision( revision );
+
+        ChangeLogSegment segment = getSegment( revision );
+
+        if ( segment == null )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_16006_REVISION_PURGED, revision,
+                getOldestRevision() ) );
+        }
+
+        try
+        {
+            return segment.read( revision ).toEvent( getSchemaManager() );
+        }
+        catch ( IOException ioe )
+        {
+            throw new UncheckedIOException( ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find()
+    {
+        return new FileChangeLogCursor( this, 0L, currentRevision, ChangeLogFilter.ALL, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findBefore( long revision )
+    {
+        checkRevision( revision );
+
+        return new FileChangeLogCursor( this, 0L, revision - 1, ChangeLogFilter.ALL, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findAfter( long revision )
+    {
+        checkRevision( revision );
+
+        return new FileChangeLogCursor( this, revision + 1, currentRevision, ChangeLogFilter.ALL, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision )
+    {
+        checkRevision( startRevision );
+        checkRevision( endRevision );
+
+        if ( startRevision > endRevision )
+        {
+            throw new IllegalArgumentException( "start revision " + startRevision
+                + " is greater than end revision " + endRevision );
+        }
+
+        return new FileChangeLogCursor( this, startRevision, endRevision, ChangeLogFilter.ALL, true );
+    }
+
+
+    /**
+     * Checks that a revision is in the [0, currentRevision] range
+     *
+     * @param revision The revision to check
+     */
+    void checkRevision( long revision )
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_00023_NEGATIVE_REVISION ) );
+        }
+
+        if ( revision > currentRevision )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_16003_REVISION_TOO_HIGH ) );
+        }
+    }
+
+
+    /**
+     * Gets the segment containing a revision
+     *
+     * @param revision The revision
+     * @return The segment, or null if the revision has been purged or does not exist yet
+     */
+    ChangeLogSegment getSegment( long revision )
+    {
+        Map.Entry<Long, ChangeLogSegment> entry = segments.floorEntry( revision );
+
+        if ( ( entry == null ) || ( revision > entry.getValue().getLastRevision() ) )
+        {
+            return null;
+        }
+
+        return entry.getValue();
+    }
+
+
+    /**
+     * @return The segments, ordered by revision
+     */
+    Iterable<ChangeLogSegment> getSegments()
+    {
+        return segments.values();
+    }
+
+
+    /**
+     * @return The segments, in reverse revision order
+     */
+    Iterable<ChangeLogSegment> getDescendingSegments()
+    {
+        return segments.descendingMap().values();
+    }
+
+
+    /**
+     * @return The SchemaManager used to deserialize the events
+     */
+    SchemaManager getSchemaManager()
+    {
+        return directoryService == null ? null : directoryService.getSchemaManager();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag( long revision )
+    {
+        return tag( revision, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag()
+    {
+        return tag( currentRevision, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag( String description )
+    {
+        return tag( currentRevision, description );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag( long revision, String descrition )
+    {
+        synchronized ( tags )
+        {
+            Tag tag = tags.get( revision );
+
+            if ( tag != null )
+            {
+                return tag;
+            }
+
+            latest = new Tag( revision, descrition );
+            tags.put( revision, latest );
+
+            return latest;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag getLatest()
+    {
+        synchronized ( tags )
+        {
+            return latest;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag removeTag( long revision )
+    {
+        synchronized ( tags )
+        {
+            Tag removed = tags.remove( revision );
+
+            if ( ( removed != null ) && removed.equals( latest ) )
+            {
+                latest = tags.isEmpty() ? null : tags.lastEntry().getValue();
+            }
+
+            return removed;
+        }
+    }
+
+
+    /**
+     * @return A copy of the tags, ordered by revision
+     */
+    List<Tag> getTags()
+    {
+        synchronized ( tags )
+        {
+            return new ArrayList<>( tags.values() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogSearchEngine getChangeLogSearchEngine()
+    {
+        return changeLogSearchEngine;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TagSearchEngine getTagSearchEngine()
+    {
+        return tagSearchEngine;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * This store can't be exposed as a partition yet : the changelog can't be
+     * started with this store when it is exposed.
+     */
+    @Override
+    public void createPartition( String partitionSuffix, String revContainerName, String tagContainerName )
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_16008_CHANGELOG_PARTITION_NOT_SUPPORTED,
+            getClass().getSimpleName() ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Partition getPartition()
+    {
+        return null;
+    }
+
+
+    /**
+     * @return The directory containing the segments
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+
+    /**
+     * Sets the directory containing the segments. It must be set before
+     * the store is initialized. Defaults to a <em>changelog</em> directory
+     * in the instance log directory.
+     *
+     * @param directory The directory containing the segments
+     */
+    public void setDirectory( File directory )
+    {
+        this.directory = directory;
+    }
+
+
+    /**
+     * @return The maximum size of a segment, in bytes
+     */
+    public long getMaxSegmentSize()
+    {
+        return maxSegmentSize;
+    }
+
+
+    /**
+     * @param maxSegmentSize The maximum size of a segment, in bytes
+     */
+    public void setMaxSegmentSize( long maxSegmentSize )
+    {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+
+    /**
+     * @return The time after which a segment can be purged, in milliseconds. 0 means forever
+     */
+    public long getRetentionPeriod()
+    {
+        return retentionPeriod;
+    }
+
+
+    /**
+     * @param retentionPeriod The time after which a segment can be purged, in milliseconds. 0 means forever
+     */
+    public void setRetentionPeriod( long retentionPeriod )
+    {
+        this.retentionPeriod = retentionPeriod;
+    }
+
+
+    /**
+     * @return The maximum number of segments to keep. 0 means no limit
+     */
+    public int getMaxSegments()
+    {
+        return maxSegments;
+    }
+
+
+    /**
+     * @param maxSegments The maximum number of segments to keep. 0 means no limit
+     */
+    public void setMaxSegments( int maxSegments )
+    {
+        this.maxSegments = maxSegments;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "FileChangeLogStore\n" );
+        sb.append( "directory : " ).append( directory ).append( '\n' );
+        sb.append( "current revision : " ).append( currentRevision ).append( '\n' );
+        sb.append( "latest tag : " ).append( latest ).append( '\n' );
+
+        for ( ChangeLogSegment segment : segments.values() )
+        {
+            sb.append( "    " ).append( segment ).append( '\n' );
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TagSearchEngine;
+
+
+/**
+ * The {@link TagSearchEngine} of a {@link FileChangeLogStore}. The tags are few,
+ * and kept in memory by the store, so we simply return a copy of them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileTagSearchEngine implements TagSearchEngine
+{
+    /** The store we are searching into */
+    private final FileChangeLogStore store;
+
+
+    /**
+     * Creates a new instance of FileTagSearchEngine.
+     *
+     * @param store The store we are searching into
+     */
+    public FileTagSearchEngine( FileChangeLogStore store )
+    {
+        this.store = store;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag lookup( long revision ) throws Exception
+    {
+        for ( Tag tag : store.getTags() )
+        {
+            if ( tag.getRevision() == revision )
+            {
+                return tag;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( long revision ) throws Exception
+    {
+        return lookup( revision ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tag> find( RevisionOrder order ) throws Exception
+    {
+        return find( 0L, Long.MAX_VALUE, order, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tag> findBefore( long revision, RevisionOrder order ) throws Exception
+    {
+        store.checkRevision( revision );
+
+        return find( 0L, revision, order, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tag> findAfter( long revision, RevisionOrder order ) throws Exception
+    {
+        store.checkRevision( revision );
+
+        return find( revision, Long.MAX_VALUE, order, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tag> find( long startRevision, long endRevision, RevisionOrder order ) throws Exception
+    {
+        return find( startRevision, endRevision, order, true );
+    }
+
+
+    private Cursor<Tag> find( long startRevision, long endRevision, RevisionOrder order, boolean check )
+    {
+        if ( check )
+        {
+            store.checkRevision( startRevision );
+            store.checkRevision( endRevision );
+
+            if ( startRevision > endRevision )
+            {
+                throw new IllegalArgumentException( "start revision " + startRevision
+                    + " is greater than end revision " + endRevision );
+            }
+        }
+
+        List<Tag> selected = new ArrayList<>();
+
+        // The tags are ordered by revision
+        for ( Tag tag : store.getTags() )
+        {
+            if ( ( tag.getRevision() >= startRevision ) && ( tag.getRevision() <= endRevision ) )
+            {
+                selected.add( tag );
+            }
+        }
+
+        if ( !order.isAscending() )
+        {
+            Collections.reverse( selected );
+        }
+
+        return new ListCursor<>( selected );
+    }
+}
@@ -20,9 +20,13 @@
 package org.apache.directory.server.core.collective;
 
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -38,7 +42,6 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaUtils;
-import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -46,9 +49,14 @@ import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -108,6 +116,51 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The CollectiveAttribute search filter */
     private final EntryFilter searchFilter = new CollectiveAttributeFilter();
 
+    /**
+     * The collective attributes of the subentries, indexed by the subentry Dn
+     * as it is stored in the collectiveAttributeSubentries attribute.
+     */
+    private final Map<String, CollectiveAttributeBundle> bundles = new ConcurrentHashMap<>();
+
+    /** Incremented when a subentry changes, so that a bundle read before the change is not kept */
+    private final AtomicLong subentriesGeneration = new AtomicLong();
+
+
+    /**
+     * The collective attributes of a subentry, extracted once and shared by all the
+     * entries the subentry applies to. It is never modified once built.
+     */
+    private static final class CollectiveAttributeBundle
+    {
+        /** The collective attributes */
+        private final Attribute[] attributes;
+
+        /** The OIDs of the collective attributes */
+        private final String[] oids;
+
+
+        private CollectiveAttributeBundle( Entry subentry )
+        {
+            List<Attribute> collectiveAttributes = new ArrayList<>();
+
+            for ( Attribute attribute : subentry.getAttributes() )
+            {
+                if ( attribute.getAttributeType().isCollective() )
+                {
+                    collectiveAttributes.add( attribute.clone() );
+                }
+            }
+
+            attributes = collectiveAttributes.toArray( new Attribute[collectiveAttributes.size()] );
+            oids = new String[attributes.length];
+
+            for ( int i = 0; i < attributes.length; i++ )
+            {
+                oids[i] = attributes[i].getAttributeType().getOid();
+            }
+        }
+    }
+
 
     //-------------------------------------------------------------------------------------
     // Initialization
@@ -135,7 +188,49 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         checkAdd( addContext.getDn(), addContext.getEntry() );
 
-        next( addContext );
+        if ( !isSubentry( addContext ) )
+        {
+            next( addContext );
+
+            return;
+        }
+
+        invalidateBundles();
+
+        try
+        {
+            next( addContext );
+        }
+        finally
+        {
+            invalidateBundles();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        if ( !isSubentry( deleteContext ) )
+        {
+            next( deleteContext );
+
+            return;
+        }
+
+        invalidateBundles();
+
+        try
+        {
+            next( deleteContext );
+        }
+        finally
+        {
+            invalidateBundles();
+        }
     }
 
 
@@ -168,7 +263,101 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         checkModify( modifyContext );
 
-        next( modifyContext );
+        if ( !isSubentry( modifyContext ) )
+        {
+            next( modifyContext );
+
+            return;
+        }
+
+        invalidateBundles();
+
+        try
+        {
+            next( modifyContext );
+        }
+        finally
+        {
+            invalidateBundles();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        if ( !isSubentry( moveContext ) )
+        {
+            next( moveContext );
+
+            return;
+        }
+
+        invalidateBundles();
+
+        try
+        {
+            next( moveContext );
+        }
+        finally
+        {
+            invalidateBundles();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        if ( !isSubentry( moveAndRenameContext ) )
+        {
+            next( moveAndRenameContext );
+
+            return;
+        }
+
+        invalidateBundles();
+
+        try
+        {
+            next( moveAndRenameContext );
+        }
+        finally
+        {
+            invalidateBundles();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        if ( !isSubentry( renameContext ) )
+        {
+            next( renameContext );
+
+            return;
+        }
+
+        invalidateBundles();
+
+        try
+        {
+            next( renameContext );
+        }
+        finally
+        {
+            invalidateBundles();
+        }
     }
 
 
@@ -193,6 +382,89 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     //-------------------------------------------------------------------------------------
     // Helper methods
     //-------------------------------------------------------------------------------------
+    /**
+     * Tells if an operation is applied on a subentry, either a known one or
+     * a subentry being added.
+     */
+    private boolean isSubentry( OperationContext opContext )
+    {
+        if ( directoryService.getSubentryCache().hasSubentry( opContext.getDn() ) )
+        {
+            return true;
+        }
+
+        Entry entry = opContext.getEntry();
+
+        return ( entry != null )
+            && entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC );
+    }
+
+
+    /**
+     * Drops all the bundles when a subentry changes. This is done before and after
+     * the operation, so that a bundle read in between is not kept either.
+     */
+    private void invalidateBundles()
+    {
+        subentriesGeneration.incrementAndGet();
+        bundles.clear();
+    }
+
+
+    /**
+     * Get the collective attributes of a subentry. They are read from the subentry
+     * the first time only, and shared by all the entries it applies to after that.
+     *
+     * @param opContext The operation we are filtering entries for
+     * @param subentryDnStr The subentry Dn, as it is stored in the entry
+     * @return The subentry collective attributes, or null if the subentry does not exist
+     * @throws LdapException If the subentry can't be read
+     */
+    private CollectiveAttributeBundle getBundle( FilteringOperationContext opContext, String subentryDnStr )
+        throws LdapException
+    {
+        CollectiveAttributeBundle bundle = bundles.get( subentryDnStr );
+
+        if ( bundle != null )
+        {
+            return bundle;
+        }
+
+        long generation = subentriesGeneration.get();
+        Dn subentryDn = dnFactory.create( subentryDnStr );
+
+        LOG.debug( "Fetching the subentry {}", subentryDn.getName() );
+
+        LookupOperationContext lookupContext = new LookupOperationContext( opContext.getSession(), subentryDn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        lookupContext.setPartition( opContext.getPartition() );
+        lookupContext.setTransaction( opContext.getTransaction() );
+        lookupContext.setReadSet( opContext.getReadSet() );
+
+        Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+        if ( subentry == null )
+        {
+            return null;
+        }
+
+        bundle = new CollectiveAttributeBundle( subentry );
+
+        // Only keep the bundle if no subentry has changed while we were reading it
+        if ( subentriesGeneration.get() == generation )
+        {
+            bundles.put( subentryDnStr, bundle );
+
+            if ( subentriesGeneration.get() != generation )
+            {
+                bundles.remove( subentryDnStr, bundle );
+            }
+        }
+
+        return bundle;
+    }
+
+
     /**
      * Check if we can add an entry. There are two cases : <br>
      * <ul>
@@ -336,8 +608,6 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     private void addCollectiveAttributes( FilteringOperationContext opContext, Entry entry )
         throws LdapException
     {
-        CoreSession session = opContext.getSession();
-
         Attribute collectiveAttributeSubentries = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
             directoryService.getAtProvider().getCollectiveAttributeSubentries() );
 
@@ -363,7 +633,7 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
          */
         Attribute collectiveExclusions = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
             directoryService.getAtProvider().getCollectiveExclusions() );
-        Set<AttributeType> exclusions = new HashSet<>();
+        Set<String> exclusions = null;
 
         if ( collectiveExclusions != null )
         {
@@ -381,58 +651,42 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
                 return;
             }
 
+            exclusions = new HashSet<>();
+
             for ( Value value : collectiveExclusions )
             {
                 AttributeType attrType = schemaManager.lookupAttributeTypeRegistry( value.getString() );
-                exclusions.add( attrType );
+                exclusions.add( attrType.getOid() );
                 LOG.debug( "Adding {} in the list of excluded collectiveAttributes", attrType.getName() );
             }
         }
 
         /*
-         * For each collective subentry referenced by the entry we lookup the
-         * attributes of the subentry and copy collective attributes from the
-         * subentry into the entry.
+         * For each collective subentry referenced by the entry we copy the
+         * collective attributes of the subentry into the entry. They have
+         * been extracted from the subentry once, and are kept until it changes.
          */
         for ( Value value : collectiveAttributeSubentries )
         {
-            String subentryDnStr = value.getString();
-            Dn subentryDn = dnFactory.create( subentryDnStr );
+            CollectiveAttributeBundle bundle = getBundle( opContext, value.getString() );
 
-            LOG.debug( "Applying subentries {}", subentryDn.getName() );
-
-            /*
-             * TODO - Instead of hitting disk here can't we leverage the
-             * SubentryService to get us cached sub-entries so we're not
-             * wasting time with a lookup here? It is ridiculous to waste
-             * time looking up this sub-entry.
-             */
-
-            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
-                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            lookupContext.setPartition( opContext.getPartition() );
-            lookupContext.setTransaction( opContext.getTransaction() );
-
-            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+            if ( bundle == null )
+            {
+                continue;
+            }
 
-            //LOG.debug( "Fetched the subentry : {}", subentry.getDn().getName() );
+            LOG.debug( "Applying subentries {}", value );
 
-            for ( Attribute attribute : subentry.getAttributes() )
+            for ( int i = 0; i < bundle.attributes.length; i++ )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
-                // Skip the attributes which are not collective
-                if ( !attributeType.isCollective() )
-                {
-                    //LOG.debug( "The {} subentry attribute is not collective", attributeType.getName() );
-                    continue;
-                }
+                Attribute subentryColAttr = bundle.attributes[i];
+                AttributeType attributeType = subentryColAttr.getAttributeType();
 
                 /*
                  * Skip the addition of this collective attribute if it is excluded
                  * in the 'collectiveAttributes' attribute.
                  */
-                if ( exclusions.contains( attributeType ) )
+                if ( ( exclusions != null ) && exclusions.contains( bundle.oids[i] ) )
                 {
                     LOG.debug( "The {} subentry attribute has been removed, it's in the exclusion list",
                         attributeType.getName() );
@@ -450,7 +704,6 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
                     continue;
                 }
 
-                Attribute subentryColAttr = subentry.get( attributeType );
                 Attribute entryColAttr = entry.get( attributeType );
 
                 /*
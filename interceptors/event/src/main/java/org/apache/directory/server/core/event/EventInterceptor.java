@@ -322,6 +322,7 @@ public class EventInterceptor extends BaseInterceptor
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( modifyContext.getPartition() );
         lookupContext.setTransaction( modifyContext.getTransaction() );
+        lookupContext.setReadSet( modifyContext.getReadSet() );
 
         Entry alteredEntry = directoryService.getPartitionNexus().lookup( lookupContext );
         modifyContext.setAlteredEntry( alteredEntry );
@@ -412,6 +413,7 @@ public class EventInterceptor extends BaseInterceptor
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( renameContext.getPartition() );
         lookupContext.setTransaction( renameContext.getTransaction() );
+        lookupContext.setReadSet( renameContext.getReadSet() );
 
         Entry alteredEntry = directoryService.getPartitionNexus().lookup( lookupContext );
         renameContext.setModifiedEntry( alteredEntry );
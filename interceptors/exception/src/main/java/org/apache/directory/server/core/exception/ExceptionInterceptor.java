@@ -157,6 +157,7 @@ public class ExceptionInterceptor extends BaseInterceptor
                     SchemaConstants.ALL_ATTRIBUTES_ARRAY );
                 lookupContext.setPartition( addContext.getPartition() );
                 lookupContext.setTransaction( addContext.getTransaction() );
+                lookupContext.setReadSet( addContext.getReadSet() );
 
                 attrs = directoryService.getPartitionNexus().lookup( lookupContext );
             }
@@ -258,6 +259,7 @@ public class ExceptionInterceptor extends BaseInterceptor
         HasEntryOperationContext hasEntryContext = new HasEntryOperationContext( operationContext.getSession(), newDn );
         hasEntryContext.setPartition( operationContext.getPartition() );
         hasEntryContext.setTransaction( operationContext.getTransaction() );
+        hasEntryContext.setReadSet( operationContext.getReadSet() );
 
         if ( nexus.hasEntry( hasEntryContext ) )
         {
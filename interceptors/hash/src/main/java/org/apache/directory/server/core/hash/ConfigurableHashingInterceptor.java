@@ -31,7 +31,6 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.config.beans.HashInterceptorBean;
@@ -104,7 +103,7 @@ public class ConfigurableHashingInterceptor extends BaseInterceptor
     }
     
     
-    private void includeHashed( Attribute attribute ) throws LdapInvalidAttributeValueException 
+    private void includeHashed( Attribute attribute ) throws LdapException
     {
         if ( attribute == null ) 
         {
@@ -130,7 +129,7 @@ public class ConfigurableHashingInterceptor extends BaseInterceptor
             if ( existingAlgo == null ) 
             {
                 // not already hashed, so hash it
-                values.add( PasswordUtil.createStoragePassword( bytes, algorithm ) );
+                values.add( directoryService.getPasswordHashExecutor().createStoragePassword( bytes, algorithm ) );
             }
             else 
             {
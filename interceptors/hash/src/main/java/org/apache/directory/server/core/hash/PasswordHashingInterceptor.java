@@ -163,7 +163,8 @@ public abstract class PasswordHashingInterceptor extends BaseInterceptor
             // if there exists NO algorithm, then hash the password
             if ( existingAlgo == null )
             {
-                byte[] hashedPassword = PasswordUtil.createStoragePassword( userPassword.getBytes(), algorithm );
+                byte[] hashedPassword = directoryService.getPasswordHashExecutor()
+                    .createStoragePassword( userPassword.getBytes(), algorithm );
 
                 newPwd.add( hashedPassword );
             }
@@ -20,13 +20,18 @@
 package org.apache.directory.server.core.journal;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
@@ -34,16 +39,45 @@ import org.apache.directory.api.ldap.model.ldif.LdifUtils;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.journal.JournalStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * The default Journal Store implementation. It creates a file on disk in which
  * the logs will be appended.
- *  
+ * <br>
+ * The request threads don't write in the file : they push their records in a
+ * lock-free ring buffer, which is drained by a single writer thread. This thread
+ * formats and writes the records by batches, then flushes or syncs the file
+ * depending on the configured {@link JournalDurability}. The file is rotated when
+ * it gets bigger than a given size, or older than a given period.
+ *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
 */
 public class DefaultJournalStore implements JournalStore
 {
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( DefaultJournalStore.class );
+
+    /** The default number of records the ring buffer can hold */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /** The maximum number of records written before the writer is flushed */
+    private static final int MAX_BATCH_SIZE = 512;
+
+    /** The time the writer waits for new records when idle, in nanoseconds */
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos( 10L );
+
+    /** The time a request thread waits when the ring buffer is full, in nanoseconds */
+    private static final long FULL_WAIT = TimeUnit.MICROSECONDS.toNanos( 50L );
+
+    /** The records types */
+    private static final int LOG_RECORD = 0;
+    private static final int ACK_RECORD = 1;
+    private static final int NACK_RECORD = 2;
+    private static final int SYNC_RECORD = 3;
+
     /** The directory where the journal is stored */
     private File workingDirectory;
 
@@ -56,6 +90,67 @@ public class DefaultJournalStore implements JournalStore
     /** The stream used to write data into the journal */
     private Writer writer;
 
+    /** The channel of the journal file, used to sync it */
+    private FileChannel channel;
+
+    /** The time the current journal file has been opened */
+    private long openedTime;
+
+    /** What to do after a batch has been written */
+    private JournalDurability durability = JournalDurability.FLUSH;
+
+    /** The size after which the journal is rotated, in bytes. 0 means never */
+    private long maxFileSize;
+
+    /** The time after which the journal is rotated, in milliseconds. 0 means never */
+    private long rotationPeriod;
+
+    /** The number of records the ring buffer can hold */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /** The records waiting to be written */
+    private JournalRingBuffer<JournalRecord> buffer;
+
+    /** The thread writing the records */
+    private Thread writerThread;
+
+    /** Tells if the store accepts new records */
+    private volatile boolean running;
+
+    /** The number of threads publishing a record. The writer stops only when none is left */
+    private final AtomicInteger publishers = new AtomicInteger();
+
+    /** Set when the writer thread is waiting for new records */
+    private volatile boolean waiting;
+
+    /** The last revision written in the journal */
+    private volatile long currentRevision;
+
+
+    /**
+     * A record waiting to be written in the journal
+     */
+    private static final class JournalRecord
+    {
+        private final int type;
+        private final long revision;
+        private final String principal;
+        private final long timestamp;
+        private final LdifEntry forward;
+        private final CountDownLatch synced;
+
+
+        private JournalRecord( int type, long revision, String principal, LdifEntry forward, CountDownLatch synced )
+        {
+            this.type = type;
+            this.revision = revision;
+            this.principal = principal;
+            this.timestamp = System.currentTimeMillis();
+            this.forward = forward;
+            this.synced = synced;
+        }
+    }
+
 
     /**
      * {@inheritDoc}
@@ -63,9 +158,29 @@ public class DefaultJournalStore implements JournalStore
     @Override
     public void destroy() throws IOException
     {
+        running = false;
+
+        if ( writerThread != null )
+        {
+            // Let the writer drain the buffer before closing the file
+            LockSupport.unpark( writerThread );
+
+            try
+            {
+                writerThread.join();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            writerThread = null;
+        }
+
         if ( writer != null )
         {
             writer.close();
+            writer = null;
         }
     }
 
@@ -90,14 +205,31 @@ public class DefaultJournalStore implements JournalStore
         journal = new File( workingDirectory, fileName );
 
         // The new requests are added at the end of the existing journal
-        writer = new PrintWriter(
-            Files.newBufferedWriter( journal.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND ) );
+        open();
+
+        buffer = new JournalRingBuffer<>( bufferSize );
+        running = true;
+        writerThread = new Thread( this::drain, "journal-writer" );
+        writerThread.setDaemon( true );
+        writerThread.start();
+    }
+
+
+    /**
+     * Opens the journal file, in append mode
+     */
+    private void open() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream( journal, true );
+        channel = out.getChannel();
+        writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ), 64 * 1024 );
+        openedTime = System.currentTimeMillis();
     }
 
 
     /**
      * Stores an event into the journal.
-     * 
+     *
      * @param principal The principal who is logging the change
      * @param revision The operation revision
      * @param forward The change to log
@@ -105,33 +237,72 @@ public class DefaultJournalStore implements JournalStore
     @Override
     public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
     {
-        synchronized ( writer )
-        {
-            try
-            {
-                // Write the LdapPrincipal
-                writer.write( "# principal: " );
-                writer.write( principal.getName() );
-                writer.write( '\n' );
+        return publish( new JournalRecord( LOG_RECORD, revision, principal.getName(), forward, null ) );
+    }
+
 
-                // Write the timestamp
-                writer.write( "# timestamp: " );
-                writer.write( Long.toString( System.currentTimeMillis() ) );
-                writer.write( '\n' );
+    /**
+     * Records a ack for a change
+     *
+     * @param revision The change revision which is acked
+     * @return <code>true</code> if the ack has been queued
+     */
+    @Override
+    public boolean ack( long revision )
+    {
+        return publish( new JournalRecord( ACK_RECORD, revision, null, null, null ) );
+    }
 
-                // Write the revision
-                writer.write( "# revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n" );
 
-                // Write the entry
-                writer.write( LdifUtils.convertToLdif( forward, 80 ) );
-                writer.flush();
-            }
-            catch ( LdapException | IOException e )
+    /**
+     * Records a nack for a change
+     *
+     * @param revision The change revision which is nacked
+     * @return <code>true</code> if the nack has been queued
+     */
+    @Override
+    public boolean nack( long revision )
+    {
+        return publish( new JournalRecord( NACK_RECORD, revision, null, null, null ) );
+    }
+
+
+    /**
+     * Pushes a record in the ring buffer. If the buffer is full, we wait for the
+     * writer to release some slots : the records are never dropped. The records
+     * are rejected once the store is destroyed, or if the writer has stopped.
+     */
+    private boolean publish( JournalRecord record )
+    {
+        // Registered before checking the state : the writer will wait for us to leave
+        publishers.incrementAndGet();
+
+        try
+        {
+            if ( !running )
             {
                 return false;
             }
+
+            while ( !buffer.offer( record ) )
+            {
+                if ( !running )
+                {
+                    return false;
+                }
+
+                LockSupport.unpark( writerThread );
+                LockSupport.parkNanos( this, FULL_WAIT );
+            }
+        }
+        finally
+        {
+            publishers.decrementAndGet();
+        }
+
+        if ( waiting )
+        {
+            LockSupport.unpark( writerThread );
         }
 
         return true;
@@ -139,78 +310,323 @@ public class DefaultJournalStore implements JournalStore
 
 
     /**
-     * Records a ack for a change
-     *
-     * @param revision The change revision which is acked
-     * @return <code>true</code> if the ack has been written
+     * Waits until all the records logged so far have been written, then syncs
+     * the journal file on disk, whatever the configured durability is.
      */
     @Override
-    public boolean ack( long revision )
+    public void sync() throws IOException
     {
-        synchronized ( writer )
+        CountDownLatch synced = new CountDownLatch( 1 );
+
+        if ( !publish( new JournalRecord( SYNC_RECORD, 0L, null, null, synced ) ) )
         {
-            try
+            return;
+        }
+
+        try
+        {
+            while ( !synced.await( 100L, TimeUnit.MILLISECONDS ) )
             {
-                // Write the revision
-                writer.write( "# ack-revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n\n" );
+                if ( ( writerThread == null ) || !writerThread.isAlive() )
+                {
+                    return;
+                }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * The writer thread loop : drains the ring buffer by batches, until the store
+     * is destroyed and all the pending records have been written. If the writer
+     * fails, the store stops accepting records and the pending ones are dropped.
+     */
+    private void drain()
+    {
+        try
+        {
+            writeAll();
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "The journal writer has stopped, the journal {} is not written anymore", journal, t );
+            running = false;
+            dropPending();
+        }
+
+        try
+        {
+            writer.flush();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot flush the journal {} : {}", journal, ioe.getMessage() );
+        }
+    }
 
-                writer.flush();
+
+    /**
+     * Writes the records by batches, until the store is destroyed and all the
+     * pending records have been written.
+     */
+    private void writeAll()
+    {
+        while ( true )
+        {
+            int written = 0;
+
+            while ( written < MAX_BATCH_SIZE )
+            {
+                JournalRecord record = buffer.poll();
+
+                if ( record == null )
+                {
+                    break;
+                }
+
+                written += write( record );
+
+                if ( record.type == SYNC_RECORD )
+                {
+                    // The batch ends with a sync, so that the rotation is checked before the next records
+                    break;
+                }
             }
-            catch ( IOException ioe )
+
+            if ( written > 0 )
             {
-                return false;
+                endBatch();
+            }
+            else if ( buffer.isEmpty() )
+            {
+                if ( !running && ( publishers.get() == 0 ) )
+                {
+                    // No record can be published anymore, but one may have been since we checked
+                    if ( buffer.isEmpty() )
+                    {
+                        break;
+                    }
+
+                    continue;
+                }
+
+                rotateIfNeeded();
+
+                waiting = true;
+
+                if ( buffer.isEmpty() && running )
+                {
+                    LockSupport.parkNanos( this, IDLE_WAIT );
+                }
+
+                waiting = false;
+            }
+            else
+            {
+                // A slot has been claimed but not yet published
+                Thread.yield();
             }
         }
+    }
 
-        return true;
+
+    /**
+     * Drops the records which can't be written anymore, once the publishers have left,
+     * releasing the threads waiting for a sync.
+     */
+    private void dropPending()
+    {
+        int dropped = 0;
+
+        while ( ( publishers.get() > 0 ) || !buffer.isEmpty() )
+        {
+            JournalRecord record = buffer.poll();
+
+            if ( record == null )
+            {
+                Thread.yield();
+                continue;
+            }
+
+            if ( record.synced != null )
+            {
+                record.synced.countDown();
+            }
+            else
+            {
+                dropped++;
+            }
+        }
+
+        if ( dropped > 0 )
+        {
+            LOG.error( "{} records have not been written in the journal {}", dropped, journal );
+        }
     }
 
 
     /**
-     * Records a nack for a change
+     * Writes a record in the journal
      *
-     * @param revision The change revision which is nacked
-     * @return <code>true</code> if the nack has been written
+     * @return The number of records written
      */
-    @Override
-    public boolean nack( long revision )
+    private int write( JournalRecord record )
     {
-        synchronized ( writer )
+        try
         {
-            try
+            switch ( record.type )
             {
-                // Write the revision
-                writer.write( "# nack-revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n\n" );
+                case LOG_RECORD:
+                    // Write the LdapPrincipal
+                    writer.write( "# principal: " );
+                    writer.write( record.principal );
+                    writer.write( '\n' );
+
+                    // Write the timestamp
+                    writer.write( "# timestamp: " );
+                    writer.write( Long.toString( record.timestamp ) );
+                    writer.write( '\n' );
+
+                    // Write the revision
+                    writer.write( "# revision: " );
+                    writer.write( Long.toString( record.revision ) );
+                    writer.write( "\n" );
+
+                    // Write the entry
+                    writer.write( LdifUtils.convertToLdif( record.forward, 80 ) );
+                    currentRevision = Math.max( currentRevision, record.revision );
+
+                    return 1;
 
-                writer.flush();
+                case ACK_RECORD:
+                    writer.write( "# ack-revision: " );
+                    writer.write( Long.toString( record.revision ) );
+                    writer.write( "\n\n" );
+
+                    return 1;
+
+                case NACK_RECORD:
+                    writer.write( "# nack-revision: " );
+                    writer.write( Long.toString( record.revision ) );
+                    writer.write( "\n\n" );
+
+                    return 1;
+
+                case SYNC_RECORD:
+                    writer.flush();
+                    channel.force( false );
+                    record.synced.countDown();
+
+                    return 0;
+
+                default:
+                    throw new IllegalStateException( "Unexpected journal record type " + record.type );
             }
-            catch ( IOException ioe )
+        }
+        catch ( LdapException | IOException | RuntimeException e )
+        {
+            LOG.error( "Cannot write the revision {} in the journal {} : {}", record.revision, journal,
+                e.getMessage() );
+
+            if ( record.synced != null )
             {
-                return false;
+                record.synced.countDown();
             }
+
+            return 0;
         }
+    }
 
-        return true;
+
+    /**
+     * Applies the durability policy once a batch has been written, and
+     * rotates the journal if needed
+     */
+    private void endBatch()
+    {
+        try
+        {
+            switch ( durability )
+            {
+                case FSYNC:
+                    writer.flush();
+                    channel.force( false );
+                    break;
+
+                case FLUSH:
+                    writer.flush();
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot flush the journal {} : {}", journal, ioe.getMessage() );
+        }
+
+        rotateIfNeeded();
     }
 
 
-    @Override
-    public void sync() throws IOException
+    /**
+     * Renames the current journal file with its opening time as a suffix, and
+     * starts a new one, if the current file is too big or too old.
+     */
+    private void rotateIfNeeded()
     {
-        // TODO Auto-generated method stub
+        if ( ( rotationPeriod <= 0L ) && ( maxFileSize <= 0L ) )
+        {
+            return;
+        }
 
+        try
+        {
+            boolean tooOld = ( rotationPeriod > 0L )
+                && ( System.currentTimeMillis() - openedTime >= rotationPeriod );
+            boolean tooBig = ( maxFileSize > 0L ) && ( channel.size() >= maxFileSize );
+
+            if ( ( !tooOld && !tooBig ) || ( channel.size() == 0L ) )
+            {
+                return;
+            }
+
+            writer.flush();
+            channel.force( false );
+            writer.close();
+
+            File rotated = new File( workingDirectory, fileName + "." + openedTime );
+
+            if ( !journal.renameTo( rotated ) )
+            {
+                LOG.error( "Cannot rename the journal {} to {}", journal, rotated );
+            }
+            else
+            {
+                LOG.debug( "The journal has been rotated to {}", rotated );
+            }
+
+            open();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot rotate the journal {} : {}", journal, ioe.getMessage() );
+        }
     }
 
 
+    /**
+     * @return The last revision written in the journal
+     */
     @Override
     public long getCurrentRevision()
     {
-        // TODO Auto-generated method stub
-        return 0;
+        return currentRevision;
     }
 
 
@@ -241,4 +657,79 @@ public class DefaultJournalStore implements JournalStore
     {
         this.workingDirectory = new File( workingDirectoryName );
     }
+
+
+    /**
+     * @return What the writer does after a batch of records has been written
+     */
+    public JournalDurability getDurability()
+    {
+        return durability;
+    }
+
+
+    /**
+     * @param durability What the writer does after a batch of records has been written
+     */
+    public void setDurability( JournalDurability durability )
+    {
+        this.durability = durability;
+    }
+
+
+    /**
+     * @return The size after which the journal is rotated, in bytes. 0 means never
+     */
+    public long getMaxFileSize()
+    {
+        return maxFileSize;
+    }
+
+
+    /**
+     * @param maxFileSize The size after which the journal is rotated, in bytes. 0 means never
+     */
+    public void setMaxFileSize( long maxFileSize )
+    {
+        this.maxFileSize = maxFileSize;
+    }
+
+
+    /**
+     * @return The time after which the journal is rotated, in milliseconds. 0 means never
+     */
+    public long getRotationPeriod()
+    {
+        return rotationPeriod;
+    }
+
+
+    /**
+     * @param rotationPeriod The time after which the journal is rotated, in milliseconds. 0 means never
+     */
+    public void setRotationPeriod( long rotationPeriod )
+    {
+        this.rotationPeriod = rotationPeriod;
+    }
+
+
+    /**
+     * @return The number of records the ring buffer can hold
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+
+    /**
+     * Sets the number of records the ring buffer can hold. It is rounded up
+     * to the next power of two, and must be set before the store is initialized.
+     *
+     * @param bufferSize The number of records the ring buffer can hold
+     */
+    public void setBufferSize( int bufferSize )
+    {
+        this.bufferSize = bufferSize;
+    }
 }
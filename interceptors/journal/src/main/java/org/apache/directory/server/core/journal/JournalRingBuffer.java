@@ -0,0 +1,142 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A bounded, lock-free, multiple producers single consumer ring buffer. The
+ * producers claim a slot by moving the tail forward, then publish their element
+ * in the slot. The consumer only reads a slot once it has been published, and
+ * releases it by moving the head forward.
+ *
+ * @param <E> The type of the stored elements
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class JournalRingBuffer<E>
+{
+    /** The slots */
+    private final AtomicReferenceArray<E> slots;
+
+    /** The mask used to compute a slot index from a sequence */
+    private final int mask;
+
+    /** The next sequence to be claimed by a producer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The next sequence to be read by the consumer */
+    private final AtomicLong head = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of JournalRingBuffer.
+     *
+     * @param capacity The minimal capacity, rounded up to the next power of two
+     */
+    JournalRingBuffer( int capacity )
+    {
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "The capacity must be positive : " + capacity );
+        }
+
+        int size = Integer.highestOneBit( capacity );
+
+        if ( size < capacity )
+        {
+            size <<= 1;
+        }
+
+        slots = new AtomicReferenceArray<>( size );
+        mask = size - 1;
+    }
+
+
+    /**
+     * Adds an element at the end of the buffer. Can be called concurrently.
+     *
+     * @param element The element to add
+     * @return <code>false</code> if the buffer is full
+     */
+    boolean offer( E element )
+    {
+        while ( true )
+        {
+            long sequence = tail.get();
+
+            if ( sequence - head.get() >= slots.length() )
+            {
+                return false;
+            }
+
+            if ( tail.compareAndSet( sequence, sequence + 1 ) )
+            {
+                slots.lazySet( ( int ) sequence & mask, element );
+
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Removes the first element of the buffer. Must only be called by the consumer.
+     *
+     * @return The first element, or null if the buffer is empty or if the first
+     * element has not been published yet
+     */
+    E poll()
+    {
+        long sequence = head.get();
+        int index = ( int ) sequence & mask;
+        E element = slots.get( index );
+
+        if ( element == null )
+        {
+            return null;
+        }
+
+        slots.lazySet( index, null );
+        head.lazySet( sequence + 1 );
+
+        return element;
+    }
+
+
+    /**
+     * @return <code>true</code> if no element has been claimed
+     */
+    boolean isEmpty()
+    {
+        return tail.get() == head.get();
+    }
+
+
+    /**
+     * @return The number of slots of this buffer
+     */
+    int capacity()
+    {
+        return slots.length();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the DefaultJournalStore and its ring buffer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultJournalStoreTest
+{
+    private File workingDirectory;
+
+    private DefaultJournalStore store;
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        String tmpDirPath = System.getProperty( "workingDirectory", System.getProperty( "java.io.tmpdir" ) );
+        workingDirectory = new File( tmpDirPath, "journal-" + System.nanoTime() );
+        workingDirectory.mkdirs();
+
+        store = new DefaultJournalStore();
+        store.setWorkingDirectory( workingDirectory.getAbsolutePath() );
+    }
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+
+        File[] files = workingDirectory.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+
+        workingDirectory.delete();
+    }
+
+
+    private static LdifEntry add( int i ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( "ou=test" + i + ",ou=system" );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "organizationalUnit" );
+        forward.putAttribute( "ou", "test" + i );
+
+        return forward;
+    }
+
+
+    private String content() throws Exception
+    {
+        return new String( Files.readAllBytes( new File( workingDirectory, store.getFileName() ).toPath() ),
+            StandardCharsets.UTF_8 );
+    }
+
+
+    @Test
+    public void testRingBuffer()
+    {
+        JournalRingBuffer<Integer> buffer = new JournalRingBuffer<>( 3 );
+
+        assertEquals( 4, buffer.capacity() );
+        assertTrue( buffer.isEmpty() );
+        assertNull( buffer.poll() );
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertTrue( buffer.offer( i ) );
+        }
+
+        assertFalse( buffer.offer( 4 ) );
+        assertEquals( Integer.valueOf( 0 ), buffer.poll() );
+        assertTrue( buffer.offer( 4 ) );
+
+        for ( int i = 1; i < 5; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), buffer.poll() );
+        }
+
+        assertTrue( buffer.isEmpty() );
+    }
+
+
+    @Test
+    public void testConcurrentLogs() throws Exception
+    {
+        store.setBufferSize( 16 );
+        store.setDurability( JournalDurability.NONE );
+        store.init( null );
+
+        int nbThreads = 4;
+        int nbLogs = 250;
+        List<Thread> threads = new ArrayList<>();
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            final int base = t * nbLogs;
+
+            Thread thread = new Thread( () ->
+            {
+                try
+                {
+                    for ( int i = base; i < base + nbLogs; i++ )
+                    {
+                        assertTrue( store.log( new LdapPrincipal(), i + 1, add( i ) ) );
+                        assertTrue( store.ack( i + 1 ) );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( e );
+                }
+            } );
+
+            threads.add( thread );
+            thread.start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        store.sync();
+
+        String journal = content();
+
+        for ( int i = 1; i <= nbThreads * nbLogs; i++ )
+        {
+            assertTrue( journal.contains( "# revision: " + i + "\n" ), "revision " + i );
+            assertTrue( journal.contains( "# ack-revision: " + i + "\n" ), "ack " + i );
+        }
+
+        assertEquals( nbThreads * nbLogs, store.getCurrentRevision() );
+    }
+
+
+    @Test
+    public void testRotation() throws Exception
+    {
+        store.setMaxFileSize( 1024L );
+        store.setDurability( JournalDurability.FSYNC );
+        store.init( null );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            store.log( new LdapPrincipal(), i + 1, add( i ) );
+            store.sync();
+        }
+
+        store.destroy();
+
+        File[] files = workingDirectory.listFiles();
+        assertTrue( files.length > 1 );
+
+        for ( File file : files )
+        {
+            // The rotation happens when a batch goes over the maximum size
+            assertTrue( file.length() < 2048L, file.getName() );
+        }
+
+        assertFalse( store.log( new LdapPrincipal(), 101, add( 100 ) ) );
+    }
+
+
+    @Test
+    public void testFailingRecord() throws Exception
+    {
+        store.init( null );
+
+        // A record which can't be converted to LDIF does not stop the writer
+        assertTrue( store.log( new LdapPrincipal(), 1, null ) );
+        assertTrue( store.log( new LdapPrincipal(), 2, add( 2 ) ) );
+        store.sync();
+
+        assertTrue( content().contains( "# revision: 2\n" ) );
+        assertEquals( 2, store.getCurrentRevision() );
+    }
+
+
+    @Test
+    public void testNoAcceptedRecordLostOnDestroy() throws Exception
+    {
+        store.setBufferSize( 16 );
+        store.setDurability( JournalDurability.NONE );
+        store.init( null );
+
+        int nbThreads = 4;
+        List<Thread> threads = new ArrayList<>();
+        List<List<Integer>> accepted = new ArrayList<>();
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            final int base = t * 1_000_000;
+            final List<Integer> revisions = new ArrayList<>();
+            accepted.add( revisions );
+
+            Thread thread = new Thread( () ->
+            {
+                try
+                {
+                    for ( int i = base + 1; store.log( new LdapPrincipal(), i, add( i ) ); i++ )
+                    {
+                        revisions.add( i );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( e );
+                }
+            } );
+
+            threads.add( thread );
+            thread.start();
+        }
+
+        Thread.sleep( 100L );
+        store.destroy();
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        String journal = content();
+
+        // Every record the store has accepted has been written
+        for ( List<Integer> revisions : accepted )
+        {
+            for ( int revision : revisions )
+            {
+                assertTrue( journal.contains( "# revision: " + revision + "\n" ), "revision " + revision );
+            }
+        }
+    }
+}
@@ -328,6 +328,7 @@ public class ReferralInterceptor extends BaseInterceptor
             new LookupOperationContext( modifyContext.getSession(), dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( modifyContext.getPartition() );
         lookupContext.setTransaction( modifyContext.getTransaction() );
+        lookupContext.setReadSet( modifyContext.getReadSet() );
 
         Entry newEntry = nexus.lookup( lookupContext );
 
@@ -432,6 +433,7 @@ public class ReferralInterceptor extends BaseInterceptor
                 renameContext.getNewDn(), SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( renameContext.getPartition() );
             lookupContext.setTransaction( renameContext.getTransaction() );
+            lookupContext.setReadSet( renameContext.getReadSet() );
 
             Entry newEntry = nexus.lookup( lookupContext );
 
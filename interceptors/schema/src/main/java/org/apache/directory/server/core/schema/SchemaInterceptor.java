@@ -21,6 +21,7 @@ package org.apache.directory.server.core.schema;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -68,6 +69,7 @@ import org.apache.directory.api.ldap.model.schema.ObjectClass;
 import org.apache.directory.api.ldap.model.schema.ObjectClassTypeEnum;
 import org.apache.directory.api.ldap.model.schema.SyntaxChecker;
 import org.apache.directory.api.ldap.model.schema.UsageEnum;
+import org.apache.directory.api.ldap.model.schema.registries.Registries;
 import org.apache.directory.api.ldap.model.schema.registries.Schema;
 import org.apache.directory.api.ldap.model.schema.syntaxCheckers.OctetStringSyntaxChecker;
 import org.apache.directory.api.util.Strings;
@@ -81,13 +83,16 @@ import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.schema.ValidationPlans.ValidationPlan;
 import org.apache.directory.server.core.shared.SchemaService;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -139,6 +144,9 @@ public class SchemaInterceptor extends BaseInterceptor
     /** A map used to store all the objectClasses allowed attributes (may + must) */
     private Map<String, List<AttributeType>> allowed;
 
+    /** The validation plans, indexed by the normalized set of objectClasses they apply to */
+    private final ValidationPlans validationPlans = new ValidationPlans();
+
 
     /**
      * Creates a new instance of a SchemaInterceptor.
@@ -931,6 +939,58 @@ public class SchemaInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Get the validation plan for a set of ObjectClasses, computing it if it's
+     * the first time we see this combination. The ObjectClasses are checked
+     * when the plan is computed : a combination which is not valid never gets
+     * a plan, and is checked again each time.
+     *
+     * @param dn The entry Dn, for the error messages
+     * @param objectClassAttr The entry ObjectClasses, including their superiors
+     * @return The validation plan
+     * @throws LdapException If the ObjectClasses are conflicting
+     */
+    private ValidationPlan getValidationPlan( Dn dn, Attribute objectClassAttr ) throws LdapException
+    {
+        String key = ValidationPlans.getKey( objectClassAttr );
+        Registries registries = schemaManager.getRegistries();
+
+        ValidationPlan plan = validationPlans.get( key, registries );
+
+        if ( plan != null )
+        {
+            return plan;
+        }
+
+        long generation = validationPlans.getGeneration();
+
+        Set<String> must = getAllMust( objectClassAttr );
+        Set<String> allAllowed = getAllAllowed( objectClassAttr, must );
+
+        List<ObjectClass> ocs = new ArrayList<>();
+        boolean hasExtensibleObject = getObjectClasses( objectClassAttr, ocs );
+
+        // As we now have all the ObjectClasses updated, we have
+        // to check that we don't have conflicting ObjectClasses
+        ValidationPlans.assertObjectClasses( dn, ocs );
+
+        plan = new ValidationPlan( registries, Collections.unmodifiableSet( must ),
+            Collections.unmodifiableSet( allAllowed ), hasExtensibleObject );
+        validationPlans.put( key, plan, generation );
+
+        return plan;
+    }
+
+
+    /**
+     * Tells if an operation on an entry modifies the schema
+     */
+    private boolean isSchemaModification( Dn dn )
+    {
+        return dn.equals( subschemaSubentryDn ) || dn.isDescendantOf( schemaBaseDn );
+    }
+
+
     /**
      * Check that all the attributes exist in the schema for this entry.
      *
@@ -968,26 +1028,18 @@ public class SchemaInterceptor extends BaseInterceptor
             objectClassAttr = new DefaultAttribute( directoryService.getAtProvider().getObjectClass() );
         }
 
-        List<ObjectClass> ocs = new ArrayList<>();
-
         alterObjectClasses( objectClassAttr );
 
-        // Now we can process the MUST and MAY attributes
-        Set<String> must = getAllMust( objectClassAttr );
-        Set<String> allAllowed = getAllAllowed( objectClassAttr, must );
-
-        boolean hasExtensibleObject = getObjectClasses( objectClassAttr, ocs );
-
-        // As we now have all the ObjectClasses updated, we have
-        // to check that we don't have conflicting ObjectClasses
-        assertObjectClasses( dn, ocs );
+        // Now we can process the MUST and MAY attributes. They only depend on the
+        // ObjectClasses, so they are computed once for each combination
+        ValidationPlan plan = getValidationPlan( dn, objectClassAttr );
 
-        assertRequiredAttributesPresent( dn, entry, must );
+        assertRequiredAttributesPresent( dn, entry, plan.must );
         assertNumberOfAttributeValuesValid( entry );
 
-        if ( !hasExtensibleObject )
+        if ( !plan.hasExtensibleObject )
         {
-            assertAllAttributesAllowed( dn, entry, allAllowed );
+            assertAllAttributesAllowed( dn, entry, plan.allowed );
         }
 
         // Check the attributes values and transform them to String if necessary
@@ -1075,62 +1127,75 @@ public class SchemaInterceptor extends BaseInterceptor
     @Override
     public void add( AddOperationContext addContext ) throws LdapException
     {
-        Dn name = addContext.getDn();
-        Entry entry = addContext.getEntry();
-
-        check( name, entry );
+        boolean schemaModification = isSchemaModification( addContext.getDn() );
 
-        // Special checks for the MetaSchema branch
-        if ( name.isDescendantOf( schemaBaseDn ) )
+        try
         {
-            // get the schema name
-            String schemaName = getSchemaName( name );
+            Dn name = addContext.getDn();
+            Entry entry = addContext.getEntry();
 
-            if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.META_SCHEMA_OC ) )
+            check( name, entry );
+
+            // Special checks for the MetaSchema branch
+            if ( name.isDescendantOf( schemaBaseDn ) )
             {
-                next( addContext );
+                // get the schema name
+                String schemaName = getSchemaName( name );
 
-                if ( schemaManager.isSchemaLoaded( schemaName ) )
+                if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.META_SCHEMA_OC ) )
                 {
-                    // Update the OC superiors for each added ObjectClass
-                    computeSuperiors();
+                    next( addContext );
+
+                    if ( schemaManager.isSchemaLoaded( schemaName ) )
+                    {
+                        // Update the OC superiors for each added ObjectClass
+                        computeSuperiors();
+                    }
                 }
-            }
-            else if ( entry.contains( directoryService.getAtProvider().getObjectClass(),
-                SchemaConstants.META_OBJECT_CLASS_OC ) )
-            {
-                // This is an ObjectClass addition
-                checkOcSuperior( addContext.getEntry() );
+                else if ( entry.contains( directoryService.getAtProvider().getObjectClass(),
+                    SchemaConstants.META_OBJECT_CLASS_OC ) )
+                {
+                    // This is an ObjectClass addition
+                    checkOcSuperior( addContext.getEntry() );
 
-                next( addContext );
+                    next( addContext );
 
-                // Update the structures now that the schema element has been added
-                Schema schema = schemaManager.getLoadedSchema( schemaName );
+                    // Update the structures now that the schema element has been added
+                    Schema schema = schemaManager.getLoadedSchema( schemaName );
 
-                if ( ( schema != null ) && schema.isEnabled() )
-                {
-                    Attribute oidAT = entry.get( MetaSchemaConstants.M_OID_AT );
-                    String ocOid = oidAT.getString();
+                    if ( ( schema != null ) && schema.isEnabled() )
+                    {
+                        Attribute oidAT = entry.get( MetaSchemaConstants.M_OID_AT );
+                        String ocOid = oidAT.getString();
 
-                    ObjectClass addedOC = schemaManager.lookupObjectClassRegistry( ocOid );
-                    computeSuperior( addedOC );
+                        ObjectClass addedOC = schemaManager.lookupObjectClassRegistry( ocOid );
+                        computeSuperior( addedOC );
+                    }
                 }
-            }
-            else if ( entry.contains( directoryService.getAtProvider().getObjectClass(),
-                SchemaConstants.META_ATTRIBUTE_TYPE_OC ) )
-            {
-                // This is an AttributeType addition
-                next( addContext );
+                else if ( entry.contains( directoryService.getAtProvider().getObjectClass(),
+                    SchemaConstants.META_ATTRIBUTE_TYPE_OC ) )
+                {
+                    // This is an AttributeType addition
+                    next( addContext );
+                }
+                else
+                {
+                    next( addContext );
+                }
+
             }
             else
             {
                 next( addContext );
             }
-
         }
-        else
+        finally
         {
-            next( addContext );
+            if ( schemaModification )
+            {
+                // The validation plans must be computed again with the new schema
+                validationPlans.invalidate();
+            }
         }
     }
 
@@ -1157,6 +1222,27 @@ public class SchemaInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        try
+        {
+            next( deleteContext );
+        }
+        finally
+        {
+            if ( isSchemaModification( deleteContext.getDn() ) )
+            {
+                // The validation plans must be computed again with the new schema
+                validationPlans.invalidate();
+            }
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1179,56 +1265,69 @@ public class SchemaInterceptor extends BaseInterceptor
     @Override
     public void modify( ModifyOperationContext modifyContext ) throws LdapException
     {
-        // A modification on a simple entry will be done in three steps :
-        // - get the original entry (it should already been in the context)
-        // - apply the modification on it
-        // - check that the entry is still correct
-        // - add the operational attributes (modifiersName/modifyTimeStamp)
-        // - store the modified entry on the backend.
-        //
-        // A modification done on the schema is a bit different, as there is two more
-        // steps
-        // - We have to update the registries
-        // - We have to modify the ou=schemaModifications entry
-        //
-
-        // First, check that the entry is either a subschemaSubentry or a schema element.
-        // This is the case if it's a child of cn=schema or ou=schema
-        Dn dn = modifyContext.getDn();
+        boolean schemaModification = isSchemaModification( modifyContext.getDn() );
 
-        // Gets the stored entry on which the modification must be applied
-        if ( dn.equals( subschemaSubentryDn ) )
+        try
         {
-            LOG.debug( "Modification attempt on schema subentry {}: \n{}", dn, modifyContext );
-
-            // We can get rid of the modifiersName and modifyTimestamp, they are useless.
-            List<Modification> mods = modifyContext.getModItems();
-            List<Modification> cleanMods = new ArrayList<>();
-
-            for ( Modification mod : mods )
+            // A modification on a simple entry will be done in three steps :
+            // - get the original entry (it should already been in the context)
+            // - apply the modification on it
+            // - check that the entry is still correct
+            // - add the operational attributes (modifiersName/modifyTimeStamp)
+            // - store the modified entry on the backend.
+            //
+            // A modification done on the schema is a bit different, as there is two more
+            // steps
+            // - We have to update the registries
+            // - We have to modify the ou=schemaModifications entry
+            //
+
+            // First, check that the entry is either a subschemaSubentry or a schema element.
+            // This is the case if it's a child of cn=schema or ou=schema
+            Dn dn = modifyContext.getDn();
+
+            // Gets the stored entry on which the modification must be applied
+            if ( dn.equals( subschemaSubentryDn ) )
             {
-                AttributeType at = ( ( DefaultModification ) mod ).getAttribute().getAttributeType();
+                LOG.debug( "Modification attempt on schema subentry {}: \n{}", dn, modifyContext );
 
-                if ( !directoryService.getAtProvider().getModifiersName().equals( at )
-                    && !directoryService.getAtProvider().getModifyTimestamp().equals( at )
-                    && !directoryService.getAtProvider().getEntryCSN().equals( at ) )
+                // We can get rid of the modifiersName and modifyTimestamp, they are useless.
+                List<Modification> mods = modifyContext.getModItems();
+                List<Modification> cleanMods = new ArrayList<>();
+
+                for ( Modification mod : mods )
                 {
-                    cleanMods.add( mod );
+                    AttributeType at = ( ( DefaultModification ) mod ).getAttribute().getAttributeType();
+
+                    if ( !directoryService.getAtProvider().getModifiersName().equals( at )
+                        && !directoryService.getAtProvider().getModifyTimestamp().equals( at )
+                        && !directoryService.getAtProvider().getEntryCSN().equals( at ) )
+                    {
+                        cleanMods.add( mod );
+                    }
                 }
-            }
 
-            modifyContext.setModItems( cleanMods );
+                modifyContext.setModItems( cleanMods );
 
-            // Now that the entry has been modified, update the SSSE
-            schemaSubEntryManager.modifySchemaSubentry( modifyContext, modifyContext
-                .hasRequestControl( Cascade.OID ) );
+                // Now that the entry has been modified, update the SSSE
+                schemaSubEntryManager.modifySchemaSubentry( modifyContext, modifyContext
+                    .hasRequestControl( Cascade.OID ) );
 
-            return;
-        }
+                return;
+            }
 
-        checkModifyEntry( modifyContext );
+            checkModifyEntry( modifyContext );
 
-        next( modifyContext );
+            next( modifyContext );
+        }
+        finally
+        {
+            if ( schemaModification )
+            {
+                // The validation plans must be computed again with the new schema
+                validationPlans.invalidate();
+            }
+        }
     }
 
     
@@ -1394,31 +1493,65 @@ public class SchemaInterceptor extends BaseInterceptor
     }
     
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        try
+        {
+            next( moveContext );
+        }
+        finally
+        {
+            if ( isSchemaModification( moveContext.getDn() ) )
+            {
+                // The validation plans must be computed again with the new schema
+                validationPlans.invalidate();
+            }
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
-        // We will compute the modified entry, and check that its still valid :
-        // - the new RDn's AVAs must be compatible with the existing ObjectClasses (except if the Extensible ObjectClass is present)
-        // - The removal of the old RDN (if requested) must not left the entry invalid
-        // - if the new RDN has SV AT, then we should remove the old RDN's AVA if it's using the same AT
-        Entry entry = moveAndRenameContext.getOriginalEntry();
-        Dn entryDn = entry.getDn();
-        Rdn oldRdn = entryDn.getRdn();
-        Rdn newRdn = moveAndRenameContext.getNewRdn();
+        boolean schemaModification = isSchemaModification( moveAndRenameContext.getDn() );
+
+        try
+        {
+            // We will compute the modified entry, and check that its still valid :
+            // - the new RDn's AVAs must be compatible with the existing ObjectClasses (except if the Extensible ObjectClass is present)
+            // - The removal of the old RDN (if requested) must not left the entry invalid
+            // - if the new RDN has SV AT, then we should remove the old RDN's AVA if it's using the same AT
+            Entry entry = moveAndRenameContext.getOriginalEntry();
+            Dn entryDn = entry.getDn();
+            Rdn oldRdn = entryDn.getRdn();
+            Rdn newRdn = moveAndRenameContext.getNewRdn();
         
-        // First get the list of impacted AVAs
-        Map<String, List<ModDnAva>> modifiedAvas = processRdn( oldRdn, newRdn, moveAndRenameContext.getDeleteOldRdn() );
+            // First get the list of impacted AVAs
+            Map<String, List<ModDnAva>> modifiedAvas = processRdn( oldRdn, newRdn, moveAndRenameContext.getDeleteOldRdn() );
         
-        // Check if they will left the entry in a correct state
-        applyRdn( moveAndRenameContext, modifiedAvas );
+            // Check if they will left the entry in a correct state
+            applyRdn( moveAndRenameContext, modifiedAvas );
         
-        // Check the modified entry now
-        check( moveAndRenameContext.getNewDn(), moveAndRenameContext.getModifiedEntry() );
+            // Check the modified entry now
+            check( moveAndRenameContext.getNewDn(), moveAndRenameContext.getModifiedEntry() );
 
-        next( moveAndRenameContext );
+            next( moveAndRenameContext );
+        }
+        finally
+        {
+            if ( schemaModification )
+            {
+                // The validation plans must be computed again with the new schema
+                validationPlans.invalidate();
+            }
+        }
     }
 
 
@@ -1428,55 +1561,68 @@ public class SchemaInterceptor extends BaseInterceptor
     @Override
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
-        Dn oldDn = renameContext.getDn();
-        Rdn newRdn = renameContext.getNewRdn();
-        boolean deleteOldRn = renameContext.getDeleteOldRdn();
-        Entry entry = ( ( ClonedServerEntry ) renameContext.getEntry() ).getClonedEntry();
-
-        /*
-         *  Note: This is only a consistency checks, to the ensure that all
-         *  mandatory attributes are available after deleting the old Rdn.
-         *  The real modification is done in the XdbmStore class.
-         *  - TODO: this check is missing in the moveAndRename() method
-         */
-        if ( deleteOldRn )
-        {
-            Rdn oldRdn = oldDn.getRdn();
+        boolean schemaModification = isSchemaModification( renameContext.getDn() );
 
-            // Delete the old Rdn means we remove some attributes and values.
-            // We must make sure that after this operation all must attributes
-            // are still present in the entry.
-            for ( Ava atav : oldRdn )
+        try
+        {
+            Dn oldDn = renameContext.getDn();
+            Rdn newRdn = renameContext.getNewRdn();
+            boolean deleteOldRn = renameContext.getDeleteOldRdn();
+            Entry entry = ( ( ClonedServerEntry ) renameContext.getEntry() ).getClonedEntry();
+
+            /*
+             *  Note: This is only a consistency checks, to the ensure that all
+             *  mandatory attributes are available after deleting the old Rdn.
+             *  The real modification is done in the XdbmStore class.
+             *  - TODO: this check is missing in the moveAndRename() method
+             */
+            if ( deleteOldRn )
             {
-                AttributeType type = schemaManager.lookupAttributeTypeRegistry( atav.getType() );
-                entry.remove( type, atav.getValue() );
-            }
+                Rdn oldRdn = oldDn.getRdn();
 
-            // Check that no operational attributes are removed
-            for ( Ava atav : oldRdn )
-            {
-                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( atav.getType() );
+                // Delete the old Rdn means we remove some attributes and values.
+                // We must make sure that after this operation all must attributes
+                // are still present in the entry.
+                for ( Ava atav : oldRdn )
+                {
+                    AttributeType type = schemaManager.lookupAttributeTypeRegistry( atav.getType() );
+                    entry.remove( type, atav.getValue() );
+                }
 
-                if ( !attributeType.isUserModifiable() )
+                // Check that no operational attributes are removed
+                for ( Ava atav : oldRdn )
                 {
-                    throw new LdapNoPermissionException( "Cannot modify the attribute '" + atav.getType() + "'" );
+                    AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( atav.getType() );
+
+                    if ( !attributeType.isUserModifiable() )
+                    {
+                        throw new LdapNoPermissionException( "Cannot modify the attribute '" + atav.getType() + "'" );
+                    }
                 }
             }
-        }
 
-        for ( Ava atav : newRdn )
-        {
-            AttributeType type = schemaManager.lookupAttributeTypeRegistry( atav.getType() );
+            for ( Ava atav : newRdn )
+            {
+                AttributeType type = schemaManager.lookupAttributeTypeRegistry( atav.getType() );
 
-            entry.add( new DefaultAttribute( type, atav.getValue() ) );
-        }
+                entry.add( new DefaultAttribute( type, atav.getValue() ) );
+            }
 
-        // Substitute the Rdn and check if the new entry is correct
-        entry.setDn( renameContext.getNewDn() );
+            // Substitute the Rdn and check if the new entry is correct
+            entry.setDn( renameContext.getNewDn() );
 
-        check( renameContext.getNewDn(), entry );
+            check( renameContext.getNewDn(), entry );
 
-        next( renameContext );
+            next( renameContext );
+        }
+        finally
+        {
+            if ( schemaModification )
+            {
+                // The validation plans must be computed again with the new schema
+                validationPlans.invalidate();
+            }
+        }
     }
 
 
@@ -1644,18 +1790,30 @@ public class SchemaInterceptor extends BaseInterceptor
      */
     private void assertRequiredAttributesPresent( Dn dn, Entry entry, Set<String> must ) throws LdapException
     {
+        int present = 0;
+
         for ( Attribute attribute : entry )
         {
-            must.remove( attribute.getAttributeType().getOid() );
+            if ( must.contains( attribute.getAttributeType().getOid() ) )
+            {
+                present++;
+            }
         }
 
-        if ( !must.isEmpty() )
+        if ( present < must.size() )
         {
+            Set<String> missing = new HashSet<>( must );
+
+            for ( Attribute attribute : entry )
+            {
+                missing.remove( attribute.getAttributeType().getOid() );
+            }
+
             // include AT names for better error reporting
             StringBuilder sb = new StringBuilder();
             sb.append( '[' );
 
-            for ( String oid : must )
+            for ( String oid : missing )
             {
                 String name = schemaManager.getAttributeType( oid ).getName();
                 sb.append( name )
@@ -1674,80 +1832,6 @@ public class SchemaInterceptor extends BaseInterceptor
     }
 
 
-    /**
-     * Checck that OC does not conflict :
-     * - we can't have more than one STRUCTURAL OC unless they are in the same
-     * inheritance tree
-     * - we must have at least one STRUCTURAL OC
-     */
-    private void assertObjectClasses( Dn dn, List<ObjectClass> ocs ) throws LdapException
-    {
-        Set<ObjectClass> structuralObjectClasses = new HashSet<>();
-
-        /*
-         * Since the number of ocs present in an entry is small it's not
-         * so expensive to take two passes while determining correctness
-         * since it will result in clear simple code instead of a deep nasty
-         * for loop with nested loops.  Plus after the first pass we can
-         * quickly know if there are no structural object classes at all.
-         */
-
-        // --------------------------------------------------------------------
-        // Extract all structural objectClasses within the entry
-        // --------------------------------------------------------------------
-        for ( ObjectClass oc : ocs )
-        {
-            if ( oc.isStructural() )
-            {
-                structuralObjectClasses.add( oc );
-            }
-        }
-
-        // --------------------------------------------------------------------
-        // Throw an error if no STRUCTURAL objectClass are found.
-        // --------------------------------------------------------------------
-
-        if ( structuralObjectClasses.isEmpty() )
-        {
-            String message = I18n.err( I18n.ERR_28009__ENTRY_WITHOUT_STRUCTURAL_OC, dn );
-            LOG.error( message );
-            throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, message );
-        }
-
-        // --------------------------------------------------------------------
-        // Put all structural object classes into new remaining container and
-        // start removing any which are superiors of others in the set.  What
-        // is left in the remaining set will be unrelated structural
-        /// objectClasses.  If there is more than one then we have a problem.
-        // --------------------------------------------------------------------
-
-        Set<ObjectClass> remaining = new HashSet<>( structuralObjectClasses.size() );
-        remaining.addAll( structuralObjectClasses );
-
-        for ( ObjectClass oc : structuralObjectClasses )
-        {
-            if ( oc.getSuperiors() != null )
-            {
-                for ( ObjectClass superClass : oc.getSuperiors() )
-                {
-                    if ( superClass.isStructural() )
-                    {
-                        remaining.remove( superClass );
-                    }
-                }
-            }
-        }
-
-        // Like the highlander there can only be one :).
-        if ( remaining.size() > 1 )
-        {
-            String message = I18n.err( I18n.ERR_28010_ENTRY_HAS_2_STRUCTURAL_OC, dn, remaining );
-            LOG.error( message );
-            throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, message );
-        }
-    }
-
-
     /**
      * Check the entry attributes syntax, using the syntaxCheckers
      */
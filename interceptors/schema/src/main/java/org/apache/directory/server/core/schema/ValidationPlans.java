@@ -0,0 +1,264 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.schema;
+
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.api.ldap.model.schema.registries.Registries;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The validation plans the SchemaInterceptor uses, indexed by the normalized set
+ * of objectClasses they apply to. The cache is dropped when it's full, and each
+ * time the schema is modified. A combination of objectClasses which does not pass
+ * the {@link #assertObjectClasses(Dn, List)} checks never gets a plan.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class ValidationPlans
+{
+    /** The LoggerFactory used by this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ValidationPlans.class );
+
+    /** The maximum number of validation plans we keep */
+    private static final int MAX_VALIDATION_PLANS = 1000;
+
+    /** The validation plans, indexed by the normalized set of objectClasses they apply to */
+    private final Map<String, ValidationPlan> plans = new ConcurrentHashMap<>();
+
+    /** Incremented on each schema change, so that a plan computed with the old schema is not kept */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * What we have to check for an entry, computed once for each combination of
+     * objectClasses : the MUST and allowed attributes OIDs, and whether the
+     * extensibleObject objectClass is present. The objectClasses have already
+     * been checked when a plan exists. A plan is never modified once built.
+     */
+    static final class ValidationPlan
+    {
+        /** The registries the plan has been computed with */
+        private final Registries registries;
+
+        /** The MUST attributes OIDs */
+        final Set<String> must;
+
+        /** The MUST and MAY attributes OIDs */
+        final Set<String> allowed;
+
+        /** Tells if the entry has the extensibleObject ObjectClass */
+        final boolean hasExtensibleObject;
+
+
+        ValidationPlan( Registries registries, Set<String> must, Set<String> allowed, boolean hasExtensibleObject )
+        {
+            this.registries = registries;
+            this.must = must;
+            this.allowed = allowed;
+            this.hasExtensibleObject = hasExtensibleObject;
+        }
+    }
+
+
+    /**
+     * Computes the key of a combination of ObjectClasses : their sorted and
+     * lower-cased names.
+     *
+     * @param objectClassAttr The entry ObjectClasses, including their superiors
+     * @return The key of the combination
+     */
+    static String getKey( Attribute objectClassAttr )
+    {
+        String[] objectClasses = new String[objectClassAttr.size()];
+        int pos = 0;
+
+        for ( Value value : objectClassAttr )
+        {
+            objectClasses[pos++] = Strings.toLowerCaseAscii( value.getString() );
+        }
+
+        Arrays.sort( objectClasses );
+
+        return String.join( "$", objectClasses );
+    }
+
+
+    /**
+     * Checck that OC does not conflict :
+     * - we can't have more than one STRUCTURAL OC unless they are in the same
+     * inheritance tree
+     * - we must have at least one STRUCTURAL OC
+     */
+    static void assertObjectClasses( Dn dn, List<ObjectClass> ocs ) throws LdapException
+    {
+        Set<ObjectClass> structuralObjectClasses = new HashSet<>();
+
+        /*
+         * Since the number of ocs present in an entry is small it's not
+         * so expensive to take two passes while determining correctness
+         * since it will result in clear simple code instead of a deep nasty
+         * for loop with nested loops.  Plus after the first pass we can
+         * quickly know if there are no structural object classes at all.
+         */
+
+        // --------------------------------------------------------------------
+        // Extract all structural objectClasses within the entry
+        // --------------------------------------------------------------------
+        for ( ObjectClass oc : ocs )
+        {
+            if ( oc.isStructural() )
+            {
+                structuralObjectClasses.add( oc );
+            }
+        }
+
+        // --------------------------------------------------------------------
+        // Throw an error if no STRUCTURAL objectClass are found.
+        // --------------------------------------------------------------------
+
+        if ( structuralObjectClasses.isEmpty() )
+        {
+            String message = I18n.err( I18n.ERR_28009__ENTRY_WITHOUT_STRUCTURAL_OC, dn );
+            LOG.error( message );
+            throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, message );
+        }
+
+        // --------------------------------------------------------------------
+        // Put all structural object classes into new remaining container and
+        // start removing any which are superiors of others in the set.  What
+        // is left in the remaining set will be unrelated structural
+        /// objectClasses.  If there is more than one then we have a problem.
+        // --------------------------------------------------------------------
+
+        Set<ObjectClass> remaining = new HashSet<>( structuralObjectClasses.size() );
+        remaining.addAll( structuralObjectClasses );
+
+        for ( ObjectClass oc : structuralObjectClasses )
+        {
+            if ( oc.getSuperiors() != null )
+            {
+                for ( ObjectClass superClass : oc.getSuperiors() )
+                {
+                    if ( superClass.isStructural() )
+                    {
+                        remaining.remove( superClass );
+                    }
+                }
+            }
+        }
+
+        // Like the highlander there can only be one :).
+        if ( remaining.size() > 1 )
+        {
+            String message = I18n.err( I18n.ERR_28010_ENTRY_HAS_2_STRUCTURAL_OC, dn, remaining );
+            LOG.error( message );
+            throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, message );
+        }
+    }
+
+
+    /**
+     * Gets the plan of a combination of ObjectClasses
+     *
+     * @param key The key of the combination
+     * @param registries The current registries
+     * @return The plan, or null if there is none computed with those registries
+     */
+    ValidationPlan get( String key, Registries registries )
+    {
+        ValidationPlan plan = plans.get( key );
+
+        if ( ( plan != null ) && ( plan.registries == registries ) )
+        {
+            return plan;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The current schema generation, to read before a plan is computed
+     */
+    long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Stores a plan, unless the schema has been modified since it started to be computed.
+     *
+     * @param key The key of the combination
+     * @param plan The plan to store
+     * @param planGeneration The schema generation read before the plan was computed
+     */
+    void put( String key, ValidationPlan plan, long planGeneration )
+    {
+        if ( generation.get() != planGeneration )
+        {
+            return;
+        }
+
+        if ( plans.size() >= MAX_VALIDATION_PLANS )
+        {
+            plans.clear();
+        }
+
+        plans.put( key, plan );
+
+        // The schema may have been modified while we were storing the plan
+        if ( generation.get() != planGeneration )
+        {
+            plans.remove( key, plan );
+        }
+    }
+
+
+    /**
+     * Drops all the validation plans. This is done once a schema modification
+     * is over : a plan computed while it was in progress is not stored, as the
+     * generation has changed.
+     */
+    void invalidate()
+    {
+        generation.incrementAndGet();
+        plans.clear();
+    }
+}
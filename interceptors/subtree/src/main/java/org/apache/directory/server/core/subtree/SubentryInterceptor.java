@@ -451,6 +451,7 @@ public class SubentryInterceptor extends BaseInterceptor
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( opContext.getPartition() );
         lookupContext.setTransaction( opContext.getTransaction() );
+        lookupContext.setReadSet( opContext.getReadSet() );
 
         Entry administrationPoint = directoryService.getPartitionNexus().lookup( lookupContext );
 
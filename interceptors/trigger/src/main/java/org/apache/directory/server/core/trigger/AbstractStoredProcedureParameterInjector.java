@@ -66,6 +66,7 @@ public abstract class AbstractStoredProcedureParameterInjector implements Stored
                 new LookupOperationContext( session, ldapCtxName, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( opContext.getPartition() );
             lookupContext.setTransaction( opContext.getTransaction() );
+            lookupContext.setReadSet( opContext.getReadSet() );
 
             return session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
         }
@@ -78,6 +78,7 @@ public class DeleteStoredProcedureParameterInjector extends AbstractStoredProced
             SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( opContext.getPartition() );
         lookupContext.setTransaction( opContext.getTransaction() );
+        lookupContext.setReadSet( opContext.getReadSet() );
         
         return session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
     }
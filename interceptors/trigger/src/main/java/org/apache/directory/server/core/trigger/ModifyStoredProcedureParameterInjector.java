@@ -110,6 +110,7 @@ public class ModifyStoredProcedureParameterInjector extends AbstractStoredProced
             SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( opContext.getPartition() );
         lookupContext.setTransaction( opContext.getTransaction() );
+        lookupContext.setReadSet( opContext.getReadSet() );
         
         return session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
     }
@@ -60,6 +60,7 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.sp.StoredProcEngine;
 import org.apache.directory.server.core.api.sp.StoredProcEngineConfig;
 import org.apache.directory.server.core.api.sp.StoredProcExecutionManager;
+import org.apache.directory.server.core.api.sp.java.JavaStoredProcEngine;
 import org.apache.directory.server.core.api.sp.java.JavaStoredProcEngineConfig;
 import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.i18n.I18n;
@@ -144,6 +145,7 @@ public class TriggerInterceptor extends BaseInterceptor
                 new LookupOperationContext( session, parentDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( opContext.getPartition() );
             lookupContext.setTransaction( opContext.getTransaction() );
+            lookupContext.setReadSet( opContext.getReadSet() );
 
             entry = directoryService.getPartitionNexus().lookup( lookupContext );
         }
@@ -334,6 +336,7 @@ public class TriggerInterceptor extends BaseInterceptor
         next( deleteContext );
 
         triggerSpecCache.subentryDeleted( name, deletedEntry );
+        storedProcUnitChanged( name, deletedEntry );
 
         // Fire AFTER Triggers.
         List<TriggerSpecification> afterTriggerSpecs = triggerMap.get( ActionTime.AFTER );
@@ -372,6 +375,7 @@ public class TriggerInterceptor extends BaseInterceptor
         next( modifyContext );
 
         triggerSpecCache.subentryModified( modifyContext, originalEntry );
+        storedProcUnitChanged( normName, originalEntry );
 
         // Fire AFTER Triggers.
         List<TriggerSpecification> afterTriggerSpecs = triggerMap.get( ActionTime.AFTER );
@@ -419,6 +423,7 @@ public class TriggerInterceptor extends BaseInterceptor
             SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( moveContext.getPartition() );
         lookupContext.setTransaction( moveContext.getTransaction() );
+        lookupContext.setReadSet( moveContext.getReadSet() );
 
         Entry importedEntry = directoryService.getPartitionNexus().lookup( lookupContext );
 
@@ -447,6 +452,7 @@ public class TriggerInterceptor extends BaseInterceptor
 
         next( moveContext );
         triggerSpecCache.subentryRenamed( dn, newDn );
+        storedProcUnitChanged( dn, movedEntry );
 
         // Fire AFTER Triggers.
         List<TriggerSpecification> afterExportTriggerSpecs = exportTriggerMap.get( ActionTime.AFTER );
@@ -500,6 +506,7 @@ public class TriggerInterceptor extends BaseInterceptor
             SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
         lookupContext.setPartition( moveAndRenameContext.getPartition() );
         lookupContext.setTransaction( moveAndRenameContext.getTransaction() );
+        lookupContext.setReadSet( moveAndRenameContext.getReadSet() );
 
         Entry importedEntry = directoryService.getPartitionNexus().lookup( lookupContext );
 
@@ -528,6 +535,7 @@ public class TriggerInterceptor extends BaseInterceptor
 
         next( moveAndRenameContext );
         triggerSpecCache.subentryRenamed( oldDN, newDn );
+        storedProcUnitChanged( oldDN, movedEntry );
 
         // Fire AFTER Triggers.
         List<TriggerSpecification> afterExportTriggerSpecs = exportTriggerMap.get( ActionTime.AFTER );
@@ -578,6 +586,7 @@ public class TriggerInterceptor extends BaseInterceptor
 
         next( renameContext );
         triggerSpecCache.subentryRenamed( name, newDn );
+        storedProcUnitChanged( name, renamedEntry );
 
         // Fire AFTER Triggers.
         List<TriggerSpecification> afterTriggerSpecs = triggerMap.get( ActionTime.AFTER );
@@ -589,6 +598,20 @@ public class TriggerInterceptor extends BaseInterceptor
     // Utility Methods
     ////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Evicts the loaded stored procedure unit from the registry if the given entry
+     * is a stored procedure unit, so that it gets reloaded on its next invocation.
+     */
+    private void storedProcUnitChanged( Dn dn, Entry entry )
+    {
+        if ( ( entry != null ) && ( entry.hasObjectClass( ApacheSchemaConstants.STORED_PROC_UNIT_OC )
+            || entry.hasObjectClass( ApacheSchemaConstants.JAVA_STORED_PROC_UNIT_OC ) ) )
+        {
+            JavaStoredProcEngine.getRegistry().invalidate( dn );
+        }
+    }
+
+
     private Object executeTriggers( OperationContext opContext, List<TriggerSpecification> triggerSpecs,
         StoredProcedureParameterInjector injector ) throws LdapException
     {
@@ -0,0 +1,315 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+/**
+ * A compressed page of a bitmap, covering {@link #PAGE_SIZE} consecutive ordinals.
+ * A sparse page is stored as a sorted array of 16 bits offsets, a dense page as a
+ * plain bitset, so that a page never takes more than 517 bytes.
+ * <p>
+ * The pages are immutable: all the modifications return a new page, as the stored
+ * byte[] may be shared with the JDBM cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BitmapPage
+{
+    /** The number of ordinals in a page */
+    public static final int PAGE_SIZE = 4096;
+
+    /** The page types */
+    private static final byte ARRAY = 0;
+    private static final byte BITSET = 1;
+
+    /** The maximum number of offsets in an array page */
+    private static final int ARRAY_MAX = 256;
+
+    /** The number of offsets under which a bitset page is converted back to an array */
+    private static final int ARRAY_MIN = 224;
+
+    /** The header size of a bitset page : the type and the cardinality */
+    private static final int BITSET_HEADER = 5;
+
+
+    private BitmapPage()
+    {
+    }
+
+
+    /**
+     * Gets the number of ordinals in a page
+     *
+     * @param page The page, may be null
+     * @return The page cardinality
+     */
+    public static int cardinality( byte[] page )
+    {
+        if ( page == null )
+        {
+            return 0;
+        }
+
+        if ( page[0] == ARRAY )
+        {
+            return ( page.length - 1 ) / 2;
+        }
+
+        return ( ( page[1] & 0xFF ) << 24 ) | ( ( page[2] & 0xFF ) << 16 ) | ( ( page[3] & 0xFF ) << 8 )
+            | ( page[4] & 0xFF );
+    }
+
+
+    /**
+     * Tells if a page contains an offset
+     *
+     * @param page The page, may be null
+     * @param offset The offset in the page
+     * @return <tt>true</tt> if the offset is set
+     */
+    public static boolean contains( byte[] page, int offset )
+    {
+        if ( page == null )
+        {
+            return false;
+        }
+
+        if ( page[0] == ARRAY )
+        {
+            return search( page, offset ) >= 0;
+        }
+
+        return ( page[BITSET_HEADER + ( offset >> 3 )] & ( 1 << ( offset & 7 ) ) ) != 0;
+    }
+
+
+    /**
+     * Adds an offset to a page
+     *
+     * @param page The page, may be null
+     * @param offset The offset to add
+     * @return The new page, or the given page if it already contains the offset
+     */
+    public static byte[] add( byte[] page, int offset )
+    {
+        if ( page == null )
+        {
+            return new byte[]
+                { ARRAY, ( byte ) ( offset >> 8 ), ( byte ) offset };
+        }
+
+        if ( page[0] == ARRAY )
+        {
+            int pos = search( page, offset );
+
+            if ( pos >= 0 )
+            {
+                return page;
+            }
+
+            int cardinality = cardinality( page );
+
+            if ( cardinality == ARRAY_MAX )
+            {
+                return add( toBitset( page ), offset );
+            }
+
+            // Insert the offset at its position
+            int insert = -( pos + 1 );
+            byte[] result = new byte[page.length + 2];
+            System.arraycopy( page, 0, result, 0, 1 + insert * 2 );
+            result[1 + insert * 2] = ( byte ) ( offset >> 8 );
+            result[2 + insert * 2] = ( byte ) offset;
+            System.arraycopy( page, 1 + insert * 2, result, 3 + insert * 2, ( cardinality - insert ) * 2 );
+
+            return result;
+        }
+
+        if ( contains( page, offset ) )
+        {
+            return page;
+        }
+
+        byte[] result = page.clone();
+        result[BITSET_HEADER + ( offset >> 3 )] |= ( byte ) ( 1 << ( offset & 7 ) );
+        setCardinality( result, cardinality( page ) + 1 );
+
+        return result;
+    }
+
+
+    /**
+     * Removes an offset from a page
+     *
+     * @param page The page, may be null
+     * @param offset The offset to remove
+     * @return The new page, null if it's empty, or the given page if it does not contain the offset
+     */
+    public static byte[] remove( byte[] page, int offset )
+    {
+        if ( !contains( page, offset ) )
+        {
+            return page;
+        }
+
+        int cardinality = cardinality( page );
+
+        if ( cardinality == 1 )
+        {
+            return null;
+        }
+
+        if ( page[0] == ARRAY )
+        {
+            int pos = search( page, offset );
+            byte[] result = new byte[page.length - 2];
+            System.arraycopy( page, 0, result, 0, 1 + pos * 2 );
+            System.arraycopy( page, 3 + pos * 2, result, 1 + pos * 2, ( cardinality - pos - 1 ) * 2 );
+
+            return result;
+        }
+
+        byte[] result = page.clone();
+        result[BITSET_HEADER + ( offset >> 3 )] &= ( byte ) ~( 1 << ( offset & 7 ) );
+        setCardinality( result, cardinality - 1 );
+
+        if ( cardinality - 1 < ARRAY_MIN )
+        {
+            return toArray( result );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Gets the offsets stored in a page, in ascending order
+     *
+     * @param page The page, may be null
+     * @return The offsets
+     */
+    public static int[] offsets( byte[] page )
+    {
+        int[] offsets = new int[cardinality( page )];
+
+        if ( page == null )
+        {
+            return offsets;
+        }
+
+        if ( page[0] == ARRAY )
+        {
+            for ( int i = 0; i < offsets.length; i++ )
+            {
+                offsets[i] = ( ( page[1 + i * 2] & 0xFF ) << 8 ) | ( page[2 + i * 2] & 0xFF );
+            }
+
+            return offsets;
+        }
+
+        int pos = 0;
+
+        for ( int i = BITSET_HEADER; i < page.length; i++ )
+        {
+            int bits = page[i] & 0xFF;
+
+            while ( bits != 0 )
+            {
+                int bit = Integer.numberOfTrailingZeros( bits );
+                offsets[pos++] = ( ( i - BITSET_HEADER ) << 3 ) + bit;
+                bits &= bits - 1;
+            }
+        }
+
+        return offsets;
+    }
+
+
+    /**
+     * Binary search of an offset in an array page
+     */
+    private static int search( byte[] page, int offset )
+    {
+        int low = 0;
+        int high = cardinality( page ) - 1;
+
+        while ( low <= high )
+        {
+            int mid = ( low + high ) >>> 1;
+            int value = ( ( page[1 + mid * 2] & 0xFF ) << 8 ) | ( page[2 + mid * 2] & 0xFF );
+
+            if ( value < offset )
+            {
+                low = mid + 1;
+            }
+            else if ( value > offset )
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+
+        return -( low + 1 );
+    }
+
+
+    private static byte[] toBitset( byte[] page )
+    {
+        byte[] result = new byte[BITSET_HEADER + PAGE_SIZE / 8];
+        result[0] = BITSET;
+
+        for ( int offset : offsets( page ) )
+        {
+            result[BITSET_HEADER + ( offset >> 3 )] |= ( byte ) ( 1 << ( offset & 7 ) );
+        }
+
+        setCardinality( result, cardinality( page ) );
+
+        return result;
+    }
+
+
+    private static byte[] toArray( byte[] page )
+    {
+        int[] offsets = offsets( page );
+        byte[] result = new byte[1 + offsets.length * 2];
+        result[0] = ARRAY;
+
+        for ( int i = 0; i < offsets.length; i++ )
+        {
+            result[1 + i * 2] = ( byte ) ( offsets[i] >> 8 );
+            result[2 + i * 2] = ( byte ) offsets[i];
+        }
+
+        return result;
+    }
+
+
+    private static void setCardinality( byte[] page, int cardinality )
+    {
+        page[1] = ( byte ) ( cardinality >> 24 );
+        page[2] = ( byte ) ( cardinality >> 16 );
+        page[3] = ( byte ) ( cardinality >> 8 );
+        page[4] = ( byte ) cardinality;
+    }
+}
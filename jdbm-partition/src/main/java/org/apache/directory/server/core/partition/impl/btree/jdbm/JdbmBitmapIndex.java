@@ -0,0 +1,751 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import jdbm.RecordManager;
+import jdbm.helper.ByteArraySerializer;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Jdbm based index storing, for each key, a compressed bitmap of the entries having
+ * this key. It's meant for the low cardinality indexes, like the ObjectClass or the
+ * presence indexes, where a few keys reference most of the entries.
+ * <p>
+ * The entry IDs are numbered by a {@link JdbmOrdinalTable}, and each key bitmap is
+ * stored in {@link BitmapPage}s, keyed by &lt;key&gt;\0&lt;page number&gt;. The number of
+ * entries per key is kept in memory. The reverse operations, when the index has a
+ * reverse, are done by checking every key, which is cheap as there are only a few of
+ * them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmBitmapIndex extends JdbmIndex<String>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmBitmapIndex.class );
+
+    /**  the key used for the bitmap pages btree name */
+    public static final String BITMAP_BTREE = "_bitmap";
+
+    /** The key parts separator */
+    private static final char SEPARATOR = '\u0000';
+
+    /** The bitmap pages */
+    private JdbmTable<String, byte[]> pages;
+
+    /** The entry ordinals */
+    private JdbmOrdinalTable ordinals;
+
+    /** The number of entries for each key */
+    private final ConcurrentNavigableMap<String, Long> counts = new ConcurrentSkipListMap<>();
+
+
+    /**
+     * Creates a JdbmBitmapIndex instance for a give AttributeId
+     *
+     * @param attributeId The Attribute ID
+     * @param withReverse If the reverse operations should be supported
+     */
+    public JdbmBitmapIndex( String attributeId, boolean withReverse )
+    {
+        super( attributeId, withReverse );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init( RecordManager recMan, SchemaManager schemaManager, AttributeType attributeType )
+        throws LdapException, IOException
+    {
+        LOG.debug( "Initializing a bitmap Index for attribute '{}'", attributeType.getName() );
+
+        this.attributeType = attributeType;
+
+        if ( attributeId == null )
+        {
+            setAttributeId( attributeType.getName() );
+        }
+
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            throw new IOException( I18n.err( I18n.ERR_34004_NO_EQUALITY_MATCHING_RULE_FOR_ATTRIBUTE,
+                attributeType.getName() ) );
+        }
+
+        if ( !mr.getSyntax().isHumanReadable() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_34008_BITMAP_INDEX_ON_BINARY_ATTRIBUTE,
+                attributeType.getName() ) );
+        }
+
+        this.recMan = recMan;
+        String oid = attributeType.getOid();
+
+        // An index previously stored as a plain JdbmIndex is converted
+        boolean convert = ( recMan.getNamedObject( oid + BITMAP_BTREE ) == 0 )
+            && ( recMan.getNamedObject( oid + FORWARD_BTREE ) != 0 );
+
+        SerializableComparator<String> comparator = new SerializableComparator<>(
+            JdbmPartition.JDBM_STRING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+        pages = new JdbmTable<>( schemaManager, oid + BITMAP_BTREE, recMan, comparator,
+            StringSerializer.INSTANCE, new ByteArraySerializer() );
+        ordinals = new JdbmOrdinalTable( schemaManager, oid, recMan );
+
+        loadCounts();
+
+        if ( convert )
+        {
+            convert( schemaManager, mr );
+        }
+
+        initialized = true;
+    }
+
+
+    /**
+     * Reads the number of entries for each key
+     */
+    private void loadCounts() throws LdapException, IOException
+    {
+        try ( Cursor<Tuple<String, byte[]>> cursor = pages.cursor() )
+        {
+            while ( cursor.next() )
+            {
+                Tuple<String, byte[]> tuple = cursor.get();
+                counts.merge( getKey( tuple.getKey() ), ( long ) BitmapPage.cardinality( tuple.getValue() ), Long::sum );
+            }
+        }
+        catch ( CursorException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Loads the content of the forward table of a plain JdbmIndex
+     */
+    private void convert( SchemaManager schemaManager, MatchingRule mr ) throws LdapException, IOException
+    {
+        LOG.info( "Converting the index for attribute type {} to a bitmap index", attributeType );
+
+        SerializableComparator<String> comp = new SerializableComparator<>( mr.getOid() );
+        comp.setSchemaManager( schemaManager );
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        JdbmTable<String, String> forward = new JdbmTable<>( schemaManager, attributeType.getOid() + FORWARD_BTREE,
+            numDupLimit, recMan, comp, UuidComparator.INSTANCE, StringSerializer.INSTANCE,
+            UuidSerializer.INSTANCE );
+
+        try ( Cursor<Tuple<String, String>> cursor = forward.cursor() )
+        {
+            while ( cursor.next() )
+            {
+                Tuple<String, String> tuple = cursor.get();
+                add( null, tuple.getKey(), tuple.getValue() );
+            }
+        }
+        catch ( CursorException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        forward.close( null );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Scan Count Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return sum( counts );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        Long count = counts.get( attrVal );
+
+        return ( count == null ) ? 0L : count;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return sum( counts.tailMap( attrVal, false ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return sum( counts.headMap( attrVal, false ) );
+    }
+
+
+    private static long sum( Map<String, Long> counts )
+    {
+        long sum = 0L;
+
+        for ( Long count : counts.values() )
+        {
+            sum += count;
+        }
+
+        return sum;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Forward and Reverse Lookups
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String forwardLookup( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        for ( String pageKey : getPageKeys( attrVal ) )
+        {
+            long first = getPageNumber( pageKey ) * BitmapPage.PAGE_SIZE;
+
+            for ( int offset : BitmapPage.offsets( pages.get( partitionTxn, pageKey ) ) )
+            {
+                String id = ordinals.getId( partitionTxn, first + offset );
+
+                if ( id != null )
+                {
+                    return id;
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String reverseLookup( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            for ( String key : counts.keySet() )
+            {
+                if ( forward( partitionTxn, key, id ) )
+                {
+                    return key;
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Add/Drop Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void add( PartitionTxn partitionTxn, String attrVal, String id ) throws LdapException
+    {
+        long ordinal = ordinals.getOrdinal( partitionTxn, id );
+
+        if ( ( ordinal >= 0 ) && BitmapPage.contains( getPage( partitionTxn, attrVal, ordinal ),
+            ( int ) ( ordinal % BitmapPage.PAGE_SIZE ) ) )
+        {
+            // Already present
+            return;
+        }
+
+        ordinal = ordinals.acquire( partitionTxn, id );
+        String pageKey = getPageKey( attrVal, ordinal / BitmapPage.PAGE_SIZE );
+        byte[] page = BitmapPage.add( pages.get( partitionTxn, pageKey ), ( int ) ( ordinal % BitmapPage.PAGE_SIZE ) );
+        pages.put( partitionTxn, pageKey, page );
+        counts.merge( attrVal, 1L, Long::sum );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void drop( PartitionTxn partitionTxn, String attrVal, String id ) throws LdapException
+    {
+        long ordinal = ordinals.getOrdinal( partitionTxn, id );
+
+        if ( ordinal < 0 )
+        {
+            return;
+        }
+
+        String pageKey = getPageKey( attrVal, ordinal / BitmapPage.PAGE_SIZE );
+        int offset = ( int ) ( ordinal % BitmapPage.PAGE_SIZE );
+        byte[] page = pages.get( partitionTxn, pageKey );
+
+        if ( !BitmapPage.contains( page, offset ) )
+        {
+            return;
+        }
+
+        page = BitmapPage.remove( page, offset );
+
+        if ( page == null )
+        {
+            pages.remove( partitionTxn, pageKey );
+        }
+        else
+        {
+            pages.put( partitionTxn, pageKey, page );
+        }
+
+        if ( counts.merge( attrVal, -1L, Long::sum ) <= 0L )
+        {
+            counts.remove( attrVal );
+        }
+
+        ordinals.release( partitionTxn, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void drop( PartitionTxn partitionTxn, String entryId ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            for ( String key : counts.keySet() )
+            {
+                drop( partitionTxn, key, entryId );
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Index Cursor Operations
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<IndexEntry<String, String>> forwardCursor( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return new JdbmBitmapIndexCursor( partitionTxn, this, getPageKeys( null ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<IndexEntry<String, String>> forwardCursor( PartitionTxn partitionTxn, String key )
+        throws LdapException
+    {
+        return new JdbmBitmapIndexCursor( partitionTxn, this, getPageKeys( key ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<String> reverseValueCursor( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( !withReverse )
+        {
+            return new EmptyCursor<>();
+        }
+
+        List<String> keys = new ArrayList<>();
+
+        for ( String key : counts.keySet() )
+        {
+            if ( forward( partitionTxn, key, id ) )
+            {
+                keys.add( key );
+            }
+        }
+
+        return new ListCursor<>( keys );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<String> forwardValueCursor( PartitionTxn partitionTxn, String key ) throws LdapException
+    {
+        return new IdCursor( forwardCursor( partitionTxn, key ) );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Value Assertion (a.k.a Index Lookup) Methods //
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean forward( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return counts.containsKey( attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean forward( PartitionTxn partitionTxn, String attrVal, String id ) throws LdapException
+    {
+        long ordinal = ordinals.getOrdinal( partitionTxn, id );
+
+        if ( ordinal < 0 )
+        {
+            return false;
+        }
+
+        return BitmapPage.contains( getPage( partitionTxn, attrVal, ordinal ), ( int ) ( ordinal % BitmapPage.PAGE_SIZE ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reverse( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return reverseLookup( partitionTxn, id ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reverse( PartitionTxn partitionTxn, String id, String attrVal ) throws LdapException
+    {
+        return forward( partitionTxn, attrVal, id );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Maintenance Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close( PartitionTxn partitionTxn ) throws LdapException, IOException
+    {
+        if ( pages != null )
+        {
+            pages.close( partitionTxn );
+        }
+
+        if ( ordinals != null )
+        {
+            ordinals.close( partitionTxn );
+        }
+
+        counts.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDupsEnabled()
+    {
+        return withReverse && !attributeType.isSingleValued();
+    }
+
+
+    /**
+     * Reads a bitmap page
+     *
+     * @param partitionTxn The transaction to use
+     * @param pageKey The page key
+     * @return The page offsets
+     * @throws LdapException If the page can't be read
+     */
+    int[] getOffsets( PartitionTxn partitionTxn, String pageKey ) throws LdapException
+    {
+        return BitmapPage.offsets( pages.get( partitionTxn, pageKey ) );
+    }
+
+
+    /**
+     * @return The entry ordinals
+     */
+    JdbmOrdinalTable getOrdinals()
+    {
+        return ordinals;
+    }
+
+
+    /**
+     * Gets the keys of the pages of a key, or of all the keys if the given key is null,
+     * in ascending order.
+     */
+    private List<String> getPageKeys( String key ) throws LdapException
+    {
+        List<String> pageKeys = new ArrayList<>();
+
+        if ( ( key != null ) && !counts.containsKey( key ) )
+        {
+            return pageKeys;
+        }
+
+        String prefix = ( key == null ) ? "" : key + SEPARATOR;
+
+        try ( Cursor<Tuple<String, byte[]>> cursor = pages.cursor() )
+        {
+            cursor.before( new Tuple<String, byte[]>( prefix, null ) );
+
+            while ( cursor.next() )
+            {
+                String pageKey = cursor.get().getKey();
+
+                if ( !pageKey.startsWith( prefix ) )
+                {
+                    break;
+                }
+
+                pageKeys.add( pageKey );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return pageKeys;
+    }
+
+
+    private byte[] getPage( PartitionTxn partitionTxn, String key, long ordinal ) throws LdapException
+    {
+        return pages.get( partitionTxn, getPageKey( key, ordinal / BitmapPage.PAGE_SIZE ) );
+    }
+
+
+    private static String getPageKey( String key, long pageNumber )
+    {
+        return key + SEPARATOR + JdbmOrdinalTable.pageKey( pageNumber );
+    }
+
+
+    /**
+     * Gets the index key from a page key
+     *
+     * @param pageKey The page key
+     * @return The index key
+     */
+    static String getKey( String pageKey )
+    {
+        return pageKey.substring( 0, pageKey.lastIndexOf( SEPARATOR ) );
+    }
+
+
+    /**
+     * Gets the page number from a page key
+     *
+     * @param pageKey The page key
+     * @return The page number
+     */
+    static long getPageNumber( String pageKey )
+    {
+        return Long.parseLong( pageKey.substring( pageKey.lastIndexOf( SEPARATOR ) + 1 ), 16 );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "BitmapIndex<" + attributeId + ">";
+    }
+
+
+    /**
+     * A Cursor on the entry IDs of an index cursor.
+     */
+    private static class IdCursor extends AbstractCursor<String>
+    {
+        /** The message used for unsupported operations */
+        private static final String UNSUPPORTED_MSG = "Unsupported operation";
+
+        /** The wrapped cursor */
+        private final Cursor<IndexEntry<String, String>> wrapped;
+
+
+        IdCursor( Cursor<IndexEntry<String, String>> wrapped )
+        {
+            this.wrapped = wrapped;
+        }
+
+
+        @Override
+        public boolean available()
+        {
+            return wrapped.available();
+        }
+
+
+        @Override
+        public void before( String element ) throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException( UNSUPPORTED_MSG );
+        }
+
+
+        @Override
+        public void after( String element ) throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException( UNSUPPORTED_MSG );
+        }
+
+
+        @Override
+        public void beforeFirst() throws LdapException, CursorException
+        {
+            wrapped.beforeFirst();
+        }
+
+
+        @Override
+        public void afterLast() throws LdapException, CursorException
+        {
+            wrapped.afterLast();
+        }
+
+
+        @Override
+        public boolean first() throws LdapException, CursorException
+        {
+            return wrapped.first();
+        }
+
+
+        @Override
+        public boolean last() throws LdapException, CursorException
+        {
+            return wrapped.last();
+        }
+
+
+        @Override
+        public boolean previous() throws LdapException, CursorException
+        {
+            return wrapped.previous();
+        }
+
+
+        @Override
+        public boolean next() throws LdapException, CursorException
+        {
+            return wrapped.next();
+        }
+
+
+        @Override
+        public String get() throws CursorException
+        {
+            return wrapped.get().getId();
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            wrapped.close();
+            super.close();
+        }
+
+
+        @Override
+        public void close( Exception cause ) throws IOException
+        {
+            wrapped.close( cause );
+            super.close( cause );
+        }
+    }
+}
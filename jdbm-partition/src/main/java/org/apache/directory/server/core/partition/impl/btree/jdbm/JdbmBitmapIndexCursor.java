@@ -0,0 +1,310 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+
+
+/**
+ * A Cursor over the entries of a {@link JdbmBitmapIndex}. The list of pages is read when
+ * the cursor is created, and each page is decoded when the cursor reaches it. The ordinals
+ * released in the meantime are skipped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmBitmapIndexCursor extends AbstractIndexCursor<String>
+{
+    /** An empty page */
+    private static final int[] EMPTY = new int[0];
+
+    /** The browsed index */
+    private final JdbmBitmapIndex index;
+
+    /** The keys of the browsed pages, in ascending order */
+    private final List<String> pageKeys;
+
+    /** The current page position, from 0 to pageKeys.size() */
+    private int pagePos;
+
+    /** The offsets of the current page */
+    private int[] offsets = EMPTY;
+
+    /** The position in the current page offsets */
+    private int pos = -1;
+
+    /** The current element */
+    private IndexEntry<String, String> indexEntry;
+
+
+    /**
+     * Creates a new instance of JdbmBitmapIndexCursor
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The browsed index
+     * @param pageKeys The keys of the pages to browse, in ascending order
+     * @throws LdapException If the first page can't be read
+     */
+    public JdbmBitmapIndexCursor( PartitionTxn partitionTxn, JdbmBitmapIndex index, List<String> pageKeys )
+        throws LdapException
+    {
+        this.partitionTxn = partitionTxn;
+        this.index = index;
+        this.pageKeys = pageKeys;
+        beforePage( 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * Positions the cursor before the given page
+     */
+    private void beforePage( int page ) throws LdapException
+    {
+        pagePos = page;
+        offsets = ( page < pageKeys.size() ) ? index.getOffsets( partitionTxn, pageKeys.get( page ) ) : EMPTY;
+        pos = -1;
+        indexEntry = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * Gets the position of the first page which key is above the given key, or equal to it
+     */
+    private int findPage( String key, boolean inclusive )
+    {
+        for ( int i = 0; i < pageKeys.size(); i++ )
+        {
+            int comparison = JdbmBitmapIndex.getKey( pageKeys.get( i ) ).compareTo( key );
+
+            if ( ( comparison > 0 ) || ( inclusive && ( comparison == 0 ) ) )
+            {
+                return i;
+            }
+        }
+
+        return pageKeys.size();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( IndexEntry<String, String> element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        beforePage( findPage( element.getKey(), true ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( IndexEntry<String, String> element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        beforePage( findPage( element.getKey(), false ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        beforePage( 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        beforePage( pageKeys.size() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        pos++;
+
+        while ( true )
+        {
+            while ( pos >= offsets.length )
+            {
+                if ( pagePos + 1 >= pageKeys.size() )
+                {
+                    beforePage( pageKeys.size() );
+
+                    return false;
+                }
+
+                pagePos++;
+                offsets = index.getOffsets( partitionTxn, pageKeys.get( pagePos ) );
+                pos = 0;
+            }
+
+            if ( fetch() )
+            {
+                return setAvailable( true );
+            }
+
+            pos++;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        pos--;
+
+        while ( true )
+        {
+            while ( pos < 0 )
+            {
+                if ( pagePos - 1 < 0 )
+                {
+                    beforePage( 0 );
+
+                    return false;
+                }
+
+                pagePos--;
+                offsets = index.getOffsets( partitionTxn, pageKeys.get( pagePos ) );
+                pos = offsets.length - 1;
+            }
+
+            if ( fetch() )
+            {
+                return setAvailable( true );
+            }
+
+            pos--;
+        }
+    }
+
+
+    /**
+     * Reads the entry ID of the current ordinal
+     */
+    private boolean fetch() throws LdapException
+    {
+        String pageKey = pageKeys.get( pagePos );
+        long ordinal = JdbmBitmapIndex.getPageNumber( pageKey ) * BitmapPage.PAGE_SIZE + offsets[pos];
+        String id = index.getOrdinals().getId( partitionTxn, ordinal );
+
+        if ( id == null )
+        {
+            return false;
+        }
+
+        indexEntry = new IndexEntry<>();
+        indexEntry.setKey( JdbmBitmapIndex.getKey( pageKey ) );
+        indexEntry.setId( id );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( available() )
+        {
+            return indexEntry;
+        }
+
+        throw new InvalidCursorPositionException( I18n.err( I18n.ERR_49021_CURSOR_NOT_POSITIONED ) );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "JdbmBitmapIndexCursor<" + index.getAttributeId() + "> : " + pageKeys.size() + " pages";
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.UUID;
+
+import jdbm.RecordManager;
+import jdbm.helper.ByteArraySerializer;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A dense numbering of the entries, used by the bitmap indexes. Each entry ID gets an
+ * ordinal the first time it's added to the index, and gives it back when it's not
+ * referenced anymore.
+ * <p>
+ * It's stored in two tables : the entry ID to ordinal table, which also holds the number
+ * of bitmaps referencing the ordinal, and the ordinal to entry ID table, which stores the
+ * IDs by pages of {@link #PAGE_SIZE} 16 bytes UUIDs, so that iterating on consecutive
+ * ordinals only reads a few pages.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmOrdinalTable
+{
+    /** The number of entry IDs in an ordinals page */
+    public static final int PAGE_SIZE = 256;
+
+    /** The suffix of the entry ID to ordinal table name */
+    public static final String IDS_BTREE = "_ids";
+
+    /** The suffix of the ordinal to entry ID table name */
+    public static final String ORDINALS_BTREE = "_ordinals";
+
+    /** The size of a stored UUID */
+    private static final int UUID_SIZE = 16;
+
+    /** The number of bits used to store the references count */
+    private static final int REFERENCES_BITS = 16;
+
+    /** The mask used to get the references count */
+    private static final long REFERENCES_MASK = ( 1L << REFERENCES_BITS ) - 1;
+
+    /** The entry ID to ordinal and references count table */
+    private final JdbmTable<String, Long> ids;
+
+    /** The ordinal to entry ID pages */
+    private final JdbmTable<String, byte[]> ordinals;
+
+    /** The next ordinal to allocate */
+    private long nextOrdinal;
+
+
+    /**
+     * Creates, or loads, an ordinal table.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param name The table name
+     * @param recMan The RecordManager storing the tables
+     * @throws IOException If the tables can't be created
+     * @throws LdapException If the tables can't be read
+     */
+    public JdbmOrdinalTable( SchemaManager schemaManager, String name, RecordManager recMan )
+        throws IOException, LdapException
+    {
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+        ids = new JdbmTable<>( schemaManager, name + IDS_BTREE, recMan, UuidComparator.INSTANCE,
+            UuidSerializer.INSTANCE, LongSerializer.INSTANCE );
+
+        SerializableComparator<String> comparator = new SerializableComparator<>(
+            JdbmPartition.JDBM_STRING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+        ordinals = new JdbmTable<>( schemaManager, name + ORDINALS_BTREE, recMan, comparator,
+            StringSerializer.INSTANCE, new ByteArraySerializer() );
+
+        // The next ordinal follows the last used slot of the last page
+        try ( Cursor<Tuple<String, byte[]>> cursor = ordinals.cursor() )
+        {
+            cursor.afterLast();
+
+            if ( cursor.previous() )
+            {
+                Tuple<String, byte[]> tuple = cursor.get();
+                long page = Long.parseLong( tuple.getKey(), 16 );
+                byte[] ids = tuple.getValue();
+
+                for ( int slot = PAGE_SIZE - 1; slot >= 0; slot-- )
+                {
+                    if ( !isEmpty( ids, slot ) )
+                    {
+                        nextOrdinal = page * PAGE_SIZE + slot + 1;
+                        break;
+                    }
+                }
+            }
+        }
+        catch ( CursorException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Gets the ordinal of an entry
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @return The entry ordinal, or -1 if it has none
+     * @throws LdapException If the table can't be read
+     */
+    public long getOrdinal( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        Long value = ids.get( partitionTxn, id );
+
+        return ( value == null ) ? -1L : value >>> REFERENCES_BITS;
+    }
+
+
+    /**
+     * Adds a reference to an entry ordinal, allocating it if needed.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @return The entry ordinal
+     * @throws LdapException If the tables can't be updated
+     */
+    public synchronized long acquire( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        Long value = ids.get( partitionTxn, id );
+
+        if ( value != null )
+        {
+            ids.put( partitionTxn, id, value + 1 );
+
+            return value >>> REFERENCES_BITS;
+        }
+
+        long ordinal = nextOrdinal++;
+        setId( partitionTxn, ordinal, id );
+        ids.put( partitionTxn, id, ( ordinal << REFERENCES_BITS ) | 1L );
+
+        return ordinal;
+    }
+
+
+    /**
+     * Removes a reference to an entry ordinal, releasing it when it's not referenced anymore.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @throws LdapException If the tables can't be updated
+     */
+    public synchronized void release( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        Long value = ids.get( partitionTxn, id );
+
+        if ( value == null )
+        {
+            return;
+        }
+
+        if ( ( value & REFERENCES_MASK ) > 1 )
+        {
+            ids.put( partitionTxn, id, value - 1 );
+
+            return;
+        }
+
+        ids.remove( partitionTxn, id );
+        setId( partitionTxn, value >>> REFERENCES_BITS, null );
+    }
+
+
+    /**
+     * Gets the entry ID for an ordinal
+     *
+     * @param partitionTxn The transaction to use
+     * @param ordinal The ordinal
+     * @return The entry ID, or null if the ordinal is not allocated
+     * @throws LdapException If the table can't be read
+     */
+    public String getId( PartitionTxn partitionTxn, long ordinal ) throws LdapException
+    {
+        byte[] page = ordinals.get( partitionTxn, pageKey( ordinal / PAGE_SIZE ) );
+
+        if ( page == null )
+        {
+            return null;
+        }
+
+        int slot = ( int ) ( ordinal % PAGE_SIZE );
+
+        if ( isEmpty( page, slot ) )
+        {
+            return null;
+        }
+
+        return new UUID( readLong( page, slot * UUID_SIZE ), readLong( page, slot * UUID_SIZE + 8 ) ).toString();
+    }
+
+
+    /**
+     * Closes the underlying tables
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the tables can't be closed
+     */
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        ids.close( partitionTxn );
+        ordinals.close( partitionTxn );
+    }
+
+
+    /**
+     * Stores, or clears, the entry ID of an ordinal
+     */
+    private void setId( PartitionTxn partitionTxn, long ordinal, String id ) throws LdapException
+    {
+        String key = pageKey( ordinal / PAGE_SIZE );
+        int slot = ( int ) ( ordinal % PAGE_SIZE );
+        byte[] page = ordinals.get( partitionTxn, key );
+
+        // The stored page may be shared with the JDBM cache
+        page = ( page == null ) ? new byte[PAGE_SIZE * UUID_SIZE] : page.clone();
+
+        if ( id == null )
+        {
+            for ( int i = 0; i < UUID_SIZE; i++ )
+            {
+                page[slot * UUID_SIZE + i] = 0;
+            }
+        }
+        else
+        {
+            // The root ID (all zeroes) is never indexed, so a slot full of zeroes is an empty slot
+            UUID uuid = UUID.fromString( id );
+            writeLong( page, slot * UUID_SIZE, uuid.getMostSignificantBits() );
+            writeLong( page, slot * UUID_SIZE + 8, uuid.getLeastSignificantBits() );
+        }
+
+        ordinals.put( partitionTxn, key, page );
+    }
+
+
+    private static boolean isEmpty( byte[] page, int slot )
+    {
+        for ( int i = slot * UUID_SIZE; i < ( slot + 1 ) * UUID_SIZE; i++ )
+        {
+            if ( page[i] != 0 )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static long readLong( byte[] bytes, int pos )
+    {
+        long value = 0L;
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            value = ( value << 8 ) | ( bytes[pos + i] & 0xFF );
+        }
+
+        return value;
+    }
+
+
+    private static void writeLong( byte[] bytes, int pos, long value )
+    {
+        for ( int i = 7; i >= 0; i-- )
+        {
+            bytes[pos + i] = ( byte ) value;
+            value >>>= 8;
+        }
+    }
+
+
+    /**
+     * Gets a fixed size hexadecimal key, so that the keys are sorted as the numbers
+     *
+     * @param number The number
+     * @return The key
+     */
+    static String pageKey( long number )
+    {
+        String hex = Long.toHexString( number );
+        StringBuilder sb = new StringBuilder( 16 );
+
+        for ( int i = hex.length(); i < 16; i++ )
+        {
+            sb.append( '0' );
+        }
+
+        return sb.append( hex ).toString();
+    }
+}
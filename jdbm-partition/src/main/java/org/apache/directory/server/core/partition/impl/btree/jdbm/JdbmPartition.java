@@ -45,6 +45,7 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
@@ -64,6 +65,7 @@ import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.LargeAttributeTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -96,6 +98,9 @@ public class JdbmPartition extends AbstractBTreePartition
 
     private static final String JDBM_DB_FILE_EXTN = ".db";
 
+    /** The jdbmStringMatch matching rule, used to order the String keyed tables */
+    static final String JDBM_STRING_MATCH_MR_OID = "1.3.6.1.4.1.18060.0.4.1.1.3";
+
     private static final FilenameFilter DB_FILTER = new FilenameFilter()
     {
         @Override
@@ -112,6 +117,9 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache< String, Entry > entryCache;
 
+    /** Tells if the ObjectClass and presence indexes are stored as bitmaps. Off by default */
+    private boolean bitmapSystemIndexes = false;
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -136,6 +144,50 @@ public class JdbmPartition extends AbstractBTreePartition
     }
     
     
+    /**
+     * @return <tt>true</tt> if the ObjectClass and presence indexes are stored as bitmaps
+     */
+    public boolean isBitmapSystemIndexes()
+    {
+        return bitmapSystemIndexes;
+    }
+
+
+    /**
+     * Tells if the ObjectClass and presence indexes are stored as bitmaps. This is off by
+     * default. An index already stored as a bitmap stays a bitmap. Any other index can be
+     * stored as a bitmap by adding a {@link JdbmBitmapIndex}.
+     * <p>
+     * The migration is done when the partition is initialized : the existing ObjectClass and
+     * presence indexes are converted to bitmaps, and their former B-trees are not updated
+     * anymore. This is one way : a server version which does not know about the bitmap indexes can't read
+     * the partition anymore. To go back, export the partition in a LDIF file and import it
+     * in a new partition.
+     *
+     * @param bitmapSystemIndexes <tt>true</tt> to store the indexes as bitmaps
+     */
+    public void setBitmapSystemIndexes( boolean bitmapSystemIndexes )
+    {
+        checkInitialized( "bitmapSystemIndexes" );
+        this.bitmapSystemIndexes = bitmapSystemIndexes;
+    }
+
+
+    /**
+     * Tells if an index has to be stored as a bitmap
+     */
+    private boolean isBitmapIndex( String oid ) throws IOException
+    {
+        if ( bitmapSystemIndexes && ( oid.equals( SchemaConstants.OBJECT_CLASS_AT_OID )
+            || oid.equals( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID ) ) )
+        {
+            return true;
+        }
+
+        return ( recMan != null ) && ( recMan.getNamedObject( oid + JdbmBitmapIndex.BITMAP_BTREE ) != 0 );
+    }
+
+
     /**
      * Rebuild the indexes 
      */
@@ -158,7 +210,7 @@ public class JdbmPartition extends AbstractBTreePartition
                 Tuple<String, Entry> tuple = cursor.get();
                 String id = tuple.getKey();
 
-                Entry entry = tuple.getValue();
+                Entry entry = inflate( partitionTxn, id, tuple.getValue() );
                 
                 // Start with the RdnIndex
                 String parentId = entry.get( ApacheSchemaConstants.ENTRY_PARENT_ID_OID ).getString();
@@ -461,10 +513,12 @@ public class JdbmPartition extends AbstractBTreePartition
                 // this is a new index and we need to build it
                 try
                 {
-                    // Check the forward index only (we suppose we never will add a reverse index later on)
-                    String forwardIndex = oid + "_forward";
+                    // Check the forward index only (we suppose we never will add a reverse index later on),
+                    // or the bitmap pages, as a bitmap index converts a forward index when it's initialized
+                    String forwardIndex = oid + JdbmIndex.FORWARD_BTREE;
+                    String bitmapIndex = oid + JdbmBitmapIndex.BITMAP_BTREE;
                     
-                    if ( recMan.getNamedObject( forwardIndex ) == 0 )
+                    if ( ( recMan.getNamedObject( forwardIndex ) == 0 ) && ( recMan.getNamedObject( bitmapIndex ) == 0 ) )
                     {
                         // The index does not exist in the database, we need to build it
                         indexToBuild.add( index );
@@ -524,6 +578,17 @@ public class JdbmPartition extends AbstractBTreePartition
             try
             {
                 master = new JdbmMasterTable( recMan, schemaManager );
+
+                // Create the large attributes table if it's enabled, or if it has already been used
+                if ( ( largeAttributeThreshold > 0 ) || ( recMan.getNamedObject( LargeAttributeTable.TABLE_NAME ) != 0 ) )
+                {
+                    SerializableComparator<String> comparator = new SerializableComparator<>( JDBM_STRING_MATCH_MR_OID );
+                    comparator.setSchemaManager( schemaManager );
+
+                    JdbmTable<String, String> table = new JdbmTable<>( schemaManager, LargeAttributeTable.TABLE_NAME,
+                        recMan, comparator, StringSerializer.INSTANCE, StringSerializer.INSTANCE );
+                    largeAttributes = new LargeAttributeTable( table, largeAttributeThreshold );
+                }
             }
             catch ( IOException ioe )
             {
@@ -735,7 +800,7 @@ public class JdbmPartition extends AbstractBTreePartition
                     Tuple<String, Entry> tuple = cursor.get();
     
                     String id = tuple.getKey();
-                    Entry entry = tuple.getValue();
+                    Entry entry = inflate( partitionTxn, id, tuple.getValue() );
     
                     Attribute entryAttr = entry.get( atType );
     
@@ -813,6 +878,10 @@ public class JdbmPartition extends AbstractBTreePartition
         {
             jdbmIndex = ( JdbmDnIndex ) index;
         }
+        else if ( index instanceof JdbmBitmapIndex )
+        {
+            jdbmIndex = ( JdbmBitmapIndex ) index;
+        }
         else if ( index instanceof JdbmIndex<?> )
         {
             jdbmIndex = ( JdbmIndex<?> ) index;
@@ -828,7 +897,25 @@ public class JdbmPartition extends AbstractBTreePartition
 
         try
         {
-            jdbmIndex.init( recMan, schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() );
+
+            // A plain index may have to be stored as a bitmap
+            if ( ( jdbmIndex.getClass() == JdbmIndex.class ) && isBitmapIndex( attributeType.getOid() ) )
+            {
+                LOG.debug( "Storing the index {} as a bitmap", index );
+                JdbmBitmapIndex bitmapIndex = new JdbmBitmapIndex( index.getAttributeId(), index.hasReverse() );
+                bitmapIndex.setCacheSize( index.getCacheSize() );
+                bitmapIndex.setNumDupLimit( jdbmIndex.getNumDupLimit() );
+
+                if ( jdbmIndex.getWkDirPath() != null )
+                {
+                    bitmapIndex.setWkDirPath( jdbmIndex.getWkDirPath() );
+                }
+
+                jdbmIndex = bitmapIndex;
+            }
+
+            jdbmIndex.init( recMan, schemaManager, attributeType );
         }
         catch ( IOException ioe )
         {
@@ -943,7 +1030,16 @@ public class JdbmPartition extends AbstractBTreePartition
                     entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
                 }
 
-                entryCache.put( id, entry );
+                // The values stored out of the entry have not been read back : the next
+                // lookup will do it
+                if ( ( largeAttributes != null ) && largeAttributes.hasOutOfLine( entry ) )
+                {
+                    entryCache.invalidate( id );
+                }
+                else
+                {
+                    entryCache.put( id, entry );
+                }
             }
             else if ( ( opCtx instanceof MoveOperationContext )
                 || ( opCtx instanceof MoveAndRenameOperationContext )
@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the BitmapPage encoding.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BitmapPageTest
+{
+    @Test
+    public void testArrayPage()
+    {
+        byte[] page = BitmapPage.add( null, 300 );
+        page = BitmapPage.add( page, 5 );
+        page = BitmapPage.add( page, 4095 );
+
+        assertSame( page, BitmapPage.add( page, 5 ) );
+        assertEquals( 3, BitmapPage.cardinality( page ) );
+        assertEquals( 7, page.length );
+        assertArrayEquals( new int[] { 5, 300, 4095 }, BitmapPage.offsets( page ) );
+        assertTrue( BitmapPage.contains( page, 300 ) );
+        assertFalse( BitmapPage.contains( page, 301 ) );
+
+        page = BitmapPage.remove( page, 300 );
+        assertArrayEquals( new int[] { 5, 4095 }, BitmapPage.offsets( page ) );
+        page = BitmapPage.remove( BitmapPage.remove( page, 5 ), 4095 );
+        assertNull( page );
+        assertEquals( 0, BitmapPage.cardinality( page ) );
+    }
+
+
+    @Test
+    public void testBitsetConversions()
+    {
+        byte[] page = null;
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            page = BitmapPage.add( page, i * 4 );
+        }
+
+        // A dense page never grows over the bitset size
+        assertEquals( 1000, BitmapPage.cardinality( page ) );
+        assertEquals( 517, page.length );
+        assertEquals( 3996, BitmapPage.offsets( page )[999] );
+
+        for ( int i = 0; i < 900; i++ )
+        {
+            byte[] removed = BitmapPage.remove( page, i * 4 );
+            assertTrue( BitmapPage.contains( page, i * 4 ) );
+            page = removed;
+        }
+
+        // And gets back to an array when it's sparse enough
+        assertEquals( 100, BitmapPage.cardinality( page ) );
+        assertEquals( 201, page.length );
+        assertEquals( 3600, BitmapPage.offsets( page )[0] );
+    }
+}
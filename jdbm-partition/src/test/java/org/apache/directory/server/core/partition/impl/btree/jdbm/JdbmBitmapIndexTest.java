@@ -0,0 +1,235 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Tests the JdbmBitmapIndex.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmBitmapIndexTest
+{
+    private static SchemaManager schemaManager;
+    private static AttributeType OU_AT;
+
+    @TempDir
+    public static Path schemaDir;
+
+    @TempDir
+    public Path indexDir;
+
+    private BaseRecordManager recMan;
+    private PartitionTxn partitionTxn;
+    private JdbmBitmapIndex idx;
+
+
+    @BeforeAll
+    public static void init() throws Exception
+    {
+        new DefaultSchemaLdifExtractor( schemaDir.toFile() ).extractOrCopy( true );
+        schemaManager = new DefaultSchemaManager( new LdifSchemaLoader( new File( schemaDir.toFile(), "schema" ) ) );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        OU_AT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+    }
+
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        recMan = new BaseRecordManager( new File( indexDir.toFile(), "index" ).getPath() );
+        partitionTxn = new MockPartitionReadTxn();
+        idx = new JdbmBitmapIndex( OU_AT.getName(), true );
+        idx.init( recMan, schemaManager, OU_AT );
+    }
+
+
+    @AfterEach
+    public void teardown() throws Exception
+    {
+        idx.close( partitionTxn );
+        recMan.close();
+    }
+
+
+    private static String id( int i )
+    {
+        return String.format( Locale.ROOT, "00000000-0000-0000-0000-%012d", i + 1 );
+    }
+
+
+    @Test
+    public void testAddDrop() throws Exception
+    {
+        idx.add( partitionTxn, "foo", id( 0 ) );
+        idx.add( partitionTxn, "foo", id( 1 ) );
+        idx.add( partitionTxn, "bar", id( 1 ) );
+        idx.add( partitionTxn, "foo", id( 1 ) );
+
+        assertEquals( 3, idx.count( partitionTxn ) );
+        assertEquals( 2, idx.count( partitionTxn, "foo" ) );
+        assertEquals( 2, idx.greaterThanCount( partitionTxn, "bar" ) );
+        assertEquals( 1, idx.lessThanCount( partitionTxn, "foo" ) );
+        assertTrue( idx.forward( partitionTxn, "foo", id( 1 ) ) );
+        assertFalse( idx.forward( partitionTxn, "bar", id( 0 ) ) );
+        assertEquals( id( 0 ), idx.forwardLookup( partitionTxn, "foo" ) );
+        assertEquals( "bar", idx.reverseLookup( partitionTxn, id( 1 ) ) );
+
+        idx.drop( partitionTxn, id( 1 ) );
+        assertEquals( 1, idx.count( partitionTxn ) );
+        assertFalse( idx.forward( partitionTxn, "bar" ) );
+        assertNull( idx.reverseLookup( partitionTxn, id( 1 ) ) );
+        assertEquals( -1L, idx.getOrdinals().getOrdinal( partitionTxn, id( 1 ) ) );
+
+        idx.drop( partitionTxn, "foo", id( 0 ) );
+        assertEquals( 0, idx.count( partitionTxn ) );
+        assertNull( idx.forwardLookup( partitionTxn, "foo" ) );
+    }
+
+
+    @Test
+    public void testCursor() throws Exception
+    {
+        // Enough entries to get dense and multiple pages
+        for ( int i = 0; i < 5000; i++ )
+        {
+            idx.add( partitionTxn, ( i % 2 == 0 ) ? "even" : "odd", id( i ) );
+        }
+
+        idx.add( partitionTxn, "all", id( 4999 ) );
+        idx.drop( partitionTxn, "even", id( 0 ) );
+
+        try ( Cursor<IndexEntry<String, String>> cursor = idx.forwardCursor( partitionTxn ) )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( "all", cursor.get().getKey() );
+            assertEquals( id( 4999 ), cursor.get().getId() );
+
+            int count = 1;
+
+            while ( cursor.next() )
+            {
+                count++;
+            }
+
+            assertEquals( 5000, count );
+            assertTrue( cursor.previous() );
+            assertEquals( "odd", cursor.get().getKey() );
+            assertEquals( id( 4999 ), cursor.get().getId() );
+
+            IndexEntry<String, String> element = new IndexEntry<>();
+            element.setKey( "odd" );
+            cursor.before( element );
+            assertTrue( cursor.previous() );
+            assertEquals( "even", cursor.get().getKey() );
+            assertEquals( id( 4998 ), cursor.get().getId() );
+
+            cursor.after( element );
+            assertFalse( cursor.next() );
+        }
+
+        try ( Cursor<String> cursor = idx.forwardValueCursor( partitionTxn, "even" ) )
+        {
+            int count = 0;
+
+            while ( cursor.next() )
+            {
+                assertEquals( id( count * 2 + 2 ), cursor.get() );
+                count++;
+            }
+
+            assertEquals( 2499, count );
+        }
+    }
+
+
+    @Test
+    public void testConversion() throws Exception
+    {
+        AttributeType cnAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CN_AT );
+        JdbmIndex<String> plain = new JdbmIndex<>( cnAT.getName(), false );
+        plain.init( recMan, schemaManager, cnAT );
+        plain.add( partitionTxn, "foo", id( 0 ) );
+        plain.add( partitionTxn, "foo", id( 1 ) );
+        plain.add( partitionTxn, "bar", id( 2 ) );
+        plain.close( partitionTxn );
+
+        JdbmBitmapIndex bitmap = new JdbmBitmapIndex( cnAT.getName(), false );
+        bitmap.init( recMan, schemaManager, cnAT );
+
+        assertEquals( 3, bitmap.count( partitionTxn ) );
+        assertTrue( bitmap.forward( partitionTxn, "foo", id( 1 ) ) );
+        assertTrue( bitmap.forward( partitionTxn, "bar", id( 2 ) ) );
+        bitmap.close( partitionTxn );
+
+        // The counts are read back from the pages
+        bitmap = new JdbmBitmapIndex( cnAT.getName(), false );
+        bitmap.init( recMan, schemaManager, cnAT );
+        assertEquals( 2, bitmap.count( partitionTxn, "foo" ) );
+        bitmap.close( partitionTxn );
+    }
+
+
+    @Test
+    public void testBinaryAttribute() throws Exception
+    {
+        AttributeType userPasswordAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.USER_PASSWORD_AT );
+
+        assertThrows( IOException.class,
+            () -> new JdbmBitmapIndex( userPasswordAT.getName(), false ).init( recMan, schemaManager, userPasswordAT ) );
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Tests the storage of the large attributes out of their entry in a JdbmPartition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmLargeAttributeTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static AttributeType MEMBER_AT;
+
+    @TempDir
+    public static Path schemaDir;
+
+    @TempDir
+    public Path partitionDir;
+
+    private JdbmPartition partition;
+    private PartitionTxn partitionTxn;
+    private Dn groupDn;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        new DefaultSchemaLdifExtractor( schemaDir.toFile() ).extractOrCopy( true );
+        schemaManager = new DefaultSchemaManager( new LdifSchemaLoader( new File( schemaDir.toFile(), "schema" ) ) );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        MEMBER_AT = schemaManager.getAttributeType( SchemaConstants.MEMBER_AT );
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+    }
+
+
+    @BeforeEach
+    public void createStore() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+        partition = createPartition( 3 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+        partitionTxn = partition.beginReadTransaction();
+
+        groupDn = new Dn( schemaManager, "cn=Large Group,o=Good Times Co." );
+        Entry group = new DefaultEntry( schemaManager, groupDn,
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: Large Group",
+            "member: cn=user0,o=Good Times Co.",
+            "member: cn=user1,o=Good Times Co.",
+            "member: cn=user2,o=Good Times Co.",
+            "member: cn=user3,o=Good Times Co.",
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, group );
+        addContext.setPartition( partition );
+        addContext.setTransaction( partition.beginWriteTransaction() );
+        partition.add( addContext );
+        addContext.getTransaction().commit();
+    }
+
+
+    @AfterEach
+    public void destroyStore() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy( partitionTxn );
+        }
+    }
+
+
+    private JdbmPartition createPartition( int threshold ) throws Exception
+    {
+        JdbmPartition jdbmPartition = new JdbmPartition( schemaManager, dnFactory );
+        jdbmPartition.setId( "example" );
+        jdbmPartition.setCacheSize( 10 );
+        jdbmPartition.setPartitionPath( partitionDir.toUri() );
+        jdbmPartition.setSyncOnWrite( false );
+        jdbmPartition.setLargeAttributeThreshold( threshold );
+        jdbmPartition.addIndex( new JdbmIndex( SchemaConstants.MEMBER_AT_OID, false ) );
+        jdbmPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        jdbmPartition.initialize();
+
+        return jdbmPartition;
+    }
+
+
+    private Entry fetch() throws Exception
+    {
+        return partition.fetch( partitionTxn, partition.getEntryId( partitionTxn, groupDn ), groupDn );
+    }
+
+
+    private Entry stored() throws Exception
+    {
+        return partition.getMasterTable().get( partitionTxn, partition.getEntryId( partitionTxn, groupDn ) );
+    }
+
+
+    private boolean isIndexed( String member ) throws Exception
+    {
+        Index<String, String> index = ( Index<String, String> ) partition.getUserIndex( MEMBER_AT );
+        String normalized = new Value( MEMBER_AT, member ).getNormalized();
+
+        return index.forwardLookup( partitionTxn, normalized ) != null;
+    }
+
+
+    private Modification member( ModificationOperation operation, String... members ) throws Exception
+    {
+        return new DefaultModification( operation, MEMBER_AT, members );
+    }
+
+
+    @Test
+    public void testAddAndFetch() throws Exception
+    {
+        // The entry only has a marker, the values are stored aside
+        assertEquals( 0, stored().get( MEMBER_AT ).size() );
+        assertEquals( 4, partition.getLargeAttributeTable().getTable().count( partitionTxn ) );
+
+        Entry group = fetch();
+        assertEquals( 4, group.get( MEMBER_AT ).size() );
+        assertTrue( group.contains( MEMBER_AT, "cn=user2,o=Good Times Co." ) );
+        assertTrue( isIndexed( "cn=user2,o=Good Times Co." ) );
+    }
+
+
+    @Test
+    public void testModifyAddRemove() throws Exception
+    {
+        Entry modified = partition.modify( partitionTxn, groupDn,
+            member( ModificationOperation.ADD_ATTRIBUTE, "cn=user4,o=Good Times Co." ),
+            member( ModificationOperation.REMOVE_ATTRIBUTE, "cn=user0,o=Good Times Co.", "cn=user1,o=Good Times Co." ) );
+
+        // The altered entry is complete, the stored one still has a marker
+        assertEquals( 3, modified.get( MEMBER_AT ).size() );
+        assertTrue( modified.contains( MEMBER_AT, "cn=user4,o=Good Times Co." ) );
+        assertEquals( 0, stored().get( MEMBER_AT ).size() );
+        assertEquals( 3, partition.getLargeAttributeTable().getTable().count( partitionTxn ) );
+        assertTrue( isIndexed( "cn=user4,o=Good Times Co." ) );
+        assertFalse( isIndexed( "cn=user0,o=Good Times Co." ) );
+
+        // Removing all the values one by one removes the attribute
+        partition.modify( partitionTxn, groupDn, member( ModificationOperation.REMOVE_ATTRIBUTE,
+            "cn=user2,o=Good Times Co.", "cn=user3,o=Good Times Co.", "cn=user4,o=Good Times Co." ) );
+        assertNull( stored().get( MEMBER_AT ) );
+        assertNull( fetch().get( MEMBER_AT ) );
+        assertEquals( 0, partition.getLargeAttributeTable().getTable().count( partitionTxn ) );
+        assertFalse( partition.getPresenceIndex().forward( partitionTxn, MEMBER_AT.getOid(),
+            partition.getEntryId( partitionTxn, groupDn ) ) );
+    }
+
+
+    @Test
+    public void testModifyContext() throws Exception
+    {
+        LookupOperationContext lookupContext = new LookupOperationContext( null, groupDn );
+        lookupContext.setPartition( partition );
+        lookupContext.setTransaction( partitionTxn );
+        assertEquals( 4, partition.lookup( lookupContext ).get( MEMBER_AT ).size() );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( null, groupDn,
+            Collections.singletonList( member( ModificationOperation.ADD_ATTRIBUTE, "cn=user4,o=Good Times Co." ) ) );
+        modifyContext.setPartition( partition );
+        modifyContext.setTransaction( partition.beginWriteTransaction() );
+        partition.modify( modifyContext );
+        modifyContext.getTransaction().commit();
+
+        // The values stored aside are not read back, and the cached entry is dropped
+        assertEquals( 0, modifyContext.getAlteredEntry().get( MEMBER_AT ).size() );
+        assertEquals( 5, partition.lookup( lookupContext ).get( MEMBER_AT ).size() );
+    }
+
+
+    @Test
+    public void testModifyReplace() throws Exception
+    {
+        // Below the threshold, the values are back in the entry
+        partition.modify( partitionTxn, groupDn, member( ModificationOperation.REPLACE_ATTRIBUTE,
+            "cn=user8,o=Good Times Co.", "cn=user9,o=Good Times Co." ) );
+        assertEquals( 2, stored().get( MEMBER_AT ).size() );
+        assertEquals( 0, partition.getLargeAttributeTable().getTable().count( partitionTxn ) );
+        assertFalse( isIndexed( "cn=user0,o=Good Times Co." ) );
+        assertTrue( isIndexed( "cn=user9,o=Good Times Co." ) );
+
+        // Above it, they are stored aside again
+        partition.modify( partitionTxn, groupDn, member( ModificationOperation.ADD_ATTRIBUTE,
+            "cn=user7,o=Good Times Co." ) );
+        assertEquals( 0, stored().get( MEMBER_AT ).size() );
+        assertEquals( 3, fetch().get( MEMBER_AT ).size() );
+    }
+
+
+    @Test
+    public void testRenameAndDelete() throws Exception
+    {
+        partition.rename( partitionTxn, groupDn, new Rdn( schemaManager, "cn=Renamed Group" ), true, null );
+        groupDn = new Dn( schemaManager, "cn=Renamed Group,o=Good Times Co." );
+
+        assertEquals( 0, stored().get( MEMBER_AT ).size() );
+        assertEquals( 4, fetch().get( MEMBER_AT ).size() );
+
+        partition.delete( partitionTxn, partition.getEntryId( partitionTxn, groupDn ) );
+        assertEquals( 0, partition.getLargeAttributeTable().getTable().count( partitionTxn ) );
+        assertFalse( isIndexed( "cn=user0,o=Good Times Co." ) );
+    }
+
+
+    @Test
+    public void testReopenDisabled() throws Exception
+    {
+        partition.destroy( partitionTxn );
+
+        // The values already stored aside are still read when the threshold is disabled
+        partition = createPartition( 0 );
+        partitionTxn = partition.beginReadTransaction();
+
+        LookupOperationContext lookupContext = new LookupOperationContext( null, groupDn );
+        lookupContext.setPartition( partition );
+        lookupContext.setTransaction( partitionTxn );
+
+        assertEquals( 4, partition.lookup( lookupContext ).get( MEMBER_AT ).size() );
+    }
+}
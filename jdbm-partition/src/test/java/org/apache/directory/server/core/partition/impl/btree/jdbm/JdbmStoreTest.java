@@ -273,6 +273,64 @@ public class JdbmStoreTest
     }
 
 
+    private JdbmPartition openStore( Path wkdir, boolean bitmapSystemIndexes ) throws Exception
+    {
+        JdbmPartition store = new JdbmPartition( schemaManager, dnFactory );
+        store.setId( "bitmap" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toFile().toURI() );
+        store.setSyncOnWrite( false );
+        store.setBitmapSystemIndexes( bitmapSystemIndexes );
+        store.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store.initialize();
+
+        return store;
+    }
+
+
+    /**
+     * The system indexes are stored as bitmaps only when asked for, and once
+     * converted they stay bitmaps.
+     */
+    @Test
+    public void testBitmapSystemIndexes() throws Exception
+    {
+        assertFalse( partition.isBitmapSystemIndexes() );
+        assertFalse( partition.getObjectClassIndex() instanceof JdbmBitmapIndex );
+
+        Path wkdir = Files.createTempDirectory( JdbmStoreTest.class.getSimpleName() + "_bitmap" );
+
+        try
+        {
+            JdbmPartition store = openStore( wkdir, false );
+            StoreUtils.loadExampleData( store, schemaManager );
+            PartitionTxn txn = store.beginReadTransaction();
+            long count = store.getObjectClassIndex().count( txn );
+            assertTrue( count > 0 );
+            store.destroy( txn );
+
+            // The existing indexes are converted
+            store = openStore( wkdir, true );
+            txn = store.beginReadTransaction();
+            assertTrue( store.getObjectClassIndex() instanceof JdbmBitmapIndex );
+            assertTrue( store.getPresenceIndex() instanceof JdbmBitmapIndex );
+            assertEquals( count, store.getObjectClassIndex().count( txn ) );
+            store.destroy( txn );
+
+            // and stay bitmaps
+            store = openStore( wkdir, false );
+            txn = store.beginReadTransaction();
+            assertTrue( store.getObjectClassIndex() instanceof JdbmBitmapIndex );
+            assertEquals( count, store.getObjectClassIndex().count( txn ) );
+            store.destroy( txn );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( wkdir.toFile() );
+        }
+    }
+
+
     @Test
     public void testSimplePropertiesUnlocked() throws Exception
     {
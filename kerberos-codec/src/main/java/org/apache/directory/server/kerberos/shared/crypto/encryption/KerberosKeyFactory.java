@@ -21,10 +21,16 @@
 package org.apache.directory.server.kerberos.shared.crypto.encryption;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.security.auth.kerberos.KerberosKey;
 import javax.security.auth.kerberos.KerberosPrincipal;
@@ -107,6 +113,105 @@ public class KerberosKeyFactory
     }
 
 
+    /**
+     * Get a map of KerberosKey's for a given principal name and passphrase and list of cipher
+     * types to derive keys for. Each key is derived in its own task, so that the derivation
+     * takes as long as the slowest cipher when the executor has enough threads.
+     *
+     * @param principalName The principal name to use for key derivation.
+     * @param passPhrase The passphrase to use for key derivation.
+     * @param ciphers The set of ciphers to derive keys for.
+     * @param executor The executor the keys are derived in. If null, they are derived in the caller's thread.
+     * @return The map of KerberosKey's.
+     */
+    public static Map<EncryptionType, EncryptionKey> getKerberosKeys( String principalName, String passPhrase,
+        Set<EncryptionType> ciphers, ExecutorService executor )
+    {
+        return getKerberosKeys( Collections.singletonMap( principalName, passPhrase ), ciphers, executor )
+            .get( principalName );
+    }
+
+
+    /**
+     * Get the KerberosKey's of a batch of principals, for a list of cipher types. All the
+     * derivations are submitted to the executor at once, which is what bulk password
+     * resets need.
+     *
+     * @param passPhrases The passphrases to use for key derivation, indexed by principal name.
+     * @param ciphers The set of ciphers to derive keys for.
+     * @param executor The executor the keys are derived in. If null, they are derived in the caller's thread.
+     * @return The maps of KerberosKey's, indexed by principal name.
+     */
+    public static Map<String, Map<EncryptionType, EncryptionKey>> getKerberosKeys( Map<String, String> passPhrases,
+        Set<EncryptionType> ciphers, ExecutorService executor )
+    {
+        Map<String, Map<EncryptionType, EncryptionKey>> kerberosKeys = new LinkedHashMap<>();
+
+        if ( executor == null )
+        {
+            for ( Map.Entry<String, String> passPhrase : passPhrases.entrySet() )
+            {
+                kerberosKeys.put( passPhrase.getKey(),
+                    getKerberosKeys( passPhrase.getKey(), passPhrase.getValue(), ciphers ) );
+            }
+
+            return kerberosKeys;
+        }
+
+        List<KeyDerivation> derivations = new ArrayList<>();
+
+        for ( Map.Entry<String, String> passPhrase : passPhrases.entrySet() )
+        {
+            kerberosKeys.put( passPhrase.getKey(), new EnumMap<EncryptionType, EncryptionKey>( EncryptionType.class ) );
+
+            for ( EncryptionType encryptionType : ciphers )
+            {
+                derivations.add( new KeyDerivation( passPhrase.getKey(), passPhrase.getValue(), encryptionType,
+                    executor ) );
+            }
+        }
+
+        boolean interrupted = false;
+
+        for ( KeyDerivation derivation : derivations )
+        {
+            try
+            {
+                EncryptionKey key = derivation.getKey();
+                kerberosKeys.get( derivation.principalName ).put( derivation.encryptionType, key );
+            }
+            catch ( IllegalArgumentException iae )
+            {
+                // The algorithm is not available, as in the sequential derivation
+            }
+            catch ( InterruptedException ie )
+            {
+                // Don't leave the entry without keys : derive this one here, and
+                // restore the interruption once we are done
+                interrupted = true;
+                derivation.future.cancel( false );
+
+                try
+                {
+                    kerberosKeys.get( derivation.principalName ).put( derivation.encryptionType,
+                        string2Key( derivation.principalName, derivation.passPhrase, derivation.encryptionType ) );
+                }
+                catch ( IllegalArgumentException iae )
+                {
+                    // Not available
+                }
+            }
+        }
+
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return kerberosKeys;
+    }
+
+
     public static EncryptionKey string2Key( String principalName, String passPhrase, EncryptionType encryptionType )
     {
         KerberosPrincipal principal = new KerberosPrincipal( principalName );
@@ -115,4 +220,58 @@ public class KerberosKeyFactory
 
         return new EncryptionKey( encryptionType, kerberosKey.getEncoded(), kerberosKey.getVersionNumber() );
     }
+
+
+    /**
+     * A key derivation submitted to an executor.
+     */
+    private static final class KeyDerivation
+    {
+        /** The principal name */
+        private final String principalName;
+
+        /** The passphrase */
+        private final String passPhrase;
+
+        /** The type of the derived key */
+        private final EncryptionType encryptionType;
+
+        /** The pending key */
+        private final Future<EncryptionKey> future;
+
+
+        private KeyDerivation( String principalName, String passPhrase, EncryptionType encryptionType,
+            ExecutorService executor )
+        {
+            this.principalName = principalName;
+            this.passPhrase = passPhrase;
+            this.encryptionType = encryptionType;
+            future = executor.submit( () -> string2Key( principalName, passPhrase, encryptionType ) );
+        }
+
+
+        private EncryptionKey getKey() throws InterruptedException
+        {
+            try
+            {
+                return future.get();
+            }
+            catch ( ExecutionException ee )
+            {
+                Throwable cause = ee.getCause();
+
+                if ( cause instanceof RuntimeException )
+                {
+                    throw ( RuntimeException ) cause;
+                }
+
+                if ( cause instanceof Error )
+                {
+                    throw ( Error ) cause;
+                }
+
+                throw new IllegalStateException( cause );
+            }
+        }
+    }
 }
@@ -25,8 +25,11 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.security.auth.kerberos.KerberosKey;
 import javax.security.auth.kerberos.KerberosPrincipal;
@@ -404,4 +407,41 @@ public class KerberosKeyFactoryTest
             assertTrue( Arrays.equals( expectedBytes, keyBytes ) );
         }
     }
+
+
+    /**
+     * Tests that the keys derived in parallel, for one or several principals,
+     * are the ones derived sequentially.
+     */
+    @Test
+    public void testKerberosKeyFactoryParallel() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            Map<EncryptionType, EncryptionKey> expected = KerberosKeyFactory.getKerberosKeys( "hnelson@EXAMPLE.COM",
+                "secret" );
+            Map<EncryptionType, EncryptionKey> keys = KerberosKeyFactory.getKerberosKeys( "hnelson@EXAMPLE.COM",
+                "secret", KerberosKeyFactory.DEFAULT_CIPHERS.keySet(), executor );
+
+            assertEquals( expected, keys );
+
+            Map<String, String> passPhrases = new LinkedHashMap<String, String>();
+            passPhrases.put( "hnelson@EXAMPLE.COM", "secret" );
+            passPhrases.put( "ldap/localhost@EXAMPLE.COM", "randall" );
+
+            Map<String, Map<EncryptionType, EncryptionKey>> batch = KerberosKeyFactory.getKerberosKeys( passPhrases,
+                KerberosKeyFactory.DEFAULT_CIPHERS.keySet(), executor );
+
+            assertEquals( 2, batch.size() );
+            assertEquals( expected, batch.get( "hnelson@EXAMPLE.COM" ) );
+            assertEquals( KerberosKeyFactory.getKerberosKeys( "ldap/localhost@EXAMPLE.COM", "randall" ),
+                batch.get( "ldap/localhost@EXAMPLE.COM" ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
 }
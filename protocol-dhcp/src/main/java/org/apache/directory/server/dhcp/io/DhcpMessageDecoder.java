@@ -21,12 +21,11 @@
 package org.apache.directory.server.dhcp.io;
 
 
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.directory.server.dhcp.DhcpException;
 import org.apache.directory.server.dhcp.messages.DhcpMessage;
@@ -34,7 +33,6 @@ import org.apache.directory.server.dhcp.messages.HardwareAddress;
 import org.apache.directory.server.dhcp.options.DhcpOption;
 import org.apache.directory.server.dhcp.options.OptionsField;
 import org.apache.directory.server.dhcp.options.dhcp.DhcpMessageType;
-import org.apache.directory.server.dhcp.options.dhcp.UnrecognizedOption;
 import org.apache.directory.server.i18n.I18n;
 
 
@@ -43,6 +41,22 @@ import org.apache.directory.server.i18n.I18n;
  */
 public class DhcpMessageDecoder
 {
+    /** The 0.0.0.0 address */
+    private static final InetAddress ANY_ADDRESS;
+
+    static
+    {
+        try
+        {
+            ANY_ADDRESS = InetAddress.getByAddress( new byte[4] );
+        }
+        catch ( UnknownHostException e )
+        {
+            // should not happen
+            throw new IllegalStateException( e );
+        }
+    }
+
 
     /**
      * Convert a byte buffer into a DhcpMessage.
@@ -103,35 +117,56 @@ public class DhcpMessageDecoder
 
 
     /**
+     * Decode a zero-terminated string stored in a field of len bytes. The
+     * string is built straight from the buffer, and the empty strings, the
+     * most frequent ones, don't allocate anything.
+     * 
      * @param buffer
      * @return
      */
     private static String decodeString( ByteBuffer buffer, int len )
     {
-        byte[] bytes = new byte[len];
-        buffer.get( bytes );
+        int start = buffer.position();
+
+        if ( buffer.remaining() < len )
+        {
+            throw new BufferUnderflowException();
+        }
 
         // find zero-terminator
         int slen = 0;
 
-        while ( bytes[slen] != 0 )
+        while ( ( slen < len ) && ( buffer.get( start + slen ) != 0 ) )
         {
             slen++;
         }
 
-        try
+        buffer.position( start + len );
+
+        if ( slen == 0 )
         {
-            return new String( bytes, 0, slen, "ASCII" );
+            return "";
         }
-        catch ( UnsupportedEncodingException e )
+
+        if ( buffer.hasArray() )
         {
-            throw new RuntimeException( I18n.err( I18n.ERR_36000_NO_ASCII_ENCODING ), e );
+            return new String( buffer.array(), buffer.arrayOffset() + start, slen, StandardCharsets.US_ASCII );
         }
+
+        byte[] bytes = new byte[slen];
+
+        for ( int i = 0; i < slen; i++ )
+        {
+            bytes[i] = buffer.get( start + i );
+        }
+
+        return new String( bytes, StandardCharsets.US_ASCII );
     }
 
 
     /**
-     * Read a 4-byte inet address from the buffer.
+     * Read a 4-byte inet address from the buffer. The unspecified address,
+     * which fills most of the address fields of a client request, is shared.
      * 
      * @param buffer
      * @return
@@ -139,8 +174,15 @@ public class DhcpMessageDecoder
      */
     private static InetAddress decodeAddress( ByteBuffer buffer )
     {
-        byte[] addr = new byte[4];
-        buffer.get( addr );
+        int address = buffer.getInt();
+
+        if ( address == 0 )
+        {
+            return ANY_ADDRESS;
+        }
+
+        byte[] addr =
+            { ( byte ) ( address >> 24 ), ( byte ) ( address >> 16 ), ( byte ) ( address >> 8 ), ( byte ) address };
 
         try
         {
@@ -153,23 +195,18 @@ public class DhcpMessageDecoder
         }
     }
 
-    private static final byte[] VENDOR_MAGIC_COOKIE =
-        { ( byte ) 99, ( byte ) 130, ( byte ) 83, ( byte ) 99 };
+    private static final int VENDOR_MAGIC_COOKIE = 0x63825363;
 
 
     public OptionsField decodeOptions( ByteBuffer message ) throws DhcpException
     {
-        byte[] magicCookie = new byte[4];
-        message.get( magicCookie );
-
-        if ( !Arrays.equals( VENDOR_MAGIC_COOKIE, magicCookie ) )
+        if ( message.getInt() != VENDOR_MAGIC_COOKIE )
         {
             throw new DhcpException( "Parse exception." );
         }
 
         byte code;
         byte length;
-        byte[] value;
 
         OptionsField options = new OptionsField();
 
@@ -193,25 +230,25 @@ public class DhcpMessageDecoder
             {
                 throw new DhcpException( I18n.err( I18n.ERR_36009_NEGATIVE_INDEX_IN_BUFFER ) );
             }
-            
-            value = new byte[length];
-            message.get( value );
 
-            options.add( getOptionInstance( code, value ) );
+            options.add( getOptionInstance( code, message, length ) );
         }
 
         return options;
     }
 
 
-    private DhcpOption getOptionInstance( int tag, byte[] value ) throws DhcpException
+    private DhcpOption getOptionInstance( int tag, ByteBuffer message, int length ) throws DhcpException
     {
-        try
+        if ( message.remaining() < length )
         {
-            Class c = DhcpOption.getClassByTag( tag );
+            throw new DhcpException( I18n.err( I18n.ERR_36008_NOT_ENOUGH_DATA_IN_BUFFER, length ) );
+        }
 
-            DhcpOption o = null != c ? ( DhcpOption ) c.newInstance() : new UnrecognizedOption( ( byte ) tag );
-            o.setData( value );
+        try
+        {
+            DhcpOption o = DhcpOption.newInstance( tag );
+            o.setData( message, length );
 
             return o;
         }
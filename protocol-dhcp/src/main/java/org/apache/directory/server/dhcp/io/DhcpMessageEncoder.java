@@ -21,7 +21,6 @@
 package org.apache.directory.server.dhcp.io;
 
 
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
@@ -31,7 +30,6 @@ import org.apache.directory.server.dhcp.messages.HardwareAddress;
 import org.apache.directory.server.dhcp.options.DhcpOption;
 import org.apache.directory.server.dhcp.options.OptionsField;
 import org.apache.directory.server.dhcp.options.dhcp.DhcpMessageType;
-import org.apache.directory.server.i18n.I18n;
 
 
 /**
@@ -39,6 +37,9 @@ import org.apache.directory.server.i18n.I18n;
  */
 public class DhcpMessageEncoder
 {
+    /** The bytes used to pad the fixed size fields. Never modified */
+    private static final byte[] ZEROES = new byte[128];
+
     /**
      * Converts a DhcpMessage object into a byte buffer.
      * 
@@ -63,8 +64,7 @@ public class DhcpMessageEncoder
         writeAddress( byteBuffer, message.getNextServerAddress() );
         writeAddress( byteBuffer, message.getRelayAgentAddress() );
 
-        writeBytes( byteBuffer, ( null != hardwareAddress ? hardwareAddress.getAddress() : new byte[]
-            {} ), 16 );
+        writeBytes( byteBuffer, ( null != hardwareAddress ? hardwareAddress.getAddress() : null ), 16 );
 
         writeString( byteBuffer, message.getServerHostname(), 64 );
         writeString( byteBuffer, message.getBootFileName(), 128 );
@@ -90,24 +90,24 @@ public class DhcpMessageEncoder
      */
     private void writeString( ByteBuffer byteBuffer, String string, int len )
     {
-        if ( null == string )
-        {
-            string = "";
-        }
+        int slen = 0;
 
-        try
+        if ( null != string )
         {
-            byte[] sbytes = string.getBytes( "ASCII" );
+            // The chars are written one by one, without any intermediate array
+            slen = Math.min( len, string.length() );
 
-            // writeBytes will automatically zero-pad and thus terminate the
-            // string.
-            writeBytes( byteBuffer, sbytes, len );
-        }
-        catch ( UnsupportedEncodingException e )
-        {
-            // should not happen
-            throw new RuntimeException( I18n.err( I18n.ERR_36000_NO_ASCII_ENCODING ), e );
+            for ( int i = 0; i < slen; i++ )
+            {
+                char c = string.charAt( i );
+
+                // The non ASCII chars are replaced, as the ASCII encoder does
+                byteBuffer.put( c < 0x80 ? ( byte ) c : ( byte ) '?' );
+            }
         }
+
+        // zero-pad and thus terminate the string.
+        pad( byteBuffer, len - slen );
     }
 
 
@@ -121,9 +121,7 @@ public class DhcpMessageEncoder
     {
         if ( null == currentClientAddress )
         {
-            byte[] emptyAddress =
-                { 0, 0, 0, 0 };
-            byteBuffer.put( emptyAddress );
+            byteBuffer.putInt( 0 );
         }
         else
         {
@@ -143,20 +141,32 @@ public class DhcpMessageEncoder
      */
     private void writeBytes( ByteBuffer byteBuffer, byte[] bytes, int len )
     {
-        if ( null == bytes )
+        int written = 0;
+
+        if ( null != bytes )
         {
-            bytes = new byte[]
-                {};
+            written = Math.min( len, bytes.length );
+            byteBuffer.put( bytes, 0, written );
         }
 
-        byteBuffer.put( bytes, 0, Math.min( len, bytes.length ) );
-
         // pad as necessary
-        int remain = len - bytes.length;
+        pad( byteBuffer, len - written );
+    }
 
-        while ( remain-- > 0 )
+
+    /**
+     * Write count zero bytes to the buffer.
+     * 
+     * @param byteBuffer
+     * @param count
+     */
+    private void pad( ByteBuffer byteBuffer, int count )
+    {
+        while ( count > 0 )
         {
-            byteBuffer.put( ( byte ) 0 );
+            int chunk = Math.min( count, ZEROES.length );
+            byteBuffer.put( ZEROES, 0, chunk );
+            count -= chunk;
         }
     }
 
@@ -21,6 +21,9 @@
 package org.apache.directory.server.dhcp.options;
 
 
+import java.nio.ByteBuffer;
+
+
 /**
  * The Dynamic Host Configuration Protocol (DHCP) provides a framework for
  * passing configuration information to hosts on a TCP/IP network. Configuration
@@ -63,6 +66,27 @@ public abstract class ByteOption extends DhcpOption
     }
 
 
+    /*
+     * @see org.apache.directory.server.dhcp.options.DhcpOption#setData(java.nio.ByteBuffer, int)
+     */
+    @Override
+    public void setData( ByteBuffer buffer, int length )
+    {
+        byteValue = ( short ) ( buffer.get() & 0xff );
+        skip( buffer, length, 1 );
+    }
+
+
+    /*
+     * @see org.apache.directory.server.dhcp.options.DhcpOption#writeData(java.nio.ByteBuffer)
+     */
+    @Override
+    protected void writeData( ByteBuffer out )
+    {
+        out.put( ( byte ) ( byteValue & 0xff ) );
+    }
+
+
     public short getByteValue()
     {
         return byteValue;
@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.apache.directory.server.dhcp.options.dhcp.BootfileName;
 import org.apache.directory.server.dhcp.options.dhcp.ClientIdentifier;
@@ -112,93 +113,100 @@ import org.apache.directory.server.i18n.I18n;
 public abstract class DhcpOption
 {
     /**
-     * An array of concrete implementations of DhcpOption.
+     * The factories of the concrete implementations of DhcpOption.
      */
-    private static final Class<?>[] OPTION_CLASSES =
+    private static final Supplier<?>[] OPTION_FACTORIES =
         { 
-            BootfileName.class, 
-            ClientIdentifier.class, 
-            DhcpMessageType.class, 
-            IpAddressLeaseTime.class,
-            MaximumDhcpMessageSize.class, 
-            org.apache.directory.server.dhcp.options.dhcp.Message.class,
-            OptionOverload.class, 
-            ParameterRequestList.class, 
-            RebindingTimeValue.class, 
-            RenewalTimeValue.class,
-            RequestedIpAddress.class, 
-            ServerIdentifier.class, 
-            TftpServerName.class, 
-            VendorClassIdentifier.class,
-            ClientIdentifier.class, 
-            DhcpMessageType.class, 
-            IpAddressLeaseTime.class, 
-            MaximumDhcpMessageSize.class,
-            OptionOverload.class, 
-            ParameterRequestList.class, 
-            RebindingTimeValue.class, 
-            RenewalTimeValue.class,
-            RequestedIpAddress.class, 
-            ServerIdentifier.class, 
-            TftpServerName.class, 
-            UnrecognizedOption.class,
-            VendorClassIdentifier.class, 
-            DefaultFingerServers.class, 
-            DefaultIrcServers.class, 
-            DefaultWwwServers.class,
-            MobileIpHomeAgents.class, 
-            NbddServers.class, 
-            NetbiosNameServers.class, 
-            NetbiosNodeType.class,
-            NetbiosScope.class, 
-            NisDomain.class, 
-            NisPlusDomain.class, 
-            NisPlusServers.class, 
-            NisServers.class,
-            NntpServers.class, 
-            NtpServers.class, 
-            Pop3Servers.class, 
-            SmtpServers.class, 
-            StdaServers.class,
-            StreetTalkServers.class, 
-            VendorSpecificInformation.class, 
-            XWindowDisplayManagers.class,
-            XWindowFontServers.class, 
-            DefaultIpTimeToLive.class, 
-            IpForwarding.class, 
-            MaximumDatagramSize.class,
-            NonLocalSourceRouting.class, 
-            PathMtuAgingTimeout.class, 
-            PathMtuPlateauTable.class, 
-            PolicyFilter.class,
-            AllSubnetsAreLocal.class, 
-            BroadcastAddress.class, 
-            InterfaceMtu.class, 
-            MaskSupplier.class,
-            PerformMaskDiscovery.class, 
-            PerformRouterDiscovery.class, 
-            RouterSolicitationAddress.class,
-            StaticRoute.class, 
-            TcpDefaultTimeToLive.class, 
-            TcpKeepaliveGarbage.class, 
-            TcpKeepaliveInterval.class,
-            BootFileSize.class, 
-            CookieServers.class, 
-            DomainName.class, 
-            DomainNameServers.class, 
-            ExtensionsPath.class,
-            HostName.class, 
-            ImpressServers.class, 
-            LogServers.class, 
-            LprServers.class, 
-            MeritDumpFile.class,
-            NameServers.class, 
-            ResourceLocationServers.class, 
-            RootPath.class, Routers.class, 
-            SubnetMask.class,
-            SwapServer.class, 
-            TimeOffset.class, 
-            TimeServers.class, };
+            BootfileName::new,
+            ClientIdentifier::new,
+            DhcpMessageType::new,
+            IpAddressLeaseTime::new,
+            MaximumDhcpMessageSize::new,
+            org.apache.directory.server.dhcp.options.dhcp.Message::new,
+            OptionOverload::new,
+            ParameterRequestList::new,
+            RebindingTimeValue::new,
+            RenewalTimeValue::new,
+            RequestedIpAddress::new,
+            ServerIdentifier::new,
+            TftpServerName::new,
+            VendorClassIdentifier::new,
+            ClientIdentifier::new,
+            DhcpMessageType::new,
+            IpAddressLeaseTime::new,
+            MaximumDhcpMessageSize::new,
+            OptionOverload::new,
+            ParameterRequestList::new,
+            RebindingTimeValue::new,
+            RenewalTimeValue::new,
+            RequestedIpAddress::new,
+            ServerIdentifier::new,
+            TftpServerName::new,
+            UnrecognizedOption::new,
+            VendorClassIdentifier::new,
+            DefaultFingerServers::new,
+            DefaultIrcServers::new,
+            DefaultWwwServers::new,
+            MobileIpHomeAgents::new,
+            NbddServers::new,
+            NetbiosNameServers::new,
+            NetbiosNodeType::new,
+            NetbiosScope::new,
+            NisDomain::new,
+            NisPlusDomain::new,
+            NisPlusServers::new,
+            NisServers::new,
+            NntpServers::new,
+            NtpServers::new,
+            Pop3Servers::new,
+            SmtpServers::new,
+            StdaServers::new,
+            StreetTalkServers::new,
+            VendorSpecificInformation::new,
+            XWindowDisplayManagers::new,
+            XWindowFontServers::new,
+            DefaultIpTimeToLive::new,
+            IpForwarding::new,
+            MaximumDatagramSize::new,
+            NonLocalSourceRouting::new,
+            PathMtuAgingTimeout::new,
+            PathMtuPlateauTable::new,
+            PolicyFilter::new,
+            AllSubnetsAreLocal::new,
+            BroadcastAddress::new,
+            InterfaceMtu::new,
+            MaskSupplier::new,
+            PerformMaskDiscovery::new,
+            PerformRouterDiscovery::new,
+            RouterSolicitationAddress::new,
+            StaticRoute::new,
+            TcpDefaultTimeToLive::new,
+            TcpKeepaliveGarbage::new,
+            TcpKeepaliveInterval::new,
+            BootFileSize::new,
+            CookieServers::new,
+            DomainName::new,
+            DomainNameServers::new,
+            ExtensionsPath::new,
+            HostName::new,
+            ImpressServers::new,
+            LogServers::new,
+            LprServers::new,
+            MeritDumpFile::new,
+            NameServers::new,
+            ResourceLocationServers::new,
+            RootPath::new,
+            Routers::new,
+            SubnetMask::new,
+            SwapServer::new,
+            TimeOffset::new,
+            TimeServers::new };
+
+    /**
+     * The option factories indexed by tag code, so that decoding an option
+     * does not involve any reflection.
+     */
+    private static final Supplier<?>[] OPTION_FACTORY_BY_CODE = new Supplier<?>[256];
 
     /**
      * A map of concrete implementations of DhcpOption indexed by tag code.
@@ -218,20 +226,28 @@ public abstract class DhcpOption
             Map<Integer, Class<?>> classByCode = new HashMap<>();
             Map<Class<?>, Integer> codeByClass = new HashMap<>();
             
-            for ( int i = 0; i < OPTION_CLASSES.length; i++ )
+            for ( int i = 0; i < OPTION_FACTORIES.length; i++ )
             {
-                Class<?> dhcpOptionClass = OPTION_CLASSES[i];
+                Object instance = OPTION_FACTORIES[i].get();
 
-                if ( !DhcpOption.class.isAssignableFrom( dhcpOptionClass ) )
+                if ( !( instance instanceof DhcpOption ) )
                 {
-                    throw new RuntimeException( I18n.err( I18n.ERR_36004_CLASS_NOT_DESCENDANT_OF_DHCP_OPTION, dhcpOptionClass ) );
+                    throw new RuntimeException( I18n.err( I18n.ERR_36004_CLASS_NOT_DESCENDANT_OF_DHCP_OPTION,
+                        instance.getClass() ) );
                 }
 
-                DhcpOption dhcpOption = ( DhcpOption ) dhcpOptionClass.newInstance();
+                DhcpOption dhcpOption = ( DhcpOption ) instance;
+                Class<?> dhcpOptionClass = dhcpOption.getClass();
 
                 int tagInt = dhcpOption.getTag();
                 classByCode.put( tagInt, dhcpOptionClass );
                 codeByClass.put( dhcpOptionClass, tagInt );
+
+                // The UnrecognizedOption has no tag of its own
+                if ( !( dhcpOption instanceof UnrecognizedOption ) )
+                {
+                    OPTION_FACTORY_BY_CODE[tagInt & 0xff] = OPTION_FACTORIES[i];
+                }
             }
 
             OPTION_CLASS_BY_CODE = Collections.unmodifiableMap( classByCode );
@@ -255,6 +271,26 @@ public abstract class DhcpOption
         return CODE_BY_CLASS.get( c );
     }
 
+
+    /**
+     * Creates a new, empty option for the given tag code. The tags which
+     * have no specific implementation produce an {@link UnrecognizedOption}.
+     * 
+     * @param tag The option code
+     * @return A new option instance
+     */
+    public static DhcpOption newInstance( int tag )
+    {
+        Supplier<?> factory = OPTION_FACTORY_BY_CODE[tag & 0xff];
+
+        if ( factory == null )
+        {
+            return new UnrecognizedOption( ( byte ) tag );
+        }
+
+        return ( DhcpOption ) factory.get();
+    }
+
     /**
      * The default data array used for simple (unparsed) options.
      */
@@ -295,19 +331,71 @@ public abstract class DhcpOption
     }
 
 
+    /**
+     * Set the data (wire format) from the next <code>length</code> bytes of
+     * a buffer. The default implementation copies them into a byte array
+     * and calls {@link #setData(byte[])}; the options with a fixed size read
+     * their value straight from the buffer instead.
+     * 
+     * @param buffer The buffer, positioned at the beginning of the data
+     * @param length The data length
+     */
+    public void setData( ByteBuffer buffer, int length )
+    {
+        byte[] value = new byte[length];
+        buffer.get( value );
+        setData( value );
+    }
+
+
+    /**
+     * Write the data (wire format) into a buffer. The default implementation
+     * writes the array returned by {@link #getData()}.
+     * 
+     * @param out The buffer to write into
+     */
+    protected void writeData( ByteBuffer out )
+    {
+        out.put( getData() );
+    }
+
+
+    /**
+     * Skips the bytes of an option which are not part of its value, after
+     * having checked that there are enough of them.
+     * 
+     * @param buffer The buffer, positioned just after the value
+     * @param length The data length
+     * @param read The number of bytes already read
+     */
+    protected static void skip( ByteBuffer buffer, int length, int read )
+    {
+        if ( length < read )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_36008_NOT_ENOUGH_DATA_IN_BUFFER, length ) );
+        }
+
+        buffer.position( buffer.position() + length - read );
+    }
+
+
     public final void writeTo( ByteBuffer out )
     {
         out.put( getTag() );
 
         // FIXME: handle continuation, i.e. options longer than 128 bytes?
-        byte[] data = getData();
+        // The length is written once the data has been serialized
+        int lengthPosition = out.position();
+        out.put( ( byte ) 0 );
+        writeData( out );
+
+        int length = out.position() - lengthPosition - 1;
 
-        if ( data.length > 255 )
+        if ( length > 255 )
         {
             throw new IllegalArgumentException( I18n.err( I18n.ERR_36006_MAX_DATA_LENGHT_128_BYTES ) );
         }
 
-        out.put( ( byte ) data.length );
-        out.put( data );
+        out.put( lengthPosition, ( byte ) length );
     }
 }
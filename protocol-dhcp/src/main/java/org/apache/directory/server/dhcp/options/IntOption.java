@@ -19,6 +19,9 @@
 package org.apache.directory.server.dhcp.options;
 
 
+import java.nio.ByteBuffer;
+
+
 /**
  * The Dynamic Host Configuration Protocol (DHCP) provides a framework for
  * passing configuration information to hosts on a TCP/IP network. Configuration
@@ -62,6 +65,27 @@ public abstract class IntOption extends DhcpOption
     }
 
 
+    /*
+     * @see org.apache.directory.server.dhcp.options.DhcpOption#setData(java.nio.ByteBuffer, int)
+     */
+    @Override
+    public void setData( ByteBuffer buffer, int length )
+    {
+        intValue = buffer.getInt();
+        skip( buffer, length, 4 );
+    }
+
+
+    /*
+     * @see org.apache.directory.server.dhcp.options.DhcpOption#writeData(java.nio.ByteBuffer)
+     */
+    @Override
+    protected void writeData( ByteBuffer out )
+    {
+        out.putInt( ( int ) intValue );
+    }
+
+
     public long getIntValue()
     {
         return intValue;
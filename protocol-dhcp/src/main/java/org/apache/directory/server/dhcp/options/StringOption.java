@@ -22,6 +22,8 @@ package org.apache.directory.server.dhcp.options;
 
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.directory.server.i18n.I18n;
 
@@ -85,6 +87,47 @@ public abstract class StringOption extends DhcpOption
     }
 
 
+    /*
+     * @see org.apache.directory.server.dhcp.options.DhcpOption#setData(java.nio.ByteBuffer, int)
+     */
+    @Override
+    public void setData( ByteBuffer buffer, int length )
+    {
+        if ( buffer.hasArray() )
+        {
+            // Build the string straight from the backing array
+            string = new String( buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.US_ASCII );
+            skip( buffer, length, 0 );
+        }
+        else
+        {
+            super.setData( buffer, length );
+        }
+    }
+
+
+    /*
+     * @see org.apache.directory.server.dhcp.options.DhcpOption#writeData(java.nio.ByteBuffer)
+     */
+    @Override
+    protected void writeData( ByteBuffer out )
+    {
+        if ( null == string )
+        {
+            return;
+        }
+
+        for ( int i = 0; i < string.length(); i++ )
+        {
+            char c = string.charAt( i );
+
+            // The non ASCII chars are replaced, as the ASCII encoder does
+            out.put( c < 0x80 ? ( byte ) c : ( byte ) '?' );
+        }
+    }
+
+
     public String getString()
     {
         return string;
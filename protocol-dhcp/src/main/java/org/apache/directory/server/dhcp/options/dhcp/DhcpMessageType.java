@@ -21,6 +21,8 @@
 package org.apache.directory.server.dhcp.options.dhcp;
 
 
+import java.nio.ByteBuffer;
+
 import org.apache.directory.server.dhcp.messages.MessageType;
 import org.apache.directory.server.dhcp.options.DhcpOption;
 
@@ -83,6 +85,21 @@ public class DhcpMessageType extends DhcpOption
     }
 
 
+    @Override
+    public void setData( ByteBuffer buffer, int length )
+    {
+        type = MessageType.getTypeByCode( buffer.get() );
+        skip( buffer, length, 1 );
+    }
+
+
+    @Override
+    protected void writeData( ByteBuffer out )
+    {
+        out.put( type.getCode() );
+    }
+
+
     public MessageType getType()
     {
         return type;
@@ -21,6 +21,8 @@
 package org.apache.directory.server.dhcp.protocol;
 
 
+import java.nio.ByteBuffer;
+
 import org.apache.directory.server.dhcp.io.DhcpMessageEncoder;
 import org.apache.directory.server.dhcp.messages.DhcpMessage;
 import org.apache.mina.core.buffer.IoBuffer;
@@ -38,11 +40,27 @@ public class DhcpEncoder implements ProtocolEncoder
     private DhcpMessageEncoder encoder = new DhcpMessageEncoder();
 
 
+    /** The largest message we can send : an ethernet MTU */
+    private static final int MAX_MESSAGE_SIZE = 1500;
+
+    /**
+     * The per-thread buffer the messages are encoded into. It is reused, so
+     * that only a buffer of the exact message size is handed to MINA.
+     */
+    private static final ThreadLocal<ByteBuffer> ENCODING_BUFFER = ThreadLocal
+        .withInitial( () -> ByteBuffer.allocate( MAX_MESSAGE_SIZE ) );
+
+
     public void encode( IoSession session, Object message, ProtocolEncoderOutput out )
     {
-        IoBuffer buf = IoBuffer.allocate( 1024 );
-        encoder.encode( buf.buf(), ( DhcpMessage ) message );
+        ByteBuffer encodingBuffer = ENCODING_BUFFER.get();
+        encodingBuffer.clear();
+        encoder.encode( encodingBuffer, ( DhcpMessage ) message );
+
+        encodingBuffer.flip();
 
+        IoBuffer buf = IoBuffer.allocate( encodingBuffer.remaining() );
+        buf.put( encodingBuffer );
         buf.flip();
 
         out.write( buf );
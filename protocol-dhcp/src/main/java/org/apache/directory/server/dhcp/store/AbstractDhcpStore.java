@@ -21,6 +21,7 @@ package org.apache.directory.server.dhcp.store;
 
 
 import java.net.InetAddress;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.directory.server.dhcp.DhcpException;
@@ -83,20 +84,11 @@ public abstract class AbstractDhcpStore implements DhcpStore
             else
             {
                 // build properties map
-                Map properties = getProperties( subnet );
+                Map properties = new HashMap( getProperties( subnet ) );
                 properties.putAll( getProperties( host ) );
 
                 // build lease
-                lease = new Lease();
-                lease.setAcquired( System.currentTimeMillis() );
-
-                long leaseTime = determineLeaseTime( requestedLeaseTime, properties );
-
-                lease.setExpires( System.currentTimeMillis() + leaseTime );
-
-                lease.setHardwareAddress( hardwareAddress );
-                lease.setState( Lease.STATE_NEW );
-                lease.setClientAddress( host.getAddress() );
+                lease = newLease( hardwareAddress, host.getAddress(), requestedLeaseTime, properties );
 
                 // set lease options
                 OptionsField o = lease.getOptions();
@@ -113,6 +105,21 @@ public abstract class AbstractDhcpStore implements DhcpStore
                 o.merge( host.getOptions() );
             }
         }
+        else
+        {
+            // no designated host : try to get an address from the subnet pool
+            InetAddress address = allocateAddress( subnet, hardwareAddress, requestedAddress );
+
+            if ( null != address )
+            {
+                lease = newLease( hardwareAddress, address, requestedLeaseTime, getProperties( subnet ) );
+
+                // add subnet settings
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( subnet.getOptions() );
+            }
+        }
 
         // update the lease state
         if ( null != lease && lease.getState() != Lease.STATE_ACTIVE )
@@ -174,7 +181,7 @@ public abstract class AbstractDhcpStore implements DhcpStore
         }
 
         // build properties map
-        Map properties = getProperties( subnet );
+        Map properties = new HashMap( getProperties( subnet ) );
 
         // update lease options
         OptionsField o = lease.getOptions();
@@ -225,6 +232,33 @@ public abstract class AbstractDhcpStore implements DhcpStore
     }
 
 
+    /**
+     * Create a new lease for the given client address.
+     *
+     * @param hardwareAddress the client hardware address
+     * @param clientAddress the address assigned to the client
+     * @param requestedLeaseTime the lease time requested by the client
+     * @param properties the properties of the subnet and host
+     * @return Lease
+     */
+    private Lease newLease( HardwareAddress hardwareAddress, InetAddress clientAddress, long requestedLeaseTime,
+        Map properties )
+    {
+        Lease lease = new Lease();
+        lease.setAcquired( System.currentTimeMillis() );
+
+        long leaseTime = determineLeaseTime( requestedLeaseTime, properties );
+
+        lease.setExpires( System.currentTimeMillis() + leaseTime );
+
+        lease.setHardwareAddress( hardwareAddress );
+        lease.setState( Lease.STATE_NEW );
+        lease.setClientAddress( clientAddress );
+
+        return lease;
+    }
+
+
     /**
      * Determine the lease time based on the time requested by the client, the
      * properties and a global default.
@@ -319,6 +353,24 @@ public abstract class AbstractDhcpStore implements DhcpStore
     protected abstract Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException;
 
 
+    /**
+     * Allocate an address from the dynamic pool of the subnet, for a client which
+     * has neither an existing lease nor a designated host. This implementation
+     * doesn't have any pool.
+     * 
+     * @param subnet the subnet of the client
+     * @param hardwareAddress the client hardware address
+     * @param requestedAddress the address requested by the client, or <code>null</code>
+     * @return the allocated address, or <code>null</code> if there is no free address
+     * @throws DhcpException
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress ) throws DhcpException
+    {
+        return null;
+    }
+
+
     /**
      * Find the subnet definition matching the given address.
      * 
@@ -0,0 +1,191 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.BitSet;
+
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * The addresses of an IPv4 subnet range which can be dynamically allocated, with one
+ * bit per address telling whether it is in use. The allocation starts searching after
+ * the last allocated address, so that a released address is not immediately reused.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AddressPool
+{
+    /** The value of the first address of the pool */
+    private final int first;
+
+    /** The number of addresses of the pool */
+    private final int size;
+
+    /** The addresses in use */
+    private final BitSet allocated;
+
+    /** The index the next search starts from */
+    private int next;
+
+
+    /**
+     * Creates the pool of a subnet, made of its range, or of all its host addresses
+     * when it has no range.
+     *
+     * @param subnet the IPv4 subnet
+     */
+    public AddressPool( Subnet subnet )
+    {
+        if ( !( subnet.getAddress() instanceof Inet4Address ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_36010_NO_ADDRESS_POOL, subnet.getAddress() ) );
+        }
+
+        int network = Inet4Addresses.toInt( subnet.getAddress() ) & Inet4Addresses.toInt( subnet.getNetmask() );
+        int broadcast = network | ~Inet4Addresses.toInt( subnet.getNetmask() );
+
+        long min = subnet.getRangeMin() != null ? unsigned( subnet.getRangeMin() ) : unsigned( network ) + 1;
+        long max = subnet.getRangeMax() != null ? unsigned( subnet.getRangeMax() ) : unsigned( broadcast ) - 1;
+
+        first = ( int ) min;
+        size = ( int ) Math.max( 0L, max - min + 1 );
+        allocated = new BitSet( size );
+    }
+
+
+    private static long unsigned( InetAddress address )
+    {
+        return unsigned( Inet4Addresses.toInt( address ) );
+    }
+
+
+    private static long unsigned( int value )
+    {
+        return value & 0xFFFFFFFFL;
+    }
+
+
+    /**
+     * @return the pool index of the address, or -1 if it is not in the pool
+     */
+    private int indexOf( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        long index = unsigned( address ) - unsigned( first );
+
+        return ( index >= 0 ) && ( index < size ) ? ( int ) index : -1;
+    }
+
+
+    /**
+     * Allocates an address, the requested one if it is free.
+     *
+     * @param requestedAddress the address requested by the client, or null
+     * @return the allocated address, or null if the pool is exhausted
+     */
+    public synchronized InetAddress allocate( InetAddress requestedAddress )
+    {
+        int index = requestedAddress == null ? -1 : indexOf( requestedAddress );
+
+        if ( ( index < 0 ) || allocated.get( index ) )
+        {
+            index = allocated.nextClearBit( next );
+
+            if ( index >= size )
+            {
+                index = allocated.nextClearBit( 0 );
+
+                if ( index >= size )
+                {
+                    return null;
+                }
+            }
+        }
+
+        allocated.set( index );
+        next = index + 1;
+
+        return Inet4Addresses.toAddress( first + index );
+    }
+
+
+    /**
+     * Marks an address as being in use.
+     *
+     * @param address the address
+     * @return false if the address is not in the pool or already in use
+     */
+    public synchronized boolean reserve( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( ( index < 0 ) || allocated.get( index ) )
+        {
+            return false;
+        }
+
+        allocated.set( index );
+
+        return true;
+    }
+
+
+    /**
+     * Gives an address back to the pool.
+     *
+     * @param address the address
+     */
+    public synchronized void release( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( index >= 0 )
+        {
+            allocated.clear( index );
+        }
+    }
+
+
+    /**
+     * @param address the address
+     * @return true if the address belongs to this pool
+     */
+    public boolean contains( InetAddress address )
+    {
+        return indexOf( address ) >= 0;
+    }
+
+
+    /**
+     * @return the number of free addresses
+     */
+    public synchronized int getFreeCount()
+    {
+        return size - allocated.cardinality();
+    }
+}
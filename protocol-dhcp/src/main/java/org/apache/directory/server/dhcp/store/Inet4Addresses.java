@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+
+/**
+ * Conversions between IPv4 addresses and their int value.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class Inet4Addresses
+{
+    private Inet4Addresses()
+    {
+    }
+
+
+    /**
+     * @param address an IPv4 address
+     * @return the int value of the address
+     */
+    static int toInt( InetAddress address )
+    {
+        byte[] bytes = address.getAddress();
+
+        return ( ( bytes[0] & 0xff ) << 24 ) | ( ( bytes[1] & 0xff ) << 16 ) | ( ( bytes[2] & 0xff ) << 8 )
+            | ( bytes[3] & 0xff );
+    }
+
+
+    /**
+     * @param value the int value of an IPv4 address
+     * @return the address
+     */
+    static InetAddress toAddress( int value )
+    {
+        try
+        {
+            return InetAddress.getByAddress( new byte[]
+                { ( byte ) ( value >>> 24 ), ( byte ) ( value >>> 16 ), ( byte ) ( value >>> 8 ), ( byte ) value } );
+        }
+        catch ( UnknownHostException e )
+        {
+            // Can't happen with 4 bytes
+            throw new IllegalArgumentException( e );
+        }
+    }
+
+
+    /**
+     * @param prefixLength the number of bits of the network part
+     * @return the netmask
+     */
+    static int netmask( int prefixLength )
+    {
+        return prefixLength == 0 ? 0 : -1 << ( 32 - prefixLength );
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append-only log of the lease changes. Each record holds the whole state of a
+ * lease, and is framed by its length and its CRC32, so that a record which has not
+ * been completely written before a crash is ignored when the log is read back. The
+ * log is rewritten with the live leases only when it grows too large.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LeaseJournal implements Closeable
+{
+    /** The log for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LeaseJournal.class );
+
+    /** The largest record we can read */
+    private static final int MAX_RECORD_LENGTH = 1024;
+
+    /** The journal file */
+    private final File file;
+
+    /** The channel the records are appended to */
+    private FileChannel channel;
+
+    /** The number of records written since the journal was last rewritten */
+    private int recordCount;
+
+
+    /**
+     * Creates a new instance of LeaseJournal.
+     *
+     * @param file the journal file
+     */
+    LeaseJournal( File file )
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Reads the journal back.
+     *
+     * @return the leases which were neither released nor expired, in journal order
+     * @throws IOException if the journal can't be read
+     */
+    List<Lease> recover() throws IOException
+    {
+        Map<HardwareAddress, Lease> leases = new LinkedHashMap<>();
+
+        if ( !file.exists() )
+        {
+            return new ArrayList<>();
+        }
+
+        try ( InputStream in = Files.newInputStream( file.toPath() );
+            DataInputStream data = new DataInputStream( in ) )
+        {
+            while ( true )
+            {
+                int length;
+                int crc;
+
+                try
+                {
+                    length = data.readInt();
+                    crc = data.readInt();
+                }
+                catch ( EOFException eofe )
+                {
+                    break;
+                }
+
+                if ( ( length <= 0 ) || ( length > MAX_RECORD_LENGTH ) )
+                {
+                    LOG.warn( "Ignoring the end of the lease journal {}: invalid record length {}", file, length );
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+
+                try
+                {
+                    data.readFully( payload );
+                }
+                catch ( EOFException eofe )
+                {
+                    LOG.warn( "Ignoring a truncated record at the end of the lease journal {}", file );
+                    break;
+                }
+
+                CRC32 checksum = new CRC32();
+                checksum.update( payload );
+
+                if ( ( int ) checksum.getValue() != crc )
+                {
+                    LOG.warn( "Ignoring the end of the lease journal {}: corrupted record", file );
+                    break;
+                }
+
+                Lease lease = readLease( payload );
+                leases.remove( lease.getHardwareAddress() );
+
+                if ( ( lease.getState() != Lease.STATE_RELEASED ) && ( lease.getState() != Lease.STATE_EXPIRED ) )
+                {
+                    leases.put( lease.getHardwareAddress(), lease );
+                }
+            }
+        }
+
+        return new ArrayList<>( leases.values() );
+    }
+
+
+    /**
+     * Opens the journal for appending.
+     *
+     * @throws IOException if the journal can't be opened
+     */
+    void open() throws IOException
+    {
+        channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND );
+    }
+
+
+    /**
+     * Appends the state of a lease to the journal.
+     *
+     * @param lease the lease
+     * @param sync if the record must be on disk before returning
+     * @throws IOException if the record can't be written
+     */
+    void write( Lease lease, boolean sync ) throws IOException
+    {
+        ByteBuffer record = toRecord( lease );
+
+        while ( record.hasRemaining() )
+        {
+            channel.write( record );
+        }
+
+        if ( sync )
+        {
+            channel.force( false );
+        }
+
+        recordCount++;
+    }
+
+
+    /**
+     * Replaces the journal content with the given leases.
+     *
+     * @param leases the live leases
+     * @throws IOException if the journal can't be rewritten
+     */
+    void rewrite( Collection<Lease> leases ) throws IOException
+    {
+        File tmpFile = new File( file.getPath() + ".tmp" );
+
+        try ( FileChannel tmpChannel = FileChannel.open( tmpFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            for ( Lease lease : leases )
+            {
+                ByteBuffer record = toRecord( lease );
+
+                while ( record.hasRemaining() )
+                {
+                    tmpChannel.write( record );
+                }
+            }
+
+            tmpChannel.force( true );
+        }
+
+        close();
+        Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+        open();
+        recordCount = leases.size();
+    }
+
+
+    /**
+     * @return the number of records written since the journal was last rewritten
+     */
+    int getRecordCount()
+    {
+        return recordCount;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    private static ByteBuffer toRecord( Lease lease ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( bytes ) )
+        {
+            HardwareAddress hardwareAddress = lease.getHardwareAddress();
+            out.writeByte( lease.getState() );
+            out.writeShort( hardwareAddress.getType() );
+            out.writeShort( hardwareAddress.getLength() );
+            out.writeByte( hardwareAddress.getAddress().length );
+            out.write( hardwareAddress.getAddress() );
+
+            byte[] clientAddress = lease.getClientAddress() == null ? new byte[0] : lease.getClientAddress()
+                .getAddress();
+            out.writeByte( clientAddress.length );
+            out.write( clientAddress );
+
+            out.writeLong( lease.getAcquired() );
+            out.writeLong( lease.getExpires() );
+        }
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update( payload );
+
+        ByteBuffer record = ByteBuffer.allocate( payload.length + 8 );
+        record.putInt( payload.length );
+        record.putInt( ( int ) checksum.getValue() );
+        record.put( payload );
+        record.flip();
+
+        return record;
+    }
+
+
+    private static Lease readLease( byte[] payload ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( payload ) );
+        Lease lease = new Lease();
+        lease.setState( in.readByte() );
+
+        short type = in.readShort();
+        short length = in.readShort();
+        byte[] address = new byte[in.readUnsignedByte()];
+        in.readFully( address );
+        lease.setHardwareAddress( new HardwareAddress( type, length, address ) );
+
+        byte[] clientAddress = new byte[in.readUnsignedByte()];
+        in.readFully( clientAddress );
+
+        if ( clientAddress.length > 0 )
+        {
+            lease.setClientAddress( InetAddress.getByAddress( clientAddress ) );
+        }
+
+        lease.setAcquired( in.readLong() );
+        lease.setExpires( in.readLong() );
+
+        return lease;
+    }
+}
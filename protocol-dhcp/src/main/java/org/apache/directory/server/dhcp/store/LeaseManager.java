@@ -0,0 +1,361 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps the leases of a DHCP store, and allocates the dynamic addresses from an
+ * {@link AddressPool} per subnet. The leases are kept in a concurrent map, and
+ * optionally persisted in a journal, so that they survive a restart. The expired
+ * leases are swept, and their address given back to their pool, on allocation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LeaseManager implements Closeable
+{
+    /** The log for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LeaseManager.class );
+
+    /** The default minimum delay between two expiry sweeps, in milliseconds */
+    public static final long DEFAULT_SWEEP_INTERVAL = 60000L;
+
+    /** The journal is rewritten when it holds more than this number of records per live lease */
+    private static final int MAX_RECORDS_PER_LEASE = 4;
+
+    /** The minimum number of records before the journal is rewritten */
+    private static final int MIN_RECORDS_BEFORE_REWRITE = 1024;
+
+    /** The subnets the addresses belong to */
+    private final SubnetTable subnets;
+
+    /** The current leases */
+    private final ConcurrentMap<HardwareAddress, Lease> leases = new ConcurrentHashMap<>();
+
+    /** The address pools, created on first use */
+    private final ConcurrentMap<Subnet, AddressPool> pools = new ConcurrentHashMap<>();
+
+    /** The lease journal, if any */
+    private final LeaseJournal journal;
+
+    /** The minimum delay between two expiry sweeps */
+    private volatile long sweepInterval = DEFAULT_SWEEP_INTERVAL;
+
+    /** The time of the next expiry sweep */
+    private final AtomicLong nextSweep = new AtomicLong();
+
+
+    /**
+     * Creates a LeaseManager keeping its leases in memory only.
+     *
+     * @param subnets the subnets the addresses are allocated from
+     */
+    public LeaseManager( SubnetTable subnets )
+    {
+        this.subnets = subnets;
+        this.journal = null;
+    }
+
+
+    /**
+     * Creates a LeaseManager persisting its leases in a journal, and reloads the
+     * leases it contains.
+     *
+     * @param subnets the subnets the addresses are allocated from
+     * @param journalFile the journal file
+     * @throws IOException if the journal can't be read or opened
+     */
+    public LeaseManager( SubnetTable subnets, File journalFile ) throws IOException
+    {
+        this.subnets = subnets;
+        this.journal = new LeaseJournal( journalFile );
+
+        try
+        {
+            for ( Lease lease : journal.recover() )
+            {
+                leases.put( lease.getHardwareAddress(), lease );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( I18n.err( I18n.ERR_36011_CANNOT_READ_LEASE_JOURNAL, journalFile ), ioe );
+            throw ioe;
+        }
+
+        journal.open();
+        LOG.debug( "{} leases recovered from {}", leases.size(), journalFile );
+    }
+
+
+    /**
+     * @param hardwareAddress the client hardware address
+     * @return the lease of the client, or null
+     */
+    public Lease getLease( HardwareAddress hardwareAddress )
+    {
+        return leases.get( hardwareAddress );
+    }
+
+
+    /**
+     * @return the number of leases
+     */
+    public int getLeaseCount()
+    {
+        return leases.size();
+    }
+
+
+    /**
+     * Allocates an address from the pool of a subnet.
+     *
+     * @param subnet the subnet
+     * @param requestedAddress the address requested by the client, or null
+     * @return the allocated address, or null if the subnet has no free address
+     */
+    public InetAddress allocate( Subnet subnet, InetAddress requestedAddress )
+    {
+        sweepIfDue( System.currentTimeMillis() );
+
+        if ( !( subnet.getAddress() instanceof Inet4Address ) )
+        {
+            return null;
+        }
+
+        return getPool( subnet ).allocate( requestedAddress );
+    }
+
+
+    /**
+     * Stores the new state of a lease. A released or expired lease is removed, and
+     * its address given back to its pool.
+     *
+     * @param lease the lease
+     */
+    public void updateLease( Lease lease )
+    {
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+        int state = lease.getState();
+
+        if ( ( state == Lease.STATE_RELEASED ) || ( state == Lease.STATE_EXPIRED ) )
+        {
+            if ( leases.remove( hardwareAddress, lease ) )
+            {
+                release( lease.getClientAddress() );
+            }
+        }
+        else
+        {
+            Lease previous = leases.put( hardwareAddress, lease );
+
+            if ( ( previous != null ) && ( previous != lease ) && ( previous.getClientAddress() != null )
+                && !previous.getClientAddress().equals( lease.getClientAddress() ) )
+            {
+                release( previous.getClientAddress() );
+            }
+
+            reserve( lease.getClientAddress() );
+        }
+
+        if ( journal != null )
+        {
+            // An offer is not a commitment, it does not need to be on disk
+            log( lease, state != Lease.STATE_OFFERED );
+        }
+    }
+
+
+    /**
+     * Expires the leases which are over.
+     *
+     * @param now the current time
+     * @return the number of expired leases
+     */
+    public int expireLeases( long now )
+    {
+        int expired = 0;
+
+        for ( Lease lease : leases.values() )
+        {
+            if ( ( lease.getExpires() >= 0 ) && ( lease.getExpires() < now ) )
+            {
+                lease.setState( Lease.STATE_EXPIRED );
+                updateLease( lease );
+                expired++;
+            }
+        }
+
+        if ( expired > 0 )
+        {
+            LOG.debug( "{} leases expired", expired );
+        }
+
+        return expired;
+    }
+
+
+    /**
+     * Expires the leases which are over, if the last sweep is older than the sweep interval.
+     *
+     * @param now the current time
+     */
+    public void sweepIfDue( long now )
+    {
+        long due = nextSweep.get();
+
+        if ( ( now >= due ) && nextSweep.compareAndSet( due, now + sweepInterval ) )
+        {
+            expireLeases( now );
+        }
+    }
+
+
+    /**
+     * @param sweepInterval the minimum delay between two expiry sweeps, in milliseconds
+     */
+    public void setSweepInterval( long sweepInterval )
+    {
+        this.sweepInterval = sweepInterval;
+    }
+
+
+    /**
+     * Rewrites the journal with the live leases, then closes it.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( journal != null )
+        {
+            synchronized ( journal )
+            {
+                journal.rewrite( leases.values() );
+                journal.close();
+            }
+        }
+    }
+
+
+    private void log( Lease lease, boolean sync )
+    {
+        synchronized ( journal )
+        {
+            try
+            {
+                journal.write( lease, sync );
+
+                if ( journal.getRecordCount() > Math.max( MIN_RECORDS_BEFORE_REWRITE, MAX_RECORDS_PER_LEASE
+                    * leases.size() ) )
+                {
+                    journal.rewrite( leases.values() );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( I18n.err( I18n.ERR_36012_CANNOT_WRITE_LEASE_JOURNAL, lease ), ioe );
+            }
+        }
+    }
+
+
+    /**
+     * @return the pool of the subnet, with the addresses of the known leases reserved
+     */
+    private AddressPool getPool( Subnet subnet )
+    {
+        AddressPool pool = pools.get( subnet );
+
+        if ( pool == null )
+        {
+            synchronized ( pools )
+            {
+                pool = pools.get( subnet );
+
+                if ( pool == null )
+                {
+                    pool = new AddressPool( subnet );
+
+                    for ( Lease lease : leases.values() )
+                    {
+                        if ( lease.getClientAddress() != null )
+                        {
+                            pool.reserve( lease.getClientAddress() );
+                        }
+                    }
+
+                    pools.put( subnet, pool );
+                }
+            }
+        }
+
+        return pool;
+    }
+
+
+    private AddressPool findPool( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return null;
+        }
+
+        Subnet subnet = subnets.find( address );
+
+        return subnet == null || !( subnet.getAddress() instanceof Inet4Address ) ? null : getPool( subnet );
+    }
+
+
+    private void reserve( InetAddress address )
+    {
+        AddressPool pool = findPool( address );
+
+        if ( pool != null )
+        {
+            pool.reserve( address );
+        }
+    }
+
+
+    private void release( InetAddress address )
+    {
+        AddressPool pool = findPool( address );
+
+        if ( pool != null )
+        {
+            pool.release( address );
+        }
+    }
+}
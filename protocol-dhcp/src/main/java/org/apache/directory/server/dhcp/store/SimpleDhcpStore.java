@@ -20,14 +20,13 @@
 package org.apache.directory.server.dhcp.store;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
@@ -47,21 +46,73 @@ import org.apache.directory.server.dhcp.service.Lease;
 
 
 /**
- * Very simple dummy/proof-of-concept implementation of a DhcpStore.
+ * Very simple dummy/proof-of-concept implementation of a DhcpStore. The leases
+ * and the dynamic address pools are kept by a {@link LeaseManager}, and the
+ * designated hosts read from the directory are remembered for a while.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class SimpleDhcpStore extends AbstractDhcpStore
 {
-    // a map of current leases
-    private Map leases = new HashMap();
+    /** The default time a designated host lookup is remembered, in milliseconds */
+    public static final long DEFAULT_HOST_CACHE_TTL = 300000L;
 
-    private List subnets = new ArrayList();
+    /** The maximum number of remembered designated host lookups */
+    private static final int MAX_CACHED_HOSTS = 10000;
+
+    /** The subnets, looked up by longest prefix */
+    private final SubnetTable subnets = new SubnetTable();
+
+    /** The current leases and the address pools */
+    private final LeaseManager leaseManager;
+
+    /** The designated host lookups, including the unsuccessful ones */
+    private final Map<HardwareAddress, HostLookup> hosts = new ConcurrentHashMap<>();
+
+    /** The time a designated host lookup is remembered */
+    private volatile long hostCacheTtl = DEFAULT_HOST_CACHE_TTL;
+
+    /** The result of a designated host lookup, and when it must be looked up again */
+    private static final class HostLookup
+    {
+        private final Host host;
+        private final long expires;
+
+
+        private HostLookup( Host host, long expires )
+        {
+            this.host = host;
+            this.expires = expires;
+        }
+    }
+
+
+    /**
+     * Creates a store keeping its leases in memory only.
+     */
+    public SimpleDhcpStore()
+    {
+        addDefaultSubnet();
+        leaseManager = new LeaseManager( subnets );
+    }
+
+
+    /**
+     * Creates a store persisting its leases in a journal.
+     *
+     * @param leaseJournal the lease journal file
+     * @throws IOException if the journal can't be read or opened
+     */
+    public SimpleDhcpStore( File leaseJournal ) throws IOException
+    {
+        addDefaultSubnet();
+        leaseManager = new LeaseManager( subnets, leaseJournal );
+    }
 
 
     //This will suppress PMD.AvoidUsingHardCodedIP warnings in this class
     @SuppressWarnings("PMD.AvoidUsingHardCodedIP")
-    public SimpleDhcpStore()
+    private void addDefaultSubnet()
     {
         try
         {
@@ -76,6 +127,36 @@ public class SimpleDhcpStore extends AbstractDhcpStore
     }
 
 
+    /**
+     * Adds a subnet the store serves addresses from.
+     *
+     * @param subnet the subnet
+     */
+    public void addSubnet( Subnet subnet )
+    {
+        subnets.add( subnet );
+    }
+
+
+    /**
+     * @return the lease manager of this store
+     */
+    public LeaseManager getLeaseManager()
+    {
+        return leaseManager;
+    }
+
+
+    /**
+     * @param hostCacheTtl the time a designated host lookup is remembered, in milliseconds
+     */
+    public void setHostCacheTtl( long hostCacheTtl )
+    {
+        this.hostCacheTtl = hostCacheTtl;
+        hosts.clear();
+    }
+
+
     protected DirContext getContext() throws NamingException
     {
         Hashtable env = new Hashtable();
@@ -93,21 +174,48 @@ public class SimpleDhcpStore extends AbstractDhcpStore
      */
     protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
     {
-        if ( leases.containsKey( hardwareAddress ) )
+        Lease lease = leaseManager.getLease( hardwareAddress );
+
+        return lease != null ? lease : existingLease;
+    }
+
+
+    /**
+     * @param hardwareAddress
+     * @return Host
+     * @throws DhcpException
+     */
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    {
+        long now = System.currentTimeMillis();
+        HostLookup lookup = hosts.get( hardwareAddress );
+
+        if ( ( lookup != null ) && ( lookup.expires > now ) )
+        {
+            return lookup.host;
+        }
+
+        Host host = lookupDesignatedHost( hardwareAddress );
+
+        if ( hosts.size() >= MAX_CACHED_HOSTS )
         {
-            existingLease = ( Lease ) leases.get( hardwareAddress );
+            hosts.clear();
         }
 
-        return existingLease;
+        hosts.put( hardwareAddress, new HostLookup( host, now + hostCacheTtl ) );
+
+        return host;
     }
 
 
     /**
+     * Search the directory for the host with the given hardware address.
+     * 
      * @param hardwareAddress
      * @return Host
      * @throws DhcpException
      */
-    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    protected Host lookupDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
     {
         try
         {
@@ -164,17 +272,18 @@ public class SimpleDhcpStore extends AbstractDhcpStore
      */
     protected Subnet findSubnet( InetAddress clientAddress )
     {
-        for ( Iterator i = subnets.iterator(); i.hasNext(); )
-        {
-            Subnet subnet = ( Subnet ) i.next();
+        return subnets.find( clientAddress );
+    }
 
-            if ( subnet.contains( clientAddress ) )
-            {
-                return subnet;
-            }
-        }
 
-        return null;
+    /*
+     * @see org.apache.directory.server.dhcp.store.AbstractDhcpStore#allocateAddress(org.apache.directory.server.dhcp.store.Subnet,
+     *      org.apache.directory.server.dhcp.messages.HardwareAddress, java.net.InetAddress)
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress )
+    {
+        return leaseManager.allocate( subnet, requestedAddress );
     }
 
 
@@ -183,7 +292,7 @@ public class SimpleDhcpStore extends AbstractDhcpStore
      */
     public void updateLease( Lease lease )
     {
-        leases.put( lease.getHardwareAddress(), lease );
+        leaseManager.updateLease( lease );
     }
 
 
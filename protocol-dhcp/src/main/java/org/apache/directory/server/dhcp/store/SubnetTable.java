@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * A table of subnets, returning the most specific subnet containing an address.
+ * The IPv4 subnets are stored in one map per prefix length, keyed by their network
+ * address : a lookup masks the address with each prefix length in use, the longest
+ * first, so its cost depends on the number of distinct prefix lengths, not on the
+ * number of subnets. The other subnets are searched linearly.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubnetTable
+{
+    /** The IPv4 subnets, keyed by network address, for each prefix length */
+    private final List<Map<Integer, Subnet>> subnetsByPrefix = new ArrayList<>();
+
+    /** The prefix lengths in use, longest first */
+    private volatile int[] prefixLengths = new int[0];
+
+    /** The subnets which can't be looked up by prefix */
+    private final List<Subnet> otherSubnets = new CopyOnWriteArrayList<>();
+
+
+    /**
+     * Creates a new instance of SubnetTable.
+     */
+    public SubnetTable()
+    {
+        for ( int i = 0; i <= 32; i++ )
+        {
+            subnetsByPrefix.add( new ConcurrentHashMap<Integer, Subnet>() );
+        }
+    }
+
+
+    /**
+     * Adds a subnet to the table, replacing a subnet with the same network address
+     * and netmask.
+     *
+     * @param subnet the subnet to add
+     */
+    public synchronized void add( Subnet subnet )
+    {
+        int prefixLength = getPrefixLength( subnet );
+
+        if ( prefixLength < 0 )
+        {
+            otherSubnets.add( subnet );
+
+            return;
+        }
+
+        int network = Inet4Addresses.toInt( subnet.getAddress() ) & Inet4Addresses.netmask( prefixLength );
+        subnetsByPrefix.get( prefixLength ).put( network, subnet );
+        updatePrefixLengths();
+    }
+
+
+    /**
+     * Removes a subnet from the table.
+     *
+     * @param subnet the subnet to remove
+     * @return true if the subnet was in the table
+     */
+    public synchronized boolean remove( Subnet subnet )
+    {
+        int prefixLength = getPrefixLength( subnet );
+
+        if ( prefixLength < 0 )
+        {
+            return otherSubnets.remove( subnet );
+        }
+
+        int network = Inet4Addresses.toInt( subnet.getAddress() ) & Inet4Addresses.netmask( prefixLength );
+        boolean removed = subnetsByPrefix.get( prefixLength ).remove( network, subnet );
+        updatePrefixLengths();
+
+        return removed;
+    }
+
+
+    /**
+     * Finds the most specific subnet containing an address.
+     *
+     * @param address the address
+     * @return the subnet with the longest prefix containing the address, or null
+     */
+    public Subnet find( InetAddress address )
+    {
+        if ( address instanceof Inet4Address )
+        {
+            int value = Inet4Addresses.toInt( address );
+
+            for ( int prefixLength : prefixLengths )
+            {
+                Subnet subnet = subnetsByPrefix.get( prefixLength ).get( value & Inet4Addresses.netmask( prefixLength ) );
+
+                if ( subnet != null )
+                {
+                    return subnet;
+                }
+            }
+        }
+
+        for ( Subnet subnet : otherSubnets )
+        {
+            if ( subnet.contains( address ) )
+            {
+                return subnet;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return all the subnets of the table
+     */
+    public Collection<Subnet> getSubnets()
+    {
+        List<Subnet> subnets = new ArrayList<>();
+
+        for ( Map<Integer, Subnet> prefixSubnets : subnetsByPrefix )
+        {
+            subnets.addAll( prefixSubnets.values() );
+        }
+
+        subnets.addAll( otherSubnets );
+
+        return subnets;
+    }
+
+
+    /**
+     * @return the prefix length of an IPv4 subnet with a contiguous netmask, -1 otherwise
+     */
+    private static int getPrefixLength( Subnet subnet )
+    {
+        if ( !( subnet.getAddress() instanceof Inet4Address ) || !( subnet.getNetmask() instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        int netmask = Inet4Addresses.toInt( subnet.getNetmask() );
+        int prefixLength = Integer.bitCount( netmask );
+
+        return netmask == Inet4Addresses.netmask( prefixLength ) ? prefixLength : -1;
+    }
+
+
+    private void updatePrefixLengths()
+    {
+        int[] lengths = new int[33];
+        int count = 0;
+
+        for ( int prefixLength = 32; prefixLength >= 0; prefixLength-- )
+        {
+            if ( !subnetsByPrefix.get( prefixLength ).isEmpty() )
+            {
+                lengths[count++] = prefixLength;
+            }
+        }
+
+        prefixLengths = Arrays.copyOf( lengths, count );
+    }
+}
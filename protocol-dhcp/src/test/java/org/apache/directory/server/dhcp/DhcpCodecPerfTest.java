@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.apache.directory.server.dhcp.io.DhcpMessageDecoder;
+import org.apache.directory.server.dhcp.options.DhcpOption;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.options.dhcp.UnrecognizedOption;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Compares the time spent decoding the options of a DHCPDISCOVER message
+ * through {@link DhcpMessageDecoder#decodeOptions(ByteBuffer)} with the former
+ * path, which copied each option value into a new array and instantiated the
+ * option class by reflection. Both paths still allocate one {@link DhcpOption}
+ * per decoded option.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Disabled("A benchmark, not a test")
+public class DhcpCodecPerfTest extends AbstractDhcpTestCase
+{
+    /** The size of the fixed part of a DHCP message, preceding the options */
+    private static final int OPTIONS_OFFSET = 236;
+
+    private static final int VENDOR_MAGIC_COOKIE = 0x63825363;
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+
+    public DhcpCodecPerfTest()
+    {
+        super( DhcpCodecPerfTest.class );
+    }
+
+
+    /**
+     * The options decoding as it was done before the factory table was
+     * introduced.
+     */
+    private static OptionsField decodeOptionsReflectively( ByteBuffer message ) throws Exception
+    {
+        if ( message.getInt() != VENDOR_MAGIC_COOKIE )
+        {
+            throw new DhcpException( "Parse exception." );
+        }
+
+        OptionsField options = new OptionsField();
+
+        while ( true )
+        {
+            byte code = message.get();
+
+            if ( code == 0 )
+            {
+                continue;
+            }
+
+            if ( code == -1 )
+            {
+                break;
+            }
+
+            byte[] value = new byte[message.get()];
+            message.get( value );
+
+            Class<?> c = DhcpOption.getClassByTag( code );
+            DhcpOption option = null != c
+                ? ( DhcpOption ) c.getDeclaredConstructor().newInstance()
+                : new UnrecognizedOption( code );
+            option.setData( value );
+            options.add( option );
+        }
+
+        return options;
+    }
+
+
+    private static int count( OptionsField options )
+    {
+        int count = 0;
+
+        for ( Iterator<?> it = options.iterator(); it.hasNext(); it.next() )
+        {
+            count++;
+        }
+
+        return count;
+    }
+
+
+    @Test
+    public void testDecodeOptionsPerf() throws Exception
+    {
+        ByteBuffer request = getByteBufferFromFile( "DHCPDISCOVER.pdu" );
+        DhcpMessageDecoder decoder = new DhcpMessageDecoder();
+
+        request.position( OPTIONS_OFFSET );
+        int expected = count( decodeOptionsReflectively( request ) );
+        request.position( OPTIONS_OFFSET );
+        assertEquals( expected, count( decoder.decodeOptions( request ) ) );
+
+        for ( int i = 0; i < WARMUP; i++ )
+        {
+            request.position( OPTIONS_OFFSET );
+            decodeOptionsReflectively( request );
+            request.position( OPTIONS_OFFSET );
+            decoder.decodeOptions( request );
+        }
+
+        long t0 = System.nanoTime();
+
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            request.position( OPTIONS_OFFSET );
+            decodeOptionsReflectively( request );
+        }
+
+        long t1 = System.nanoTime();
+
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            request.position( OPTIONS_OFFSET );
+            decoder.decodeOptions( request );
+        }
+
+        long t2 = System.nanoTime();
+
+        log.info( "Reflective options decoding : {} ns/message", ( t1 - t0 ) / ITERATIONS );
+        log.info( "Factory options decoding    : {} ns/message", ( t2 - t1 ) / ITERATIONS );
+    }
+}
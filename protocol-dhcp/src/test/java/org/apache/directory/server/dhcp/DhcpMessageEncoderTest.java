@@ -0,0 +1,160 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.apache.directory.server.dhcp.io.DhcpMessageDecoder;
+import org.apache.directory.server.dhcp.io.DhcpMessageEncoder;
+import org.apache.directory.server.dhcp.messages.DhcpMessage;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.messages.MessageType;
+import org.apache.directory.server.dhcp.options.DhcpOption;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.options.dhcp.IpAddressLeaseTime;
+import org.apache.directory.server.dhcp.options.dhcp.MaximumDhcpMessageSize;
+import org.apache.directory.server.dhcp.options.dhcp.UnrecognizedOption;
+import org.apache.directory.server.dhcp.options.vendor.DomainName;
+import org.apache.directory.server.dhcp.options.vendor.SubnetMask;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DhcpMessageEncoderTest extends AbstractDhcpTestCase
+{
+    public DhcpMessageEncoderTest()
+    {
+        super( DhcpMessageEncoderTest.class );
+    }
+
+
+    private DhcpMessage roundTrip( DhcpMessage message ) throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( 1024 );
+        new DhcpMessageEncoder().encode( buffer, message );
+        buffer.flip();
+
+        return new DhcpMessageDecoder().decode( buffer );
+    }
+
+
+    @Test
+    public void testEncodeDecodedDiscover() throws Exception
+    {
+        DhcpMessageDecoder decoder = new DhcpMessageDecoder();
+        DhcpMessage discover = decoder.decode( getByteBufferFromFile( "DHCPDISCOVER.pdu" ) );
+        DhcpMessage decoded = roundTrip( discover );
+
+        assertEquals( discover.getMessageType(), decoded.getMessageType() );
+        assertEquals( discover.getTransactionId(), decoded.getTransactionId() );
+        assertEquals( discover.getHardwareAddress(), decoded.getHardwareAddress() );
+        assertEquals( discover.getCurrentClientAddress(), decoded.getCurrentClientAddress() );
+        assertEquals( discover.getServerHostname(), decoded.getServerHostname() );
+        assertEquals( discover.getBootFileName(), decoded.getBootFileName() );
+
+        for ( Iterator<?> i = discover.getOptions().iterator(); i.hasNext(); )
+        {
+            DhcpOption option = ( DhcpOption ) i.next();
+            DhcpOption copy = decoded.getOptions().get( option.getTag() );
+
+            assertEquals( option.getClass(), copy.getClass() );
+            assertArrayEquals( option.getData(), copy.getData() );
+        }
+    }
+
+
+    @Test
+    public void testEncodeOptions() throws Exception
+    {
+        OptionsField options = new OptionsField();
+        options.add( new SubnetMask( InetAddress.getByName( "255.255.255.0" ) ) );
+        IpAddressLeaseTime leaseTime = new IpAddressLeaseTime();
+        leaseTime.setIntValue( 0xffffffffL );
+        options.add( leaseTime );
+        MaximumDhcpMessageSize maximumSize = new MaximumDhcpMessageSize();
+        maximumSize.setShortValue( 1500 );
+        options.add( maximumSize );
+        DomainName domainName = new DomainName();
+        domainName.setString( "example.com" );
+        options.add( domainName );
+        UnrecognizedOption unrecognized = new UnrecognizedOption( ( byte ) 250 );
+        unrecognized.setData( new byte[]
+            { 1, 2, 3 } );
+        options.add( unrecognized );
+
+        DhcpMessage message = new DhcpMessage( MessageType.DHCPOFFER, DhcpMessage.OP_BOOTREPLY,
+            new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+                { 0x00, 0x0c, 0x29, 0x12, 0x34, 0x56 } ),
+            ( short ) 0, 0x12345678, 0, ( short ) 0, null, InetAddress.getByName( "192.168.0.10" ), null, null,
+            "server", "boot", options );
+
+        DhcpMessage decoded = roundTrip( message );
+
+        assertEquals( MessageType.DHCPOFFER, decoded.getMessageType() );
+        assertEquals( InetAddress.getByName( "0.0.0.0" ), decoded.getCurrentClientAddress() );
+        assertEquals( InetAddress.getByName( "192.168.0.10" ), decoded.getAssignedClientAddress() );
+        assertEquals( "server", decoded.getServerHostname() );
+        assertEquals( "boot", decoded.getBootFileName() );
+
+        OptionsField decodedOptions = decoded.getOptions();
+        assertEquals( InetAddress.getByName( "255.255.255.0" ),
+            ( ( SubnetMask ) decodedOptions.get( SubnetMask.class ) ).getAddress() );
+        assertEquals( ( int ) 0xffffffffL,
+            ( int ) ( ( IpAddressLeaseTime ) decodedOptions.get( IpAddressLeaseTime.class ) ).getIntValue() );
+        assertEquals( 1500,
+            ( ( MaximumDhcpMessageSize ) decodedOptions.get( MaximumDhcpMessageSize.class ) ).getShortValue() );
+        assertEquals( "example.com", ( ( DomainName ) decodedOptions.get( DomainName.class ) ).getString() );
+
+        DhcpOption decodedUnrecognized = decodedOptions.get( unrecognized.getTag() );
+        assertTrue( decodedUnrecognized instanceof UnrecognizedOption );
+        assertArrayEquals( new byte[]
+            { 1, 2, 3 }, decodedUnrecognized.getData() );
+    }
+
+
+    @Test
+    public void testDecodeTruncatedOption() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.wrap( new byte[]
+            { 99, ( byte ) 130, 83, 99, 51, 2, 0, 0, 0, 0, 0, ( byte ) 0xff } );
+
+        // The lease time (51) is a 4 bytes value
+        assertThrows( DhcpException.class, () -> new DhcpMessageDecoder().decodeOptions( buffer ) );
+    }
+
+
+    @Test
+    public void testNewInstance()
+    {
+        assertTrue( DhcpOption.newInstance( 1 ) instanceof SubnetMask );
+        assertTrue( DhcpOption.newInstance( 51 ) instanceof IpAddressLeaseTime );
+        assertEquals( ( byte ) 250, DhcpOption.newInstance( 250 ).getTag() );
+    }
+}
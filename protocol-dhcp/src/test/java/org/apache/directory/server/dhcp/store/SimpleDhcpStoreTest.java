@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.server.dhcp.DhcpException;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Tests the lease management of the SimpleDhcpStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SimpleDhcpStoreTest
+{
+    @TempDir
+    public File tempDir;
+
+    /** A store without any designated host, counting the directory lookups */
+    private static class TestDhcpStore extends SimpleDhcpStore
+    {
+        int lookups;
+
+
+        TestDhcpStore()
+        {
+        }
+
+
+        TestDhcpStore( File leaseJournal ) throws Exception
+        {
+            super( leaseJournal );
+        }
+
+
+        @Override
+        protected Host lookupDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+        {
+            lookups++;
+
+            return null;
+        }
+    }
+
+
+    private static HardwareAddress hardwareAddress( int i )
+    {
+        return new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+            { 0, 1, 2, 3, ( byte ) ( i >> 8 ), ( byte ) i } );
+    }
+
+
+    private static Lease offer( SimpleDhcpStore store, int i, String requestedAddress ) throws Exception
+    {
+        return store.getLeaseOffer( hardwareAddress( i ), requestedAddress == null ? null : InetAddress
+            .getByName( requestedAddress ), InetAddress.getByName( "192.168.168.1" ), -1, new OptionsField() );
+    }
+
+
+    private static Lease request( SimpleDhcpStore store, int i, InetAddress address ) throws Exception
+    {
+        return store.getExistingLease( hardwareAddress( i ), address, InetAddress.getByName( "192.168.168.1" ), -1,
+            new OptionsField() );
+    }
+
+
+    @Test
+    public void testLongestPrefixMatch() throws Exception
+    {
+        SubnetTable table = new SubnetTable();
+        Subnet wide = new Subnet( InetAddress.getByName( "10.0.0.0" ), InetAddress.getByName( "255.0.0.0" ), null,
+            null );
+        Subnet narrow = new Subnet( InetAddress.getByName( "10.1.0.0" ), InetAddress.getByName( "255.255.0.0" ),
+            null, null );
+        table.add( wide );
+        table.add( narrow );
+
+        assertSame( narrow, table.find( InetAddress.getByName( "10.1.2.3" ) ) );
+        assertSame( wide, table.find( InetAddress.getByName( "10.2.0.1" ) ) );
+        assertNull( table.find( InetAddress.getByName( "11.0.0.1" ) ) );
+
+        table.remove( narrow );
+        assertSame( wide, table.find( InetAddress.getByName( "10.1.2.3" ) ) );
+    }
+
+
+    @Test
+    public void testDynamicAllocation() throws Exception
+    {
+        TestDhcpStore store = new TestDhcpStore();
+
+        // The requested address is honored when free
+        Lease lease = offer( store, 0, "192.168.168.170" );
+        assertEquals( InetAddress.getByName( "192.168.168.170" ), lease.getClientAddress() );
+        assertEquals( Lease.STATE_OFFERED, lease.getState() );
+
+        // The same client gets the same lease back
+        assertSame( lease, offer( store, 0, null ) );
+
+        // The range holds 21 addresses, all distinct
+        Set<InetAddress> addresses = new HashSet<InetAddress>();
+        addresses.add( lease.getClientAddress() );
+
+        for ( int i = 1; i < 21; i++ )
+        {
+            Lease other = offer( store, i, "192.168.168.170" );
+            assertNotEquals( lease.getClientAddress(), other.getClientAddress() );
+            assertTrue( store.findSubnet( other.getClientAddress() ).isInRange( other.getClientAddress() ) );
+            addresses.add( other.getClientAddress() );
+        }
+
+        assertEquals( 21, addresses.size() );
+        assertNull( offer( store, 21, null ) );
+
+        // Releasing a lease frees its address
+        store.releaseLease( lease );
+        assertNotNull( offer( store, 21, null ) );
+
+        // The hosts looked up in the directory are remembered
+        assertEquals( 22, store.lookups );
+    }
+
+
+    @Test
+    public void testExpireLeases() throws Exception
+    {
+        TestDhcpStore store = new TestDhcpStore();
+
+        Lease lease = offer( store, 0, null );
+        lease.setExpires( System.currentTimeMillis() - 1000L );
+
+        assertEquals( 1, store.getLeaseManager().expireLeases( System.currentTimeMillis() ) );
+        assertNull( store.getLeaseManager().getLease( hardwareAddress( 0 ) ) );
+        assertEquals( Lease.STATE_EXPIRED, lease.getState() );
+
+        // The address can be allocated again
+        assertEquals( lease.getClientAddress(), offer( store, 1, lease.getClientAddress().getHostAddress() )
+            .getClientAddress() );
+    }
+
+
+    @Test
+    public void testRecoverLeases() throws Exception
+    {
+        File journal = new File( tempDir, "leases.log" );
+        TestDhcpStore store = new TestDhcpStore( journal );
+
+        Lease active = offer( store, 0, null );
+        assertNotNull( request( store, 0, active.getClientAddress() ) );
+        assertEquals( Lease.STATE_ACTIVE, active.getState() );
+
+        Lease released = offer( store, 1, null );
+        store.releaseLease( released );
+
+        Lease offered = offer( store, 2, null );
+
+        // A record which has not been completely written
+        try ( FileOutputStream out = new FileOutputStream( journal, true ) )
+        {
+            out.write( new byte[]
+                { 0x00, 0x00, 0x00, 0x30, 0x12, 0x34 } );
+        }
+
+        // Restart without closing, as after a crash
+        TestDhcpStore recovered = new TestDhcpStore( journal );
+        LeaseManager leaseManager = recovered.getLeaseManager();
+
+        assertEquals( 2, leaseManager.getLeaseCount() );
+        assertEquals( active.getClientAddress(), leaseManager.getLease( hardwareAddress( 0 ) ).getClientAddress() );
+        assertEquals( Lease.STATE_ACTIVE, leaseManager.getLease( hardwareAddress( 0 ) ).getState() );
+        assertNull( leaseManager.getLease( hardwareAddress( 1 ) ) );
+        assertEquals( offered.getClientAddress(), leaseManager.getLease( hardwareAddress( 2 ) ).getClientAddress() );
+
+        // The recovered addresses are not allocated again
+        Lease lease = offer( recovered, 3, active.getClientAddress().getHostAddress() );
+        assertNotEquals( active.getClientAddress(), lease.getClientAddress() );
+        assertNotEquals( offered.getClientAddress(), lease.getClientAddress() );
+
+        leaseManager.close();
+        store.getLeaseManager().close();
+    }
+}
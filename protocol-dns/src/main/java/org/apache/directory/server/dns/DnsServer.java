@@ -22,7 +22,11 @@ package org.apache.directory.server.dns;
 
 import java.io.IOException;
 
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
+import org.apache.directory.server.dns.store.CachingRecordStore;
 import org.apache.directory.server.dns.store.RecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
@@ -57,6 +61,12 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** The maximum number of answers kept in memory, 0 to disable the answer cache */
+    private int answerCacheSize = CachingRecordStore.DEFAULT_MAX_SIZE;
+
+    /** The answer cache, if any */
+    private transient CachingRecordStore answerCache;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -75,6 +85,11 @@ public class DnsServer extends DirectoryBackedService
     {
         RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
 
+        if ( ( answerCacheSize > 0 ) && ( getSearchBaseDn() != null ) )
+        {
+            store = startAnswerCache( store );
+        }
+
         if ( ( transports == null ) || transports.isEmpty() )
         {
             // Default to UDP with port 53
@@ -129,8 +144,41 @@ public class DnsServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Puts a cache in front of the store, and registers the listener dropping the cached
+     * answers when an entry below the search base changes.
+     */
+    private RecordStore startAnswerCache( RecordStore store ) throws IOException
+    {
+        CachingRecordStore cache = new CachingRecordStore( store, answerCacheSize );
+
+        try
+        {
+            NotificationCriteria criteria = new NotificationCriteria( getDirectoryService().getSchemaManager() );
+            criteria.setBase( new Dn( getDirectoryService().getSchemaManager(), getSearchBaseDn() ) );
+            criteria.setScope( SearchScope.SUBTREE );
+
+            getDirectoryService().getEventService().addListener( cache.getInvalidationListener(), criteria );
+        }
+        catch ( Exception e )
+        {
+            throw new IOException( e.getMessage(), e );
+        }
+
+        answerCache = cache;
+
+        return cache;
+    }
+
+
     public void stop()
     {
+        if ( answerCache != null )
+        {
+            getDirectoryService().getEventService().removeListener( answerCache.getInvalidationListener() );
+            answerCache = null;
+        }
+
         for ( Transport transport : getTransports() )
         {
             IoAcceptor acceptor = transport.getAcceptor();
@@ -145,6 +193,27 @@ public class DnsServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return the maximum number of answers kept in memory, 0 if the answer cache is disabled
+     */
+    public int getAnswerCacheSize()
+    {
+        return answerCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of answers kept in memory. The cached answers are dropped
+     * when an entry below the search base changes.
+     *
+     * @param answerCacheSize the maximum number of cached answers, 0 to disable the cache
+     */
+    public void setAnswerCacheSize( int answerCacheSize )
+    {
+        this.answerCacheSize = answerCacheSize;
+    }
+
+
     /**
      * @see Object#toString()
      */
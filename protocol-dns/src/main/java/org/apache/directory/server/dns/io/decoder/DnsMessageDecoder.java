@@ -188,7 +188,7 @@ public class DnsMessageDecoder
         if ( isOffset( length ) )
         {
             int position = byteBuffer.getUnsigned();
-            int offset = length & ~( 0xc0 ) << 8;
+            int offset = ( length & 0x3f ) << 8;
             int originalPosition = byteBuffer.position();
             byteBuffer.position( position + offset );
 
@@ -84,6 +84,9 @@ public class DnsMessageEncoder
      */
     public void encode( IoBuffer byteBuffer, DnsMessage message )
     {
+        // The compression pointers are offsets from the message header
+        DomainNameCompressor compressor = new DomainNameCompressor( byteBuffer.position() );
+
         byteBuffer.putShort( ( short ) message.getTransactionId() );
 
         byte header = ( byte ) 0x00;
@@ -107,14 +110,15 @@ public class DnsMessageEncoder
         byteBuffer.putShort( ( short ) ( message.getAdditionalRecords() != null ? message.getAdditionalRecords().size()
             : 0 ) );
 
-        putQuestionRecords( byteBuffer, message.getQuestionRecords() );
-        putResourceRecords( byteBuffer, message.getAnswerRecords() );
-        putResourceRecords( byteBuffer, message.getAuthorityRecords() );
-        putResourceRecords( byteBuffer, message.getAdditionalRecords() );
+        putQuestionRecords( byteBuffer, message.getQuestionRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAnswerRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAuthorityRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAdditionalRecords(), compressor );
     }
 
 
-    private void putQuestionRecords( IoBuffer byteBuffer, List<QuestionRecord> questions )
+    private void putQuestionRecords( IoBuffer byteBuffer, List<QuestionRecord> questions,
+        DomainNameCompressor compressor )
     {
         if ( questions == null )
         {
@@ -128,12 +132,13 @@ public class DnsMessageEncoder
         while ( it.hasNext() )
         {
             QuestionRecord question = it.next();
-            encoder.put( byteBuffer, question );
+            encoder.put( byteBuffer, question, compressor );
         }
     }
 
 
-    private void putResourceRecords( IoBuffer byteBuffer, List<ResourceRecord> records )
+    private void putResourceRecords( IoBuffer byteBuffer, List<ResourceRecord> records,
+        DomainNameCompressor compressor )
     {
         if ( records == null )
         {
@@ -148,7 +153,7 @@ public class DnsMessageEncoder
 
             try
             {
-                put( byteBuffer, record );
+                put( byteBuffer, record, compressor );
             }
             catch ( IOException ioe )
             {
@@ -158,7 +163,8 @@ public class DnsMessageEncoder
     }
 
 
-    private void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
+    private void put( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
+        throws IOException
     {
         RecordType type = record.getRecordType();
 
@@ -169,7 +175,14 @@ public class DnsMessageEncoder
             throw new IOException( I18n.err( I18n.ERR_37005_ENCODER_UNAVAILABLE, type ) );
         }
 
-        encoder.put( byteBuffer, record );
+        if ( encoder instanceof ResourceRecordEncoder )
+        {
+            ( ( ResourceRecordEncoder ) encoder ).put( byteBuffer, record, compressor );
+        }
+        else
+        {
+            encoder.put( byteBuffer, record );
+        }
     }
 
 
@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.mina.core.buffer.IoBuffer;
+
+
+/**
+ * Encodes the domain names of a DNS message using the compression scheme described
+ * in RFC 1035, section 4.1.4 : a name, or a list of labels ending with a pointer,
+ * replaces a suffix already written in the message by a pointer to its first occurrence.
+ * An instance keeps the offsets of the written suffixes, so it must only be used for
+ * one message.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DomainNameCompressor
+{
+    /** The two high bits marking a pointer */
+    private static final int POINTER_MASK = 0xC000;
+
+    /** The highest offset a pointer can reference */
+    private static final int MAX_OFFSET = 0x3FFF;
+
+    /** The position of the message header in the buffer */
+    private final int messageStart;
+
+    /** The offset of the already written suffixes, keyed by their lower cased names */
+    private final Map<String, Integer> offsets = new HashMap<>();
+
+
+    /**
+     * Creates a new instance of DomainNameCompressor.
+     *
+     * @param messageStart the position of the message header in the buffer
+     */
+    public DomainNameCompressor( int messageStart )
+    {
+        this.messageStart = messageStart;
+    }
+
+
+    /**
+     * Encodes a domain name, replacing its longest suffix already present in the
+     * message by a pointer.
+     *
+     * @param byteBuffer the ByteBuffer to encode the domain name into
+     * @param domainName the domain name to encode
+     */
+    public void putDomainName( IoBuffer byteBuffer, String domainName )
+    {
+        if ( !Strings.isEmpty( domainName ) )
+        {
+            String[] labels = domainName.split( "\\." );
+            String suffix = Strings.toLowerCaseAscii( domainName );
+
+            for ( String label : labels )
+            {
+                Integer offset = offsets.get( suffix );
+
+                if ( offset != null )
+                {
+                    byteBuffer.putShort( ( short ) ( POINTER_MASK | offset ) );
+
+                    return;
+                }
+
+                int position = byteBuffer.position() - messageStart;
+
+                if ( position <= MAX_OFFSET )
+                {
+                    offsets.put( suffix, position );
+                }
+
+                byteBuffer.put( ( byte ) label.length() );
+
+                for ( char c : label.toCharArray() )
+                {
+                    byteBuffer.put( ( byte ) c );
+                }
+
+                suffix = suffix.substring( Math.min( label.length() + 1, suffix.length() ) );
+            }
+        }
+
+        byteBuffer.put( ( byte ) 0x00 );
+    }
+}
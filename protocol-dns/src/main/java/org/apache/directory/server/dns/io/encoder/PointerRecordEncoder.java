@@ -49,9 +49,17 @@ import org.apache.mina.core.buffer.IoBuffer;
 public class PointerRecordEncoder extends ResourceRecordEncoder
 {
     protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record )
+    {
+        putResourceRecordData( byteBuffer, record, null );
+    }
+
+
+    @Override
+    protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record,
+        DomainNameCompressor compressor )
     {
         String domainName = record.get( DnsAttribute.DOMAIN_NAME );
 
-        putDomainName( byteBuffer, domainName );
+        putDomainName( byteBuffer, domainName, compressor );
     }
 }
@@ -41,7 +41,29 @@ public class QuestionRecordEncoder
      */
     public void put( IoBuffer out, QuestionRecord question )
     {
-        encodeDomainName( out, question.getDomainName() );
+        put( out, question, null );
+    }
+
+
+    /**
+     * Encodes the {@link QuestionRecord} into the {@link IoBuffer}, compressing its
+     * domain name.
+     *
+     * @param out the buffer to encode the question into
+     * @param question the question to encode
+     * @param compressor the message name compressor, or null to write the name in full
+     */
+    public void put( IoBuffer out, QuestionRecord question, DomainNameCompressor compressor )
+    {
+        if ( compressor == null )
+        {
+            encodeDomainName( out, question.getDomainName() );
+        }
+        else
+        {
+            compressor.putDomainName( out, question.getDomainName() );
+        }
+
         encodeRecordType( out, question.getRecordType() );
         encodeRecordClass( out, question.getRecordClass() );
     }
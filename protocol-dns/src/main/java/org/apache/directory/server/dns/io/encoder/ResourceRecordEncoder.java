@@ -37,25 +37,63 @@ public abstract class ResourceRecordEncoder implements RecordEncoder
 {
     public void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
     {
-        putDomainName( byteBuffer, record.getDomainName() );
+        put( byteBuffer, record, null );
+    }
+
+
+    /**
+     * Encodes the {@link ResourceRecord} into the {@link IoBuffer}, compressing its
+     * domain names.
+     *
+     * @param byteBuffer the ByteBuffer to encode the record into
+     * @param record the record to encode
+     * @param compressor the message name compressor, or null to write the names in full
+     * @throws IOException if the record cannot be encoded
+     */
+    public void put( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
+        throws IOException
+    {
+        putDomainName( byteBuffer, record.getDomainName(), compressor );
         putRecordType( byteBuffer, record.getRecordType() );
         putRecordClass( byteBuffer, record.getRecordClass() );
 
         byteBuffer.putInt( record.getTimeToLive() );
 
-        putResourceRecord( byteBuffer, record );
+        putResourceRecord( byteBuffer, record, compressor );
     }
 
 
     protected abstract void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record );
 
 
+    /**
+     * Encodes the record data. RFC 3597 only allows the names contained in the data of
+     * the RFC 1035 record types to be compressed, so the compressor is ignored unless
+     * the encoder of one of these types overrides this method.
+     *
+     * @param byteBuffer the ByteBuffer to encode the record data into
+     * @param record the record to encode
+     * @param compressor the message name compressor, or null to write the names in full
+     */
+    protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record,
+        DomainNameCompressor compressor )
+    {
+        putResourceRecordData( byteBuffer, record );
+    }
+
+
     protected void putResourceRecord( IoBuffer byteBuffer, ResourceRecord record )
+    {
+        putResourceRecord( byteBuffer, record, null );
+    }
+
+
+    protected void putResourceRecord( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
     {
         int startPosition = byteBuffer.position();
         byteBuffer.position( startPosition + 2 );
 
-        putResourceRecordData( byteBuffer, record );
+        putResourceRecordData( byteBuffer, record, compressor );
 
         putDataSize( byteBuffer, startPosition );
     }
@@ -103,6 +141,27 @@ public abstract class ResourceRecordEncoder implements RecordEncoder
     }
 
 
+    /**
+     * Encodes a domain name, replacing its suffix by a pointer when it has already
+     * been written in the message.
+     *
+     * @param byteBuffer the ByteBuffer to encode the domain name into
+     * @param domainName the domain name to encode
+     * @param compressor the message name compressor, or null to write the name in full
+     */
+    protected void putDomainName( IoBuffer byteBuffer, String domainName, DomainNameCompressor compressor )
+    {
+        if ( compressor == null )
+        {
+            putDomainName( byteBuffer, domainName );
+        }
+        else
+        {
+            compressor.putDomainName( byteBuffer, domainName );
+        }
+    }
+
+
     protected void putRecordType( IoBuffer byteBuffer, RecordType recordType )
     {
         byteBuffer.putShort( recordType.convert() );
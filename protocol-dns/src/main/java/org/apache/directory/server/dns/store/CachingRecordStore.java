@@ -0,0 +1,226 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A RecordStore keeping in memory the answers of another RecordStore, keyed by the
+ * name, type and class of the question. The answers are fetched lazily, and all of
+ * them are dropped when the zone changes : the listener returned by
+ * {@link #getInvalidationListener()} has to be registered on the zone subtree.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStore implements RecordStore
+{
+    /** The log for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CachingRecordStore.class );
+
+    /** The default maximum number of cached answers */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The store the answers are read from */
+    private final RecordStore store;
+
+    /** The maximum number of cached answers */
+    private final int maxSize;
+
+    /** The cached answers */
+    private final Map<QuestionRecord, Set<ResourceRecord>> answers = new ConcurrentHashMap<>();
+
+    /** Incremented on each invalidation, so that an answer read before a change is not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The listener dropping the answers when the zone changes */
+    private final DirectoryListener invalidationListener = new DirectoryListenerAdapter()
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            invalidate();
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            invalidate();
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            invalidate();
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            invalidate();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            invalidate();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            invalidate();
+        }
+
+
+        /**
+         * The answers have to be dropped before the modification is acknowledged
+         */
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    };
+
+
+    /**
+     * Creates a new instance of CachingRecordStore.
+     *
+     * @param store the store the answers are read from
+     */
+    public CachingRecordStore( RecordStore store )
+    {
+        this( store, DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of CachingRecordStore.
+     *
+     * @param store the store the answers are read from
+     * @param maxSize the maximum number of cached answers
+     */
+    public CachingRecordStore( RecordStore store, int maxSize )
+    {
+        this.store = store;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        // Domain names are case insensitive
+        QuestionRecord key = new QuestionRecord( Strings.toLowerCaseAscii( question.getDomainName() ),
+            question.getRecordType(), question.getRecordClass() );
+
+        Set<ResourceRecord> records = answers.get( key );
+
+        if ( records != null )
+        {
+            return records;
+        }
+
+        long readGeneration = generation.get();
+        records = store.getRecords( question );
+
+        if ( records == null )
+        {
+            return null;
+        }
+
+        records = Collections.unmodifiableSet( records );
+
+        if ( answers.size() >= maxSize )
+        {
+            answers.clear();
+        }
+
+        answers.put( key, records );
+
+        // The zone may have changed while we were reading it
+        if ( readGeneration != generation.get() )
+        {
+            answers.remove( key );
+        }
+
+        return records;
+    }
+
+
+    /**
+     * Drops all the cached answers.
+     */
+    public void invalidate()
+    {
+        generation.incrementAndGet();
+        answers.clear();
+
+        LOG.debug( "The DNS answer cache has been invalidated" );
+    }
+
+
+    /**
+     * @return the number of cached answers
+     */
+    public int getSize()
+    {
+        return answers.size();
+    }
+
+
+    /**
+     * @return the listener to register on the zone subtree, dropping the cached answers
+     * when an entry of the zone changes
+     */
+    public DirectoryListener getInvalidationListener()
+    {
+        return invalidationListener;
+    }
+}
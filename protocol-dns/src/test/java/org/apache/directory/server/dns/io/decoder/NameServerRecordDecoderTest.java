@@ -71,4 +71,29 @@ public class NameServerRecordDecoderTest
         Map<String, Object> attributes = decoder.decode( inputBuffer, ( short ) inputBuffer.remaining() );
         assertEquals( domainName, attributes.get( Strings.toLowerCaseAscii( DnsAttribute.DOMAIN_NAME ) ) );
     }
+
+
+    @Test
+    public void testDecodeCompressedName() throws Exception
+    {
+        // The hyperreal.org suffix is written after the 255th byte of the message
+        IoBuffer buffer = IoBuffer.allocate( 512 );
+        buffer.position( 300 );
+        buffer.put( ( byte ) domainNameParts[1].length() );
+        buffer.put( Strings.getBytesUtf8( domainNameParts[1] ) );
+        buffer.put( ( byte ) domainNameParts[2].length() );
+        buffer.put( Strings.getBytesUtf8( domainNameParts[2] ) );
+        buffer.put( ( byte ) 0x00 );
+
+        int start = buffer.position();
+        buffer.put( ( byte ) domainNameParts[0].length() );
+        buffer.put( Strings.getBytesUtf8( domainNameParts[0] ) );
+        buffer.putShort( ( short ) ( 0xC000 | 300 ) );
+        buffer.flip();
+        buffer.position( start );
+
+        Map<String, Object> attributes = decoder.decode( buffer, ( short ) buffer.remaining() );
+        assertEquals( domainName, attributes.get( Strings.toLowerCaseAscii( DnsAttribute.DOMAIN_NAME ) ) );
+        assertEquals( buffer.limit(), buffer.position() );
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.dns.io.decoder.DnsMessageDecoder;
+import org.apache.directory.server.dns.messages.DnsMessage;
+import org.apache.directory.server.dns.messages.DnsMessageModifier;
+import org.apache.directory.server.dns.messages.MessageType;
+import org.apache.directory.server.dns.messages.OpCode;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordImpl;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the compression of the domain names in the DNS messages.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DnsMessageEncoderTest
+{
+    private static final int HEADER_LENGTH = 12;
+
+
+    private DnsMessage getMessage()
+    {
+        Map<String, Object> nsAttributes = new HashMap<String, Object>();
+        nsAttributes.put( Strings.toLowerCaseAscii( DnsAttribute.DOMAIN_NAME ), "ns1.apache.org" );
+
+        List<ResourceRecord> answers = new ArrayList<ResourceRecord>();
+        answers.add( new ResourceRecordImpl( "WWW.apache.org", RecordType.NS, RecordClass.IN, 3600, nsAttributes ) );
+        answers.add( new ResourceRecordImpl( "apache.org", RecordType.NS, RecordClass.IN, 3600, nsAttributes ) );
+
+        DnsMessageModifier modifier = new DnsMessageModifier();
+        modifier.setTransactionId( 1234 );
+        modifier.setMessageType( MessageType.RESPONSE );
+        modifier.setOpCode( OpCode.QUERY );
+        modifier.setResponseCode( ResponseCode.NO_ERROR );
+        modifier.setQuestionRecords( Collections.singletonList( new QuestionRecord( "www.apache.org",
+            RecordType.NS, RecordClass.IN ) ) );
+        modifier.setAnswerRecords( answers );
+        modifier.setAuthorityRecords( new ArrayList<ResourceRecord>() );
+        modifier.setAdditionalRecords( new ArrayList<ResourceRecord>() );
+
+        return modifier.getDnsMessage();
+    }
+
+
+    @Test
+    public void testCompressNames() throws Exception
+    {
+        IoBuffer buffer = IoBuffer.allocate( 512 );
+        new DnsMessageEncoder().encode( buffer, getMessage() );
+        buffer.flip();
+
+        // The question holds the full name, at the end of the header
+        int position = HEADER_LENGTH;
+        assertEquals( 3, buffer.get( position ) );
+        position += "www.apache.org".length() + 2 + 4;
+
+        // The first answer owner is the question name, whatever its case
+        assertEquals( ( short ) ( 0xC000 | HEADER_LENGTH ), buffer.getShort( position ) );
+        position += 2 + 8;
+
+        // The name server name only holds its first label, followed by a pointer to apache.org
+        assertEquals( 6, buffer.getShort( position ) );
+        assertEquals( 3, buffer.get( position + 2 ) );
+        assertEquals( ( short ) ( 0xC000 | ( HEADER_LENGTH + 4 ) ), buffer.getShort( position + 6 ) );
+        position += 2 + 6;
+
+        // The second answer owner is a suffix of the question name, its data the first name server
+        assertEquals( ( short ) ( 0xC000 | ( HEADER_LENGTH + 4 ) ), buffer.getShort( position ) );
+        position += 2 + 8;
+        assertEquals( 2, buffer.getShort( position ) );
+        position += 2 + 2;
+
+        assertEquals( position, buffer.limit() );
+    }
+
+
+    @Test
+    public void testDecodeCompressedNames() throws Exception
+    {
+        IoBuffer buffer = IoBuffer.allocate( 512 );
+        new DnsMessageEncoder().encode( buffer, getMessage() );
+        buffer.flip();
+
+        DnsMessage decoded = new DnsMessageDecoder().decode( buffer );
+
+        assertEquals( "www.apache.org", decoded.getQuestionRecords().get( 0 ).getDomainName() );
+        assertEquals( "www.apache.org", decoded.getAnswerRecords().get( 0 ).getDomainName() );
+        assertEquals( "apache.org", decoded.getAnswerRecords().get( 1 ).getDomainName() );
+
+        for ( ResourceRecord record : decoded.getAnswerRecords() )
+        {
+            assertEquals( "ns1.apache.org", record.get( DnsAttribute.DOMAIN_NAME ) );
+        }
+    }
+
+}
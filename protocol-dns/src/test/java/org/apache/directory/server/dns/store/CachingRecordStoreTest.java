@@ -0,0 +1,139 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the DNS answer cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStoreTest
+{
+    /** A store counting its lookups */
+    private static class CountingStore implements RecordStore
+    {
+        int lookups;
+
+        /** Called during the lookup, to simulate a concurrent modification */
+        Runnable duringLookup;
+
+
+        public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+        {
+            lookups++;
+
+            if ( duringLookup != null )
+            {
+                duringLookup.run();
+            }
+
+            Set<ResourceRecord> records = new HashSet<ResourceRecord>();
+            records.add( new ResourceRecordImpl( question.getDomainName(), question.getRecordType(),
+                question.getRecordClass(), 3600, new HashMap<String, Object>() ) );
+
+            return records;
+        }
+    }
+
+    private CountingStore store;
+    private CachingRecordStore cache;
+
+
+    @BeforeEach
+    public void setUp()
+    {
+        store = new CountingStore();
+        cache = new CachingRecordStore( store, 2 );
+    }
+
+
+    @Test
+    public void testCacheAnswers() throws Exception
+    {
+        Set<ResourceRecord> records = cache.getRecords( new QuestionRecord( "www.apache.org", RecordType.A,
+            RecordClass.IN ) );
+
+        // Domain names are case insensitive
+        assertSame( records, cache.getRecords( new QuestionRecord( "WWW.Apache.org", RecordType.A,
+            RecordClass.IN ) ) );
+        assertEquals( 1, store.lookups );
+
+        // Another type is another answer
+        cache.getRecords( new QuestionRecord( "www.apache.org", RecordType.MX, RecordClass.IN ) );
+        assertEquals( 2, store.lookups );
+        assertEquals( 2, cache.getSize() );
+
+        // The cache is dropped when full
+        cache.getRecords( new QuestionRecord( "apache.org", RecordType.NS, RecordClass.IN ) );
+        assertEquals( 1, cache.getSize() );
+    }
+
+
+    @Test
+    public void testInvalidateOnChange() throws Exception
+    {
+        QuestionRecord question = new QuestionRecord( "www.apache.org", RecordType.A, RecordClass.IN );
+        cache.getRecords( question );
+
+        cache.getInvalidationListener().entryModified( null );
+        assertEquals( 0, cache.getSize() );
+
+        cache.getRecords( question );
+        assertEquals( 2, store.lookups );
+    }
+
+
+    @Test
+    public void testChangeDuringLookup() throws Exception
+    {
+        QuestionRecord question = new QuestionRecord( "www.apache.org", RecordType.A, RecordClass.IN );
+
+        store.duringLookup = new Runnable()
+        {
+            public void run()
+            {
+                cache.invalidate();
+            }
+        };
+
+        assertEquals( 1, cache.getRecords( question ).size() );
+
+        // The answer read while the zone was changing must not be kept
+        assertEquals( 0, cache.getSize() );
+    }
+}
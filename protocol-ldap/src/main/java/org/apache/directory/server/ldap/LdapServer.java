@@ -30,6 +30,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.TrustManager;
@@ -52,6 +53,7 @@ import org.apache.directory.api.ldap.model.message.DeleteResponse;
 import org.apache.directory.api.ldap.model.message.ExtendedRequest;
 import org.apache.directory.api.ldap.model.message.ExtendedResponse;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyDnResponse;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
@@ -62,12 +64,15 @@ import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultReference;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.security.CertificateUtil;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.ldap.handlers.AdmissionControlFilter;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
+import org.apache.directory.server.ldap.handlers.OperationConcurrencyFilter;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
@@ -91,6 +96,7 @@ import org.apache.directory.server.ldap.handlers.response.SearchResultDoneHandle
 import org.apache.directory.server.ldap.handlers.response.SearchResultEntryHandler;
 import org.apache.directory.server.ldap.handlers.response.SearchResultReferenceHandler;
 import org.apache.directory.server.ldap.handlers.sasl.MechanismHandler;
+import org.apache.directory.server.ldap.handlers.sasl.SaslIdentityResolver;
 import org.apache.directory.server.ldap.handlers.ssl.LdapsInitializer;
 import org.apache.directory.server.ldap.replication.consumer.PingerThread;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
@@ -104,7 +110,6 @@ import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.filterchain.IoFilterChainBuilder;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.service.IoHandler;
-import org.apache.mina.core.session.IoEventType;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
@@ -147,6 +152,9 @@ public class LdapServer extends DirectoryBackedService
     /** The default maximum time limit. */
     private static final int MAX_TIME_LIMIT_DEFAULT = 10000;
 
+    /** The default maximum number of request threads, in the ELASTIC execution mode */
+    public static final int DEFAULT_MAX_REQUEST_THREADS = 256;
+
     /** The default service pid. */
     private static final String SERVICE_PID_DEFAULT = "org.apache.directory.server.ldap";
 
@@ -182,7 +190,7 @@ public class LdapServer extends DirectoryBackedService
 
     /** The extended operation handlers. */
     private final Collection<ExtendedOperationHandler<? extends ExtendedRequest, ? extends ExtendedResponse>> extendedOperationHandlers =
-        new ArrayList<>();
+        new CopyOnWriteArrayList<>();
 
     /** The supported authentication mechanisms. */
     private Map<String, MechanismHandler> saslMechanismHandlers = new HashMap<>();
@@ -200,6 +208,31 @@ public class LdapServer extends DirectoryBackedService
     /** The list of realms serviced by this host. */
     private List<String> saslRealms;
 
+    /** The maximum number of SASL identities kept by the resolver, 0 to disable the cache */
+    private int saslIdentityCacheSize = SaslIdentityResolver.DEFAULT_MAX_SIZE;
+
+    /** The time a SASL identity is kept by the resolver, in milliseconds */
+    private long saslIdentityCacheTtl = SaslIdentityResolver.DEFAULT_TIME_TO_LIVE;
+
+    /** The resolver finding the entries the SASL binds are done for */
+    private SaslIdentityResolver saslIdentityResolver;
+
+    /** The way the requests are executed */
+    private RequestExecutionMode requestExecutionMode = RequestExecutionMode.FIXED_POOL;
+
+    /** The maximum number of threads executing the requests, in the ELASTIC execution mode */
+    private int maxRequestThreads = DEFAULT_MAX_REQUEST_THREADS;
+
+    /** The maximum number of requests of each operation type executed at the same time, in the ELASTIC execution mode */
+    private final Map<MessageTypeEnum, Integer> operationConcurrencyLimits = RequestExecutionFilters
+        .defaultOperationConcurrencyLimits();
+
+    /** The filter bounding the requests executed at the same time, in the ELASTIC execution mode */
+    private OperationConcurrencyFilter operationConcurrencyFilter;
+
+    /** The filter admitting the requests per class, in the ADMISSION_CONTROL execution mode */
+    private final AdmissionControlFilter admissionControlFilter;
+
     /** The protocol handlers */
     // MessageReceived handlers
     private LdapRequestHandler<AbandonRequest> abandonRequestHandler;
@@ -272,6 +305,8 @@ public class LdapServer extends DirectoryBackedService
         super.setServiceId( SERVICE_PID_DEFAULT );
         super.setServiceName( SERVICE_NAME_DEFAULT );
 
+        admissionControlFilter = new AdmissionControlFilter( this );
+
         saslQop = new HashSet<>();
         saslQop.add( SaslQoP.AUTH.getValue() );
         saslQop.add( SaslQoP.AUTH_INT.getValue() );
@@ -437,6 +472,7 @@ public class LdapServer extends DirectoryBackedService
          * access to the DirectoryServer instance.
          */
         installDefaultHandlers();
+        startSaslIdentityResolver();
 
         PartitionNexus nexus = getDirectoryService().getPartitionNexus();
 
@@ -452,6 +488,14 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        // The limits are shared by all the transports
+        operationConcurrencyFilter = new OperationConcurrencyFilter( operationConcurrencyLimits );
+
+        if ( requestExecutionMode == RequestExecutionMode.ADMISSION_CONTROL )
+        {
+            admissionControlFilter.init();
+        }
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -475,11 +519,8 @@ public class LdapServer extends DirectoryBackedService
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "codec", new ProtocolCodecFilter( this
                 .getProtocolCodecFactory() ) );
 
-            // Now inject an ExecutorFilter for the write operations
-            // We use the same number of thread than the number of IoProcessor
-            // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            // Add the filters executing the requests
+            RequestExecutionFilters.addLast( this, transport, ( DefaultIoFilterChainBuilder ) chain );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -513,6 +554,24 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Creates the resolver used by the SASL mechanisms. It registers the listener dropping
+     * the cached identities when an entry below the search base changes on its first use.
+     */
+    private void startSaslIdentityResolver() throws LdapException
+    {
+        Dn searchBaseDn = null;
+
+        if ( ( saslIdentityCacheSize > 0 ) && ( getSearchBaseDn() != null ) )
+        {
+            searchBaseDn = getDirectoryService().getDnFactory().create( getSearchBaseDn() );
+        }
+
+        saslIdentityResolver = new SaslIdentityResolver( getDirectoryService(), searchBaseDn, saslIdentityCacheSize,
+            saslIdentityCacheTtl );
+    }
+
+
     /**
      * Install the replication handler if we have one
      */
@@ -532,6 +591,11 @@ public class LdapServer extends DirectoryBackedService
     @Override
     public void stop()
     {
+        if ( saslIdentityResolver != null )
+        {
+            saslIdentityResolver.close();
+        }
+
         try
         {
             for ( Transport transport : transports )
@@ -564,7 +628,11 @@ public class LdapServer extends DirectoryBackedService
                 
                 // Kill the chain executor
                 ExecutorFilter executorFilter = ( ExecutorFilter ) transport.getAcceptor().getFilterChain().get( "executor" );
-                ( ( UnorderedThreadPoolExecutor ) executorFilter.getExecutor() ).shutdownNow();
+
+                if ( executorFilter != null )
+                {
+                    ( ( UnorderedThreadPoolExecutor ) executorFilter.getExecutor() ).shutdownNow();
+                }
 
                 // Shutdown the transport
                 getSocketAcceptor( transport ).dispose();
@@ -601,6 +669,8 @@ public class LdapServer extends DirectoryBackedService
 
             // Stop the replication consumers
             stopConsumers();
+
+            admissionControlFilter.destroy();
         }
         catch ( Exception e )
         {
@@ -796,10 +866,10 @@ public class LdapServer extends DirectoryBackedService
             PartitionNexus nexus = getDirectoryService().getPartitionNexus();
             nexus.registerSupportedExtensions( eoh.getExtensionOids() );
         }
-        else
-        {
-            extendedOperationHandlers.add( eoh );
-        }
+
+        // The handler must be known even when added once the server is started,
+        // otherwise the requests would never reach it
+        extendedOperationHandlers.add( eoh );
     }
 
 
@@ -1049,6 +1119,154 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return the maximum number of identities kept by the SASL identity resolver
+     */
+    public int getSaslIdentityCacheSize()
+    {
+        return saslIdentityCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of identities kept by the SASL identity resolver. It has to be
+     * set before the server is started.
+     *
+     * @param saslIdentityCacheSize the maximum number of identities, 0 to disable the cache
+     */
+    public void setSaslIdentityCacheSize( int saslIdentityCacheSize )
+    {
+        this.saslIdentityCacheSize = saslIdentityCacheSize;
+    }
+
+
+    /**
+     * @return the time an identity is kept by the SASL identity resolver, in milliseconds
+     */
+    public long getSaslIdentityCacheTtl()
+    {
+        return saslIdentityCacheTtl;
+    }
+
+
+    /**
+     * Sets the time an identity is kept by the SASL identity resolver. It has to be set
+     * before the server is started.
+     *
+     * @param saslIdentityCacheTtl the time an identity is kept, in milliseconds
+     */
+    public void setSaslIdentityCacheTtl( long saslIdentityCacheTtl )
+    {
+        this.saslIdentityCacheTtl = saslIdentityCacheTtl;
+    }
+
+
+    /**
+     * @return the resolver finding the entries the SASL binds are done for, null if the
+     * server has never been started
+     */
+    public SaslIdentityResolver getSaslIdentityResolver()
+    {
+        return saslIdentityResolver;
+    }
+
+
+    /**
+     * @return the way the requests are executed
+     */
+    public RequestExecutionMode getRequestExecutionMode()
+    {
+        return requestExecutionMode;
+    }
+
+
+    /**
+     * Sets the way the requests are executed. It has to be set before the server is started.
+     *
+     * @param requestExecutionMode the way the requests are executed
+     */
+    public void setRequestExecutionMode( RequestExecutionMode requestExecutionMode )
+    {
+        this.requestExecutionMode = requestExecutionMode;
+    }
+
+
+    /**
+     * @return the maximum number of threads executing the requests, in the ELASTIC execution mode
+     */
+    public int getMaxRequestThreads()
+    {
+        return maxRequestThreads;
+    }
+
+
+    /**
+     * Sets the maximum number of threads executing the requests, in the ELASTIC execution mode.
+     * It has to be set before the server is started.
+     *
+     * @param maxRequestThreads the maximum number of threads executing the requests
+     */
+    public void setMaxRequestThreads( int maxRequestThreads )
+    {
+        this.maxRequestThreads = maxRequestThreads;
+    }
+
+
+    /**
+     * @param type the operation type
+     * @return the maximum number of requests of this type executed at the same time, in the
+     * ELASTIC execution mode, 0 if they are not bounded. The binds are also bounded in the
+     * FIXED_POOL execution mode, to all the pool threads but one, if there are at least two
+     */
+    public int getOperationConcurrencyLimit( MessageTypeEnum type )
+    {
+        Integer limit = operationConcurrencyLimits.get( type );
+
+        return limit == null ? 0 : limit;
+    }
+
+
+    /**
+     * Sets the maximum number of requests of an operation type executed at the same time, in
+     * the ELASTIC execution mode, and of binds in the FIXED_POOL execution mode. It has to be
+     * set before the server is started.
+     *
+     * @param type the operation type
+     * @param limit the maximum number of requests executed at the same time, 0 to not bound them
+     */
+    public void setOperationConcurrencyLimit( MessageTypeEnum type, int limit )
+    {
+        if ( limit > 0 )
+        {
+            operationConcurrencyLimits.put( type, limit );
+        }
+        else
+        {
+            operationConcurrencyLimits.remove( type );
+        }
+    }
+
+
+    /**
+     * @return the filter bounding the requests executed at the same time, null if the server
+     * has never been started
+     */
+    public OperationConcurrencyFilter getOperationConcurrencyFilter()
+    {
+        return operationConcurrencyFilter;
+    }
+
+
+    /**
+     * @return the filter admitting the requests per class, in the ADMISSION_CONTROL execution
+     * mode. The limits of the classes can be changed while the server is running
+     */
+    public AdmissionControlFilter getAdmissionControlFilter()
+    {
+        return admissionControlFilter;
+    }
+
+
     /**
      * @return the supported SASL mechanisms
      */
@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.server.ldap.handlers.OperationConcurrencyFilter;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+
+
+/**
+ * Builds the part of the filter chain executing the LDAP requests, depending on the
+ * {@link RequestExecutionMode} of the {@link LdapServer}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class RequestExecutionFilters
+{
+    /** The time an idle request thread is kept, in the ELASTIC execution mode, in seconds */
+    private static final long REQUEST_THREAD_KEEP_ALIVE = 60L;
+
+
+    private RequestExecutionFilters()
+    {
+    }
+
+
+    /**
+     * Adds the filters executing the requests at the end of a transport filter chain.
+     *
+     * @param ldapServer the server the requests are received by
+     * @param transport the transport
+     * @param chain the transport filter chain
+     */
+    static void addLast( LdapServer ldapServer, Transport transport, DefaultIoFilterChainBuilder chain )
+    {
+        switch ( ldapServer.getRequestExecutionMode() )
+        {
+            case ADMISSION_CONTROL :
+                // The filter executes the requests itself
+                chain.addLast( "admission", ldapServer.getAdmissionControlFilter() );
+                break;
+
+            case ELASTIC :
+                // The threads are created on demand, the concurrency being bounded per operation type
+                // before the requests are handed to the executor
+                chain.addLast( "concurrency", ldapServer.getOperationConcurrencyFilter() );
+                chain.addLast( "executor", new ExecutorFilter(
+                    new UnorderedThreadPoolExecutor( 0, Math.max( ldapServer.getMaxRequestThreads(),
+                        transport.getNbThreads() ), REQUEST_THREAD_KEEP_ALIVE, TimeUnit.SECONDS ),
+                    IoEventType.MESSAGE_RECEIVED ) );
+                chain.addLast( "release", ldapServer.getOperationConcurrencyFilter().getReleaseFilter() );
+                break;
+
+            case FIXED_POOL :
+            default :
+                // The binds wait for the password hash executor : they are queued before
+                // the executor, so that they can't occupy all its threads
+                OperationConcurrencyFilter bindFilter = createBindFilter( ldapServer, transport );
+
+                if ( bindFilter != null )
+                {
+                    chain.addLast( "concurrency", bindFilter );
+                }
+
+                // Now inject an ExecutorFilter for the write operations
+                // We use the same number of thread than the number of IoProcessor
+                // (NOTE : this has to be double checked)
+                chain.addLast( "executor", new ExecutorFilter(
+                    new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+
+                if ( bindFilter != null )
+                {
+                    chain.addLast( "release", bindFilter.getReleaseFilter() );
+                }
+
+                break;
+        }
+    }
+
+
+    /**
+     * Creates the filter bounding the binds in the FIXED_POOL execution mode : they can take
+     * at most all the pool threads but one, so that the other requests are still executed
+     * while the passwords are hashed. A pool with a single thread has none to spare : the
+     * binds are not bounded then, as a cap would only serialize them with the other requests.
+     *
+     * @param ldapServer the server the binds are received by
+     * @param transport the transport
+     * @return the filter, null if the binds are not bounded
+     */
+    private static OperationConcurrencyFilter createBindFilter( LdapServer ldapServer, Transport transport )
+    {
+        int limit = ldapServer.getOperationConcurrencyLimit( MessageTypeEnum.BIND_REQUEST );
+
+        if ( ( limit <= 0 ) || ( transport.getNbThreads() < 2 ) )
+        {
+            return null;
+        }
+
+        limit = Math.min( limit, transport.getNbThreads() - 1 );
+
+        return new OperationConcurrencyFilter( Collections.singletonMap( MessageTypeEnum.BIND_REQUEST, limit ) );
+    }
+
+
+    /**
+     * The searches and compares, which may be long, are bounded to four times the number of
+     * processors, the updates, serialized by the partitions, to twice this number. The binds,
+     * which wait for the password hash executor, are bounded to the number of processors, as
+     * this executor. The other operations are not bounded.
+     *
+     * @return the default maximum number of requests of each operation type executed at the same time
+     */
+    static Map<MessageTypeEnum, Integer> defaultOperationConcurrencyLimits()
+    {
+        int nbProcessors = Runtime.getRuntime().availableProcessors();
+        Map<MessageTypeEnum, Integer> limits = new EnumMap<>( MessageTypeEnum.class );
+
+        limits.put( MessageTypeEnum.BIND_REQUEST, nbProcessors );
+        limits.put( MessageTypeEnum.SEARCH_REQUEST, 4 * nbProcessors );
+        limits.put( MessageTypeEnum.COMPARE_REQUEST, 4 * nbProcessors );
+        limits.put( MessageTypeEnum.ADD_REQUEST, 2 * nbProcessors );
+        limits.put( MessageTypeEnum.MODIFY_REQUEST, 2 * nbProcessors );
+        limits.put( MessageTypeEnum.MODIFYDN_REQUEST, 2 * nbProcessors );
+        limits.put( MessageTypeEnum.DEL_REQUEST, 2 * nbProcessors );
+
+        return limits;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+/**
+ * The way the LDAP requests received by the {@link LdapServer} are executed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum RequestExecutionMode
+{
+    /**
+     * The requests are executed by a pool which has as many threads as the transport.
+     * A few slow requests can occupy all the threads, except the binds, which are queued
+     * before being handed to the pool so that they leave at least one thread free, when
+     * the pool has more than one thread.
+     */
+    FIXED_POOL,
+
+    /**
+     * The threads are created on demand, up to the maximum number of request threads,
+     * and the idle ones expire. The number of requests of each operation type executed
+     * at the same time is bounded, so that the slow operations can't occupy all the
+     * threads : the requests over the limit are queued before being handed to the pool,
+     * and don't hold any thread while they wait.
+     */
+    ELASTIC,
+
+    /**
+     * The requests are admitted per {@link org.apache.directory.server.ldap.handlers.RequestClass},
+     * each class having its own concurrency limit and its own bounded queue. The requests
+     * which can't be queued are refused, so that the cheap requests stay fast when the
+     * server is overloaded.
+     */
+    ADMISSION_CONTROL
+}
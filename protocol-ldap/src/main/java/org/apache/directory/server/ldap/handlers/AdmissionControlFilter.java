@@ -0,0 +1,730 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.CompareRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A filter replacing the executor filter, which admits the requests per {@link RequestClass}.
+ * Each class has a concurrency limit and a bounded queue : a request is executed if the
+ * limit of its class has not been reached, queued otherwise, and refused with a BUSY result,
+ * or UNWILLING_TO_PERFORM for an unindexed search, if the queue is full. The queued requests
+ * are executed in turn for each client, identified by its bind Dn or by its address, and a
+ * client can't fill more than a quarter of the queue, so that a few clients can't starve the
+ * others. The abandon and unbind requests are always executed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AdmissionControlFilter extends IoFilterAdapter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( AdmissionControlFilter.class );
+
+    /** The server the requests are received by */
+    private final LdapServer ldapServer;
+
+    /** The queue of each request class */
+    private final Map<RequestClass, RequestQueue> queues = new EnumMap<>( RequestClass.class );
+
+    /** The threads executing the requests. Their number is bounded by the concurrency limits */
+    private volatile ThreadPoolExecutor pool;
+
+
+    /**
+     * A request waiting to be executed
+     */
+    private static final class Task
+    {
+        private final NextFilter nextFilter;
+        private final IoSession session;
+        private final Object message;
+        private final String client;
+
+
+        private Task( NextFilter nextFilter, IoSession session, Object message, String client )
+        {
+            this.nextFilter = nextFilter;
+            this.session = session;
+            this.message = message;
+            this.client = client;
+        }
+    }
+
+
+    /**
+     * The requests of a class, executing or waiting to be executed
+     */
+    private final class RequestQueue
+    {
+        /** The maximum number of requests executed at the same time */
+        private int concurrency;
+
+        /** The maximum number of requests waiting to be executed */
+        private int queueSize;
+
+        /** The number of requests being executed */
+        private int running;
+
+        /** The number of requests waiting to be executed */
+        private int queued;
+
+        /** The waiting requests of each client, the next client to be served first */
+        private final Map<String, ArrayDeque<Task>> pending = new LinkedHashMap<>();
+
+        /** The number of admitted requests */
+        private final LongAdder admittedCount = new LongAdder();
+
+        /** The number of refused requests */
+        private final LongAdder refusedCount = new LongAdder();
+
+
+        private RequestQueue( int concurrency, int queueSize )
+        {
+            this.concurrency = concurrency;
+            this.queueSize = queueSize;
+        }
+
+
+        /**
+         * Executes a request, or queues it.
+         *
+         * @return false if the request has been refused
+         */
+        private boolean offer( Task task )
+        {
+            synchronized ( this )
+            {
+                if ( ( running < concurrency ) && ( queued == 0 ) )
+                {
+                    running++;
+                }
+                else
+                {
+                    ArrayDeque<Task> clientTasks = pending.get( task.client );
+                    int clientSize = clientTasks == null ? 0 : clientTasks.size();
+
+                    if ( ( queued >= queueSize ) || ( clientSize >= Math.max( 1, queueSize / 4 ) ) )
+                    {
+                        refusedCount.increment();
+
+                        return false;
+                    }
+
+                    if ( clientTasks == null )
+                    {
+                        clientTasks = new ArrayDeque<>();
+                        pending.put( task.client, clientTasks );
+                    }
+
+                    clientTasks.add( task );
+                    queued++;
+                    admittedCount.increment();
+
+                    return true;
+                }
+            }
+
+            admittedCount.increment();
+            execute( task );
+
+            return true;
+        }
+
+
+        /**
+         * Called when a request has been executed : the next one is executed, unless the
+         * concurrency limit has been lowered in the meantime
+         */
+        private void done()
+        {
+            Task next;
+
+            synchronized ( this )
+            {
+                if ( running > concurrency )
+                {
+                    running--;
+
+                    return;
+                }
+
+                next = poll();
+
+                if ( next == null )
+                {
+                    running--;
+
+                    return;
+                }
+            }
+
+            execute( next );
+        }
+
+
+        /**
+         * Changes the limits. The waiting requests are executed if the concurrency limit has
+         * been raised.
+         */
+        private void setLimits( int concurrency, int queueSize )
+        {
+            List<Task> next = new ArrayList<>();
+
+            synchronized ( this )
+            {
+                this.concurrency = concurrency;
+                this.queueSize = queueSize;
+
+                while ( running < concurrency )
+                {
+                    Task task = poll();
+
+                    if ( task == null )
+                    {
+                        break;
+                    }
+
+                    running++;
+                    next.add( task );
+                }
+            }
+
+            for ( Task task : next )
+            {
+                execute( task );
+            }
+        }
+
+
+        /**
+         * Removes the next waiting request. It has to be called while holding the queue lock.
+         *
+         * @return the next request, null if none is waiting
+         */
+        private Task poll()
+        {
+            Iterator<Map.Entry<String, ArrayDeque<Task>>> clients = pending.entrySet().iterator();
+
+            if ( !clients.hasNext() )
+            {
+                return null;
+            }
+
+            // Serve the first client, and move it at the end of the line if it has other requests
+            Map.Entry<String, ArrayDeque<Task>> first = clients.next();
+            Task next = first.getValue().poll();
+            clients.remove();
+            queued--;
+
+            if ( !first.getValue().isEmpty() )
+            {
+                pending.put( first.getKey(), first.getValue() );
+            }
+
+            return next;
+        }
+
+
+        private void execute( Task task )
+        {
+            ThreadPoolExecutor currentPool = pool;
+
+            if ( currentPool == null )
+            {
+                run( task );
+
+                return;
+            }
+
+            try
+            {
+                currentPool.execute( () -> run( task ) );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // The server is being stopped
+                LOG.debug( "Dropping the request {}, the server is stopped", task.message );
+                done();
+            }
+        }
+
+
+        private void run( Task task )
+        {
+            try
+            {
+                task.nextFilter.messageReceived( task.session, task.message );
+            }
+            finally
+            {
+                done();
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of AdmissionControlFilter, with the default limits of each class.
+     *
+     * @param ldapServer the server the requests are received by
+     */
+    public AdmissionControlFilter( LdapServer ldapServer )
+    {
+        this.ldapServer = ldapServer;
+
+        for ( RequestClass requestClass : RequestClass.values() )
+        {
+            queues.put( requestClass, new RequestQueue( requestClass.getDefaultConcurrency(),
+                requestClass.getDefaultQueueSize() ) );
+        }
+    }
+
+
+    /**
+     * Starts the threads executing the requests.
+     */
+    public synchronized void init()
+    {
+        if ( pool != null )
+        {
+            return;
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setName( "LdapRequest-" + newThread.getName() );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        // No queue : the requests are queued per class, and the threads bounded by the limits
+        pool = new ThreadPoolExecutor( 0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            threadFactory );
+    }
+
+
+    /**
+     * Stops the threads executing the requests.
+     */
+    public synchronized void destroy()
+    {
+        if ( pool != null )
+        {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+
+    /**
+     * Sets the limits of a request class. They can be changed while the server is running :
+     * when the concurrency limit is raised, the waiting requests are executed at once, and
+     * when it's lowered, the executing requests are let finish.
+     *
+     * @param requestClass the request class
+     * @param concurrency the maximum number of requests executed at the same time
+     * @param queueSize the maximum number of requests waiting to be executed, 0 to refuse
+     * the requests which can't be executed immediately
+     */
+    public void setLimits( RequestClass requestClass, int concurrency, int queueSize )
+    {
+        queues.get( requestClass ).setLimits( Math.max( 1, concurrency ), Math.max( 0, queueSize ) );
+    }
+
+
+    /**
+     * @param requestClass the request class
+     * @return the maximum number of requests of this class executed at the same time
+     */
+    public int getConcurrency( RequestClass requestClass )
+    {
+        RequestQueue queue = queues.get( requestClass );
+
+        synchronized ( queue )
+        {
+            return queue.concurrency;
+        }
+    }
+
+
+    /**
+     * @param requestClass the request class
+     * @return the maximum number of requests of this class waiting to be executed
+     */
+    public int getQueueSize( RequestClass requestClass )
+    {
+        RequestQueue queue = queues.get( requestClass );
+
+        synchronized ( queue )
+        {
+            return queue.queueSize;
+        }
+    }
+
+
+    /**
+     * @param requestClass the request class
+     * @return the number of requests of this class being executed
+     */
+    public int getRunningCount( RequestClass requestClass )
+    {
+        RequestQueue queue = queues.get( requestClass );
+
+        synchronized ( queue )
+        {
+            return queue.running;
+        }
+    }
+
+
+    /**
+     * @param requestClass the request class
+     * @return the number of requests of this class waiting to be executed
+     */
+    public int getQueuedCount( RequestClass requestClass )
+    {
+        RequestQueue queue = queues.get( requestClass );
+
+        synchronized ( queue )
+        {
+            return queue.queued;
+        }
+    }
+
+
+    /**
+     * @param requestClass the request class
+     * @return the number of requests of this class which have been admitted
+     */
+    public long getAdmittedCount( RequestClass requestClass )
+    {
+        return queues.get( requestClass ).admittedCount.sum();
+    }
+
+
+    /**
+     * @param requestClass the request class
+     * @return the number of requests of this class which have been refused
+     */
+    public long getRefusedCount( RequestClass requestClass )
+    {
+        return queues.get( requestClass ).refusedCount.sum();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived( NextFilter nextFilter, IoSession session, Object message ) throws Exception
+    {
+        RequestClass requestClass = null;
+
+        if ( message instanceof Request )
+        {
+            requestClass = classify( ( Request ) message );
+        }
+
+        if ( requestClass == null )
+        {
+            // Not bounded
+            ThreadPoolExecutor currentPool = pool;
+
+            if ( currentPool == null )
+            {
+                nextFilter.messageReceived( session, message );
+            }
+            else
+            {
+                currentPool.execute( () -> nextFilter.messageReceived( session, message ) );
+            }
+
+            return;
+        }
+
+        Task task = new Task( nextFilter, session, message, getClient( session ) );
+
+        if ( !queues.get( requestClass ).offer( task ) )
+        {
+            refuse( session, message, requestClass );
+        }
+    }
+
+
+    /**
+     * Finds the class of a request.
+     *
+     * @param request the request
+     * @return the request class, null if the request is not bounded
+     */
+    public RequestClass classify( Request request )
+    {
+        if ( ( request instanceof AbandonRequest ) || !( request instanceof ResultResponseRequest ) )
+        {
+            // The abandon and unbind requests
+            return null;
+        }
+
+        if ( request instanceof BindRequest )
+        {
+            return RequestClass.BIND;
+        }
+
+        if ( request instanceof CompareRequest )
+        {
+            return RequestClass.LOOKUP;
+        }
+
+        if ( ( request instanceof AddRequest ) || ( request instanceof ModifyRequest )
+            || ( request instanceof DeleteRequest ) || ( request instanceof ModifyDnRequest ) )
+        {
+            return RequestClass.WRITE;
+        }
+
+        if ( request instanceof ExtendedRequest )
+        {
+            return RequestClass.EXTENDED;
+        }
+
+        if ( !( request instanceof SearchRequest ) )
+        {
+            return null;
+        }
+
+        SearchRequest searchRequest = ( SearchRequest ) request;
+
+        if ( searchRequest.getControls().containsKey( SyncRequestValue.OID ) )
+        {
+            return RequestClass.REPLICATION;
+        }
+
+        if ( searchRequest.getScope() == SearchScope.OBJECT )
+        {
+            return RequestClass.LOOKUP;
+        }
+
+        if ( searchRequest.getScope() == SearchScope.ONELEVEL )
+        {
+            return RequestClass.INDEXED_SEARCH;
+        }
+
+        return isIndexed( searchRequest ) ? RequestClass.INDEXED_SEARCH : RequestClass.UNINDEXED_SEARCH;
+    }
+
+
+    /**
+     * Tells if a subtree search can use an index of the partition it is done in
+     */
+    private boolean isIndexed( SearchRequest searchRequest )
+    {
+        DirectoryService directoryService = ldapServer.getDirectoryService();
+
+        if ( directoryService == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            Partition partition = directoryService.getPartitionNexus().getPartition(
+                directoryService.getDnFactory().create( searchRequest.getBase().getName() ) );
+
+            if ( !( partition instanceof Store ) )
+            {
+                // We can't tell, the partition is trusted to deal with its searches
+                return true;
+            }
+
+            return isIndexed( searchRequest.getFilter(), ( Store ) partition, directoryService.getSchemaManager() );
+        }
+        catch ( LdapException le )
+        {
+            // The search will fail quickly
+            return true;
+        }
+    }
+
+
+    /**
+     * Tells if the candidates of a filter can be read from an index, the same way the
+     * optimizer of the partition does
+     */
+    private boolean isIndexed( ExprNode node, Store store, SchemaManager schemaManager ) throws LdapException
+    {
+        if ( node instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) node ).getChildren() )
+            {
+                if ( isIndexed( child, store, schemaManager ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        if ( node instanceof OrNode )
+        {
+            for ( ExprNode child : ( ( OrNode ) node ).getChildren() )
+            {
+                if ( !isIndexed( child, store, schemaManager ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        if ( ( node instanceof SimpleNode ) || ( node instanceof SubstringNode ) || ( node instanceof PresenceNode ) )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( attributeType == null )
+            {
+                attributeType = schemaManager.getAttributeType( ( ( LeafNode ) node ).getAttribute() );
+            }
+
+            if ( attributeType == null )
+            {
+                return false;
+            }
+
+            // All the entries have an objectClass
+            if ( ( node instanceof PresenceNode ) && SchemaConstants.OBJECT_CLASS_AT_OID.equals( attributeType.getOid() ) )
+            {
+                return false;
+            }
+
+            return store.hasIndexOn( attributeType );
+        }
+
+        // The negations and the extensible matches are evaluated on each entry
+        return false;
+    }
+
+
+    /**
+     * @return the bind Dn of the client, or its address if it is anonymous
+     */
+    private String getClient( IoSession session )
+    {
+        LdapSession ldapSession = ldapServer.getLdapSessionManager().getLdapSession( session );
+
+        if ( ( ldapSession != null ) && ldapSession.isAuthenticated() && ( ldapSession.getCoreSession() != null ) )
+        {
+            return ldapSession.getCoreSession().getEffectivePrincipal().getDn().getNormName();
+        }
+
+        SocketAddress address = session.getRemoteAddress();
+
+        if ( address instanceof InetSocketAddress )
+        {
+            return ( ( InetSocketAddress ) address ).getAddress().getHostAddress();
+        }
+
+        return String.valueOf( address );
+    }
+
+
+    /**
+     * Sends the response to a refused request
+     */
+    private void refuse( IoSession session, Object message, RequestClass requestClass )
+    {
+        ResultResponse response = ( ( ResultResponseRequest ) message ).getResultResponse();
+        LdapResult result = response.getLdapResult();
+
+        if ( requestClass == RequestClass.UNINDEXED_SEARCH )
+        {
+            result.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+            result.setDiagnosticMessage( "Too many unindexed searches, try again later or use an indexed filter" );
+        }
+        else
+        {
+            result.setResultCode( ResultCodeEnum.BUSY );
+            result.setDiagnosticMessage( "The server is busy, try again later" );
+        }
+
+        LOG.debug( "Refusing the {} request {}", requestClass, message );
+        session.write( response );
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A filter bounding the number of requests of each operation type which are executed
+ * at the same time. It has to be added before the executor : a request which can't be
+ * executed yet is queued, without blocking the I/O thread nor taking a thread from the
+ * executor, and it's handed to the executor when a request of the same type has been
+ * handled. The filter returned by {@link #getReleaseFilter()} has to be added after the
+ * executor, to tell when a request has been handled. The operation types without a limit
+ * are not bounded.
+ * <p>
+ * The number of waiting requests of each type is bounded too : when it's reached, the
+ * request is refused with a BUSY result. The requests of a session which is being closed
+ * are not executed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OperationConcurrencyFilter extends IoFilterAdapter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OperationConcurrencyFilter.class );
+
+    /** The default maximum number of waiting requests of each operation type */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /** The queue of each bounded operation type */
+    private final Map<MessageTypeEnum, OperationQueue> queues;
+
+    /** The limits of each bounded operation type */
+    private final Map<MessageTypeEnum, Integer> limits;
+
+    /** The filter added after the executor, which releases the place of the handled requests */
+    private final IoFilter releaseFilter = new IoFilterAdapter()
+    {
+        @Override
+        public void messageReceived( NextFilter nextFilter, IoSession session, Object message ) throws Exception
+        {
+            OperationQueue queue = getQueue( message );
+
+            if ( queue == null )
+            {
+                nextFilter.messageReceived( session, message );
+
+                return;
+            }
+
+            try
+            {
+                nextFilter.messageReceived( session, message );
+            }
+            finally
+            {
+                queue.done();
+            }
+        }
+    };
+
+
+    /**
+     * A request waiting to be handed to the executor
+     */
+    private static final class PendingRequest
+    {
+        private final NextFilter nextFilter;
+        private final IoSession session;
+        private final Object message;
+
+
+        private PendingRequest( NextFilter nextFilter, IoSession session, Object message )
+        {
+            this.nextFilter = nextFilter;
+            this.session = session;
+            this.message = message;
+        }
+    }
+
+
+    /**
+     * The requests of an operation type, executing or waiting to be executed
+     */
+    private static final class OperationQueue
+    {
+        /** The maximum number of requests executed at the same time */
+        private final int limit;
+
+        /** The maximum number of waiting requests */
+        private final int queueSize;
+
+        /** The number of requests handed to the executor, and not handled yet */
+        private int running;
+
+        /** The requests waiting for a place, in their arrival order */
+        private final ArrayDeque<PendingRequest> waiting = new ArrayDeque<>();
+
+
+        private OperationQueue( int limit, int queueSize )
+        {
+            this.limit = limit;
+            this.queueSize = queueSize;
+        }
+
+
+        /**
+         * Hands a request to the executor, or queues it if the limit has been reached
+         *
+         * @return false if the request has been refused, the queue being full
+         */
+        private boolean offer( NextFilter nextFilter, IoSession session, Object message )
+        {
+            synchronized ( this )
+            {
+                if ( running >= limit )
+                {
+                    if ( waiting.size() >= queueSize )
+                    {
+                        // Make room by dropping the requests of the closed sessions
+                        waiting.removeIf( request -> request.session.isClosing() );
+
+                        if ( waiting.size() >= queueSize )
+                        {
+                            return false;
+                        }
+                    }
+
+                    waiting.add( new PendingRequest( nextFilter, session, message ) );
+
+                    return true;
+                }
+
+                running++;
+            }
+
+            handOff( nextFilter, session, message );
+
+            return true;
+        }
+
+
+        /**
+         * Called when a request has been handled : the next waiting one takes its place
+         */
+        private void done()
+        {
+            PendingRequest next;
+
+            synchronized ( this )
+            {
+                next = waiting.poll();
+
+                // Nobody will read the responses of a session which is being closed
+                while ( ( next != null ) && next.session.isClosing() )
+                {
+                    LOG.debug( "Dropping the request {}, its session is closing", next.message );
+                    next = waiting.poll();
+                }
+
+                if ( next == null )
+                {
+                    running--;
+
+                    return;
+                }
+            }
+
+            handOff( next.nextFilter, next.session, next.message );
+        }
+
+
+        private void handOff( NextFilter nextFilter, IoSession session, Object message )
+        {
+            try
+            {
+                nextFilter.messageReceived( session, message );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // The executor is stopped, the request won't be handled
+                LOG.debug( "Dropping the request {}, the executor is stopped", message );
+                done();
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of OperationConcurrencyFilter, with a queue of
+     * {@link #DEFAULT_QUEUE_SIZE} requests for each operation type.
+     *
+     * @param limits the maximum number of requests of each operation type executed at the same time
+     */
+    public OperationConcurrencyFilter( Map<MessageTypeEnum, Integer> limits )
+    {
+        this( limits, DEFAULT_QUEUE_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of OperationConcurrencyFilter.
+     *
+     * @param limits the maximum number of requests of each operation type executed at the same time
+     * @param queueSize the maximum number of waiting requests of each operation type, 0 to refuse
+     * the requests exceeding the limit
+     */
+    public OperationConcurrencyFilter( Map<MessageTypeEnum, Integer> limits, int queueSize )
+    {
+        Map<MessageTypeEnum, OperationQueue> newQueues = new EnumMap<>( MessageTypeEnum.class );
+        Map<MessageTypeEnum, Integer> newLimits = new EnumMap<>( MessageTypeEnum.class );
+
+        for ( Map.Entry<MessageTypeEnum, Integer> limit : limits.entrySet() )
+        {
+            if ( ( limit.getValue() != null ) && ( limit.getValue() > 0 ) )
+            {
+                newQueues.put( limit.getKey(), new OperationQueue( limit.getValue(), Math.max( 0, queueSize ) ) );
+                newLimits.put( limit.getKey(), limit.getValue() );
+            }
+        }
+
+        queues = newQueues;
+        this.limits = Collections.unmodifiableMap( newLimits );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived( NextFilter nextFilter, IoSession session, Object message ) throws Exception
+    {
+        OperationQueue queue = getQueue( message );
+
+        if ( queue == null )
+        {
+            nextFilter.messageReceived( session, message );
+        }
+        else if ( !queue.offer( nextFilter, session, message ) )
+        {
+            refuse( session, message );
+        }
+    }
+
+
+    /**
+     * Sends the response to a refused request
+     */
+    private void refuse( IoSession session, Object message )
+    {
+        LOG.debug( "Refusing the request {}, too many requests are waiting", message );
+
+        if ( message instanceof ResultResponseRequest )
+        {
+            ResultResponse response = ( ( ResultResponseRequest ) message ).getResultResponse();
+            LdapResult result = response.getLdapResult();
+            result.setResultCode( ResultCodeEnum.BUSY );
+            result.setDiagnosticMessage( "The server is busy, try again later" );
+            session.write( response );
+        }
+    }
+
+
+    private OperationQueue getQueue( Object message )
+    {
+        if ( message instanceof Message )
+        {
+            return queues.get( ( ( Message ) message ).getType() );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return the filter to add after the executor, which tells when a request has been handled
+     */
+    public IoFilter getReleaseFilter()
+    {
+        return releaseFilter;
+    }
+
+
+    /**
+     * @return the limits of each bounded operation type
+     */
+    public Map<MessageTypeEnum, Integer> getLimits()
+    {
+        return limits;
+    }
+
+
+    /**
+     * @param type the operation type
+     * @return the number of requests of this type being executed, or waiting for an executor thread
+     */
+    public int getActiveCount( MessageTypeEnum type )
+    {
+        OperationQueue queue = queues.get( type );
+
+        if ( queue == null )
+        {
+            return 0;
+        }
+
+        synchronized ( queue )
+        {
+            return queue.running;
+        }
+    }
+
+
+    /**
+     * @param type the operation type
+     * @return the number of requests of this type waiting for a place
+     */
+    public int getWaitingCount( MessageTypeEnum type )
+    {
+        OperationQueue queue = queues.get( type );
+
+        if ( queue == null )
+        {
+            return 0;
+        }
+
+        synchronized ( queue )
+        {
+            return queue.waiting.size();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+/**
+ * The classes of requests the {@link AdmissionControlFilter} admits separately. Each class
+ * has its own concurrency limit and its own bounded queue, so that the costly requests can't
+ * delay the cheap ones.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum RequestClass
+{
+    /** The bind requests */
+    BIND( 2, 1024 ),
+
+    /** The base object searches and the compare requests */
+    LOOKUP( 2, 1024 ),
+
+    /** The one level searches, and the subtree searches an index can be used for */
+    INDEXED_SEARCH( 2, 256 ),
+
+    /** The subtree searches which have to scan the whole scope */
+    UNINDEXED_SEARCH( 1, 32 ),
+
+    /** The add, modify, delete and modifyDn requests */
+    WRITE( 1, 256 ),
+
+    /** The searches done by the replication consumers */
+    REPLICATION( 1, 16 ),
+
+    /** The extended requests */
+    EXTENDED( 2, 256 );
+
+    /** The default concurrency limit, per processor */
+    private final int concurrencyPerProcessor;
+
+    /** The default queue size */
+    private final int queueSize;
+
+
+    RequestClass( int concurrencyPerProcessor, int queueSize )
+    {
+        this.concurrencyPerProcessor = concurrencyPerProcessor;
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * @return the default number of requests of this class executed at the same time
+     */
+    public int getDefaultConcurrency()
+    {
+        return concurrencyPerProcessor * Runtime.getRuntime().availableProcessors();
+    }
+
+
+    /**
+     * @return the default number of requests of this class waiting to be executed
+     */
+    public int getDefaultQueueSize()
+    {
+        return queueSize;
+    }
+}
@@ -45,7 +45,6 @@ import org.apache.directory.api.ldap.model.message.ModifyRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -101,7 +100,7 @@ public class PwdModifyHandler implements ExtendedOperationHandler<PasswordModify
      * - otherwise, we just remove the old password from the list of passwords (we may have 
      * more than one) and add the new password. This is done with a REPLACE operation (Modify)
      */
-    private void modifyUserPassword( CoreSession userSession, Entry userEntry, Dn userDn, 
+    private void modifyUserPassword( DirectoryService service, CoreSession userSession, Entry userEntry, Dn userDn, 
         byte[] oldPassword, byte[] newPassword, PasswordModifyRequest req )
     {
         IoSession ioSession = ( ( DefaultCoreSession ) userSession ).getIoSession();
@@ -230,15 +229,42 @@ public class PwdModifyHandler implements ExtendedOperationHandler<PasswordModify
         else
         {
             // We are changing the password of the current user, check the password
+            byte[][] storedPasswords = new byte[userPassword.size()][];
+            int pos = 0;
+
+            for ( Value value : userPassword )
+            {
+                storedPasswords[pos++] = value.getBytes();
+            }
+
+            int matching;
+
+            try
+            {
+                // The comparison may be costly, it's done on the password hash executor
+                matching = service.getPasswordHashExecutor()
+                    .findMatchingPassword( oldPassword, storedPasswords );
+            }
+            catch ( LdapException le )
+            {
+                writeResult( ioSession, req, ResultCodeEnum.OTHER, 
+                    "Cannot check the password of user " + userDn + ", exception : " + le.getMessage() );
+
+                return;
+            }
+
             boolean valid = false;
             Attribute modifiedPassword = new DefaultAttribute( userPassword.getAttributeType() );
+            pos = 0;
             
             for ( Value value : userPassword )
             {
                 if ( !valid )
                 {
-                    valid = PasswordUtil.compareCredentials( oldPassword, value.getBytes() );
+                    valid = pos == matching;
                 }
+
+                pos++;
                 
                 try
                 {
@@ -417,7 +443,8 @@ public class PwdModifyHandler implements ExtendedOperationHandler<PasswordModify
                 }
                 
                 // We are administrator, we can try to modify the user's credentials
-                modifyUserPassword( requestor.getCoreSession(), modifiedEntry, userDn, oldPassword, newPassword, req );
+                modifyUserPassword( requestor.getLdapServer().getDirectoryService(), requestor.getCoreSession(),
+                    modifiedEntry, userDn, oldPassword, newPassword, req );
             }
             else
             {
@@ -436,7 +463,8 @@ public class PwdModifyHandler implements ExtendedOperationHandler<PasswordModify
                 return;
             }
 
-            modifyUserPassword( requestor.getCoreSession(), modifiedEntry, principalDn, oldPassword, newPassword, req );
+            modifyUserPassword( requestor.getLdapServer().getDirectoryService(), requestor.getCoreSession(),
+                modifiedEntry, principalDn, oldPassword, newPassword, req );
         }
     }
     
@@ -502,7 +530,8 @@ public class PwdModifyHandler implements ExtendedOperationHandler<PasswordModify
 
             // Ok, we were able to bind using the userIdentity and the password. Let's
             // modify the password now
-            modifyUserPassword( requestor.getCoreSession(), bindContext.getEntry(), userDn, oldPassword, newPassword, req );
+            modifyUserPassword( service, requestor.getCoreSession(), bindContext.getEntry(), userDn, oldPassword,
+                newPassword, req );
         }
     }
 
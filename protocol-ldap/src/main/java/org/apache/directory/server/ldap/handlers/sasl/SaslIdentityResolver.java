@@ -0,0 +1,575 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers.sasl;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Resolves the entry a SASL bind is done for : the user entry having a given uid for
+ * the CRAM-MD5 and DIGEST-MD5 mechanisms, the user entry holding a given certificate
+ * for the EXTERNAL mechanism. The resolved identities found below the search base are
+ * kept for a limited time, and are dropped as soon as their entry is modified, deleted
+ * or moved : the listener returned by {@link #getInvalidationListener()} is registered
+ * on the search base subtree when the cache is first used, and removed by {@link #close()}.
+ * <p>
+ * The identities are also indexed by their entry Dn, so that a modify or a delete only
+ * drops the identities of the entry, without going through the whole cache. A rename or
+ * a move may change the Dn of many cached entries, and drops all the identities, but
+ * those operations are rare.
+ * <p>
+ * Only the successful resolutions are kept, so adding an entry never invalidates a
+ * cached identity.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SaslIdentityResolver
+{
+    /** The log for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SaslIdentityResolver.class );
+
+    /** The default maximum number of cached identities */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The default time an identity is kept, in milliseconds */
+    public static final long DEFAULT_TIME_TO_LIVE = 5L * 60L * 1000L;
+
+    /** The digest used to compute the certificate fingerprints */
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /** The DirectoryService instance */
+    private final DirectoryService directoryService;
+
+    /** The base the cached identities are searched from */
+    private final Dn searchBaseDn;
+
+    /** The maximum number of cached identities, 0 if nothing is cached */
+    private final int maxSize;
+
+    /** The time an identity is kept, in milliseconds */
+    private final long timeToLive;
+
+    /** The user identities, per username */
+    private final Map<String, Identity> users = new ConcurrentHashMap<>();
+
+    /** The certificate owners, per certificate fingerprint */
+    private final Map<String, Identity> certificates = new ConcurrentHashMap<>();
+
+    /** The usernames cached for each entry, per normalized Dn */
+    private final Map<String, Set<String>> usersByDn = new ConcurrentHashMap<>();
+
+    /** The certificate fingerprints cached for each entry, per normalized Dn */
+    private final Map<String, Set<String>> certificatesByDn = new ConcurrentHashMap<>();
+
+    /** Tells if the invalidation listener has been registered */
+    private volatile boolean listening;
+
+    /** The lock protecting the listener registration */
+    private final Object listenerLock = new Object();
+
+    /** Incremented on each invalidation, so that an identity read before a change is not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The listener dropping the identities when their entry changes */
+    private final DirectoryListener invalidationListener = new DirectoryListenerAdapter()
+    {
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            invalidate( deleteContext.getDn() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            invalidate( modifyContext.getDn() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            // The descendants Dn change too
+            clear();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            clear();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            clear();
+        }
+
+
+        /**
+         * The identities have to be dropped before the modification is acknowledged
+         */
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    };
+
+
+    /**
+     * A resolved identity : the user entry Dn, and its password when it has been asked for.
+     */
+    public static final class Identity
+    {
+        /** The user entry Dn */
+        private final Dn dn;
+
+        /** The user password, null if it has not been read */
+        private final Attribute userPassword;
+
+        /** The time after which the identity must be read again */
+        private final long expirationTime;
+
+
+        private Identity( Dn dn, Attribute userPassword, long expirationTime )
+        {
+            this.dn = dn;
+            this.userPassword = userPassword;
+            this.expirationTime = expirationTime;
+        }
+
+
+        /**
+         * @return the user entry Dn
+         */
+        public Dn getDn()
+        {
+            return dn;
+        }
+
+
+        /**
+         * @return a copy of the user entry userPassword attribute, or null if it has no password
+         */
+        public Attribute getUserPassword()
+        {
+            if ( userPassword == null )
+            {
+                return null;
+            }
+
+            return userPassword.clone();
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SaslIdentityResolver.
+     *
+     * @param directoryService the DirectoryService instance
+     * @param searchBaseDn the base the cached identities are searched from
+     * @param maxSize the maximum number of cached identities, 0 to disable the cache
+     * @param timeToLive the time an identity is kept, in milliseconds
+     */
+    public SaslIdentityResolver( DirectoryService directoryService, Dn searchBaseDn, int maxSize, long timeToLive )
+    {
+        this.directoryService = directoryService;
+        this.searchBaseDn = searchBaseDn;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+    }
+
+
+    /**
+     * Finds the entry having the given uid below the given base, with its password.
+     *
+     * @param baseDn the base to search from
+     * @param username the user uid
+     * @return the user identity, or null if there is no such user
+     * @throws LdapException if the search failed
+     */
+    public Identity resolveUser( Dn baseDn, String username ) throws LdapException
+    {
+        boolean cacheable = isCacheable( baseDn );
+
+        if ( cacheable )
+        {
+            listen();
+            Identity identity = get( users, usersByDn, username );
+
+            if ( identity != null )
+            {
+                return identity;
+            }
+        }
+
+        long readGeneration = generation.get();
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        CoreSession adminSession = directoryService.getAdminSession();
+
+        // The username is a value, not a filter : no need to escape it
+        EqualityNode<String> filter = new EqualityNode<>( schemaManager.getAttributeType( SchemaConstants.UID_AT ),
+            new Value( username ) );
+        Entry entry = null;
+
+        try ( Cursor<Entry> cursor = adminSession.search( baseDn, SearchScope.SUBTREE, filter,
+            AliasDerefMode.DEREF_ALWAYS, SchemaConstants.USER_PASSWORD_AT ) )
+        {
+            cursor.beforeFirst();
+
+            // As before, the last matching entry wins
+            while ( cursor.next() )
+            {
+                entry = cursor.get();
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        Attribute userPassword = entry.get( SchemaConstants.USER_PASSWORD_AT );
+        Identity identity = new Identity( entry.getDn(), userPassword == null ? null : userPassword.clone(),
+            System.currentTimeMillis() + timeToLive );
+
+        if ( cacheable )
+        {
+            put( users, usersByDn, username, identity, readGeneration );
+        }
+
+        return identity;
+    }
+
+
+    /**
+     * Finds the entry holding the given certificate below the given base.
+     *
+     * @param baseDn the base to search from
+     * @param certificate the user certificate
+     * @return the certificate owner Dn, or null if no entry holds this certificate
+     * @throws LdapException if the search failed
+     * @throws CertificateEncodingException if the certificate cannot be encoded
+     */
+    public Dn resolveCertificate( Dn baseDn, Certificate certificate ) throws LdapException,
+        CertificateEncodingException
+    {
+        byte[] encoded = certificate.getEncoded();
+        boolean cacheable = isCacheable( baseDn );
+        String fingerprint = null;
+
+        if ( cacheable )
+        {
+            listen();
+            fingerprint = fingerprint( encoded );
+            Identity identity = get( certificates, certificatesByDn, fingerprint );
+
+            if ( identity != null )
+            {
+                return identity.getDn();
+            }
+        }
+
+        long readGeneration = generation.get();
+        CoreSession adminSession = directoryService.getAdminSession();
+
+        EqualityNode<String> filter = new EqualityNode<>(
+            directoryService.getSchemaManager().getAttributeType( SchemaConstants.USER_CERTIFICATE_AT ),
+            new Value( encoded ) );
+        Dn owner = null;
+
+        try ( Cursor<Entry> cursor = adminSession.search( baseDn, SearchScope.SUBTREE, filter,
+            AliasDerefMode.DEREF_ALWAYS, SchemaConstants.NO_ATTRIBUTE ) )
+        {
+            cursor.beforeFirst();
+
+            if ( cursor.next() )
+            {
+                owner = cursor.get().getDn();
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        if ( ( owner != null ) && cacheable )
+        {
+            put( certificates, certificatesByDn, fingerprint,
+                new Identity( owner, null, System.currentTimeMillis() + timeToLive ), readGeneration );
+        }
+
+        return owner;
+    }
+
+
+    /**
+     * Drops the identities of the given entry. The identities of its descendants are
+     * kept : use {@link #clear()} when their Dn changes.
+     *
+     * @param dn the modified entry Dn
+     */
+    public void invalidate( Dn dn )
+    {
+        generation.incrementAndGet();
+        invalidate( users, usersByDn, dn );
+        invalidate( certificates, certificatesByDn, dn );
+
+        LOG.debug( "The SASL identities of {} have been invalidated", dn );
+    }
+
+
+    /**
+     * Drops all the cached identities.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        users.clear();
+        usersByDn.clear();
+        certificates.clear();
+        certificatesByDn.clear();
+    }
+
+
+    /**
+     * Removes the invalidation listener, if it has been registered, and drops all the
+     * cached identities.
+     */
+    public void close()
+    {
+        synchronized ( listenerLock )
+        {
+            if ( listening )
+            {
+                listening = false;
+                directoryService.getEventService().removeListener( invalidationListener );
+            }
+        }
+
+        clear();
+    }
+
+
+    /**
+     * @return the number of cached identities
+     */
+    public int getSize()
+    {
+        return users.size() + certificates.size();
+    }
+
+
+    /**
+     * @return the listener registered on the search base subtree, dropping the cached
+     * identities when their entry changes
+     */
+    public DirectoryListener getInvalidationListener()
+    {
+        return invalidationListener;
+    }
+
+
+    /**
+     * Registers the invalidation listener, before the first identity is read, so that
+     * a change done while it's read bumps the generation. No thread uses the cache
+     * before the listener has been added.
+     */
+    private void listen() throws LdapException
+    {
+        if ( listening )
+        {
+            return;
+        }
+
+        synchronized ( listenerLock )
+        {
+            if ( listening )
+            {
+                return;
+            }
+
+            NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+            criteria.setBase( searchBaseDn );
+            criteria.setScope( SearchScope.SUBTREE );
+
+            try
+            {
+                directoryService.getEventService().addListener( invalidationListener, criteria );
+            }
+            catch ( Exception e )
+            {
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+
+            listening = true;
+        }
+    }
+
+
+    private boolean isCacheable( Dn baseDn )
+    {
+        return ( maxSize > 0 ) && ( searchBaseDn != null ) && searchBaseDn.equals( baseDn );
+    }
+
+
+    private Identity get( Map<String, Identity> identities, Map<String, Set<String>> index, String key )
+    {
+        Identity identity = identities.get( key );
+
+        if ( identity == null )
+        {
+            return null;
+        }
+
+        if ( identity.expirationTime < System.currentTimeMillis() )
+        {
+            if ( identities.remove( key, identity ) )
+            {
+                unindex( index, identity.getDn(), key );
+            }
+
+            return null;
+        }
+
+        return identity;
+    }
+
+
+    private void put( Map<String, Identity> identities, Map<String, Set<String>> index, String key,
+        Identity identity, long readGeneration )
+    {
+        if ( identities.size() >= maxSize )
+        {
+            identities.clear();
+            index.clear();
+        }
+
+        index.computeIfAbsent( identity.getDn().getNormName(), k -> ConcurrentHashMap.newKeySet() ).add( key );
+        Identity previous = identities.put( key, identity );
+
+        if ( ( previous != null ) && !previous.getDn().equals( identity.getDn() ) )
+        {
+            unindex( index, previous.getDn(), key );
+        }
+
+        // The entry may have changed while we were reading it
+        if ( readGeneration != generation.get() )
+        {
+            identities.remove( key, identity );
+        }
+    }
+
+
+    /**
+     * Drops the identities of an entry, found through the Dn index : the cost does not
+     * depend on the number of cached identities.
+     */
+    private static void invalidate( Map<String, Identity> identities, Map<String, Set<String>> index, Dn dn )
+    {
+        Set<String> keys = index.remove( dn.getNormName() );
+
+        if ( keys == null )
+        {
+            return;
+        }
+
+        for ( String key : keys )
+        {
+            // The key may have been reused by another entry since it was indexed
+            identities.computeIfPresent( key, ( k, identity ) -> identity.getDn().equals( dn ) ? null : identity );
+        }
+    }
+
+
+    private static void unindex( Map<String, Set<String>> index, Dn dn, String key )
+    {
+        index.computeIfPresent( dn.getNormName(), ( k, keys ) ->
+        {
+            keys.remove( key );
+
+            return keys.isEmpty() ? null : keys;
+        } );
+    }
+
+
+    private static String fingerprint( byte[] encoded )
+    {
+        try
+        {
+            return Strings.toHexString( MessageDigest.getInstance( FINGERPRINT_ALGORITHM ).digest( encoded ) );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException( nsae.getMessage(), nsae );
+        }
+    }
+}
@@ -24,15 +24,8 @@ import javax.naming.Context;
 import javax.security.sasl.AuthorizeCallback;
 
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.Entry;
-import org.apache.directory.api.ldap.model.filter.ExprNode;
-import org.apache.directory.api.ldap.model.filter.FilterParser;
-import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.BindRequest;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.CoreSession;
@@ -40,6 +33,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.sasl.AbstractSaslCallbackHandler;
 import org.apache.directory.server.ldap.handlers.sasl.SaslConstants;
+import org.apache.directory.server.ldap.handlers.sasl.SaslIdentityResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,44 +71,28 @@ public class CramMd5CallbackHandler extends AbstractSaslCallbackHandler
     {
         try
         {
-            ExprNode filter = FilterParser.parse( schemaManager, "(uid=" + username + ")" );
-
             bindDn = ( String ) ldapSession.getSaslProperty( SaslConstants.SASL_USER_BASE_DN );
 
-            Dn baseDn = new Dn( bindDn );
-
-            Cursor<Entry> cursor = adminSession.search(
-                baseDn,
-                SearchScope.SUBTREE,
-                filter,
-                AliasDerefMode.DEREF_ALWAYS,
-                SchemaConstants.USER_PASSWORD_AT );
-
-            cursor.beforeFirst();
+            Dn baseDn = adminSession.getDirectoryService().getDnFactory().create( bindDn );
 
-            Entry entry = null;
+            SaslIdentityResolver.Identity identity = ldapSession.getLdapServer().getSaslIdentityResolver()
+                .resolveUser( baseDn, username );
 
-            while ( cursor.next() )
+            if ( ( identity == null ) || ( identity.getUserPassword() == null ) )
             {
-                entry = cursor.get();
-                LdapPrincipal ldapPrincipal = new LdapPrincipal(
-                    schemaManager,
-                    entry.getDn(),
-                    AuthenticationLevel.STRONG,
-                    entry.get( SchemaConstants.USER_PASSWORD_AT ).getBytes() );
-                ldapSession.putSaslProperty( SaslConstants.SASL_AUTHENT_USER, ldapPrincipal );
+                return null;
             }
 
-            cursor.close();
+            Attribute userPassword = identity.getUserPassword();
 
-            if ( entry != null )
-            {
-                return entry.get( SchemaConstants.USER_PASSWORD_AT );
-            }
-            else
-            {
-                return null;
-            }
+            LdapPrincipal ldapPrincipal = new LdapPrincipal(
+                schemaManager,
+                identity.getDn(),
+                AuthenticationLevel.STRONG,
+                userPassword.getBytes() );
+            ldapSession.putSaslProperty( SaslConstants.SASL_AUTHENT_USER, ldapPrincipal );
+
+            return userPassword;
         }
         catch ( Exception e )
         {
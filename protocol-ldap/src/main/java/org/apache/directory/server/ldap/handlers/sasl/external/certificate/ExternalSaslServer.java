@@ -28,23 +28,17 @@ import javax.security.sasl.SaslException;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.constants.SupportedSaslMechanisms;
-import org.apache.directory.api.ldap.model.entry.Entry;
-import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
-import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.message.BindRequest;
-import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
-import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.sasl.AbstractSaslServer;
@@ -146,40 +140,27 @@ public final class ExternalSaslServer extends AbstractSaslServer
         OperationManager operationManager = directoryService.getOperationManager();
 
         // find user by userCertificate
-        EqualityNode<String> filter = new EqualityNode<>(
-                directoryService.getSchemaManager().getAttributeType( SchemaConstants.USER_CERTIFICATE_AT ),
-                new Value( peerCertificate.getEncoded() ) );
-
-        SearchOperationContext searchContext = new SearchOperationContext( directoryService.getAdminSession() );
-        searchContext.setDn( directoryService.getDnFactory().create( ldapServer.getSearchBaseDn() ) );
-        searchContext.setScope( SearchScope.SUBTREE );
-        searchContext.setFilter( filter );
-        searchContext.setSizeLimit( 1 );
-        searchContext.setNoAttributes( true );
-
-        try ( EntryFilteringCursor cursor = operationManager.search( searchContext ) )
-        {
-            if ( cursor.next() )
-            {
-                Entry entry = cursor.get();
+        Dn userDn = ldapServer.getSaslIdentityResolver().resolveCertificate(
+            directoryService.getDnFactory().create( ldapServer.getSearchBaseDn() ), peerCertificate );
 
-                BindOperationContext bindContext = new BindOperationContext( ldapSession.getCoreSession() );
-                bindContext.setDn( entry.getDn() );
-                bindContext.setSaslMechanism( getMechanismName() );
-                bindContext.setSaslAuthId( getBindRequest().getName() );
-                bindContext.setIoSession( ldapSession.getIoSession() );
-                bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        if ( userDn == null )
+        {
+            throw new LdapAuthenticationException( "Cannot authenticate user cert=" + peerCertificate );
+        }
 
-                operationManager.bind( bindContext );
+        BindOperationContext bindContext = new BindOperationContext( ldapSession.getCoreSession() );
+        bindContext.setDn( userDn );
+        bindContext.setSaslMechanism( getMechanismName() );
+        bindContext.setSaslAuthId( getBindRequest().getName() );
+        bindContext.setIoSession( ldapSession.getIoSession() );
+        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
 
-                ldapSession.putSaslProperty( SaslConstants.SASL_AUTHENT_USER, new LdapPrincipal( directoryService.getSchemaManager(),
-                        entry.getDn(), AuthenticationLevel.STRONG ) );
-                getLdapSession().putSaslProperty( Context.SECURITY_PRINCIPAL, getBindRequest().getName() );
+        operationManager.bind( bindContext );
 
-                return bindContext.getSession();
-            }
+        ldapSession.putSaslProperty( SaslConstants.SASL_AUTHENT_USER, new LdapPrincipal( directoryService.getSchemaManager(),
+                userDn, AuthenticationLevel.STRONG ) );
+        getLdapSession().putSaslProperty( Context.SECURITY_PRINCIPAL, getBindRequest().getName() );
 
-            throw new LdapAuthenticationException( "Cannot authenticate user cert=" + peerCertificate );
-        }
+        return bindContext.getSession();
     }
 }
@@ -0,0 +1,137 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * The replica snapshot extended operation, used to seed a new consumer. The provider
+ * streams the entries of the requested base, parents first, in IntermediateResponses
+ * which value is a batch of serialized entries, and terminates the operation with an
+ * ExtendedResponse which value is the CSN the snapshot was started at.
+ * <p>
+ * A batch is serialized following this format : <br>
+ * <ul>
+ * <li>int : the number of entries</li>
+ * <li>for each entry :
+ *   <ul>
+ *   <li>byte[] : the serialized DN</li>
+ *   <li>byte[] : the serialized entry</li>
+ *   </ul>
+ * </li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ReplicaSnapshot
+{
+    /** The snapshot extended operation OID, also used for the IntermediateResponses */
+    public static final String EXTENSION_OID = "1.3.6.1.4.1.18060.0.1.10";
+
+    /** The default number of entries sent in an IntermediateResponse */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+
+    private ReplicaSnapshot()
+    {
+    }
+
+
+    /**
+     * Serializes a batch of entries
+     *
+     * @param entries The entries to serialize
+     * @return The serialized batch
+     * @throws IOException If the entries can't be serialized
+     */
+    public static byte[] serialize( List<Entry> entries ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( baos ) )
+        {
+            out.writeInt( entries.size() );
+
+            for ( Entry entry : entries )
+            {
+                // The entry DN
+                entry.getDn().writeExternal( out );
+
+                // The entry
+                entry.writeExternal( out );
+            }
+
+            out.flush();
+
+            return baos.toByteArray();
+        }
+    }
+
+
+    /**
+     * Deserializes a batch of entries
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param bytes The serialized batch
+     * @return The entries, parents first
+     * @throws IOException If the entries can't be deserialized
+     */
+    public static List<Entry> deserialize( SchemaManager schemaManager, byte[] bytes ) throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            int nbEntries = in.readInt();
+            List<Entry> entries = new ArrayList<>( nbEntries );
+
+            for ( int i = 0; i < nbEntries; i++ )
+            {
+                // The Entry's DN
+                Dn entryDn = new Dn( schemaManager );
+                entryDn.readExternal( in );
+
+                // The Entry
+                Entry entry = new DefaultEntry( schemaManager );
+                entry.readExternal( in );
+                entry.setDn( entryDn );
+
+                entries.add( entry );
+            }
+
+            return entries;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.AbstractExtendedOperationFactory;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedResponse;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedRequest;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedResponse;
+
+
+/**
+ * The factory for the replica snapshot extended operation. The request value (the base DN)
+ * and the response value (the snapshot CSN) are both UTF-8 strings, stored as is in opaque
+ * messages. It has to be registered on both the provider and the consumer codecs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaSnapshotFactory extends AbstractExtendedOperationFactory
+{
+    /**
+     * Creates a new instance of ReplicaSnapshotFactory.
+     *
+     * @param codec The codec for this factory.
+     */
+    public ReplicaSnapshotFactory( LdapApiService codec )
+    {
+        super( codec, ReplicaSnapshot.EXTENSION_OID );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExtendedRequest newRequest()
+    {
+        return new OpaqueExtendedRequest( ReplicaSnapshot.EXTENSION_OID );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExtendedRequest newRequest( byte[] value )
+    {
+        return new OpaqueExtendedRequest( ReplicaSnapshot.EXTENSION_OID, value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExtendedResponse newResponse()
+    {
+        return new OpaqueExtendedResponse( ReplicaSnapshot.EXTENSION_OID );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExtendedResponse newResponse( byte[] value )
+    {
+        OpaqueExtendedResponse response = new OpaqueExtendedResponse( ReplicaSnapshot.EXTENSION_OID );
+        response.setResponseValue( value );
+
+        return response;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encodeValue( Asn1Buffer buffer, ExtendedRequest extendedRequest )
+    {
+        byte[] value = ( ( OpaqueExtendedRequest ) extendedRequest ).getRequestValue();
+
+        if ( value != null )
+        {
+            buffer.put( value );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decodeValue( ExtendedRequest extendedRequest, byte[] requestValue )
+    {
+        ( ( OpaqueExtendedRequest ) extendedRequest ).setRequestValue( requestValue );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encodeValue( Asn1Buffer buffer, ExtendedResponse extendedResponse )
+    {
+        byte[] value = ( ( OpaqueExtendedResponse ) extendedResponse ).getResponseValue();
+
+        if ( value != null )
+        {
+            buffer.put( value );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decodeValue( ExtendedResponse extendedResponse, byte[] responseValue )
+    {
+        ( ( OpaqueExtendedResponse ) extendedResponse ).setResponseValue( responseValue );
+    }
+}
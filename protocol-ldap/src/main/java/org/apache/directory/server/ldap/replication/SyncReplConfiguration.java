@@ -133,6 +133,9 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** flag to indicate if a new consumer is seeded from a snapshot of the provider, default is false */
+    private boolean snapshotSeeding = false;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +583,27 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return true if a consumer without cookie is seeded from a snapshot of the provider
+     * before the syncrepl refresh
+     */
+    public boolean isSnapshotSeeding()
+    {
+        return snapshotSeeding;
+    }
+
+
+    /**
+     * enable/disable the seeding from a snapshot of the provider
+     *
+     * @param snapshotSeeding If the consumer is seeded from a snapshot
+     */
+    public void setSnapshotSeeding( boolean snapshotSeeding )
+    {
+        this.snapshotSeeding = snapshotSeeding;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -34,7 +34,6 @@ import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRe
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
 import org.apache.directory.api.ldap.extras.intermediate.syncrepl.SyncInfoValue;
-import org.apache.directory.api.ldap.extras.intermediate.syncrepl.SyncInfoValueImpl;
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
@@ -46,6 +45,7 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
@@ -55,7 +55,10 @@ import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.ExtendedResponse;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedRequest;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedResponse;
 import org.apache.directory.api.ldap.model.message.Response;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -76,6 +79,7 @@ import org.apache.directory.api.util.StringConstants;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.ldap.client.api.ConnectionClosedEventListener;
 import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.future.ExtendedFuture;
 import org.apache.directory.ldap.client.api.future.SearchFuture;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
@@ -91,6 +95,8 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshot;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshotFactory;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
 import org.slf4j.Logger;
@@ -229,6 +235,13 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 }
 
                 connection.addConnectionClosedEventListener( this );
+
+                if ( config.isSnapshotSeeding() )
+                {
+                    ReplicaSnapshotFactory snapshotFactory = new ReplicaSnapshotFactory( connection.getCodecService() );
+                    connection.getCodecService().registerExtendedRequest( snapshotFactory );
+                    connection.getCodecService().registerExtendedResponse( snapshotFactory );
+                }
             }
 
             // Try to connect
@@ -479,14 +492,13 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             CONSUMER_LOG.debug( "............... inside handleSyncInfo ..............." );
 
-            byte[] syncInfoBytes = syncInfoResp.getResponseValue();
-
-            if ( syncInfoBytes == null )
+            // The codec decodes the SyncInfo messages
+            if ( !( syncInfoResp instanceof SyncInfoValue ) )
             {
                 return;
             }
 
-            SyncInfoValue syncInfoValue = new SyncInfoValueImpl();
+            SyncInfoValue syncInfoValue = ( SyncInfoValue ) syncInfoResp;
 
             byte[] cookie = syncInfoValue.getCookie();
 
@@ -568,6 +580,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         // read the cookie if persisted
         readCookie();
 
+        // a new consumer is first seeded from a snapshot of the provider, if possible
+        if ( ( syncCookie == null ) && config.isSnapshotSeeding() )
+        {
+            seedFromSnapshot();
+        }
+
         if ( config.isRefreshNPersist() )
         {
             try
@@ -589,6 +607,122 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Seeds the consumer from a snapshot of the provider, and sets the cookie to the CSN the
+     * snapshot was started at : the following refresh only brings back the entries modified
+     * while the snapshot was sent. The entries are directly added into the partition, without
+     * going through the interceptors. If the provider can't send a snapshot, the consumer is
+     * loaded by the syncrepl refresh as usual.
+     */
+    private void seedFromSnapshot()
+    {
+        CONSUMER_LOG.info( "Seeding the consumer {} from a snapshot of {}", config.getReplicaId(),
+            config.getProducer() );
+
+        try
+        {
+            OpaqueExtendedRequest request = new OpaqueExtendedRequest( ReplicaSnapshot.EXTENSION_OID,
+                Strings.getBytesUtf8( config.getBaseDn() ) );
+            ExtendedFuture future = connection.extendedAsync( request );
+            long nbEntries = 0L;
+
+            Response resp = future.get();
+
+            while ( ( resp instanceof IntermediateResponse ) && !future.isCancelled() && !disconnected )
+            {
+                List<Entry> entries = ReplicaSnapshot.deserialize( schemaManager,
+                    ( ( IntermediateResponse ) resp ).getResponseValue() );
+                addSnapshotEntries( entries );
+                nbEntries += entries.size();
+
+                resp = future.get();
+            }
+
+            if ( !( resp instanceof ExtendedResponse ) )
+            {
+                CONSUMER_LOG.warn( "The snapshot from {} has been interrupted", config.getProducer() );
+
+                return;
+            }
+
+            ExtendedResponse snapshotDone = ( ExtendedResponse ) resp;
+
+            if ( snapshotDone.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS )
+            {
+                CONSUMER_LOG.warn( "Cannot get a snapshot from {} : {}", config.getProducer(),
+                    snapshotDone.getLdapResult().getDiagnosticMessage() );
+
+                return;
+            }
+
+            String csn = Strings.utf8ToString( ( ( OpaqueExtendedResponse ) snapshotDone ).getResponseValue() );
+            syncCookie = LdapProtocolUtils.createCookie( config.getReplicaId(), csn );
+            storeCookie();
+
+            CONSUMER_LOG.info( "Seeded the consumer {} with {} entries, up to the CSN {}", config.getReplicaId(),
+                nbEntries, csn );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to seed the consumer {} from a snapshot", config.getReplicaId(), e );
+        }
+    }
+
+
+    /**
+     * Adds a batch of snapshot entries in a single transaction. The entries which already
+     * exist, like the context entry, are updated afterward.
+     */
+    private void addSnapshotEntries( List<Entry> entries ) throws Exception
+    {
+        List<Entry> existingEntries = new ArrayList<>();
+        OperationManager operationManager = directoryService.getOperationManager();
+        Partition partition = directoryService.getPartitionNexus().getPartition( new Dn( schemaManager,
+            config.getBaseDn() ) );
+
+        operationManager.lockWrite();
+
+        try ( PartitionTxn partitionTxn = partition.beginWriteTransaction() )
+        {
+            try
+            {
+                for ( Entry entry : entries )
+                {
+                    AddOperationContext addContext = new AddOperationContext( session, entry );
+                    addContext.setPartition( partition );
+                    addContext.setTransaction( partitionTxn );
+
+                    try
+                    {
+                        partition.add( addContext );
+                    }
+                    catch ( LdapEntryAlreadyExistsException leaee )
+                    {
+                        existingEntries.add( entry );
+                    }
+                }
+
+                partitionTxn.commit();
+            }
+            catch ( Exception e )
+            {
+                partitionTxn.abort();
+
+                throw e;
+            }
+        }
+        finally
+        {
+            operationManager.unlockWrite();
+        }
+
+        for ( Entry entry : existingEntries )
+        {
+            modify( entry, config.getReplicaId() );
+        }
+    }
+
+
     private ReplicationStatusEnum doRefreshOnly()
     {
         while ( !disconnected )
@@ -113,6 +113,9 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /** the DN of the entry where this event log details are stored */
     private Dn consumerEntryDn;
 
+    /** the CSN of the last message purged from the journal */
+    private volatile String purgedCsn;
+
     public static final String REPLICA_EVENT_LOG_NAME_PREFIX = "REPL_EVENT_LOG.";
 
     public static final int DEFAULT_PURGE_THRESHOLD_COUNT = 10000;
@@ -504,6 +507,31 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * Sets the CSN of the last message purged from the journal
+     *
+     * @param purgedCsn The purged CSN
+     */
+    public void setPurgedCsn( String purgedCsn )
+    {
+        this.purgedCsn = purgedCsn;
+    }
+
+
+    /**
+     * Tells if some messages the consumer has not received have been purged from the journal
+     *
+     * @param consumerCsn The consumer CSN
+     * @return <tt>true</tt> if the journal has been purged after the consumer CSN
+     */
+    public boolean isPurgedAfter( String consumerCsn )
+    {
+        String purged = purgedCsn;
+
+        return ( purged != null ) && ( consumerCsn != null ) && ( consumerCsn.compareTo( purged ) < 0 );
+    }
+
+
     public Dn getConsumerEntryDn()
     {
         return consumerEntryDn;
@@ -151,6 +151,7 @@ public class ReplicaEventLogJanitor extends Thread
                             {
                                 cursor.delete();
                                 deleteCount++;
+                                log.setPurgedCsn( csnVal );
                             }
                         }
 
@@ -0,0 +1,367 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedResponse;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.IntermediateResponseImpl;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedRequest;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedResponse;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.ldap.ExtendedOperationHandler;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshot;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.LargeAttributeTable;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.mina.core.future.WriteFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An handler for the replica snapshot extended operation. The entries are read directly from
+ * the partition master table, walking the Rdn index so that the parents are always sent before
+ * their children, without going through the interceptor chain nor through the search engine.
+ * <p>
+ * The snapshot is not frozen : the entries modified while it's being sent may be sent with
+ * their old or their new state. The consumer then resynchronizes from the CSN the snapshot was
+ * started at, which brings back all the entries modified since, and the deleted ones.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaSnapshotHandler implements ExtendedOperationHandler<ExtendedRequest, ExtendedResponse>
+{
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The supported OIDs */
+    private static final Set<String> EXTENSION_OIDS = Collections.singleton( ReplicaSnapshot.EXTENSION_OID );
+
+    /** The DirectoryService instance */
+    private DirectoryService directoryService;
+
+    /** The number of entries sent in each IntermediateResponse */
+    private int batchSize = ReplicaSnapshot.DEFAULT_BATCH_SIZE;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOid()
+    {
+        return ReplicaSnapshot.EXTENSION_OID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getExtensionOids()
+    {
+        return EXTENSION_OIDS;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLdapServer( LdapServer ldapServer )
+    {
+        directoryService = ldapServer.getDirectoryService();
+    }
+
+
+    /**
+     * @return The number of entries sent in each IntermediateResponse
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+
+    /**
+     * @param batchSize The number of entries sent in each IntermediateResponse
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleExtendedOperation( LdapSession session, ExtendedRequest req ) throws Exception
+    {
+        OpaqueExtendedResponse response = new OpaqueExtendedResponse( req.getMessageId(), ReplicaSnapshot.EXTENSION_OID );
+
+        // The entries are read without any access control check
+        if ( !session.getCoreSession().isAnAdministrator() )
+        {
+            response.getLdapResult().setResultCode( ResultCodeEnum.INSUFFICIENT_ACCESS_RIGHTS );
+            response.getLdapResult().setDiagnosticMessage( "Only an administrator can request a replica snapshot" );
+            session.getIoSession().write( response );
+
+            return;
+        }
+
+        Dn baseDn = new Dn( directoryService.getSchemaManager(),
+            Strings.utf8ToString( ( ( OpaqueExtendedRequest ) req ).getRequestValue() ) );
+        Partition partition = directoryService.getPartitionNexus().getPartition( baseDn );
+
+        if ( !( partition instanceof AbstractBTreePartition ) )
+        {
+            PROVIDER_LOG.info( "Cannot send a snapshot of the {} partition", partition.getId() );
+            response.getLdapResult().setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+            response.getLdapResult().setDiagnosticMessage( "The partition " + partition.getId()
+                + " does not support snapshots" );
+            session.getIoSession().write( response );
+
+            return;
+        }
+
+        // All the modifications done from now on will be sent by the following syncrepl refresh
+        String csn = directoryService.getCSN().toString();
+
+        PROVIDER_LOG.debug( "Sending a snapshot of {} at the CSN {}", baseDn, csn );
+
+        long nbEntries = sendSnapshot( session, req.getMessageId(), ( AbstractBTreePartition ) partition, baseDn );
+
+        if ( nbEntries < 0 )
+        {
+            PROVIDER_LOG.debug( "The snapshot of {} has been interrupted", baseDn );
+
+            return;
+        }
+
+        PROVIDER_LOG.info( "Sent a snapshot of {} entries under {} at the CSN {}", nbEntries, baseDn, csn );
+
+        response.getLdapResult().setResultCode( ResultCodeEnum.SUCCESS );
+        response.setResponseValue( Strings.getBytesUtf8( csn ) );
+        session.getIoSession().write( response );
+    }
+
+
+    /**
+     * Sends the entries under the base, parents first
+     *
+     * @return The number of sent entries, or -1 if the session has been closed
+     */
+    private long sendSnapshot( LdapSession session, int messageId, AbstractBTreePartition partition, Dn baseDn )
+        throws Exception
+    {
+        List<Entry> batch = new ArrayList<>( batchSize );
+        Deque<Cursor<IndexEntry<ParentIdAndRdn, String>>> cursors = new ArrayDeque<>();
+        Deque<String> parentIds = new ArrayDeque<>();
+        Deque<Dn> parentDns = new ArrayDeque<>();
+        WriteFuture lastWrite = null;
+        long nbEntries = 0L;
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+        {
+            String baseId = partition.getEntryId( partitionTxn, baseDn );
+
+            if ( baseId == null )
+            {
+                return 0L;
+            }
+
+            batch.add( read( partitionTxn, partition, baseId, baseDn ) );
+            push( partitionTxn, partition, baseId, baseDn, cursors, parentIds, parentDns );
+
+            while ( !cursors.isEmpty() )
+            {
+                Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = cursors.peek();
+                IndexEntry<ParentIdAndRdn, String> child = cursor.next() ? cursor.get() : null;
+
+                if ( ( child == null ) || !parentIds.peek().equals( child.getKey().getParentId() ) )
+                {
+                    // No more children for this parent
+                    cursors.pop().close();
+                    parentIds.pop();
+                    parentDns.pop();
+
+                    continue;
+                }
+
+                Dn childDn = parentDns.peek();
+
+                for ( Rdn rdn : child.getKey().getRdns() )
+                {
+                    childDn = childDn.add( rdn );
+                }
+
+                Entry entry = read( partitionTxn, partition, child.getId(), childDn );
+
+                if ( entry != null )
+                {
+                    batch.add( entry );
+                }
+
+                if ( child.getKey().getNbChildren() > 0 )
+                {
+                    push( partitionTxn, partition, child.getId(), childDn, cursors, parentIds, parentDns );
+                }
+
+                if ( batch.size() >= batchSize )
+                {
+                    nbEntries += batch.size();
+                    lastWrite = flush( session, messageId, batch, lastWrite );
+
+                    if ( lastWrite == null )
+                    {
+                        return -1L;
+                    }
+                }
+            }
+
+            if ( !batch.isEmpty() )
+            {
+                nbEntries += batch.size();
+
+                if ( flush( session, messageId, batch, lastWrite ) == null )
+                {
+                    return -1L;
+                }
+            }
+
+            return nbEntries;
+        }
+        finally
+        {
+            for ( Cursor<IndexEntry<ParentIdAndRdn, String>> cursor : cursors )
+            {
+                cursor.close();
+            }
+        }
+    }
+
+
+    /**
+     * Positions a new cursor before the children of an entry
+     */
+    private void push( PartitionTxn partitionTxn, AbstractBTreePartition partition, String parentId, Dn parentDn,
+        Deque<Cursor<IndexEntry<ParentIdAndRdn, String>>> cursors, Deque<String> parentIds, Deque<Dn> parentDns )
+        throws Exception
+    {
+        Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = partition.getRdnIndex().forwardCursor( partitionTxn );
+
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+        startingPos.setKey( new ParentIdAndRdn( parentId, ( Rdn[] ) null ) );
+        cursor.before( startingPos );
+
+        cursors.push( cursor );
+        parentIds.push( parentId );
+        parentDns.push( parentDn );
+    }
+
+
+    /**
+     * Reads an entry from the master table, bypassing the entry cache
+     */
+    private Entry read( PartitionTxn partitionTxn, AbstractBTreePartition partition, String id, Dn dn )
+        throws Exception
+    {
+        Entry entry;
+
+        partition.getReadWriteLock().readLock().lock();
+
+        try
+        {
+            entry = partition.getMasterTable().get( partitionTxn, id );
+
+            LargeAttributeTable largeAttributes = partition.getLargeAttributeTable();
+
+            if ( largeAttributes != null )
+            {
+                entry = largeAttributes.inflate( partitionTxn, id, entry );
+            }
+        }
+        finally
+        {
+            partition.getReadWriteLock().readLock().unlock();
+        }
+
+        if ( entry == null )
+        {
+            // Deleted while the snapshot was being sent
+            return null;
+        }
+
+        // The stored entry may be shared : don't modify it
+        entry = entry.shallowClone();
+        entry.setDn( dn );
+
+        return entry;
+    }
+
+
+    /**
+     * Writes a batch of entries, once the previous one has been written so that
+     * we don't pile up the whole partition in the session write queue.
+     *
+     * @return The write future, or null if the session has been closed
+     */
+    private WriteFuture flush( LdapSession session, int messageId, List<Entry> batch, WriteFuture lastWrite )
+        throws Exception
+    {
+        if ( lastWrite != null )
+        {
+            lastWrite.awaitUninterruptibly();
+        }
+
+        if ( session.getIoSession().isClosing() )
+        {
+            return null;
+        }
+
+        IntermediateResponse response = new IntermediateResponseImpl( messageId, ReplicaSnapshot.EXTENSION_OID );
+        response.setResponseValue( ReplicaSnapshot.serialize( batch ) );
+        batch.clear();
+
+        return session.getIoSession().write( response );
+    }
+}
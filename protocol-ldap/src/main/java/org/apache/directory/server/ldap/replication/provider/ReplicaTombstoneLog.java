@@ -0,0 +1,311 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdbm.RecordManager;
+import jdbm.recman.BaseRecordManager;
+import jdbm.recman.TransactionManager;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A compact log of the deleted entries, shared by all the consumers. It only stores the
+ * CSN of the deletion and the entryUUID of the deleted entry, so that a consumer which
+ * event log has been removed can be sent the entries deleted since its last CSN, instead
+ * of reloading the whole content.
+ * <p>
+ * The moved and renamed entries are also recorded, without any UUID : a consumer can't be
+ * resynchronized from the entryCSN index when entries have been moved since its last CSN.
+ * <p>
+ * The log keeps at most {@link #getMaxTombstones()} tombstones. The CSN of the last
+ * removed one is kept as the horizon : the log can't tell anything about older CSNs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaTombstoneLog
+{
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The name of the tombstone log */
+    public static final String TOMBSTONE_LOG_NAME = "REPL_TOMBSTONES";
+
+    /** The default maximum number of tombstones */
+    public static final int DEFAULT_MAX_TOMBSTONES = 100000;
+
+    /** The value stored for a moved or renamed entry */
+    private static final String MODDN_MARKER = "";
+
+    /** The name of the record storing the horizon */
+    private static final String HORIZON_RECORD = "horizon";
+
+    /** The tombstones, the entryUUIDs by CSN */
+    private JdbmTable<String, String> tombstones;
+
+    /** The record manager */
+    private RecordManager recman;
+
+    /** The record ID of the horizon */
+    private long horizonRecId;
+
+    /** The CSN before which the log is not complete */
+    private String horizon;
+
+    /** The maximum number of tombstones */
+    private int maxTombstones = DEFAULT_MAX_TOMBSTONES;
+
+
+    /**
+     * Creates, or opens, the tombstone log
+     *
+     * @param directoryService The DirectoryService instance
+     * @throws IOException If the log can't be opened
+     */
+    public ReplicaTombstoneLog( DirectoryService directoryService ) throws IOException
+    {
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        File logFile = new File( directoryService.getInstanceLayout().getReplDirectory(), TOMBSTONE_LOG_NAME );
+        recman = new BaseRecordManager( logFile.getAbsolutePath() );
+        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
+        transactionManager.setMaximumTransactionsInLog( 200 );
+
+        SerializableComparator<String> comparator = new SerializableComparator<>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+
+        tombstones = new JdbmTable<>( schemaManager, TOMBSTONE_LOG_NAME, recman, comparator,
+            StringSerializer.INSTANCE, StringSerializer.INSTANCE );
+
+        horizonRecId = recman.getNamedObject( HORIZON_RECORD );
+
+        if ( horizonRecId == 0 )
+        {
+            // A new log : nothing is known about the deletions done before
+            horizon = directoryService.getCSN().toString();
+            horizonRecId = recman.insert( horizon, StringSerializer.INSTANCE );
+            recman.setNamedObject( HORIZON_RECORD, horizonRecId );
+            recman.commit();
+        }
+        else
+        {
+            horizon = ( String ) recman.fetch( horizonRecId, StringSerializer.INSTANCE );
+        }
+
+        PROVIDER_LOG.debug( "Opened the tombstone log, with the horizon {}", horizon );
+    }
+
+
+    /**
+     * Records a deleted entry
+     *
+     * @param csn The CSN of the deletion
+     * @param entryUuid The entryUUID of the deleted entry
+     */
+    public synchronized void deleted( String csn, String entryUuid )
+    {
+        record( csn, entryUuid );
+    }
+
+
+    /**
+     * Records a moved or renamed entry
+     *
+     * @param csn The CSN of the operation
+     */
+    public synchronized void moved( String csn )
+    {
+        record( csn, MODDN_MARKER );
+    }
+
+
+    private void record( String csn, String value )
+    {
+        try
+        {
+            tombstones.put( null, csn, value );
+
+            if ( tombstones.count( null ) > maxTombstones )
+            {
+                purge();
+            }
+
+            recman.commit();
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to record the tombstone {}", csn, e );
+        }
+    }
+
+
+    /**
+     * Removes the oldest tombstones, moving the horizon forward
+     */
+    private void purge() throws Exception
+    {
+        List<String> purged = new ArrayList<>();
+        long excess = tombstones.count( null ) - maxTombstones;
+
+        try ( Cursor<Tuple<String, String>> cursor = tombstones.cursor() )
+        {
+            while ( ( purged.size() < excess ) && cursor.next() )
+            {
+                purged.add( cursor.get().getKey() );
+            }
+        }
+
+        for ( String csn : purged )
+        {
+            tombstones.remove( null, csn );
+        }
+
+        if ( !purged.isEmpty() )
+        {
+            horizon = purged.get( purged.size() - 1 );
+            recman.update( horizonRecId, horizon, StringSerializer.INSTANCE );
+        }
+    }
+
+
+    /**
+     * Gets the entryUUIDs of the entries deleted after the given CSN.
+     *
+     * @param csn The CSN
+     * @return The deleted entryUUIDs, or null if the log does not go back to the given CSN,
+     * or if some entries have been moved or renamed after it
+     */
+    public synchronized List<byte[]> getDeletedSince( String csn )
+    {
+        if ( ( csn == null ) || ( csn.compareTo( horizon ) < 0 ) )
+        {
+            PROVIDER_LOG.debug( "The CSN {} is older than the tombstones horizon {}", csn, horizon );
+
+            return null;
+        }
+
+        List<byte[]> deleted = new ArrayList<>();
+
+        try ( Cursor<Tuple<String, String>> cursor = tombstones.cursor() )
+        {
+            cursor.before( new Tuple<String, String>( csn, null ) );
+
+            while ( cursor.next() )
+            {
+                Tuple<String, String> tuple = cursor.get();
+
+                if ( tuple.getKey().compareTo( csn ) <= 0 )
+                {
+                    continue;
+                }
+
+                if ( MODDN_MARKER.equals( tuple.getValue() ) )
+                {
+                    PROVIDER_LOG.debug( "Some entries have been moved after the CSN {}", csn );
+
+                    return null;
+                }
+
+                deleted.add( Strings.uuidToBytes( tuple.getValue() ) );
+            }
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to read the tombstones after {}", csn, e );
+
+            return null;
+        }
+
+        return deleted;
+    }
+
+
+    /**
+     * @return The CSN before which the log is not complete
+     */
+    public synchronized String getHorizon()
+    {
+        return horizon;
+    }
+
+
+    /**
+     * @return The maximum number of tombstones
+     */
+    public int getMaxTombstones()
+    {
+        return maxTombstones;
+    }
+
+
+    /**
+     * @param maxTombstones The maximum number of tombstones
+     */
+    public void setMaxTombstones( int maxTombstones )
+    {
+        if ( maxTombstones <= 0 )
+        {
+            maxTombstones = DEFAULT_MAX_TOMBSTONES;
+        }
+
+        this.maxTombstones = maxTombstones;
+    }
+
+
+    /**
+     * Closes the log
+     *
+     * @throws IOException If the log can't be closed
+     * @throws LdapException If the tombstones can't be closed
+     */
+    public synchronized void close() throws IOException, LdapException
+    {
+        if ( tombstones != null )
+        {
+            tombstones.close( null );
+            tombstones = null;
+        }
+
+        if ( recman != null )
+        {
+            recman.close();
+            recman = null;
+        }
+    }
+}
@@ -57,12 +57,14 @@ import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
 import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.LdapResult;
@@ -93,7 +95,10 @@ import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
@@ -103,6 +108,8 @@ import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshot;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshotFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -151,6 +158,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /** thread used for updating consumer infor */
     private Thread consumerInfoUpdateThread;
 
+    /** The log of the deleted entries, used to resynchronize the consumers which event log is gone */
+    private ReplicaTombstoneLog tombstoneLog;
+
+    private TombstoneListener tombstoneListener;
+
     /**
      * Create a SyncReplRequestHandler empty instance
      */
@@ -199,6 +211,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 throw new IOException( I18n.err( I18n.ERR_00004_COULD_NOT_CREATE_DIRECTORY, syncReplData ) );
             }
 
+            // Open the tombstone log, and feed it with all the deletions
+            tombstoneLog = new ReplicaTombstoneLog( dirService );
+            tombstoneListener = new TombstoneListener();
+            NotificationCriteria tombstoneCriteria = new NotificationCriteria( dirService.getSchemaManager() );
+            tombstoneCriteria.setBase( new Dn( dirService.getSchemaManager() ) );
+            tombstoneCriteria.setScope( SearchScope.SUBTREE );
+            tombstoneCriteria.setEventMask( EventType.DELETE, EventType.MOVE, EventType.RENAME,
+                EventType.MOVE_AND_RENAME );
+
+            dirService.getEventService().addListener( tombstoneListener, tombstoneCriteria );
+
             // Create the replication manager
             replicaUtil = new ReplConsumerManager( dirService );
 
@@ -209,6 +232,14 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             registerPersistentSearches();
 
+            // The new consumers may be seeded from a snapshot of the replicated partitions
+            ReplicaSnapshotFactory snapshotFactory = new ReplicaSnapshotFactory( dirService.getLdapCodecService() );
+            dirService.getLdapCodecService().registerExtendedRequest( snapshotFactory );
+            dirService.getLdapCodecService().registerExtendedResponse( snapshotFactory );
+            ReplicaSnapshotHandler snapshotHandler = new ReplicaSnapshotHandler();
+            snapshotHandler.setLdapServer( server );
+            server.addExtendedOperationHandler( snapshotHandler );
+
             cledListener = new ConsumerLogEntryChangeListener();
             NotificationCriteria criteria = new NotificationCriteria( dirService.getSchemaManager() );
             criteria.setBase( new Dn( dirService.getSchemaManager(), ServerDNConstants.REPL_CONSUMER_DN_STR ) );
@@ -252,6 +283,8 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         EventService evtSrv = dirService.getEventService();
 
         evtSrv.removeListener( cledListener );
+        evtSrv.removeListener( tombstoneListener );
+        ldapServer.removeExtendedOperationHandler( ReplicaSnapshot.EXTENSION_OID );
         //first set the 'stop' flag
         logJanitor.stopCleaning();
         //then interrupt the janitor
@@ -277,6 +310,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         // flush the dirty repos
         storeReplicaInfo();
 
+        try
+        {
+            tombstoneLog.close();
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to close the tombstone log", e );
+        }
+
         initialized = false;
     }
 
@@ -310,7 +352,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 PROVIDER_LOG.debug( "Received a replication request with no cookie" );
                 // No cookie ? We have to get all the entries from the provider
                 // This is an initiate Content Poll action (RFC 4533, 3.3.1)
-                doInitialRefresh( session, request );
+                doRefresh( session, request, null, null );
             }
             else
             {
@@ -328,17 +370,34 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 else
                 {
                     ReplicaEventLog clientMsgLog = getReplicaEventLog( cookieString );
+                    String consumerCsn = LdapProtocolUtils.getCsn( cookieString );
+
+                    if ( ( clientMsgLog != null ) && clientMsgLog.isPurgedAfter( consumerCsn ) )
+                    {
+                        PROVIDER_LOG.debug( "the event log of the replica {} has been purged after the CSN {}",
+                            clientMsgLog.getId(), consumerCsn );
+                        discardReplicaEventLog( clientMsgLog );
+                        clientMsgLog = null;
+                    }
 
                     if ( clientMsgLog == null )
                     {
                         PROVIDER_LOG.debug(
                             "received a valid cookie {} but there is no event log associated with this replica",
                             cookieString );
-                        sendESyncRefreshRequired( session, request );
+                        List<byte[]> deletedUuids = tombstoneLog.getDeletedSince( consumerCsn );
+
+                        if ( deletedUuids == null )
+                        {
+                            sendESyncRefreshRequired( session, request );
+                        }
+                        else
+                        {
+                            doRefresh( session, request, consumerCsn, deletedUuids );
+                        }
                     }
                     else
                     {
-                        String consumerCsn = LdapProtocolUtils.getCsn( cookieString );
                         doContentUpdate( session, request, clientMsgLog, consumerCsn );
                     }
                 }
@@ -478,11 +537,25 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
 
     /**
-     * Process the initial refresh : we will send all the entries
+     * Process the initial refresh : we will send all the entries, or only the entries modified
+     * after the consumer CSN and the deleted entries if the consumer has already been refreshed
+     * but its event log is gone.
+     *
+     * @param consumerCsn The consumer CSN, null for a full refresh
+     * @param deletedUuids The entryUUIDs of the entries deleted after the consumer CSN
      */
-    private void doInitialRefresh( LdapSession session, SearchRequest request ) throws Exception
+    private void doRefresh( LdapSession session, SearchRequest request, String consumerCsn, List<byte[]> deletedUuids )
+        throws Exception
     {
-        PROVIDER_LOG.debug( "Starting an initial refresh" );
+        if ( consumerCsn == null )
+        {
+            PROVIDER_LOG.debug( "Starting an initial refresh" );
+        }
+        else
+        {
+            PROVIDER_LOG.debug( "Starting a delta refresh from the CSN {}, with {} deleted entries", consumerCsn,
+                deletedUuids.size() );
+        }
 
         SortRequest ctrl = ( SortRequest ) request.getControl( SortRequest.OID );
 
@@ -563,9 +636,26 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // then start pushing initial content
         LessEqNode csnNode = new LessEqNode( csnAT, contexCsnValue );
+        ExprNode csnRange = csnNode;
+
+        if ( consumerCsn != null )
+        {
+            // Only the entries modified since the consumer CSN, read from the entryCSN index
+            csnRange = new AndNode( new GreaterEqNode( csnAT, new Value( csnAT, consumerCsn ) ), csnNode );
+
+            // The deleted entries first, as their DN may have been reused
+            sendDeletedEntries( session, request, deletedUuids );
+
+            // and the modified entries which are now out of the consumer's filter
+            if ( !isOcPresenceFilter( modifiedFilter ) )
+            {
+                request.setFilter( new AndNode( new NotNode( modifiedFilter ), csnRange ) );
+                sendFilteredOutEntries( session, request, replicaLog );
+            }
+        }
 
         // modify the filter to include the context Csn
-        ExprNode initialContentFilter = new AndNode( modifiedFilter, csnNode );
+        ExprNode initialContentFilter = new AndNode( modifiedFilter, csnRange );
         request.setFilter( initialContentFilter );
 
         // Now, do a search to get all the entries
@@ -573,10 +663,8 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         if ( searchDoneResp.getLdapResult().getResultCode() == ResultCodeEnum.SUCCESS )
         {
-            if ( replicaLog.getLastSentCsn() == null )
-            {
-                replicaLog.setLastSentCsn( contextCsn );
-            }
+            // All the entries up to the contextCSN have been sent, whatever the order they were sent in
+            replicaLog.setLastSentCsn( contextCsn );
 
             if ( refreshNPersist ) // refreshAndPersist mode
             {
@@ -638,6 +726,62 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Send the entryUUIDs of the deleted entries to the consumer, in a syncIdSet
+     */
+    private void sendDeletedEntries( LdapSession session, SearchRequest req, List<byte[]> deletedUuids )
+    {
+        if ( deletedUuids.isEmpty() )
+        {
+            return;
+        }
+
+        SyncInfoValue syncInfoValue = new SyncInfoValueImpl();
+        syncInfoValue.setSyncInfoValueType( SynchronizationInfoEnum.SYNC_ID_SET );
+        syncInfoValue.setMessageId( req.getMessageId() );
+        syncInfoValue.setRefreshDeletes( true );
+        syncInfoValue.setSyncUUIDs( deletedUuids );
+
+        PROVIDER_LOG.debug( "Sending {} deleted entries", deletedUuids.size() );
+        session.getIoSession().write( syncInfoValue );
+    }
+
+
+    /**
+     * Send the entries which don't match the consumer's filter anymore as deleted entries
+     */
+    private void sendFilteredOutEntries( LdapSession session, SearchRequest req, ReplicaEventLog replicaLog )
+        throws Exception
+    {
+        try ( Cursor<Entry> cursor = session.getCoreSession().search( req ) )
+        {
+            while ( cursor.next() )
+            {
+                sendSearchResultEntry( session, req, cursor.get(), SyncStateTypeEnum.DELETE );
+            }
+        }
+    }
+
+
+    /**
+     * Removes the event log of a consumer, and its entry
+     */
+    private void discardReplicaEventLog( ReplicaEventLog replicaLog )
+    {
+        logJanitor.removeEventLog( replicaLog );
+
+        try
+        {
+            dirService.getAdminSession().delete( replicaLog.getConsumerEntryDn() );
+        }
+        catch ( LdapException e )
+        {
+            PROVIDER_LOG.warn( "Failed to delete the entry {} of replica event log {}",
+                replicaLog.getConsumerEntryDn(), replicaLog.getName(), e );
+        }
+    }
+
+
     /**
      * Process a search on the provider to get all the modified entries. We then send all
      * of them to the consumer
@@ -938,29 +1082,31 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
          *
          *  (| (objectClass=referral)(objectClass=*)) == (objectClass=*)
          */
-        boolean isOcPresenceFilter = false;
+        ExprNode filter = req.getFilter();
 
-        if ( req.getFilter() instanceof PresenceNode )
+        if ( !req.hasControl( ManageDsaIT.OID ) && !isOcPresenceFilter( filter ) )
         {
-            PresenceNode presenceNode = ( PresenceNode ) req.getFilter();
-
-            AttributeType at = session.getCoreSession().getDirectoryService().getSchemaManager()
-                .lookupAttributeTypeRegistry( presenceNode.getAttribute() );
-
-            if ( at.getOid().equals( SchemaConstants.OBJECT_CLASS_AT_OID ) )
-            {
-                isOcPresenceFilter = true;
-            }
+            filter = new OrNode( req.getFilter(), newIsReferralEqualityNode( session ) );
         }
 
-        ExprNode filter = req.getFilter();
+        return filter;
+    }
+
 
-        if ( !req.hasControl( ManageDsaIT.OID ) && !isOcPresenceFilter )
+    /**
+     * Tells if a filter is (objectClass=*)
+     */
+    private boolean isOcPresenceFilter( ExprNode filter ) throws LdapException
+    {
+        if ( filter instanceof PresenceNode )
         {
-            filter = new OrNode( req.getFilter(), newIsReferralEqualityNode( session ) );
+            AttributeType at = dirService.getSchemaManager()
+                .lookupAttributeTypeRegistry( ( ( PresenceNode ) filter ).getAttribute() );
+
+            return at.getOid().equals( SchemaConstants.OBJECT_CLASS_AT_OID );
         }
 
-        return filter;
+        return false;
     }
 
 
@@ -1266,4 +1412,69 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             }
         }
     } // end of listener class
+
+
+    /**
+     * An event listener storing the deleted and moved entries in the tombstone log
+     */
+    private final class TombstoneListener extends DirectoryListenerAdapter
+    {
+        /** The ou=system Dn : its entries, like the consumer entries, are not replicated */
+        private final Dn systemDn;
+
+
+        private TombstoneListener() throws LdapInvalidDnException
+        {
+            systemDn = new Dn( dirService.getSchemaManager(), ServerDNConstants.SYSTEM_DN );
+        }
+
+
+        private boolean isReplicated( Dn dn )
+        {
+            return !dn.isDescendantOf( systemDn );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            Entry entry = deleteContext.getEntry();
+            Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
+
+            if ( ( uuid != null ) && isReplicated( deleteContext.getDn() ) )
+            {
+                tombstoneLog.deleted( entry.get( csnAT ).get().getString(), uuid.get().getString() );
+            }
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            if ( isReplicated( moveContext.getDn() ) )
+            {
+                tombstoneLog.moved( moveContext.getModifiedEntry().get( csnAT ).get().getString() );
+            }
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            if ( isReplicated( renameContext.getDn() ) )
+            {
+                tombstoneLog.moved( renameContext.getModifiedEntry().get( csnAT ).get().getString() );
+            }
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            if ( isReplicated( moveAndRenameContext.getDn() ) )
+            {
+                tombstoneLog.moved( moveAndRenameContext.getModifiedEntry().get( csnAT ).get().getString() );
+            }
+        }
+    }
 }
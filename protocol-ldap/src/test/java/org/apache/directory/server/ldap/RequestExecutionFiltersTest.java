@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.server.ldap.handlers.OperationConcurrencyFilter;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the filters added by the FIXED_POOL execution mode.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestExecutionFiltersTest
+{
+    private static DefaultIoFilterChainBuilder chain( int nbThreads )
+    {
+        LdapServer ldapServer = new LdapServer();
+        ldapServer.setOperationConcurrencyLimit( MessageTypeEnum.BIND_REQUEST, 8 );
+
+        TcpTransport transport = new TcpTransport();
+        transport.setNbThreads( nbThreads );
+
+        DefaultIoFilterChainBuilder chain = new DefaultIoFilterChainBuilder();
+        RequestExecutionFilters.addLast( ldapServer, transport, chain );
+        ( ( ExecutorFilter ) chain.get( "executor" ) ).destroy();
+
+        return chain;
+    }
+
+
+    @Test
+    public void testBindsLeaveOneThread()
+    {
+        DefaultIoFilterChainBuilder chain = chain( 4 );
+
+        assertTrue( chain.contains( "release" ) );
+        assertEquals( 3, ( ( OperationConcurrencyFilter ) chain.get( "concurrency" ) ).getLimits()
+            .get( MessageTypeEnum.BIND_REQUEST ).intValue() );
+    }
+
+
+    @Test
+    public void testSingleThreadPool()
+    {
+        // There is no thread to spare, the binds are not bounded
+        DefaultIoFilterChainBuilder chain = chain( 1 );
+
+        assertFalse( chain.contains( "concurrency" ) );
+        assertFalse( chain.contains( "release" ) );
+        assertTrue( chain.contains( "executor" ) );
+    }
+}
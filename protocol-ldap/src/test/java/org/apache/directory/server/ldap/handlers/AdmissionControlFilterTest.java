@@ -0,0 +1,200 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValueImpl;
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.session.DummySession;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the AdmissionControlFilter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AdmissionControlFilterTest
+{
+    /** Counts the handled messages, blocking them until released */
+    private static NextFilter nextFilter( AtomicInteger handled, CountDownLatch release )
+    {
+        return ( NextFilter ) Proxy.newProxyInstance( NextFilter.class.getClassLoader(), new Class<?>[]
+            { NextFilter.class }, ( proxy, method, args ) ->
+            {
+                if ( "messageReceived".equals( method.getName() ) )
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                    handled.incrementAndGet();
+                }
+
+                return null;
+            } );
+    }
+
+
+    private static DummySession session( String address )
+    {
+        DummySession session = new DummySession();
+        session.setRemoteAddress( new InetSocketAddress( address, 389 ) );
+
+        return session;
+    }
+
+
+    @Test
+    public void testClassify()
+    {
+        AdmissionControlFilter filter = new AdmissionControlFilter( new LdapServer() );
+
+        assertEquals( RequestClass.BIND, filter.classify( new BindRequestImpl() ) );
+        assertEquals( RequestClass.WRITE, filter.classify( new DeleteRequestImpl() ) );
+        assertNull( filter.classify( new AbandonRequestImpl() ) );
+
+        SearchRequest search = new SearchRequestImpl();
+        search.setScope( SearchScope.OBJECT );
+        assertEquals( RequestClass.LOOKUP, filter.classify( search ) );
+
+        search.setScope( SearchScope.ONELEVEL );
+        assertEquals( RequestClass.INDEXED_SEARCH, filter.classify( search ) );
+
+        search.addControl( new SyncRequestValueImpl() );
+        assertEquals( RequestClass.REPLICATION, filter.classify( search ) );
+    }
+
+
+    @Test
+    public void testQueueAndRefuse() throws Exception
+    {
+        AdmissionControlFilter filter = new AdmissionControlFilter( new LdapServer() );
+        filter.setLimits( RequestClass.WRITE, 1, 4 );
+        filter.init();
+
+        AtomicInteger handled = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch( 1 );
+        NextFilter next = nextFilter( handled, release );
+        DummySession client1 = session( "127.0.0.1" );
+        DummySession client2 = session( "127.0.0.2" );
+
+        try
+        {
+            // Executed
+            filter.messageReceived( next, client1, new DeleteRequestImpl() );
+            assertEquals( 1, filter.getRunningCount( RequestClass.WRITE ) );
+
+            // Queued : a client can't have more than a quarter of the queue
+            filter.messageReceived( next, client1, new DeleteRequestImpl() );
+            filter.messageReceived( next, client1, new DeleteRequestImpl() );
+            filter.messageReceived( next, client2, new DeleteRequestImpl() );
+
+            assertEquals( 2, filter.getQueuedCount( RequestClass.WRITE ) );
+            assertEquals( 3, filter.getAdmittedCount( RequestClass.WRITE ) );
+            assertEquals( 1, filter.getRefusedCount( RequestClass.WRITE ) );
+
+            // The binds are admitted separately
+            filter.messageReceived( next, client1, new BindRequestImpl() );
+            assertEquals( 1, filter.getRunningCount( RequestClass.BIND ) );
+
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 10000L;
+
+            while ( ( handled.get() < 4 ) && ( System.currentTimeMillis() < deadline ) )
+            {
+                Thread.sleep( 10 );
+            }
+
+            assertEquals( 4, handled.get() );
+            assertEquals( 0, filter.getQueuedCount( RequestClass.WRITE ) );
+        }
+        finally
+        {
+            release.countDown();
+            filter.destroy();
+        }
+    }
+
+
+    @Test
+    public void testRaiseConcurrencyDrainsQueue() throws Exception
+    {
+        AdmissionControlFilter filter = new AdmissionControlFilter( new LdapServer() );
+        filter.setLimits( RequestClass.WRITE, 1, 8 );
+        filter.init();
+
+        AtomicInteger handled = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch( 1 );
+        NextFilter next = nextFilter( handled, release );
+
+        try
+        {
+            filter.messageReceived( next, session( "127.0.0.1" ), new DeleteRequestImpl() );
+            filter.messageReceived( next, session( "127.0.0.2" ), new DeleteRequestImpl() );
+            filter.messageReceived( next, session( "127.0.0.3" ), new DeleteRequestImpl() );
+
+            assertEquals( 1, filter.getRunningCount( RequestClass.WRITE ) );
+            assertEquals( 2, filter.getQueuedCount( RequestClass.WRITE ) );
+
+            // The waiting requests are executed without waiting for the running one
+            filter.setLimits( RequestClass.WRITE, 3, 8 );
+
+            assertEquals( 3, filter.getRunningCount( RequestClass.WRITE ) );
+            assertEquals( 0, filter.getQueuedCount( RequestClass.WRITE ) );
+
+            // Lowering the limit lets the running requests finish
+            filter.setLimits( RequestClass.WRITE, 1, 8 );
+            filter.messageReceived( next, session( "127.0.0.4" ), new DeleteRequestImpl() );
+
+            assertEquals( 1, filter.getQueuedCount( RequestClass.WRITE ) );
+
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 10000L;
+
+            while ( ( handled.get() < 4 ) && ( System.currentTimeMillis() < deadline ) )
+            {
+                Thread.sleep( 10 );
+            }
+
+            assertEquals( 4, handled.get() );
+        }
+        finally
+        {
+            release.countDown();
+            filter.destroy();
+        }
+    }
+}
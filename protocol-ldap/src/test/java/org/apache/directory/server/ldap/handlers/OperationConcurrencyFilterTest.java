@@ -0,0 +1,200 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.session.DummySession;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the OperationConcurrencyFilter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OperationConcurrencyFilterTest
+{
+    /** Stores the messages handed to the executor, or rejects them */
+    private static NextFilter nextFilter( List<Object> handedOff, boolean reject )
+    {
+        return ( NextFilter ) Proxy.newProxyInstance( NextFilter.class.getClassLoader(), new Class<?>[]
+            { NextFilter.class }, ( proxy, method, args ) ->
+            {
+                if ( "messageReceived".equals( method.getName() ) )
+                {
+                    if ( reject )
+                    {
+                        throw new RejectedExecutionException();
+                    }
+
+                    handedOff.add( args[1] );
+                }
+
+                return null;
+            } );
+    }
+
+
+    private static Map<MessageTypeEnum, Integer> searchLimit()
+    {
+        Map<MessageTypeEnum, Integer> limits = new EnumMap<>( MessageTypeEnum.class );
+        limits.put( MessageTypeEnum.SEARCH_REQUEST, 1 );
+        limits.put( MessageTypeEnum.BIND_REQUEST, 0 );
+
+        return limits;
+    }
+
+
+    @Test
+    public void testBoundedOperation() throws Exception
+    {
+        OperationConcurrencyFilter filter = new OperationConcurrencyFilter( searchLimit() );
+        DummySession session = new DummySession();
+
+        assertEquals( 1, filter.getLimits().size() );
+
+        List<Object> handedOff = new ArrayList<>();
+        NextFilter executor = nextFilter( handedOff, false );
+        NextFilter handler = nextFilter( new ArrayList<>(), false );
+        IoFilter releaseFilter = filter.getReleaseFilter();
+        SearchRequestImpl search1 = new SearchRequestImpl();
+        SearchRequestImpl search2 = new SearchRequestImpl();
+
+        // One search is handed to the executor, the other one is queued without blocking the caller
+        filter.messageReceived( executor, session, search1 );
+        filter.messageReceived( executor, session, search2 );
+
+        assertEquals( 1, handedOff.size() );
+        assertSame( search1, handedOff.get( 0 ) );
+        assertEquals( 1, filter.getActiveCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( 1, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+
+        // The binds are not bounded
+        filter.messageReceived( executor, session, new BindRequestImpl() );
+        assertEquals( 2, handedOff.size() );
+
+        // When the first search has been handled, the second one is handed to the executor
+        releaseFilter.messageReceived( handler, session, search1 );
+
+        assertEquals( 3, handedOff.size() );
+        assertSame( search2, handedOff.get( 2 ) );
+        assertEquals( 1, filter.getActiveCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( 0, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+
+        releaseFilter.messageReceived( handler, session, search2 );
+
+        assertEquals( 0, filter.getActiveCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( 0, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+    }
+
+
+    @Test
+    public void testStoppedExecutor() throws Exception
+    {
+        OperationConcurrencyFilter filter = new OperationConcurrencyFilter( searchLimit() );
+        DummySession session = new DummySession();
+        NextFilter executor = nextFilter( new ArrayList<>(), true );
+
+        // The rejected requests don't keep their place
+        filter.messageReceived( executor, session, new SearchRequestImpl() );
+        filter.messageReceived( executor, session, new SearchRequestImpl() );
+
+        assertEquals( 0, filter.getActiveCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( 0, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+    }
+
+
+    @Test
+    public void testQueueFull() throws Exception
+    {
+        OperationConcurrencyFilter filter = new OperationConcurrencyFilter( searchLimit(), 1 );
+        DummySession session = new DummySession();
+        List<Object> handedOff = new ArrayList<>();
+        NextFilter executor = nextFilter( handedOff, false );
+        SearchRequestImpl search1 = new SearchRequestImpl();
+        SearchRequestImpl search2 = new SearchRequestImpl();
+        SearchRequestImpl search3 = new SearchRequestImpl();
+
+        filter.messageReceived( executor, session, search1 );
+        filter.messageReceived( executor, session, search2 );
+
+        // The queue is full, the third search is refused
+        filter.messageReceived( executor, session, search3 );
+
+        assertEquals( 1, handedOff.size() );
+        assertEquals( 1, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( ResultCodeEnum.BUSY, search3.getResultResponse().getLdapResult().getResultCode() );
+        assertEquals( ResultCodeEnum.SUCCESS, search2.getResultResponse().getLdapResult().getResultCode() );
+    }
+
+
+    @Test
+    public void testClosingSession() throws Exception
+    {
+        OperationConcurrencyFilter filter = new OperationConcurrencyFilter( searchLimit(), 1 );
+        DummySession session = new DummySession();
+        DummySession closed = new DummySession();
+        List<Object> handedOff = new ArrayList<>();
+        NextFilter executor = nextFilter( handedOff, false );
+        NextFilter handler = nextFilter( new ArrayList<>(), false );
+        SearchRequestImpl search1 = new SearchRequestImpl();
+        SearchRequestImpl search2 = new SearchRequestImpl();
+        SearchRequestImpl search3 = new SearchRequestImpl();
+
+        filter.messageReceived( executor, session, search1 );
+        filter.messageReceived( executor, closed, search2 );
+        closed.closeNow();
+
+        // The request of the closed session makes room in the full queue
+        filter.messageReceived( executor, session, search3 );
+
+        assertEquals( 1, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( ResultCodeEnum.SUCCESS, search3.getResultResponse().getLdapResult().getResultCode() );
+
+        filter.getReleaseFilter().messageReceived( handler, session, search1 );
+
+        assertEquals( 2, handedOff.size() );
+        assertSame( search3, handedOff.get( 1 ) );
+
+        // A request of a closed session is skipped when its turn comes
+        filter.messageReceived( executor, closed, new SearchRequestImpl() );
+        filter.getReleaseFilter().messageReceived( handler, session, search3 );
+
+        assertEquals( 2, handedOff.size() );
+        assertEquals( 0, filter.getActiveCount( MessageTypeEnum.SEARCH_REQUEST ) );
+        assertEquals( 0, filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) );
+    }
+}
@@ -54,6 +54,7 @@ import org.apache.directory.api.ldap.model.message.SearchScope;
  *   <li>chaseReferrals : tells if we chase referrals, defaults to false</li>
  *   <li>useTls : the connection uses TLS, defaults to true</li>
  *   <li>strictCertVerification : strictly verify the certificate, defaults to true</li>
+ *   <li>snapshotSeeding : a new consumer is seeded from a snapshot of the provider, defaults to false</li>
  * </ul>
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -206,4 +207,12 @@ public @interface CreateConsumer
      */
     boolean strictCertVerification() default true;
 
+
+    /** 
+     * flag to indicate if a new consumer is seeded from a snapshot of the provider, default is false
+     *  
+     * @return <tt>true</tt> if the consumer is seeded from a snapshot
+     */
+    boolean snapshotSeeding() default false;
+
 }
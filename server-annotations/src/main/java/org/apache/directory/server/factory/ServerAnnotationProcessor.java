@@ -290,6 +290,7 @@ public final class ServerAnnotationProcessor
         config.setBaseDn( createConsumer.baseDn() );
         config.setRefreshInterval( createConsumer.refreshInterval() );
         config.setStrictCertVerification( createConsumer.strictCertVerification() );
+        config.setSnapshotSeeding( createConsumer.snapshotSeeding() );
 
         consumer.setConfig( config );
 
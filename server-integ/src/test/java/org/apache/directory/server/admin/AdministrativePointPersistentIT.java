@@ -29,7 +29,6 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.annotations.CreateLdapServer;
 import org.apache.directory.server.annotations.CreateTransport;
@@ -40,6 +39,7 @@ import org.apache.directory.server.core.api.administrative.AdministrativePoint;
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.tree.CopyOnWriteDnTree;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.ApacheDSTestExtension;
 import org.apache.directory.server.core.integ.IntegrationUtils;
@@ -176,7 +176,7 @@ public class AdministrativePointPersistentIT extends AbstractLdapTestUnit
         assertTrue( getLdapServer().isStarted() );
     
         // Check the caches
-        DnNode<AccessControlAdministrativePoint> acCache = getLdapServer().getDirectoryService().getAccessControlAPCache();
+        CopyOnWriteDnTree<AccessControlAdministrativePoint> acCache = getLdapServer().getDirectoryService().getAccessControlAPCache();
         AdministrativePoint aap1 = acCache.getElement( new Dn( schemaManager, "ou=AAP1,ou=noAP1,ou=system" ) );
         assertNotNull( aap1 );
     
@@ -203,11 +203,11 @@ public class AdministrativePointPersistentIT extends AbstractLdapTestUnit
     
         // Check the caches
         acCache = getLdapServer().getDirectoryService().getAccessControlAPCache();
-        DnNode<CollectiveAttributeAdministrativePoint> caCache = getLdapServer().getDirectoryService()
+        CopyOnWriteDnTree<CollectiveAttributeAdministrativePoint> caCache = getLdapServer().getDirectoryService()
             .getCollectiveAttributeAPCache();
-        DnNode<TriggerExecutionAdministrativePoint> teCache = getLdapServer().getDirectoryService()
+        CopyOnWriteDnTree<TriggerExecutionAdministrativePoint> teCache = getLdapServer().getDirectoryService()
             .getTriggerExecutionAPCache();
-        DnNode<SubschemaAdministrativePoint> ssCache = getLdapServer().getDirectoryService().getSubschemaAPCache();
+        CopyOnWriteDnTree<SubschemaAdministrativePoint> ssCache = getLdapServer().getDirectoryService().getSubschemaAPCache();
     
         // The ACs
         aap1 = acCache.getElement( new Dn( schemaManager, "ou=AAP1,ou=noAP1,ou=system" ) );
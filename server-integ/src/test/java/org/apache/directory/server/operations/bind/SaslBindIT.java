@@ -355,6 +355,42 @@ public class SaslBindIT extends AbstractLdapTestUnit
     }
 
 
+    /**
+     * Tests to make sure CRAM-MD5 binds use the new password as soon as it has been changed,
+     * even if the user identity has already been resolved.
+     */
+    @Test
+    public void testSaslCramMd5BindAfterPasswordChange() throws Exception
+    {
+        LdapNetworkConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, getLdapServer().getPort() );
+
+        SaslCramMd5Request request = new SaslCramMd5Request();
+        request.setUsername( userDn.getRdn().getValue() );
+        request.setCredentials( "secret" );
+
+        BindResponse resp = connection.bind( request );
+        assertEquals( ResultCodeEnum.SUCCESS, resp.getLdapResult().getResultCode() );
+        connection.close();
+
+        getService().getAdminSession().modify( userDn,
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "userPassword", "newsecret" ) );
+
+        connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, getLdapServer().getPort() );
+        resp = connection.bind( request );
+        assertEquals( ResultCodeEnum.INVALID_CREDENTIALS, resp.getLdapResult().getResultCode() );
+        connection.close();
+
+        connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, getLdapServer().getPort() );
+        request = new SaslCramMd5Request();
+        request.setUsername( userDn.getRdn().getValue() );
+        request.setCredentials( "newsecret" );
+
+        resp = connection.bind( request );
+        assertEquals( ResultCodeEnum.SUCCESS, resp.getLdapResult().getResultCode() );
+        connection.close();
+    }
+
+
     /**
      * Tests to make sure DIGEST-MD5 binds below the RootDSE work with
      * SASL Quality of Protection set to 'auth'.
@@ -0,0 +1,174 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.apache.directory.server.core.integ.IntegrationUtils.getAdminNetworkConnection;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.DelayInducingInterceptor;
+import org.apache.directory.server.ldap.RequestExecutionMode;
+import org.apache.directory.server.ldap.handlers.AdmissionControlFilter;
+import org.apache.directory.server.ldap.handlers.RequestClass;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Tests the requests executed in the ADMISSION_CONTROL request execution mode.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+public class AdmissionControlIT extends AbstractLdapTestUnit
+{
+    private DelayInducingInterceptor delayInterceptor;
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        getLdapServer().stop();
+        getLdapServer().setRequestExecutionMode( RequestExecutionMode.ADMISSION_CONTROL );
+        getLdapServer().getAdmissionControlFilter().setLimits( RequestClass.UNINDEXED_SEARCH, 1, 0 );
+        getLdapServer().start();
+
+        delayInterceptor = new DelayInducingInterceptor();
+        getLdapServer().getDirectoryService().addFirst( delayInterceptor );
+    }
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        getLdapServer().getDirectoryService().remove( delayInterceptor.getName() );
+
+        getLdapServer().stop();
+        getLdapServer().setRequestExecutionMode( RequestExecutionMode.FIXED_POOL );
+        getLdapServer().getAdmissionControlFilter().setLimits( RequestClass.UNINDEXED_SEARCH,
+            RequestClass.UNINDEXED_SEARCH.getDefaultConcurrency(), RequestClass.UNINDEXED_SEARCH.getDefaultQueueSize() );
+        getLdapServer().start();
+    }
+
+
+    private int search( String filter ) throws Exception
+    {
+        try ( LdapConnection connection = getAdminNetworkConnection( getLdapServer() );
+            EntryCursor cursor = connection.search( "ou=system", filter, SearchScope.SUBTREE ) )
+        {
+            int count = 0;
+
+            while ( cursor.next() )
+            {
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+
+    /**
+     * An unindexed search is refused when the limit of its class is reached, while the binds
+     * and the lookups are still executed
+     */
+    @Test
+    public void testUnindexedSearchesAreRefused() throws Exception
+    {
+        delayInterceptor.setDelayMillis( 200 );
+        AdmissionControlFilter filter = getLdapServer().getAdmissionControlFilter();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            Future<Integer> slowSearch = executor.submit( () -> search( "(objectClass=*)" ) );
+
+            long deadline = System.currentTimeMillis() + 10000L;
+
+            while ( ( filter.getRunningCount( RequestClass.UNINDEXED_SEARCH ) == 0 )
+                && ( System.currentTimeMillis() < deadline ) )
+            {
+                Thread.sleep( 10 );
+            }
+
+            assertEquals( 1, filter.getRunningCount( RequestClass.UNINDEXED_SEARCH ) );
+
+            // No room left for another unindexed search
+            try ( LdapConnection connection = getAdminNetworkConnection( getLdapServer() ) )
+            {
+                SearchRequest searchRequest = new SearchRequestImpl();
+                searchRequest.setBase( new Dn( "ou=system" ) );
+                searchRequest.setFilter( "(description=*)" );
+                searchRequest.setScope( SearchScope.SUBTREE );
+
+                try ( SearchCursor cursor = connection.search( searchRequest ) )
+                {
+                    while ( cursor.next() )
+                    {
+                        // Nothing to do
+                    }
+
+                    assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                        cursor.getSearchResultDone().getLdapResult().getResultCode() );
+                }
+            }
+
+            assertEquals( 1, filter.getRefusedCount( RequestClass.UNINDEXED_SEARCH ) );
+
+            // The binds and the lookups are admitted separately
+            try ( LdapConnection connection = getAdminNetworkConnection( getLdapServer() ) )
+            {
+                assertTrue( connection.isAuthenticated() );
+                assertNotNull( connection.lookup( "ou=system" ) );
+            }
+
+            assertTrue( slowSearch.get() > 1 );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
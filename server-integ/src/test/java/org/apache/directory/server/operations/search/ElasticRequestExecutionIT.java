@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.apache.directory.server.core.integ.IntegrationUtils.getAdminNetworkConnection;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.DelayInducingInterceptor;
+import org.apache.directory.server.ldap.RequestExecutionMode;
+import org.apache.directory.server.ldap.handlers.OperationConcurrencyFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Tests the searches executed in the ELASTIC request execution mode.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+public class ElasticRequestExecutionIT extends AbstractLdapTestUnit
+{
+    private DelayInducingInterceptor delayInterceptor;
+
+    private int oldSearchLimit;
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        oldSearchLimit = getLdapServer().getOperationConcurrencyLimit( MessageTypeEnum.SEARCH_REQUEST );
+
+        getLdapServer().stop();
+        getLdapServer().setRequestExecutionMode( RequestExecutionMode.ELASTIC );
+        getLdapServer().setOperationConcurrencyLimit( MessageTypeEnum.SEARCH_REQUEST, 1 );
+        getLdapServer().start();
+
+        delayInterceptor = new DelayInducingInterceptor();
+        getLdapServer().getDirectoryService().addFirst( delayInterceptor );
+    }
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        getLdapServer().getDirectoryService().remove( delayInterceptor.getName() );
+
+        getLdapServer().stop();
+        getLdapServer().setRequestExecutionMode( RequestExecutionMode.FIXED_POOL );
+        getLdapServer().setOperationConcurrencyLimit( MessageTypeEnum.SEARCH_REQUEST, oldSearchLimit );
+        getLdapServer().start();
+    }
+
+
+    private int search() throws Exception
+    {
+        try ( LdapConnection connection = getAdminNetworkConnection( getLdapServer() );
+            EntryCursor cursor = connection.search( "ou=system", "(objectClass=*)", SearchScope.OBJECT ) )
+        {
+            int count = 0;
+
+            while ( cursor.next() )
+            {
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+
+    /**
+     * The slow searches wait for a permit, without preventing the binds from being executed
+     */
+    @Test
+    public void testSlowSearchesDontBlockBinds() throws Exception
+    {
+        delayInterceptor.setDelayMillis( 500 );
+        OperationConcurrencyFilter filter = getLdapServer().getOperationConcurrencyFilter();
+        ExecutorService executor = Executors.newFixedThreadPool( 3 );
+
+        try
+        {
+            Future<?>[] searches = new Future<?>[3];
+
+            for ( int i = 0; i < searches.length; i++ )
+            {
+                searches[i] = executor.submit( this::search );
+            }
+
+            long deadline = System.currentTimeMillis() + 10000L;
+
+            while ( ( filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) == 0 )
+                && ( System.currentTimeMillis() < deadline ) )
+            {
+                Thread.sleep( 10 );
+            }
+
+            assertTrue( filter.getWaitingCount( MessageTypeEnum.SEARCH_REQUEST ) > 0 );
+
+            // The binds are bounded apart from the searches
+            try ( LdapConnection connection = getAdminNetworkConnection( getLdapServer() ) )
+            {
+                assertTrue( connection.isAuthenticated() );
+            }
+
+            for ( Future<?> search : searches )
+            {
+                assertEquals( 1, search.get() );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.apache.directory.server.core.integ.IntegrationUtils.getAdminNetworkConnection;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.ldap.RequestExecutionMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Compares the throughput of concurrent searches in the FIXED_POOL and the ELASTIC
+ * request execution modes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+public class RequestExecutionModePerfIT extends AbstractLdapTestUnit
+{
+    /** The number of clients searching at the same time */
+    private static final int NB_CLIENTS = 16;
+
+    /** The number of searches done by each client */
+    private static final int NB_SEARCHES = 2000;
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        getLdapServer().stop();
+        getLdapServer().setRequestExecutionMode( RequestExecutionMode.FIXED_POOL );
+        getLdapServer().start();
+    }
+
+
+    private int search( int nbSearches ) throws Exception
+    {
+        int count = 0;
+
+        try ( LdapConnection connection = getAdminNetworkConnection( getLdapServer() ) )
+        {
+            for ( int i = 0; i < nbSearches; i++ )
+            {
+                try ( EntryCursor cursor = connection.search( "uid=admin,ou=system", "(objectClass=*)",
+                    SearchScope.OBJECT, "*" ) )
+                {
+                    while ( cursor.next() )
+                    {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+    private long run( RequestExecutionMode mode ) throws Exception
+    {
+        getLdapServer().stop();
+        getLdapServer().setRequestExecutionMode( mode );
+        getLdapServer().start();
+
+        // Warm up
+        search( NB_SEARCHES / 10 );
+
+        ExecutorService executor = Executors.newFixedThreadPool( NB_CLIENTS );
+
+        try
+        {
+            List<Future<Integer>> clients = new ArrayList<>();
+            long t0 = System.currentTimeMillis();
+
+            for ( int i = 0; i < NB_CLIENTS; i++ )
+            {
+                clients.add( executor.submit( () -> search( NB_SEARCHES ) ) );
+            }
+
+            for ( Future<Integer> client : clients )
+            {
+                assertEquals( NB_SEARCHES, client.get().intValue() );
+            }
+
+            long t1 = System.currentTimeMillis();
+
+            System.out.println( mode + " : " + ( NB_CLIENTS * NB_SEARCHES ) + " searches in " + ( t1 - t0 )
+                + " ms, " + ( NB_CLIENTS * NB_SEARCHES * 1000L / Math.max( 1L, t1 - t0 ) ) + " searches/s" );
+
+            return t1 - t0;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Runs the same concurrent searches in both modes. The bounded searches are queued before
+     * being handed to the pool in the ELASTIC mode, all of them have to be executed.
+     */
+    @Test
+    public void testFixedPoolVsElastic() throws Exception
+    {
+        long fixedPool = run( RequestExecutionMode.FIXED_POOL );
+        long elastic = run( RequestExecutionMode.ELASTIC );
+
+        System.out.println( "ELASTIC / FIXED_POOL : " + ( elastic * 100L / Math.max( 1L, fixedPool ) ) + "%" );
+    }
+}
@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.directory.api.ldap.extras.controls.SyncModifyDnType;
@@ -131,6 +132,9 @@ public class MockSyncReplConsumer implements ConnectionClosedEventListener, Repl
     /** The number of added entries */
     private AtomicInteger nbAdded = new AtomicInteger( 0 );
 
+    /** The entryUUIDs of the entries the consumer holds */
+    private Set<String> entryUuids = ConcurrentHashMap.newKeySet();
+
     private File cookieDir;
 
     public static String COOKIES_DIR_NAME = "cookies";
@@ -352,6 +356,7 @@ public class MockSyncReplConsumer implements ConnectionClosedEventListener, Repl
                 case ADD:
                     LOG.debug( "adding entry with dn {}, {}", remoteEntry.getDn().getName(), remoteEntry );
                     nbAdded.getAndIncrement();
+                    entryUuids.add( Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
                     break;
 
                 case MODIFY:
@@ -371,6 +376,7 @@ public class MockSyncReplConsumer implements ConnectionClosedEventListener, Repl
                     // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
                     // so the branch needs to be recursively deleted here
                     deleteRecursive( remoteEntry.getDn(), null );
+                    entryUuids.remove( Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
                     break;
 
                 case PRESENT:
@@ -426,6 +432,11 @@ public class MockSyncReplConsumer implements ConnectionClosedEventListener, Repl
             if ( syncInfoValue.isRefreshDeletes() )
             {
                 deleteEntries( uuidList, false );
+
+                for ( byte[] uuid : uuidList )
+                {
+                    entryUuids.remove( Strings.uuidToString( uuid ) );
+                }
             }
             else
             {
@@ -1251,6 +1262,16 @@ public class MockSyncReplConsumer implements ConnectionClosedEventListener, Repl
     }
 
 
+    /**
+     * @param entryUuid The entryUUID of an entry
+     * @return <tt>true</tt> if the consumer has received this entry, and not its deletion
+     */
+    public boolean hasEntry( String entryUuid )
+    {
+        return entryUuids.contains( entryUuid );
+    }
+
+
     public boolean hasSyncCookie()
     {
         return syncCookie != null;
@@ -0,0 +1,316 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.replication;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncDoneValueFactory;
+import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncRequestValueFactory;
+import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValueFactory;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.annotations.CreateConsumer;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshot;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.provider.ReplicaSnapshotHandler;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the seeding of a new consumer from a snapshot of the provider
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotSeedingIT
+{
+    private static LdapServer providerServer;
+
+    private static LdapServer consumerServer;
+
+    private static SchemaManager schemaManager;
+
+    private static CoreSession providerSession;
+
+    private static CoreSession consumerSession;
+
+    /** The entries added before the consumer is started */
+    private static List<Dn> seededDns = new ArrayList<>();
+
+    private static final int NB_OUS = 3;
+
+    private static final int NB_USERS = 15;
+
+
+    @BeforeAll
+    public static void setUp() throws Exception
+    {
+        Class.forName( ApacheDSTestExtension.class.getName() );
+        CountDownLatch counter = new CountDownLatch( 2 );
+
+        startProvider( counter );
+
+        // Send the snapshot in many small batches
+        ( ( ReplicaSnapshotHandler ) providerServer.getExtendedOperationHandler( ReplicaSnapshot.EXTENSION_OID ) )
+            .setBatchSize( 7 );
+
+        // A few levels of entries, to check that the parents are added first
+        for ( int i = 0; i < NB_OUS; i++ )
+        {
+            Dn ouDn = new Dn( schemaManager, "ou=ou" + i + ",dc=example,dc=com" );
+            providerSession.add( new DefaultEntry( schemaManager, ouDn,
+                "objectClass: organizationalUnit",
+                "ou", "ou" + i ) );
+            seededDns.add( ouDn );
+
+            Dn subOuDn = new Dn( schemaManager, "ou=sub,ou=ou" + i + ",dc=example,dc=com" );
+            providerSession.add( new DefaultEntry( schemaManager, subOuDn,
+                "objectClass: organizationalUnit",
+                "ou: sub" ) );
+            seededDns.add( subOuDn );
+
+            for ( int j = 0; j < NB_USERS; j++ )
+            {
+                Dn parentDn = ( j % 2 == 0 ) ? ouDn : subOuDn;
+                Dn userDn = parentDn.add( "cn=user" + j );
+                providerSession.add( new DefaultEntry( schemaManager, userDn,
+                    "objectClass", "person",
+                    "cn", "user" + j,
+                    "sn", "user" + j ) );
+                seededDns.add( userDn );
+            }
+        }
+
+        startConsumer( counter );
+
+        // Wait for the two servers to be up and running
+        counter.await();
+    }
+
+
+    @AfterAll
+    public static void tearDown() throws Exception
+    {
+        consumerServer.stop();
+        consumerServer.getDirectoryService().shutdown();
+        providerServer.stop();
+        providerServer.getDirectoryService().shutdown();
+    }
+
+
+    /**
+     * Wait up to 10 seconds for an entry to be present on the consumer
+     */
+    private boolean waitForEntry( Dn entryDn ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( consumerSession.exists( entryDn ) )
+            {
+                return true;
+            }
+
+            Thread.sleep( 100 );
+        }
+
+        return false;
+    }
+
+
+    @Test
+    public void testSeededEntries() throws Exception
+    {
+        for ( Dn entryDn : seededDns )
+        {
+            assertTrue( waitForEntry( entryDn ), entryDn.getName() );
+
+            Entry providerEntry = providerSession.lookup( entryDn, "*", "+" );
+            Entry consumerEntry = consumerSession.lookup( entryDn, "*", "+" );
+
+            assertNotNull( consumerEntry );
+            assertEquals( providerEntry.get( SchemaConstants.ENTRY_UUID_AT ),
+                consumerEntry.get( SchemaConstants.ENTRY_UUID_AT ) );
+            assertEquals( providerEntry.get( SchemaConstants.ENTRY_CSN_AT ),
+                consumerEntry.get( SchemaConstants.ENTRY_CSN_AT ) );
+            assertEquals( providerEntry.get( "cn" ), consumerEntry.get( "cn" ) );
+        }
+    }
+
+
+    @Test
+    public void testReplicationAfterSeeding() throws Exception
+    {
+        Dn userDn = new Dn( schemaManager, "cn=late,ou=sub,ou=ou0,dc=example,dc=com" );
+
+        // Make sure the consumer is seeded before adding a new entry
+        assertTrue( waitForEntry( seededDns.get( seededDns.size() - 1 ) ) );
+
+        providerSession.add( new DefaultEntry( schemaManager, userDn,
+            "objectClass", "person",
+            "cn", "late",
+            "sn", "late" ) );
+
+        assertTrue( waitForEntry( userDn ) );
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        name = "SnapshotSeedingIT-provider-replication",
+        enableChangeLog = false,
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 16400, protocol = "LDAP") })
+    public static void startProvider( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+
+        // Load the replication controls
+        LdapApiService codec = provDirService.getLdapCodecService();
+        codec.registerRequestControl( new SyncRequestValueFactory( codec ) );
+        codec.registerResponseControl( new SyncDoneValueFactory( codec ) );
+        codec.registerResponseControl( new SyncStateValueFactory( codec ) );
+
+        providerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+        providerServer.setReplicationReqHandler( new SyncReplRequestHandler() );
+        providerServer.startReplicationProducer();
+
+        schemaManager = providerServer.getDirectoryService().getSchemaManager();
+        providerSession = providerServer.getDirectoryService().getAdminSession();
+        counter.countDown();
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        enableChangeLog = false,
+        name = "SnapshotSeedingIT-consumer-replication",
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 17400, protocol = "LDAP") })
+    @CreateConsumer
+        (
+            remotePort = 16400,
+            replUserDn = "uid=admin,ou=system",
+            replUserPassword = "secret",
+            useTls = false,
+            baseDn = "dc=example,dc=com",
+            refreshInterval = 1000,
+            replicaId = 1,
+            snapshotSeeding = true
+        )
+    public static void startConsumer( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService consDirService = DSAnnotationProcessor.getDirectoryService();
+        consumerServer = ServerAnnotationProcessor.getLdapServer( consDirService );
+
+        ReplicationConsumerImpl consumer = ( ReplicationConsumerImpl ) ServerAnnotationProcessor.createConsumer();
+
+        List<ReplicationConsumer> replConsumers = new ArrayList<ReplicationConsumer>();
+        replConsumers.add( consumer );
+
+        consumerServer.setReplConsumers( replConsumers );
+
+        Dn configDn = new Dn( consDirService.getSchemaManager(), "ads-replConsumerId=localhost,ou=system" );
+        consumer.getConfig().setConfigEntryDn( configDn );
+
+        Entry consumerConfigEntry = new DefaultEntry( consDirService.getSchemaManager(), configDn,
+            "objectClass: ads-replConsumer",
+            "ads-replConsumerId: localhost",
+            "ads-searchBaseDN", consumer.getConfig().getBaseDn(),
+            "ads-replProvHostName", consumer.getConfig().getRemoteHost(),
+            "ads-replProvPort", String.valueOf( consumer.getConfig().getRemotePort() ),
+            "ads-replRefreshInterval", String.valueOf( consumer.getConfig().getRefreshInterval() ),
+            "ads-replRefreshNPersist", String.valueOf( consumer.getConfig().isRefreshNPersist() ),
+            "ads-replSearchScope", consumer.getConfig().getSearchScope().getLdapUrlValue(),
+            "ads-replSearchFilter", consumer.getConfig().getFilter(),
+            "ads-replSearchSizeLimit", String.valueOf( consumer.getConfig().getSearchSizeLimit() ),
+            "ads-replSearchTimeOut", String.valueOf( consumer.getConfig().getSearchTimeout() ),
+            "ads-replUserDn", consumer.getConfig().getReplUserDn(),
+            "ads-replUserPassword", consumer.getConfig().getReplUserPassword() );
+
+        consumerConfigEntry.put( "ads-replAliasDerefMode", consumer.getConfig().getAliasDerefMode()
+            .getJndiValue() );
+        consumerConfigEntry.put( "ads-replAttributes", consumer.getConfig().getAttributes() );
+
+        consumerSession = consDirService.getAdminSession();
+        consumerSession.add( consumerConfigEntry );
+        counter.countDown();
+
+        consumerServer.startReplicationConsumers();
+    }
+}
@@ -21,6 +21,7 @@
 package org.apache.directory.server.replication;
 
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -32,6 +33,7 @@ import org.apache.directory.api.ldap.codec.api.LdapApiService;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncDoneValueFactory;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncRequestValueFactory;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValueFactory;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -234,6 +236,32 @@ public class StaleEventLogDetectionIT
     }
 
 
+    /**
+     * Waits for the consumer to hold, or not, an entry
+     */
+    private boolean waitForEntry( ReplicationConsumer consumer, String entryUuid, boolean present ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( ( ( MockSyncReplConsumer ) consumer ).hasEntry( entryUuid ) == present )
+            {
+                return true;
+            }
+
+            Thread.sleep( 100 );
+        }
+
+        return false;
+    }
+
+
+    private String getEntryUuid( Entry entry ) throws Exception
+    {
+        return providerSession.lookup( entry.getDn(), SchemaConstants.ENTRY_UUID_AT )
+            .get( SchemaConstants.ENTRY_UUID_AT ).getString();
+    }
+
+
     private ReplicationConsumer createConsumer() throws Exception
     {
         final ReplicationConsumer syncreplClient = new MockSyncReplConsumer();
@@ -292,15 +320,33 @@ public class StaleEventLogDetectionIT
     }
 
 
-    @Test
-    public void testDeleteStaleEventLog() throws Exception
+    /**
+     * Reconnects a stopped consumer, which keeps its cookie
+     */
+    private void restartConsumer( final ReplicationConsumer consumer ) throws Exception
     {
-        //System.out.println( "\n---> Running testDeleteStaleEventLog" );
+        ( ( MockSyncReplConsumer ) consumer ).resetNbAdded();
 
-        ReplicationConsumer consumer = createConsumer();
+        Runnable consumerTask = new Runnable()
+        {
+            public void run()
+            {
+                consumer.connect( true );
+                consumer.startSync();
+            }
+        };
 
-        // We should have 1000 entries plus the base entry = TOTAL_COUNT
-        assertTrue( waitForSyncReplClient( consumer, TOTAL_COUNT ) );
+        Thread consumerThread = new Thread( consumerTask );
+        consumerThread.setDaemon( true );
+        consumerThread.start();
+    }
+
+
+    /**
+     * Stops the consumer, and waits for the janitor to remove its event log
+     */
+    private void removeEventLog( ReplicationConsumer consumer ) throws Exception
+    {
         consumer.stop();
 
         Thread.sleep( 5 * 1000 ); // let the journal be created and put in the map
@@ -324,7 +370,53 @@ public class StaleEventLogDetectionIT
 
         // there should be only one log file
         assertFalse( logFile.exists() );
+    }
+
+
+    @Test
+    public void testDeleteStaleEventLog() throws Exception
+    {
+        //System.out.println( "\n---> Running testDeleteStaleEventLog" );
+
+        ReplicationConsumer consumer = createConsumer();
+
+        // We should have 1000 entries plus the base entry = TOTAL_COUNT
+        assertTrue( waitForSyncReplClient( consumer, TOTAL_COUNT ) );
+
+        removeEventLog( consumer );
 
         //System.out.println( "\n<-- Done" );
     }
+
+
+    @Test
+    public void testDeltaRefreshAfterStaleEventLog() throws Exception
+    {
+        Entry deleted = createEntry();
+        providerSession.add( deleted );
+        String deletedUuid = getEntryUuid( deleted );
+
+        ReplicationConsumer consumer = createConsumer();
+        assertTrue( waitForSyncReplClient( consumer, TOTAL_COUNT + 1 ) );
+        assertTrue( waitForEntry( consumer, deletedUuid, true ) );
+
+        removeEventLog( consumer );
+
+        Entry added = createEntry();
+        providerSession.delete( deleted.getDn() );
+        providerSession.add( added );
+
+        // The consumer only gets the added entry, and the deleted entry UUID
+        restartConsumer( consumer );
+        assertTrue( waitForSyncReplClient( consumer, 1 ) );
+        Thread.sleep( 2 * 1000 );
+        assertEquals( 1, ( ( MockSyncReplConsumer ) consumer ).getNbAdded() );
+
+        // The delete has been applied on the consumer
+        assertTrue( waitForEntry( consumer, deletedUuid, false ) );
+        assertTrue( ( ( MockSyncReplConsumer ) consumer ).hasEntry( getEntryUuid( added ) ) );
+
+        consumer.stop();
+        providerSession.delete( added.getDn() );
+    }
 }
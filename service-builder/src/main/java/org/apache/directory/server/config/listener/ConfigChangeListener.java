@@ -60,6 +60,9 @@ public class ConfigChangeListener extends DirectoryListenerAdapter
     /** container holding the current active password policy configurations */
     private PpolicyConfigContainer ppolicyConfigContainer;
 
+    /** the interceptor whose authenticators cache the verified credentials */
+    private AuthenticationInterceptor authInterceptor;
+
     /** the root DN of password policy configurations */
     private Dn ppolicyConfigDnRoot;
 
@@ -90,7 +93,7 @@ public class ConfigChangeListener extends DirectoryListenerAdapter
         ppolicyConfigDnRoot = new Dn( schemaManager,
             "ou=passwordPolicies,ads-interceptorId=authenticationInterceptor,ou=interceptors,ads-directoryServiceId=default,ou=config" );
 
-        AuthenticationInterceptor authInterceptor = ( AuthenticationInterceptor ) directoryService
+        authInterceptor = ( AuthenticationInterceptor ) directoryService
             .getInterceptor( AUTHENTICATION_INTERCEPTOR.getName() );
         ppolicyConfigContainer = authInterceptor.getPwdPolicyContainer();
 
@@ -147,6 +150,7 @@ public class ConfigChangeListener extends DirectoryListenerAdapter
         {
             LOG.debug( "Deleting ppolicy config {}", dn );
             ppolicyConfigContainer.removePolicyConfig( dn );
+            authInterceptor.invalidateAuthenticatorCaches();
             return;
         }
         
@@ -185,5 +189,7 @@ public class ConfigChangeListener extends DirectoryListenerAdapter
             
             ppolicyConfigContainer.addPolicy( dn, updated );
         }
+
+        authInterceptor.invalidateAuthenticatorCaches();
     }
 }
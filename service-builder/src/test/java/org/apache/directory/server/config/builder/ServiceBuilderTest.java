@@ -21,6 +21,7 @@ package org.apache.directory.server.config.builder;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -38,11 +39,15 @@ import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtr
 import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.config.beans.AuthenticationInterceptorBean;
+import org.apache.directory.server.config.beans.AuthenticatorImplBean;
 import org.apache.directory.server.config.beans.HashInterceptorBean;
 import org.apache.directory.server.config.beans.InterceptorBean;
 import org.apache.directory.server.core.DefaultDirectoryService;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.authn.AuthenticationInterceptor;
+import org.apache.directory.server.core.authn.SimpleAuthenticator;
 import org.apache.directory.server.core.hash.ConfigurableHashingInterceptor;
 import org.apache.directory.server.i18n.I18n;
 import org.junit.jupiter.api.BeforeAll;
@@ -121,4 +126,42 @@ public class ServiceBuilderTest
             fail( "unable to create hash interceptor: " + e.getMessage() );
         }
     }
+
+
+    /**
+     * The authenticators are initialized without a DirectoryService when the interceptors
+     * are created, then with the DirectoryService when the interceptor is initialized
+     */
+    @Test
+    public void testCreateAuthenticationInterceptor() throws Exception
+    {
+        AuthenticatorImplBean authenticatorBean = new AuthenticatorImplBean();
+        authenticatorBean.setAuthenticatorId( "simple" );
+        authenticatorBean.setAuthenticatorClass( SimpleAuthenticator.class.getName() );
+
+        AuthenticationInterceptorBean bean = new AuthenticationInterceptorBean();
+        bean.setInterceptorClassName( AuthenticationInterceptor.class.getName() );
+        bean.addAuthenticators( authenticatorBean );
+
+        List<InterceptorBean> interceptorBeans = new ArrayList<>();
+        interceptorBeans.add( bean );
+
+        List<Interceptor> interceptors = ServiceBuilder.createInterceptors( interceptorBeans );
+        assertEquals( 1, interceptors.size() );
+
+        AuthenticationInterceptor interceptor = ( AuthenticationInterceptor ) interceptors.get( 0 );
+        assertEquals( 1, interceptor.getAuthenticators().size() );
+
+        DirectoryService directoryService = new DefaultDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        interceptor.init( directoryService );
+
+        assertTrue( directoryService.getMetricsRegistry().getGauges()
+            .containsKey( SimpleAuthenticator.CACHE_HIT_RATE_GAUGE ) );
+
+        interceptor.destroy();
+
+        assertFalse( directoryService.getMetricsRegistry().getGauges()
+            .containsKey( SimpleAuthenticator.CACHE_HIT_RATE_GAUGE ) );
+    }
 }
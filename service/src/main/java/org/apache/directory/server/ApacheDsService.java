@@ -133,6 +133,9 @@ public class ApacheDsService
 
     private boolean isSchemaPartitionFirstExtraction = false;
 
+    /** Tells if the schema snapshot has to be written once the server is started */
+    private boolean isSchemaSnapshotStale = false;
+
 
     /**
      * Starts various services configured according to the
@@ -246,6 +249,11 @@ public class ApacheDsService
         criteria.setScope( SearchScope.SUBTREE );
         
         directoryService.getEventService().addListener( configListener, criteria );
+
+        if ( isSchemaSnapshotStale )
+        {
+            writeSchemaSnapshot( instanceLayout );
+        }
     }
 
 
@@ -302,7 +310,44 @@ public class ApacheDsService
             isSchemaPartitionFirstExtraction = true;
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
+        // Use the schema snapshot if it is still valid, it's way faster than parsing the LDIF files
+        File snapshotFile = new File( instanceLayout.getCacheDirectory(), SchemaSnapshotLoader.SNAPSHOT_NAME );
+        SchemaLoader loader = null;
+
+        if ( !isSchemaPartitionFirstExtraction )
+        {
+            loader = SchemaSnapshotLoader.load( snapshotFile, schemaPartitionDirectory );
+        }
+
+        if ( loader != null )
+        {
+            LOG.info( "loading the schema from the snapshot {}", snapshotFile );
+
+            try
+            {
+                loadSchemaManager( loader );
+
+                return;
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to load the schema snapshot, loading the schema partition", e );
+            }
+        }
+
+        isSchemaSnapshotStale = true;
+        loadSchemaManager( new LdifSchemaLoader( schemaPartitionDirectory ) );
+    }
+
+
+    /**
+     * Creates the schema manager, and loads all the enabled schemas
+     *
+     * @param loader The loader to use
+     * @throws Exception If the schemas can't be loaded
+     */
+    private void loadSchemaManager( SchemaLoader loader ) throws Exception
+    {
         schemaManager = new DefaultSchemaManager( loader.getAllSchemas() );
         
         // We have to load the schema now, otherwise we won't be able
@@ -319,6 +364,31 @@ public class ApacheDsService
     }
 
 
+    /**
+     * Writes the schema snapshot, which will be used by the next start if the schema
+     * partition has not been modified in the meantime.
+     *
+     * @param instanceLayout the instance layout
+     */
+    private void writeSchemaSnapshot( InstanceLayout instanceLayout )
+    {
+        File schemaPartitionDirectory = new File( instanceLayout.getPartitionsDirectory(), "schema" );
+        File snapshotFile = new File( instanceLayout.getCacheDirectory(), SchemaSnapshotLoader.SNAPSHOT_NAME );
+
+        try
+        {
+            SchemaSnapshotLoader.write( snapshotFile, schemaPartitionDirectory );
+            isSchemaSnapshotStale = false;
+            LOG.info( "schema snapshot written in {}", snapshotFile );
+        }
+        catch ( Exception e )
+        {
+            // Not a problem, the schema partition will be read on the next start
+            LOG.warn( "Failed to write the schema snapshot {}", snapshotFile, e );
+        }
+    }
+
+
     /**
      * Initialize the schema partition
      * 
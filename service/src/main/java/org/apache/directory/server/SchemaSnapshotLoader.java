@@ -0,0 +1,488 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.registries.AbstractSchemaLoader;
+import org.apache.directory.api.ldap.model.schema.registries.DefaultSchema;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A SchemaLoader reading the schema elements from a binary snapshot of the schema
+ * partition, instead of parsing each of its LDIF files. The snapshot contains the
+ * entries of all the schemas, and the checksum of the schema partition it has been
+ * created from : it is only used when this checksum still matches, otherwise the
+ * schema has to be loaded from the LDIF files, and the snapshot written again.
+ * <br>
+ * The checksum is computed on the path, size and modification time of each file of
+ * the schema partition, which does not require them to be read.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SchemaSnapshotLoader extends AbstractSchemaLoader
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SchemaSnapshotLoader.class );
+
+    /** The snapshot file's magic number, "ADSS" */
+    private static final int MAGIC = 0x41445353;
+
+    /** The snapshot format version, to be incremented when the format changes */
+    public static final int VERSION = 1;
+
+    /** The snapshot file name, in the instance's cache directory */
+    public static final String SNAPSHOT_NAME = "schema.snapshot";
+
+    /** The schema elements, in the order they are stored in a snapshot */
+    private enum Kind
+    {
+        COMPARATORS,
+        SYNTAX_CHECKERS,
+        NORMALIZERS,
+        SYNTAXES,
+        MATCHING_RULES,
+        ATTRIBUTE_TYPES,
+        OBJECT_CLASSES,
+        MATCHING_RULE_USES,
+        NAME_FORMS,
+        DIT_CONTENT_RULES,
+        DIT_STRUCTURE_RULES
+    }
+
+    /** The entries of each schema, per kind */
+    private final Map<String, List<List<Entry>>> entries = new HashMap<>();
+
+
+    /**
+     * Creates a new instance of SchemaSnapshotLoader, reading a snapshot.
+     *
+     * @param snapshotFile The snapshot file
+     * @param checksum The expected checksum of the schema partition
+     * @throws IOException If the snapshot can't be read, or if it has not been created
+     * from a schema partition with the given checksum
+     */
+    private SchemaSnapshotLoader( File snapshotFile, String checksum ) throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream(
+            new BufferedInputStream( Files.newInputStream( snapshotFile.toPath() ) ) ) )
+        {
+            if ( ( in.readInt() != MAGIC ) || ( in.readInt() != VERSION ) )
+            {
+                throw new IOException( I18n.err( I18n.ERR_01003_INVALID_SCHEMA_SNAPSHOT, snapshotFile ) );
+            }
+
+            if ( !checksum.equals( in.readUTF() ) )
+            {
+                throw new IOException( I18n.err( I18n.ERR_01004_STALE_SCHEMA_SNAPSHOT, snapshotFile ) );
+            }
+
+            int nbSchemas = in.readInt();
+
+            for ( int i = 0; i < nbSchemas; i++ )
+            {
+                String name = in.readUTF();
+                String owner = in.readBoolean() ? in.readUTF() : null;
+                String[] dependencies = new String[in.readInt()];
+
+                for ( int j = 0; j < dependencies.length; j++ )
+                {
+                    dependencies[j] = in.readUTF();
+                }
+
+                boolean disabled = in.readBoolean();
+
+                List<List<Entry>> schemaEntries = new ArrayList<>( Kind.values().length );
+
+                for ( int k = 0; k < Kind.values().length; k++ )
+                {
+                    int nbEntries = in.readInt();
+                    List<Entry> kindEntries = new ArrayList<>( nbEntries );
+
+                    for ( int j = 0; j < nbEntries; j++ )
+                    {
+                        Entry entry = new DefaultEntry();
+                        entry.readExternal( in );
+                        kindEntries.add( entry );
+                    }
+
+                    schemaEntries.add( kindEntries );
+                }
+
+                entries.put( Strings.toLowerCaseAscii( name ), schemaEntries );
+                schemaMap.put( Strings.toLowerCaseAscii( name ),
+                    new DefaultSchema( this, name, owner, dependencies, disabled ) );
+            }
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( I18n.err( I18n.ERR_01003_INVALID_SCHEMA_SNAPSHOT, snapshotFile ), cnfe );
+        }
+    }
+
+
+    /**
+     * Loads a snapshot of the schema partition, if it is still valid.
+     *
+     * @param snapshotFile The snapshot file
+     * @param schemaPartitionDirectory The schema partition directory
+     * @return A loader for the snapshot's schemas, or null if the snapshot does not exist, or
+     * does not match the schema partition anymore
+     */
+    public static SchemaLoader load( File snapshotFile, File schemaPartitionDirectory )
+    {
+        if ( !snapshotFile.exists() )
+        {
+            return null;
+        }
+
+        try
+        {
+            return new SchemaSnapshotLoader( snapshotFile, checksum( schemaPartitionDirectory ) );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.info( "Not using the schema snapshot : {}", ioe.getMessage() );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes a snapshot of the schema partition, loading it from its LDIF files.
+     *
+     * @param snapshotFile The snapshot file
+     * @param schemaPartitionDirectory The schema partition directory
+     * @throws IOException If the snapshot can't be written
+     * @throws LdapException If the schema partition can't be read
+     */
+    public static void write( File snapshotFile, File schemaPartitionDirectory ) throws IOException, LdapException
+    {
+        String checksum = checksum( schemaPartitionDirectory );
+        SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
+
+        File parent = snapshotFile.getAbsoluteFile().getParentFile();
+
+        if ( !parent.exists() && !parent.mkdirs() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_00004_COULD_NOT_CREATE_DIRECTORY, parent ) );
+        }
+
+        // Write a temporary file first, so that a partially written snapshot is never read
+        File tmpFile = new File( parent, snapshotFile.getName() + ".tmp" );
+
+        try ( ObjectOutputStream out = new ObjectOutputStream(
+            new BufferedOutputStream( Files.newOutputStream( tmpFile.toPath() ) ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( checksum );
+            out.writeInt( loader.getAllSchemas().size() );
+
+            for ( Schema schema : loader.getAllSchemas() )
+            {
+                out.writeUTF( schema.getSchemaName() );
+                out.writeBoolean( schema.getOwner() != null );
+
+                if ( schema.getOwner() != null )
+                {
+                    out.writeUTF( schema.getOwner() );
+                }
+
+                String[] dependencies = schema.getDependencies();
+
+                if ( dependencies == null )
+                {
+                    out.writeInt( 0 );
+                }
+                else
+                {
+                    out.writeInt( dependencies.length );
+
+                    for ( String dependency : dependencies )
+                    {
+                        out.writeUTF( dependency );
+                    }
+                }
+
+                out.writeBoolean( schema.isDisabled() );
+
+                for ( Kind kind : Kind.values() )
+                {
+                    List<Entry> kindEntries = load( loader, kind, schema );
+                    out.writeInt( kindEntries.size() );
+
+                    for ( Entry entry : kindEntries )
+                    {
+                        entry.writeExternal( out );
+                    }
+                }
+            }
+        }
+
+        Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Computes the checksum of the schema partition, from the relative path, the size and the
+     * modification time of its files.
+     *
+     * @param schemaPartitionDirectory The schema partition directory
+     * @return The checksum, as an hexadecimal string
+     * @throws IOException If the schema partition can't be walked
+     */
+    public static String checksum( File schemaPartitionDirectory ) throws IOException
+    {
+        MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            throw new IOException( nsae.getMessage(), nsae );
+        }
+
+        Path root = schemaPartitionDirectory.toPath();
+        List<Path> files;
+
+        try ( Stream<Path> paths = Files.walk( root ) )
+        {
+            files = paths.filter( Files::isRegularFile ).sorted().collect( Collectors.toList() );
+        }
+
+        for ( Path file : files )
+        {
+            File f = file.toFile();
+            String line = root.relativize( file ).toString() + '|' + f.length() + '|' + f.lastModified() + '\n';
+            digest.update( line.getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        return Strings.toHexString( digest.digest() );
+    }
+
+
+    private static List<Entry> load( SchemaLoader loader, Kind kind, Schema schema ) throws LdapException, IOException
+    {
+        switch ( kind )
+        {
+            case COMPARATORS:
+                return loader.loadComparators( schema );
+
+            case SYNTAX_CHECKERS:
+                return loader.loadSyntaxCheckers( schema );
+
+            case NORMALIZERS:
+                return loader.loadNormalizers( schema );
+
+            case SYNTAXES:
+                return loader.loadSyntaxes( schema );
+
+            case MATCHING_RULES:
+                return loader.loadMatchingRules( schema );
+
+            case ATTRIBUTE_TYPES:
+                return loader.loadAttributeTypes( schema );
+
+            case OBJECT_CLASSES:
+                return loader.loadObjectClasses( schema );
+
+            case MATCHING_RULE_USES:
+                return loader.loadMatchingRuleUses( schema );
+
+            case NAME_FORMS:
+                return loader.loadNameForms( schema );
+
+            case DIT_CONTENT_RULES:
+                return loader.loadDitContentRules( schema );
+
+            case DIT_STRUCTURE_RULES:
+                return loader.loadDitStructureRules( schema );
+
+            default:
+                throw new IllegalArgumentException( kind.name() );
+        }
+    }
+
+
+    private List<Entry> getEntries( Kind kind, Schema... schemas )
+    {
+        List<Entry> result = new ArrayList<>();
+
+        if ( schemas == null )
+        {
+            return result;
+        }
+
+        for ( Schema schema : schemas )
+        {
+            List<List<Entry>> schemaEntries = entries.get( Strings.toLowerCaseAscii( schema.getSchemaName() ) );
+
+            if ( schemaEntries != null )
+            {
+                result.addAll( schemaEntries.get( kind.ordinal() ) );
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadComparators( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.COMPARATORS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxCheckers( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.SYNTAX_CHECKERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNormalizers( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.NORMALIZERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxes( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.SYNTAXES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.MATCHING_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadAttributeTypes( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.ATTRIBUTE_TYPES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadObjectClasses( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.OBJECT_CLASSES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRuleUses( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.MATCHING_RULE_USES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNameForms( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.NAME_FORMS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitContentRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.DIT_CONTENT_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitStructureRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return getEntries( Kind.DIT_STRUCTURE_RULES, schemas );
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Tests the SchemaSnapshotLoader.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SchemaSnapshotLoaderTest
+{
+    @TempDir
+    public Path folder;
+
+    private File schemaDirectory;
+
+    private File snapshotFile;
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        new DefaultSchemaLdifExtractor( folder.toFile() ).extractOrCopy();
+        schemaDirectory = new File( folder.toFile(), "schema" );
+        snapshotFile = new File( new File( folder.toFile(), "cache" ), SchemaSnapshotLoader.SNAPSHOT_NAME );
+    }
+
+
+    private static SchemaManager load( SchemaLoader loader ) throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager( loader.getAllSchemas() );
+        schemaManager.loadAllEnabled();
+        assertTrue( schemaManager.getErrors().isEmpty() );
+
+        return schemaManager;
+    }
+
+
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        assertNull( SchemaSnapshotLoader.load( snapshotFile, schemaDirectory ) );
+
+        SchemaSnapshotLoader.write( snapshotFile, schemaDirectory );
+        SchemaLoader snapshotLoader = SchemaSnapshotLoader.load( snapshotFile, schemaDirectory );
+        assertNotNull( snapshotLoader );
+
+        SchemaManager expected = load( new LdifSchemaLoader( schemaDirectory ) );
+        SchemaManager schemaManager = load( snapshotLoader );
+
+        assertEquals( expected.getEnabled().size(), schemaManager.getEnabled().size() );
+        assertEquals( expected.getDisabled().size(), schemaManager.getDisabled().size() );
+        assertEquals( expected.getAttributeTypeRegistry().size(), schemaManager.getAttributeTypeRegistry().size() );
+        assertEquals( expected.getObjectClassRegistry().size(), schemaManager.getObjectClassRegistry().size() );
+        assertEquals( expected.getMatchingRuleRegistry().size(), schemaManager.getMatchingRuleRegistry().size() );
+        assertEquals( expected.getLdapSyntaxRegistry().size(), schemaManager.getLdapSyntaxRegistry().size() );
+        assertEquals( expected.getNormalizerRegistry().size(), schemaManager.getNormalizerRegistry().size() );
+        assertEquals( "2.5.4.3", schemaManager.lookupAttributeTypeRegistry( "cn" ).getOid() );
+    }
+
+
+    @Test
+    public void testStaleSnapshot() throws Exception
+    {
+        SchemaSnapshotLoader.write( snapshotFile, schemaDirectory );
+        String checksum = SchemaSnapshotLoader.checksum( schemaDirectory );
+        assertEquals( checksum, SchemaSnapshotLoader.checksum( schemaDirectory ) );
+
+        // Modify one of the schema elements
+        Path ldif = new File( schemaDirectory, "ou=schema/cn=core.ldif" ).toPath();
+        Files.write( ldif, "\n".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+
+        assertTrue( !checksum.equals( SchemaSnapshotLoader.checksum( schemaDirectory ) ) );
+        assertNull( SchemaSnapshotLoader.load( snapshotFile, schemaDirectory ) );
+
+        // A corrupted snapshot is ignored
+        SchemaSnapshotLoader.write( snapshotFile, schemaDirectory );
+        Files.write( snapshotFile.toPath(), new byte[]
+            { 1, 2, 3 } );
+        assertNull( SchemaSnapshotLoader.load( snapshotFile, schemaDirectory ) );
+    }
+}
@@ -20,18 +20,39 @@
 package org.apache.directory.server.core.partition.impl.avl;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
-
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapAliasDereferencingException;
+import org.apache.directory.api.ldap.model.exception.LdapAliasException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartitionJournal.EntryRecord;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlMasterTable;
 import org.apache.directory.server.xdbm.impl.avl.AvlRdnIndex;
@@ -46,6 +67,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An XDBM Partition backed by in memory AVL Trees.
+ * <p>
+ * The partition content is lost when it is destroyed, unless a journal directory is set : the
+ * new state of every added, modified, moved or renamed entry, and every deleted entry, is then
+ * appended to a log. When the log contains more than {@link #getSnapshotThreshold()} records, it's
+ * sealed and merged into a snapshot by a background thread, so the writers are not stalled while
+ * the snapshot is written. The whole content is also written in the snapshot when the partition
+ * is destroyed. On initialization, the entries are read back from the snapshot and the logs.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,6 +82,24 @@ public class AvlPartition extends AbstractBTreePartition
     /** static logger */
     private static final Logger LOG = LoggerFactory.getLogger( AvlPartition.class );
 
+    /** The default number of logged records after which a snapshot is written */
+    public static final int DEFAULT_SNAPSHOT_THRESHOLD = 10000;
+
+    /** The directory where the snapshot and the log are stored, if any */
+    private File journalDirectory;
+
+    /** The number of logged records after which a snapshot is written */
+    private int snapshotThreshold = DEFAULT_SNAPSHOT_THRESHOLD;
+
+    /** The journal, if the partition is persistent */
+    private AvlPartitionJournal journal;
+
+    /** Tells if the tables are backed by packed trees rather than AVL trees */
+    private boolean packedTrees;
+
+    /** The aliases recovered from the journal, indexed once all the entries have been restored */
+    private Map<String, Dn[]> recoveredAliases;
+
 
     /**
      * Creates a store based on AVL Trees.
@@ -117,10 +163,427 @@ public class AvlPartition extends AbstractBTreePartition
             }
 
             // Create the master table (the table containing all the entries)
-            master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
+            master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false, packedTrees );
 
             super.doInit();
+
+            if ( journalDirectory != null )
+            {
+                recover();
+            }
+        }
+    }
+
+
+    /**
+     * Reloads the entries from the snapshot and the log, then writes a new snapshot
+     */
+    private void recover() throws LdapException
+    {
+        if ( !journalDirectory.exists() && !journalDirectory.mkdirs() )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_49046_CANNOT_READ_AVL_JOURNAL, journalDirectory,
+                "cannot create the directory" ) );
+        }
+
+        AvlPartitionJournal recovered = new AvlPartitionJournal( journalDirectory, schemaManager );
+
+        try
+        {
+            Map<String, EntryRecord> records = recovered.recover();
+
+            if ( !records.isEmpty() )
+            {
+                Map<String, Dn> restored = new HashMap<>();
+                recoveredAliases = new LinkedHashMap<>();
+
+                try ( PartitionTxn partitionTxn = beginWriteTransaction() )
+                {
+                    for ( String entryId : records.keySet() )
+                    {
+                        restore( partitionTxn, entryId, records, restored );
+                    }
+
+                    indexRecoveredAliases( partitionTxn );
+                }
+                finally
+                {
+                    recoveredAliases = null;
+                }
+
+                LOG.info( "Restored {} entries in the {} partition", restored.size(), id );
+            }
+
+            // Compact the log before accepting any new modification
+            recovered.snapshot( this );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_49046_CANNOT_READ_AVL_JOURNAL, journalDirectory,
+                ioe.getMessage() ), ioe );
+        }
+
+        journal = recovered;
+    }
+
+
+    /**
+     * Adds a recovered entry, after its parent
+     *
+     * @return The entry DN, or null if its parent has not been recovered
+     */
+    private Dn restore( PartitionTxn partitionTxn, String entryId, Map<String, EntryRecord> records,
+        Map<String, Dn> restored ) throws LdapException
+    {
+        Dn entryDn = restored.get( entryId );
+
+        if ( entryDn != null )
+        {
+            return entryDn;
+        }
+
+        EntryRecord entryRecord = records.get( entryId );
+
+        if ( entryRecord == null )
+        {
+            return null;
+        }
+
+        if ( Partition.ROOT_ID.equals( entryRecord.getParentId() ) )
+        {
+            // The context entry : its RDNs are the suffix ones
+            entryDn = new Dn( schemaManager, entryRecord.getRdns() );
+        }
+        else
+        {
+            entryDn = restore( partitionTxn, entryRecord.getParentId(), records, restored );
+
+            if ( entryDn == null )
+            {
+                LOG.warn( "Cannot restore the entry {}, its parent {} is missing", entryId,
+                    entryRecord.getParentId() );
+
+                return null;
+            }
+
+            for ( Rdn rdn : entryRecord.getRdns() )
+            {
+                entryDn = entryDn.add( rdn );
+            }
+        }
+
+        Entry entry = entryRecord.getEntry();
+        entry.setDn( entryDn );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( this );
+        addContext.setTransaction( partitionTxn );
+        super.add( addContext );
+
+        restored.put( entryId, entryDn );
+
+        return entryDn;
+    }
+
+
+    /**
+     * The aliases may have been recovered before their target, or their target may have been
+     * deleted : they are indexed when all the entries have been restored.
+     */
+    private void indexRecoveredAliases( PartitionTxn partitionTxn ) throws LdapException
+    {
+        Map<String, Dn[]> aliases = recoveredAliases;
+        recoveredAliases = null;
+
+        for ( Map.Entry<String, Dn[]> alias : aliases.entrySet() )
+        {
+            try
+            {
+                addAliasIndices( partitionTxn, alias.getKey(), alias.getValue()[0], alias.getValue()[1] );
+            }
+            catch ( LdapAliasException | LdapAliasDereferencingException e )
+            {
+                LOG.warn( "The recovered alias {} can't be indexed : {}", alias.getValue()[0], e.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void addAliasIndices( PartitionTxn partitionTxn, String aliasId, Dn aliasDn, Dn aliasTarget )
+        throws LdapException
+    {
+        if ( recoveredAliases != null )
+        {
+            recoveredAliases.put( aliasId, new Dn[]
+                { aliasDn, aliasTarget } );
+        }
+        else
+        {
+            super.addAliasIndices( partitionTxn, aliasId, aliasDn, aliasTarget );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( journal != null )
+        {
+            try
+            {
+                snapshot();
+                journal.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_49047_CANNOT_WRITE_AVL_JOURNAL, journalDirectory,
+                    ioe.getMessage() ), ioe );
+            }
+            finally
+            {
+                journal = null;
+            }
+        }
+
+        super.doDestroy( partitionTxn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        super.add( addContext );
+
+        logEntry( addContext.getTransaction(), addContext.getEntry().getDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry delete( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        Entry deletedEntry = super.delete( partitionTxn, id );
+
+        if ( journal != null )
+        {
+            try
+            {
+                compact( journal.delete( id, isSyncOnWrite.get() ) );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_49047_CANNOT_WRITE_AVL_JOURNAL, journalDirectory,
+                    ioe.getMessage() ), ioe );
+            }
         }
+
+        return deletedEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        super.modify( modifyContext );
+
+        logEntry( modifyContext.getTransaction(), modifyContext.getDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        super.move( moveContext );
+
+        // The descendants keep the same parent ID and RDN : only the moved entry has to be logged
+        logEntry( moveContext.getTransaction(), moveContext.getNewDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        super.moveAndRename( moveAndRenameContext );
+
+        logEntry( moveAndRenameContext.getTransaction(), moveAndRenameContext.getNewDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        super.rename( renameContext );
+
+        Dn newDn = renameContext.getNewDn();
+
+        if ( ( newDn == null ) && ( journal != null ) )
+        {
+            newDn = renameContext.getDn().getParent().add( renameContext.getNewRdn() );
+        }
+
+        logEntry( renameContext.getTransaction(), newDn );
+    }
+
+
+    /**
+     * Logs the new state of an entry, if the partition is persistent
+     */
+    private void logEntry( PartitionTxn partitionTxn, Dn dn ) throws LdapException
+    {
+        if ( journal == null )
+        {
+            return;
+        }
+
+        String entryId = getEntryId( partitionTxn, dn );
+        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, entryId );
+        Entry entry = master.get( partitionTxn, entryId );
+
+        if ( largeAttributes != null )
+        {
+            entry = largeAttributes.inflate( partitionTxn, entryId, entry );
+        }
+
+        try
+        {
+            compact( journal.put( entryId, parentIdAndRdn, entry, isSyncOnWrite.get() ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_49047_CANNOT_WRITE_AVL_JOURNAL, journalDirectory,
+                ioe.getMessage() ), ioe );
+        }
+    }
+
+
+    /**
+     * Seals the log when it's too long. It will be merged into the snapshot in the background.
+     */
+    private void compact( int nbRecords ) throws IOException
+    {
+        if ( nbRecords >= snapshotThreshold )
+        {
+            journal.rotate();
+        }
+    }
+
+
+    /**
+     * Writes all the entries in a new snapshot, and truncates the log
+     */
+    private void snapshot() throws LdapException, IOException
+    {
+        ReadWriteLock rwLock = getReadWriteLock();
+
+        if ( rwLock != null )
+        {
+            rwLock.readLock().lock();
+        }
+
+        try
+        {
+            journal.snapshot( this );
+        }
+        finally
+        {
+            if ( rwLock != null )
+            {
+                rwLock.readLock().unlock();
+            }
+        }
+    }
+
+
+    /**
+     * @return The directory where the snapshot and the log are stored, or null if the
+     * partition is not persistent
+     */
+    public File getJournalDirectory()
+    {
+        return journalDirectory;
+    }
+
+
+    /**
+     * Sets the directory where the snapshot and the log are stored. The partition is not
+     * persistent if it's not set.
+     *
+     * @param journalDirectory The journal directory
+     */
+    public void setJournalDirectory( File journalDirectory )
+    {
+        checkInitialized( "journalDirectory" );
+        this.journalDirectory = journalDirectory;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the master table and the indexes are backed by packed trees
+     */
+    public boolean isPackedTrees()
+    {
+        return packedTrees;
+    }
+
+
+    /**
+     * Tells if the master table and the indexes are backed by packed trees, which store the
+     * keys in array-packed leaves, rather than by AVL trees, which allocate a node per key. The
+     * packed trees use about half the memory. This is off by default.
+     *
+     * @param packedTrees <tt>true</tt> to use packed trees
+     */
+    public void setPackedTrees( boolean packedTrees )
+    {
+        checkInitialized( "packedTrees" );
+        this.packedTrees = packedTrees;
+    }
+
+
+    /**
+     * @return The number of logged records after which a snapshot is written
+     */
+    public int getSnapshotThreshold()
+    {
+        return snapshotThreshold;
+    }
+
+
+    /**
+     * @param snapshotThreshold The number of logged records after which a snapshot is written
+     */
+    public void setSnapshotThreshold( int snapshotThreshold )
+    {
+        if ( snapshotThreshold <= 0 )
+        {
+            snapshotThreshold = DEFAULT_SNAPSHOT_THRESHOLD;
+        }
+
+        this.snapshotThreshold = snapshotThreshold;
     }
 
 
@@ -143,12 +606,12 @@ public class AvlPartition extends AbstractBTreePartition
 
 
     /**
-     * always returns false, cause this is a in-memory store
+     * Always returns false when there is no journal, cause this is a in-memory store
      */
     @Override
     public boolean isSyncOnWrite()
     {
-        return false;
+        return ( journalDirectory != null ) && super.isSyncOnWrite();
     }
 
 
@@ -182,6 +645,7 @@ public class AvlPartition extends AbstractBTreePartition
             avlIndex = new AvlIndex( index.getAttributeId(), true );
         }
 
+        avlIndex.setPacked( packedTrees );
         avlIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
 
         return avlIndex;
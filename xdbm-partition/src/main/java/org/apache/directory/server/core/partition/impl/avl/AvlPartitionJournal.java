@@ -0,0 +1,725 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.avl;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.LargeAttributeTable;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The durable storage of an {@link AvlPartition} : a snapshot of all the entries, and an
+ * append-only log of the entries added, modified, moved or deleted since this snapshot.
+ * <p>
+ * Both files contain the same records, each one being framed as :
+ * <ul>
+ * <li>int : the record length</li>
+ * <li>int : the record CRC32</li>
+ * <li>byte[] : the record, a PUT (id, parent id, RDNs, entry) or a DELETE (id)</li>
+ * </ul>
+ * A PUT record always stores the full state of the entry, so the records don't have to be
+ * applied in any specific order, except that the last one for a given id wins. A torn record
+ * at the end of the log is ignored : it belongs to an operation which has not been completed.
+ * <p>
+ * When the log is too long, it's sealed : it's renamed as a numbered segment, and a new log
+ * is started. A background thread then merges the sealed segments into a new snapshot, which
+ * atomically replaces the previous one, and deletes them. This merge only reads the files, so
+ * the partition is never locked while the snapshot is written : the writers only pay for a
+ * rename. A crash during the merge is harmless, as the segments are replayed on recovery.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class AvlPartitionJournal implements Closeable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( AvlPartitionJournal.class );
+
+    /** The snapshot file name */
+    static final String SNAPSHOT_FILE = "avl-partition.snapshot";
+
+    /** The log file name */
+    static final String LOG_FILE = "avl-partition.log";
+
+    /** The sealed segments file name prefix, followed by the segment sequence number */
+    static final String SEGMENT_PREFIX = LOG_FILE + ".";
+
+    /** The record storing the new state of an entry */
+    private static final byte PUT = 0;
+
+    /** The record storing a deleted entry */
+    private static final byte DELETE = 1;
+
+    /** The directory containing the snapshot and the log */
+    private final File directory;
+
+    /** The SchemaManager instance */
+    private final SchemaManager schemaManager;
+
+    /** The log stream, opened in append mode */
+    private FileOutputStream logStream;
+
+    /** The number of records written in the log since the last snapshot */
+    private int nbRecords;
+
+    /** The sequence number of the next sealed segment */
+    private long nextSegment;
+
+    /** The thread merging the sealed segments into the snapshot, created when a segment is sealed */
+    private ExecutorService compactor;
+
+
+    /**
+     * A record read from the snapshot or the log : the last known state of an entry
+     */
+    static final class EntryRecord
+    {
+        /** The parent ID */
+        private final String parentId;
+
+        /** The entry RDNs */
+        private final Rdn[] rdns;
+
+        /** The entry */
+        private final Entry entry;
+
+
+        private EntryRecord( String parentId, Rdn[] rdns, Entry entry )
+        {
+            this.parentId = parentId;
+            this.rdns = rdns;
+            this.entry = entry;
+        }
+
+
+        /**
+         * @return The parent ID
+         */
+        String getParentId()
+        {
+            return parentId;
+        }
+
+
+        /**
+         * @return The entry RDNs
+         */
+        Rdn[] getRdns()
+        {
+            return rdns;
+        }
+
+
+        /**
+         * @return The entry
+         */
+        Entry getEntry()
+        {
+            return entry;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of AvlPartitionJournal.
+     *
+     * @param directory The directory containing the snapshot and the log
+     * @param schemaManager The SchemaManager instance
+     */
+    AvlPartitionJournal( File directory, SchemaManager schemaManager )
+    {
+        this.directory = directory;
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * Reads the snapshot, then applies the sealed segments and the log on top of it.
+     *
+     * @return The recovered entries, by ID
+     * @throws IOException If the snapshot or the log can't be read
+     */
+    Map<String, EntryRecord> recover() throws IOException
+    {
+        Map<String, byte[]> lastRecords = new LinkedHashMap<>();
+
+        int nbSnapshot = read( new File( directory, SNAPSHOT_FILE ), lastRecords );
+        int nbSegments = 0;
+
+        for ( File segment : segments() )
+        {
+            nbSegments += read( segment, lastRecords );
+            nextSegment = Math.max( nextSegment, sequence( segment ) + 1 );
+        }
+
+        int nbLog = read( new File( directory, LOG_FILE ), lastRecords );
+
+        LOG.debug( "Read {} records from the snapshot, {} from the sealed segments and {} from the log in {}",
+            nbSnapshot, nbSegments, nbLog, directory );
+
+        Map<String, EntryRecord> records = new LinkedHashMap<>();
+
+        for ( Map.Entry<String, byte[]> lastRecord : lastRecords.entrySet() )
+        {
+            records.put( lastRecord.getKey(), toEntryRecord( lastRecord.getValue() ) );
+        }
+
+        return records;
+    }
+
+
+    /**
+     * @return The sealed segments, oldest first
+     */
+    private List<File> segments()
+    {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                if ( sequence( file ) >= 0L )
+                {
+                    segments.add( file );
+                }
+            }
+        }
+
+        segments.sort( Comparator.comparingLong( AvlPartitionJournal::sequence ) );
+
+        return segments;
+    }
+
+
+    /**
+     * @return The sequence number of a sealed segment, or -1 if the file is not a segment
+     */
+    private static long sequence( File file )
+    {
+        String name = file.getName();
+
+        if ( !name.startsWith( SEGMENT_PREFIX ) || ( name.length() == SEGMENT_PREFIX.length() ) )
+        {
+            return -1L;
+        }
+
+        for ( int i = SEGMENT_PREFIX.length(); i < name.length(); i++ )
+        {
+            if ( !Character.isDigit( name.charAt( i ) ) )
+            {
+                return -1L;
+            }
+        }
+
+        return Long.parseLong( name.substring( SEGMENT_PREFIX.length() ) );
+    }
+
+
+    /**
+     * Reads all the complete records from a file, keeping the last one for each entry
+     */
+    private int read( File file, Map<String, byte[]> records ) throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return 0;
+        }
+
+        int nbRead = 0;
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            while ( true )
+            {
+                byte[] bytes;
+
+                try
+                {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+
+                    if ( length <= 0 )
+                    {
+                        LOG.warn( "Ignoring a corrupted record at the end of {}", file );
+
+                        return nbRead;
+                    }
+
+                    bytes = new byte[length];
+                    in.readFully( bytes );
+
+                    if ( crc != crc( bytes ) )
+                    {
+                        LOG.warn( "Ignoring a corrupted record at the end of {}", file );
+
+                        return nbRead;
+                    }
+                }
+                catch ( EOFException eofe )
+                {
+                    // Either the end of the file, or a torn record
+                    return nbRead;
+                }
+
+                apply( bytes, records );
+                nbRead++;
+            }
+        }
+    }
+
+
+    /**
+     * Applies a record on the last records read
+     */
+    private void apply( byte[] bytes, Map<String, byte[]> records ) throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            byte type = in.readByte();
+            String id = in.readUTF();
+
+            if ( type == DELETE )
+            {
+                records.remove( id );
+            }
+            else
+            {
+                // The record replaces the previous state of the entry, keeping its position
+                records.put( id, bytes );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the entry stored in a PUT record
+     */
+    private EntryRecord toEntryRecord( byte[] bytes ) throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            in.readByte();
+            in.readUTF();
+            String parentId = in.readUTF();
+            Rdn[] rdns = new Rdn[in.readInt()];
+
+            for ( int i = 0; i < rdns.length; i++ )
+            {
+                rdns[i] = new Rdn( schemaManager );
+                rdns[i].readExternal( in );
+            }
+
+            Entry entry = new DefaultEntry( schemaManager );
+            entry.readExternal( in );
+
+            return new EntryRecord( parentId, rdns, entry );
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+
+
+    /**
+     * Opens the log, discarding its current content : it must have been recovered, and a
+     * snapshot written, before.
+     *
+     * @throws IOException If the log can't be opened
+     */
+    synchronized void open() throws IOException
+    {
+        if ( logStream != null )
+        {
+            logStream.close();
+        }
+
+        logStream = new FileOutputStream( new File( directory, LOG_FILE ), false );
+        nbRecords = 0;
+    }
+
+
+    /**
+     * Logs the new state of an entry.
+     *
+     * @param id The entry ID
+     * @param parentIdAndRdn The entry parent ID and RDNs
+     * @param entry The entry
+     * @param sync If the log must be forced on disk
+     * @return The number of records logged since the last snapshot
+     * @throws IOException If the record can't be written
+     */
+    synchronized int put( String id, ParentIdAndRdn parentIdAndRdn, Entry entry, boolean sync ) throws IOException
+    {
+        write( logStream, putRecord( id, parentIdAndRdn, entry ) );
+
+        return flush( sync );
+    }
+
+
+    /**
+     * Logs a deleted entry.
+     *
+     * @param id The entry ID
+     * @param sync If the log must be forced on disk
+     * @return The number of records logged since the last snapshot
+     * @throws IOException If the record can't be written
+     */
+    synchronized int delete( String id, boolean sync ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            out.writeByte( DELETE );
+            out.writeUTF( id );
+            out.flush();
+
+            write( logStream, baos.toByteArray() );
+        }
+
+        return flush( sync );
+    }
+
+
+    private int flush( boolean sync ) throws IOException
+    {
+        logStream.flush();
+
+        if ( sync )
+        {
+            logStream.getFD().sync();
+        }
+
+        return ++nbRecords;
+    }
+
+
+    /**
+     * Seals the log, and starts a new one. The sealed segment is merged into the snapshot
+     * by a background thread.
+     *
+     * @throws IOException If the log can't be renamed
+     */
+    synchronized void rotate() throws IOException
+    {
+        logStream.close();
+        logStream = null;
+
+        File segment = new File( directory, SEGMENT_PREFIX + nextSegment++ );
+        Files.move( new File( directory, LOG_FILE ).toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE );
+
+        logStream = new FileOutputStream( new File( directory, LOG_FILE ), false );
+        nbRecords = 0;
+
+        if ( compactor == null )
+        {
+            compactor = Executors.newSingleThreadExecutor( runnable ->
+            {
+                Thread thread = new Thread( runnable, "avl-journal-compactor-" + directory.getName() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+        }
+
+        compactor.execute( this::compact );
+    }
+
+
+    /**
+     * Merges the sealed segments into a new snapshot, then deletes them. This is done on the
+     * compactor thread, reading the files only : the partition keeps on being modified, the
+     * new records going to the log.
+     */
+    private void compact()
+    {
+        List<File> segments = segments();
+
+        if ( segments.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            Map<String, byte[]> records = new LinkedHashMap<>();
+            read( new File( directory, SNAPSHOT_FILE ), records );
+
+            for ( File segment : segments )
+            {
+                read( segment, records );
+            }
+
+            writeSnapshot( records.values() );
+
+            for ( File segment : segments )
+            {
+                Files.delete( segment.toPath() );
+            }
+
+            LOG.debug( "Merged {} segments in a snapshot of {} entries in {}", segments.size(), records.size(),
+                directory );
+        }
+        catch ( IOException ioe )
+        {
+            // The segments are kept, and will be merged with the next ones
+            LOG.error( "Cannot merge the log segments in the snapshot in {} : {}", directory, ioe.getMessage() );
+        }
+    }
+
+
+    /**
+     * Writes the records in a temporary snapshot, which then replaces the current one
+     */
+    private void writeSnapshot( Collection<byte[]> records ) throws IOException
+    {
+        File tmpFile = new File( directory, SNAPSHOT_FILE + ".tmp" );
+
+        try ( FileOutputStream fos = new FileOutputStream( tmpFile );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fos ) ) )
+        {
+            for ( byte[] record : records )
+            {
+                write( out, record );
+            }
+
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        Files.move( tmpFile.toPath(), new File( directory, SNAPSHOT_FILE ).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Waits for the sealed segments being merged, and stops the compactor thread
+     */
+    private void stopCompactor() throws IOException
+    {
+        if ( compactor == null )
+        {
+            return;
+        }
+
+        compactor.shutdown();
+
+        try
+        {
+            compactor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException( ie.getMessage() );
+        }
+        finally
+        {
+            compactor = null;
+        }
+    }
+
+
+    /**
+     * Writes all the entries of the partition in a new snapshot, and truncates the log and
+     * the sealed segments. The caller must prevent any modification of the partition while the
+     * snapshot is written : this is only done when the partition is initialized or destroyed.
+     *
+     * @param partition The partition
+     * @throws IOException If the snapshot can't be written
+     * @throws LdapException If the entries can't be read
+     */
+    synchronized void snapshot( AvlPartition partition ) throws IOException, LdapException
+    {
+        stopCompactor();
+
+        File snapshotFile = new File( directory, SNAPSHOT_FILE );
+        File tmpFile = new File( directory, SNAPSHOT_FILE + ".tmp" );
+        LargeAttributeTable largeAttributes = partition.getLargeAttributeTable();
+        int nbEntries = 0;
+
+        try ( FileOutputStream fos = new FileOutputStream( tmpFile );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fos ) );
+            PartitionTxn partitionTxn = partition.beginReadTransaction();
+            Cursor<Tuple<String, Entry>> cursor = partition.getMasterTable().cursor() )
+        {
+            while ( cursor.next() )
+            {
+                Tuple<String, Entry> tuple = cursor.get();
+                String id = tuple.getKey();
+                Entry entry = tuple.getValue();
+
+                if ( largeAttributes != null )
+                {
+                    entry = largeAttributes.inflate( partitionTxn, id, entry );
+                }
+
+                write( out, putRecord( id, partition.getRdnIndex().reverseLookup( partitionTxn, id ), entry ) );
+                nbEntries++;
+            }
+
+            out.flush();
+            fos.getFD().sync();
+        }
+        catch ( CursorException ce )
+        {
+            throw new LdapOtherException( ce.getMessage(), ce );
+        }
+
+        Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+
+        // The snapshot contains everything : the segments and the log can be dropped
+        for ( File segment : segments() )
+        {
+            Files.delete( segment.toPath() );
+        }
+
+        open();
+
+        LOG.debug( "Wrote a snapshot of {} entries in {}", nbEntries, directory );
+    }
+
+
+    private byte[] putRecord( String id, ParentIdAndRdn parentIdAndRdn, Entry entry ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            out.writeByte( PUT );
+            out.writeUTF( id );
+            out.writeUTF( parentIdAndRdn.getParentId() );
+            out.writeInt( parentIdAndRdn.getRdns().length );
+
+            for ( Rdn rdn : parentIdAndRdn.getRdns() )
+            {
+                rdn.writeExternal( out );
+            }
+
+            if ( entry instanceof ClonedServerEntry )
+            {
+                // The master table may store the entry as it has been given by the operation
+                entry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
+            }
+
+            if ( entry.getDn() == null )
+            {
+                // The DN is not used : it's rebuilt from the RDNs
+                entry = entry.shallowClone();
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            entry.writeExternal( out );
+            out.flush();
+
+            return baos.toByteArray();
+        }
+    }
+
+
+    private static void write( OutputStream out, byte[] bytes ) throws IOException
+    {
+        int crc = crc( bytes );
+        byte[] header = new byte[]
+            {
+                ( byte ) ( bytes.length >>> 24 ),
+                ( byte ) ( bytes.length >>> 16 ),
+                ( byte ) ( bytes.length >>> 8 ),
+                ( byte ) bytes.length,
+                ( byte ) ( crc >>> 24 ),
+                ( byte ) ( crc >>> 16 ),
+                ( byte ) ( crc >>> 8 ),
+                ( byte ) crc
+            };
+
+        out.write( header );
+        out.write( bytes );
+    }
+
+
+    private static int crc( byte[] bytes )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( bytes, 0, bytes.length );
+
+        return ( int ) crc.getValue();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        stopCompactor();
+
+        if ( logStream != null )
+        {
+            logStream.close();
+            logStream = null;
+        }
+    }
+}
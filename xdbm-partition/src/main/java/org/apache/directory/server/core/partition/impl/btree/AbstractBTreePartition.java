@@ -40,8 +40,10 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAliasDereferencingException;
 import org.apache.directory.api.ldap.model.exception.LdapAliasException;
@@ -91,6 +93,7 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.LargeAttributeTable;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
@@ -150,6 +153,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** the master table storing entries by primary key */
     protected MasterTable master;
 
+    /** the table storing the values of the large attributes out of their entry, if any */
+    protected LargeAttributeTable largeAttributes;
+
+    /** The number of values from which an attribute is stored out of its entry, 0 to disable it */
+    protected int largeAttributeThreshold = 0;
+
     /** a map of attributeType numeric UUID to user userIndices */
     protected Map<String, Index<?, String>> userIndices = new HashMap<>();
 
@@ -328,6 +337,38 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The number of values from which a multi-valued attribute is stored out of its entry
+     */
+    public int getLargeAttributeThreshold()
+    {
+        return largeAttributeThreshold;
+    }
+
+
+    /**
+     * @return The table storing the values of the large attributes, or null if there is none
+     */
+    public LargeAttributeTable getLargeAttributeTable()
+    {
+        return largeAttributes;
+    }
+
+
+    /**
+     * Sets the number of values from which a multi-valued attribute (typically the
+     * members of a group) is stored out of its entry, so that adding or removing a
+     * value does not rewrite the whole entry. 0 disables it.
+     *
+     * @param largeAttributeThreshold The number of values
+     */
+    public void setLargeAttributeThreshold( int largeAttributeThreshold )
+    {
+        checkInitialized( "largeAttributeThreshold" );
+        this.largeAttributeThreshold = largeAttributeThreshold;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -592,6 +633,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             errors.addThrowable( t );
         }
 
+        if ( largeAttributes != null )
+        {
+            try
+            {
+                largeAttributes.close( partitionTxn );
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( I18n.err( I18n.ERR_49006_FAILED_TO_CLOSE_MASTER ), t );
+                errors.addThrowable( t );
+            }
+        }
+
         if ( errors.size() > 0 )
         {
             throw new LdapOtherException( errors.getMessage(), errors );
@@ -928,7 +982,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 setContextCsn( at.getString() );
 
                 // And finally add the entry into the master table
-                master.put( partitionTxn, id, entry );
+                if ( largeAttributes != null )
+                {
+                    master.put( partitionTxn, id, largeAttributes.deflate( partitionTxn, id, entry, true ) );
+                }
+                else
+                {
+                    master.put( partitionTxn, id, entry );
+                }
             }
             finally
             {
@@ -1066,7 +1127,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             try
             {
-                 entry = master.get( partitionTxn, id );
+                 entry = inflate( partitionTxn, id, master.get( partitionTxn, id ) );
             }
             finally
             {
@@ -1161,6 +1222,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
 
                 master.remove( partitionTxn, id );
+
+                if ( largeAttributes != null )
+                {
+                    largeAttributes.drop( partitionTxn, id, null );
+                }
             }
             finally
             {
@@ -1359,7 +1425,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             try
             {
                 rwLock.readLock().lock();
-                entry = master.get( partitionTxn, id );
+                entry = inflate( partitionTxn, id, master.get( partitionTxn, id ) );
             }
             finally
             {
@@ -1398,6 +1464,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     //---------------------------------------------------------------------------------------------
     /**
      * {@inheritDoc}
+     * <p>
+     * The values of the attributes stored out of the entry are not read back : such an
+     * attribute is present in the altered entry without any value, unless the modification
+     * needed all of them. A lookup returns the complete entry.
      */
     @Override
     public void modify( ModifyOperationContext modifyContext ) throws LdapException
@@ -1411,7 +1481,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             setRWLock( modifyContext );
 
-            Entry modifiedEntry = modify( partitionTxn, modifyContext.getDn(),
+            Entry modifiedEntry = modifyEntry( partitionTxn, getEntryId( partitionTxn, modifyContext.getDn() ),
                 modifyContext.getModItems().toArray( new Modification[]
                     {} ) );
 
@@ -1430,9 +1500,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
+    public final Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
     {
         String id = getEntryId( partitionTxn, dn );
+
+        return inflate( partitionTxn, id, modifyEntry( partitionTxn, id, mods ) );
+    }
+
+
+    /**
+     * Applies the modifications on an entry and stores it.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the primary key of the entry
+     * @param mods The list of modifications
+     * @return the modified entry, in which the attributes stored out of it may only be markers
+     * @throws LdapException If the modification failed
+     */
+    private synchronized Entry modifyEntry( PartitionTxn partitionTxn, String id, Modification... mods )
+        throws LdapException
+    {
         Entry entry = master.get( partitionTxn, id );
 
         for ( Modification mod : mods )
@@ -1441,6 +1528,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             try
             { 
+                if ( ( largeAttributes != null ) && largeAttributes.isOutOfLine( entry.get( attrMods.getAttributeType() ) ) )
+                {
+                    if ( modifyOutOfLine( partitionTxn, id, entry, mod ) )
+                    {
+                        continue;
+                    }
+                }
+
                 switch ( mod.getOperation() )
                 {
                     case ADD_ATTRIBUTE:
@@ -1476,12 +1571,97 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         setContextCsn( entry.get( entryCsnAT ).getString() );
         
-        master.put( partitionTxn, id, entry );
+        if ( largeAttributes != null )
+        {
+            master.put( partitionTxn, id, largeAttributes.deflate( partitionTxn, id, entry, false ) );
+        }
+        else
+        {
+            master.put( partitionTxn, id, entry );
+        }
 
         return entry;
     }
 
 
+    /**
+     * Applies a modification on an attribute which values are stored out of the entry.
+     * Adding or removing some values is done directly in the large attributes table
+     * and in the attribute index, without reading the other values. Any other
+     * modification needs all the values: they are moved back into the entry, which
+     * will be stored again when the entry is put in the master table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the primary key of the entry
+     * @param entry the entry read from the master table
+     * @param mod the modification to apply
+     * @return <tt>true</tt> if the modification has been applied
+     * @throws LdapException If the modification failed
+     */
+    @SuppressWarnings("unchecked")
+    private boolean modifyOutOfLine( PartitionTxn partitionTxn, String id, Entry entry, Modification mod )
+        throws LdapException, IndexNotFoundException
+    {
+        Attribute mods = mod.getAttribute();
+        AttributeType attributeType = mods.getAttributeType();
+        ModificationOperation operation = mod.getOperation();
+
+        if ( ( mods.size() == 0 ) || ( ( operation != ModificationOperation.ADD_ATTRIBUTE )
+            && ( operation != ModificationOperation.REMOVE_ATTRIBUTE ) ) )
+        {
+            Attribute values = new DefaultAttribute( mods.getUpId(), attributeType );
+            largeAttributes.load( partitionTxn, id, values );
+            largeAttributes.drop( partitionTxn, id, attributeType );
+            entry.put( values );
+
+            return false;
+        }
+
+        Index<?, String> userIndex = null;
+
+        if ( hasUserIndexOn( attributeType ) )
+        {
+            userIndex = getUserIndex( attributeType );
+        }
+
+        for ( Value value : mods )
+        {
+            if ( operation == ModificationOperation.ADD_ATTRIBUTE )
+            {
+                largeAttributes.add( partitionTxn, id, attributeType, value );
+
+                if ( userIndex != null )
+                {
+                    ( ( Index ) userIndex ).add( partitionTxn, value.getNormalized(), id );
+                }
+            }
+            else
+            {
+                largeAttributes.remove( partitionTxn, id, attributeType, value );
+
+                if ( userIndex != null )
+                {
+                    ( ( Index ) userIndex ).drop( partitionTxn, value.getNormalized(), id );
+                }
+            }
+        }
+
+        // The last value has been removed : remove the marker
+        if ( ( operation == ModificationOperation.REMOVE_ATTRIBUTE )
+            && !largeAttributes.hasValues( partitionTxn, id, attributeType ) )
+        {
+            entry.removeAttributes( attributeType );
+
+            if ( userIndex != null )
+            {
+                presenceIdx.drop( partitionTxn, attributeType.getOid(), id );
+            }
+        }
+
+        return true;
+    }
+
+
     /**
      * Adds a set of attribute values while affecting the appropriate userIndices.
      * The entry is not persisted: it is only changed in anticipation for a put
@@ -2194,7 +2374,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
-        master.put( partitionTxn, entryId, modifiedEntry );
+        storeEntry( partitionTxn, entryId, modifiedEntry );
 
         if ( isSyncOnWrite.get() )
         {
@@ -2375,7 +2555,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         // save the modified entry at the new place
-        master.put( partitionTxn, entryId, modifiedEntry );
+        storeEntry( partitionTxn, entryId, modifiedEntry );
     }
     
     
@@ -2496,7 +2676,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( entry == null )
         {
-            entry = master.get( partitionTxn, oldId );
+            entry = inflate( partitionTxn, oldId, master.get( partitionTxn, oldId ) );
         }
 
         Dn updn = entry.getDn();
@@ -2646,7 +2826,43 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setContextCsn( entry.get( entryCsnAT ).getString() );
 
         // And save the modified entry
-        master.put( partitionTxn, oldId, entry );
+        storeEntry( partitionTxn, oldId, entry );
+    }
+
+
+    /**
+     * Adds the values of the attributes stored out of the entry to an entry read
+     * from the master table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the primary key of the entry
+     * @param entry the entry read from the master table
+     * @return the full entry
+     * @throws LdapException If the values can't be read
+     */
+    protected Entry inflate( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        if ( largeAttributes == null )
+        {
+            return entry;
+        }
+
+        return largeAttributes.inflate( partitionTxn, id, entry );
+    }
+
+
+    /**
+     * Stores a full entry in the master table, the values of its large attributes
+     * being stored out of it.
+     */
+    private void storeEntry( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        if ( largeAttributes != null )
+        {
+            entry = largeAttributes.deflate( partitionTxn, id, entry, false );
+        }
+
+        master.put( partitionTxn, id, entry );
     }
 
 
@@ -3871,7 +4087,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             origEntry.add( contextCsnAT, contextCsn );
             
-            master.put( partitionTxn, contextEntryId, origEntry );
+            storeEntry( partitionTxn, contextEntryId, origEntry );
             
             ctxCsnChanged = false;
             
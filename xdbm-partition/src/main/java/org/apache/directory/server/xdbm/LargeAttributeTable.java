@@ -0,0 +1,461 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.UsageEnum;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A table storing the values of the large multi-valued attributes (typically
+ * the members of a big group) out of their entry. Once an attribute has reached
+ * the threshold, its values are stored in this table, one tuple per value, and
+ * the entry stored in the master table only keeps an empty attribute as a marker.
+ * Adding or removing a value is then a single update in this table, instead of
+ * a rewrite of the whole entry.
+ * <p>
+ * The tuples are keyed by &lt;entry ID&gt;\0&lt;attributeType OID&gt;\0&lt;normalized value&gt;,
+ * so that all the values of an attribute are contiguous, and the value is the
+ * user provided value.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LargeAttributeTable
+{
+    /** The name of the underlying table */
+    public static final String TABLE_NAME = "largeAttributes";
+
+    /** The key parts separator */
+    private static final char SEPARATOR = '\u0000';
+
+    /** The table storing the values */
+    private final Table<String, String> table;
+
+    /** The number of values from which an attribute is stored out of its entry */
+    private final int threshold;
+
+
+    /**
+     * Creates a new instance of LargeAttributeTable.
+     *
+     * @param table The table storing the values
+     * @param threshold The number of values from which an attribute is stored out of
+     * its entry. If 0 or below, the table is only used to read the already stored attributes.
+     */
+    public LargeAttributeTable( Table<String, String> table, int threshold )
+    {
+        this.table = table;
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * @return The underlying table
+     */
+    public Table<String, String> getTable()
+    {
+        return table;
+    }
+
+
+    /**
+     * @return The number of values from which an attribute is stored out of its entry
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+
+    /**
+     * Tells if an AttributeType can be stored out of its entry. Only the multi-valued
+     * human readable user attributes can, the ObjectClass, AliasedObjectName and
+     * AdministrativeRole attributes always stay in the entry as they have dedicated
+     * system indexes.
+     *
+     * @param attributeType The AttributeType to check
+     * @return <tt>true</tt> if the attribute values can be stored in this table
+     */
+    public boolean isEligible( AttributeType attributeType )
+    {
+        if ( attributeType.isSingleValued() || ( attributeType.getUsage() != UsageEnum.USER_APPLICATIONS ) )
+        {
+            return false;
+        }
+
+        if ( ( attributeType.getSyntax() == null ) || !attributeType.getSyntax().isHumanReadable() )
+        {
+            return false;
+        }
+
+        String oid = attributeType.getOid();
+
+        return !SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid )
+            && !SchemaConstants.ALIASED_OBJECT_NAME_AT_OID.equals( oid )
+            && !SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID.equals( oid );
+    }
+
+
+    /**
+     * Tells if an attribute read from the master table is a marker for values stored
+     * in this table.
+     *
+     * @param attribute The attribute to check
+     * @return <tt>true</tt> if the attribute is a marker
+     */
+    public boolean isOutOfLine( Attribute attribute )
+    {
+        return ( attribute != null ) && ( attribute.size() == 0 ) && isEligible( attribute.getAttributeType() );
+    }
+
+
+    /**
+     * Tells if an entry read from the master table, or returned by a modification,
+     * still has some markers in place of the values of its out of line attributes.
+     *
+     * @param entry The entry to check
+     * @return <tt>true</tt> if the entry has to be inflated to be complete
+     */
+    public boolean hasOutOfLine( Entry entry )
+    {
+        for ( Attribute attribute : entry )
+        {
+            if ( isOutOfLine( attribute ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Adds a value of an out of line attribute.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The attribute's AttributeType
+     * @param value The value to add
+     * @throws LdapException If the value can't be added
+     */
+    public void add( PartitionTxn partitionTxn, String id, AttributeType attributeType, Value value )
+        throws LdapException
+    {
+        table.put( partitionTxn, key( id, attributeType, value.getNormalized() ), value.getString() );
+    }
+
+
+    /**
+     * Removes a value of an out of line attribute.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The attribute's AttributeType
+     * @param value The value to remove
+     * @throws LdapException If the value can't be removed
+     */
+    public void remove( PartitionTxn partitionTxn, String id, AttributeType attributeType, Value value )
+        throws LdapException
+    {
+        String key = key( id, attributeType, value.getNormalized() );
+
+        if ( table.has( partitionTxn, key ) )
+        {
+            table.remove( partitionTxn, key );
+        }
+    }
+
+
+    /**
+     * Tells if an out of line attribute has at least one value.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The attribute's AttributeType
+     * @return <tt>true</tt> if there is a value for this attribute in the table
+     * @throws LdapException If the table can't be read
+     */
+    public boolean hasValues( PartitionTxn partitionTxn, String id, AttributeType attributeType ) throws LdapException
+    {
+        String prefix = prefix( id, attributeType );
+
+        return !keys( prefix, 1 ).isEmpty();
+    }
+
+
+    /**
+     * Reads all the values of an out of line attribute, and adds them to the given
+     * attribute.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attribute The attribute to fill
+     * @throws LdapException If the table can't be read
+     */
+    public void load( PartitionTxn partitionTxn, String id, Attribute attribute ) throws LdapException
+    {
+        String prefix = prefix( id, attribute.getAttributeType() );
+
+        try ( Cursor<Tuple<String, String>> cursor = table.cursor() )
+        {
+            cursor.before( new Tuple<String, String>( prefix, null ) );
+
+            while ( cursor.next() )
+            {
+                Tuple<String, String> tuple = cursor.get();
+
+                if ( !tuple.getKey().startsWith( prefix ) )
+                {
+                    break;
+                }
+
+                attribute.add( tuple.getValue() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Removes all the values of an attribute, or of all the attributes of an entry
+     * if the AttributeType is null.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The AttributeType, or null
+     * @throws LdapException If the values can't be removed
+     */
+    public void drop( PartitionTxn partitionTxn, String id, AttributeType attributeType ) throws LdapException
+    {
+        String prefix = ( attributeType == null ) ? id + SEPARATOR : prefix( id, attributeType );
+
+        for ( String key : keys( prefix, Integer.MAX_VALUE ) )
+        {
+            table.remove( partitionTxn, key );
+        }
+    }
+
+
+    /**
+     * Gets the entry to store in the master table: the attributes which have reached
+     * the threshold, or which values are already stored in this table, are replaced
+     * by markers and their values are stored in this table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The full entry
+     * @param isNew Tells if the entry is being added, in which case nothing is yet stored
+     * for it in this table
+     * @return The entry to store, which is a copy if some attributes are out of line
+     * @throws LdapException If the table can't be updated
+     */
+    public Entry deflate( PartitionTxn partitionTxn, String id, Entry entry, boolean isNew ) throws LdapException
+    {
+        List<Attribute> outOfLine = null;
+
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( ( attributeType == null ) || ( attribute.size() == 0 ) || !isEligible( attributeType ) )
+            {
+                continue;
+            }
+
+            if ( ( ( threshold > 0 ) && ( attribute.size() >= threshold ) )
+                || ( !isNew && hasValues( partitionTxn, id, attributeType ) ) )
+            {
+                if ( outOfLine == null )
+                {
+                    outOfLine = new ArrayList<>();
+                }
+
+                outOfLine.add( attribute );
+            }
+        }
+
+        if ( outOfLine == null )
+        {
+            return entry;
+        }
+
+        // The attributes are shared with the given entry, only the out of line ones are replaced
+        Entry stored = entry.shallowClone();
+
+        for ( Attribute attribute : outOfLine )
+        {
+            if ( isNew )
+            {
+                for ( Value value : attribute )
+                {
+                    add( partitionTxn, id, attribute.getAttributeType(), value );
+                }
+            }
+            else
+            {
+                store( partitionTxn, id, attribute );
+            }
+
+            stored.put( new DefaultAttribute( attribute.getUpId(), attribute.getAttributeType() ) );
+        }
+
+        return stored;
+    }
+
+
+    /**
+     * Gets the full entry from an entry read from the master table: the markers are
+     * replaced by the attribute values stored in this table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The entry read from the master table
+     * @return The full entry, which is a copy if some attributes are out of line
+     * @throws LdapException If the table can't be read
+     */
+    public Entry inflate( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        Entry inflated = entry;
+
+        for ( Attribute attribute : entry )
+        {
+            if ( isOutOfLine( attribute ) )
+            {
+                if ( inflated == entry )
+                {
+                    inflated = entry.shallowClone();
+                }
+
+                Attribute values = new DefaultAttribute( attribute.getUpId(), attribute.getAttributeType() );
+                load( partitionTxn, id, values );
+                inflated.put( values );
+            }
+        }
+
+        return inflated;
+    }
+
+
+    /**
+     * Closes the underlying table.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the table can't be closed
+     */
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        table.close( partitionTxn );
+    }
+
+
+    /**
+     * Makes the table content for an attribute the same as the attribute values.
+     */
+    private void store( PartitionTxn partitionTxn, String id, Attribute attribute ) throws LdapException
+    {
+        Set<String> stored = new HashSet<>( keys( prefix( id, attribute.getAttributeType() ), Integer.MAX_VALUE ) );
+
+        for ( Value value : attribute )
+        {
+            String key = key( id, attribute.getAttributeType(), value.getNormalized() );
+
+            if ( !stored.remove( key ) )
+            {
+                table.put( partitionTxn, key, value.getString() );
+            }
+        }
+
+        for ( String key : stored )
+        {
+            table.remove( partitionTxn, key );
+        }
+    }
+
+
+    /**
+     * Reads at most max keys starting with the given prefix.
+     */
+    private List<String> keys( String prefix, int max ) throws LdapException
+    {
+        List<String> keys = new ArrayList<>();
+
+        try ( Cursor<Tuple<String, String>> cursor = table.cursor() )
+        {
+            cursor.before( new Tuple<String, String>( prefix, null ) );
+
+            while ( ( keys.size() < max ) && cursor.next() )
+            {
+                String key = cursor.get().getKey();
+
+                if ( !key.startsWith( prefix ) )
+                {
+                    break;
+                }
+
+                keys.add( key );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return keys;
+    }
+
+
+    private static String prefix( String id, AttributeType attributeType )
+    {
+        return id + SEPARATOR + attributeType.getOid() + SEPARATOR;
+    }
+
+
+    private static String key( String id, AttributeType attributeType, String normalized )
+    {
+        return prefix( id, attributeType ) + normalized;
+    }
+}
@@ -53,6 +53,9 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     protected AvlTable<K, String> forward;
     protected AvlTable<String, K> reverse;
 
+    /** Tells if the tables are backed by packed trees rather than AVL trees */
+    protected boolean packed;
+
 
     public AvlIndex()
     {
@@ -72,6 +75,27 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     }
 
 
+    /**
+     * @return <tt>true</tt> if the tables are backed by packed trees rather than AVL trees
+     */
+    public boolean isPacked()
+    {
+        return packed;
+    }
+
+
+    /**
+     * Tells if the tables are backed by packed trees rather than AVL trees. This must be
+     * set before the index is initialized.
+     *
+     * @param packed <tt>true</tt> to use packed trees
+     */
+    public void setPacked( boolean packed )
+    {
+        this.packed = packed;
+    }
+
+
     public void init( SchemaManager schemaManager, AttributeType attributeType ) throws LdapException
     {
         this.attributeType = attributeType;
@@ -102,7 +126,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
          * primary keys.  A value for an attribute can occur several times in
          * different entries so the forward map can have more than one value.
          */
-        forward = new AvlTable<>( attributeType.getName(), comp, UuidComparator.INSTANCE, true );
+        forward = new AvlTable<>( attributeType.getName(), comp, UuidComparator.INSTANCE, true, packed );
 
         /*
          * Now the reverse map stores the primary key into the master table as
@@ -114,11 +138,11 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
         {
             if ( attributeType.isSingleValued() )
             {
-                reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
+                reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, false, packed );
             }
             else
             {
-                reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
+                reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, true, packed );
             }
         }
     }
@@ -42,6 +42,13 @@ public class AvlMasterTable extends AvlTable<String, Entry> implements MasterTab
     }
 
 
+    public AvlMasterTable( String name, Comparator<String> keyComparator, Comparator<Entry> valComparator,
+        boolean dupsEnabled, boolean packed )
+    {
+        super( name, keyComparator, valComparator, dupsEnabled, packed );
+    }
+
+
     /**
      * {@inheritDoc}
      */
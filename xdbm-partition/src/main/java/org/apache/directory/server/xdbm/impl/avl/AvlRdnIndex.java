@@ -85,8 +85,8 @@ public class AvlRdnIndex extends AvlIndex<ParentIdAndRdn>
          * different entries so the forward map can have more than one value.
          */
         forward = new AvlTable<ParentIdAndRdn, String>( attributeType.getName(), comp, UuidComparator.INSTANCE,
-            false );
+            false, packed );
         reverse = new AvlTable<String, ParentIdAndRdn>( attributeType.getName(), UuidComparator.INSTANCE, comp,
-            false );
+            false, packed );
     }
 }
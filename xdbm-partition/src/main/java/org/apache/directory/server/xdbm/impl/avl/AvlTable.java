@@ -36,12 +36,15 @@ import org.apache.directory.server.core.avltree.AvlTreeMapImpl;
 import org.apache.directory.server.core.avltree.AvlTreeMapNoDupsWrapperCursor;
 import org.apache.directory.server.core.avltree.KeyTupleAvlCursor;
 import org.apache.directory.server.core.avltree.LinkedAvlMapNode;
+import org.apache.directory.server.core.avltree.PackedTreeMap;
 import org.apache.directory.server.core.avltree.SingletonOrOrderedSet;
 import org.apache.directory.server.xdbm.AbstractTable;
 
 
 /**
- * A Table implementation backed by in memory AVL tree.
+ * A Table implementation backed by in memory AVL tree. The table can also be backed by
+ * a {@link PackedTreeMap}, which stores the keys in array-packed leaves, and uses about
+ * half the memory of an AVL tree.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -53,9 +56,34 @@ public class AvlTable<K, V> extends AbstractTable<K, V>
 
     public AvlTable( String name, final Comparator<K> keyComparator, final Comparator<V> valueComparator,
         boolean dupsEnabled )
+    {
+        this( name, keyComparator, valueComparator, dupsEnabled, false );
+    }
+
+
+    /**
+     * Creates a new instance of AvlTable.
+     *
+     * @param name The table name
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param dupsEnabled If the table accepts duplicate keys
+     * @param packed If the table is backed by a {@link PackedTreeMap} rather than an AVL tree
+     */
+    public AvlTable( String name, final Comparator<K> keyComparator, final Comparator<V> valueComparator,
+        boolean dupsEnabled, boolean packed )
     {
         super( null, name, keyComparator, valueComparator );
-        this.avl = new AvlTreeMapImpl<>( keyComparator, valueComparator, dupsEnabled );
+
+        if ( packed )
+        {
+            this.avl = new PackedTreeMap<>( keyComparator, valueComparator, dupsEnabled );
+        }
+        else
+        {
+            this.avl = new AvlTreeMapImpl<>( keyComparator, valueComparator, dupsEnabled );
+        }
+
         allowsDuplicates = this.avl.isDupsAllowed();
         this.keyOnlytupleComparator = new Comparator<Tuple<K, V>>()
         {
@@ -73,7 +101,14 @@ public class AvlTable<K, V> extends AbstractTable<K, V>
     @Override
     public void close( PartitionTxn transaction ) throws LdapException
     {
-        ( ( AvlTreeMapImpl<K, V> ) avl ).removeAll();
+        if ( avl instanceof PackedTreeMap )
+        {
+            ( ( PackedTreeMap<K, V> ) avl ).removeAll();
+        }
+        else
+        {
+            ( ( AvlTreeMapImpl<K, V> ) avl ).removeAll();
+        }
     }
 
 
@@ -0,0 +1,328 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the persistence of the AvlPartition in a snapshot and a log.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.SAME_THREAD)
+public class AvlPartitionJournalTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+
+    @TempDir
+    public File journalDirectory;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+    }
+
+
+    private AvlPartition createPartition( int snapshotThreshold ) throws Exception
+    {
+        AvlPartition partition = new AvlPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.setJournalDirectory( journalDirectory );
+        partition.setSnapshotThreshold( snapshotThreshold );
+        partition.initialize();
+
+        return partition;
+    }
+
+
+    /**
+     * @return true if some sealed segments have not been merged in the snapshot yet
+     */
+    private boolean hasSegments()
+    {
+        File[] segments = journalDirectory.listFiles( ( dir, name ) -> name.startsWith( "avl-partition.log." ) );
+
+        return ( segments != null ) && ( segments.length > 0 );
+    }
+
+
+    /**
+     * Waits for the sealed segments to be merged in the snapshot
+     */
+    private void waitForSnapshot() throws Exception
+    {
+        for ( int i = 0; ( i < 100 ) && hasSegments(); i++ )
+        {
+            Thread.sleep( 50L );
+        }
+
+        assertFalse( hasSegments() );
+        assertTrue( new File( journalDirectory, "avl-partition.snapshot" ).exists() );
+    }
+
+
+    private Entry lookup( AvlPartition partition, String dn ) throws Exception
+    {
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            String id = partition.getEntryId( txn, new Dn( schemaManager, dn ) );
+
+            if ( id == null )
+            {
+                return null;
+            }
+
+            return partition.fetch( txn, id );
+        }
+    }
+
+
+    @Test
+    public void testRecoverFromTheLog() throws Exception
+    {
+        AvlPartition partition = createPartition( 1000 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        Dn walker = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        Modification mod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( SchemaConstants.SN_AT ), "Walker" ) );
+        ModifyOperationContext modifyContext = new ModifyOperationContext( null, walker,
+            Collections.<Modification>singletonList( mod ) );
+        modifyContext.setTransaction( partition.beginWriteTransaction() );
+        partition.modify( modifyContext );
+
+        DeleteOperationContext deleteContext = new DeleteOperationContext( null,
+            new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ) );
+        deleteContext.setTransaction( partition.beginWriteTransaction() );
+        partition.delete( deleteContext );
+
+        // Move a subtree : its children must follow
+        MoveOperationContext moveContext = new MoveOperationContext( null,
+            new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." ),
+            new Dn( schemaManager, "ou=Engineering,o=Good Times Co." ) );
+        moveContext.setTransaction( partition.beginWriteTransaction() );
+        partition.move( moveContext );
+
+        RenameOperationContext renameContext = new RenameOperationContext( null, walker,
+            new Rdn( schemaManager, "cn=John Walker" ), true );
+        renameContext.setTransaction( partition.beginWriteTransaction() );
+        partition.rename( renameContext );
+
+        // Don't destroy the partition : the log has not been compacted, as after a crash
+        assertTrue( new File( journalDirectory, "avl-partition.log" ).length() > 0L );
+
+        AvlPartition recovered = createPartition( 1000 );
+
+        try ( PartitionTxn txn = recovered.beginReadTransaction() )
+        {
+            assertEquals( 10, recovered.count( txn ) );
+        }
+
+        assertNull( lookup( recovered, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ) );
+        assertNull( lookup( recovered, walker.getName() ) );
+
+        Entry johnny = lookup( recovered, "cn=John Walker,ou=Sales,o=Good Times Co." );
+        assertNotNull( johnny );
+        assertTrue( johnny.contains( "sn", "Walker" ) );
+        assertNotNull( lookup( recovered,
+            "ou=Apache,ou=Board of Directors,ou=Engineering,o=Good Times Co." ) );
+
+        recovered.destroy( null );
+        partition.destroy( null );
+    }
+
+
+    @Test
+    public void testRecoverFromTheSnapshot() throws Exception
+    {
+        AvlPartition partition = createPartition( 4 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        // The snapshot is written in the background
+        waitForSnapshot();
+
+        partition.destroy( null );
+
+        // The partition has been compacted when destroyed
+        assertEquals( 0L, new File( journalDirectory, "avl-partition.log" ).length() );
+
+        AvlPartition recovered = createPartition( 4 );
+
+        try ( PartitionTxn txn = recovered.beginReadTransaction() )
+        {
+            assertEquals( 11, recovered.count( txn ) );
+        }
+
+        Entry entry = lookup( recovered, "ou=Sales,o=Good Times Co." );
+        assertNotNull( entry );
+        assertTrue( entry.contains( SchemaConstants.OU_AT, "Sales" ) );
+
+        recovered.destroy( null );
+    }
+
+
+    @Test
+    public void testIgnoreTornRecord() throws Exception
+    {
+        AvlPartition partition = createPartition( 1000 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        // A record which has not been completely written
+        try ( FileOutputStream out = new FileOutputStream( new File( journalDirectory, "avl-partition.log" ),
+            true ) )
+        {
+            out.write( new byte[]
+                { 0x00, 0x00, 0x01, 0x00, 0x12, 0x34, 0x56, 0x78, 0x01, 0x02 } );
+        }
+
+        AvlPartition recovered = createPartition( 1000 );
+
+        try ( PartitionTxn txn = recovered.beginReadTransaction() )
+        {
+            assertEquals( 11, recovered.count( txn ) );
+        }
+
+        recovered.destroy( null );
+        partition.destroy( null );
+    }
+
+
+    @Test
+    public void testRecoverFromTheBackgroundSnapshot() throws Exception
+    {
+        AvlPartition partition = createPartition( 4 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+        waitForSnapshot();
+
+        // Don't destroy the partition : only the background snapshot and the log are there
+
+        AvlPartition recovered = createPartition( 4 );
+
+        try ( PartitionTxn txn = recovered.beginReadTransaction() )
+        {
+            assertEquals( 11, recovered.count( txn ) );
+        }
+
+        assertNotNull( lookup( recovered, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." ) );
+
+        recovered.destroy( null );
+        partition.destroy( null );
+    }
+
+
+    @Test
+    public void testRecoverFromASealedSegment() throws Exception
+    {
+        AvlPartition partition = createPartition( 1000 );
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        // A crash after the log has been sealed, before it has been merged in the snapshot
+        File log = new File( journalDirectory, "avl-partition.log" );
+        assertTrue( log.renameTo( new File( journalDirectory, "avl-partition.log.3" ) ) );
+
+        DeleteOperationContext deleteContext = new DeleteOperationContext( null,
+            new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ) );
+        deleteContext.setTransaction( partition.beginWriteTransaction() );
+        partition.delete( deleteContext );
+
+        AvlPartition recovered = createPartition( 1000 );
+
+        try ( PartitionTxn txn = recovered.beginReadTransaction() )
+        {
+            assertEquals( 10, recovered.count( txn ) );
+        }
+
+        assertNull( lookup( recovered, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ) );
+
+        // The recovery has merged the segment in the snapshot
+        assertFalse( hasSegments() );
+
+        recovered.destroy( null );
+        partition.destroy( null );
+    }
+}
@@ -143,6 +143,15 @@ public class AvlPartitionTest
     }
 
 
+    /**
+     * @return <tt>true</tt> if the partition is backed by packed trees
+     */
+    protected boolean isPacked()
+    {
+        return false;
+    }
+
+
     @BeforeEach
     public void createStore() throws Exception
     {
@@ -152,6 +161,7 @@ public class AvlPartitionTest
         partition = new AvlPartition( schemaManager, dnFactory );
         partition.setId( "example" );
         partition.setSyncOnWrite( false );
+        partition.setPackedTrees( isPacked() );
 
         partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
         partition.addIndex( new AvlIndex<String>( SchemaConstants.UID_AT_OID ) );
@@ -53,12 +53,21 @@ public class AvlTableTest
     PartitionTxn txn;
 
 
+    /**
+     * @return <tt>true</tt> if the tables are backed by packed trees
+     */
+    protected boolean isPacked()
+    {
+        return false;
+    }
+
+
     @BeforeEach
     public void setUp()
     {
         txn = new MockPartitionReadTxn();
-        dups = new AvlTable<Integer, Integer>( "dups", comparator, comparator, true );
-        nodups = new AvlTable<Integer, Integer>( "nodups", comparator, comparator, false );
+        dups = new AvlTable<Integer, Integer>( "dups", comparator, comparator, true, isPacked() );
+        nodups = new AvlTable<Integer, Integer>( "nodups", comparator, comparator, false, isPacked() );
     }
 
 